@@ -54,7 +54,7 @@ import com.aptana.parsing.ast.IParseNode;
  * 
  * @author cwilliams
  */
-public abstract class AbstractBuildParticipant implements IBuildParticipant, IExecutableExtension
+public abstract class AbstractBuildParticipant implements IThreadSafeBuildParticipant, IExecutableExtension
 {
 
 	private static final IScopeContext[] CONTEXTS = new IScopeContext[] { InstanceScope.INSTANCE, DefaultScope.INSTANCE };
@@ -71,9 +71,11 @@ public abstract class AbstractBuildParticipant implements IBuildParticipant, IEx
 	private static final String NAME = "name"; //$NON-NLS-1$
 	private static final String ID = "id"; //$NON-NLS-1$
 	private static final String ATTR_PRIORITY = "priority"; //$NON-NLS-1$
+	private static final String ATTR_THREAD_SAFE = "threadSafe"; //$NON-NLS-1$
 	public static final int DEFAULT_PRIORITY = 50;
 
 	private int fPriority = DEFAULT_PRIORITY;
+	private boolean fThreadSafe;
 	private Set<IContentType> contentTypes = Collections.emptySet();
 	private String fId;
 	private String fName;
@@ -106,6 +108,15 @@ public abstract class AbstractBuildParticipant implements IBuildParticipant, IEx
 		return fId;
 	}
 
+	/**
+	 * Participants aren't thread-safe unless their extension says so. Note that this class keeps per-file state
+	 * ({@link #fDocument}), subclasses declaring themselves thread-safe must not rely on it.
+	 */
+	public boolean isThreadSafe()
+	{
+		return fThreadSafe;
+	}
+
 	/**
 	 * By default participants are not 'required'. We override this for many of our own builtin ones that perform
 	 * indexing/task detection, etc.
@@ -366,6 +377,7 @@ public abstract class AbstractBuildParticipant implements IBuildParticipant, IEx
 						"Unable to parse priority value ({0}) as an integer, defaulting to 50.", rawPriority), e); //$NON-NLS-1$
 			}
 		}
+		this.fThreadSafe = Boolean.parseBoolean(config.getAttribute(ATTR_THREAD_SAFE));
 		this.fId = config.getAttribute(ID);
 		this.fName = config.getAttribute(NAME);
 		this.contributor = config.getContributor().getName();
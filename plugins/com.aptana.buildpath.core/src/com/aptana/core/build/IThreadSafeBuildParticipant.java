@@ -0,0 +1,29 @@
+/**
+ * Aptana Studio
+ * Copyright (c) 2014 by Appcelerator, Inc. All Rights Reserved.
+ * Licensed under the terms of the Eclipse Public License (EPL).
+ * Please see the license-epl.html included with this distribution for details.
+ * Any modifications to this file must keep this entire header intact.
+ */
+package com.aptana.core.build;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+
+import com.aptana.index.core.build.BuildContext;
+
+/**
+ * Optional interface for build participants that can tell the builder whether they may build several files at once.
+ * Participants that don't implement it are never called for more than one file at a time.
+ * {@link AbstractBuildParticipant} implements it using the "threadSafe" attribute of the participant's extension.
+ */
+public interface IThreadSafeBuildParticipant extends IBuildParticipant
+{
+	/**
+	 * Can {@link #buildFile(BuildContext, IProgressMonitor)} be called for different files at the same time? When the
+	 * builder builds files in parallel, a participant that isn't thread-safe is still only called for one file at a
+	 * time.
+	 * 
+	 * @return
+	 */
+	public boolean isThreadSafe();
+}
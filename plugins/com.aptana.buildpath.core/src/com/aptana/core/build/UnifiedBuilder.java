@@ -11,10 +11,21 @@ import java.net.URI;
 import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.eclipse.core.filesystem.EFS;
 import org.eclipse.core.filesystem.IFileStore;
@@ -33,8 +44,13 @@ import org.eclipse.core.resources.ResourcesPlugin;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IPath;
 import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.core.runtime.Platform;
+import org.eclipse.core.runtime.Status;
 import org.eclipse.core.runtime.SubMonitor;
 import org.eclipse.core.runtime.jobs.ISchedulingRule;
+import org.eclipse.core.runtime.jobs.MultiRule;
 
 import com.aptana.buildpath.core.BuildPathCorePlugin;
 import com.aptana.buildpath.core.BuildPathManager;
@@ -63,6 +79,24 @@ public class UnifiedBuilder extends IncrementalProjectBuilder
 {
 
 	public static final String ID = "com.aptana.ide.core.unifiedBuilder"; //$NON-NLS-1$
+
+	/**
+	 * The number of threads used to build files. 1 builds serially on the builder thread.
+	 */
+	public static final String BUILD_WORKER_COUNT = "BUILD_WORKER_COUNT"; //$NON-NLS-1$
+	public static final int DEFAULT_BUILD_WORKER_COUNT = 1;
+	private static final int MAX_WORKER_COUNT = 16;
+
+	/**
+	 * The number of files a worker builds at a time. Markers are updated once per chunk.
+	 */
+	private static final int FILES_PER_CHUNK = 20;
+
+	/**
+	 * How often (in ms) the builder thread wakes up to check for cancellation while workers are building.
+	 */
+	private static final long POLL_INTERVAL = 100;
+
 	private boolean traceParticipantsEnabled = false;
 
 	public UnifiedBuilder()
@@ -507,6 +541,13 @@ public class UnifiedBuilder extends IncrementalProjectBuilder
 			return;
 		}
 
+		int workers = Math.min(getWorkerCount(), (files.size() + FILES_PER_CHUNK - 1) / FILES_PER_CHUNK);
+		if (workers > 1)
+		{
+			doBuildFilesInParallel(participants, files, workers, monitor);
+			return;
+		}
+
 		SubMonitor sub = SubMonitor.convert(monitor, 15 * files.size());
 		for (IFile file : files)
 		{
@@ -533,6 +574,212 @@ public class UnifiedBuilder extends IncrementalProjectBuilder
 		sub.done();
 	}
 
+	/**
+	 * Builds chunks of files on a bounded pool of worker threads. Each file's participants still run one after the
+	 * other in priority order and share the file's context (and so its parse). Participants that aren't declared
+	 * thread-safe are only ever run by one worker at a time. Markers are updated on the builder thread, which holds the
+	 * build's scheduling rule, in a single workspace operation per chunk. All workers have stopped by the time this
+	 * method returns.
+	 * 
+	 * @param participants
+	 * @param files
+	 * @param workers
+	 * @param monitor
+	 * @throws CoreException
+	 */
+	private void doBuildFilesInParallel(final List<IBuildParticipant> participants, Collection<IFile> files,
+			int workers, IProgressMonitor monitor) throws CoreException
+	{
+		final IBuildParticipantManager manager = getBuildParticipantManager();
+		if (manager == null)
+		{
+			return;
+		}
+
+		// One lock per participant that can't run on several files at once
+		final Map<IBuildParticipant, Object> locks = new HashMap<IBuildParticipant, Object>();
+		for (IBuildParticipant participant : participants)
+		{
+			if (!isThreadSafe(participant))
+			{
+				locks.put(participant, new Object());
+			}
+		}
+
+		final AtomicBoolean canceled = new AtomicBoolean(false);
+		// Participants running on workers only get to see the cancellation flag, SubMonitor is not thread-safe
+		final IProgressMonitor workerMonitor = new NullProgressMonitor()
+		{
+			@Override
+			public boolean isCanceled()
+			{
+				return canceled.get();
+			}
+		};
+
+		List<IFile> fileList = new ArrayList<IFile>(files);
+		SubMonitor sub = SubMonitor.convert(monitor, 15 * fileList.size());
+		ExecutorService executor = Executors.newFixedThreadPool(workers);
+		CompletionService<List<BuildContext>> completion = new ExecutorCompletionService<List<BuildContext>>(executor);
+		CoreException failure = null;
+		try
+		{
+			int chunks = 0;
+			for (int start = 0; start < fileList.size(); start += FILES_PER_CHUNK)
+			{
+				final List<IFile> chunk = fileList.subList(start, Math.min(start + FILES_PER_CHUNK, fileList.size()));
+				completion.submit(new Callable<List<BuildContext>>()
+				{
+					public List<BuildContext> call() throws Exception
+					{
+						return buildChunk(chunk, participants, manager, locks, workerMonitor);
+					}
+				});
+				chunks++;
+			}
+
+			while (chunks > 0)
+			{
+				if (sub.isCanceled())
+				{
+					canceled.set(true);
+					break;
+				}
+
+				Future<List<BuildContext>> future = completion.poll(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+				if (future == null)
+				{
+					continue;
+				}
+				chunks--;
+				try
+				{
+					List<BuildContext> contexts = future.get();
+					updateMarkers(contexts, sub.newChild(15 * contexts.size()));
+				}
+				catch (ExecutionException e)
+				{
+					// stop like the serial build does when a participant blows up
+					canceled.set(true);
+					Throwable cause = e.getCause();
+					failure = (cause instanceof CoreException) ? (CoreException) cause : new CoreException(
+							new Status(IStatus.ERROR, BuildPathCorePlugin.PLUGIN_ID, cause.getMessage(), cause));
+					break;
+				}
+			}
+		}
+		catch (InterruptedException e)
+		{
+			canceled.set(true);
+			Thread.currentThread().interrupt();
+		}
+		finally
+		{
+			// Don't interrupt workers, participants may be in the middle of writing to an index. They stop at the next
+			// file once they see the cancellation flag, and we wait for them so buildEnding runs after them.
+			executor.shutdown();
+			boolean interrupted = false;
+			while (!executor.isTerminated())
+			{
+				try
+				{
+					executor.awaitTermination(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+				}
+				catch (InterruptedException e)
+				{
+					interrupted = true;
+				}
+			}
+			if (interrupted)
+			{
+				Thread.currentThread().interrupt();
+			}
+			sub.done();
+		}
+
+		if (failure != null)
+		{
+			throw failure;
+		}
+	}
+
+	/**
+	 * Runs on a worker thread: builds each file of the chunk with its participants and returns the contexts holding the
+	 * problems found, so the builder thread can update the markers.
+	 * 
+	 * @param files
+	 * @param participants
+	 * @param manager
+	 * @param locks
+	 * @param monitor
+	 * @return
+	 * @throws CoreException
+	 */
+	private List<BuildContext> buildChunk(List<IFile> files, List<IBuildParticipant> participants,
+			IBuildParticipantManager manager, Map<IBuildParticipant, Object> locks, IProgressMonitor monitor)
+			throws CoreException
+	{
+		List<BuildContext> contexts = new ArrayList<BuildContext>(files.size());
+		for (IFile file : files)
+		{
+			if (monitor.isCanceled())
+			{
+				break;
+			}
+
+			BuildContext context = new BuildContext(file);
+			List<IBuildParticipant> filteredParticipants = manager.filterParticipants(participants,
+					context.getContentType());
+			for (IBuildParticipant participant : filteredParticipants)
+			{
+				Object lock = locks.get(participant);
+				if (lock == null)
+				{
+					buildFile(participant, context, monitor);
+				}
+				else
+				{
+					synchronized (lock)
+					{
+						buildFile(participant, context, monitor);
+					}
+				}
+
+				// stop building if it has been canceled
+				if (monitor.isCanceled())
+				{
+					break;
+				}
+			}
+			contexts.add(context);
+		}
+		return contexts;
+	}
+
+	/**
+	 * Only participants implementing {@link IThreadSafeBuildParticipant} can say they're thread-safe.
+	 * 
+	 * @param participant
+	 * @return
+	 */
+	private static boolean isThreadSafe(IBuildParticipant participant)
+	{
+		return (participant instanceof IThreadSafeBuildParticipant)
+				&& ((IThreadSafeBuildParticipant) participant).isThreadSafe();
+	}
+
+	/**
+	 * Returns the number of threads to build files with, see {@link #BUILD_WORKER_COUNT}.
+	 * 
+	 * @return
+	 */
+	protected int getWorkerCount()
+	{
+		int count = Platform.getPreferencesService().getInt(BuildPathCorePlugin.PLUGIN_ID, BUILD_WORKER_COUNT,
+				DEFAULT_BUILD_WORKER_COUNT, null);
+		return Math.max(1, Math.min(count, MAX_WORKER_COUNT));
+	}
+
 	/**
 	 * FIXME This is a holy hell of a mess! We map from IFiles to IFileStores, then filter on that, then map back! Can't
 	 * we make the IIndexFilterParticipants also operate on IFiles? It seems like the only impl does anyways.
@@ -610,16 +857,7 @@ public class UnifiedBuilder extends IncrementalProjectBuilder
 		SubMonitor sub = SubMonitor.convert(monitor, 2 * participants.size());
 		for (IBuildParticipant participant : participants)
 		{
-			long startTime = System.nanoTime();
-			participant.buildFile(context, sub.newChild(1));
-			if (traceParticipantsEnabled)
-			{
-				double endTime = ((double) System.nanoTime() - startTime) / 1000000;
-				IdeLog.logTrace(
-						BuildPathCorePlugin.getDefault(),
-						MessageFormat
-								.format("Executed build participant ''{0}'' on ''{1}'' in {2} ms.", participant.getName(), context.getURI(), endTime), IDebugScopes.BUILDER_PARTICIPANTS); //$NON-NLS-1$
-			}
+			buildFile(participant, context, sub.newChild(1));
 
 			// stop building if it has been canceled
 			if (sub.isCanceled())
@@ -627,31 +865,73 @@ public class UnifiedBuilder extends IncrementalProjectBuilder
 				break;
 			}
 		}
-		updateMarkers(context, sub.newChild(participants.size()));
+		updateMarkers(Collections.singletonList(context), sub.newChild(participants.size()));
 		sub.done();
 	}
 
-	private void updateMarkers(BuildContext context, IProgressMonitor monitor)
+	private void buildFile(IBuildParticipant participant, BuildContext context, IProgressMonitor monitor)
+	{
+		long startTime = System.nanoTime();
+		participant.buildFile(context, monitor);
+		if (traceParticipantsEnabled)
+		{
+			double endTime = ((double) System.nanoTime() - startTime) / 1000000;
+			IdeLog.logTrace(
+					BuildPathCorePlugin.getDefault(),
+					MessageFormat
+							.format("Executed build participant ''{0}'' on ''{1}'' in {2} ms.", participant.getName(), context.getURI(), endTime), IDebugScopes.BUILDER_PARTICIPANTS); //$NON-NLS-1$
+		}
+	}
+
+	/**
+	 * Writes the problems collected in the contexts out as markers on their files.
+	 * 
+	 * @param contexts
+	 * @param monitor
+	 */
+	private void updateMarkers(List<BuildContext> contexts, IProgressMonitor monitor)
 	{
-		final IFile file = context.getFile();
-		final Map<String, Collection<IProblem>> itemsByType = context.getProblems();
-		if (CollectionsUtil.isEmpty(itemsByType))
+		final Map<IFile, Map<String, Collection<IProblem>>> itemsByFile = new HashMap<IFile, Map<String, Collection<IProblem>>>(
+				contexts.size());
+		List<ISchedulingRule> rules = new ArrayList<ISchedulingRule>(contexts.size());
+		for (BuildContext context : contexts)
+		{
+			IFile file = context.getFile();
+			Map<String, Collection<IProblem>> itemsByType = context.getProblems();
+			if (file != null && !CollectionsUtil.isEmpty(itemsByType))
+			{
+				itemsByFile.put(file, itemsByType);
+				ISchedulingRule rule = getMarkerRule(file);
+				if (rule != null)
+				{
+					rules.add(rule);
+				}
+			}
+		}
+		if (itemsByFile.isEmpty())
 		{
 			return;
 		}
 		// Performance fix: schedules the error handling as a single workspace update so that we don't trigger a
-		// bunch of resource updated events while problem markers are being added to the file.
+		// bunch of resource updated events while problem markers are being added to the files.
 		IWorkspaceRunnable runnable = new IWorkspaceRunnable()
 		{
 			public void run(IProgressMonitor monitor)
 			{
-				updateMarkers(file, itemsByType, monitor);
+				SubMonitor sub = SubMonitor.convert(monitor, itemsByFile.size());
+				for (Map.Entry<IFile, Map<String, Collection<IProblem>>> entry : itemsByFile.entrySet())
+				{
+					updateMarkers(entry.getKey(), entry.getValue(), sub.newChild(1));
+				}
+				sub.done();
 			}
 		};
 
 		try
 		{
-			ResourcesPlugin.getWorkspace().run(runnable, getMarkerRule(file), IWorkspace.AVOID_UPDATE, monitor);
+			ISchedulingRule rule = rules.isEmpty() ? null : MultiRule.combine(rules.toArray(new ISchedulingRule[rules
+					.size()]));
+			ResourcesPlugin.getWorkspace().run(runnable, rule, IWorkspace.AVOID_UPDATE, monitor);
 		}
 		catch (CoreException e)
 		{
@@ -672,8 +952,7 @@ public class UnifiedBuilder extends IncrementalProjectBuilder
 		return null;
 	}
 
-	private synchronized void updateMarkers(IFile file, Map<String, Collection<IProblem>> itemsByType,
-			IProgressMonitor monitor)
+	private void updateMarkers(IFile file, Map<String, Collection<IProblem>> itemsByType, IProgressMonitor monitor)
 	{
 		if (!file.exists())
 		{
@@ -24,6 +24,7 @@ import com.aptana.buildpath.core.BuildPathCorePlugin;
 import com.aptana.core.build.AbstractBuildParticipant;
 import com.aptana.core.build.IBuildParticipant;
 import com.aptana.core.build.IBuildParticipantWorkingCopy;
+import com.aptana.core.build.IThreadSafeBuildParticipant;
 import com.aptana.core.build.PreferenceUtil;
 import com.aptana.core.logging.IdeLog;
 import com.aptana.core.util.CollectionsUtil;
@@ -35,7 +36,7 @@ import com.aptana.index.core.build.BuildContext;
  * 
  * @author cwilliams
  */
-public class BuildParticipantWorkingCopy implements IBuildParticipantWorkingCopy
+public class BuildParticipantWorkingCopy implements IBuildParticipantWorkingCopy, IThreadSafeBuildParticipant
 {
 	private IBuildParticipant wrapped;
 	private Boolean enabledForBuild;
@@ -153,6 +154,12 @@ public class BuildParticipantWorkingCopy implements IBuildParticipantWorkingCopy
 		return wrapped.isRequired();
 	}
 
+	public boolean isThreadSafe()
+	{
+		return (wrapped instanceof IThreadSafeBuildParticipant)
+				&& ((IThreadSafeBuildParticipant) wrapped).isThreadSafe();
+	}
+
 	public List<String> getFilters()
 	{
 		if (filters != null)
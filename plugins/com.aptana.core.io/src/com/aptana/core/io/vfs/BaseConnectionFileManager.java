@@ -645,6 +645,16 @@ public abstract class BaseConnectionFileManager implements IConnectionFileManage
 		}
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * @see com.aptana.core.io.vfs.IConnectionFileManager#getMaxConcurrentTransfers()
+	 */
+	public int getMaxConcurrentTransfers()
+	{
+		// By default streams share the one connection
+		return 1;
+	}
+
 	protected abstract void testConnection(boolean force);
 
 	protected abstract boolean canUseTemporaryFile(IPath path, ExtendedFileInfo fileInfo, IProgressMonitor monitor);
@@ -44,4 +44,12 @@ public interface IConnectionFileManager {
 	
 	public void move(IPath sourcePath, IPath destinationPath, int options, IProgressMonitor monitor) throws CoreException;
 
+	/**
+	 * Returns how many file streams can be open at the same time, i.e. because each one is served by its own
+	 * connection. Control operations are always serialized.
+	 *
+	 * @return the maximum number of concurrent transfers, at least 1
+	 */
+	public int getMaxConcurrentTransfers();
+
 }
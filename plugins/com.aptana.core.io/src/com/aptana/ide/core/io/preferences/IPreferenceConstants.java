@@ -54,4 +54,10 @@ public interface IPreferenceConstants
 	 * Preference for which files to be cloaked by default during file transfer operations
 	 */
 	public static final String GLOBAL_CLOAKING_EXTENSIONS = "GLOBAL_CLOAKING_EXTENSIONS"; //$NON-NLS-1$
+
+	/**
+	 * Preference for the maximum number of files transferred at once (over separate connections) when synchronizing
+	 * with a site
+	 */
+	public static final String CONCURRENT_TRANSFERS = "ConcurrentTransfers"; //$NON-NLS-1$
 }
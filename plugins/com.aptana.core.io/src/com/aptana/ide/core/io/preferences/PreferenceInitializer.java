@@ -18,6 +18,7 @@ public class PreferenceInitializer extends AbstractPreferenceInitializer
 
 	public static final long DEFAULT_FILE_PERMISSIONS = 0666;
 	public static final long DEFAULT_DIRECTORY_PERMISSIONS = 0777;
+	public static final int DEFAULT_CONCURRENT_TRANSFERS = 4;
 	public static final String DEFAULT_CLOAK_EXPRESSIONS = ".svn;.tmp*~;.settings;CVS;.git;.DS_Store"; //$NON-NLS-1$
 
 	@Override
@@ -33,5 +34,6 @@ public class PreferenceInitializer extends AbstractPreferenceInitializer
 		prefs.putLong(IPreferenceConstants.DOWNLOAD_FILE_PERMISSION, DEFAULT_FILE_PERMISSIONS);
 		prefs.putLong(IPreferenceConstants.DOWNLOAD_FOLDER_PERMISSION, DEFAULT_DIRECTORY_PERMISSIONS);
 		prefs.put(IPreferenceConstants.GLOBAL_CLOAKING_EXTENSIONS, DEFAULT_CLOAK_EXPRESSIONS);
+		prefs.putInt(IPreferenceConstants.CONCURRENT_TRANSFERS, DEFAULT_CONCURRENT_TRANSFERS);
 	}
 }
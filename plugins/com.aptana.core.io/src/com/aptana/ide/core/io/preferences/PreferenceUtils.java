@@ -101,6 +101,15 @@ public class PreferenceUtils
 		return PreferenceInitializer.DEFAULT_DIRECTORY_PERMISSIONS;
 	}
 
+	/**
+	 * @return the maximum number of files to transfer at once when synchronizing; always at least 1
+	 */
+	public static int getConcurrentTransfers()
+	{
+		return Math.max(1, Platform.getPreferencesService().getInt(CoreIOPlugin.PLUGIN_ID,
+				IPreferenceConstants.CONCURRENT_TRANSFERS, PreferenceInitializer.DEFAULT_CONCURRENT_TRANSFERS, null));
+	}
+
 	/**
 	 * Sets if the new files and folders should get their permissions updated after transferring.
 	 * 
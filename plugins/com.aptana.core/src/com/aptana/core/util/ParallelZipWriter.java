@@ -0,0 +1,428 @@
+/**
+ * Aptana Studio
+ * Copyright (c) 2013 by Appcelerator, Inc. All Rights Reserved.
+ * Licensed under the terms of the GNU Public License (GPL) v3 (with exceptions).
+ * Please see the license.html included with this distribution for details.
+ * Any modifications to this file must keep this entire header intact.
+ */
+package com.aptana.core.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipException;
+
+/**
+ * Writes a zip archive whose entries are deflated on several threads at once. {@link java.util.zip.ZipOutputStream}
+ * can only deflate an entry while writing it, so this writes the archive format itself: files are read and deflated
+ * in memory by a pool of workers, a few entries ahead of the one being written, and copied to the output in order.
+ * Files too big to hold in memory are deflated straight into the output on the calling thread (with the CRC and sizes
+ * following the data) while the workers keep going with the files after them.
+ * <p>
+ * Entries that don't get smaller when deflated are stored. Zip64 isn't supported: archives can hold at most
+ * {@link #MAX_ENTRIES} entries and 4GB.
+ */
+/* package */class ParallelZipWriter
+{
+
+	/**
+	 * The most entries an archive without zip64 extensions can hold.
+	 */
+	static final int MAX_ENTRIES = 0xFFFF;
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * Files bigger than this are deflated into the output as they're read rather than in memory by a worker.
+	 */
+	private static final long MAX_BUFFERED_SIZE = 4 * 1024 * 1024;
+
+	private static final int THREADS = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * How many entries the workers may get ahead of the one being written.
+	 */
+	private static final int LOOK_AHEAD = THREADS * 2;
+
+	private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+	private static final int DATA_DESCRIPTOR_SIGNATURE = 0x08074b50;
+	private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+	private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+
+	private static final int FLAG_DATA_DESCRIPTOR = 0x0008;
+	private static final int FLAG_UTF8 = 0x0800;
+
+	private static final int METHOD_STORED = 0;
+	private static final int METHOD_DEFLATED = 8;
+
+	private static final int VERSION_STORED = 10;
+	private static final int VERSION_DEFLATED = 20;
+
+	private static final long MAX_SIZE = 0xFFFFFFFFL;
+
+	private static class Entry
+	{
+		final byte[] name;
+		final int time;
+		final int method;
+		final int flags;
+		long crc;
+		long compressedSize;
+		long size;
+		long offset;
+		byte[] data;
+
+		Entry(String name, long time, int method, int flags) throws IOException
+		{
+			this.name = name.getBytes(IOUtil.UTF_8);
+			this.time = toDosTime(time);
+			this.method = method;
+			this.flags = flags | FLAG_UTF8;
+		}
+
+		int getVersion()
+		{
+			return (method == METHOD_DEFLATED) ? VERSION_DEFLATED : VERSION_STORED;
+		}
+	}
+
+	private final OutputStream out;
+	private final List<Entry> entries = new ArrayList<Entry>();
+	private long written;
+
+	/**
+	 * @param out
+	 *            where the archive goes; should be buffered. It isn't closed.
+	 */
+	ParallelZipWriter(OutputStream out)
+	{
+		this.out = out;
+	}
+
+	/**
+	 * Writes the whole archive.
+	 * 
+	 * @param files
+	 * @param names
+	 *            the entry name for each file
+	 * @throws IOException
+	 */
+	void write(final List<File> files, final List<String> names) throws IOException
+	{
+		if (files.size() > MAX_ENTRIES)
+		{
+			throw new ZipException("Too many entries for a zip archive: " + files.size()); //$NON-NLS-1$
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS, new ThreadFactory()
+		{
+			public Thread newThread(Runnable r)
+			{
+				Thread thread = new Thread(r, "Zip Deflater"); //$NON-NLS-1$
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		try
+		{
+			// null stands for a file that's too big to deflate in memory
+			LinkedList<Future<Entry>> pending = new LinkedList<Future<Entry>>();
+			int next = 0;
+			for (int i = 0; i < files.size(); i++)
+			{
+				for (; next < files.size() && next <= i + LOOK_AHEAD; next++)
+				{
+					final File file = files.get(next);
+					final String name = names.get(next);
+					if (file.length() > MAX_BUFFERED_SIZE)
+					{
+						pending.add(null);
+						continue;
+					}
+					pending.add(executor.submit(new Callable<Entry>()
+					{
+						public Entry call() throws IOException
+						{
+							return deflate(file, name);
+						}
+					}));
+				}
+				Future<Entry> future = pending.removeFirst();
+				if (future == null)
+				{
+					writeStreamed(files.get(i), names.get(i));
+				}
+				else
+				{
+					writeBuffered(get(future));
+				}
+			}
+			writeCentralDirectory();
+			out.flush();
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+	}
+
+	private static Entry get(Future<Entry> future) throws IOException
+	{
+		try
+		{
+			return future.get();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while compressing"); //$NON-NLS-1$
+		}
+		catch (ExecutionException e)
+		{
+			if (e.getCause() instanceof IOException)
+			{
+				throw (IOException) e.getCause();
+			}
+			IOException ioe = new IOException(e.getCause().getMessage());
+			ioe.initCause(e.getCause());
+			throw ioe;
+		}
+	}
+
+	/**
+	 * Reads and deflates a file in memory. Runs on a worker.
+	 */
+	private static Entry deflate(File file, String name) throws IOException
+	{
+		byte[] content = read(file);
+		CRC32 crc = new CRC32();
+		crc.update(content);
+
+		ByteArrayOutputStream deflated = new ByteArrayOutputStream(content.length / 2 + 64);
+		Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		try
+		{
+			deflater.setInput(content);
+			deflater.finish();
+			byte[] buffer = new byte[BUFFER_SIZE];
+			while (!deflater.finished() && deflated.size() < content.length)
+			{
+				int length = deflater.deflate(buffer);
+				deflated.write(buffer, 0, length);
+			}
+		}
+		finally
+		{
+			deflater.end();
+		}
+
+		Entry entry;
+		if (deflated.size() < content.length)
+		{
+			entry = new Entry(name, file.lastModified(), METHOD_DEFLATED, 0);
+			entry.data = deflated.toByteArray();
+		}
+		else
+		{
+			entry = new Entry(name, file.lastModified(), METHOD_STORED, 0);
+			entry.data = content;
+		}
+		entry.crc = crc.getValue();
+		entry.size = content.length;
+		entry.compressedSize = entry.data.length;
+		return entry;
+	}
+
+	private static byte[] read(File file) throws IOException
+	{
+		InputStream in = new FileInputStream(file);
+		try
+		{
+			ByteArrayOutputStream content = new ByteArrayOutputStream((int) file.length());
+			byte[] buffer = new byte[BUFFER_SIZE];
+			for (int length = in.read(buffer); length >= 0; length = in.read(buffer))
+			{
+				content.write(buffer, 0, length);
+			}
+			return content.toByteArray();
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+
+	private void writeBuffered(Entry entry) throws IOException
+	{
+		writeLocalHeader(entry);
+		write(entry.data, 0, entry.data.length);
+		// don't hold on to the contents of everything until the end
+		entry.data = null;
+	}
+
+	/**
+	 * Deflates a big file into the output as it's read. The CRC and sizes aren't known until the end, so they follow
+	 * the data in a data descriptor.
+	 */
+	private void writeStreamed(File file, String name) throws IOException
+	{
+		Entry entry = new Entry(name, file.lastModified(), METHOD_DEFLATED, FLAG_DATA_DESCRIPTOR);
+		writeLocalHeader(entry);
+		long start = written;
+
+		CRC32 crc = new CRC32();
+		Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		InputStream in = new FileInputStream(file);
+		try
+		{
+			byte[] input = new byte[BUFFER_SIZE];
+			byte[] output = new byte[BUFFER_SIZE];
+			for (int length = in.read(input); length >= 0; length = in.read(input))
+			{
+				crc.update(input, 0, length);
+				entry.size += length;
+				deflater.setInput(input, 0, length);
+				while (!deflater.needsInput())
+				{
+					write(output, 0, deflater.deflate(output));
+				}
+			}
+			deflater.finish();
+			while (!deflater.finished())
+			{
+				write(output, 0, deflater.deflate(output));
+			}
+		}
+		finally
+		{
+			in.close();
+			deflater.end();
+		}
+		entry.crc = crc.getValue();
+		entry.compressedSize = written - start;
+		checkSize(entry.size);
+		checkSize(entry.compressedSize);
+
+		writeInt(DATA_DESCRIPTOR_SIGNATURE);
+		writeInt(entry.crc);
+		writeInt(entry.compressedSize);
+		writeInt(entry.size);
+	}
+
+	private void writeLocalHeader(Entry entry) throws IOException
+	{
+		if (entries.size() == MAX_ENTRIES)
+		{
+			throw new ZipException("Too many entries for a zip archive"); //$NON-NLS-1$
+		}
+		checkSize(written);
+		entry.offset = written;
+		entries.add(entry);
+
+		boolean descriptor = (entry.flags & FLAG_DATA_DESCRIPTOR) != 0;
+		writeInt(LOCAL_HEADER_SIGNATURE);
+		writeShort(entry.getVersion());
+		writeShort(entry.flags);
+		writeShort(entry.method);
+		writeInt(entry.time);
+		writeInt(descriptor ? 0 : entry.crc);
+		writeInt(descriptor ? 0 : entry.compressedSize);
+		writeInt(descriptor ? 0 : entry.size);
+		writeShort(entry.name.length);
+		writeShort(0);
+		write(entry.name, 0, entry.name.length);
+	}
+
+	private void writeCentralDirectory() throws IOException
+	{
+		checkSize(written);
+		long start = written;
+		for (Entry entry : entries)
+		{
+			writeInt(CENTRAL_HEADER_SIGNATURE);
+			writeShort(entry.getVersion()); // made by
+			writeShort(entry.getVersion()); // needed to extract
+			writeShort(entry.flags);
+			writeShort(entry.method);
+			writeInt(entry.time);
+			writeInt(entry.crc);
+			writeInt(entry.compressedSize);
+			writeInt(entry.size);
+			writeShort(entry.name.length);
+			writeShort(0); // extra field length
+			writeShort(0); // comment length
+			writeShort(0); // disk number
+			writeShort(0); // internal attributes
+			writeInt(0); // external attributes
+			writeInt(entry.offset);
+			write(entry.name, 0, entry.name.length);
+		}
+		long size = written - start;
+		checkSize(written);
+
+		writeInt(END_OF_CENTRAL_DIRECTORY_SIGNATURE);
+		writeShort(0); // this disk
+		writeShort(0); // disk with the central directory
+		writeShort(entries.size());
+		writeShort(entries.size());
+		writeInt(size);
+		writeInt(start);
+		writeShort(0); // comment length
+	}
+
+	private static void checkSize(long size) throws ZipException
+	{
+		if (size > MAX_SIZE)
+		{
+			throw new ZipException("Zip archive too large"); //$NON-NLS-1$
+		}
+	}
+
+	private void write(byte[] bytes, int offset, int length) throws IOException
+	{
+		out.write(bytes, offset, length);
+		written += length;
+	}
+
+	private void writeShort(int value) throws IOException
+	{
+		out.write(value & 0xFF);
+		out.write((value >>> 8) & 0xFF);
+		written += 2;
+	}
+
+	private void writeInt(long value) throws IOException
+	{
+		writeShort((int) (value & 0xFFFF));
+		writeShort((int) ((value >>> 16) & 0xFFFF));
+	}
+
+	private static int toDosTime(long time)
+	{
+		Calendar calendar = Calendar.getInstance();
+		calendar.setTimeInMillis(time);
+		int year = calendar.get(Calendar.YEAR);
+		if (year < 1980)
+		{
+			// 1980-01-01, the earliest a zip can tell
+			return (1 << 21) | (1 << 16);
+		}
+		return ((year - 1980) << 25) | ((calendar.get(Calendar.MONTH) + 1) << 21)
+				| (calendar.get(Calendar.DAY_OF_MONTH) << 16) | (calendar.get(Calendar.HOUR_OF_DAY) << 11)
+				| (calendar.get(Calendar.MINUTE) << 5) | (calendar.get(Calendar.SECOND) >> 1);
+	}
+}
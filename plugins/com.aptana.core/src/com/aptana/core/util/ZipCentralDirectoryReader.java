@@ -0,0 +1,168 @@
+/**
+ * Aptana Studio
+ * Copyright (c) 2013 by Appcelerator, Inc. All Rights Reserved.
+ * Licensed under the terms of the GNU Public License (GPL) v3 (with exceptions).
+ * Please see the license.html included with this distribution for details.
+ * Any modifications to this file must keep this entire header intact.
+ */
+package com.aptana.core.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Sits under a {@link java.util.zip.ZipInputStream} and picks up the central directory at the end of the archive as
+ * it goes by. The local headers that <code>ZipInputStream</code> reads don't carry the unix mode of the entries (which
+ * is also what marks them as symbolic links), only the central directory does.
+ * <p>
+ * The last {@link #WINDOW_SIZE} bytes read are kept around, since <code>ZipInputStream</code> reads a little past the
+ * last entry before it finds out there are no more. Once it has, {@link #readUnixModes()} reads the rest of the
+ * stream and parses the central directory out of it.
+ */
+/* package */class ZipCentralDirectoryReader extends FilterInputStream
+{
+
+	private static final int WINDOW_SIZE = 64 * 1024;
+
+	private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+	private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+	private static final int CENTRAL_HEADER_LENGTH = 46;
+	private static final int END_OF_CENTRAL_DIRECTORY_LENGTH = 22;
+	private static final int PLATFORM_UNIX = 3;
+
+	private final byte[] window = new byte[WINDOW_SIZE];
+	private long total;
+
+	ZipCentralDirectoryReader(InputStream in)
+	{
+		super(in);
+	}
+
+	@Override
+	public int read() throws IOException
+	{
+		int b = super.read();
+		if (b >= 0)
+		{
+			window[(int) (total++ % WINDOW_SIZE)] = (byte) b;
+		}
+		return b;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException
+	{
+		int length = super.read(b, off, len);
+		for (int i = 0; i < length; i++)
+		{
+			window[(int) (total++ % WINDOW_SIZE)] = b[off + i];
+		}
+		return length;
+	}
+
+	@Override
+	public long skip(long n) throws IOException
+	{
+		// read rather than skip so that nothing goes by unseen
+		byte[] buffer = new byte[(int) Math.min(n, 8192)];
+		int length = read(buffer, 0, buffer.length);
+		return Math.max(length, 0);
+	}
+
+	@Override
+	public boolean markSupported()
+	{
+		return false;
+	}
+
+	/**
+	 * Reads the rest of the stream and returns the unix modes the central directory holds. Call once the
+	 * <code>ZipInputStream</code> has run out of entries.
+	 * 
+	 * @return the unix mode for each entry name created on a unix system; empty if the central directory can't be
+	 *         made sense of
+	 * @throws IOException
+	 */
+	Map<String, Integer> readUnixModes() throws IOException
+	{
+		ByteArrayOutputStream tail = new ByteArrayOutputStream(WINDOW_SIZE);
+		if (total <= WINDOW_SIZE)
+		{
+			tail.write(window, 0, (int) total);
+		}
+		else
+		{
+			int start = (int) (total % WINDOW_SIZE);
+			tail.write(window, start, WINDOW_SIZE - start);
+			tail.write(window, 0, start);
+		}
+		IOUtil.pipe(in, tail);
+		return parseUnixModes(tail.toByteArray());
+	}
+
+	private static Map<String, Integer> parseUnixModes(byte[] data) throws IOException
+	{
+		Map<String, Integer> modes = new HashMap<String, Integer>();
+		// The end of central directory record is followed by a comment of up to 64K
+		int end = -1;
+		for (int i = data.length - END_OF_CENTRAL_DIRECTORY_LENGTH; i >= 0
+				&& i >= data.length - END_OF_CENTRAL_DIRECTORY_LENGTH - 0xFFFF; i--)
+		{
+			if (readInt(data, i) == END_OF_CENTRAL_DIRECTORY_SIGNATURE)
+			{
+				end = i;
+				break;
+			}
+		}
+		if (end < 0)
+		{
+			return modes;
+		}
+		int count = readShort(data, end + 10);
+		long size = readInt(data, end + 12) & 0xFFFFFFFFL;
+		if (size > end)
+		{
+			// more than we kept, or a zip64 archive
+			return modes;
+		}
+		int position = (int) (end - size);
+		for (int i = 0; i < count && position + CENTRAL_HEADER_LENGTH <= end; i++)
+		{
+			if (readInt(data, position) != CENTRAL_HEADER_SIGNATURE)
+			{
+				break;
+			}
+			int madeBy = readShort(data, position + 4);
+			int nameLength = readShort(data, position + 28);
+			int extraLength = readShort(data, position + 30);
+			int commentLength = readShort(data, position + 32);
+			long externalAttributes = readInt(data, position + 38) & 0xFFFFFFFFL;
+			if (position + CENTRAL_HEADER_LENGTH + nameLength > end)
+			{
+				break;
+			}
+			if ((madeBy >> 8) == PLATFORM_UNIX)
+			{
+				// ZipInputStream always reads names as UTF-8
+				String name = new String(data, position + CENTRAL_HEADER_LENGTH, nameLength, IOUtil.UTF_8);
+				modes.put(name, (int) (externalAttributes >> 16));
+			}
+			position += CENTRAL_HEADER_LENGTH + nameLength + extraLength + commentLength;
+		}
+		return modes;
+	}
+
+	private static int readShort(byte[] data, int offset)
+	{
+		return (data[offset] & 0xFF) | ((data[offset + 1] & 0xFF) << 8);
+	}
+
+	private static int readInt(byte[] data, int offset)
+	{
+		return readShort(data, offset) | (readShort(data, offset + 2) << 16);
+	}
+}
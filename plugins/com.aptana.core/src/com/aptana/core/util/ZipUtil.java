@@ -7,20 +7,33 @@
  */
 package com.aptana.core.util;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.text.MessageFormat;
-import java.util.Collection;
+import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Enumeration;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.zip.ZipException;
+import java.util.zip.ZipInputStream;
 import java.util.zip.ZipOutputStream;
 
 import org.apache.tools.zip.ZipEntry;
@@ -30,6 +43,7 @@ import org.eclipse.core.runtime.IPath;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.MultiStatus;
+import org.eclipse.core.runtime.NullProgressMonitor;
 import org.eclipse.core.runtime.Path;
 import org.eclipse.core.runtime.Status;
 import org.eclipse.core.runtime.SubMonitor;
@@ -67,6 +81,18 @@ public final class ZipUtil
 	 */
 	private static final int ERR_NoWritePermission = 130;
 
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * How many threads to extract files on.
+	 */
+	private static final int EXTRACT_THREADS = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * Archives with fewer files than this aren't worth extracting in parallel.
+	 */
+	private static final int MIN_PARALLEL_ENTRIES = 32;
+
 	/**
 	 * 
 	 */
@@ -89,7 +115,7 @@ public final class ZipUtil
 		{
 			return nativeUnzip(zipFile, destinationPath, Conflict.SKIP, monitor);
 		}
-		return extract(new ZipFile(zipFile), destinationPath, monitor);
+		return extractArchive(zipFile, destinationPath, Conflict.SKIP, null, monitor);
 	}
 
 	/**
@@ -129,7 +155,7 @@ public final class ZipUtil
 		{
 			return nativeUnzip(zipFile, destinationPath, whatToDo, monitor);
 		}
-		return extract(new ZipFile(zipFile), destinationPath, overwrite, monitor);
+		return extractArchive(zipFile, destinationPath, whatToDo, null, monitor);
 	}
 
 	/**
@@ -164,9 +190,7 @@ public final class ZipUtil
 		{
 			return nativeUnzip(zipFile, destinationPath, overwrite, monitor);
 		}
-
-		ZipFile zip = new ZipFile(zipFile);
-		return extract(zip, zip.getEntries(), destinationPath, overwrite, transformer, monitor);
+		return extractArchive(zipFile, destinationPath, overwrite, transformer, monitor);
 	}
 
 	/**
@@ -207,37 +231,6 @@ public final class ZipUtil
 						destination.getAbsolutePath()), monitor);
 	}
 
-	/**
-	 * Extract zip file into specified local path. By default, file that exist in the destination path will not be
-	 * overwritten.
-	 * 
-	 * @param zip
-	 * @param destinationPath
-	 * @param monitor
-	 * @throws IOException
-	 */
-	private static IStatus extract(ZipFile zip, File destinationPath, IProgressMonitor monitor) throws IOException
-	{
-		return extract(zip, zip.getEntries(), destinationPath, monitor);
-	}
-
-	/**
-	 * Extract zip file into specified local path. File that exist in the destination path will be overwritten if the
-	 * <code>overwrite</code> flag is <code>true</code>.
-	 * 
-	 * @param zip
-	 * @param destinationPath
-	 * @param overwrite
-	 * @param monitor
-	 * @throws IOException
-	 */
-	private static IStatus extract(ZipFile zip, File destinationPath, boolean overwrite, IProgressMonitor monitor)
-			throws IOException
-	{
-		return extract(zip, zip.getEntries(), destinationPath, overwrite ? Conflict.OVERWRITE : Conflict.SKIP, null,
-				monitor);
-	}
-
 	/**
 	 * Open input stream for specified zip entry.
 	 * 
@@ -258,69 +251,179 @@ public final class ZipUtil
 	}
 
 	/**
-	 * Extract specified list of entries from zip file to local path. By default, file that exist in the destination
-	 * path will not be overwritten.
+	 * Extracts a zip archive read from a stream, without saving it to a temporary file first. Entries are written out
+	 * as they're read; since unix modes (and so symbolic links) are only recorded in the central directory at the end
+	 * of the archive, permissions are set and symbolic links created once the whole stream has been read. Until then a
+	 * symbolic link is a file holding the path it points to, and goes through the transformer like any other file.
+	 * <p>
+	 * Entries that conflict with existing files are held in a temporary directory when prompting, until the user has
+	 * picked the ones to overwrite. The stream is read to the end but not closed.
 	 * 
-	 * @param zip
-	 * @param entries
+	 * @param in
 	 * @param destinationPath
+	 * @param overwrite
+	 * @param transformer
+	 *            may be null
 	 * @param monitor
+	 * @return
 	 * @throws IOException
 	 */
-	@SuppressWarnings("rawtypes")
-	private static IStatus extract(ZipFile zip, Enumeration entries, File destinationPath, IProgressMonitor monitor)
-			throws IOException
+	public static IStatus extract(InputStream in, File destinationPath, Conflict overwrite,
+			IInputStreamTransformer transformer, IProgressMonitor monitor) throws IOException
 	{
-		return extract(zip, entries, destinationPath, Conflict.SKIP, null, monitor);
+		MultiStatus multiStatus = new MultiStatus(CorePlugin.PLUGIN_ID, 0, null, null);
+		SubMonitor subMonitor = SubMonitor.convert(monitor, Messages.ZipUtil_default_extract_label, 100);
+		ZipCentralDirectoryReader centralDirectory = new ZipCentralDirectoryReader(in);
+		ZipInputStream zip = new ZipInputStream(centralDirectory);
+		// Transformers may close what they're given, but the next entry still has to be read from it
+		InputStream entryStream = new FilterInputStream(zip)
+		{
+			@Override
+			public void close()
+			{
+			}
+		};
+		// entry names to where they were extracted
+		Map<String, File> extracted = new LinkedHashMap<String, File>();
+		Map<String, File> staged = new LinkedHashMap<String, File>();
+		File stagingDirectory = null;
+		try
+		{
+			java.util.zip.ZipEntry entry;
+			while ((entry = zip.getNextEntry()) != null)
+			{
+				String name = entry.getName();
+				// We don't know how many entries there are, so go a little further each time
+				subMonitor.setWorkRemaining(100);
+				subMonitor.worked(1);
+				subMonitor.setTaskName(Messages.ZipUtil_extract_prefix_label + name);
+				createDirectory(name, entry.isDirectory(), destinationPath);
+				if (entry.isDirectory())
+				{
+					continue;
+				}
+
+				File file = new File(destinationPath, name);
+				if (file.exists())
+				{
+					switch (overwrite)
+					{
+						case OVERWRITE:
+							FileUtil.deleteRecursively(file);
+							break;
+
+						case SKIP:
+							file = null;
+							break;
+
+						case PROMPT:
+							if (stagingDirectory == null)
+							{
+								stagingDirectory = FileUtil.createTempFile("zip", null); //$NON-NLS-1$
+								stagingDirectory.delete();
+							}
+							file = new File(stagingDirectory, name);
+							staged.put(name, file);
+							break;
+					}
+				}
+				if (file != null)
+				{
+					multiStatus.merge(writeFile(entryStream, name, file, transformer));
+					if (!staged.containsKey(name))
+					{
+						extracted.put(name, file);
+					}
+				}
+				if (subMonitor.isCanceled())
+				{
+					return Status.CANCEL_STATUS;
+				}
+			}
+
+			Map<String, Integer> modes = centralDirectory.readUnixModes();
+			for (Map.Entry<String, File> extractedFile : extracted.entrySet())
+			{
+				multiStatus.merge(applyUnixMode(modes.get(extractedFile.getKey()), extractedFile.getValue(),
+						destinationPath));
+			}
+
+			// Now handle the conflicts, prompt to see if user wants to overwrite
+			if (!staged.isEmpty())
+			{
+				Set<IPath> conflicts = new HashSet<IPath>();
+				for (String name : staged.keySet())
+				{
+					conflicts.add(Path.fromPortableString(name));
+				}
+				for (IPath path : promptForOverwrite(conflicts))
+				{
+					String name = path.toPortableString();
+					File stagedFile = staged.get(name);
+					if (stagedFile == null)
+					{
+						continue;
+					}
+					File file = new File(destinationPath, name);
+					FileUtil.deleteRecursively(file);
+					if (!stagedFile.renameTo(file))
+					{
+						IOUtil.copyFile(stagedFile, file);
+					}
+					multiStatus.merge(applyUnixMode(modes.get(name), file, destinationPath));
+				}
+			}
+			return multiStatus;
+		}
+		catch (CoreException ce)
+		{
+			return ce.getStatus();
+		}
+		finally
+		{
+			subMonitor.done();
+			if (stagingDirectory != null)
+			{
+				FileUtil.deleteRecursively(stagingDirectory);
+			}
+		}
 	}
 
 	/**
-	 * Extract specified list of entries from zip file to local path. File that exist in the destination path will be
-	 * overwritten if the <code>overwrite</code> flag is <code>true</code>. Only updates the monitor at given intervals
+	 * Extracts the files in a zip archive. The directories are created first, then the files are extracted in parallel
+	 * (should there be enough of them), each thread reading the archive through a {@link ZipFile} of its own. Conflicts
+	 * are prompted for at the end.
 	 * 
-	 * @param zip
-	 * @param entries
+	 * @param zipFile
 	 * @param destinationPath
 	 * @param overwrite
 	 *            - Indicate if existing folders and files should be overwritten during the extraction.
+	 * @param transformer
 	 * @param monitor
 	 * @throws IOException
 	 */
-	@SuppressWarnings({ "rawtypes", "unchecked" })
-	private static IStatus extract(ZipFile zip, Enumeration entries, File destinationPath, Conflict overwrite,
+	@SuppressWarnings("unchecked")
+	private static IStatus extractArchive(File zipFile, File destinationPath, Conflict overwrite,
 			IInputStreamTransformer transformer, IProgressMonitor monitor) throws IOException
 	{
-		Collection collection = Collections.list(entries);
+		ZipFile zip = new ZipFile(zipFile);
+		List<ZipEntry> entries = Collections.list(zip.getEntries());
 		MultiStatus multiStatus = new MultiStatus(CorePlugin.PLUGIN_ID, 0, null, null);
-		SubMonitor subMonitor = SubMonitor.convert(monitor, Messages.ZipUtil_default_extract_label, collection.size());
+		SubMonitor subMonitor = SubMonitor.convert(monitor, Messages.ZipUtil_default_extract_label, entries.size());
 		try
 		{
 			// Create directories first
-			for (Object i : collection)
-			{
-				ZipEntry entry = (ZipEntry) i;
-				createDirectory(entry, destinationPath);
-				if (subMonitor.isCanceled())
-				{
-					return Status.CANCEL_STATUS;
-				}
-			}
-
-			// Extract files
-			Set<IPath> conflicts = new HashSet<IPath>();
-			for (Object i : collection)
+			List<ZipEntry> files = new ArrayList<ZipEntry>(entries.size());
+			for (ZipEntry entry : entries)
 			{
-				ZipEntry entry = (ZipEntry) i;
-				IStatus fileStatus = extractEntry(zip, entry, destinationPath, transformer, overwrite,
-						subMonitor.newChild(1));
-				// We need to add entries to a conflict list if we can't overwrite them!
-				if (fileStatus.getCode() == ERR_CONFLICTS)
+				createDirectory(entry.getName(), entry.isDirectory(), destinationPath);
+				if (entry.isDirectory())
 				{
-					conflicts.add(Path.fromPortableString(entry.getName()));
+					subMonitor.worked(1);
 				}
 				else
 				{
-					multiStatus.merge(fileStatus);
+					files.add(entry);
 				}
 				if (subMonitor.isCanceled())
 				{
@@ -328,29 +431,35 @@ public final class ZipUtil
 				}
 			}
 
+			// Extract files
+			Set<IPath> conflicts = new HashSet<IPath>();
+			IStatus status;
+			if (EXTRACT_THREADS > 1 && files.size() >= MIN_PARALLEL_ENTRIES)
+			{
+				status = extractEntriesInParallel(zipFile, files, destinationPath, overwrite, transformer, conflicts,
+						multiStatus, subMonitor);
+			}
+			else
+			{
+				status = extractEntries(zip, files, destinationPath, overwrite, transformer, conflicts, multiStatus,
+						subMonitor);
+			}
+			if (status.getSeverity() == IStatus.CANCEL)
+			{
+				return status;
+			}
+
 			// Now handle the conflicts, prompt to see if user wants to overwrite
 			if (overwrite == Conflict.PROMPT && !conflicts.isEmpty())
 			{
-				IStatus status = new Status(IStatus.ERROR, CorePlugin.PLUGIN_ID, ERR_CONFLICTS,
-						Messages.ZipUtil_ConflictsError, null);
-				IStatusHandler handler = DebugPlugin.getDefault().getStatusHandler(status);
-				if (handler != null)
+				for (IPath file : promptForOverwrite(conflicts))
 				{
-					Object result = handler.handleStatus(status, conflicts);
-					if (result instanceof IPath[])
+					ZipEntry entry = zip.getEntry(file.toPortableString());
+					multiStatus.merge(extractEntry(zip, entry, destinationPath, transformer, Conflict.OVERWRITE,
+							subMonitor));
+					if (subMonitor.isCanceled())
 					{
-						// extract the entries!
-						IPath[] toOverwrite = (IPath[]) result;
-						for (IPath file : toOverwrite)
-						{
-							ZipEntry entry = zip.getEntry(file.toPortableString());
-							multiStatus.merge(extractEntry(zip, entry, destinationPath, transformer,
-									Conflict.OVERWRITE, subMonitor));
-							if (subMonitor.isCanceled())
-							{
-								return Status.CANCEL_STATUS;
-							}
-						}
+						return Status.CANCEL_STATUS;
 					}
 				}
 			}
@@ -368,19 +477,171 @@ public final class ZipUtil
 		}
 	}
 
+	/**
+	 * Extracts the file entries one after the other.
+	 */
+	private static IStatus extractEntries(ZipFile zip, List<ZipEntry> files, File destinationPath,
+			Conflict overwrite, IInputStreamTransformer transformer, Set<IPath> conflicts, MultiStatus multiStatus,
+			SubMonitor subMonitor)
+	{
+		for (ZipEntry entry : files)
+		{
+			IStatus fileStatus = extractEntry(zip, entry, destinationPath, transformer, overwrite,
+					subMonitor.newChild(1));
+			addResult(entry, fileStatus, conflicts, multiStatus);
+			if (subMonitor.isCanceled())
+			{
+				return Status.CANCEL_STATUS;
+			}
+		}
+		return Status.OK_STATUS;
+	}
+
+	/**
+	 * Extracts the file entries on a pool of threads. Each thread opens the archive for itself, as reads through a
+	 * single {@link ZipFile} are serialized. The results are collected in the order of the entries, which is also how
+	 * progress is reported.
+	 */
+	private static IStatus extractEntriesInParallel(final File zipFile, List<ZipEntry> files,
+			final File destinationPath, final Conflict overwrite, final IInputStreamTransformer transformer,
+			Set<IPath> conflicts, MultiStatus multiStatus, SubMonitor subMonitor)
+	{
+		final List<ZipFile> zips = Collections.synchronizedList(new ArrayList<ZipFile>());
+		final ThreadLocal<ZipFile> threadZip = new ThreadLocal<ZipFile>();
+		final AtomicBoolean cancelled = new AtomicBoolean();
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(EXTRACT_THREADS, files.size()),
+				new ThreadFactory()
+				{
+					public Thread newThread(Runnable r)
+					{
+						Thread thread = new Thread(r, "Zip Extractor"); //$NON-NLS-1$
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		try
+		{
+			List<Future<IStatus>> results = new ArrayList<Future<IStatus>>(files.size());
+			for (final ZipEntry entry : files)
+			{
+				results.add(executor.submit(new Callable<IStatus>()
+				{
+					public IStatus call() throws IOException
+					{
+						if (cancelled.get())
+						{
+							return Status.CANCEL_STATUS;
+						}
+						ZipFile zip = threadZip.get();
+						if (zip == null)
+						{
+							zip = new ZipFile(zipFile);
+							zips.add(zip);
+							threadZip.set(zip);
+						}
+						return extractEntry(zip, zip.getEntry(entry.getName()), destinationPath, transformer,
+								overwrite, new NullProgressMonitor());
+					}
+				}));
+			}
+
+			for (int i = 0; i < files.size(); i++)
+			{
+				ZipEntry entry = files.get(i);
+				subMonitor.setTaskName(Messages.ZipUtil_extract_prefix_label + entry.getName());
+				IStatus fileStatus;
+				try
+				{
+					fileStatus = results.get(i).get();
+				}
+				catch (ExecutionException e)
+				{
+					fileStatus = new Status(IStatus.ERROR, CorePlugin.PLUGIN_ID, 0, MessageFormat.format(
+							"Error extracting zip entry {0}", entry.getName()), e.getCause()); //$NON-NLS-1$
+				}
+				catch (InterruptedException e)
+				{
+					Thread.currentThread().interrupt();
+					cancelled.set(true);
+					return Status.CANCEL_STATUS;
+				}
+				addResult(entry, fileStatus, conflicts, multiStatus);
+				subMonitor.worked(1);
+				if (subMonitor.isCanceled())
+				{
+					cancelled.set(true);
+					return Status.CANCEL_STATUS;
+				}
+			}
+			return Status.OK_STATUS;
+		}
+		finally
+		{
+			// Let the entries being extracted finish before their archives get closed
+			executor.shutdown();
+			try
+			{
+				executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+			for (ZipFile zip : zips)
+			{
+				ZipFile.closeQuietly(zip);
+			}
+		}
+	}
+
+	private static void addResult(ZipEntry entry, IStatus fileStatus, Set<IPath> conflicts, MultiStatus multiStatus)
+	{
+		// We need to add entries to a conflict list if we can't overwrite them!
+		if (fileStatus.getCode() == ERR_CONFLICTS)
+		{
+			conflicts.add(Path.fromPortableString(entry.getName()));
+		}
+		else
+		{
+			multiStatus.merge(fileStatus);
+		}
+	}
+
+	/**
+	 * Asks which of the conflicting files to overwrite.
+	 * 
+	 * @param conflicts
+	 * @return the files to overwrite
+	 */
+	private static IPath[] promptForOverwrite(Set<IPath> conflicts) throws CoreException
+	{
+		IStatus status = new Status(IStatus.ERROR, CorePlugin.PLUGIN_ID, ERR_CONFLICTS, Messages.ZipUtil_ConflictsError,
+				null);
+		IStatusHandler handler = DebugPlugin.getDefault().getStatusHandler(status);
+		if (handler != null)
+		{
+			Object result = handler.handleStatus(status, conflicts);
+			if (result instanceof IPath[])
+			{
+				return (IPath[]) result;
+			}
+		}
+		return new IPath[0];
+	}
+
 	/**
 	 * Attempts to ensure the destination directory structure is generated. If there's a problem with write permissions,
 	 * a {@link CoreException} is thrown.
 	 * 
-	 * @param entry
+	 * @param name
+	 * @param isDirectory
 	 * @param destinationPath
 	 * @throws CoreException
 	 */
-	private static void createDirectory(ZipEntry entry, File destinationPath) throws CoreException
+	private static void createDirectory(String name, boolean isDirectory, File destinationPath) throws CoreException
 	{
-		String name = entry.getName();
 		File file = new File(destinationPath, name);
-		if (entry.isDirectory())
+		if (isDirectory)
 		{
 			createDirectoryIfNecessary(file);
 		}
@@ -497,26 +758,21 @@ public final class ZipUtil
 	private static IStatus extractFile(ZipFile zip, ZipEntry entry, File destinationPath, File file,
 			IInputStreamTransformer transformer, IProgressMonitor monitor)
 	{
-		if (isSymlink(entry))
+		if (isSymlink(entry.getUnixMode()))
 		{
 			return extractSymlink(zip, entry, destinationPath, file);
 		}
 
 		// handle non-symlinks
-		OutputStream out = null;
 		InputStream in = null;
 		try
 		{
-			file.getParentFile().mkdirs();
-			// Run an IInputStreamTransformer on the input here if it's not a symlink!
 			in = zip.getInputStream(entry);
-			if (transformer != null)
+			IStatus status = writeFile(in, entry.getName(), file, transformer);
+			if (!status.isOK())
 			{
-				in = transformer.transform(in, Path.fromPortableString(entry.getName()));
+				return status;
 			}
-			out = new FileOutputStream(file);
-			// TODO Can we pass in an IProgressMonitor to get progress here?
-			IOUtil.pipe(in, out);
 		}
 		catch (ZipException e)
 		{
@@ -525,7 +781,6 @@ public final class ZipUtil
 		}
 		catch (IOException e)
 		{
-			// TODO
 			return new Status(IStatus.ERROR, CorePlugin.PLUGIN_ID, 0, MessageFormat.format(
 					"IOException while extracting file {0}", file.getAbsolutePath()), e); //$NON-NLS-1$
 		}
@@ -541,6 +796,51 @@ public final class ZipUtil
 				{
 				}
 			}
+		}
+
+		// Set permissions
+		return applyUnixMode(entry.getUnixMode(), file, destinationPath);
+	}
+
+	/**
+	 * Writes the contents of an entry to a file, through the transformer if there is one. Doesn't close the input.
+	 * 
+	 * @param in
+	 * @param name
+	 * @param file
+	 * @param transformer
+	 * @return
+	 */
+	private static IStatus writeFile(InputStream in, String name, File file, IInputStreamTransformer transformer)
+	{
+		OutputStream out = null;
+		try
+		{
+			file.getParentFile().mkdirs();
+			// Run an IInputStreamTransformer on the input here if it's not a symlink!
+			if (transformer != null)
+			{
+				in = transformer.transform(in, Path.fromPortableString(name));
+			}
+			out = new FileOutputStream(file);
+			byte[] buffer = new byte[BUFFER_SIZE];
+			for (int length = in.read(buffer); length >= 0; length = in.read(buffer))
+			{
+				out.write(buffer, 0, length);
+			}
+		}
+		catch (ZipException e)
+		{
+			return new Status(IStatus.ERROR, CorePlugin.PLUGIN_ID, 0, MessageFormat.format(
+					"Error getting input stream for zip entry {0}", name), e); //$NON-NLS-1$
+		}
+		catch (IOException e)
+		{
+			return new Status(IStatus.ERROR, CorePlugin.PLUGIN_ID, 0, MessageFormat.format(
+					"IOException while extracting file {0}", file.getAbsolutePath()), e); //$NON-NLS-1$
+		}
+		finally
+		{
 			if (out != null)
 			{
 				try
@@ -552,15 +852,42 @@ public final class ZipUtil
 				}
 			}
 		}
+		return Status.OK_STATUS;
+	}
 
-		// Set permissions
-		int unixMode = entry.getUnixMode();
-		if (!PlatformUtil.isWindows() && unixMode != 0)
+	/**
+	 * Sets the permissions of an extracted file. If the mode says it's a symbolic link, the file holds the path it
+	 * points to and is replaced by the link.
+	 * 
+	 * @param unixMode
+	 *            may be null or 0 if not known
+	 * @param file
+	 * @param destinationPath
+	 * @return
+	 */
+	private static IStatus applyUnixMode(Integer unixMode, File file, File destinationPath)
+	{
+		if (PlatformUtil.isWindows() || unixMode == null || unixMode == 0)
 		{
-			String permString = Integer.toOctalString(unixMode & 0x0FFF);
-			return FileUtil.chmod(permString, file);
+			return Status.OK_STATUS;
 		}
-		return Status.OK_STATUS;
+		if (isSymlink(unixMode))
+		{
+			String target;
+			try
+			{
+				target = IOUtil.read(new FileInputStream(file), IOUtil.UTF_8);
+			}
+			catch (FileNotFoundException e)
+			{
+				return new Status(IStatus.ERROR, CorePlugin.PLUGIN_ID, 0, MessageFormat.format(
+						"IOException while extracting file {0}", file.getAbsolutePath()), e); //$NON-NLS-1$
+			}
+			file.delete();
+			return createSymlink(target, destinationPath, file);
+		}
+		String permString = Integer.toOctalString(unixMode & 0x0FFF);
+		return FileUtil.chmod(permString, file);
 	}
 
 	/**
@@ -580,8 +907,7 @@ public final class ZipUtil
 			{
 				file.getParentFile().mkdirs();
 				String target = IOUtil.read(zip.getInputStream(entry), IOUtil.UTF_8);
-				return new ProcessRunner().runInBackground(
-						"ln", "-s", new File(destinationPath, target).getAbsolutePath(), file.getAbsolutePath()); //$NON-NLS-1$ //$NON-NLS-2$
+				return createSymlink(target, destinationPath, file);
 			}
 			catch (ZipException e)
 			{
@@ -597,6 +923,12 @@ public final class ZipUtil
 		return Status.OK_STATUS;
 	}
 
+	private static IStatus createSymlink(String target, File destinationPath, File file)
+	{
+		return new ProcessRunner().runInBackground(
+				"ln", "-s", new File(destinationPath, target).getAbsolutePath(), file.getAbsolutePath()); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
 	/**
 	 * Creates a zipped file that contains the source files
 	 * 
@@ -622,11 +954,26 @@ public final class ZipUtil
 		{
 			try
 			{
-				ZipOutputStream output = new ZipOutputStream(new FileOutputStream(destination));
-
-				addToZip(sourceFiles, sourcePathRoot, output);
+				List<File> files = new ArrayList<File>();
+				List<String> names = new ArrayList<String>();
+				addToZip(sourceFiles, sourcePathRoot, files, names);
 
-				output.close();
+				OutputStream output = new BufferedOutputStream(new FileOutputStream(destination), BUFFER_SIZE);
+				try
+				{
+					if (files.size() > ParallelZipWriter.MAX_ENTRIES)
+					{
+						writeZip(files, names, output);
+					}
+					else
+					{
+						new ParallelZipWriter(output).write(files, names);
+					}
+				}
+				finally
+				{
+					output.close();
+				}
 				return true;
 			}
 			catch (IOException e)
@@ -638,10 +985,11 @@ public final class ZipUtil
 		return false;
 	}
 
-	private static void addToZip(String[] sourceFiles, String sourcePathRoot, ZipOutputStream output)
-			throws FileNotFoundException, IOException
+	/**
+	 * Collects the readable files under the sources, and the names of their entries.
+	 */
+	private static void addToZip(String[] sourceFiles, String sourcePathRoot, List<File> files, List<String> names)
 	{
-		byte[] buffer = new byte[1024];
 		for (String file : sourceFiles)
 		{
 			File content = new File(file);
@@ -654,11 +1002,10 @@ public final class ZipUtil
 					childrenPaths[i] = children[i].getAbsolutePath();
 				}
 
-				addToZip(childrenPaths, sourcePathRoot, output);
+				addToZip(childrenPaths, sourcePathRoot, files, names);
 			}
 			else if (content.canRead())
 			{
-				FileInputStream input = new FileInputStream(file);
 				String name;
 				if (sourcePathRoot == null)
 				{
@@ -668,28 +1015,48 @@ public final class ZipUtil
 				{
 					name = Path.fromOSString(file).makeRelativeTo(Path.fromOSString(sourcePathRoot)).toOSString();
 				}
-				output.putNextEntry(new java.util.zip.ZipEntry(name));
+				files.add(content);
+				names.add(name);
+			}
+		}
+	}
 
-				int length;
-				while ((length = input.read(buffer)) > 0)
+	/**
+	 * Writes the files one after the other through a {@link ZipOutputStream}, which unlike {@link ParallelZipWriter}
+	 * doesn't mind going past 65535 entries.
+	 */
+	private static void writeZip(List<File> files, List<String> names, OutputStream out) throws IOException
+	{
+		ZipOutputStream output = new ZipOutputStream(out);
+		byte[] buffer = new byte[BUFFER_SIZE];
+		for (int i = 0; i < files.size(); i++)
+		{
+			FileInputStream input = new FileInputStream(files.get(i));
+			try
+			{
+				output.putNextEntry(new java.util.zip.ZipEntry(names.get(i)));
+				for (int length = input.read(buffer); length >= 0; length = input.read(buffer))
 				{
 					output.write(buffer, 0, length);
 				}
-
 				output.closeEntry();
+			}
+			finally
+			{
 				input.close();
 			}
 		}
+		output.finish();
 	}
 
-	private static boolean isSymlink(ZipEntry entry)
+	private static boolean isSymlink(int unixMode)
 	{
-		return (entry.getUnixMode() & ATTR_SYMLINK) == ATTR_SYMLINK;
+		return (unixMode & ATTR_SYMLINK) == ATTR_SYMLINK;
 	}
 
 	/**
 	 * Transforms the {@link InputStream} from the raw version we get from a {@link ZipEntry} to the ultimate contents
-	 * we write to the file.
+	 * we write to the file. Files may be extracted on several threads at once, so implementations must be thread-safe.
 	 * 
 	 * @author cwilliams
 	 */
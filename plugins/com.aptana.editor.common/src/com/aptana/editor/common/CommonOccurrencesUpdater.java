@@ -7,8 +7,11 @@
  */
 package com.aptana.editor.common;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -20,11 +23,14 @@ import org.eclipse.jface.preference.IPreferenceStore;
 import org.eclipse.jface.text.BadLocationException;
 import org.eclipse.jface.text.DocumentEvent;
 import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.IDocumentExtension4;
 import org.eclipse.jface.text.IDocumentListener;
+import org.eclipse.jface.text.IRegion;
 import org.eclipse.jface.text.ISynchronizable;
 import org.eclipse.jface.text.ITextInputListener;
 import org.eclipse.jface.text.ITextSelection;
 import org.eclipse.jface.text.Position;
+import org.eclipse.jface.text.Region;
 import org.eclipse.jface.text.source.Annotation;
 import org.eclipse.jface.text.source.IAnnotationModel;
 import org.eclipse.jface.text.source.IAnnotationModelExtension;
@@ -41,6 +47,7 @@ import org.eclipse.ui.texteditor.IDocumentProvider;
 
 import com.aptana.core.util.StringUtil;
 import com.aptana.editor.common.preferences.IPreferenceConstants;
+import com.aptana.parsing.ast.IParseRootNode;
 
 /**
  * CommonOccurrenceUpdater
@@ -63,6 +70,7 @@ public class CommonOccurrencesUpdater implements IPropertyChangeListener {
 		 * @see org.eclipse.jface.text.IDocumentListener#documentChanged(org.eclipse.jface.text.DocumentEvent)
 		 */
 		public void documentChanged(DocumentEvent event) {
+			occurrenceIndex.documentChanged(event);
 		}
 
 		/*
@@ -73,6 +81,7 @@ public class CommonOccurrencesUpdater implements IPropertyChangeListener {
 			if (oldInput != null) {
 				oldInput.removeDocumentListener(this);
 			}
+			occurrenceIndex.reset();
 		}
 
 		/*
@@ -121,67 +130,45 @@ public class CommonOccurrencesUpdater implements IPropertyChangeListener {
 
 	private class FindOccurrencesJob extends Job {
 		private IDocument document;
-		private ITextSelection selection;
+		private String word;
+		private IRegion visibleRegion;
 		private IAnnotationModel model;
 
-		public FindOccurrencesJob(IDocument document, ITextSelection selection, IAnnotationModel model) {
+		public FindOccurrencesJob(IDocument document, String word, IRegion visibleRegion, IAnnotationModel model) {
 			super(Messages.CommonOccurrencesUpdater_Mark_Word_Occurrences);
 
 			this.document = document;
-			this.selection = selection;
+			this.word = word;
+			this.visibleRegion = visibleRegion;
 			this.model = model;
 		}
 
 		/**
-		 * getWord
+		 * findOccurrences
 		 * 
-		 * @return
+		 * @param monitor
+		 * @return the occurrences of the word, or null if cancelled or the document changed meanwhile
 		 */
-		protected String getWord() {
-			String result = null;
-
-			try {
-				int offset = selection.getOffset();
-				int length = document.getLength();
-				int start = offset;
-
-				// find starting character, if we're on a valid character already
-				if (Character.isUnicodeIdentifierPart(document.getChar(offset))) {
-					while (offset >= 0) {
-						char c = document.getChar(offset);
-
-						if (Character.isUnicodeIdentifierPart(c)) {
-							start = offset;
-							offset--;
-						} else {
-							break;
-						}
-					}
-				}
-
-				// find ending character, if we're on a valid character already
-				offset = selection.getOffset() + selection.getLength();
+		protected List<Position> findOccurrences(IProgressMonitor monitor) {
+			if (OccurrenceIndex.isIdentifier(word)) {
+				return occurrenceIndex.getOccurrences(document, word);
+			}
 
-				if (Character.isUnicodeIdentifierPart(document.getChar(offset - 1))) {
-					while (offset < length) {
-						char c = document.getChar(offset);
+			// not something the index knows about, search the source for it
+			List<Position> result = new ArrayList<Position>();
+			String source = document.get();
+			Pattern wordPattern = createWordPattern(word);
+			Matcher matcher = wordPattern.matcher(source);
 
-						if (Character.isUnicodeIdentifierPart(c)) {
-							offset++;
-						} else {
-							break;
-						}
-					}
+			while (matcher.find()) {
+				if (monitor.isCanceled()) {
+					return null;
 				}
 
-				// grab result, as long as it is on one line only
-				if (document.getLineOfOffset(start) == document.getLineOfOffset(offset)) {
-					result = document.get(start, offset - start);
-				}
-			} catch (BadLocationException e) {
+				result.add(new Position(matcher.start(), matcher.end() - matcher.start()));
 			}
 
-			return (result != null) ? result.trim() : result;
+			return result;
 		}
 
 		/*
@@ -190,51 +177,70 @@ public class CommonOccurrencesUpdater implements IPropertyChangeListener {
 		 */
 		@Override
 		protected IStatus run(IProgressMonitor monitor) {
-			IStatus status = Status.OK_STATUS;
-
-			// start with an empty map in case we need to delete existing markers later
-			Map<Annotation, Position> annotationMap = new HashMap<Annotation, Position>();
+			// start with empty maps in case we need to delete existing markers later
+			Map<Annotation, Position> visibleMap = new HashMap<Annotation, Position>();
+			Map<Annotation, Position> remainingMap = new HashMap<Annotation, Position>();
 
-			if (editor.isMarkingOccurrences()) {
-				// find a "word" to search using the current selection
-				String word = getWord();
+			if (editor.isMarkingOccurrences() && word != null && word.length() > 0) {
+				List<Position> occurrences = findOccurrences(monitor);
 
-				if (word != null && word.length() > 0) {
-					String source = document.get();
-					Pattern wordPattern = createWordPattern(word);
-					Matcher matcher = wordPattern.matcher(source);
-
-					while (matcher.find()) {
-						if (monitor.isCanceled()) {
-							status = Status.CANCEL_STATUS;
-							break;
-						}
+				if (occurrences == null || monitor.isCanceled()) {
+					return Status.CANCEL_STATUS;
+				}
 
-						int start = matcher.start();
-						int length = matcher.end() - start;
+				for (Position position : occurrences) {
+					Annotation annotation = new Annotation(ANNOTION_ID, false, ANNOTION_DESCRIPTION);
 
-						// @formatter:off
-						annotationMap.put(new Annotation(ANNOTION_ID, false, ANNOTION_DESCRIPTION), new Position(start, length));
-						// @formatter:on
+					if (visibleRegion == null
+							|| position.overlapsWith(visibleRegion.getOffset(), visibleRegion.getLength())) {
+						visibleMap.put(annotation, position);
+					} else {
+						remainingMap.put(annotation, position);
 					}
 				}
 			}
 
-			if (status == Status.OK_STATUS) {
-				// NOTE: We always update the annotation model even if we didn't find a word so we can clear the
-				// current occurrences
-				synchronized (getAnnotationModelLock(model)) {
-					if (model instanceof IAnnotationModelExtension) {
-						// @formatter:off
-						((IAnnotationModelExtension) model).replaceAnnotations(annotations, annotationMap);
-						// @formatter:on
-					}
+			// NOTE: We always update the annotation model even if we didn't find a word so we can clear the
+			// current occurrences. The ones on screen go first, the rest follow unless we've been cancelled meanwhile.
+			replaceAnnotations(annotations, visibleMap);
 
-					annotations = annotationMap.keySet().toArray(new Annotation[annotationMap.keySet().size()]);
+			if (!remainingMap.isEmpty()) {
+				if (monitor.isCanceled()) {
+					return Status.CANCEL_STATUS;
 				}
+
+				replaceAnnotations(null, remainingMap);
 			}
 
-			return status;
+			return Status.OK_STATUS;
+		}
+
+		/**
+		 * replaceAnnotations
+		 * 
+		 * @param toRemove
+		 * @param toAdd
+		 */
+		private void replaceAnnotations(Annotation[] toRemove, Map<Annotation, Position> toAdd) {
+			synchronized (getAnnotationModelLock(model)) {
+				if (model instanceof IAnnotationModelExtension) {
+					((IAnnotationModelExtension) model).replaceAnnotations(toRemove, toAdd);
+				}
+
+				Set<Annotation> added = toAdd.keySet();
+
+				if (toRemove == null && annotations != null) {
+					Annotation[] all = new Annotation[annotations.length + added.size()];
+					System.arraycopy(annotations, 0, all, 0, annotations.length);
+					int i = annotations.length;
+					for (Annotation annotation : added) {
+						all[i++] = annotation;
+					}
+					annotations = all;
+				} else {
+					annotations = added.toArray(new Annotation[added.size()]);
+				}
+			}
 		}
 	}
 
@@ -247,6 +253,18 @@ public class CommonOccurrencesUpdater implements IPropertyChangeListener {
 	private Annotation[] annotations;
 	private FindOccurrencesJob findOccurrencesJob;
 	private CancelerJob cancelerJob;
+	private final OccurrenceIndex occurrenceIndex = new OccurrenceIndex() {
+		@Override
+		protected IParseRootNode getAST(IDocument document) {
+			// the editor caches its AST by modification stamp, so this is usually the one the reconciler parsed
+			return (document == getDocument()) ? editor.getAST() : null;
+		}
+	};
+	/**
+	 * What the last job was scheduled for, so that moving the caret around the same word doesn't redo it
+	 */
+	private String lastWord;
+	private long lastModificationStamp = IDocumentExtension4.UNKNOWN_MODIFICATION_STAMP;
 
 	/**
 	 * CommonOccurrencesUpdater
@@ -279,6 +297,60 @@ public class CommonOccurrencesUpdater implements IPropertyChangeListener {
 		return Pattern.compile(regexSource);
 	}
 
+	/**
+	 * getWord
+	 * 
+	 * @param document
+	 * @param selection
+	 * @return
+	 */
+	protected String getWord(IDocument document, ITextSelection selection) {
+		String result = null;
+
+		try {
+			int offset = selection.getOffset();
+			int length = document.getLength();
+			int start = offset;
+
+			// find starting character, if we're on a valid character already
+			if (Character.isUnicodeIdentifierPart(document.getChar(offset))) {
+				while (offset >= 0) {
+					char c = document.getChar(offset);
+
+					if (Character.isUnicodeIdentifierPart(c)) {
+						start = offset;
+						offset--;
+					} else {
+						break;
+					}
+				}
+			}
+
+			// find ending character, if we're on a valid character already
+			offset = selection.getOffset() + selection.getLength();
+
+			if (Character.isUnicodeIdentifierPart(document.getChar(offset - 1))) {
+				while (offset < length) {
+					char c = document.getChar(offset);
+
+					if (Character.isUnicodeIdentifierPart(c)) {
+						offset++;
+					} else {
+						break;
+					}
+				}
+			}
+
+			// grab result, as long as it is on one line only
+			if (document.getLineOfOffset(start) == document.getLineOfOffset(offset)) {
+				result = document.get(start, offset - start);
+			}
+		} catch (BadLocationException e) {
+		}
+
+		return (result != null) ? result.trim() : result;
+	}
+
 	/**
 	 * getAnnotationModel
 	 * 
@@ -467,11 +539,14 @@ public class CommonOccurrencesUpdater implements IPropertyChangeListener {
 			findOccurrencesJob.cancel();
 			findOccurrencesJob = null;
 		}
+		lastWord = null;
 
 		if (cancelerJob != null) {
 			cancelerJob.uninstall();
 			cancelerJob = null;
 		}
+		// nothing keeps the index up to date from here on
+		occurrenceIndex.reset();
 	}
 
 	/**
@@ -480,19 +555,55 @@ public class CommonOccurrencesUpdater implements IPropertyChangeListener {
 	 * @param selection
 	 */
 	protected void updateAnnotations(ISelection selection) {
-		if (findOccurrencesJob != null) {
-			findOccurrencesJob.cancel();
-		}
-
 		if (selection instanceof ITextSelection) {
 			ITextSelection textSelection = (ITextSelection) selection;
 			IDocument document = getDocument();
 			IAnnotationModel annotationModel = getAnnotationModel();
 
 			if (document != null && annotationModel != null) {
-				findOccurrencesJob = new FindOccurrencesJob(document, textSelection, annotationModel);
+				String word = getWord(document, textSelection);
+				long modificationStamp = (document instanceof IDocumentExtension4) ? ((IDocumentExtension4) document)
+						.getModificationStamp() : IDocumentExtension4.UNKNOWN_MODIFICATION_STAMP;
+
+				// still on the same word of the same document contents, the job has it covered already
+				if (findOccurrencesJob != null && word != null && word.equals(lastWord)
+						&& modificationStamp != IDocumentExtension4.UNKNOWN_MODIFICATION_STAMP
+						&& modificationStamp == lastModificationStamp) {
+					return;
+				}
+
+				if (findOccurrencesJob != null) {
+					findOccurrencesJob.cancel();
+				}
+
+				lastWord = word;
+				lastModificationStamp = modificationStamp;
+				findOccurrencesJob = new FindOccurrencesJob(document, word, getVisibleRegion(), annotationModel);
 				findOccurrencesJob.schedule();
+				return;
 			}
 		}
+
+		if (findOccurrencesJob != null) {
+			findOccurrencesJob.cancel();
+		}
+	}
+
+	/**
+	 * getVisibleRegion
+	 * 
+	 * @return the part of the document shown on screen, or null if it's unknown
+	 */
+	private IRegion getVisibleRegion() {
+		ISourceViewer sourceViewer = getSourceViewer();
+
+		if (sourceViewer == null || sourceViewer.getTextWidget() == null) {
+			return null;
+		}
+
+		int start = sourceViewer.getTopIndexStartOffset();
+		int end = sourceViewer.getBottomIndexEndOffset();
+
+		return (end >= start) ? new Region(start, end - start + 1) : null;
 	}
 }
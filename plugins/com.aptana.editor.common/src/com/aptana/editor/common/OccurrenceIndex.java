@@ -0,0 +1,446 @@
+/**
+ * Aptana Studio
+ * Copyright (c) 2014 by Appcelerator, Inc. All Rights Reserved.
+ * Licensed under the terms of the GNU Public License (GPL) v3 (with exceptions).
+ * Please see the license.html included with this distribution for details.
+ * Any modifications to this file must keep this entire header intact.
+ */
+package com.aptana.editor.common;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.jface.text.BadLocationException;
+import org.eclipse.jface.text.DocumentEvent;
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.IDocumentExtension4;
+import org.eclipse.jface.text.Position;
+
+import com.aptana.parsing.ast.INameNode;
+import com.aptana.parsing.ast.IParseNode;
+import com.aptana.parsing.ast.IParseRootNode;
+import com.aptana.parsing.lexer.IRange;
+
+/**
+ * Index of the identifiers in a document, so that finding all the occurrences of one costs as much as there are
+ * occurrences rather than a scan of the whole document.
+ * <p>
+ * The index is built from the document's AST (see {@link #getAST(IDocument)}): the leaves and names of nodes that are
+ * identifiers. Identifiers in comments and strings don't get in, as they aren't nodes of their own. Without an AST,
+ * every run of {@link Character#isUnicodeIdentifierPart(char)} characters in the text is an identifier, the same thing
+ * the occurrences updater considers a word.
+ * <p>
+ * A build happens on first use, without holding the index's lock, and replaces the current table of identifiers only if
+ * the document didn't change meanwhile. Between builds the table is kept up to date with
+ * {@link #documentChanged(DocumentEvent)}, which rescans the text of the identifiers around the change. The table keeps
+ * its identifiers in a gap buffer positioned at the last change, with the offsets after the gap stored relative to the
+ * end of the document, so an edit only touches the identifiers between it and the previous one. A table that has been
+ * patched this way is rebuilt from the AST the next time it's queried.
+ */
+/* package */class OccurrenceIndex {
+
+	/**
+	 * An identifier in the table. Its offset is absolute before the gap and relative to the end of the document after
+	 * it.
+	 */
+	private static class Identifier {
+		int offset;
+		boolean afterGap;
+		final String name;
+
+		Identifier(int offset, String name) {
+			this.offset = offset;
+			this.name = name;
+		}
+	}
+
+	private static final Comparator<Identifier> OFFSET_ORDER = new Comparator<Identifier>() {
+		public int compare(Identifier o1, Identifier o2) {
+			return (o1.offset < o2.offset) ? -1 : ((o1.offset == o2.offset) ? 0 : 1);
+		}
+	};
+
+	/**
+	 * The identifiers of one version of a document
+	 */
+	private static class Table {
+		final IDocument document;
+		final boolean fromAST;
+		long modificationStamp;
+		boolean patched;
+		int length;
+
+		/**
+		 * All the identifiers, in document order, with a gap at [gapStart, gapEnd)
+		 */
+		Identifier[] identifiers = new Identifier[16];
+		int gapStart;
+		int gapEnd = identifiers.length;
+		final Map<String, Set<Identifier>> byName = new HashMap<String, Set<Identifier>>();
+
+		Table(IDocument document, long modificationStamp, int length, boolean fromAST) {
+			this.document = document;
+			this.modificationStamp = modificationStamp;
+			this.length = length;
+			this.fromAST = fromAST;
+		}
+
+		/**
+		 * Returns the positions of the identifier, or null if any of them doesn't match the document
+		 */
+		List<Position> collect(String name) {
+			Set<Identifier> occurrences = byName.get(name);
+			if (occurrences == null) {
+				return Collections.emptyList();
+			}
+			List<Position> result = new ArrayList<Position>(occurrences.size());
+			for (Identifier identifier : occurrences) {
+				int offset = offsetOf(identifier);
+				if (!matches(offset, name)) {
+					return null;
+				}
+				result.add(new Position(offset, name.length()));
+			}
+			return result;
+		}
+
+		/**
+		 * Brings the table up to date with a change that has been applied to the document
+		 */
+		void update(DocumentEvent event) throws BadLocationException {
+			String text = event.getText();
+			int insertedLength = (text == null) ? 0 : text.length();
+			int delta = insertedLength - event.getLength();
+
+			// widen the changed region of the new contents to the identifiers it touches
+			int start = event.getOffset();
+			int end = start + insertedLength;
+			while (start > 0 && Character.isUnicodeIdentifierPart(document.getChar(start - 1))) {
+				start--;
+			}
+			int newLength = document.getLength();
+			while (end < newLength && Character.isUnicodeIdentifierPart(document.getChar(end))) {
+				end++;
+			}
+
+			// drop what used to be there, [start, end - delta) in the old contents. Once the gap is at the change the
+			// identifiers after it are relative to the end of the document, so none of them need to move.
+			int first = indexOf(start);
+			int last = indexOf(end - delta);
+			moveGap(first);
+			for (int i = first; i < last; i++) {
+				Identifier identifier = identifiers[gapEnd];
+				identifiers[gapEnd++] = null;
+				Set<Identifier> occurrences = byName.get(identifier.name);
+				occurrences.remove(identifier);
+				if (occurrences.isEmpty()) {
+					byName.remove(identifier.name);
+				}
+			}
+			length = newLength;
+
+			scan(document.get(start, end - start), start);
+			patched = true;
+		}
+
+		/**
+		 * Adds the identifiers found in source as starting at offset. They have to come after the ones before the gap
+		 * and before the ones after it.
+		 */
+		void scan(String source, int offset) {
+			int sourceLength = source.length();
+			int i = 0;
+			while (i < sourceLength) {
+				if (!Character.isUnicodeIdentifierPart(source.charAt(i))) {
+					i++;
+					continue;
+				}
+				int start = i;
+				while (i < sourceLength && Character.isUnicodeIdentifierPart(source.charAt(i))) {
+					i++;
+				}
+				add(offset + start, source.substring(start, i));
+			}
+		}
+
+		/**
+		 * Inserts an identifier at the start of the gap
+		 */
+		void add(int offset, String name) {
+			Set<Identifier> occurrences = byName.get(name);
+			if (occurrences == null) {
+				// don't hang on to the whole source through the substring
+				name = new String(name);
+				occurrences = new HashSet<Identifier>(4);
+				byName.put(name, occurrences);
+			} else {
+				name = occurrences.iterator().next().name;
+			}
+			if (gapStart == gapEnd) {
+				grow();
+			}
+			Identifier identifier = new Identifier(offset, name);
+			identifiers[gapStart++] = identifier;
+			occurrences.add(identifier);
+		}
+
+		private int offsetOf(Identifier identifier) {
+			return identifier.afterGap ? identifier.offset + length : identifier.offset;
+		}
+
+		private int size() {
+			return identifiers.length - (gapEnd - gapStart);
+		}
+
+		/**
+		 * Returns the offset of the identifier at the given position in document order
+		 */
+		private int offsetAt(int index) {
+			return (index < gapStart) ? identifiers[index].offset : identifiers[index + gapEnd - gapStart].offset
+					+ length;
+		}
+
+		/**
+		 * Returns the position in document order of the first identifier starting at or after offset
+		 */
+		private int indexOf(int offset) {
+			int low = 0;
+			int high = size();
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (offsetAt(mid) < offset) {
+					low = mid + 1;
+				} else {
+					high = mid;
+				}
+			}
+			return low;
+		}
+
+		/**
+		 * Moves the gap so it starts at the given position in document order. Only the identifiers between the old and
+		 * the new place of the gap are touched.
+		 */
+		private void moveGap(int index) {
+			while (gapStart > index) {
+				Identifier identifier = identifiers[--gapStart];
+				identifiers[gapStart] = null;
+				identifier.offset -= length;
+				identifier.afterGap = true;
+				identifiers[--gapEnd] = identifier;
+			}
+			while (gapStart < index) {
+				Identifier identifier = identifiers[gapEnd];
+				identifiers[gapEnd++] = null;
+				identifier.offset += length;
+				identifier.afterGap = false;
+				identifiers[gapStart++] = identifier;
+			}
+		}
+
+		private void grow() {
+			Identifier[] grown = new Identifier[identifiers.length * 2];
+			int tail = identifiers.length - gapEnd;
+			System.arraycopy(identifiers, 0, grown, 0, gapStart);
+			System.arraycopy(identifiers, gapEnd, grown, grown.length - tail, tail);
+			identifiers = grown;
+			gapEnd = grown.length - tail;
+		}
+
+		private boolean matches(int offset, String name) {
+			try {
+				int end = offset + name.length();
+				return name.equals(document.get(offset, name.length()))
+						&& (offset == 0 || !Character.isUnicodeIdentifierPart(document.getChar(offset - 1)))
+						&& (end == document.getLength() || !Character.isUnicodeIdentifierPart(document.getChar(end)));
+			} catch (BadLocationException e) {
+				return false;
+			}
+		}
+	}
+
+	private Table table;
+
+	/**
+	 * Returns the positions of all the occurrences of the identifier in the document, building the index first if need
+	 * be. The index is rebuilt whenever the document changed in a way it wasn't told about.
+	 * 
+	 * @param document
+	 * @param name
+	 * @return the positions, or null if the document kept changing while the index was being built
+	 */
+	public List<Position> getOccurrences(IDocument document, String name) {
+		synchronized (this) {
+			if (isCurrent(table, document) && !(table.fromAST && table.patched)) {
+				List<Position> result = table.collect(name);
+				if (result != null) {
+					return result;
+				}
+			}
+		}
+
+		// typing mustn't wait for this, so build without holding the lock and swap it in if it's still current
+		Table built = build(document);
+		if (built == null) {
+			return null;
+		}
+		synchronized (this) {
+			long stamp = getModificationStamp(document);
+			if (stamp != built.modificationStamp) {
+				return null;
+			}
+			if (stamp != IDocumentExtension4.UNKNOWN_MODIFICATION_STAMP) {
+				table = built;
+			}
+			return built.collect(name);
+		}
+	}
+
+	/**
+	 * Brings the index up to date with a change to the document. Call once the change has been applied.
+	 * 
+	 * @param event
+	 */
+	public synchronized void documentChanged(DocumentEvent event) {
+		if (table == null || event.getDocument() != table.document) {
+			return;
+		}
+		long stamp = getModificationStamp(table.document);
+		if (stamp == IDocumentExtension4.UNKNOWN_MODIFICATION_STAMP) {
+			// no way to tell whether the index has seen this change, start over on next use
+			table = null;
+			return;
+		}
+		if (stamp == table.modificationStamp) {
+			// the index was built from the changed contents already
+			return;
+		}
+		try {
+			table.update(event);
+			table.modificationStamp = stamp;
+		} catch (BadLocationException e) {
+			// out of step with the document, start over on next use
+			table = null;
+		}
+	}
+
+	/**
+	 * Drops the index, e.g. when the editor switches to another document
+	 */
+	public synchronized void reset() {
+		table = null;
+	}
+
+	/**
+	 * Returns the AST of the document's current contents, or null if there is none. Called from a background job.
+	 * 
+	 * @param document
+	 * @return
+	 */
+	protected IParseRootNode getAST(IDocument document) {
+		return null;
+	}
+
+	/**
+	 * Returns true if the word is a whole identifier, which is what the index can answer for
+	 * 
+	 * @param word
+	 * @return
+	 */
+	public static boolean isIdentifier(String word) {
+		if (word == null || word.length() == 0) {
+			return false;
+		}
+		for (int i = 0; i < word.length(); i++) {
+			if (!Character.isUnicodeIdentifierPart(word.charAt(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isCurrent(Table table, IDocument document) {
+		if (table == null || table.document != document) {
+			return false;
+		}
+		long stamp = getModificationStamp(document);
+		return stamp != IDocumentExtension4.UNKNOWN_MODIFICATION_STAMP && stamp == table.modificationStamp;
+	}
+
+	/**
+	 * Builds a table of the document's identifiers, or returns null if the document changed while we were at it
+	 */
+	private Table build(IDocument document) {
+		long stamp = getModificationStamp(document);
+		String source = document.get();
+		IParseRootNode ast = getAST(document);
+		if (getModificationStamp(document) != stamp) {
+			return null;
+		}
+
+		Table result = new Table(document, stamp, source.length(), ast != null);
+		if (ast == null) {
+			result.scan(source, 0);
+			return result;
+		}
+
+		List<Identifier> identifiers = new ArrayList<Identifier>();
+		List<IParseNode> nodes = new ArrayList<IParseNode>();
+		nodes.add(ast);
+		while (!nodes.isEmpty()) {
+			IParseNode node = nodes.remove(nodes.size() - 1);
+			int count = node.getChildCount();
+			if (count == 0) {
+				addIdentifier(identifiers, source, node.getText(), node);
+				continue;
+			}
+			INameNode nameNode = node.getNameNode();
+			if (nameNode != null) {
+				addIdentifier(identifiers, source, nameNode.getName(), nameNode.getNameRange());
+			}
+			for (int i = 0; i < count; i++) {
+				nodes.add(node.getChild(i));
+			}
+		}
+
+		// a name is often a leaf of its node too
+		Collections.sort(identifiers, OFFSET_ORDER);
+		int last = -1;
+		for (Identifier identifier : identifiers) {
+			if (identifier.offset != last) {
+				result.add(identifier.offset, identifier.name);
+				last = identifier.offset;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Adds the text of a node if it's an identifier that is exactly what's in the source at the node's range
+	 */
+	private static void addIdentifier(List<Identifier> identifiers, String source, String name, IRange range) {
+		if (range == null || !isIdentifier(name) || range.getLength() != name.length()) {
+			return;
+		}
+		int offset = range.getStartingOffset();
+		int end = offset + name.length();
+		if (offset >= 0 && end <= source.length() && source.startsWith(name, offset)
+				&& (offset == 0 || !Character.isUnicodeIdentifierPart(source.charAt(offset - 1)))
+				&& (end == source.length() || !Character.isUnicodeIdentifierPart(source.charAt(end)))) {
+			identifiers.add(new Identifier(offset, name));
+		}
+	}
+
+	private static long getModificationStamp(IDocument document) {
+		if (document instanceof IDocumentExtension4) {
+			return ((IDocumentExtension4) document).getModificationStamp();
+		}
+		return IDocumentExtension4.UNKNOWN_MODIFICATION_STAMP;
+	}
+}
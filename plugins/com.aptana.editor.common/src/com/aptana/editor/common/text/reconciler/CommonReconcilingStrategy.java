@@ -79,6 +79,17 @@ public class CommonReconcilingStrategy implements IReconcilingStrategy, IReconci
 	 */
 	private Map<ProjectionAnnotation, Position> fPositions = new HashMap<ProjectionAnnotation, Position>();
 
+	/**
+	 * Whether fPositions changed since they were last handed to the editor.
+	 */
+	private boolean fPositionsChanged;
+
+	/**
+	 * Whether the next folding pass has to go over the whole document. Otherwise an {@link IIncrementalFoldingComputer}
+	 * only looks at what was edited since its last pass.
+	 */
+	private volatile boolean fFullFoldingPass = true;
+
 	private IPropertyListener propertyListener = new IPropertyListener()
 	{
 		public void propertyChanged(Object source, int propId)
@@ -103,6 +114,7 @@ public class CommonReconcilingStrategy implements IReconcilingStrategy, IReconci
 			fEditor.removePropertyListener(propertyListener);
 			fEditor = null;
 		}
+		disposeFolder();
 		synchronized (fPositionsLock)
 		{
 			fPositions.clear();
@@ -121,18 +133,30 @@ public class CommonReconcilingStrategy implements IReconcilingStrategy, IReconci
 
 	public void reconcile(IRegion partition)
 	{
-		// we can't do incremental yet
+		// Not an edit, so something else changed (i.e. the bundles). Folding has to start over.
+		fFullFoldingPass = true;
 	}
 
 	public void reconcile(DirtyRegion dirtyRegion, IRegion subRegion)
 	{
 		// we can't do incremental yet
+		// (incremental folders track the edits themselves)
 	}
 
 	public void setDocument(IDocument document)
 	{
+		disposeFolder();
 		folder = createFoldingComputer(document);
 		fDocument = document;
+		fFullFoldingPass = true;
+	}
+
+	private void disposeFolder()
+	{
+		if (folder instanceof IIncrementalFoldingComputer)
+		{
+			((IIncrementalFoldingComputer) folder).dispose();
+		}
 	}
 
 	protected IFoldingComputer createFoldingComputer(IDocument document)
@@ -167,10 +191,29 @@ public class CommonReconcilingStrategy implements IReconcilingStrategy, IReconci
 
 		try
 		{
-			Map<ProjectionAnnotation, Position> positions = folder.emitFoldingRegions(initialReconcile, monitor, ast);
-			synchronized (fPositionsLock)
+			if (!initialReconcile && !fFullFoldingPass && folder instanceof IIncrementalFoldingComputer)
 			{
-				fPositions = positions;
+				FoldingDelta delta = ((IIncrementalFoldingComputer) folder).emitFoldingDelta(monitor, ast);
+				if (delta != null && !delta.isEmpty())
+				{
+					synchronized (fPositionsLock)
+					{
+						fPositions.keySet().removeAll(delta.getRemoved());
+						fPositions.putAll(delta.getAdded());
+						fPositionsChanged = true;
+					}
+				}
+			}
+			else
+			{
+				fFullFoldingPass = false;
+				Map<ProjectionAnnotation, Position> positions = folder.emitFoldingRegions(initialReconcile, monitor,
+						ast);
+				synchronized (fPositionsLock)
+				{
+					fPositions = positions;
+					fPositionsChanged = true;
+				}
 			}
 		}
 		catch (BadLocationException e)
@@ -184,7 +227,15 @@ public class CommonReconcilingStrategy implements IReconcilingStrategy, IReconci
 			return;
 		}
 
-		updatePositions();
+		boolean changed;
+		synchronized (fPositionsLock)
+		{
+			changed = fPositionsChanged;
+		}
+		if (changed)
+		{
+			updatePositions();
+		}
 	}
 
 	/**
@@ -210,6 +261,7 @@ public class CommonReconcilingStrategy implements IReconcilingStrategy, IReconci
 		{
 			fPositions.clear();
 		}
+		fFullFoldingPass = true;
 	}
 
 	/**
@@ -223,8 +275,16 @@ public class CommonReconcilingStrategy implements IReconcilingStrategy, IReconci
 			HashMap<ProjectionAnnotation, Position> positions;
 			synchronized (fPositionsLock)
 			{
-				// Create a copy to pass to updateFoldingStructure, as it may take more time there.
-				positions = new HashMap<ProjectionAnnotation, Position>(fPositions);
+				// Create a copy to pass to updateFoldingStructure, as it may take more time there. The positions are
+				// copied too: an incremental folder's are registered with the document, and the annotation model
+				// registers what it gets as well.
+				positions = new HashMap<ProjectionAnnotation, Position>(fPositions.size());
+				for (Map.Entry<ProjectionAnnotation, Position> entry : fPositions.entrySet())
+				{
+					Position position = entry.getValue();
+					positions.put(entry.getKey(), new Position(position.getOffset(), position.getLength()));
+				}
+				fPositionsChanged = false;
 			}
 			editor.updateFoldingStructure(positions);
 		}
@@ -237,6 +297,10 @@ public class CommonReconcilingStrategy implements IReconcilingStrategy, IReconci
 
 	private void reconcile(boolean initialReconcile, boolean force)
 	{
+		if (force)
+		{
+			fFullFoldingPass = true;
+		}
 		SubMonitor monitor = SubMonitor.convert(fMonitor, 100);
 
 		IParseRootNode ast = null;
@@ -265,6 +329,7 @@ public class CommonReconcilingStrategy implements IReconcilingStrategy, IReconci
 			{
 				fPositions.clear();
 			}
+			fFullFoldingPass = true;
 			updatePositions();
 		}
 		monitor.setWorkRemaining(75);
@@ -0,0 +1,109 @@
+/**
+ * Aptana Studio
+ * Copyright (c) 2005-2013 by Appcelerator, Inc. All Rights Reserved.
+ * Licensed under the terms of the GNU Public License (GPL) v3 (with exceptions).
+ * Please see the license.html included with this distribution for details.
+ * Any modifications to this file must keep this entire header intact.
+ */
+package com.aptana.editor.common.text.reconciler;
+
+import java.io.UnsupportedEncodingException;
+
+import org.jcodings.specific.UTF8Encoding;
+import org.joni.Option;
+import org.joni.Regex;
+import org.joni.Syntax;
+import org.joni.exception.JOniException;
+import org.jruby.RubyFixnum;
+import org.jruby.RubyRegexp;
+import org.jruby.RubyString;
+import org.jruby.util.ByteList;
+
+import com.aptana.core.util.IOUtil;
+
+/**
+ * Matches a bundle's folding marker against single lines. The marker's source is compiled once into a plain Joni
+ * regex, which is searched directly; going through {@link RubyRegexp#match_m} means a RubyString and a MatchData per
+ * line, plus updating the thread's $~. Markers Joni won't compile on its own are matched the old way.
+ */
+/* package */class FoldMarkerMatcher
+{
+
+	private final RubyRegexp regexp;
+	private final Regex pattern;
+
+	FoldMarkerMatcher(RubyRegexp regexp)
+	{
+		this.regexp = regexp;
+		Regex compiled = null;
+		try
+		{
+			ByteList source = ((RubyString) regexp.source()).getByteList();
+			int options = toJoniOptions((int) ((RubyFixnum) regexp.options()).getLongValue());
+			compiled = new Regex(source.getUnsafeBytes(), source.getBegin(), source.getBegin() + source.getRealSize(),
+					options, UTF8Encoding.INSTANCE, Syntax.DEFAULT);
+		}
+		catch (JOniException e)
+		{
+			// fall back to matching through JRuby
+		}
+		catch (ClassCastException e)
+		{
+			// fall back to matching through JRuby
+		}
+		this.pattern = compiled;
+	}
+
+	/**
+	 * @param line
+	 *            the line's text
+	 * @param bytes
+	 *            the line's text, UTF-8 encoded (see {@link #encode(String)})
+	 * @return whether the marker is found anywhere in the line
+	 */
+	boolean find(String line, byte[] bytes)
+	{
+		if (pattern != null)
+		{
+			return pattern.matcher(bytes, 0, bytes.length).search(0, bytes.length, Option.NONE) >= 0;
+		}
+		return !regexp.match_m(regexp.getRuntime().getCurrentContext(), regexp.getRuntime().newString(line)).isNil();
+	}
+
+	/**
+	 * Ruby's option bits only line up with Joni's for the first three. Above those, Ruby keeps encoding flags that
+	 * Joni would take for search options (FIND_LONGEST, FIND_NOT_EMPTY), so only the options that change what the
+	 * pattern means are carried over.
+	 */
+	static int toJoniOptions(int rubyOptions)
+	{
+		int options = Option.NONE;
+		if ((rubyOptions & RubyRegexp.IGNORECASE) != 0)
+		{
+			options |= Option.IGNORECASE;
+		}
+		if ((rubyOptions & RubyRegexp.EXTENDED) != 0)
+		{
+			options |= Option.EXTEND;
+		}
+		if ((rubyOptions & RubyRegexp.MULTILINE) != 0)
+		{
+			options |= Option.MULTILINE;
+		}
+		return options;
+	}
+
+	static byte[] encode(String line)
+	{
+		try
+		{
+			return line.getBytes(IOUtil.UTF_8);
+		}
+		catch (UnsupportedEncodingException e)
+		{
+			// every JVM has UTF-8
+			return line.getBytes();
+		}
+	}
+
+}
@@ -0,0 +1,48 @@
+/**
+ * Aptana Studio
+ * Copyright (c) 2005-2013 by Appcelerator, Inc. All Rights Reserved.
+ * Licensed under the terms of the GNU Public License (GPL) v3 (with exceptions).
+ * Please see the license.html included with this distribution for details.
+ * Any modifications to this file must keep this entire header intact.
+ */
+package com.aptana.editor.common.text.reconciler;
+
+import java.util.Collection;
+import java.util.Map;
+
+import org.eclipse.jface.text.Position;
+import org.eclipse.jface.text.source.projection.ProjectionAnnotation;
+
+/**
+ * The folding regions added and removed by an incremental folding pass.
+ * 
+ * @see IIncrementalFoldingComputer
+ */
+public final class FoldingDelta
+{
+
+	private final Map<ProjectionAnnotation, Position> added;
+	private final Collection<ProjectionAnnotation> removed;
+
+	public FoldingDelta(Map<ProjectionAnnotation, Position> added, Collection<ProjectionAnnotation> removed)
+	{
+		this.added = added;
+		this.removed = removed;
+	}
+
+	public Map<ProjectionAnnotation, Position> getAdded()
+	{
+		return added;
+	}
+
+	public Collection<ProjectionAnnotation> getRemoved()
+	{
+		return removed;
+	}
+
+	public boolean isEmpty()
+	{
+		return added.isEmpty() && removed.isEmpty();
+	}
+
+}
@@ -0,0 +1,40 @@
+/**
+ * Aptana Studio
+ * Copyright (c) 2005-2013 by Appcelerator, Inc. All Rights Reserved.
+ * Licensed under the terms of the GNU Public License (GPL) v3 (with exceptions).
+ * Please see the license.html included with this distribution for details.
+ * Any modifications to this file must keep this entire header intact.
+ */
+package com.aptana.editor.common.text.reconciler;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.jface.text.BadLocationException;
+
+import com.aptana.parsing.ast.IParseRootNode;
+
+/**
+ * A folding computer that keeps track of the edits made to its document, so only the changed lines need to be looked
+ * at again. {@link #emitFoldingRegions(boolean, IProgressMonitor, IParseRootNode)} always does a full pass and returns
+ * every region; {@link #emitFoldingDelta(IProgressMonitor, IParseRootNode)} returns what changed since the previous
+ * call of either.
+ */
+public interface IIncrementalFoldingComputer extends IFoldingComputer
+{
+
+	/**
+	 * Updates the folding regions for the lines edited since the last pass.
+	 * 
+	 * @param monitor
+	 * @param ast
+	 * @return the regions that were added and removed, or null if the pass was canceled or the document changed under
+	 *         us. Nothing is lost in that case; the next call picks up where this one stopped.
+	 * @throws BadLocationException
+	 */
+	public FoldingDelta emitFoldingDelta(IProgressMonitor monitor, IParseRootNode ast) throws BadLocationException;
+
+	/**
+	 * Stops tracking the document.
+	 */
+	public void dispose();
+
+}
@@ -7,20 +7,28 @@
  */
 package com.aptana.editor.common.text.reconciler;
 
-import java.util.Collections;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.jface.text.BadLocationException;
+import org.eclipse.jface.text.BadPositionCategoryException;
+import org.eclipse.jface.text.DefaultPositionUpdater;
+import org.eclipse.jface.text.DocumentEvent;
 import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.IDocumentListener;
+import org.eclipse.jface.text.IPositionUpdater;
 import org.eclipse.jface.text.IRegion;
 import org.eclipse.jface.text.Position;
 import org.eclipse.jface.text.source.ISourceViewer;
 import org.eclipse.jface.text.source.projection.ProjectionAnnotation;
 import org.jruby.RubyRegexp;
-import org.jruby.RubyString;
-import org.jruby.runtime.builtin.IRubyObject;
 
 import com.aptana.editor.common.AbstractThemeableEditor;
 import com.aptana.editor.common.CommonEditorPlugin;
@@ -28,17 +36,157 @@ import com.aptana.editor.common.scripting.IDocumentScopeManager;
 import com.aptana.parsing.ast.IParseRootNode;
 import com.aptana.scripting.model.BundleManager;
 
+/**
+ * Folds on the bundles' folding start and stop markers. What each line holds (markers, indent, and the scopes that
+ * picked the markers) is remembered between passes; edits mark the lines they touch as dirty, and a pass rescans those
+ * lines plus however many following lines changed scope as a result. Pairing starts with ends is cheap and is redone
+ * over the whole table each time.
+ */
 // FIXME Move this to an internal package!
-public class RubyRegexpFolder implements IFoldingComputer
+public class RubyRegexpFolder implements IIncrementalFoldingComputer
 {
 
+	private static final String POSITION_CATEGORY_PREFIX = "__ruby_regexp_folding_"; //$NON-NLS-1$
+
+	/**
+	 * Line flags.
+	 */
+	private static final byte START_MARKER = 1;
+	private static final byte END_MARKER = 2;
+	/**
+	 * The line starts with '*', so its end marker closes a fold one column to the left (block comment folding).
+	 */
+	private static final byte STAR_LINE = 4;
+	private static final byte DIRTY = 8;
+
+	/**
+	 * How many lines following an edit have to keep their scopes before we stop rescanning. Opening a comment or a
+	 * string changes the scopes of everything after it.
+	 */
+	private static final int PROPAGATION_WINDOW = 8;
+
 	private IDocument fDocument;
 	private AbstractThemeableEditor fEditor;
 
+	private final String fPositionCategory;
+	private final IPositionUpdater fPositionUpdater;
+
+	/**
+	 * Guards the line table and the regions. Document listeners run on the UI thread, passes on the reconciler's. The
+	 * listeners are called with the document's own lock held, so nothing that takes the document's lock (adding or
+	 * removing positions) may be called while holding this one.
+	 */
+	private final Object fLock = new Object();
+
+	/**
+	 * Bumped on every document change; a pass that sees it move gives up and leaves the rest for the next one.
+	 */
+	private int fStamp;
+	private boolean fNeedsFullPass = true;
+	private int fLineCount;
+	private int fFirstDirtyLine;
+	private byte[] fFlags = new byte[0];
+	private int[] fIndents = new int[0];
+	private int[] fStartScopes = new int[0];
+	private int[] fEndScopes = new int[0];
+	private int fChangedLine;
+	private int fRemovedLines;
+
+	/**
+	 * The line the running pass is looking at, or -1. Edits shift it like the table, so a pass that stops early can
+	 * leave the rest of its range dirty for the next one.
+	 */
+	private int fScanLine = -1;
+
+	/**
+	 * The current regions. Their positions are registered with the document, so they move along with edits.
+	 */
+	private final Map<ProjectionAnnotation, Position> fRegions = new HashMap<ProjectionAnnotation, Position>();
+
+	/**
+	 * Matchers by scope, and by the bundle regexp they were made from. Only used from passes, and dropped on full ones
+	 * (i.e. when bundles change).
+	 */
+	private final Map<String, FoldMarkerMatcher> fStartMatchers = new HashMap<String, FoldMarkerMatcher>();
+	private final Map<String, FoldMarkerMatcher> fEndMatchers = new HashMap<String, FoldMarkerMatcher>();
+	private final Map<RubyRegexp, FoldMarkerMatcher> fMatchers = new IdentityHashMap<RubyRegexp, FoldMarkerMatcher>();
+
+	private final IDocumentListener fDocumentListener = new IDocumentListener()
+	{
+		public void documentAboutToBeChanged(DocumentEvent event)
+		{
+			synchronized (fLock)
+			{
+				fStamp++;
+				if (fNeedsFullPass)
+				{
+					return;
+				}
+				try
+				{
+					fChangedLine = fDocument.getLineOfOffset(event.getOffset());
+					fRemovedLines = fDocument.getNumberOfLines(event.getOffset(), event.getLength()) - 1;
+				}
+				catch (BadLocationException e)
+				{
+					fNeedsFullPass = true;
+				}
+			}
+		}
+
+		public void documentChanged(DocumentEvent event)
+		{
+			synchronized (fLock)
+			{
+				fStamp++;
+				if (fNeedsFullPass)
+				{
+					return;
+				}
+				String text = event.getText();
+				replaceLines(fChangedLine, fRemovedLines, (text == null) ? 0 : fDocument.computeNumberOfLines(text));
+			}
+		}
+	};
+
 	public RubyRegexpFolder(AbstractThemeableEditor editor, IDocument document)
 	{
 		this.fDocument = document;
 		this.fEditor = editor;
+		this.fPositionCategory = POSITION_CATEGORY_PREFIX + System.identityHashCode(this);
+		this.fPositionUpdater = new DefaultPositionUpdater(fPositionCategory);
+		if (document != null)
+		{
+			document.addPositionCategory(fPositionCategory);
+			document.addPositionUpdater(fPositionUpdater);
+			document.addDocumentListener(fDocumentListener);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.aptana.editor.common.text.reconciler.IIncrementalFoldingComputer#dispose()
+	 */
+	public void dispose()
+	{
+		if (fDocument != null)
+		{
+			fDocument.removeDocumentListener(fDocumentListener);
+			fDocument.removePositionUpdater(fPositionUpdater);
+			try
+			{
+				fDocument.removePositionCategory(fPositionCategory);
+			}
+			catch (BadPositionCategoryException e)
+			{
+				// already gone
+			}
+		}
+		synchronized (fLock)
+		{
+			fRegions.clear();
+			fNeedsFullPass = true;
+		}
 	}
 
 	/*
@@ -49,95 +197,567 @@ public class RubyRegexpFolder implements IFoldingComputer
 	public Map<ProjectionAnnotation, Position> emitFoldingRegions(boolean initialReconcile, IProgressMonitor monitor,
 			IParseRootNode ast) throws BadLocationException
 	{
-		int lineCount = fDocument.getNumberOfLines();
-		if (lineCount <= 1) // Quick hack fix for minified files. We need at least two lines to have folding!
+		synchronized (fLock)
 		{
-			return Collections.emptyMap();
+			resetLines();
 		}
-		Map<ProjectionAnnotation, Position> newPositions = new HashMap<ProjectionAnnotation, Position>(lineCount >> 2);
-		Map<Integer, Integer> starts = new HashMap<Integer, Integer>(3);
-		if (monitor != null)
+		clearMatchers();
+		update(monitor);
+		synchronized (fLock)
 		{
-			monitor.beginTask(Messages.CommonReconcilingStrategy_FoldingTaskName, lineCount);
+			return new HashMap<ProjectionAnnotation, Position>(fRegions);
 		}
-		for (int currentLine = 0; currentLine < lineCount; currentLine++)
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see
+	 * com.aptana.editor.common.text.reconciler.IIncrementalFoldingComputer#emitFoldingDelta(org.eclipse.core.runtime
+	 * .IProgressMonitor, com.aptana.parsing.ast.IParseRootNode)
+	 */
+	public FoldingDelta emitFoldingDelta(IProgressMonitor monitor, IParseRootNode ast) throws BadLocationException
+	{
+		boolean full;
+		synchronized (fLock)
 		{
-			// Check for cancellation
-			if (monitor != null && monitor.isCanceled())
-				return newPositions;
+			full = fNeedsFullPass;
+			if (full)
+			{
+				resetLines();
+			}
+		}
+		if (full)
+		{
+			clearMatchers();
+		}
+		return update(monitor);
+	}
 
-			IRegion lineRegion = fDocument.getLineInformation(currentLine);
-			int offset = lineRegion.getOffset();
-			String line = fDocument.get(offset, lineRegion.getLength());
+	private FoldingDelta update(IProgressMonitor monitor) throws BadLocationException
+	{
+		int stamp;
+		synchronized (fLock)
+		{
+			stamp = fStamp;
+		}
+		if (!scanLines(stamp, monitor))
+		{
+			return null;
+		}
 
-			// Use scope at beginning of line for start regexp
-			RubyRegexp startRegexp = getStartFoldRegexp(getScopeAtOffset(offset));
-			if (startRegexp == null)
+		int lineCount;
+		byte[] flags;
+		int[] indents;
+		synchronized (fLock)
+		{
+			if (stamp != fStamp)
 			{
-				if (monitor != null)
-					monitor.worked(1);
-				continue;
+				return null;
+			}
+			lineCount = fLineCount;
+			flags = new byte[lineCount];
+			indents = new int[lineCount];
+			System.arraycopy(fFlags, 0, flags, 0, lineCount);
+			System.arraycopy(fIndents, 0, indents, 0, lineCount);
+		}
+		// Quick hack fix for minified files. We need at least two lines to have folding!
+		List<int[]> lineRegions = (lineCount <= 1) ? new ArrayList<int[]>(0) : pairMarkers(flags, indents, lineCount);
+		List<Position> positions = toPositions(stamp, lineRegions);
+		if (positions == null)
+		{
+			return null;
+		}
+
+		Map<ProjectionAnnotation, Position> added = new HashMap<ProjectionAnnotation, Position>();
+		Map<ProjectionAnnotation, Position> removed = new HashMap<ProjectionAnnotation, Position>();
+		synchronized (fLock)
+		{
+			if (stamp != fStamp)
+			{
+				return null;
+			}
+			diffRegions(positions, added, removed);
+		}
+		return applyRegions(added, removed);
+	}
+
+	/**
+	 * Turns the line regions into document ranges.
+	 * 
+	 * @return null if the document changed
+	 */
+	private List<Position> toPositions(int stamp, List<int[]> lineRegions) throws BadLocationException
+	{
+		List<Position> positions = new ArrayList<Position>(lineRegions.size());
+		try
+		{
+			int documentLength = fDocument.getLength();
+			for (int[] lineRegion : lineRegions)
+			{
+				// cheat and just give offset of line since line resolution is all that matters
+				int startOffset = fDocument.getLineOffset(lineRegion[0]);
+				// cheat and just use end of line
+				IRegion endLine = fDocument.getLineInformation(lineRegion[1]);
+				int end = Math.min(endLine.getOffset() + endLine.getLength() + 1, documentLength);
+				int length = end - startOffset;
+				if (length > 0)
+				{
+					positions.add(new Position(startOffset, length));
+				}
+			}
+		}
+		catch (BadLocationException e)
+		{
+			synchronized (fLock)
+			{
+				if (stamp != fStamp)
+				{
+					return null;
+				}
+			}
+			throw e;
+		}
+		return positions;
+	}
+
+	/**
+	 * Rescans the dirty lines, and the lines after them until their scopes settle. A pass that stops early leaves the
+	 * line it got to dirty, so the next one picks up from there rather than losing the rest of the range.
+	 * 
+	 * @return false if canceled or the document changed
+	 */
+	private boolean scanLines(int stamp, IProgressMonitor monitor) throws BadLocationException
+	{
+		int line;
+		int lineCount;
+		synchronized (fLock)
+		{
+			line = fFirstDirtyLine;
+			lineCount = fLineCount;
+			fScanLine = line;
+		}
+		boolean finished = false;
+		try
+		{
+			if (monitor != null)
+			{
+				monitor.beginTask(Messages.CommonReconcilingStrategy_FoldingTaskName, Math.max(0, lineCount - line));
 			}
-			// Use scope at end of line for end regexp
-			RubyRegexp endRegexp = getEndFoldRegexp(getScopeAtOffset(offset + lineRegion.getLength()));
-			if (endRegexp == null)
+			int unchanged = 0;
+			while (line < lineCount)
 			{
+				boolean dirty;
+				int startScope;
+				int endScope;
+				synchronized (fLock)
+				{
+					if (stamp != fStamp)
+					{
+						return false;
+					}
+					fScanLine = line;
+					// Check for cancellation
+					if (monitor != null && monitor.isCanceled())
+					{
+						return false;
+					}
+					dirty = (fFlags[line] & DIRTY) != 0;
+					if (!dirty && unchanged >= PROPAGATION_WINDOW)
+					{
+						int next = nextDirtyLine(line);
+						if (monitor != null)
+						{
+							monitor.worked(next - line);
+						}
+						line = next;
+						if (line >= lineCount)
+						{
+							break;
+						}
+						fScanLine = line;
+						dirty = true;
+						unchanged = 0;
+					}
+					startScope = fStartScopes[line];
+					endScope = fEndScopes[line];
+				}
+
+				try
+				{
+					IRegion lineRegion = fDocument.getLineInformation(line);
+					int offset = lineRegion.getOffset();
+					// Use scope at beginning of line for start regexp, scope at end of line for end regexp
+					String startScopeName = getScopeAtOffset(offset);
+					String endScopeName = getScopeAtOffset(offset + lineRegion.getLength());
+					int newStartScope = hash(startScopeName);
+					int newEndScope = hash(endScopeName);
+					if (!dirty && newStartScope == startScope && newEndScope == endScope)
+					{
+						// same text and same scopes, so the same markers
+						unchanged++;
+					}
+					else
+					{
+						unchanged = 0;
+						if (!scanLine(stamp, line, fDocument.get(offset, lineRegion.getLength()), startScopeName,
+								endScopeName))
+						{
+							return false;
+						}
+					}
+				}
+				catch (BadLocationException e)
+				{
+					synchronized (fLock)
+					{
+						if (stamp != fStamp)
+						{
+							return false;
+						}
+					}
+					throw e;
+				}
+				line++;
 				if (monitor != null)
+				{
 					monitor.worked(1);
-				continue;
+				}
+			}
+			synchronized (fLock)
+			{
+				if (stamp != fStamp)
+				{
+					return false;
+				}
+				fFirstDirtyLine = fLineCount;
+				fScanLine = -1;
+				finished = true;
+			}
+			if (monitor != null)
+			{
+				monitor.done();
+			}
+			return true;
+		}
+		finally
+		{
+			if (!finished)
+			{
+				requeueScanLine();
+			}
+		}
+	}
+
+	/**
+	 * Marks the line an unfinished pass stopped at as dirty. The lines before it were done; the ones after it are
+	 * reached again from there, however far the scopes keep changing.
+	 */
+	private void requeueScanLine()
+	{
+		synchronized (fLock)
+		{
+			if (fScanLine >= 0 && fScanLine < fLineCount)
+			{
+				fFlags[fScanLine] |= DIRTY;
+				fFirstDirtyLine = Math.min(fFirstDirtyLine, fScanLine);
+			}
+			fScanLine = -1;
+		}
+	}
+
+	/**
+	 * Looks for markers in the line and records what it found.
+	 * 
+	 * @return false if the document changed
+	 */
+	private boolean scanLine(int stamp, int line, String text, String startScopeName, String endScopeName)
+	{
+		byte flags = 0;
+		int indent = 0;
+		FoldMarkerMatcher startMatcher = getStartMatcher(startScopeName);
+		FoldMarkerMatcher endMatcher = (startMatcher == null) ? null : getEndMatcher(endScopeName);
+		if (startMatcher != null && endMatcher != null)
+		{
+			byte[] bytes = FoldMarkerMatcher.encode(text);
+			if (startMatcher.find(text, bytes))
+			{
+				flags |= START_MARKER;
+			}
+			if (endMatcher.find(text, bytes))
+			{
+				flags |= END_MARKER;
+			}
+			if (text.trim().startsWith("*")) //$NON-NLS-1$
+			{
+				flags |= STAR_LINE;
 			}
-			// Look for an open...
-			RubyString rLine = startRegexp.getRuntime().newString(line);
-			IRubyObject startMatcher = startRegexp.match_m(startRegexp.getRuntime().getCurrentContext(), rLine);
-			if (!startMatcher.isNil())
+			indent = findIndent(text);
+		}
+		synchronized (fLock)
+		{
+			if (stamp != fStamp)
 			{
-				starts.put(findIndent(line), offset); // cheat and just give offset of line since line resolution is all
-														// that matters
+				return false;
+			}
+			fFlags[line] = flags;
+			fIndents[line] = indent;
+			fStartScopes[line] = hash(startScopeName);
+			fEndScopes[line] = hash(endScopeName);
+		}
+		return true;
+	}
+
+	/**
+	 * Matches start markers with end markers at the same indent.
+	 * 
+	 * @return pairs of start and end lines
+	 */
+	private List<int[]> pairMarkers(byte[] flags, int[] indents, int lineCount)
+	{
+		List<int[]> lineRegions = new ArrayList<int[]>(lineCount >> 4);
+		Map<Integer, Integer> starts = new HashMap<Integer, Integer>(3);
+		for (int line = 0; line < lineCount; line++)
+		{
+			byte lineFlags = flags[line];
+			if ((lineFlags & START_MARKER) != 0)
+			{
+				starts.put(indents[line], line);
 			}
 			// Don't look for an end if there's no open yet!
-			if (starts.size() > 0)
+			if ((lineFlags & END_MARKER) != 0 && !starts.isEmpty())
 			{
 				// check to see if we have an open folding region at this indent level...
-				int indent = findIndent(line);
+				int indent = indents[line];
 				// Subtract one if we're handling /* */ folding!
-				if (line.trim().startsWith("*")) //$NON-NLS-1$
+				if ((lineFlags & STAR_LINE) != 0)
 				{
 					indent--;
 				}
-				if (starts.containsKey(indent))
+				Integer startLine = starts.remove(indent);
+				if (startLine != null && startLine != line)
+				{
+					lineRegions.add(new int[] { startLine, line });
+				}
+			}
+		}
+		return lineRegions;
+	}
+
+	/**
+	 * Works out which regions are new and which are gone, keeping the annotations of the regions that haven't moved,
+	 * and updates {@link #fRegions} to match. Called with the lock held; the positions are registered with the document
+	 * afterwards by {@link #applyRegions(Map, Map)}.
+	 */
+	private void diffRegions(List<Position> positions, Map<ProjectionAnnotation, Position> added,
+			Map<ProjectionAnnotation, Position> removed)
+	{
+		Map<Position, ProjectionAnnotation> existing = new HashMap<Position, ProjectionAnnotation>(fRegions.size() * 2);
+		for (Map.Entry<ProjectionAnnotation, Position> entry : fRegions.entrySet())
+		{
+			Position position = entry.getValue();
+			if (!position.isDeleted())
+			{
+				existing.put(new Position(position.getOffset(), position.getLength()), entry.getKey());
+			}
+		}
+
+		Set<ProjectionAnnotation> kept = new HashSet<ProjectionAnnotation>(existing.size());
+		for (Position position : positions)
+		{
+			ProjectionAnnotation annotation = existing.remove(position);
+			if (annotation != null)
+			{
+				kept.add(annotation);
+				continue;
+			}
+			annotation = new ProjectionAnnotation();
+			fRegions.put(annotation, position);
+			added.put(annotation, position);
+		}
+
+		for (Iterator<Map.Entry<ProjectionAnnotation, Position>> i = fRegions.entrySet().iterator(); i.hasNext();)
+		{
+			Map.Entry<ProjectionAnnotation, Position> entry = i.next();
+			if (!kept.contains(entry.getKey()) && !added.containsKey(entry.getKey()))
+			{
+				removed.put(entry.getKey(), entry.getValue());
+				i.remove();
+			}
+		}
+	}
+
+	/**
+	 * Registers the new regions' positions with the document, so they move along with edits, and unregisters the old
+	 * ones. Must not be called with the lock held. Should the document change in between, a region that no longer fits
+	 * is dropped; the others are off until the next pass, which compares against fresh offsets and replaces them.
+	 */
+	private FoldingDelta applyRegions(Map<ProjectionAnnotation, Position> added,
+			Map<ProjectionAnnotation, Position> removed)
+	{
+		try
+		{
+			for (Iterator<Map.Entry<ProjectionAnnotation, Position>> i = added.entrySet().iterator(); i.hasNext();)
+			{
+				Map.Entry<ProjectionAnnotation, Position> entry = i.next();
+				try
+				{
+					fDocument.addPosition(fPositionCategory, entry.getValue());
+				}
+				catch (BadLocationException e)
 				{
-					IRubyObject endMatcher = endRegexp.match_m(endRegexp.getRuntime().getCurrentContext(), rLine);
-					if (!endMatcher.isNil())
+					synchronized (fLock)
 					{
-						int startingOffset = starts.remove(indent);
-						int startLine = fDocument.getLineOfOffset(startingOffset);
-						if (startLine != currentLine)
-						{
-							int end = lineRegion.getOffset() + lineRegion.getLength() + 1; // cheat and just use end of
-																							// line
-							if (end > fDocument.getLength())
-							{
-								end = fDocument.getLength();
-							}
-							int posLength = end - startingOffset;
-							if (posLength > 0)
-							{
-								Position position = new Position(startingOffset, posLength);
-								newPositions.put(new ProjectionAnnotation(), position);
-							}
-						}
+						fRegions.remove(entry.getKey());
 					}
+					i.remove();
 				}
 			}
-			if (monitor != null)
-				monitor.worked(1);
+			for (Position position : removed.values())
+			{
+				fDocument.removePosition(fPositionCategory, position);
+			}
+		}
+		catch (BadPositionCategoryException e)
+		{
+			// disposed
+			return null;
+		}
+		return new FoldingDelta(added, removed.keySet());
+	}
+
+	/**
+	 * Lines <code>line</code> to <code>line + removedLines</code> were replaced by <code>addedLines + 1</code> lines.
+	 * Shifts the lines below and marks the new ones dirty.
+	 */
+	private void replaceLines(int line, int removedLines, int addedLines)
+	{
+		if (line < 0 || line + removedLines >= fLineCount)
+		{
+			fNeedsFullPass = true;
+			return;
+		}
+		int shift = addedLines - removedLines;
+		if (fScanLine > line + removedLines)
+		{
+			fScanLine += shift;
+		}
+		else if (fScanLine > line)
+		{
+			fScanLine = line;
+		}
+		if (shift != 0)
+		{
+			int lineCount = fLineCount + shift;
+			ensureCapacity(lineCount);
+			int tail = line + removedLines + 1;
+			int tailLength = fLineCount - tail;
+			System.arraycopy(fFlags, tail, fFlags, tail + shift, tailLength);
+			System.arraycopy(fIndents, tail, fIndents, tail + shift, tailLength);
+			System.arraycopy(fStartScopes, tail, fStartScopes, tail + shift, tailLength);
+			System.arraycopy(fEndScopes, tail, fEndScopes, tail + shift, tailLength);
+			fLineCount = lineCount;
+		}
+		for (int i = line; i <= line + addedLines; i++)
+		{
+			fFlags[i] |= DIRTY;
+		}
+		fFirstDirtyLine = Math.min(fFirstDirtyLine, line);
+	}
+
+	private void resetLines()
+	{
+		fNeedsFullPass = false;
+		fLineCount = fDocument.getNumberOfLines();
+		fFlags = new byte[fLineCount];
+		fIndents = new int[fLineCount];
+		fStartScopes = new int[fLineCount];
+		fEndScopes = new int[fLineCount];
+		for (int i = 0; i < fLineCount; i++)
+		{
+			fFlags[i] = DIRTY;
+		}
+		fFirstDirtyLine = 0;
+		fStamp++;
+	}
+
+	private void ensureCapacity(int lineCount)
+	{
+		if (lineCount <= fFlags.length)
+		{
+			return;
+		}
+		int capacity = Math.max(lineCount, fFlags.length + (fFlags.length >> 1) + 16);
+		byte[] flags = new byte[capacity];
+		System.arraycopy(fFlags, 0, flags, 0, fLineCount);
+		fFlags = flags;
+		fIndents = grow(fIndents, capacity);
+		fStartScopes = grow(fStartScopes, capacity);
+		fEndScopes = grow(fEndScopes, capacity);
+	}
+
+	private int[] grow(int[] array, int capacity)
+	{
+		int[] result = new int[capacity];
+		System.arraycopy(array, 0, result, 0, fLineCount);
+		return result;
+	}
+
+	private int nextDirtyLine(int line)
+	{
+		while (line < fLineCount && (fFlags[line] & DIRTY) == 0)
+		{
+			line++;
+		}
+		return line;
+	}
+
+	private static int hash(String scope)
+	{
+		return (scope == null) ? 0 : scope.hashCode();
+	}
+
+	private void clearMatchers()
+	{
+		fStartMatchers.clear();
+		fEndMatchers.clear();
+		fMatchers.clear();
+	}
+
+	private FoldMarkerMatcher getStartMatcher(String scope)
+	{
+		if (fStartMatchers.containsKey(scope))
+		{
+			return fStartMatchers.get(scope);
 		}
+		FoldMarkerMatcher matcher = getMatcher(getStartFoldRegexp(scope));
+		fStartMatchers.put(scope, matcher);
+		return matcher;
+	}
 
-		if (monitor != null)
+	private FoldMarkerMatcher getEndMatcher(String scope)
+	{
+		if (fEndMatchers.containsKey(scope))
+		{
+			return fEndMatchers.get(scope);
+		}
+		FoldMarkerMatcher matcher = getMatcher(getEndFoldRegexp(scope));
+		fEndMatchers.put(scope, matcher);
+		return matcher;
+	}
+
+	private FoldMarkerMatcher getMatcher(RubyRegexp regexp)
+	{
+		if (regexp == null)
+		{
+			return null;
+		}
+		FoldMarkerMatcher matcher = fMatchers.get(regexp);
+		if (matcher == null)
 		{
-			monitor.done();
+			matcher = new FoldMarkerMatcher(regexp);
+			fMatchers.put(regexp, matcher);
 		}
-		return newPositions;
+		return matcher;
 	}
 
 	protected String getScopeAtOffset(int offset) throws BadLocationException
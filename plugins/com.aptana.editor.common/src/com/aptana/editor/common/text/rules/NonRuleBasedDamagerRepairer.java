@@ -8,19 +8,14 @@
 package com.aptana.editor.common.text.rules;
 
 import org.eclipse.core.runtime.Assert;
-import org.eclipse.jface.text.AbstractDocument;
 import org.eclipse.jface.text.BadLocationException;
-import org.eclipse.jface.text.BadPositionCategoryException;
 import org.eclipse.jface.text.DocumentEvent;
 import org.eclipse.jface.text.IDocument;
 import org.eclipse.jface.text.IRegion;
-import org.eclipse.jface.text.ISynchronizable;
 import org.eclipse.jface.text.ITypedRegion;
-import org.eclipse.jface.text.Position;
 import org.eclipse.jface.text.Region;
 import org.eclipse.jface.text.TextAttribute;
 import org.eclipse.jface.text.TextPresentation;
-import org.eclipse.jface.text.TypedPosition;
 import org.eclipse.jface.text.presentation.IPresentationDamager;
 import org.eclipse.jface.text.presentation.IPresentationRepairer;
 import org.eclipse.jface.text.rules.IToken;
@@ -28,7 +23,6 @@ import org.eclipse.swt.custom.StyleRange;
 
 import com.aptana.core.logging.IdeLog;
 import com.aptana.editor.common.CommonEditorPlugin;
-import com.aptana.editor.common.ICommonConstants;
 import com.aptana.editor.common.scripting.IDocumentScopeManager;
 import com.aptana.theme.IThemeManager;
 import com.aptana.theme.ThemePlugin;
@@ -139,97 +133,12 @@ public class NonRuleBasedDamagerRepairer implements IPresentationDamager, IPrese
 	 */
 	public void createPresentation(TextPresentation presentation, ITypedRegion region)
 	{
-		wipeExistingScopes(region);
-		synchronized (getLockObject(fDocument))
-		{
-			try
-			{
-				fDocument.addPositionCategory(ICommonConstants.SCOPE_CATEGORY);
-				fDocument.addPosition(
-						ICommonConstants.SCOPE_CATEGORY,
-						new TypedPosition(region.getOffset(), region.getLength(), (String) fDefaultTextAttribute
-								.getData()));
-			}
-			catch (Exception e)
-			{
-				IdeLog.logError(CommonEditorPlugin.getDefault(), e);
-			}
-		}
+		TokenScopeMap.getTokenScopeMap(fDocument).replace(region.getOffset(), region.getLength(),
+				(String) fDefaultTextAttribute.getData());
 
 		addRange(presentation, region.getOffset(), region.getLength(), getTextAttribute(region));
 	}
 
-	/**
-	 * Given a partition region, iterate through all our scope positions and wipe any in that region.
-	 * 
-	 * @param region
-	 * @throws BadPositionCategoryException
-	 */
-	private void wipeExistingScopes(ITypedRegion region)
-	{
-		int offset = region.getOffset();
-		int end = offset + region.getLength();
-
-		try
-		{
-			synchronized (getLockObject(fDocument))
-			{
-				fDocument.addPositionCategory(ICommonConstants.SCOPE_CATEGORY);
-				int index = fDocument.computeIndexInCategory(ICommonConstants.SCOPE_CATEGORY, offset);
-				int endIndex = fDocument.computeIndexInCategory(ICommonConstants.SCOPE_CATEGORY, end);
-				if (endIndex == index)
-				{
-					// there should be nothing to wipe!
-					return;
-				}
-				// Only loop over positions[index] to positions[endIndex - 1]!
-				int start;
-				int stop;
-				Position[] positions;
-				if (fDocument instanceof AbstractDocument)
-				{
-					AbstractDocument abDoc = (AbstractDocument) fDocument;
-					positions = abDoc.getPositions(ICommonConstants.SCOPE_CATEGORY, offset, region.getLength(), false,
-							false);
-					start = 0;
-					stop = positions.length;
-				}
-				else
-				{
-					positions = fDocument.getPositions(ICommonConstants.SCOPE_CATEGORY);
-					start = index;
-					stop = endIndex;
-				}
-				for (int i = start; i < stop; i++)
-				{
-					fDocument.removePosition(ICommonConstants.SCOPE_CATEGORY, positions[i]);
-				}
-			}
-		}
-		catch (BadPositionCategoryException e)
-		{
-			// should never happen because we are explicitly adding the category before asking for positions inside it
-			IdeLog.logError(CommonEditorPlugin.getDefault(), e.getMessage());
-		}
-		catch (BadLocationException e)
-		{
-			IdeLog.logError(CommonEditorPlugin.getDefault(), e.getMessage());
-		}
-	}
-
-	private static Object getLockObject(Object object)
-	{
-		if (object instanceof ISynchronizable)
-		{
-			Object lock = ((ISynchronizable) object).getLockObject();
-			if (lock != null)
-			{
-				return lock;
-			}
-		}
-		return object;
-	}
-
 	protected TextAttribute getTextAttribute(ITypedRegion region)
 	{
 		Object data = fDefaultTextAttribute.getData();
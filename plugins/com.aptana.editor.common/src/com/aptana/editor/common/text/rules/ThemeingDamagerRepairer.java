@@ -8,22 +8,17 @@
 package com.aptana.editor.common.text.rules;
 
 import java.text.MessageFormat;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 
 import org.eclipse.core.runtime.Platform;
 import org.eclipse.core.runtime.preferences.DefaultScope;
 import org.eclipse.core.runtime.preferences.IScopeContext;
 import org.eclipse.core.runtime.preferences.InstanceScope;
-import org.eclipse.jface.text.AbstractDocument;
 import org.eclipse.jface.text.BadLocationException;
-import org.eclipse.jface.text.BadPositionCategoryException;
 import org.eclipse.jface.text.IRegion;
 import org.eclipse.jface.text.ITypedRegion;
-import org.eclipse.jface.text.Position;
 import org.eclipse.jface.text.TextAttribute;
 import org.eclipse.jface.text.TextPresentation;
-import org.eclipse.jface.text.TypedPosition;
 import org.eclipse.jface.text.rules.DefaultDamagerRepairer;
 import org.eclipse.jface.text.rules.IToken;
 import org.eclipse.jface.text.rules.ITokenScanner;
@@ -33,7 +28,6 @@ import org.eclipse.swt.graphics.Color;
 import com.aptana.core.logging.IdeLog;
 import com.aptana.core.util.StringUtil;
 import com.aptana.editor.common.CommonEditorPlugin;
-import com.aptana.editor.common.ICommonConstants;
 import com.aptana.editor.common.IDebugScopes;
 import com.aptana.editor.common.preferences.IPreferenceConstants;
 import com.aptana.editor.common.scripting.IDocumentScopeManager;
@@ -42,7 +36,7 @@ import com.aptana.theme.Theme;
 import com.aptana.theme.ThemePlugin;
 
 /**
- * Stores scopes in Positions on the IDocument. Transforms scopes to TextAttributes for colorization. Has a couple
+ * Stores token scopes in the document's {@link TokenScopeMap}. Transforms scopes to TextAttributes for colorization. Has a couple
  * performance tweaks to limit the number of StyleRanges applied to an editor. We don't apply ranges that have the same
  * fg/bg/font as the defaults, and we don't apply ranges past a given column # per-line (default is 200).
  * 
@@ -56,16 +50,20 @@ public class ThemeingDamagerRepairer extends DefaultDamagerRepairer
 	 */
 	private final int maxLinesToColor;
 
-	/**
-	 * Constant for no positions.
-	 */
-	private static final Position[] NO_POSITIONS = new Position[0];
+	private static final int INITIAL_RUNS = 64;
 
 	private TextAttribute lastAttribute;
 	private String scope = StringUtil.EMPTY;
-	private TypedPosition fLastPosition;
-	private List<Position> newPositions;
-	private Position[] oldPositions;
+	private boolean fExtendLastRun;
+
+	/**
+	 * The scope runs collected while scanning the region being repaired, merging adjacent tokens with the same scope.
+	 */
+	private int[] runStarts = new int[INITIAL_RUNS];
+	private int[] runLengths = new int[INITIAL_RUNS];
+	private String[] runScopes = new String[INITIAL_RUNS];
+	private int runCount;
+
 	private int fEndOfLine;
 	private int fEndOffset;
 
@@ -91,15 +89,13 @@ public class ThemeingDamagerRepairer extends DefaultDamagerRepairer
 			}
 			fEndOfLine = -1;
 			fEndOffset = -1;
-			fLastPosition = null;
+			fExtendLastRun = false;
 			int offset = region.getOffset();
 			scope = getDocumentScopeManager().getScopeAtOffset(fDocument, offset);
 			if (scope == null)
 			{
 				scope = StringUtil.EMPTY;
 			}
-			oldPositions = getExistingScopes(region);
-			newPositions = new ArrayList<Position>();
 		}
 		catch (BadLocationException e)
 		{
@@ -109,143 +105,27 @@ public class ThemeingDamagerRepairer extends DefaultDamagerRepairer
 		{
 			// Do coloring and collect all the scopes
 			super.createPresentation(presentation, region);
-			updateScopePositions();
+			updateScopes(region);
 
-			oldPositions = null;
-			newPositions = null;
+			// don't hold on to the scope names between repairs
+			Arrays.fill(runScopes, 0, runCount, null);
+			runCount = 0;
 			scope = StringUtil.EMPTY;
 			fEndOfLine = -1;
 			fEndOffset = -1;
-			fLastPosition = null;
-		}
-	}
-
-	/**
-	 * This attempts to do minimal add/remove calls for positions on IDocument, since each call synchronizes on the
-	 * document, which adds up very quickly.
-	 */
-	private void updateScopePositions()
-	{
-		try
-		{
-			int oldIndex = 0;
-			int newIndex = 0;
-			int oldLength = (oldPositions == null) ? 0 : oldPositions.length;
-			int newLength = newPositions.size();
-			while (newIndex < newLength && oldIndex < oldLength)
-			{
-				Position newPosition = newPositions.get(newIndex);
-				Position oldPosition = oldPositions[oldIndex];
-				if (newPosition.equals(oldPosition))
-				{
-					// a match, move on
-					oldIndex++;
-					newIndex++;
-					continue;
-				}
-				// uh oh, no match. figure out if we need to remove old / add new
-				else if (newPosition.offset + newPosition.length < oldPosition.offset)
-				{
-					// new Position is before old, so just add the new one
-					fDocument.addPosition(ICommonConstants.SCOPE_CATEGORY, newPosition);
-					newIndex++;
-					continue;
-				}
-				if (oldPosition.offset + oldPosition.length < newPosition.offset)
-				{
-					// old Position is before new, so just remove the old one
-					oldPosition.delete();
-					fDocument.removePosition(ICommonConstants.SCOPE_CATEGORY, oldPosition);
-					oldIndex++;
-					continue;
-				}
-
-				// same scope, but offset/length has changed. Update them on position
-				if (((TypedPosition) oldPosition).getType().equals(((TypedPosition) newPosition).getType()))
-				{
-					oldPosition.offset = newPosition.offset;
-					oldPosition.length = newPosition.length;
-				}
-				else
-				{
-					// scope has changed, remove old, add new
-					oldPosition.delete();
-					fDocument.removePosition(ICommonConstants.SCOPE_CATEGORY, oldPosition);
-					fDocument.addPosition(ICommonConstants.SCOPE_CATEGORY, newPosition);
-				}
-				oldIndex++;
-				newIndex++;
-				continue;
-			}
-			// if we went off the end of one list, but not the other - We still need to add or remove!
-			for (int i = oldIndex; i < oldLength; i++)
-			{
-				oldPositions[i].delete();
-				fDocument.removePosition(ICommonConstants.SCOPE_CATEGORY, oldPositions[i]);
-			}
-			for (int i = newIndex; i < newLength; i++)
-			{
-				fDocument.addPosition(ICommonConstants.SCOPE_CATEGORY, newPositions.get(i));
-			}
-		}
-		catch (BadLocationException e1)
-		{
-			IdeLog.logError(CommonEditorPlugin.getDefault(), e1);
-		}
-		catch (BadPositionCategoryException e1)
-		{
-			IdeLog.logError(CommonEditorPlugin.getDefault(), e1);
+			fExtendLastRun = false;
 		}
 	}
 
 	/**
-	 * Grab the set of scopes stored for this document in this region.
+	 * Replaces the scopes stored for the repaired region with the runs collected while scanning it.
 	 * 
 	 * @param region
-	 * @throws BadPositionCategoryException
 	 */
-	private Position[] getExistingScopes(ITypedRegion region)
+	private void updateScopes(ITypedRegion region)
 	{
-		int offset = region.getOffset();
-		int end = offset + region.getLength();
-
-		try
-		{
-			fDocument.addPositionCategory(ICommonConstants.SCOPE_CATEGORY);
-			int index = fDocument.computeIndexInCategory(ICommonConstants.SCOPE_CATEGORY, offset);
-			int endIndex = fDocument.computeIndexInCategory(ICommonConstants.SCOPE_CATEGORY, end);
-			if (endIndex == index)
-			{
-				// there should be nothing to wipe!
-				return NO_POSITIONS;
-			}
-			if (fDocument instanceof AbstractDocument)
-			{
-				AbstractDocument abDoc = (AbstractDocument) fDocument;
-				Position[] positions = abDoc.getPositions(ICommonConstants.SCOPE_CATEGORY, offset, region.getLength(),
-						false, false);
-				return positions;
-			}
-
-			Position[] positions = fDocument.getPositions(ICommonConstants.SCOPE_CATEGORY);
-			int start = index;
-			int stop = endIndex;
-
-			int length = stop - start;
-			Position[] sub = new Position[length];
-			System.arraycopy(positions, start, sub, 0, length);
-			return sub;
-		}
-		catch (BadPositionCategoryException e)
-		{
-			// should never happen because we are explicitly adding the category before asking for positions inside it
-			IdeLog.logError(CommonEditorPlugin.getDefault(), e.getMessage());
-		}
-		catch (BadLocationException e)
-		{
-			IdeLog.logError(CommonEditorPlugin.getDefault(), e.getMessage());
-		}
-		return NO_POSITIONS;
+		TokenScopeMap.getTokenScopeMap(fDocument).replace(region.getOffset(), region.getLength(), runStarts,
+				runLengths, runScopes, runCount);
 	}
 
 	@Override
@@ -294,8 +174,8 @@ public class ThemeingDamagerRepairer extends DefaultDamagerRepairer
 		// it.
 		if (tokenLevelScope == null || tokenLevelScope.length() == 0)
 		{
-			// Wipe last position because we have an empty scope in between...
-			fLastPosition = null;
+			// Don't extend the last run because we have an empty scope in between...
+			fExtendLastRun = false;
 			return;
 		}
 
@@ -314,19 +194,40 @@ public class ThemeingDamagerRepairer extends DefaultDamagerRepairer
 					"Scanner {0} returned a token with invalid length: {1}", fScanner.getClass().getName(), length)); //$NON-NLS-1$
 		}
 
-		// Continuing same scope as last position, expand to merge them
-		if (fLastPosition != null && fLastPosition.getType().equals(tokenLevelScope))
+		// Continuing same scope as last run, expand to merge them
+		int last = runCount - 1;
+		if (fExtendLastRun && runScopes[last].equals(tokenLevelScope))
 		{
-			fLastPosition.setLength((offset + length) - fLastPosition.getOffset());
+			runLengths[last] = (offset + length) - runStarts[last];
 		}
 		else
 		{
-			TypedPosition newPosition = new TypedPosition(offset, length, tokenLevelScope);
-			fLastPosition = newPosition;
-			newPositions.add(newPosition);
+			if (runCount == runStarts.length)
+			{
+				growRuns();
+			}
+			runStarts[runCount] = offset;
+			runLengths[runCount] = length;
+			runScopes[runCount] = tokenLevelScope;
+			runCount++;
+			fExtendLastRun = true;
 		}
 	}
 
+	private void growRuns()
+	{
+		int capacity = runStarts.length * 2;
+		int[] newStarts = new int[capacity];
+		int[] newLengths = new int[capacity];
+		String[] newScopes = new String[capacity];
+		System.arraycopy(runStarts, 0, newStarts, 0, runCount);
+		System.arraycopy(runLengths, 0, newLengths, 0, runCount);
+		System.arraycopy(runScopes, 0, newScopes, 0, runCount);
+		runStarts = newStarts;
+		runLengths = newLengths;
+		runScopes = newScopes;
+	}
+
 	@Override
 	protected void addRange(TextPresentation presentation, int offset, int length, TextAttribute attr)
 	{
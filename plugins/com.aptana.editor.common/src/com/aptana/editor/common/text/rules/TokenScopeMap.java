@@ -0,0 +1,503 @@
+/**
+ * Aptana Studio
+ * Copyright (c) 2013 by Appcelerator, Inc. All Rights Reserved.
+ * Licensed under the terms of the GNU Public License (GPL) v3 (with exceptions).
+ * Please see the license.html included with this distribution for details.
+ * Any modifications to this file must keep this entire header intact.
+ */
+package com.aptana.editor.common.text.rules;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.eclipse.jface.text.DocumentEvent;
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.IDocumentExtension;
+import org.eclipse.jface.text.IDocumentListener;
+
+/**
+ * Holds the token level scopes of a document. This replaces storing a TypedPosition per token in the document, which
+ * costs an object per token plus a synchronized document call for every add/remove and gets copied out whenever the
+ * category is queried.
+ * <p>
+ * Scope runs are kept sorted by offset in three parallel int arrays (start, length, scope id) with a gap at the last
+ * edited index, so repairing a region only moves the entries between it and the previous edit. Start offsets after
+ * the last edit carry a pending shift that is folded in lazily, so a document change shifts every following run in
+ * bulk rather than one by one. Scope names are interned to ids per document. Looking up the scope at an offset is a
+ * binary search and doesn't allocate.
+ * </p>
+ * <p>
+ * Runs follow document changes via a pre-notified document listener, so they're already shifted when the presentation
+ * reconciler repairs the damaged region.
+ * </p>
+ */
+public class TokenScopeMap implements IDocumentListener
+{
+	private static final int INITIAL_CAPACITY = 64;
+
+	private static final Map<IDocument, TokenScopeMap> MAPS = new WeakHashMap<IDocument, TokenScopeMap>();
+
+	/**
+	 * Physical storage. Logical entry i lives at i when i < gapStart, otherwise at i + gapLength.
+	 */
+	private int[] starts;
+	private int[] lengths;
+	private int[] scopeIds;
+	private int count;
+	private int gapStart;
+	private int gapLength;
+
+	/**
+	 * The stored start of every logical entry at or after stepIndex is off by stepDelta.
+	 */
+	private int stepIndex;
+	private int stepDelta;
+
+	private String[] scopes;
+	private Map<String, Integer> scopeTable;
+
+	/**
+	 * TokenScopeMap
+	 */
+	TokenScopeMap()
+	{
+		starts = new int[INITIAL_CAPACITY];
+		lengths = new int[INITIAL_CAPACITY];
+		scopeIds = new int[INITIAL_CAPACITY];
+		gapLength = INITIAL_CAPACITY;
+		scopes = new String[16];
+		scopeTable = new HashMap<String, Integer>();
+	}
+
+	/**
+	 * Returns the scope map for the document, creating it and hooking it up to document changes if necessary.
+	 * 
+	 * @param document
+	 * @return
+	 */
+	public static TokenScopeMap getTokenScopeMap(IDocument document)
+	{
+		synchronized (MAPS)
+		{
+			TokenScopeMap map = MAPS.get(document);
+			if (map == null)
+			{
+				map = new TokenScopeMap();
+				if (document instanceof IDocumentExtension)
+				{
+					((IDocumentExtension) document).addPrenotifiedDocumentListener(map);
+				}
+				else
+				{
+					document.addDocumentListener(map);
+				}
+				MAPS.put(document, map);
+			}
+			return map;
+		}
+	}
+
+	/**
+	 * Returns the scope map for the document, or null if no scopes have been stored for it.
+	 * 
+	 * @param document
+	 * @return
+	 */
+	public static TokenScopeMap getExistingTokenScopeMap(IDocument document)
+	{
+		synchronized (MAPS)
+		{
+			return MAPS.get(document);
+		}
+	}
+
+	/**
+	 * Returns the scope of the run containing the offset, or null if there is none.
+	 * 
+	 * @param offset
+	 * @return
+	 */
+	public synchronized String getScopeAtOffset(int offset)
+	{
+		int index = indexOfStartAfter(offset) - 1;
+		if (index >= 0 && offset < getStart(index) + lengths[physical(index)])
+		{
+			return scopes[scopeIds[physical(index)]];
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the number of runs stored.
+	 * 
+	 * @return
+	 */
+	public synchronized int size()
+	{
+		return count;
+	}
+
+	/**
+	 * Replaces the scopes within the given region with a single run covering it.
+	 * 
+	 * @param offset
+	 * @param length
+	 * @param scope
+	 */
+	public void replace(int offset, int length, String scope)
+	{
+		replace(offset, length, new int[] { offset }, new int[] { length }, new String[] { scope }, 1);
+	}
+
+	/**
+	 * Replaces the scopes within the given region with the new runs, which must be sorted by offset, must not overlap
+	 * and must lie within the region. Runs reaching into the region from either side keep the parts outside of it, so
+	 * runs never overlap.
+	 * 
+	 * @param offset
+	 * @param length
+	 * @param runStarts
+	 * @param runLengths
+	 * @param runScopes
+	 * @param runCount
+	 */
+	public synchronized void replace(int offset, int length, int[] runStarts, int[] runLengths, String[] runScopes,
+			int runCount)
+	{
+		int end = offset + length;
+		int from = indexOfStartAfter(offset - 1);
+		int to = indexOfStartAfter(end - 1);
+
+		// cut the run reaching into the region from before it, splitting it if it also extends past the region
+		int splitEnd = -1;
+		int splitScopeId = 0;
+		if (from > 0)
+		{
+			int i = from - 1;
+			int start = getStart(i);
+			int runEnd = start + lengths[physical(i)];
+			if (runEnd > offset)
+			{
+				lengths[physical(i)] = offset - start;
+				if (runEnd > end)
+				{
+					splitEnd = runEnd;
+					splitScopeId = scopeIds[physical(i)];
+				}
+			}
+		}
+
+		// keep the tails of runs extending past the region, packed at the front of the range
+		int kept = from;
+		for (int i = from; i < to; i++)
+		{
+			int runEnd = getStart(i) + lengths[physical(i)];
+			if (runEnd > end)
+			{
+				int scopeId = scopeIds[physical(i)];
+				setStart(kept, end);
+				lengths[physical(kept)] = runEnd - end;
+				scopeIds[physical(kept)] = scopeId;
+				kept++;
+			}
+		}
+		remove(kept, to);
+		if (splitEnd != -1)
+		{
+			insert(from, 1);
+			setStart(from, end);
+			lengths[physical(from)] = splitEnd - end;
+			scopeIds[physical(from)] = splitScopeId;
+		}
+
+		int added = 0;
+		for (int i = 0; i < runCount; i++)
+		{
+			if (runLengths[i] > 0 && runStarts[i] >= offset && runStarts[i] + runLengths[i] <= end)
+			{
+				added++;
+			}
+		}
+		if (added == 0)
+		{
+			return;
+		}
+
+		int index = from;
+		insert(index, added);
+		for (int i = 0; i < runCount; i++)
+		{
+			if (runLengths[i] > 0 && runStarts[i] >= offset && runStarts[i] + runLengths[i] <= end)
+			{
+				setStart(index, runStarts[i]);
+				lengths[physical(index)] = runLengths[i];
+				scopeIds[physical(index)] = getScopeId(runScopes[i]);
+				index++;
+			}
+		}
+	}
+
+	/**
+	 * Drops all runs.
+	 */
+	public synchronized void clear()
+	{
+		count = 0;
+		gapStart = 0;
+		gapLength = starts.length;
+		stepIndex = 0;
+		stepDelta = 0;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.eclipse.jface.text.IDocumentListener#documentAboutToBeChanged(org.eclipse.jface.text.DocumentEvent)
+	 */
+	public void documentAboutToBeChanged(DocumentEvent event)
+	{
+		// nothing to do, we update once the text has changed
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.eclipse.jface.text.IDocumentListener#documentChanged(org.eclipse.jface.text.DocumentEvent)
+	 */
+	public void documentChanged(DocumentEvent event)
+	{
+		String text = event.getText();
+		update(event.getOffset(), event.getLength(), (text == null) ? 0 : text.length());
+	}
+
+	/**
+	 * Adjusts the runs for a change replacing removed chars at offset with inserted chars. Runs before the change are
+	 * left alone, runs after it are shifted, runs deleted by it are dropped and runs overlapping it are resized.
+	 * 
+	 * @param offset
+	 * @param removed
+	 * @param inserted
+	 */
+	synchronized void update(int offset, int removed, int inserted)
+	{
+		int end = offset + removed;
+		int delta = inserted - removed;
+		int from = indexOfStartAfter(offset - 1);
+		int to = indexOfStartAfter(end - 1);
+
+		// the run starting before the change may reach into it, runs don't overlap so no other one can
+		if (from > 0)
+		{
+			int i = from - 1;
+			int start = getStart(i);
+			int runEnd = start + lengths[physical(i)];
+			if (runEnd > offset)
+			{
+				if (removed == 0 || runEnd > end)
+				{
+					lengths[physical(i)] += delta;
+				}
+				else
+				{
+					lengths[physical(i)] = offset - start;
+				}
+			}
+		}
+
+		// runs starting inside the removed text are dropped, or keep what remains after it
+		int kept = from;
+		for (int i = from; i < to; i++)
+		{
+			int runEnd = getStart(i) + lengths[physical(i)];
+			if (runEnd > end)
+			{
+				int scopeId = scopeIds[physical(i)];
+				setStart(kept, offset + inserted);
+				lengths[physical(kept)] = runEnd - end;
+				scopeIds[physical(kept)] = scopeId;
+				kept++;
+			}
+		}
+		remove(kept, to);
+
+		if (delta != 0)
+		{
+			shift(kept, delta);
+		}
+	}
+
+	/**
+	 * Returns the index of the first run starting after the offset.
+	 * 
+	 * @param offset
+	 * @return
+	 */
+	private int indexOfStartAfter(int offset)
+	{
+		int low = 0;
+		int high = count;
+		while (low < high)
+		{
+			int mid = (low + high) >>> 1;
+			if (getStart(mid) <= offset)
+			{
+				low = mid + 1;
+			}
+			else
+			{
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	private int physical(int index)
+	{
+		return (index < gapStart) ? index : index + gapLength;
+	}
+
+	private int getStart(int index)
+	{
+		int start = starts[physical(index)];
+		return (index < stepIndex) ? start : start + stepDelta;
+	}
+
+	private void setStart(int index, int start)
+	{
+		starts[physical(index)] = (index < stepIndex) ? start : start - stepDelta;
+	}
+
+	/**
+	 * Shifts the start of every run from the index on by delta. The entries between the previous and the new step
+	 * index get the pending delta applied; the rest is done by adjusting it.
+	 * 
+	 * @param index
+	 * @param delta
+	 */
+	private void shift(int index, int delta)
+	{
+		if (index >= count)
+		{
+			return;
+		}
+		if (stepDelta != 0)
+		{
+			for (int i = stepIndex; i < index; i++)
+			{
+				starts[physical(i)] += stepDelta;
+			}
+			for (int i = index; i < stepIndex; i++)
+			{
+				starts[physical(i)] -= stepDelta;
+			}
+		}
+		stepIndex = index;
+		stepDelta += delta;
+	}
+
+	/**
+	 * Removes the runs from index from (inclusive) to index to (exclusive).
+	 * 
+	 * @param from
+	 * @param to
+	 */
+	private void remove(int from, int to)
+	{
+		int removed = to - from;
+		if (removed <= 0)
+		{
+			return;
+		}
+		moveGap(to);
+		gapStart = from;
+		gapLength += removed;
+		count -= removed;
+		if (stepIndex > from)
+		{
+			stepIndex = Math.max(from, stepIndex - removed);
+		}
+		if (count == 0)
+		{
+			clear();
+		}
+	}
+
+	/**
+	 * Opens up room for the given number of runs at the index. The caller fills them in using setStart, which takes
+	 * care of the pending shift.
+	 * 
+	 * @param index
+	 * @param added
+	 */
+	private void insert(int index, int added)
+	{
+		if (gapLength < added)
+		{
+			grow(added);
+		}
+		moveGap(index);
+		gapStart += added;
+		gapLength -= added;
+		count += added;
+		if (stepIndex > index)
+		{
+			stepIndex += added;
+		}
+	}
+
+	private void moveGap(int index)
+	{
+		if (index < gapStart)
+		{
+			int moved = gapStart - index;
+			System.arraycopy(starts, index, starts, index + gapLength, moved);
+			System.arraycopy(lengths, index, lengths, index + gapLength, moved);
+			System.arraycopy(scopeIds, index, scopeIds, index + gapLength, moved);
+		}
+		else if (index > gapStart)
+		{
+			int moved = index - gapStart;
+			System.arraycopy(starts, gapStart + gapLength, starts, gapStart, moved);
+			System.arraycopy(lengths, gapStart + gapLength, lengths, gapStart, moved);
+			System.arraycopy(scopeIds, gapStart + gapLength, scopeIds, gapStart, moved);
+		}
+		gapStart = index;
+	}
+
+	private void grow(int needed)
+	{
+		int capacity = Math.max(starts.length * 2, count + needed);
+		int tail = count - gapStart;
+		int newGapLength = capacity - count;
+		starts = grow(starts, capacity, tail, newGapLength);
+		lengths = grow(lengths, capacity, tail, newGapLength);
+		scopeIds = grow(scopeIds, capacity, tail, newGapLength);
+		gapLength = newGapLength;
+	}
+
+	private int[] grow(int[] array, int capacity, int tail, int newGapLength)
+	{
+		int[] result = new int[capacity];
+		System.arraycopy(array, 0, result, 0, gapStart);
+		System.arraycopy(array, gapStart + gapLength, result, gapStart + newGapLength, tail);
+		return result;
+	}
+
+	private int getScopeId(String scope)
+	{
+		Integer id = scopeTable.get(scope);
+		if (id != null)
+		{
+			return id;
+		}
+		int newId = scopeTable.size();
+		if (newId == scopes.length)
+		{
+			String[] newScopes = new String[newId * 2];
+			System.arraycopy(scopes, 0, newScopes, 0, newId);
+			scopes = newScopes;
+		}
+		scopes[newId] = scope;
+		scopeTable.put(scope, newId);
+		return newId;
+	}
+}
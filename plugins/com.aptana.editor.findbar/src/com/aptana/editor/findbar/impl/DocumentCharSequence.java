@@ -0,0 +1,125 @@
+/**
+ * Aptana Studio
+ * Copyright (c) 2013 by Appcelerator, Inc. All Rights Reserved.
+ * Licensed under the terms of the GNU Public License (GPL) v3 (with exceptions).
+ * Please see the license.html included with this distribution for details.
+ * Any modifications to this file must keep this entire header intact.
+ */
+package com.aptana.editor.findbar.impl;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
+import org.eclipse.jface.text.BadLocationException;
+import org.eclipse.jface.text.IDocument;
+
+/**
+ * A read-only view of a region of a document that lets a regex run over it without copying the whole document into a
+ * string. Characters are fetched a chunk at a time, so the matcher walking forward costs one small copy every
+ * {@link #CHUNK_SIZE} characters.
+ * <p>
+ * Since matching may take a while on big documents the monitor is checked each time a chunk is fetched, and
+ * {@link OperationCanceledException} is thrown once it has been cancelled. It is checked again after the chunk has been
+ * read: whoever changes the document is expected to cancel the monitor first (see {@link MatchCounter}), and a chunk
+ * read while that happens may be garbage, or fail to read at all.
+ */
+/* package */class DocumentCharSequence implements CharSequence
+{
+
+	private static final int CHUNK_SIZE = 8192;
+
+	private final IDocument document;
+	private final int offset;
+	private final int length;
+	private final IProgressMonitor monitor;
+
+	private String chunk;
+	private int chunkStart = -1;
+
+	/**
+	 * @param document
+	 * @param offset
+	 *            where in the document the sequence starts
+	 * @param length
+	 * @param monitor
+	 *            may be null
+	 */
+	DocumentCharSequence(IDocument document, int offset, int length, IProgressMonitor monitor)
+	{
+		this.document = document;
+		this.offset = offset;
+		this.length = length;
+		this.monitor = monitor;
+	}
+
+	public int length()
+	{
+		return length;
+	}
+
+	public char charAt(int index)
+	{
+		if (index < 0 || index >= length)
+		{
+			throw new IndexOutOfBoundsException(String.valueOf(index));
+		}
+		if (chunk == null || index < chunkStart || index >= chunkStart + chunk.length())
+		{
+			loadChunk(index - (index % CHUNK_SIZE));
+		}
+		return chunk.charAt(index - chunkStart);
+	}
+
+	private void loadChunk(int start)
+	{
+		if (monitor != null && monitor.isCanceled())
+		{
+			throw new OperationCanceledException();
+		}
+		String text;
+		try
+		{
+			text = document.get(offset + start, Math.min(CHUNK_SIZE, length - start));
+		}
+		catch (BadLocationException e)
+		{
+			// the document was changed while we were reading it
+			throw new OperationCanceledException();
+		}
+		catch (RuntimeException e)
+		{
+			if (monitor != null && monitor.isCanceled())
+			{
+				throw new OperationCanceledException();
+			}
+			throw e;
+		}
+		if (monitor != null && monitor.isCanceled())
+		{
+			throw new OperationCanceledException();
+		}
+		chunk = text;
+		chunkStart = start;
+	}
+
+	public CharSequence subSequence(int start, int end)
+	{
+		if (start < 0 || end > length || start > end)
+		{
+			throw new IndexOutOfBoundsException();
+		}
+		return new DocumentCharSequence(document, offset + start, end - start, monitor);
+	}
+
+	@Override
+	public String toString()
+	{
+		try
+		{
+			return document.get(offset, length);
+		}
+		catch (BadLocationException e)
+		{
+			throw new OperationCanceledException();
+		}
+	}
+}
@@ -24,6 +24,7 @@ import org.eclipse.core.commands.ParameterizedCommand;
 import org.eclipse.core.commands.common.NotDefinedException;
 import org.eclipse.core.runtime.Assert;
 import org.eclipse.core.runtime.Platform;
+import org.eclipse.core.runtime.jobs.Job;
 import org.eclipse.core.runtime.preferences.IEclipsePreferences;
 import org.eclipse.core.runtime.preferences.IScopeContext;
 import org.eclipse.core.runtime.preferences.InstanceScope;
@@ -1103,6 +1104,7 @@ public class FindBarDecorator implements IFindBarDecorator, SelectionListener
 	public void dispose()
 	{
 		findBarVisibilityControl.unregister(this);
+		cancelMatchCounter();
 		IPreferenceStore preferenceStore = FindBarPlugin.getDefault().getPreferenceStore();
 		preferenceStore.removePropertyChangeListener(fFindBarActionOnPropertyChange);
 		fOriginalFindBarAction = null;
@@ -1392,7 +1394,6 @@ public class FindBarDecorator implements IFindBarDecorator, SelectionListener
 		if (findScope == FindScope.CURRENT_FILE && isTextFindValid())
 		{
 			setFindText(textFind.getText());
-			incrementCountPosition(false);
 			findBarFinder.find(false);
 			updateLastCountPosition();
 		}
@@ -1403,7 +1404,6 @@ public class FindBarDecorator implements IFindBarDecorator, SelectionListener
 		if (findScope == FindScope.CURRENT_FILE && isTextFindValid())
 		{
 			setFindText(textFind.getText());
-			incrementCountPosition(true);
 			findBarFinder.find(true);
 			updateLastCountPosition();
 		}
@@ -1457,92 +1457,100 @@ public class FindBarDecorator implements IFindBarDecorator, SelectionListener
 		lastReplaceHistory = -1;
 	}
 
-	private static final int TOO_MANY = Integer.getInteger(FindBarDecorator.class.getName() + ".TOO_MANY", 100); //$NON-NLS-1$
-
 	private Label sashSeparator;
 
 	private FindBarOption countMatchesOption;
 
+	/**
+	 * Counts matches for the current search in the background; null when not counting.
+	 */
+	private MatchCounter matchCounter;
+
+	private final MatchCounter.IMatchCountListener matchCountListener = new MatchCounter.IMatchCountListener()
+	{
+		public void countChanged(final MatchCounter counter)
+		{
+			UIUtils.getDisplay().asyncExec(new Runnable()
+			{
+				public void run()
+				{
+					if (counter == matchCounter && !countMatches.isDisposed())
+					{
+						updateCountLabel(counter);
+					}
+				}
+			});
+		}
+	};
+
 	void showCountTotal()
 	{
 		if (!countMatches.getSelection())
 		{
+			cancelMatchCounter();
 			countMatches.setText(StringUtil.EMPTY);
 			return;
 		}
 
 		lastCountOffset = sourceViewer.getTextWidget().getCaretOffset();
 
-		int currentCount = 0;
-		int total = 0;
-		if (isTextFindValid())
+		if (!isTextFindValid())
 		{
-			String text = sourceViewer.getDocument().get();
-			Pattern pattern = createFindPattern();
-			IRegion scope = findBarFinder.getScope();
-
-			// Truncate the search string if there is a scope set
-			if (scope != null)
-			{
-				text = text.substring(scope.getOffset(), scope.getOffset() + scope.getLength());
-			}
-			else
-			{
-				scope = new Region(0, text.length());
-			}
-
-			Matcher matcher = pattern.matcher(text);
-
-			if (matcher.find(0))
-			{
-				total = 1;
-
-				FindBarConfiguration configuration = getConfiguration();
-				if ((!configuration.getSearchBackward() && lastCountOffset > (matcher.start() + scope.getOffset()))
-						|| (configuration.getSearchBackward() && lastCountOffset >= (matcher.start() + scope
-								.getOffset())))
-				{
-					currentCount = total;
-				}
-				while (matcher.find())
-				{
-					++total;
-
-					if ((!configuration.getSearchBackward() && lastCountOffset > (matcher.start() + scope.getOffset()))
-							|| (configuration.getSearchBackward() && lastCountOffset >= (matcher.start() + scope
-									.getOffset())))
-					{
-						currentCount = total;
-					}
-
-					if ((TOO_MANY != -1) && total > TOO_MANY)
-					{
-						break;
-					}
-				}
-			}
-
-			if (currentCount > total)
-			{
-				currentCount = currentCount - total;
-			}
+			cancelMatchCounter();
+			countMatches.setText(MessageFormat.format(Messages.FindBarDecorator_LABEL_Count_Match,
+					String.valueOf(0), String.valueOf(0)));
+			lastCountPosition = 0;
+			lastCountTotal = 0;
+			findBar.layout(true, true);
+			return;
 		}
-		if ((TOO_MANY != -1) && total > TOO_MANY)
+
+		IDocument document = sourceViewer.getDocument();
+		Pattern pattern = createFindPattern();
+		IRegion scope = findBarFinder.getScope();
+		if (scope == null)
 		{
-			countMatches.setText("> " + TOO_MANY); //$NON-NLS-1$
-			lastCountPosition = -1;
+			scope = new Region(0, document.getLength());
 		}
-		else
+
+		MatchCounter counter = matchCounter;
+		if (counter != null && counter.isValidFor(document, pattern, scope)
+				&& (counter.isDone() || counter.getState() != Job.NONE))
 		{
-			countMatches.setText(MessageFormat.format(Messages.FindBarDecorator_LABEL_Count_Match,
-					String.valueOf(currentCount), String.valueOf(total)));
-			lastCountPosition = currentCount;
+			// Same search over the same text: the offsets we have (or are still collecting) tell us where we are.
+			updateCountLabel(counter);
+			return;
 		}
+
+		// Count in the background, so typing isn't held up by big documents. The label is filled in as the count
+		// grows.
+		cancelMatchCounter();
+		matchCounter = new MatchCounter(document, pattern, scope, matchCountListener);
+		matchCounter.schedule();
+	}
+
+	private void updateCountLabel(MatchCounter counter)
+	{
+		int total = counter.getCount();
+		int currentCount = counter.countBefore(lastCountOffset, getConfiguration().getSearchBackward());
+		String message = counter.isDone() ? Messages.FindBarDecorator_LABEL_Count_Match
+				: Messages.FindBarDecorator_LABEL_Count_Match_Partial;
+		countMatches.setText(MessageFormat.format(message, String.valueOf(currentCount), String.valueOf(total)));
+		lastCountPosition = currentCount;
 		lastCountTotal = total;
 
 		findBar.layout(true, true);
 	}
 
+	private void cancelMatchCounter()
+	{
+		if (matchCounter != null)
+		{
+			matchCounter.cancel();
+			matchCounter = null;
+		}
+	}
+
 	Pattern createFindPattern()
 	{
 		String originalPattern = textFind.getText();
@@ -1569,49 +1577,11 @@ public class FindBarDecorator implements IFindBarDecorator, SelectionListener
 		return Pattern.compile(convertedPattern, flags);
 	}
 
-	void incrementCountPosition(boolean isForward)
-	{
-		if (countMatches.getSelection())
-		{
-			if (lastCountOffset == sourceViewer.getTextWidget().getCaretOffset())
-			{
-				if ((TOO_MANY != -1) && lastCountTotal > TOO_MANY)
-				{
-					return;
-				}
-
-				if (isForward)
-				{
-					lastCountPosition++;
-					if (lastCountPosition > lastCountTotal)
-					{
-						lastCountPosition = 1;
-					}
-				}
-				else
-				{
-					lastCountPosition--;
-					if (lastCountPosition < 1)
-					{
-						lastCountPosition = lastCountTotal;
-					}
-				}
-				countMatches.setText(MessageFormat.format(Messages.FindBarDecorator_LABEL_Count_Match,
-						String.valueOf(lastCountPosition), String.valueOf(lastCountTotal)));
-			}
-			else
-			{
-				showCountTotal();
-			}
-			countMatches.getParent().getParent().layout(new Control[] { countMatches.getParent() });
-		}
-	}
-
 	private void updateLastCountPosition()
 	{
 		if (countMatches.getSelection())
 		{
-			lastCountOffset = sourceViewer.getTextWidget().getCaretOffset();
+			showCountTotal();
 		}
 	}
 
@@ -0,0 +1,245 @@
+/**
+ * Aptana Studio
+ * Copyright (c) 2013 by Appcelerator, Inc. All Rights Reserved.
+ * Licensed under the terms of the GNU Public License (GPL) v3 (with exceptions).
+ * Please see the license.html included with this distribution for details.
+ * Any modifications to this file must keep this entire header intact.
+ */
+package com.aptana.editor.findbar.impl;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.OperationCanceledException;
+import org.eclipse.core.runtime.ProgressMonitorWrapper;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.jface.text.DocumentEvent;
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.IDocumentExtension4;
+import org.eclipse.jface.text.IDocumentListener;
+import org.eclipse.jface.text.IRegion;
+
+import com.aptana.core.util.EclipseUtil;
+import com.aptana.core.util.ObjectUtil;
+import com.aptana.editor.findbar.FindBarPlugin;
+
+/**
+ * Counts the matches of the find bar's pattern in the background and remembers where they start, so the find bar can
+ * tell which match is selected with a binary search rather than by going over the document again.
+ * <p>
+ * The listener is told about the count as it grows (at most every {@link #UPDATE_INTERVAL} ms) and once more when
+ * counting is done. It is called from the job's thread.
+ * <p>
+ * The document is read in place rather than copied, so the count stops as soon as the document is about to change;
+ * what it read after that can't be trusted. The find bar starts a new count for the new text.
+ */
+/* package */class MatchCounter extends Job
+{
+
+	/* package */interface IMatchCountListener
+	{
+		void countChanged(MatchCounter counter);
+	}
+
+	private static final long UPDATE_INTERVAL = 150;
+
+	private final IDocument document;
+	private final Pattern pattern;
+	private final IRegion scope;
+	private final long modificationStamp;
+	private final IMatchCountListener listener;
+
+	/**
+	 * Start offsets of the matches found so far, in document coordinates.
+	 */
+	private int[] offsets = new int[64];
+	private int count;
+	private volatile boolean done;
+	private volatile boolean documentChanged;
+
+	private final IDocumentListener documentListener = new IDocumentListener()
+	{
+		public void documentAboutToBeChanged(DocumentEvent event)
+		{
+			documentChanged = true;
+			cancel();
+		}
+
+		public void documentChanged(DocumentEvent event)
+		{
+		}
+	};
+
+	/**
+	 * @param document
+	 * @param pattern
+	 * @param scope
+	 *            the part of the document to search
+	 * @param listener
+	 */
+	MatchCounter(IDocument document, Pattern pattern, IRegion scope, IMatchCountListener listener)
+	{
+		super("Counting find bar matches"); //$NON-NLS-1$
+		this.document = document;
+		this.pattern = pattern;
+		this.scope = scope;
+		this.modificationStamp = getModificationStamp(document);
+		this.listener = listener;
+		EclipseUtil.setSystemForJob(this);
+		setPriority(Job.SHORT);
+	}
+
+	@Override
+	protected IStatus run(IProgressMonitor monitor)
+	{
+		IProgressMonitor counting = new ProgressMonitorWrapper(monitor)
+		{
+			@Override
+			public boolean isCanceled()
+			{
+				return documentChanged || super.isCanceled();
+			}
+		};
+		document.addDocumentListener(documentListener);
+		try
+		{
+			if (getModificationStamp(document) != modificationStamp)
+			{
+				// changed before we got to listen
+				return Status.CANCEL_STATUS;
+			}
+			return count(counting);
+		}
+		catch (OperationCanceledException e)
+		{
+			return Status.CANCEL_STATUS;
+		}
+		catch (RuntimeException e)
+		{
+			if (counting.isCanceled())
+			{
+				// reading the document while it changes can fail in all sorts of ways
+				return Status.CANCEL_STATUS;
+			}
+			return new Status(IStatus.ERROR, FindBarPlugin.PLUGIN_ID, e.getMessage(), e);
+		}
+		catch (StackOverflowError e)
+		{
+			// java.util.regex recurses for some patterns, deeply enough on large documents
+			return new Status(IStatus.ERROR, FindBarPlugin.PLUGIN_ID, e.getMessage(), e);
+		}
+		finally
+		{
+			document.removeDocumentListener(documentListener);
+		}
+	}
+
+	private IStatus count(IProgressMonitor monitor)
+	{
+		CharSequence text = new DocumentCharSequence(document, scope.getOffset(), scope.getLength(), monitor);
+		Matcher matcher = pattern.matcher(text);
+		long lastUpdate = System.currentTimeMillis();
+		while (matcher.find())
+		{
+			add(scope.getOffset() + matcher.start());
+			long now = System.currentTimeMillis();
+			if (now - lastUpdate > UPDATE_INTERVAL)
+			{
+				if (monitor.isCanceled())
+				{
+					return Status.CANCEL_STATUS;
+				}
+				listener.countChanged(this);
+				lastUpdate = now;
+			}
+		}
+		if (monitor.isCanceled())
+		{
+			return Status.CANCEL_STATUS;
+		}
+		done = true;
+		listener.countChanged(this);
+		return Status.OK_STATUS;
+	}
+
+	private synchronized void add(int offset)
+	{
+		if (count == offsets.length)
+		{
+			int[] grown = new int[count * 2];
+			System.arraycopy(offsets, 0, grown, 0, count);
+			offsets = grown;
+		}
+		offsets[count++] = offset;
+	}
+
+	/**
+	 * @return the number of matches found so far
+	 */
+	synchronized int getCount()
+	{
+		return count;
+	}
+
+	/**
+	 * @return whether all the matches have been counted
+	 */
+	boolean isDone()
+	{
+		return done;
+	}
+
+	/**
+	 * Returns how many of the matches found so far start before the offset (or at it, if inclusive).
+	 * 
+	 * @param offset
+	 * @param inclusive
+	 * @return
+	 */
+	synchronized int countBefore(int offset, boolean inclusive)
+	{
+		int low = 0;
+		int high = count;
+		while (low < high)
+		{
+			int mid = (low + high) >>> 1;
+			if (offsets[mid] < offset || (inclusive && offsets[mid] == offset))
+			{
+				low = mid + 1;
+			}
+			else
+			{
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Whether this counter's results (finished or not) hold for the given search over the document as it is now.
+	 * 
+	 * @param document
+	 * @param pattern
+	 * @param scope
+	 * @return
+	 */
+	boolean isValidFor(IDocument document, Pattern pattern, IRegion scope)
+	{
+		long stamp = getModificationStamp(document);
+		return this.document == document && stamp != IDocumentExtension4.UNKNOWN_MODIFICATION_STAMP
+				&& stamp == modificationStamp && this.pattern.pattern().equals(pattern.pattern())
+				&& this.pattern.flags() == pattern.flags() && ObjectUtil.areEqual(this.scope, scope);
+	}
+
+	private static long getModificationStamp(IDocument document)
+	{
+		if (document instanceof IDocumentExtension4)
+		{
+			return ((IDocumentExtension4) document).getModificationStamp();
+		}
+		return IDocumentExtension4.UNKNOWN_MODIFICATION_STAMP;
+	}
+}
@@ -35,6 +35,7 @@ public class Messages extends NLS
 	public static String FindBarDecorator_LABEL_CaseSensitive;
 
 	public static String FindBarDecorator_LABEL_Count_Match;
+	public static String FindBarDecorator_LABEL_Count_Match_Partial;
 	public static String FindBarDecorator_LABEL_Elipses;
 	public static String FindBarDecorator_LABEL_Find;
 
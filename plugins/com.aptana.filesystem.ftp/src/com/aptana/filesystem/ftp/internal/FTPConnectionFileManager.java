@@ -79,6 +79,12 @@ public class FTPConnectionFileManager extends BaseFTPConnectionFileManager imple
 		IPoolConnectionManager
 {
 
+	/**
+	 * Each concurrent transfer checks out its own client (and so its own login) from the pool. Keep this below the
+	 * per-address connection limits servers commonly apply.
+	 */
+	private static final int MAX_CONCURRENT_TRANSFERS = 8;
+
 	private static final String TMP_TIMEZONE_CHECK = "_tmp_tz_check"; //$NON-NLS-1$
 
 	private final static String WINDOWS_STR = "WINDOWS"; //$NON-NLS-1$
@@ -684,8 +690,9 @@ public class FTPConnectionFileManager extends BaseFTPConnectionFileManager imple
 		clearCacheAbsolute(basePath.append(path));
 	}
 
-	private void clearCacheAbsolute(IPath path)
+	private synchronized void clearCacheAbsolute(IPath path)
 	{
+		// also called when a pooled transfer stream is closed, outside the operation lock
 		int segments = path.segmentCount();
 		for (IPath p : new ArrayList<IPath>(ftpFileCache.keySet()))
 		{
@@ -696,6 +703,17 @@ public class FTPConnectionFileManager extends BaseFTPConnectionFileManager imple
 		}
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * @see com.aptana.core.io.vfs.BaseConnectionFileManager#getMaxConcurrentTransfers()
+	 */
+	@Override
+	public int getMaxConcurrentTransfers()
+	{
+		// file data goes over connections checked out of the pool, not the control connection
+		return MAX_CONCURRENT_TRANSFERS;
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * @see com.aptana.core.io.vfs.BaseConnectionFileManager#interruptOperation()
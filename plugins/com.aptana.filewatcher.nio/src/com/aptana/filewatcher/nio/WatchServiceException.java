@@ -0,0 +1,28 @@
+/**
+ * Aptana Studio
+ * Copyright (c) 2014 by Appcelerator, Inc. All Rights Reserved.
+ * Licensed under the terms of the GNU Public License (GPL) v3 (with exceptions).
+ * Please see the license.html included with this distribution for details.
+ * Any modifications to this file must keep this entire header intact.
+ */
+package com.aptana.filewatcher.nio;
+
+import net.contentobjects.jnotify.JNotifyException;
+
+/**
+ * There are no system error codes behind a watch service, so the error code is one of {@link JNotifyException}'s.
+ */
+public class WatchServiceException extends JNotifyException
+{
+	private static final long serialVersionUID = 1L;
+
+	public WatchServiceException(String s, int errorCode)
+	{
+		super(s, errorCode);
+	}
+
+	public int getErrorCode()
+	{
+		return _systemErrorCode;
+	}
+}
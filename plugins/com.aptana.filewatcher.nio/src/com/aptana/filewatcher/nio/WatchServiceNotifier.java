@@ -0,0 +1,496 @@
+/**
+ * Aptana Studio
+ * Copyright (c) 2014 by Appcelerator, Inc. All Rights Reserved.
+ * Licensed under the terms of the GNU Public License (GPL) v3 (with exceptions).
+ * Please see the license.html included with this distribution for details.
+ * Any modifications to this file must keep this entire header intact.
+ */
+package com.aptana.filewatcher.nio;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import net.contentobjects.jnotify.IJNotify;
+import net.contentobjects.jnotify.JNotifyException;
+import net.contentobjects.jnotify.JNotifyListener;
+
+import com.aptana.filewatcher.FileWatcherPlugin;
+
+/**
+ * A notifier on top of {@link WatchService}. It is only a fallback: {@link com.aptana.filewatcher.FileWatcher} uses
+ * the native JNotify adapter whenever it loads, and only tries this notifier on platforms without one or when the
+ * native library fails to load. Unlike the polling notifier, which is what we'd get otherwise, it doesn't walk the
+ * watched trees every couple of seconds; it only reads a directory when it's registered and when the watch service
+ * tells us it lost events for it.
+ * <p>
+ * A watch service only watches single directories, so watches on a subtree register every directory below the root,
+ * and directories created later as they show up (reporting whatever was created in them before we got there). Every
+ * directory is registered once, however many watches cover it.
+ * <p>
+ * We keep a listing of each registered directory. When the watch service overflows for a directory we list it again
+ * and report the differences, rather than rescanning the whole tree.
+ * <p>
+ * Events are reported like the native adapters do: the root path is the path that was watched, and the name is
+ * relative to it. A watch service doesn't report renames, they show up as a delete and a create.
+ */
+public class WatchServiceNotifier implements IJNotify, Runnable
+{
+
+	private static final WatchEvent.Kind<?>[] KINDS = new WatchEvent.Kind<?>[] { ENTRY_CREATE, ENTRY_DELETE,
+			ENTRY_MODIFY };
+
+	private final WatchService service;
+	private final Map<Integer, Watch> watches = new HashMap<Integer, Watch>();
+	private final Map<WatchKey, Directory> directories = new HashMap<WatchKey, Directory>();
+	private int nextId;
+
+	public WatchServiceNotifier() throws IOException
+	{
+		this.service = FileSystems.getDefault().newWatchService();
+
+		Thread thread = new Thread(this, "File Watcher (WatchService)"); //$NON-NLS-1$
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see net.contentobjects.jnotify.IJNotify#addWatch(java.lang.String, int, boolean, boolean,
+	 * net.contentobjects.jnotify.JNotifyListener)
+	 */
+	public synchronized int addWatch(String path, int mask, boolean watchSubtree, boolean recursive,
+			JNotifyListener listener) throws JNotifyException
+	{
+		Path file = Paths.get(path).toAbsolutePath();
+		Watch watch;
+		if (Files.isDirectory(file))
+		{
+			watch = new Watch(nextId++, file, null, mask, watchSubtree, listener);
+		}
+		else if (Files.exists(file) && file.getParent() != null)
+		{
+			// we can only watch directories, so watch its parent for this one file
+			watch = new Watch(nextId++, file.getParent(), file, mask, false, listener);
+		}
+		else
+		{
+			throw new WatchServiceException("No such file or directory: " + path, //$NON-NLS-1$
+					JNotifyException.ERROR_NO_SUCH_FILE_OR_DIRECTORY);
+		}
+
+		try
+		{
+			register(watch.root, watch, null);
+		}
+		catch (IOException e)
+		{
+			unregister(watch);
+			throw new WatchServiceException(e.getMessage(), JNotifyException.ERROR_UNSPECIFIED);
+		}
+		watches.put(watch.id, watch);
+		return watch.id;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see net.contentobjects.jnotify.IJNotify#removeWatch(int)
+	 */
+	public synchronized boolean removeWatch(int wd) throws JNotifyException
+	{
+		Watch watch = watches.remove(wd);
+		if (watch == null)
+		{
+			return false;
+		}
+		watch.removed = true;
+		unregister(watch);
+		return true;
+	}
+
+	/**
+	 * Takes signalled directories off the watch service and tells the listeners what happened in them.
+	 */
+	public void run()
+	{
+		while (true)
+		{
+			WatchKey key;
+			try
+			{
+				key = service.take();
+			}
+			catch (InterruptedException e)
+			{
+				return;
+			}
+			catch (ClosedWatchServiceException e)
+			{
+				return;
+			}
+
+			List<Notification> notifications = new ArrayList<Notification>();
+			synchronized (this)
+			{
+				Directory directory = directories.get(key);
+				for (WatchEvent<?> event : key.pollEvents())
+				{
+					if (directory != null)
+					{
+						handle(directory, event, notifications);
+					}
+				}
+				if (!key.reset() && directory != null)
+				{
+					// the directory is gone, its parent reports that
+					directories.remove(key);
+					for (Watch watch : directory.watches)
+					{
+						watch.keys.remove(key);
+					}
+				}
+			}
+
+			// not while holding the lock, listeners are free to add and remove watches
+			for (Notification notification : notifications)
+			{
+				notification.deliver();
+			}
+		}
+	}
+
+	private void handle(Directory directory, WatchEvent<?> event, List<Notification> notifications)
+	{
+		if (event.kind() == OVERFLOW)
+		{
+			rescan(directory, notifications);
+			return;
+		}
+
+		Path child = directory.path.resolve((Path) event.context());
+		String name = child.getFileName().toString();
+		if (event.kind() == ENTRY_DELETE)
+		{
+			if (directory.listing.remove(name) != null)
+			{
+				notify(directory, FILE_DELETED, child, notifications);
+			}
+			return;
+		}
+
+		BasicFileAttributes attributes = readAttributes(child);
+		if (attributes == null)
+		{
+			// already gone again, we'll get a delete for it
+			return;
+		}
+		Long lastModified = directory.listing.put(name, attributes.lastModifiedTime().toMillis());
+		if (lastModified == null)
+		{
+			notify(directory, FILE_CREATED, child, notifications);
+			if (attributes.isDirectory())
+			{
+				registerSubtree(directory, child, notifications);
+			}
+		}
+		else
+		{
+			notify(directory, FILE_MODIFIED, child, notifications);
+		}
+	}
+
+	/**
+	 * Lists the directory again and reports what changed since we last knew, for when the watch service lost events.
+	 */
+	private void rescan(Directory directory, List<Notification> notifications)
+	{
+		Map<String, Long> before = directory.listing;
+		Map<String, BasicFileAttributes> after = list(directory.path);
+
+		directory.listing = new HashMap<String, Long>();
+		for (Map.Entry<String, BasicFileAttributes> entry : after.entrySet())
+		{
+			String name = entry.getKey();
+			BasicFileAttributes attributes = entry.getValue();
+			long lastModified = attributes.lastModifiedTime().toMillis();
+			Path child = directory.path.resolve(name);
+
+			directory.listing.put(name, lastModified);
+			Long previous = before.remove(name);
+			if (previous == null)
+			{
+				notify(directory, FILE_CREATED, child, notifications);
+				if (attributes.isDirectory())
+				{
+					registerSubtree(directory, child, notifications);
+				}
+			}
+			else if (previous != lastModified)
+			{
+				notify(directory, FILE_MODIFIED, child, notifications);
+			}
+		}
+		for (String name : before.keySet())
+		{
+			notify(directory, FILE_DELETED, directory.path.resolve(name), notifications);
+		}
+	}
+
+	/**
+	 * Registers a new subdirectory for the subtree watches on its parent, reporting what's already in it.
+	 */
+	private void registerSubtree(Directory parent, Path path, List<Notification> notifications)
+	{
+		for (Watch watch : new ArrayList<Watch>(parent.watches))
+		{
+			if (!watch.subtree)
+			{
+				continue;
+			}
+			try
+			{
+				register(path, watch, notifications);
+			}
+			catch (IOException e)
+			{
+				FileWatcherPlugin.log(e);
+			}
+		}
+	}
+
+	/**
+	 * Registers the directory, and for subtree watches every directory below it, for the watch.
+	 * 
+	 * @param path
+	 * @param watch
+	 * @param notifications
+	 *            if not null, everything found is reported as created
+	 * @throws IOException
+	 *             if the directory can't be registered
+	 */
+	private void register(Path path, Watch watch, List<Notification> notifications) throws IOException
+	{
+		WatchKey key = path.register(service, KINDS);
+		Directory directory = directories.get(key);
+		if (directory == null)
+		{
+			directory = new Directory(path);
+			directories.put(key, directory);
+		}
+		directory.watches.add(watch);
+		watch.keys.add(key);
+
+		List<Path> subdirectories = new ArrayList<Path>();
+		directory.listing = new HashMap<String, Long>();
+		for (Map.Entry<String, BasicFileAttributes> entry : list(path).entrySet())
+		{
+			Path child = path.resolve(entry.getKey());
+			BasicFileAttributes attributes = entry.getValue();
+
+			directory.listing.put(entry.getKey(), attributes.lastModifiedTime().toMillis());
+			if (notifications != null)
+			{
+				notifications.add(new Notification(watch, FILE_CREATED, child));
+			}
+			if (watch.subtree && attributes.isDirectory())
+			{
+				subdirectories.add(child);
+			}
+		}
+
+		for (Path subdirectory : subdirectories)
+		{
+			try
+			{
+				register(subdirectory, watch, notifications);
+			}
+			catch (NoSuchFileException e)
+			{
+				// deleted while we were looking, the delete is reported on its parent
+			}
+			catch (IOException e)
+			{
+				// keep watching the rest of the tree
+				FileWatcherPlugin.log(e);
+			}
+		}
+	}
+
+	private void unregister(Watch watch)
+	{
+		for (WatchKey key : watch.keys)
+		{
+			Directory directory = directories.get(key);
+			if (directory == null)
+			{
+				continue;
+			}
+			directory.watches.remove(watch);
+			if (directory.watches.isEmpty())
+			{
+				directories.remove(key);
+				key.cancel();
+			}
+		}
+		watch.keys.clear();
+	}
+
+	private void notify(Directory directory, int kind, Path child, List<Notification> notifications)
+	{
+		for (Watch watch : directory.watches)
+		{
+			notifications.add(new Notification(watch, kind, child));
+		}
+	}
+
+	/**
+	 * The attributes of the directory's children by name, without following links. Empty if the directory can't be
+	 * read.
+	 */
+	private static Map<String, BasicFileAttributes> list(Path path)
+	{
+		Map<String, BasicFileAttributes> result = new HashMap<String, BasicFileAttributes>();
+		try (DirectoryStream<Path> children = Files.newDirectoryStream(path))
+		{
+			for (Path child : children)
+			{
+				BasicFileAttributes attributes = readAttributes(child);
+				if (attributes != null)
+				{
+					result.put(child.getFileName().toString(), attributes);
+				}
+			}
+		}
+		catch (IOException e)
+		{
+			// gone or unreadable, either way there's nothing in it we can report
+		}
+		return result;
+	}
+
+	private static BasicFileAttributes readAttributes(Path path)
+	{
+		try
+		{
+			return Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+		}
+		catch (IOException e)
+		{
+			return null;
+		}
+	}
+
+	/**
+	 * A registered directory and the watches that cover it.
+	 */
+	private static class Directory
+	{
+		final Path path;
+		final Set<Watch> watches = new LinkedHashSet<Watch>();
+
+		/**
+		 * Last modified times of the children by name, as of the last event we saw for them.
+		 */
+		Map<String, Long> listing = new HashMap<String, Long>();
+
+		Directory(Path path)
+		{
+			this.path = path;
+		}
+	}
+
+	private static class Watch
+	{
+		final int id;
+		final Path root;
+
+		/**
+		 * The only file we report for, if a file rather than a directory was watched.
+		 */
+		final Path file;
+		final int mask;
+		final boolean subtree;
+		final JNotifyListener listener;
+		final Set<WatchKey> keys = new HashSet<WatchKey>();
+
+		/**
+		 * Set once the watch is removed, so nothing still on its way gets delivered.
+		 */
+		volatile boolean removed;
+
+		Watch(int id, Path root, Path file, int mask, boolean subtree, JNotifyListener listener)
+		{
+			this.id = id;
+			this.root = root;
+			this.file = file;
+			this.mask = mask;
+			this.subtree = subtree;
+			this.listener = listener;
+		}
+	}
+
+	private static class Notification
+	{
+		final Watch watch;
+		final int kind;
+		final Path path;
+
+		Notification(Watch watch, int kind, Path path)
+		{
+			this.watch = watch;
+			this.kind = kind;
+			this.path = path;
+		}
+
+		void deliver()
+		{
+			if (watch.removed || (watch.mask & kind) == 0 || (watch.file != null && !watch.file.equals(path)))
+			{
+				return;
+			}
+			String rootPath = watch.root.toString();
+			String name = watch.root.relativize(path).toString();
+			try
+			{
+				switch (kind)
+				{
+					case FILE_CREATED:
+						watch.listener.fileCreated(watch.id, rootPath, name);
+						break;
+					case FILE_DELETED:
+						watch.listener.fileDeleted(watch.id, rootPath, name);
+						break;
+					default:
+						watch.listener.fileModified(watch.id, rootPath, name);
+						break;
+				}
+			}
+			catch (Throwable e)
+			{
+				FileWatcherPlugin.log(e);
+			}
+		}
+	}
+}
@@ -0,0 +1,412 @@
+/**
+ * Aptana Studio
+ * Copyright (c) 2013 by Appcelerator, Inc. All Rights Reserved.
+ * Licensed under the terms of the GNU Public License (GPL) v3 (with exceptions).
+ * Please see the license.html included with this distribution for details.
+ * Any modifications to this file must keep this entire header intact.
+ */
+package com.aptana.filewatcher;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import net.contentobjects.jnotify.IJNotify;
+import net.contentobjects.jnotify.JNotifyException;
+import net.contentobjects.jnotify.JNotifyListener;
+
+/**
+ * Sits in front of the native or polling notifier for watches added through
+ * {@link FileWatcher#addCoalescingWatch(String, int, boolean, JNotifyListener)} and collapses bursts of events before they reach the listeners. A
+ * <code>git checkout</code> or <code>npm install</code> over a large tree makes the OS report every file several times
+ * (deleted, created, modified and modified again); listeners only care what each file looks like once things settle
+ * down.
+ * <p>
+ * Events for a watch are held until it has been quiet for {@link #QUIET_PERIOD} ms, or at most {@link #MAX_LATENCY} ms
+ * after the first one, and are then delivered grouped by directory with one callback per file describing its net
+ * change:
+ * <ul>
+ * <li>any number of modifications is one modification;</li>
+ * <li>created then modified is created; created then deleted is nothing at all;</li>
+ * <li>modified then deleted is deleted; deleted then created again is modified (or deleted and created if the watch
+ * isn't listening for modifications).</li>
+ * </ul>
+ * Renames are passed on as they come, in order with the changes around them. Should a watch pile up more than
+ * {@link #MAX_PENDING} distinct changes the batch goes out immediately, which keeps memory bounded during very large
+ * operations.
+ */
+/* package */class CoalescingNotifier implements IJNotify
+{
+
+	/**
+	 * How long a watch has to be quiet before its events are delivered.
+	 */
+	static final long QUIET_PERIOD = 100;
+
+	/**
+	 * The longest we sit on an event while more keep arriving.
+	 */
+	static final long MAX_LATENCY = 1000;
+
+	/**
+	 * The most changes held for a single watch before they're delivered regardless.
+	 */
+	static final int MAX_PENDING = 10000;
+
+	private static ScheduledThreadPoolExecutor dispatcher;
+
+	private final IJNotify delegate;
+	private final long quietPeriod;
+	private final long maxLatency;
+	private final int maxPending;
+	private final Map<Integer, Watch> watches = new ConcurrentHashMap<Integer, Watch>();
+
+	CoalescingNotifier(IJNotify delegate)
+	{
+		this(delegate, QUIET_PERIOD, MAX_LATENCY, MAX_PENDING);
+	}
+
+	CoalescingNotifier(IJNotify delegate, long quietPeriod, long maxLatency, int maxPending)
+	{
+		this.delegate = delegate;
+		this.quietPeriod = quietPeriod;
+		this.maxLatency = maxLatency;
+		this.maxPending = maxPending;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see net.contentobjects.jnotify.IJNotify#addWatch(java.lang.String, int, boolean, boolean,
+	 * net.contentobjects.jnotify.JNotifyListener)
+	 */
+	public int addWatch(String path, int mask, boolean watchSubtree, boolean recursive, JNotifyListener listener)
+			throws JNotifyException
+	{
+		Watch watch = new Watch(mask, listener);
+		int wd = delegate.addWatch(path, mask, watchSubtree, recursive, watch);
+		watches.put(wd, watch);
+		return wd;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see net.contentobjects.jnotify.IJNotify#removeWatch(int)
+	 */
+	public boolean removeWatch(int wd) throws JNotifyException
+	{
+		Watch watch = watches.remove(wd);
+		if (watch != null)
+		{
+			watch.cancel();
+		}
+		return delegate.removeWatch(wd);
+	}
+
+	private static synchronized ScheduledThreadPoolExecutor getDispatcher()
+	{
+		if (dispatcher == null)
+		{
+			dispatcher = new ScheduledThreadPoolExecutor(1, new ThreadFactory()
+			{
+				public Thread newThread(Runnable r)
+				{
+					Thread thread = new Thread(r, "File Watcher Event Dispatcher"); //$NON-NLS-1$
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return dispatcher;
+	}
+
+	/**
+	 * The net change to a single file since the last delivery.
+	 */
+	private static class Change
+	{
+		final int wd;
+		final String rootPath;
+		final String name;
+		final boolean existedBefore;
+		boolean existsAfter;
+		boolean recreated;
+
+		Change(int wd, String rootPath, String name, int kind)
+		{
+			this.wd = wd;
+			this.rootPath = rootPath;
+			this.name = name;
+			this.existedBefore = (kind != FILE_CREATED);
+			this.existsAfter = (kind != FILE_DELETED);
+		}
+
+		void add(int kind)
+		{
+			switch (kind)
+			{
+				case FILE_CREATED:
+					if (existedBefore && !existsAfter)
+					{
+						recreated = true;
+					}
+					existsAfter = true;
+					break;
+				case FILE_DELETED:
+					existsAfter = false;
+					break;
+				default:
+					existsAfter = true;
+					break;
+			}
+		}
+
+		void deliver(JNotifyListener listener, int mask)
+		{
+			if (!existedBefore)
+			{
+				if (existsAfter)
+				{
+					listener.fileCreated(wd, rootPath, name);
+				}
+			}
+			else if (!existsAfter)
+			{
+				listener.fileDeleted(wd, rootPath, name);
+			}
+			else if (recreated && (mask & FILE_MODIFIED) == 0)
+			{
+				listener.fileDeleted(wd, rootPath, name);
+				listener.fileCreated(wd, rootPath, name);
+			}
+			else
+			{
+				listener.fileModified(wd, rootPath, name);
+			}
+		}
+	}
+
+	private static class Rename
+	{
+		final int wd;
+		final String rootPath;
+		final String oldName;
+		final String newName;
+
+		Rename(int wd, String rootPath, String oldName, String newName)
+		{
+			this.wd = wd;
+			this.rootPath = rootPath;
+			this.oldName = oldName;
+			this.newName = newName;
+		}
+	}
+
+	/**
+	 * The changes between two renames, by directory and then by file.
+	 */
+	private static class Segment
+	{
+		final Map<String, Map<String, Change>> directories = new LinkedHashMap<String, Map<String, Change>>();
+	}
+
+	/**
+	 * Stands in for the client's listener with the underlying notifier and collects its events.
+	 */
+	private class Watch implements JNotifyListener, Runnable
+	{
+
+		private final int mask;
+		private final JNotifyListener listener;
+
+		/**
+		 * {@link Segment}s and {@link Rename}s in the order they happened.
+		 */
+		private List<Object> pending = new ArrayList<Object>();
+		private Segment current;
+		private int pendingCount;
+		private long firstEventTime;
+		private long lastEventTime;
+		private int queuedRuns;
+		private boolean flushRequested;
+		private boolean cancelled;
+
+		Watch(int mask, JNotifyListener listener)
+		{
+			this.mask = mask;
+			this.listener = listener;
+		}
+
+		public void fileCreated(int wd, String rootPath, String name)
+		{
+			add(wd, rootPath, name, FILE_CREATED);
+		}
+
+		public void fileDeleted(int wd, String rootPath, String name)
+		{
+			add(wd, rootPath, name, FILE_DELETED);
+		}
+
+		public void fileModified(int wd, String rootPath, String name)
+		{
+			add(wd, rootPath, name, FILE_MODIFIED);
+		}
+
+		public void fileRenamed(int wd, String rootPath, String oldName, String newName)
+		{
+			synchronized (this)
+			{
+				if (cancelled)
+				{
+					return;
+				}
+				eventAdding();
+				pending.add(new Rename(wd, rootPath, oldName, newName));
+				current = null;
+				eventAdded();
+			}
+		}
+
+		private synchronized void add(int wd, String rootPath, String name, int kind)
+		{
+			if (cancelled)
+			{
+				return;
+			}
+			eventAdding();
+			if (current == null)
+			{
+				current = new Segment();
+				pending.add(current);
+			}
+			String directory = getDirectory(name);
+			Map<String, Change> changes = current.directories.get(directory);
+			if (changes == null)
+			{
+				changes = new LinkedHashMap<String, Change>();
+				current.directories.put(directory, changes);
+			}
+			Change change = changes.get(name);
+			if (change == null)
+			{
+				changes.put(name, new Change(wd, rootPath, name, kind));
+				pendingCount++;
+			}
+			else
+			{
+				change.add(kind);
+			}
+			eventAdded();
+		}
+
+		private void eventAdding()
+		{
+			lastEventTime = System.currentTimeMillis();
+			if (pending.isEmpty())
+			{
+				firstEventTime = lastEventTime;
+			}
+		}
+
+		private void eventAdded()
+		{
+			if (queuedRuns == 0)
+			{
+				getDispatcher().schedule(this, quietPeriod, TimeUnit.MILLISECONDS);
+				queuedRuns++;
+			}
+			if (pendingCount >= maxPending && !flushRequested)
+			{
+				// deliver right away rather than keep growing
+				getDispatcher().execute(this);
+				queuedRuns++;
+				flushRequested = true;
+			}
+		}
+
+		synchronized void cancel()
+		{
+			cancelled = true;
+			pending = new ArrayList<Object>();
+			current = null;
+			pendingCount = 0;
+		}
+
+		/**
+		 * Runs on the dispatcher thread, delivering the pending events if things have settled down and rescheduling
+		 * itself otherwise.
+		 */
+		public void run()
+		{
+			List<Object> events;
+			synchronized (this)
+			{
+				queuedRuns--;
+				if (pending.isEmpty())
+				{
+					return;
+				}
+				long now = System.currentTimeMillis();
+				long quietUntil = lastEventTime + quietPeriod;
+				long deadline = firstEventTime + maxLatency;
+				if (!flushRequested && now < quietUntil && now < deadline)
+				{
+					if (queuedRuns == 0)
+					{
+						getDispatcher().schedule(this, Math.min(quietUntil, deadline) - now, TimeUnit.MILLISECONDS);
+						queuedRuns++;
+					}
+					return;
+				}
+				events = pending;
+				pending = new ArrayList<Object>();
+				current = null;
+				pendingCount = 0;
+				flushRequested = false;
+			}
+			deliver(events);
+		}
+
+		private void deliver(List<Object> events)
+		{
+			for (Object event : events)
+			{
+				try
+				{
+					if (event instanceof Rename)
+					{
+						Rename rename = (Rename) event;
+						listener.fileRenamed(rename.wd, rename.rootPath, rename.oldName, rename.newName);
+						continue;
+					}
+					for (Map<String, Change> changes : ((Segment) event).directories.values())
+					{
+						for (Change change : changes.values())
+						{
+							change.deliver(listener, mask);
+						}
+					}
+				}
+				catch (Throwable e)
+				{
+					FileWatcherPlugin.log(e);
+				}
+			}
+		}
+	}
+
+	private static String getDirectory(String name)
+	{
+		if (name == null)
+		{
+			return ""; //$NON-NLS-1$
+		}
+		int index = Math.max(name.lastIndexOf(File.separatorChar), name.lastIndexOf('/'));
+		return (index < 0) ? "" : name.substring(0, index); //$NON-NLS-1$
+	}
+}
@@ -19,7 +19,14 @@ import com.aptana.filewatcher.poller.PollingNotifier;
 public class FileWatcher
 {
 
+	/**
+	 * Comes from the com.aptana.filewatcher.nio fragment. Only used when the native JNotify adapter can't be
+	 * loaded, ahead of the polling notifier.
+	 */
+	private static final String WATCH_SERVICE_NOTIFIER = "com.aptana.filewatcher.nio.WatchServiceNotifier"; //$NON-NLS-1$
+
 	private static IJNotify _instance;
+	private static CoalescingNotifier _coalescing;
 	private static boolean fgNotify = true;
 
 	private synchronized static IJNotify instance()
@@ -52,6 +59,24 @@ public class FileWatcher
 				}
 			}
 			if (_instance == null)
+			{
+				// no native library for this platform or it failed to load. The WatchService fragment needs Java 7 and
+				// may not be there.
+				try
+				{
+					Bundle b = FileWatcherPlugin.getDefault().getBundle();
+					_instance = (IJNotify) b.loadClass(WATCH_SERVICE_NOTIFIER).newInstance();
+				}
+				catch (ClassNotFoundException e)
+				{
+					// not installed or not resolved
+				}
+				catch (Throwable e)
+				{
+					FileWatcherPlugin.log(e);
+				}
+			}
+			if (_instance == null)
 			{
 				_instance = new PollingNotifier();
 			}
@@ -59,6 +84,15 @@ public class FileWatcher
 		return _instance;
 	}
 
+	private synchronized static CoalescingNotifier coalescingInstance()
+	{
+		if (_coalescing == null)
+		{
+			_coalescing = new CoalescingNotifier(instance());
+		}
+		return _coalescing;
+	}
+
 	public static int addWatch(String path, int mask, boolean watchSubtree, final JNotifyListener listener)
 			throws JNotifyException
 	{
@@ -71,9 +105,35 @@ public class FileWatcher
 		return instance().addWatch(path, mask, watchSubtree, recursive, listener);
 	}
 
+	/**
+	 * Adds a watch whose listener is told the net change to each file once the watched tree has been quiet for a
+	 * moment, rather than every event as it happens. Bursts (a checkout, an install) then cost one callback per file
+	 * that changed, but events arrive late and a file that was created and deleted again in between isn't reported at
+	 * all. Only use this for listeners that just want to know what things look like now. See
+	 * {@link CoalescingNotifier} for the details.
+	 * 
+	 * @param path
+	 * @param mask
+	 * @param watchSubtree
+	 * @param listener
+	 * @return the id to pass to {@link #removeWatch(int)}
+	 * @throws JNotifyException
+	 */
+	public static int addCoalescingWatch(String path, int mask, boolean watchSubtree, final JNotifyListener listener)
+			throws JNotifyException
+	{
+		return coalescingInstance().addWatch(path, mask, watchSubtree, true, listener);
+	}
+
 	public static boolean removeWatch(int watchId) throws JNotifyException
 	{
-		return instance().removeWatch(watchId);
+		// the coalescing notifier passes ids it doesn't know on to the underlying one
+		IJNotify notifier;
+		synchronized (FileWatcher.class)
+		{
+			notifier = (_coalescing != null) ? _coalescing : instance();
+		}
+		return notifier.removeWatch(watchId);
 	}
 
 	public static synchronized void avoidNotify()
@@ -0,0 +1,353 @@
+/**
+ * Aptana Studio
+ * Copyright (c) 2014 by Appcelerator, Inc. All Rights Reserved.
+ * Licensed under the terms of the GNU Public License (GPL) v3 (with exceptions).
+ * Please see the license.html included with this distribution for details.
+ * Any modifications to this file must keep this entire header intact.
+ */
+package com.aptana.git.core.model;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.core.runtime.IPath;
+
+/**
+ * An immutable trie of the changed files in a repo, keyed by the segments of their paths relative to the working
+ * directory. Every folder knows how many changed files are underneath it and how many of those have staged, unstaged
+ * and conflicting changes, so asking about a file or a folder is a walk down its path and nothing more.
+ * <p>
+ * Changes produce a new tree that shares every untouched folder with the old one, so a reader holding on to a tree
+ * never sees it change underneath it. The {@link ChangedFile}s in the tree must never be modified, hand out copies to
+ * anyone who could.
+ */
+final class ChangedFileTree
+{
+
+	static final ChangedFileTree EMPTY = new ChangedFileTree(Node.EMPTY);
+
+	private static final class Node
+	{
+
+		static final Node EMPTY = new Node(null, Collections.<String, Node> emptyMap());
+
+		/**
+		 * The changed file at this path, if any. A path can have both a file and children when what's there changed
+		 * from a file to a folder or back, the two are kept apart.
+		 */
+		final ChangedFile file;
+		final Map<String, Node> children;
+
+		/**
+		 * Counts of the changed files at or underneath this path.
+		 */
+		final int size;
+		final int staged;
+		final int unstaged;
+		final int conflicts;
+
+		Node(ChangedFile file, Map<String, Node> children)
+		{
+			this.file = file;
+			this.children = children;
+			int size = 0;
+			int staged = 0;
+			int unstaged = 0;
+			int conflicts = 0;
+			if (file != null)
+			{
+				size = 1;
+				staged = file.hasStagedChanges() ? 1 : 0;
+				unstaged = file.hasUnstagedChanges() ? 1 : 0;
+				conflicts = (file.hasUnmergedChanges() && file.hasUnstagedChanges()) ? 1 : 0;
+			}
+			for (Node child : children.values())
+			{
+				size += child.size;
+				staged += child.staged;
+				unstaged += child.unstaged;
+				conflicts += child.conflicts;
+			}
+			this.size = size;
+			this.staged = staged;
+			this.unstaged = unstaged;
+			this.conflicts = conflicts;
+		}
+	}
+
+	/**
+	 * A file to put in the tree, or a path to take out of it when file is null.
+	 */
+	private static final class Edit
+	{
+		final String[] segments;
+		final ChangedFile file;
+
+		Edit(IPath path, ChangedFile file)
+		{
+			this.segments = path.segments();
+			this.file = file;
+		}
+	}
+
+	private final Node root;
+
+	private ChangedFileTree(Node root)
+	{
+		this.root = root;
+	}
+
+	/**
+	 * Builds a tree of the given files.
+	 * 
+	 * @param files
+	 * @return
+	 */
+	static ChangedFileTree of(Collection<ChangedFile> files)
+	{
+		return EMPTY.with(files, null);
+	}
+
+	/**
+	 * Returns a tree with the files at the removed paths taken out, and then the put files added (replacing any file at
+	 * the same path). Removing a path only takes out the file there, not the changed files underneath it. Only the
+	 * folders along the edited paths get copied, the rest is shared with this tree.
+	 * 
+	 * @param put
+	 *            files to add or replace, may be null
+	 * @param remove
+	 *            paths relative to the working directory of files to drop, may be null
+	 * @return
+	 */
+	ChangedFileTree with(Collection<ChangedFile> put, Collection<IPath> remove)
+	{
+		List<Edit> edits = new ArrayList<Edit>();
+		if (remove != null)
+		{
+			for (IPath path : remove)
+			{
+				if (path.segmentCount() > 0)
+				{
+					edits.add(new Edit(path, null));
+				}
+			}
+		}
+		if (put != null)
+		{
+			for (ChangedFile file : put)
+			{
+				if (file.getRelativePath().segmentCount() > 0)
+				{
+					edits.add(new Edit(file.getRelativePath(), file));
+				}
+			}
+		}
+		if (edits.isEmpty())
+		{
+			return this;
+		}
+
+		Node newRoot = update(root, edits, 0);
+		if (newRoot == root)
+		{
+			return this;
+		}
+		return (newRoot == null) ? EMPTY : new ChangedFileTree(newRoot);
+	}
+
+	private static Node update(Node node, List<Edit> edits, int depth)
+	{
+		// Edits ending here go to this path's file, in order so the last one wins. The rest go to the children.
+		ChangedFile oldFile = (node == null) ? null : node.file;
+		ChangedFile file = oldFile;
+		Map<String, List<Edit>> bySegment = new LinkedHashMap<String, List<Edit>>();
+		for (Edit edit : edits)
+		{
+			if (edit.segments.length == depth)
+			{
+				file = edit.file;
+				continue;
+			}
+			String segment = edit.segments[depth];
+			List<Edit> group = bySegment.get(segment);
+			if (group == null)
+			{
+				group = new ArrayList<Edit>(1);
+				bySegment.put(segment, group);
+			}
+			group.add(edit);
+		}
+
+		Map<String, Node> children = (node == null) ? Collections.<String, Node> emptyMap() : node.children;
+		Map<String, Node> newChildren = null;
+		for (Map.Entry<String, List<Edit>> entry : bySegment.entrySet())
+		{
+			Node child = children.get(entry.getKey());
+			Node newChild = update(child, entry.getValue(), depth + 1);
+			if (newChild == child)
+			{
+				continue;
+			}
+			if (newChildren == null)
+			{
+				newChildren = new HashMap<String, Node>(children);
+			}
+			if (newChild == null)
+			{
+				newChildren.remove(entry.getKey());
+			}
+			else
+			{
+				newChildren.put(entry.getKey(), newChild);
+			}
+		}
+		if (newChildren == null)
+		{
+			if (file == oldFile)
+			{
+				// nothing changed here or underneath us
+				return node;
+			}
+			newChildren = children;
+		}
+		if (file == null && newChildren.isEmpty())
+		{
+			return null;
+		}
+		if (newChildren.isEmpty())
+		{
+			newChildren = Collections.<String, Node> emptyMap();
+		}
+		return new Node(file, newChildren);
+	}
+
+	/**
+	 * Number of changed files in the tree.
+	 * 
+	 * @return
+	 */
+	int size()
+	{
+		return root.size;
+	}
+
+	/**
+	 * Returns the changed file at the given path, or null if there's no changed file there.
+	 * 
+	 * @param relativePath
+	 *            path relative to the working directory
+	 * @return
+	 */
+	ChangedFile get(IPath relativePath)
+	{
+		Node node = find(relativePath);
+		return (node == null) ? null : node.file;
+	}
+
+	/**
+	 * Returns true if the path is a changed file, or a folder with changed files underneath it. The empty path is the
+	 * working directory itself.
+	 * 
+	 * @param relativePath
+	 * @return
+	 */
+	boolean hasChanges(IPath relativePath)
+	{
+		Node node = find(relativePath);
+		return node != null && node.size > 0;
+	}
+
+	/**
+	 * Returns true if the path is a file with staged changes, or a folder with any underneath it.
+	 * 
+	 * @param relativePath
+	 * @return
+	 */
+	boolean hasStagedChanges(IPath relativePath)
+	{
+		Node node = find(relativePath);
+		return node != null && node.staged > 0;
+	}
+
+	/**
+	 * Returns true if the path is a file with unstaged changes, or a folder with any underneath it.
+	 * 
+	 * @param relativePath
+	 * @return
+	 */
+	boolean hasUnstagedChanges(IPath relativePath)
+	{
+		Node node = find(relativePath);
+		return node != null && node.unstaged > 0;
+	}
+
+	/**
+	 * Returns true if any file is unmerged and the fix for it isn't staged yet.
+	 * 
+	 * @return
+	 */
+	boolean hasUnresolvedMergeConflicts()
+	{
+		return root.conflicts > 0;
+	}
+
+	/**
+	 * All the changed files, in no particular order.
+	 * 
+	 * @return
+	 */
+	List<ChangedFile> getFiles()
+	{
+		return getFiles(root);
+	}
+
+	/**
+	 * The changed files at or underneath the given path, in no particular order.
+	 * 
+	 * @param relativePath
+	 * @return
+	 */
+	List<ChangedFile> getFiles(IPath relativePath)
+	{
+		return getFiles(find(relativePath));
+	}
+
+	private static List<ChangedFile> getFiles(Node node)
+	{
+		if (node == null || node.size == 0)
+		{
+			return Collections.emptyList();
+		}
+		List<ChangedFile> files = new ArrayList<ChangedFile>(node.size);
+		collect(node, files);
+		return files;
+	}
+
+	private static void collect(Node node, List<ChangedFile> files)
+	{
+		if (node.file != null)
+		{
+			files.add(node.file);
+		}
+		for (Node child : node.children.values())
+		{
+			collect(child, files);
+		}
+	}
+
+	private Node find(IPath relativePath)
+	{
+		Node node = root;
+		int count = relativePath.segmentCount();
+		for (int i = 0; i < count && node != null; i++)
+		{
+			node = node.children.get(relativePath.segment(i));
+		}
+		return node;
+	}
+}
@@ -0,0 +1,364 @@
+/**
+ * Aptana Studio
+ * Copyright (c) 2013 by Appcelerator, Inc. All Rights Reserved.
+ * Licensed under the terms of the GNU Public License (GPL) v3 (with exceptions).
+ * Please see the license.html included with this distribution for details.
+ * Any modifications to this file must keep this entire header intact.
+ */
+package com.aptana.git.core.model;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IPath;
+
+import com.aptana.core.logging.IdeLog;
+import com.aptana.core.util.IOUtil;
+import com.aptana.core.util.StringUtil;
+import com.aptana.git.core.GitPlugin;
+import com.aptana.git.core.IDebugScopes;
+
+/**
+ * A long-lived <code>git cat-file --batch</code> (or <code>--batch-check</code>) process for a single repository.
+ * Object names are written to the process' stdin one per line and the answers read back from stdout, so looking up a
+ * blob costs a round trip over a pipe rather than a process launch. Requests for many objects are pipelined. The
+ * process is relaunched transparently if it dies. Callers are expected to hold the repository's read lock, and the
+ * repository disposes of the process whenever it takes the write lock.
+ */
+class GitCatFile
+{
+	/**
+	 * How many requests we write ahead of the answers we've read. Kept small enough that neither the request nor the
+	 * (batch-check) response pipe can fill up and block the other side.
+	 */
+	private static final int PIPELINE_DEPTH = 64;
+
+	private static final int BUFFER_SIZE = 8192;
+
+	private static final String MISSING = " missing"; //$NON-NLS-1$
+	private static final String AMBIGUOUS = " ambiguous"; //$NON-NLS-1$
+
+	/**
+	 * The header git writes for an object that exists: "&lt;sha&gt; &lt;type&gt; &lt;size&gt;".
+	 */
+	static class ObjectInfo
+	{
+		final String sha;
+		final String type;
+		final long size;
+
+		ObjectInfo(String sha, String type, long size)
+		{
+			this.sha = sha;
+			this.type = type;
+			this.size = size;
+		}
+	}
+
+	private final GitExecutable git;
+	private final IPath workingDirectory;
+	private final boolean withContents;
+
+	private Process process;
+	private OutputStream stdin;
+	private InputStream stdout;
+
+	/**
+	 * GitCatFile
+	 * 
+	 * @param git
+	 * @param workingDirectory
+	 * @param withContents
+	 *            true to run <code>--batch</code> and stream object bodies, false to run <code>--batch-check</code>
+	 *            and only report object headers.
+	 */
+	GitCatFile(GitExecutable git, IPath workingDirectory, boolean withContents)
+	{
+		this.git = git;
+		this.workingDirectory = workingDirectory;
+		this.withContents = withContents;
+	}
+
+	/**
+	 * Looks up a single object and, if this is a <code>--batch</code> process, copies its contents to
+	 * <code>out</code> as they're read off the pipe.
+	 * 
+	 * @param objectName
+	 *            anything git rev-parse understands, i.e. a sha, "HEAD:path" or ":0:path"
+	 * @param out
+	 *            where to write the object body. May be null for a <code>--batch-check</code> process.
+	 * @return the object's header, or null if it doesn't exist
+	 * @throws IOException
+	 */
+	synchronized ObjectInfo read(String objectName, OutputStream out) throws IOException
+	{
+		if (!isValidName(objectName))
+		{
+			return null;
+		}
+
+		ObjectInfo info = null;
+		for (int attempt = 0;; attempt++)
+		{
+			try
+			{
+				ensureStarted();
+				writeRequest(objectName);
+				stdin.flush();
+				info = parseHeader(objectName, readLine());
+				break;
+			}
+			catch (IOException e)
+			{
+				// Nothing of the answer has been handed out yet, so relaunch and ask again once.
+				destroy();
+				if (attempt > 0)
+				{
+					throw e;
+				}
+				IdeLog.logWarning(GitPlugin.getDefault(), "Restarting git cat-file after failure", e, //$NON-NLS-1$
+						IDebugScopes.DEBUG);
+			}
+		}
+
+		if (info != null && withContents)
+		{
+			try
+			{
+				copyBody(info.size, out);
+			}
+			catch (IOException e)
+			{
+				// We're somewhere in the middle of the body, the stream can't be trusted anymore
+				destroy();
+				throw e;
+			}
+		}
+		return info;
+	}
+
+	/**
+	 * Looks up the headers for a number of objects at once. All the requests are pipelined through the process. Only
+	 * valid on a <code>--batch-check</code> process.
+	 * 
+	 * @param objectNames
+	 * @return an array parallel to <code>objectNames</code> holding each object's header, or null where the object
+	 *         doesn't exist
+	 * @throws IOException
+	 */
+	synchronized ObjectInfo[] check(String... objectNames) throws IOException
+	{
+		if (withContents)
+		{
+			throw new IllegalStateException("check requires a --batch-check process"); //$NON-NLS-1$
+		}
+
+		for (int attempt = 0;; attempt++)
+		{
+			try
+			{
+				ensureStarted();
+				return checkAll(objectNames);
+			}
+			catch (IOException e)
+			{
+				// Lookups have no side effects, so it's safe to start over from scratch.
+				destroy();
+				if (attempt > 0)
+				{
+					throw e;
+				}
+				IdeLog.logWarning(GitPlugin.getDefault(), "Restarting git cat-file after failure", e, //$NON-NLS-1$
+						IDebugScopes.DEBUG);
+			}
+		}
+	}
+
+	/**
+	 * Kills the underlying process. It'll be relaunched on the next request.
+	 */
+	synchronized void dispose()
+	{
+		destroy();
+	}
+
+	private ObjectInfo[] checkAll(String[] objectNames) throws IOException
+	{
+		ObjectInfo[] result = new ObjectInfo[objectNames.length];
+		int sent = 0;
+		int received = 0;
+		while (received < objectNames.length)
+		{
+			if (sent < objectNames.length && sent - received < PIPELINE_DEPTH)
+			{
+				while (sent < objectNames.length && sent - received < PIPELINE_DEPTH)
+				{
+					// git answers a blank line with " missing", which keeps invalid names lined up with their answer
+					writeRequest(isValidName(objectNames[sent]) ? objectNames[sent] : StringUtil.EMPTY);
+					sent++;
+				}
+				stdin.flush();
+			}
+			String name = objectNames[received];
+			result[received] = parseHeader(isValidName(name) ? name : StringUtil.EMPTY, readLine());
+			received++;
+		}
+		return result;
+	}
+
+	private void ensureStarted() throws IOException
+	{
+		if (process != null)
+		{
+			return;
+		}
+		try
+		{
+			process = git.run(workingDirectory, "cat-file", withContents ? "--batch" : "--batch-check"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		}
+		catch (CoreException e)
+		{
+			IOException ioe = new IOException(e.getMessage());
+			ioe.initCause(e);
+			throw ioe;
+		}
+		if (process == null)
+		{
+			throw new IOException("Unable to launch git cat-file"); //$NON-NLS-1$
+		}
+		stdin = new BufferedOutputStream(process.getOutputStream(), BUFFER_SIZE);
+		stdout = new BufferedInputStream(process.getInputStream(), BUFFER_SIZE);
+		drainErrors(process.getErrorStream());
+	}
+
+	private void destroy()
+	{
+		if (process == null)
+		{
+			return;
+		}
+		try
+		{
+			// closing stdin lets git exit cleanly
+			stdin.close();
+		}
+		catch (IOException e) // $codepro.audit.disable emptyCatchClause
+		{
+			// ignore
+		}
+		process.destroy();
+		process = null;
+		stdin = null;
+		stdout = null;
+	}
+
+	/**
+	 * Anything git reports on stderr (i.e. ambiguous refname warnings) has to be consumed, or it could eventually
+	 * block the process.
+	 * 
+	 * @param errors
+	 */
+	private void drainErrors(final InputStream errors)
+	{
+		Thread drainer = new Thread("git cat-file stderr") //$NON-NLS-1$
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					String output = IOUtil.read(errors);
+					if (!StringUtil.isEmpty(output))
+					{
+						IdeLog.logInfo(GitPlugin.getDefault(), output, IDebugScopes.DEBUG);
+					}
+				}
+				catch (Exception e) // $codepro.audit.disable emptyCatchClause
+				{
+					// process went away
+				}
+			}
+		};
+		drainer.setDaemon(true);
+		drainer.start();
+	}
+
+	private void writeRequest(String objectName) throws IOException
+	{
+		stdin.write(objectName.getBytes(IOUtil.UTF_8));
+		stdin.write('\n');
+	}
+
+	private ObjectInfo parseHeader(String objectName, String line) throws IOException
+	{
+		if (line.equals(objectName + MISSING) || line.equals(objectName + AMBIGUOUS))
+		{
+			return null;
+		}
+		int firstSpace = line.indexOf(' ');
+		int lastSpace = line.lastIndexOf(' ');
+		if (firstSpace <= 0 || lastSpace <= firstSpace)
+		{
+			throw new IOException("Unexpected response from git cat-file: " + line); //$NON-NLS-1$
+		}
+		try
+		{
+			return new ObjectInfo(line.substring(0, firstSpace), line.substring(firstSpace + 1, lastSpace),
+					Long.parseLong(line.substring(lastSpace + 1)));
+		}
+		catch (NumberFormatException e)
+		{
+			throw new IOException("Unexpected response from git cat-file: " + line); //$NON-NLS-1$
+		}
+	}
+
+	private String readLine() throws IOException
+	{
+		ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+		int b;
+		while ((b = stdout.read()) != '\n')
+		{
+			if (b == -1)
+			{
+				throw new EOFException("git cat-file exited unexpectedly"); //$NON-NLS-1$
+			}
+			line.write(b);
+		}
+		return line.toString(IOUtil.UTF_8);
+	}
+
+	private void copyBody(long size, OutputStream out) throws IOException
+	{
+		byte[] buffer = new byte[(int) Math.min(size, BUFFER_SIZE)];
+		long remaining = size;
+		while (remaining > 0)
+		{
+			int read = stdout.read(buffer, 0, (int) Math.min(remaining, buffer.length));
+			if (read == -1)
+			{
+				throw new EOFException("git cat-file exited unexpectedly"); //$NON-NLS-1$
+			}
+			if (out != null)
+			{
+				out.write(buffer, 0, read);
+			}
+			remaining -= read;
+		}
+		// Each body is followed by a newline
+		if (stdout.read() != '\n')
+		{
+			throw new IOException("Unexpected response from git cat-file"); //$NON-NLS-1$
+		}
+	}
+
+	private static boolean isValidName(String objectName)
+	{
+		return objectName != null && objectName.length() > 0 && objectName.indexOf('\n') == -1;
+	}
+}
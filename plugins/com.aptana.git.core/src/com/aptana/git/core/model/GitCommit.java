@@ -7,6 +7,9 @@
  */
 package com.aptana.git.core.model;
 
+import java.io.ByteArrayOutputStream;
+import java.io.UnsupportedEncodingException;
+import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -25,8 +28,12 @@ import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Path;
 
 import com.aptana.core.IMap;
+import com.aptana.core.logging.IdeLog;
 import com.aptana.core.util.CollectionsUtil;
+import com.aptana.core.util.IOUtil;
 import com.aptana.core.util.StringUtil;
+import com.aptana.git.core.GitPlugin;
+import com.aptana.git.core.IDebugScopes;
 import com.aptana.git.core.model.GitRepository.ReadWrite;
 
 /**
@@ -37,6 +44,8 @@ import com.aptana.git.core.model.GitRepository.ReadWrite;
 public class GitCommit
 {
 
+	private static final String ENCODING_HEADER = "encoding "; //$NON-NLS-1$
+
 	private GitRepository repository;
 	private String sha;
 	private String subject;
@@ -108,11 +117,66 @@ public class GitCommit
 		return author;
 	}
 
-	public String getComment()
+	public synchronized String getComment()
 	{
+		if (comment == null && repository != null)
+		{
+			// Commits from the commit graph cache only know their subject, the full message is read on demand
+			comment = readMessage();
+		}
 		return comment;
 	}
 
+	/**
+	 * Reads the message out of the commit object: it follows the headers and a blank line, in the encoding named by
+	 * the "encoding" header if there is one.
+	 * 
+	 * @return
+	 */
+	private String readMessage()
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		if (!repository.readObject(sha, out))
+		{
+			return null;
+		}
+		byte[] bytes = out.toByteArray();
+		String encoding = IOUtil.UTF_8;
+		int start = 0;
+		while (start < bytes.length && bytes[start] != '\n')
+		{
+			int end = start;
+			while (end < bytes.length && bytes[end] != '\n')
+			{
+				end++;
+			}
+			String header = new String(bytes, start, end - start);
+			if (header.startsWith(ENCODING_HEADER))
+			{
+				encoding = header.substring(ENCODING_HEADER.length()).trim();
+			}
+			start = end + 1;
+		}
+		start = Math.min(start + 1, bytes.length);
+		try
+		{
+			return new String(bytes, start, bytes.length - start, encoding);
+		}
+		catch (UnsupportedEncodingException e)
+		{
+			IdeLog.logWarning(GitPlugin.getDefault(),
+					MessageFormat.format("Unknown encoding {0} for commit {1}", encoding, sha), e, IDebugScopes.DEBUG); //$NON-NLS-1$
+			try
+			{
+				return new String(bytes, start, bytes.length - start, IOUtil.UTF_8);
+			}
+			catch (UnsupportedEncodingException e1)
+			{
+				return new String(bytes, start, bytes.length - start);
+			}
+		}
+	}
+
 	@Override
 	public String toString()
 	{
@@ -0,0 +1,1333 @@
+/**
+ * Aptana Studio
+ * Copyright (c) 2014 by Appcelerator, Inc. All Rights Reserved.
+ * Licensed under the terms of the GNU Public License (GPL) v3 (with exceptions).
+ * Please see the license.html included with this distribution for details.
+ * Any modifications to this file must keep this entire header intact.
+ */
+package com.aptana.git.core.model;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.text.MessageFormat;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Path;
+
+import com.aptana.core.logging.IdeLog;
+import com.aptana.core.util.ArrayUtil;
+import com.aptana.core.util.CollectionsUtil;
+import com.aptana.core.util.IOUtil;
+import com.aptana.core.util.StringUtil;
+import com.aptana.git.core.GitPlugin;
+import com.aptana.git.core.IDebugScopes;
+
+/**
+ * A cache of a repository's commit graph (parents, author, dates and subject of every commit we've walked, keyed by
+ * sha) kept in a file in the .git dir, so that walking the history doesn't mean parsing all of <code>git log</code>
+ * each time.
+ * <p>
+ * The file is a sequence of checksummed chunks that only ever gets appended to. When a walk starts from tips we
+ * haven't seen, we ask git for just the commits reachable from them and not from the tips we already have, and append
+ * those as a new chunk. Walks hand out a list that only creates the {@link GitCommit}s a page at a time as they're
+ * asked for; the full commit message is read on demand by {@link GitCommit#getComment()}.
+ * <p>
+ * For path-limited history each commit gets a bloom filter of the paths it changed (computed the first time a path
+ * query needs it, and appended to the file too). The filters rule out most commits, a diff of the remaining ones
+ * tells for sure. The history is simplified like <code>git log -- path</code> does by default: a merge that took the
+ * paths as they were in one of its parents isn't listed, and only that parent is followed.
+ * <p>
+ * Anything the cache can't answer (ranges, options other than revisions and paths, shallow repos) is left to
+ * <code>git log</code>: {@link #walk(GitRevSpecifier, int, IProgressMonitor)} returns null for those.
+ */
+class GitCommitGraph
+{
+
+	static final String FILE_NAME = "aptana-commit-graph"; //$NON-NLS-1$
+
+	private static final String SHALLOW = "shallow"; //$NON-NLS-1$
+
+	private static final int MAGIC = 0x41434701;
+	private static final byte COMMITS = 1;
+	private static final byte FILTERS = 2;
+
+	/**
+	 * How many {@link GitCommit}s the lists we hand out create at a time.
+	 */
+	private static final int PAGE_SIZE = 512;
+
+	/**
+	 * The most tips we pass to git as what we have already. Leaving some out only means git lists commits we already
+	 * know about again.
+	 */
+	private static final int MAX_EXCLUDED_TIPS = 100;
+
+	/**
+	 * Changed-path bloom filters are sized like git's own: 10 bits per path and 7 hash functions, about 1% false
+	 * positives. Commits that change more paths than this get a filter that matches everything.
+	 */
+	private static final int BITS_PER_PATH = 10;
+	private static final int HASH_COUNT = 7;
+	private static final int MAX_FILTER_PATHS = 512;
+	private static final byte[] MATCH_ALL = new byte[0];
+
+	/**
+	 * Long strings get cut short on disk, writeUTF can't handle more than 64k of bytes.
+	 */
+	private static final int MAX_STRING_LENGTH = 4096;
+
+	private static final char FIELD_SEPARATOR = '\1';
+	private static final String RECORD_FORMAT = "--format=format:%H%x01%P%x01%at%x01%ct%x01%an%x01%ae%x01%s"; //$NON-NLS-1$
+
+	private static final class Entry
+	{
+		final String sha;
+		final String[] parents;
+		final long authorTime;
+		final long commitTime;
+		final String author;
+		final String authorEmail;
+		final String subject;
+
+		/**
+		 * Indices of the parents in {@link GitCommitGraph#entries}, -1 for ones we don't have.
+		 */
+		int[] parentIndices;
+
+		/**
+		 * Bloom filter of the paths changed by this commit, null until computed.
+		 */
+		byte[] filter;
+
+		Entry(String sha, String[] parents, long authorTime, long commitTime, String author, String authorEmail,
+				String subject)
+		{
+			this.sha = sha;
+			this.parents = parents;
+			this.authorTime = authorTime;
+			this.commitTime = commitTime;
+			this.author = author;
+			this.authorEmail = authorEmail;
+			this.subject = subject;
+		}
+	}
+
+	/**
+	 * The starting points and path filters of a walk
+	 */
+	private static final class Query
+	{
+		final List<String> tips;
+		final List<String> paths;
+
+		Query(List<String> tips, List<String> paths)
+		{
+			this.tips = tips;
+			this.paths = paths;
+		}
+	}
+
+	/**
+	 * What the diffs of a commit against its parents said so far
+	 */
+	private static final class CommitDiff
+	{
+		final Entry entry;
+		final Set<String> changedPaths = new HashSet<String>();
+
+		/**
+		 * Whether the paths differ from each parent (the empty tree for a root commit)
+		 */
+		final boolean[] changed;
+		private int parent;
+
+		CommitDiff(Entry entry)
+		{
+			this.entry = entry;
+			this.changed = new boolean[Math.max(1, entry.parents.length)];
+		}
+
+		void changed(String path, List<String> paths)
+		{
+			changedPaths.add(path);
+			if (parent < changed.length && matches(path, paths))
+			{
+				changed[parent] = true;
+			}
+		}
+
+		/**
+		 * Done with the diff against one parent
+		 */
+		void nextParent()
+		{
+			parent++;
+		}
+	}
+
+	private static final Comparator<Entry> NEWEST_FIRST = new Comparator<Entry>()
+	{
+		public int compare(Entry a, Entry b)
+		{
+			return (a.commitTime < b.commitTime) ? 1 : ((a.commitTime == b.commitTime) ? 0 : -1);
+		}
+	};
+
+	private final GitRepository repository;
+	private final File file;
+
+	private final List<Entry> entries = new ArrayList<Entry>();
+	private final Map<String, Integer> indices = new HashMap<String, Integer>();
+
+	/**
+	 * The commits that aren't a parent of anything we have. Everything in the cache is reachable from them.
+	 */
+	private final Set<String> tips = new LinkedHashSet<String>();
+
+	/**
+	 * Author names and emails repeat a lot, share the strings.
+	 */
+	private final Map<String, String> names = new HashMap<String, String>();
+
+	private boolean loaded;
+
+	GitCommitGraph(GitRepository repository, File file)
+	{
+		this.repository = repository;
+		this.file = file;
+	}
+
+	/**
+	 * Walks the history from the given revision(s) in topological order, limited to max commits (if max > 0). Callers
+	 * are expected to hold the repository's read lock.
+	 * 
+	 * @param rev
+	 *            null for HEAD
+	 * @param max
+	 * @param monitor
+	 * @return the commits, or null if the walk is beyond what the cache can do (or failed, or was cancelled) and it's
+	 *         up to git log.
+	 */
+	synchronized List<GitCommit> walk(GitRevSpecifier rev, int max, IProgressMonitor monitor)
+	{
+		if (repository.gitFile(SHALLOW).exists())
+		{
+			// we'd never learn about the history that gets fetched later
+			return null;
+		}
+		Query query = parse(rev);
+		if (query == null)
+		{
+			return null;
+		}
+
+		try
+		{
+			if (!loaded)
+			{
+				load();
+			}
+			if (!extend(query.tips, monitor))
+			{
+				return null;
+			}
+
+			Entry[] order = topoOrder(query.tips, null);
+			if (!query.paths.isEmpty())
+			{
+				order = filter(order, query, monitor);
+				if (order == null)
+				{
+					return null;
+				}
+			}
+			if (max > 0 && order.length > max)
+			{
+				Entry[] limited = new Entry[max];
+				System.arraycopy(order, 0, limited, 0, max);
+				order = limited;
+			}
+			return new CommitList(order);
+		}
+		catch (Exception e)
+		{
+			IdeLog.logWarning(GitPlugin.getDefault(),
+					MessageFormat.format("Unable to walk {0} from the commit graph cache", rev), e, IDebugScopes.DEBUG); //$NON-NLS-1$
+			return null;
+		}
+	}
+
+	/**
+	 * Splits the specifier into the commits to start from and the paths to limit to. Returns null for anything else
+	 * (negative revisions, options).
+	 */
+	private Query parse(GitRevSpecifier rev)
+	{
+		List<String> parameters = (rev == null) ? Collections.<String> emptyList() : rev.parameters();
+		List<String> tips = revParse("--revs-only", parameters); //$NON-NLS-1$
+		if (tips == null)
+		{
+			return null;
+		}
+		if (tips.isEmpty())
+		{
+			tips = revParse("--revs-only", CollectionsUtil.newList(GitRepository.HEAD)); //$NON-NLS-1$
+			if (CollectionsUtil.isEmpty(tips))
+			{
+				return null;
+			}
+		}
+		for (String tip : tips)
+		{
+			if (tip.length() != 40)
+			{
+				// ^sha of a range
+				return null;
+			}
+		}
+
+		List<String> rest = revParse("--no-revs", parameters); //$NON-NLS-1$
+		if (rest == null)
+		{
+			return null;
+		}
+		List<String> paths = new ArrayList<String>(rest.size());
+		for (String arg : rest)
+		{
+			if ("--".equals(arg)) //$NON-NLS-1$
+			{
+				continue;
+			}
+			if (arg.startsWith("-")) //$NON-NLS-1$
+			{
+				return null;
+			}
+			String path = Path.fromOSString(arg).toPortableString();
+			if (path.endsWith("/")) //$NON-NLS-1$
+			{
+				path = path.substring(0, path.length() - 1);
+			}
+			if (path.length() == 0 || ".".equals(path)) //$NON-NLS-1$
+			{
+				// the whole tree
+				return new Query(tips, Collections.<String> emptyList());
+			}
+			paths.add(path);
+		}
+		return new Query(tips, paths);
+	}
+
+	private List<String> revParse(String option, List<String> parameters)
+	{
+		List<String> args = CollectionsUtil.newList("rev-parse", option); //$NON-NLS-1$
+		args.addAll(parameters);
+		IStatus status = repository.execute(GitRepository.ReadWrite.READ, args.toArray(new String[args.size()]));
+		if (status == null || !status.isOK())
+		{
+			return null;
+		}
+		List<String> lines = new ArrayList<String>();
+		for (String line : StringUtil.LINE_SPLITTER.split(status.getMessage()))
+		{
+			line = line.trim();
+			if (line.length() > 0)
+			{
+				lines.add(line);
+			}
+		}
+		return lines;
+	}
+
+	/**
+	 * Adds the commits reachable from tips we don't have yet, asking git for just those.
+	 * 
+	 * @return false if git failed or we were cancelled
+	 */
+	private boolean extend(List<String> wanted, IProgressMonitor monitor) throws IOException, CoreException,
+			InterruptedException
+	{
+		List<String> missing = new ArrayList<String>();
+		for (String tip : wanted)
+		{
+			if (!indices.containsKey(tip) && !missing.contains(tip))
+			{
+				missing.add(tip);
+			}
+		}
+		if (missing.isEmpty())
+		{
+			return true;
+		}
+
+		// @formatter:off
+		List<String> args = CollectionsUtil.newList(
+			"log", //$NON-NLS-1$
+			"-z", //$NON-NLS-1$
+			"--encoding=UTF-8", //$NON-NLS-1$
+			"--ignore-missing", //$NON-NLS-1$
+			RECORD_FORMAT);
+		// @formatter:on
+		args.addAll(missing);
+		List<String> excluded = excludedTips();
+		if (!excluded.isEmpty())
+		{
+			args.add("--not"); //$NON-NLS-1$
+			args.addAll(excluded);
+		}
+
+		long start = System.currentTimeMillis();
+		List<Entry> added = new ArrayList<Entry>();
+		Set<String> addedShas = new HashSet<String>();
+		Process p = GitExecutable.instance().run(repository.workingDirectory(), args.toArray(new String[args.size()]));
+		InputStream stream = new BufferedInputStream(p.getInputStream());
+		try
+		{
+			ByteArrayOutputStream record = new ByteArrayOutputStream();
+			while (true)
+			{
+				int read = stream.read();
+				if (read != 0 && read != -1)
+				{
+					record.write(read);
+					continue;
+				}
+				if (record.size() > 0)
+				{
+					Entry entry = parseRecord(record.toString(IOUtil.UTF_8));
+					if (entry != null && !indices.containsKey(entry.sha) && addedShas.add(entry.sha))
+					{
+						added.add(entry);
+						monitor.worked(1);
+					}
+					record.reset();
+				}
+				if (read == -1)
+				{
+					break;
+				}
+				if (monitor.isCanceled())
+				{
+					p.destroy();
+					return false;
+				}
+			}
+		}
+		finally
+		{
+			close(stream);
+		}
+		if (p.waitFor() != 0)
+		{
+			return false;
+		}
+
+		int first = entries.size();
+		for (Entry entry : added)
+		{
+			indices.put(entry.sha, entries.size());
+			entries.add(entry);
+		}
+		resolveParents(first);
+		tips.addAll(missing);
+		for (Entry entry : added)
+		{
+			for (String parent : entry.parents)
+			{
+				tips.remove(parent);
+			}
+		}
+		appendCommits(added);
+		IdeLog.logInfo(GitPlugin.getDefault(), MessageFormat.format(
+				"Added {0} commits to the commit graph cache in {1} ms", added.size(), //$NON-NLS-1$
+				System.currentTimeMillis() - start), IDebugScopes.DEBUG);
+		return true;
+	}
+
+	private Entry parseRecord(String record)
+	{
+		String[] fields = new String[7];
+		int start = 0;
+		for (int i = 0; i < fields.length - 1; i++)
+		{
+			int end = record.indexOf(FIELD_SEPARATOR, start);
+			if (end == -1)
+			{
+				IdeLog.logError(GitPlugin.getDefault(),
+						MessageFormat.format("Unexpected git log record: {0}", record), IDebugScopes.DEBUG); //$NON-NLS-1$
+				return null;
+			}
+			fields[i] = record.substring(start, end);
+			start = end + 1;
+		}
+		fields[fields.length - 1] = record.substring(start);
+
+		String[] parents = (fields[1].length() == 0) ? ArrayUtil.NO_STRINGS : fields[1].split(" "); //$NON-NLS-1$
+		try
+		{
+			return new Entry(fields[0], parents, Long.parseLong(fields[2]), Long.parseLong(fields[3]),
+					share(fields[4]), share(fields[5]), new String(fields[6]));
+		}
+		catch (NumberFormatException e)
+		{
+			IdeLog.logError(GitPlugin.getDefault(),
+					MessageFormat.format("Unexpected git log record: {0}", record), IDebugScopes.DEBUG); //$NON-NLS-1$
+			return null;
+		}
+	}
+
+	private String share(String name)
+	{
+		String shared = names.get(name);
+		if (shared == null)
+		{
+			shared = new String(name);
+			names.put(shared, shared);
+		}
+		return shared;
+	}
+
+	private void resolveParents(int from)
+	{
+		for (int i = from; i < entries.size(); i++)
+		{
+			Entry entry = entries.get(i);
+			entry.parentIndices = new int[entry.parents.length];
+			for (int j = 0; j < entry.parents.length; j++)
+			{
+				Integer index = indices.get(entry.parents[j]);
+				entry.parentIndices[j] = (index == null) ? -1 : index;
+			}
+		}
+	}
+
+	/**
+	 * The newest of our tips, to tell git what we have already
+	 */
+	private List<String> excludedTips()
+	{
+		List<Entry> tipEntries = new ArrayList<Entry>(tips.size());
+		for (String tip : tips)
+		{
+			Integer index = indices.get(tip);
+			if (index != null)
+			{
+				tipEntries.add(entries.get(index));
+			}
+		}
+		if (tipEntries.size() > MAX_EXCLUDED_TIPS)
+		{
+			Collections.sort(tipEntries, NEWEST_FIRST);
+			tipEntries = tipEntries.subList(0, MAX_EXCLUDED_TIPS);
+		}
+		List<String> excluded = new ArrayList<String>(tipEntries.size());
+		for (Entry entry : tipEntries)
+		{
+			excluded.add(entry.sha);
+		}
+		return excluded;
+	}
+
+	/**
+	 * Orders the commits reachable from the tips the way <code>git log --topo-order</code> does: no parent before all
+	 * of its children, newest tip first, and the lines of history merged in listed before the one they got merged
+	 * into.
+	 * 
+	 * @param follow
+	 *            for a simplified history, the one parent to follow for each commit (by index in {@link #entries}) or
+	 *            -1 for all of them; null to follow every parent
+	 */
+	private Entry[] topoOrder(List<String> tipShas, int[] follow)
+	{
+		// 0 for commits we haven't reached, 1 + the number of children reached otherwise
+		int[] indegree = new int[entries.size()];
+		int[] stack = new int[64];
+		int size = 0;
+		int reachable = 0;
+		List<Entry> starts = new ArrayList<Entry>(tipShas.size());
+		for (String tip : tipShas)
+		{
+			Integer index = indices.get(tip);
+			if (index != null && indegree[index] == 0)
+			{
+				indegree[index] = 1;
+				reachable++;
+				starts.add(entries.get(index));
+				if (size == stack.length)
+				{
+					stack = grow(stack);
+				}
+				stack[size++] = index;
+			}
+		}
+		while (size > 0)
+		{
+			int index = stack[--size];
+			int[] parents = entries.get(index).parentIndices;
+			for (int i = 0; i < parents.length; i++)
+			{
+				int parent = parents[i];
+				if (parent == -1 || !follows(follow, index, i))
+				{
+					continue;
+				}
+				if (indegree[parent] == 0)
+				{
+					indegree[parent] = 1;
+					reachable++;
+					if (size == stack.length)
+					{
+						stack = grow(stack);
+					}
+					stack[size++] = parent;
+				}
+				indegree[parent]++;
+			}
+		}
+
+		// Start from the tips nothing else points at, newest on top of the stack
+		Collections.sort(starts, NEWEST_FIRST);
+		for (int i = starts.size() - 1; i >= 0; i--)
+		{
+			int index = indices.get(starts.get(i).sha);
+			if (indegree[index] == 1)
+			{
+				if (size == stack.length)
+				{
+					stack = grow(stack);
+				}
+				stack[size++] = index;
+			}
+		}
+
+		Entry[] order = new Entry[reachable];
+		int count = 0;
+		while (size > 0)
+		{
+			int index = stack[--size];
+			Entry entry = entries.get(index);
+			order[count++] = entry;
+			for (int i = 0; i < entry.parentIndices.length; i++)
+			{
+				int parent = entry.parentIndices[i];
+				if (parent != -1 && follows(follow, index, i) && --indegree[parent] == 1)
+				{
+					if (size == stack.length)
+					{
+						stack = grow(stack);
+					}
+					stack[size++] = parent;
+				}
+			}
+		}
+		return order;
+	}
+
+	private static boolean follows(int[] follow, int index, int parent)
+	{
+		return follow == null || follow[index] == -1 || follow[index] == parent;
+	}
+
+	private static int[] grow(int[] stack)
+	{
+		int[] grown = new int[stack.length * 2];
+		System.arraycopy(stack, 0, grown, 0, stack.length);
+		return grown;
+	}
+
+	/**
+	 * Keeps the commits that changed any of the paths, simplifying the history the way <code>git log -- paths</code>
+	 * does by default: a merge that didn't change the paths compared to one of its parents is left out, and only that
+	 * parent is followed. Commits without a bloom filter yet, and the ones whose filter says they might have changed a
+	 * path, get diffed; the rest are ruled out by their filter alone.
+	 * 
+	 * @return null if git failed or we were cancelled
+	 */
+	private Entry[] filter(Entry[] order, Query query, IProgressMonitor monitor) throws IOException, CoreException,
+			InterruptedException
+	{
+		List<Entry> candidates = new ArrayList<Entry>();
+		for (Entry entry : order)
+		{
+			if (entry.filter == null || mightContain(entry.filter, query.paths))
+			{
+				candidates.add(entry);
+			}
+		}
+		Map<Entry, boolean[]> changes = diff(candidates, query.paths, monitor);
+		if (changes == null)
+		{
+			return null;
+		}
+
+		boolean[] reached = new boolean[entries.size()];
+		int[] follow = new int[entries.size()];
+		Set<Entry> shown = new HashSet<Entry>();
+		int[] stack = new int[64];
+		int size = 0;
+		for (String tip : query.tips)
+		{
+			Integer index = indices.get(tip);
+			if (index != null && !reached[index])
+			{
+				reached[index] = true;
+				if (size == stack.length)
+				{
+					stack = grow(stack);
+				}
+				stack[size++] = index;
+			}
+		}
+		while (size > 0)
+		{
+			int index = stack[--size];
+			Entry entry = entries.get(index);
+			boolean[] changed = changes.get(entry);
+			follow[index] = -1;
+			if (entry.parents.length > 1)
+			{
+				for (int i = 0; i < entry.parents.length; i++)
+				{
+					if (changed == null || !changed[i])
+					{
+						follow[index] = i;
+						break;
+					}
+				}
+				if (follow[index] == -1)
+				{
+					shown.add(entry);
+				}
+			}
+			else if (changed != null && changed[0])
+			{
+				shown.add(entry);
+			}
+			for (int i = 0; i < entry.parentIndices.length; i++)
+			{
+				int parent = entry.parentIndices[i];
+				if (parent != -1 && follows(follow, index, i) && !reached[parent])
+				{
+					reached[parent] = true;
+					if (size == stack.length)
+					{
+						stack = grow(stack);
+					}
+					stack[size++] = parent;
+				}
+			}
+		}
+
+		// the parents left out change the order, like git orders the simplified history
+		List<Entry> filtered = new ArrayList<Entry>(shown.size());
+		for (Entry entry : topoOrder(query.tips, follow))
+		{
+			if (shown.contains(entry))
+			{
+				filtered.add(entry);
+			}
+		}
+		return filtered.toArray(new Entry[filtered.size()]);
+	}
+
+	/**
+	 * Diffs the commits against their parents in a single <code>git diff-tree --stdin</code>, filling in the bloom
+	 * filters of the ones that don't have one yet.
+	 * 
+	 * @return whether each commit changed any of the paths compared to each of its parents, or null if git failed or
+	 *         we were cancelled
+	 */
+	private Map<Entry, boolean[]> diff(final List<Entry> commits, List<String> paths, IProgressMonitor monitor)
+			throws IOException, CoreException, InterruptedException
+	{
+		Map<Entry, boolean[]> changes = new HashMap<Entry, boolean[]>();
+		if (commits.isEmpty())
+		{
+			return changes;
+		}
+
+		// @formatter:off
+		final Process p = GitExecutable.instance().run(repository.workingDirectory(),
+			"diff-tree", //$NON-NLS-1$
+			"--stdin", //$NON-NLS-1$
+			"-z", //$NON-NLS-1$
+			"-r", //$NON-NLS-1$
+			"--root", //$NON-NLS-1$
+			"--always", //$NON-NLS-1$
+			"--name-only"); //$NON-NLS-1$
+		// @formatter:on
+		// Feed it from another thread, it writes its answers while we're still asking
+		Thread feeder = new Thread("git diff-tree input") //$NON-NLS-1$
+		{
+			@Override
+			public void run()
+			{
+				OutputStream stdin = new BufferedOutputStream(p.getOutputStream());
+				try
+				{
+					for (Entry entry : commits)
+					{
+						// merges get a line per parent, -m would leave out the parents they don't differ from
+						if (entry.parents.length <= 1)
+						{
+							stdin.write(entry.sha.getBytes(IOUtil.UTF_8));
+							stdin.write('\n');
+							continue;
+						}
+						for (String parent : entry.parents)
+						{
+							stdin.write((entry.sha + ' ' + parent).getBytes(IOUtil.UTF_8));
+							stdin.write('\n');
+						}
+					}
+				}
+				catch (IOException e)
+				{
+					// git went away, the reading side finds out
+				}
+				finally
+				{
+					close(stdin);
+				}
+			}
+		};
+		feeder.setDaemon(true);
+		feeder.start();
+
+		// git writes "<sha>\0" followed by "<path>\0" for each changed path, and the sha again for each parent of a
+		// merge
+		List<Entry> computed = new ArrayList<Entry>();
+		InputStream stream = new BufferedInputStream(p.getInputStream());
+		try
+		{
+			int next = 0;
+			CommitDiff current = null;
+			ByteArrayOutputStream token = new ByteArrayOutputStream();
+			while (true)
+			{
+				int read = stream.read();
+				if (read != 0 && read != -1)
+				{
+					token.write(read);
+					continue;
+				}
+				if (token.size() > 0)
+				{
+					String value = token.toString(IOUtil.UTF_8);
+					token.reset();
+					if (next < commits.size() && value.equals(commits.get(next).sha))
+					{
+						finish(current, changes, computed);
+						current = new CommitDiff(commits.get(next++));
+						monitor.worked(1);
+					}
+					else if (current != null && value.equals(current.entry.sha))
+					{
+						current.nextParent();
+					}
+					else if (current != null)
+					{
+						current.changed(value, paths);
+					}
+				}
+				if (read == -1)
+				{
+					finish(current, changes, computed);
+					break;
+				}
+				if (monitor.isCanceled())
+				{
+					p.destroy();
+					return null;
+				}
+			}
+		}
+		finally
+		{
+			close(stream);
+		}
+		if (p.waitFor() != 0)
+		{
+			return null;
+		}
+		appendFilters(computed);
+		return changes;
+	}
+
+	private static void finish(CommitDiff diff, Map<Entry, boolean[]> changes, List<Entry> computed)
+	{
+		if (diff == null)
+		{
+			return;
+		}
+		Entry entry = diff.entry;
+		if (entry.filter == null)
+		{
+			entry.filter = createFilter(diff.changedPaths);
+			computed.add(entry);
+		}
+		changes.put(entry, diff.changed);
+	}
+
+	private static boolean matches(String changedPath, List<String> paths)
+	{
+		for (String path : paths)
+		{
+			if (changedPath.equals(path)
+					|| (changedPath.startsWith(path) && changedPath.charAt(path.length()) == '/'))
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Bloom filter of the changed paths and all the folders they're in.
+	 */
+	private static byte[] createFilter(Set<String> changedPaths)
+	{
+		Set<String> keys = new HashSet<String>();
+		for (String path : changedPaths)
+		{
+			keys.add(path);
+			for (int slash = path.lastIndexOf('/'); slash > 0; slash = path.lastIndexOf('/', slash - 1))
+			{
+				if (!keys.add(path.substring(0, slash)))
+				{
+					// and so are all the ones above it
+					break;
+				}
+			}
+		}
+		if (keys.size() > MAX_FILTER_PATHS)
+		{
+			return MATCH_ALL;
+		}
+		byte[] filter = new byte[Math.max(8, (keys.size() * BITS_PER_PATH + 7) / 8)];
+		int bits = filter.length * 8;
+		for (String key : keys)
+		{
+			int h1 = key.hashCode();
+			int h2 = secondaryHash(key);
+			for (int i = 0; i < HASH_COUNT; i++)
+			{
+				int bit = ((h1 + i * h2) & 0x7fffffff) % bits;
+				filter[bit >> 3] |= 1 << (bit & 7);
+			}
+		}
+		return filter;
+	}
+
+	private static boolean mightContain(byte[] filter, List<String> paths)
+	{
+		if (filter.length == 0)
+		{
+			return true;
+		}
+		int bits = filter.length * 8;
+		for (String path : paths)
+		{
+			int h1 = path.hashCode();
+			int h2 = secondaryHash(path);
+			boolean all = true;
+			for (int i = 0; i < HASH_COUNT && all; i++)
+			{
+				int bit = ((h1 + i * h2) & 0x7fffffff) % bits;
+				all = (filter[bit >> 3] & (1 << (bit & 7))) != 0;
+			}
+			if (all)
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * FNV-1a, made odd so that stepping by it visits every bit
+	 */
+	private static int secondaryHash(String key)
+	{
+		int hash = 0x811c9dc5;
+		for (int i = 0; i < key.length(); i++)
+		{
+			hash ^= key.charAt(i);
+			hash *= 0x01000193;
+		}
+		return hash | 1;
+	}
+
+	// Persistence
+
+	private void load()
+	{
+		loaded = true;
+		if (!file.isFile())
+		{
+			return;
+		}
+
+		long valid = 0;
+		DataInputStream in = null;
+		try
+		{
+			long length = file.length();
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			if (in.readInt() != MAGIC)
+			{
+				IdeLog.logWarning(GitPlugin.getDefault(),
+						MessageFormat.format("Discarding unrecognized commit graph cache {0}", file), IDebugScopes.DEBUG); //$NON-NLS-1$
+				return;
+			}
+			valid = 4;
+			while (true)
+			{
+				int size;
+				try
+				{
+					size = in.readInt();
+				}
+				catch (EOFException e)
+				{
+					break;
+				}
+				int checksum = in.readInt();
+				if (size <= 0 || valid + 8 + size > length)
+				{
+					break;
+				}
+				byte[] chunk = new byte[size];
+				in.readFully(chunk);
+				if (checksum(chunk) != checksum)
+				{
+					break;
+				}
+				readChunk(chunk);
+				valid += 8 + size;
+			}
+		}
+		catch (IOException e)
+		{
+			// a torn write at the end, everything up to it is fine
+			IdeLog.logWarning(GitPlugin.getDefault(),
+					MessageFormat.format("Unable to read all of commit graph cache {0}", file), e, IDebugScopes.DEBUG); //$NON-NLS-1$
+		}
+		finally
+		{
+			close(in);
+			truncate(valid);
+		}
+		resolveParents(0);
+	}
+
+	private void readChunk(byte[] chunk) throws IOException
+	{
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(chunk));
+		byte type = in.readByte();
+		int count = in.readInt();
+		if (type == COMMITS)
+		{
+			List<Entry> read = new ArrayList<Entry>(count);
+			for (int i = 0; i < count; i++)
+			{
+				String sha = readSha(in);
+				String[] parents = new String[in.readUnsignedByte()];
+				for (int j = 0; j < parents.length; j++)
+				{
+					parents[j] = readSha(in);
+				}
+				long authorTime = in.readLong();
+				long commitTime = in.readLong();
+				String author = share(in.readUTF());
+				String authorEmail = share(in.readUTF());
+				String subject = in.readUTF();
+				read.add(new Entry(sha, parents, authorTime, commitTime, author, authorEmail, subject));
+			}
+			int tipCount = in.readInt();
+			List<String> newTips = new ArrayList<String>(tipCount);
+			for (int i = 0; i < tipCount; i++)
+			{
+				newTips.add(readSha(in));
+			}
+
+			// only once the whole chunk made sense
+			for (Entry entry : read)
+			{
+				if (!indices.containsKey(entry.sha))
+				{
+					indices.put(entry.sha, entries.size());
+					entries.add(entry);
+				}
+			}
+			tips.clear();
+			tips.addAll(newTips);
+		}
+		else if (type == FILTERS)
+		{
+			for (int i = 0; i < count; i++)
+			{
+				String sha = readSha(in);
+				byte[] filter = new byte[in.readUnsignedShort()];
+				in.readFully(filter);
+				Integer index = indices.get(sha);
+				if (index != null)
+				{
+					entries.get(index).filter = (filter.length == 0) ? MATCH_ALL : filter;
+				}
+			}
+		}
+	}
+
+	private void appendCommits(List<Entry> added)
+	{
+		try
+		{
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeByte(COMMITS);
+			out.writeInt(added.size());
+			for (Entry entry : added)
+			{
+				writeSha(out, entry.sha);
+				out.writeByte(entry.parents.length);
+				for (String parent : entry.parents)
+				{
+					writeSha(out, parent);
+				}
+				out.writeLong(entry.authorTime);
+				out.writeLong(entry.commitTime);
+				out.writeUTF(limit(entry.author));
+				out.writeUTF(limit(entry.authorEmail));
+				out.writeUTF(limit(entry.subject));
+			}
+			out.writeInt(tips.size());
+			for (String tip : tips)
+			{
+				writeSha(out, tip);
+			}
+			append(bytes.toByteArray());
+		}
+		catch (IOException e)
+		{
+			IdeLog.logWarning(GitPlugin.getDefault(),
+					MessageFormat.format("Unable to write commit graph cache {0}", file), e, IDebugScopes.DEBUG); //$NON-NLS-1$
+		}
+	}
+
+	private void appendFilters(List<Entry> computed)
+	{
+		if (computed.isEmpty())
+		{
+			return;
+		}
+		try
+		{
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeByte(FILTERS);
+			out.writeInt(computed.size());
+			for (Entry entry : computed)
+			{
+				writeSha(out, entry.sha);
+				out.writeShort(entry.filter.length);
+				out.write(entry.filter);
+			}
+			append(bytes.toByteArray());
+		}
+		catch (IOException e)
+		{
+			IdeLog.logWarning(GitPlugin.getDefault(),
+					MessageFormat.format("Unable to write commit graph cache {0}", file), e, IDebugScopes.DEBUG); //$NON-NLS-1$
+		}
+	}
+
+	private void append(byte[] chunk) throws IOException
+	{
+		boolean exists = file.isFile() && file.length() > 0;
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+		try
+		{
+			if (!exists)
+			{
+				out.writeInt(MAGIC);
+			}
+			out.writeInt(chunk.length);
+			out.writeInt(checksum(chunk));
+			out.write(chunk);
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+
+	/**
+	 * Cuts off whatever follows the last good chunk, so that the next one gets appended after it.
+	 */
+	private void truncate(long valid)
+	{
+		if (valid >= file.length())
+		{
+			return;
+		}
+		if (valid <= 4)
+		{
+			if (!file.delete())
+			{
+				IdeLog.logWarning(GitPlugin.getDefault(),
+						MessageFormat.format("Unable to delete commit graph cache {0}", file), IDebugScopes.DEBUG); //$NON-NLS-1$
+			}
+			return;
+		}
+		RandomAccessFile raf = null;
+		try
+		{
+			raf = new RandomAccessFile(file, "rw"); //$NON-NLS-1$
+			raf.setLength(valid);
+		}
+		catch (IOException e)
+		{
+			IdeLog.logWarning(GitPlugin.getDefault(),
+					MessageFormat.format("Unable to truncate commit graph cache {0}", file), e, IDebugScopes.DEBUG); //$NON-NLS-1$
+		}
+		finally
+		{
+			close(raf);
+		}
+	}
+
+	private static void close(Closeable closeable)
+	{
+		if (closeable != null)
+		{
+			try
+			{
+				closeable.close();
+			}
+			catch (IOException e)
+			{
+				// ignore
+			}
+		}
+	}
+
+	private static int checksum(byte[] chunk)
+	{
+		CRC32 crc = new CRC32();
+		crc.update(chunk);
+		return (int) crc.getValue();
+	}
+
+	private static String limit(String value)
+	{
+		return (value.length() > MAX_STRING_LENGTH) ? value.substring(0, MAX_STRING_LENGTH) : value;
+	}
+
+	private static void writeSha(DataOutputStream out, String sha) throws IOException
+	{
+		for (int i = 0; i < 40; i += 2)
+		{
+			out.writeByte(Integer.parseInt(sha.substring(i, i + 2), 16));
+		}
+	}
+
+	private static String readSha(DataInputStream in) throws IOException
+	{
+		char[] hex = new char[40];
+		for (int i = 0; i < 20; i++)
+		{
+			int b = in.readUnsignedByte();
+			hex[i * 2] = Character.forDigit(b >> 4, 16);
+			hex[i * 2 + 1] = Character.forDigit(b & 0xf, 16);
+		}
+		return new String(hex);
+	}
+
+	/**
+	 * The commits of a walk, created a page at a time as they're asked for
+	 */
+	private class CommitList extends AbstractList<GitCommit> implements RandomAccess
+	{
+		private final Entry[] order;
+		private final GitCommit[][] pages;
+
+		CommitList(Entry[] order)
+		{
+			this.order = order;
+			this.pages = new GitCommit[(order.length + PAGE_SIZE - 1) / PAGE_SIZE][];
+		}
+
+		@Override
+		public GitCommit get(int index)
+		{
+			if (index < 0 || index >= order.length)
+			{
+				throw new IndexOutOfBoundsException(Integer.toString(index));
+			}
+			int page = index / PAGE_SIZE;
+			synchronized (pages)
+			{
+				if (pages[page] == null)
+				{
+					pages[page] = createPage(page);
+				}
+				return pages[page][index % PAGE_SIZE];
+			}
+		}
+
+		@Override
+		public int size()
+		{
+			return order.length;
+		}
+
+		private GitCommit[] createPage(int page)
+		{
+			int start = page * PAGE_SIZE;
+			GitCommit[] commits = new GitCommit[Math.min(PAGE_SIZE, order.length - start)];
+			for (int i = 0; i < commits.length; i++)
+			{
+				Entry entry = order[start + i];
+				GitCommit commit = new GitCommit(repository, entry.sha);
+				if (entry.parents.length > 0)
+				{
+					commit.setParents(Arrays.asList(entry.parents));
+				}
+				commit.setSubject(entry.subject);
+				commit.setAuthor(entry.author);
+				commit.setAuthorEmail(entry.authorEmail);
+				commit.setTimestamp(GitRevList.toTimestamp(entry.authorTime));
+				commits[i] = commit;
+			}
+			return commits;
+		}
+	}
+}
@@ -0,0 +1,424 @@
+/**
+ * Aptana Studio
+ * Copyright (c) 2013 by Appcelerator, Inc. All Rights Reserved.
+ * Licensed under the terms of the GNU Public License (GPL) v3 (with exceptions).
+ * Please see the license.html included with this distribution for details.
+ * Any modifications to this file must keep this entire header intact.
+ */
+package com.aptana.git.core.model;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import com.aptana.core.util.IOUtil;
+import com.aptana.core.util.StringUtil;
+
+/**
+ * Evaluates the same exclude rules as <code>git ls-files --others --exclude-standard</code>: per-directory .gitignore
+ * files, .git/info/exclude and the user's core.excludesfile. Per-directory files are loaded lazily as the working tree
+ * is walked and cached for the life of this object, so one instance should be used for one scan.
+ */
+class GitIgnoreRules
+{
+	private final File workingDirectory;
+	private final List<IgnorePattern> globalPatterns;
+
+	/**
+	 * Patterns from the .gitignore in each directory, keyed by repo-relative directory ("" for the root).
+	 */
+	private final Map<String, List<IgnorePattern>> directoryPatterns = new HashMap<String, List<IgnorePattern>>();
+
+	/**
+	 * GitIgnoreRules
+	 * 
+	 * @param workingDirectory
+	 * @param excludeFiles
+	 *            the repository-wide exclude files (.git/info/exclude, core.excludesfile) in order of increasing
+	 *            precedence. Missing files are ignored.
+	 */
+	GitIgnoreRules(File workingDirectory, File... excludeFiles)
+	{
+		this.workingDirectory = workingDirectory;
+		this.globalPatterns = new ArrayList<IgnorePattern>();
+		// the later files win, so they go first (we search from the front)
+		for (int i = excludeFiles.length - 1; i >= 0; i--)
+		{
+			if (excludeFiles[i] != null)
+			{
+				globalPatterns.addAll(load(excludeFiles[i], StringUtil.EMPTY));
+			}
+		}
+	}
+
+	/**
+	 * Is the given path excluded? Only the rules that apply to the path itself are checked; callers walking the tree
+	 * are expected to have stopped at excluded parent directories already (git never looks inside those).
+	 * 
+	 * @param path
+	 *            repo-relative, portable path
+	 * @param isDirectory
+	 * @return
+	 */
+	boolean isIgnored(String path, boolean isDirectory)
+	{
+		int slash = path.lastIndexOf('/');
+		String name = (slash == -1) ? path : path.substring(slash + 1);
+		String directory = (slash == -1) ? StringUtil.EMPTY : path.substring(0, slash);
+
+		// The .gitignore closest to the file has the highest precedence
+		while (true)
+		{
+			Boolean result = match(getDirectoryPatterns(directory), path, name, isDirectory);
+			if (result != null)
+			{
+				return result;
+			}
+			if (directory.length() == 0)
+			{
+				break;
+			}
+			int parentSlash = directory.lastIndexOf('/');
+			directory = (parentSlash == -1) ? StringUtil.EMPTY : directory.substring(0, parentSlash);
+		}
+		Boolean result = match(globalPatterns, path, name, isDirectory);
+		return result != null && result;
+	}
+
+	/**
+	 * Is the given path, or any directory above it, excluded? For checking a single path without walking down to it.
+	 * 
+	 * @param path
+	 * @param isDirectory
+	 * @return
+	 */
+	boolean isIgnoredOrInIgnoredDirectory(String path, boolean isDirectory)
+	{
+		int slash = path.indexOf('/');
+		while (slash != -1)
+		{
+			if (isIgnored(path.substring(0, slash), true))
+			{
+				return true;
+			}
+			slash = path.indexOf('/', slash + 1);
+		}
+		return isIgnored(path, isDirectory);
+	}
+
+	private static Boolean match(List<IgnorePattern> patterns, String path, String name, boolean isDirectory)
+	{
+		for (IgnorePattern pattern : patterns)
+		{
+			if (pattern.matches(path, name, isDirectory))
+			{
+				return !pattern.negated;
+			}
+		}
+		return null;
+	}
+
+	private synchronized List<IgnorePattern> getDirectoryPatterns(String directory)
+	{
+		List<IgnorePattern> patterns = directoryPatterns.get(directory);
+		if (patterns == null)
+		{
+			File dir = (directory.length() == 0) ? workingDirectory : new File(workingDirectory, directory);
+			patterns = load(new File(dir, GitRepository.GITIGNORE), directory);
+			directoryPatterns.put(directory, patterns);
+		}
+		return patterns;
+	}
+
+	/**
+	 * Reads the patterns from a file, last pattern first (the last matching pattern in a file wins).
+	 */
+	private static List<IgnorePattern> load(File file, String baseDirectory)
+	{
+		if (!file.isFile())
+		{
+			return Collections.emptyList();
+		}
+		List<IgnorePattern> patterns = new ArrayList<IgnorePattern>();
+		BufferedReader reader = null;
+		try
+		{
+			reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), IOUtil.UTF_8));
+			String line;
+			while ((line = reader.readLine()) != null)
+			{
+				IgnorePattern pattern = IgnorePattern.parse(line, baseDirectory);
+				if (pattern != null)
+				{
+					patterns.add(0, pattern);
+				}
+			}
+		}
+		catch (IOException e) // $codepro.audit.disable emptyCatchClause
+		{
+			// treat an unreadable file like a missing one, same as git
+		}
+		finally
+		{
+			if (reader != null)
+			{
+				try
+				{
+					reader.close();
+				}
+				catch (IOException e) // $codepro.audit.disable emptyCatchClause
+				{
+					// ignore
+				}
+			}
+		}
+		return patterns;
+	}
+
+	/**
+	 * A single line from an exclude file.
+	 */
+	static class IgnorePattern
+	{
+		private static final int LITERAL = 0;
+		private static final int SUFFIX = 1;
+		private static final int REGEX = 2;
+
+		final boolean negated;
+		private final boolean directoryOnly;
+		private final boolean anchored;
+		private final String baseDirectory;
+		private final int kind;
+		private final String text;
+		private final Pattern regex;
+
+		private IgnorePattern(boolean negated, boolean directoryOnly, boolean anchored, String baseDirectory,
+				String glob)
+		{
+			this.negated = negated;
+			this.directoryOnly = directoryOnly;
+			this.anchored = anchored;
+			this.baseDirectory = baseDirectory;
+			if (!hasWildcards(glob))
+			{
+				this.kind = LITERAL;
+				this.text = glob;
+				this.regex = null;
+			}
+			else if (!anchored && glob.startsWith("*") && !hasWildcards(glob.substring(1))) //$NON-NLS-1$
+			{
+				// i.e. "*.class"
+				this.kind = SUFFIX;
+				this.text = glob.substring(1);
+				this.regex = null;
+			}
+			else
+			{
+				this.kind = REGEX;
+				this.text = glob;
+				this.regex = Pattern.compile(toRegex(glob));
+			}
+		}
+
+		/**
+		 * Parses a line of an exclude file. Returns null for blank lines and comments.
+		 * 
+		 * @param line
+		 * @param baseDirectory
+		 *            repo-relative directory holding the .gitignore, "" for the root or a global exclude file
+		 * @return
+		 */
+		static IgnorePattern parse(String line, String baseDirectory)
+		{
+			// trailing whitespace is dropped unless escaped
+			int end = line.length();
+			while (end > 0 && Character.isWhitespace(line.charAt(end - 1))
+					&& !(end > 1 && line.charAt(end - 2) == '\\'))
+			{
+				end--;
+			}
+			line = line.substring(0, end);
+			if (line.length() == 0 || line.charAt(0) == '#')
+			{
+				return null;
+			}
+
+			boolean negated = false;
+			if (line.charAt(0) == '!')
+			{
+				negated = true;
+				line = line.substring(1);
+			}
+			else if (line.startsWith("\\!") || line.startsWith("\\#")) //$NON-NLS-1$ //$NON-NLS-2$
+			{
+				line = line.substring(1);
+			}
+
+			boolean directoryOnly = false;
+			if (line.endsWith("/")) //$NON-NLS-1$
+			{
+				directoryOnly = true;
+				line = line.substring(0, line.length() - 1);
+			}
+			// A slash anywhere else anchors the pattern to the directory of the .gitignore
+			boolean anchored = line.indexOf('/') != -1;
+			if (line.startsWith("/")) //$NON-NLS-1$
+			{
+				line = line.substring(1);
+			}
+			if (line.length() == 0)
+			{
+				return null;
+			}
+			return new IgnorePattern(negated, directoryOnly, anchored, baseDirectory, line);
+		}
+
+		boolean matches(String path, String name, boolean isDirectory)
+		{
+			if (directoryOnly && !isDirectory)
+			{
+				return false;
+			}
+			if (!anchored)
+			{
+				// matches the name at any level at or below the .gitignore's directory
+				return matchesText(name);
+			}
+			String relative = path;
+			if (baseDirectory.length() > 0)
+			{
+				if (!path.startsWith(baseDirectory) || path.length() <= baseDirectory.length()
+						|| path.charAt(baseDirectory.length()) != '/')
+				{
+					return false;
+				}
+				relative = path.substring(baseDirectory.length() + 1);
+			}
+			return matchesText(relative);
+		}
+
+		private boolean matchesText(String candidate)
+		{
+			switch (kind)
+			{
+				case LITERAL:
+					return candidate.equals(text);
+				case SUFFIX:
+					return candidate.endsWith(text);
+				default:
+					return regex.matcher(candidate).matches();
+			}
+		}
+
+		private static boolean hasWildcards(String glob)
+		{
+			for (int i = 0; i < glob.length(); i++)
+			{
+				char c = glob.charAt(i);
+				if (c == '*' || c == '?' || c == '[' || c == '\\')
+				{
+					return true;
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * Translates git's wildmatch syntax to a java regex. "*" and "?" don't match "/", "**" does when it's a whole
+		 * path segment.
+		 */
+		static String toRegex(String glob)
+		{
+			StringBuilder regex = new StringBuilder(glob.length() * 2);
+			int length = glob.length();
+			for (int i = 0; i < length; i++)
+			{
+				char c = glob.charAt(i);
+				switch (c)
+				{
+					case '*':
+						boolean segmentStart = (i == 0 || glob.charAt(i - 1) == '/');
+						if (i + 1 < length && glob.charAt(i + 1) == '*' && segmentStart)
+						{
+							if (i + 2 == length)
+							{
+								// trailing "**": everything inside
+								regex.append(".*"); //$NON-NLS-1$
+								i++;
+								break;
+							}
+							if (glob.charAt(i + 2) == '/')
+							{
+								// "**/": zero or more directories
+								regex.append("(?:.*/)?"); //$NON-NLS-1$
+								i += 2;
+								break;
+							}
+						}
+						regex.append("[^/]*"); //$NON-NLS-1$
+						while (i + 1 < length && glob.charAt(i + 1) == '*')
+						{
+							i++;
+						}
+						break;
+
+					case '?':
+						regex.append("[^/]"); //$NON-NLS-1$
+						break;
+
+					case '[':
+						int close = glob.indexOf(']', i + 2);
+						if (close == -1)
+						{
+							regex.append("\\["); //$NON-NLS-1$
+							break;
+						}
+						regex.append('[');
+						int j = i + 1;
+						if (glob.charAt(j) == '!' || glob.charAt(j) == '^')
+						{
+							regex.append('^');
+							j++;
+						}
+						for (; j < close; j++)
+						{
+							char d = glob.charAt(j);
+							if (d == '\\' || d == '[' || d == '&' || d == '^')
+							{
+								regex.append('\\');
+							}
+							regex.append(d);
+						}
+						regex.append(']');
+						i = close;
+						break;
+
+					case '\\':
+						if (i + 1 < length)
+						{
+							i++;
+							regex.append(Pattern.quote(String.valueOf(glob.charAt(i))));
+						}
+						break;
+
+					default:
+						if ("().+|^$@%{}".indexOf(c) != -1) //$NON-NLS-1$
+						{
+							regex.append('\\');
+						}
+						regex.append(c);
+						break;
+				}
+			}
+			return regex.toString();
+		}
+	}
+}
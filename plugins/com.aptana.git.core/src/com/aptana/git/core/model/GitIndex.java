@@ -7,8 +7,11 @@
  */
 package com.aptana.git.core.model;
 
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
 import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -46,7 +49,6 @@ import org.eclipse.core.runtime.SubMonitor;
 import org.eclipse.core.runtime.jobs.IJobManager;
 import org.eclipse.core.runtime.jobs.Job;
 
-import com.aptana.core.IFilter;
 import com.aptana.core.IMap;
 import com.aptana.core.ShellExecutable;
 import com.aptana.core.logging.IdeLog;
@@ -69,6 +71,13 @@ public class GitIndex
 
 	private static final String NULL_DELIMITER = "\0"; //$NON-NLS-1$
 
+	/**
+	 * How many paths we hand to a single git command line when asking git about files we couldn't judge ourselves.
+	 */
+	private static final int PATHS_PER_COMMAND = 100;
+
+	private static final String INFO_EXCLUDE = "info/exclude"; //$NON-NLS-1$
+
 	/**
 	 * File extensions we check against and use to assume if a file may be binary (to not show a diff/content in various
 	 * UI views)
@@ -80,10 +89,10 @@ public class GitIndex
 	private GitRepository repository;
 
 	/**
-	 * The list of changed files that is a copy of the above list. Only copied at the very end of the refresh, so it
-	 * always contains the full listing from last finished refresh call.
+	 * The changed files from the last finished refresh, null until the first one. The tree is immutable, so readers just
+	 * grab the current one; anything swapping in a new tree does so holding {@link #changedFilesLock}.
 	 */
-	List<ChangedFile> changedFiles;
+	private volatile ChangedFileTree changedFiles;
 	private Object changedFilesLock = new Object();
 
 	private boolean notify;
@@ -98,6 +107,14 @@ public class GitIndex
 	 */
 	private GitIndexRefreshJob refreshJob;
 
+	/**
+	 * The user's core.excludesfile (or git's default location for it), re-resolved whenever the git config files
+	 * change.
+	 */
+	private File excludesFile;
+	private long excludesFileStamp = Long.MIN_VALUE;
+	private Object excludesFileLock = new Object();
+
 	GitIndex(GitRepository repository)
 	{
 		Assert.isNotNull(repository, "GitIndex requires a repository"); //$NON-NLS-1$
@@ -183,9 +200,12 @@ public class GitIndex
 					}
 				}));
 
+		// The unstaged and untracked listings are computed in-process from the same snapshot of .git/index
+		GitIndexFile indexFile = readIndexFile();
+
 		Set<Callable<Map<IPath, ChangedFile>>> jobs = new HashSet<Callable<Map<IPath, ChangedFile>>>(3);
-		jobs.add(new UntrackedFilesRefreshJob(this, portablePathStrings));
-		jobs.add(new UnstagedFilesRefreshJob(this, portablePathStrings));
+		jobs.add(new UntrackedFilesRefreshJob(this, portablePathStrings, indexFile));
+		jobs.add(new UnstagedFilesRefreshJob(this, portablePathStrings, indexFile));
 		jobs.add(new StagedFilesRefreshJob(this, portablePathStrings));
 
 		// Last chance to cancel...
@@ -275,49 +295,32 @@ public class GitIndex
 		// FIXME I think the values here may have already changed! I saw a file that had staged changes but no unstaged
 		// prior to commit
 		// but here it showed true for both (which should have only gotten modified by a pre-commit hook)
-		Collection<ChangedFile> preRefresh;
+		ChangedFileTree preRefresh;
+		ChangedFileTree postRefresh;
 		synchronized (this.changedFilesLock)
 		{
-			// Make a copy of the changed file listing, pre-refresh
-			if (this.changedFiles != null)
-			{
-				preRefresh = new ArrayList<ChangedFile>(this.changedFiles.size());
-				for (ChangedFile file : this.changedFiles)
-				{
-					preRefresh.add(file.clone());
-				}
-			}
-			else
-			{
-				preRefresh = new ArrayList<ChangedFile>(0);
-			}
+			// The trees never change, so the pre-refresh listing is just the current one
+			preRefresh = (this.changedFiles == null) ? ChangedFileTree.EMPTY : this.changedFiles;
 
 			// Now wipe any existing ChangedFile entries for any of the filePaths and add the ones we generated in
-			// dictionary
+			// dictionary. Only the folders along those paths get rebuilt, the rest is shared with the old tree.
+			Collection<ChangedFile> added = CollectionsUtil.isEmpty(newChangedFiles) ? null : newChangedFiles.values();
 			if (CollectionsUtil.isEmpty(filePaths))
 			{
-				this.changedFiles = new ArrayList<ChangedFile>();
+				postRefresh = ChangedFileTree.of(added);
 			}
 			else
 			{
-				this.changedFiles = CollectionsUtil.filter(this.changedFiles, new IFilter<ChangedFile>()
-				{
-					public boolean include(ChangedFile item)
-					{
-						return !portablePathStrings.contains(item.getRelativePath().toPortableString());
-					}
-				});
-			}
-			if (!CollectionsUtil.isEmpty(newChangedFiles))
-			{
-				this.changedFiles.addAll(newChangedFiles.values());
+				postRefresh = preRefresh.with(added, filePaths);
 			}
+			this.changedFiles = postRefresh;
 		}
 
 		// Don't hold onto temp list in memory!
 		newChangedFiles = null;
 
-		postIndexChange(preRefresh, this.changedFiles);
+		// Listeners get copies, the files in the trees are shared and must never change
+		postIndexChange(copy(preRefresh.getFiles()), copy(postRefresh.getFiles()));
 		sub.done();
 		if (!errors.isOK())
 		{
@@ -347,36 +350,91 @@ public class GitIndex
 	 */
 	public List<ChangedFile> changedFiles()
 	{
-		boolean isNull = false;
+		return copy(changedFileTree().getFiles());
+	}
+
+	/**
+	 * The current tree of changed files, populated lazily on first demand. Never null. Queries that only need to look
+	 * at the files should use this rather than {@link #changedFiles()}, the tree is immutable and needs no copying.
+	 * 
+	 * @return
+	 */
+	private ChangedFileTree changedFileTree()
+	{
+		ChangedFileTree tree = this.changedFiles;
+		if (tree != null)
+		{
+			return tree;
+		}
+
+		// Don't want to call back to fireIndexChangeEvent yet!
+		IStatus status = refresh(false, null, new NullProgressMonitor());
+		if (!status.isOK())
+		{
+			IdeLog.logWarning(GitPlugin.getDefault(), status.getMessage());
+			return ChangedFileTree.EMPTY;
+		}
+		tree = this.changedFiles;
+		return (tree == null) ? ChangedFileTree.EMPTY : tree;
+	}
+
+	/**
+	 * Replaces the changed files wholesale. For tests that need to fake a particular state of the index.
+	 * 
+	 * @param files
+	 */
+	void setChangedFiles(Collection<ChangedFile> files)
+	{
 		synchronized (this.changedFilesLock)
 		{
-			isNull = (this.changedFiles == null);
+			this.changedFiles = ChangedFileTree.of(copy(files));
 		}
+	}
 
-		if (isNull)
+	/**
+	 * The files in the tree must never change, so we hand out copies to callers who may mark them staged/unstaged.
+	 */
+	private static List<ChangedFile> copy(Collection<ChangedFile> files)
+	{
+		List<ChangedFile> copy = new ArrayList<ChangedFile>(files.size());
+		for (ChangedFile file : files)
 		{
-			// Don't want to call back to fireIndexChangeEvent yet!
-			IStatus status = refresh(false, null, new NullProgressMonitor());
-			if (!status.isOK())
-			{
-				IdeLog.logWarning(GitPlugin.getDefault(), status.getMessage());
-				return Collections.emptyList();
-			}
+			copy.add(file.clone());
 		}
+		return copy;
+	}
 
+	/**
+	 * Swaps in a tree with the given files, as copies marked staged (or unstaged), in place of the ones at the same
+	 * paths. Files we don't know about are left out.
+	 */
+	private void updateStagedFlags(Collection<ChangedFile> files, boolean staged)
+	{
 		synchronized (this.changedFilesLock)
 		{
 			if (this.changedFiles == null)
 			{
-				return Collections.emptyList();
+				return;
 			}
-
-			List<ChangedFile> copy = new ArrayList<ChangedFile>(this.changedFiles.size());
-			for (ChangedFile file : this.changedFiles)
+			List<ChangedFile> updated = new ArrayList<ChangedFile>(files.size());
+			for (ChangedFile file : files)
 			{
-				copy.add(file.clone());
+				ChangedFile orig = this.changedFiles.get(file.getRelativePath());
+				if (orig != null)
+				{
+					orig = orig.clone();
+					if (staged)
+					{
+						orig.makeStaged();
+					}
+					else
+					{
+						orig.makeUnstaged();
+					}
+					updated.add(orig);
+				}
 			}
-			return copy;
+			this.changedFiles = this.changedFiles.with(updated, null);
 		}
 	}
 
@@ -409,28 +467,14 @@ public class GitIndex
 		}
 
 		ArrayList<ChangedFile> preFiles = new ArrayList<ChangedFile>(stageFiles.size());
-		// Update the staged/unstaged flags in the passed in copy of changed files, and our internal list of changed
+		// Update the staged/unstaged flags in the passed in copy of changed files, and our internal tree of changed
 		// files.
+		updateStagedFlags(stageFiles, true);
 		for (ChangedFile file : stageFiles)
 		{
 			preFiles.add(file.clone());
-			synchronized (changedFilesLock)
-			{
-				if (this.changedFiles != null)
-				{
-					int index = Collections.binarySearch(this.changedFiles, file);
-					if (index >= 0)
-					{
-
-						ChangedFile orig = this.changedFiles.get(index);
-						orig.makeStaged();
-					}
-				}
-			}
-
 			file.makeStaged();
 		}
-		preFiles.trimToSize();
 
 		postIndexChange(preFiles, stageFiles);
 		return result;
@@ -462,30 +506,15 @@ public class GitIndex
 			return result;
 		}
 
-		// Update the staged/unstaged flags in the passed in copy of changed files, and our internal list of changed
+		// Update the staged/unstaged flags in the passed in copy of changed files, and our internal tree of changed
 		// files.
+		updateStagedFlags(unstageFiles, false);
 		ArrayList<ChangedFile> preFiles = new ArrayList<ChangedFile>(unstageFiles.size());
 		for (ChangedFile file : unstageFiles)
 		{
 			preFiles.add(file.clone());
-
-			synchronized (this.changedFilesLock)
-			{
-				if (this.changedFiles != null)
-				{
-					int index = Collections.binarySearch(this.changedFiles, file);
-					if (index >= 0)
-					{
-
-						ChangedFile orig = this.changedFiles.get(index);
-						orig.makeUnstaged();
-					}
-				}
-			}
-
 			file.makeUnstaged();
 		}
-		preFiles.trimToSize();
 
 		postIndexChange(preFiles, unstageFiles);
 		return result;
@@ -602,8 +631,19 @@ public class GitIndex
 
 			if (file.status == ChangedFile.Status.NEW)
 			{
-				IStatus status = repository.execute(GitRepository.ReadWrite.READ, "show", indexPath); //$NON-NLS-1$
-				return status.getMessage();
+				byte[] contents = repository.readObject(indexPath);
+				if (contents == null)
+				{
+					return null;
+				}
+				try
+				{
+					return new String(contents, IOUtil.UTF_8);
+				}
+				catch (UnsupportedEncodingException e)
+				{
+					return new String(contents);
+				}
 			}
 
 			IStatus result = repository.execute(GitRepository.ReadWrite.READ, "diff-index", parameter, "--cached", //$NON-NLS-1$ //$NON-NLS-2$
@@ -676,52 +716,24 @@ public class GitIndex
 	 */
 	protected boolean resourceOrChildHasChanges(IResource resource)
 	{
-		List<ChangedFile> changedFiles = changedFiles();
-		if (CollectionsUtil.isEmpty(changedFiles))
-		{
-			return false;
-		}
-		// FIXME Can we sort the changed files by path or something to help speed up this lookup?
-		IPath workingDirectory = repository.workingDirectory();
-		IPath resourcePath = resource.getLocation();
-		for (ChangedFile changedFile : changedFiles)
-		{
-			IPath fullPath = workingDirectory.append(changedFile.getRelativePath()).makeAbsolute();
-			if (resourcePath.isPrefixOf(fullPath))
-			{
-				return true;
-			}
-		}
-
-		return false;
+		IPath relativePath = relativePath(resource);
+		return relativePath != null && changedFileTree().hasChanges(relativePath);
 	}
 
 	public boolean isDirty()
 	{
-		return !changedFiles().isEmpty();
+		return changedFileTree().size() > 0;
 	}
 
 	protected boolean hasUnresolvedMergeConflicts()
 	{
-		List<ChangedFile> changedFiles = changedFiles();
-		if (CollectionsUtil.isEmpty(changedFiles))
-		{
-			return false;
-		}
-		for (ChangedFile changedFile : changedFiles)
-		{
-			if (changedFile.hasUnmergedChanges() && changedFile.hasUnstagedChanges())
-			{
-				return true;
-			}
-		}
-		return false;
+		return changedFileTree().hasUnresolvedMergeConflicts();
 	}
 
 	public Set<IResource> getChangedResources()
 	{
 		Set<IResource> resources = new HashSet<IResource>();
-		List<ChangedFile> changedFiles = changedFiles();
+		List<ChangedFile> changedFiles = changedFileTree().getFiles();
 		if (!CollectionsUtil.isEmpty(changedFiles))
 		{
 			for (ChangedFile changedFile : changedFiles)
@@ -749,21 +761,14 @@ public class GitIndex
 			return null;
 		}
 
-		IPath resourcePath = resource.getLocation();
-		List<ChangedFile> changedFiles = changedFiles();
-		// FIXME Doing searches like this every time
-		if (!CollectionsUtil.isEmpty(changedFiles))
+		IPath relativePath = relativePath(resource);
+		if (relativePath == null)
 		{
-			for (ChangedFile changedFile : changedFiles)
-			{
-				IPath fullPath = workingDirectory().append(changedFile.getRelativePath());
-				if (resourcePath.equals(fullPath))
-				{
-					return changedFile;
-				}
-			}
+			return null;
 		}
-		return null;
+		ChangedFile changedFile = changedFileTree().get(relativePath);
+		// Callers are free to mark it staged/unstaged, so they get their own copy
+		return (changedFile == null) ? null : changedFile.clone();
 	}
 
 	private IPath workingDirectory()
@@ -772,37 +777,119 @@ public class GitIndex
 	}
 
 	/**
-	 * Gets the list of changed files that are underneath the given container.
+	 * Returns the path of the resource relative to the working directory, the empty path for the working directory
+	 * itself or anything above it, or null if the resource lives somewhere else.
 	 * 
-	 * @param container
+	 * @param resource
 	 * @return
 	 */
-	protected List<ChangedFile> getChangedFilesForContainer(IContainer container)
+	private IPath relativePath(IResource resource)
 	{
-		if (container == null || container.getLocationURI() == null)
+		IPath resourcePath = resource.getLocation();
+		if (resourcePath == null)
 		{
-			return Collections.emptyList();
+			return null;
 		}
+		IPath workingDirectory = workingDirectory();
+		if (resourcePath.isPrefixOf(workingDirectory))
+		{
+			return Path.EMPTY;
+		}
+		if (!workingDirectory.isPrefixOf(resourcePath))
+		{
+			return null;
+		}
+		return resourcePath.removeFirstSegments(workingDirectory.segmentCount()).setDevice(null);
+	}
 
-		List<ChangedFile> changedFiles = changedFiles();
-		if (CollectionsUtil.isEmpty(changedFiles))
+	/**
+	 * Parses .git/index. Returns null if there isn't one yet or we can't make sense of it, in which case the refresh
+	 * jobs ask git instead.
+	 * 
+	 * @return
+	 */
+	private GitIndexFile readIndexFile()
+	{
+		File file = repository.gitFile(GitRepository.INDEX);
+		if (!file.isFile())
 		{
-			return Collections.emptyList();
+			return null;
 		}
+		try
+		{
+			return GitIndexFile.read(file);
+		}
+		catch (IOException e)
+		{
+			IdeLog.logWarning(GitPlugin.getDefault(),
+					MessageFormat.format("Unable to read {0}, falling back to git", file), e, IDebugScopes.DEBUG); //$NON-NLS-1$
+			return null;
+		}
+	}
 
-		IPath resourcePath = container.getLocation();
-		List<ChangedFile> filtered = new ArrayList<ChangedFile>();
-		IPath workingDirectory = repository.workingDirectory();
-		for (ChangedFile changedFile : changedFiles)
+	/**
+	 * Resolves core.excludesfile. We only run git config again when one of the config files has been touched.
+	 * 
+	 * @return
+	 */
+	private File getExcludesFile()
+	{
+		String home = System.getProperty("user.home"); //$NON-NLS-1$
+		File userConfig = new File(home, ".gitconfig"); //$NON-NLS-1$
+		File repoConfig = repository.gitFile(GitRepository.CONFIG_FILENAME);
+		long stamp = userConfig.lastModified() * 31 + repoConfig.lastModified();
+		synchronized (excludesFileLock)
 		{
-			IPath fullPath = workingDirectory.append(changedFile.getRelativePath()).makeAbsolute();
-			if (resourcePath.isPrefixOf(fullPath))
+			if (stamp == excludesFileStamp)
 			{
-				filtered.add(changedFile);
+				return excludesFile;
 			}
+
+			IStatus status = repository.execute(GitRepository.ReadWrite.READ, "config", "core.excludesfile"); //$NON-NLS-1$ //$NON-NLS-2$
+			String value = (status != null && status.isOK()) ? status.getMessage().trim() : null;
+			if (StringUtil.isEmpty(value))
+			{
+				// git's default location
+				String xdgConfigHome = System.getenv("XDG_CONFIG_HOME"); //$NON-NLS-1$
+				excludesFile = StringUtil.isEmpty(xdgConfigHome) ? new File(home, ".config/git/ignore") //$NON-NLS-1$
+						: new File(xdgConfigHome, "git/ignore"); //$NON-NLS-1$
+			}
+			else
+			{
+				if (value.startsWith("~/")) //$NON-NLS-1$
+				{
+					value = home + value.substring(1);
+				}
+				excludesFile = new File(value);
+				if (!excludesFile.isAbsolute())
+				{
+					excludesFile = new File(workingDirectory().toFile(), value);
+				}
+			}
+			excludesFileStamp = stamp;
+			return excludesFile;
+		}
+	}
+
+	/**
+	 * Gets the list of changed files that are underneath the given container.
+	 * 
+	 * @param container
+	 * @return
+	 */
+	protected List<ChangedFile> getChangedFilesForContainer(IContainer container)
+	{
+		if (container == null || container.getLocationURI() == null)
+		{
+			return Collections.emptyList();
 		}
 
-		return filtered;
+		IPath relativePath = relativePath(container);
+		if (relativePath == null)
+		{
+			return Collections.emptyList();
+		}
+		return copy(changedFileTree().getFiles(relativePath));
 	}
 
 	/**
@@ -977,13 +1064,28 @@ public class GitIndex
 
 	private final class UnstagedFilesRefreshJob extends FilesRefreshJob
 	{
-		private UnstagedFilesRefreshJob(GitIndex index, Set<String> filePaths)
+		private GitIndexFile indexFile;
+
+		private UnstagedFilesRefreshJob(GitIndex index, Set<String> filePaths, GitIndexFile indexFile)
 		{
 			super(index, filePaths);
+			this.indexFile = indexFile;
 		}
 
 		public Map<IPath, ChangedFile> call() throws Exception
 		{
+			if (indexFile != null)
+			{
+				try
+				{
+					return scanUnstagedFiles();
+				}
+				catch (IOException e)
+				{
+					IdeLog.logWarning(GitPlugin.getDefault(), "Falling back to git diff-files", e, IDebugScopes.DEBUG); //$NON-NLS-1$
+				}
+			}
+
 			// index vs filesystem
 			List<String> args = CollectionsUtil.newList("diff-files", "-z"); //$NON-NLS-1$ //$NON-NLS-2$
 			if (!CollectionsUtil.isEmpty(filePaths))
@@ -1006,18 +1108,52 @@ public class GitIndex
 			Map<IPath, List<String>> dic = dictionaryForLines(lines);
 			return addFilesFromDictionary(dic, false, true);
 		}
+
+		/**
+		 * Compares the working tree against the stat data and shas in .git/index ourselves, only asking git about the
+		 * few entries we can't judge from Java (symlinks, submodules).
+		 */
+		private Map<IPath, ChangedFile> scanUnstagedFiles() throws IOException, CoreException
+		{
+			List<String> undecided = new ArrayList<String>();
+			Map<IPath, List<String>> dic = new GitWorkingTreeScanner(workingDirectory().toFile(), indexFile)
+					.unstagedChanges(filePaths, undecided);
+			for (int i = 0; i < undecided.size(); i += PATHS_PER_COMMAND)
+			{
+				List<String> args = CollectionsUtil.newList("diff-files", "-z", "--"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+				args.addAll(undecided.subList(i, Math.min(i + PATHS_PER_COMMAND, undecided.size())));
+				IStatus result = repo.execute(GitRepository.ReadWrite.READ, args.toArray(new String[args.size()]));
+				if (result == null || !result.isOK())
+				{
+					throw new CoreException(result);
+				}
+				dic.putAll(dictionaryForLines(linesFromNotification(result.getMessage())));
+			}
+			return addFilesFromDictionary(dic, false, true);
+		}
 	}
 
 	private final class UntrackedFilesRefreshJob extends FilesRefreshJob
 	{
+		private GitIndexFile indexFile;
 
-		private UntrackedFilesRefreshJob(GitIndex index, Set<String> filePaths)
+		private UntrackedFilesRefreshJob(GitIndex index, Set<String> filePaths, GitIndexFile indexFile)
 		{
 			super(index, filePaths);
+			this.indexFile = indexFile;
 		}
 
 		public Map<IPath, ChangedFile> call() throws Exception
 		{
+			if (indexFile != null)
+			{
+				// Walk the working tree ourselves, applying the same excludes as --exclude-standard
+				GitIgnoreRules rules = new GitIgnoreRules(workingDirectory().toFile(), getExcludesFile(),
+						repo.gitFile(INFO_EXCLUDE));
+				return readOtherFiles(new GitWorkingTreeScanner(workingDirectory().toFile(), indexFile)
+						.untrackedFiles(filePaths, rules));
+			}
+
 			// index vs working tree (HEAD?)
 			List<String> args = CollectionsUtil.newList("ls-files", "--others", //$NON-NLS-1$ //$NON-NLS-2$
 					"--exclude-standard", "-z"); //$NON-NLS-1$ //$NON-NLS-2$
@@ -1030,14 +1166,13 @@ public class GitIndex
 			IStatus result = repo.execute(GitRepository.ReadWrite.READ, args.toArray(new String[args.size()]));
 			if (result != null && result.isOK())
 			{
-				return readOtherFiles(result.getMessage());
+				return readOtherFiles(linesFromNotification(result.getMessage()));
 			}
 			throw new CoreException(result);
 		}
 
-		private Map<IPath, ChangedFile> readOtherFiles(String string)
+		private Map<IPath, ChangedFile> readOtherFiles(List<String> lines)
 		{
-			List<String> lines = linesFromNotification(string);
 			Map<IPath, List<String>> dictionary = new HashMap<IPath, List<String>>(lines.size());
 			// Other files are untracked, so we don't have any real index information. Instead, we can just fake it.
 			// The line below is not used at all, as for these files the commitBlob isn't set
@@ -0,0 +1,390 @@
+/**
+ * Aptana Studio
+ * Copyright (c) 2013 by Appcelerator, Inc. All Rights Reserved.
+ * Licensed under the terms of the GNU Public License (GPL) v3 (with exceptions).
+ * Please see the license.html included with this distribution for details.
+ * Any modifications to this file must keep this entire header intact.
+ */
+package com.aptana.git.core.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashSet;
+import java.util.Set;
+
+import com.aptana.core.util.IOUtil;
+import com.aptana.core.util.PlatformUtil;
+
+/**
+ * An in-memory copy of the entries in a repository's <code>.git/index</code> (the "DIRC" file), versions 2 through 4.
+ * We only ever read the file; all modifications still go through the git executable. Entries are held in parallel
+ * arrays rather than one object per entry, so that indices with hundreds of thousands of files stay cheap to hold.
+ */
+class GitIndexFile
+{
+	private static final int SIGNATURE = 0x44495243; // "DIRC"
+	private static final int EXT_LINK = 0x6c696e6b; // "link", split index
+	private static final int SHA_LENGTH = 20;
+
+	private static final int FLAG_ASSUME_VALID = 0x8000;
+	private static final int FLAG_EXTENDED = 0x4000;
+	private static final int FLAG_STAGE_MASK = 0x3000;
+	private static final int FLAG_STAGE_SHIFT = 12;
+	private static final int EXT_FLAG_SKIP_WORKTREE = 0x4000;
+	private static final int EXT_FLAG_INTENT_TO_ADD = 0x2000;
+
+	static final int MODE_TYPE_MASK = 0170000;
+	static final int MODE_REGULAR = 0100000;
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray(); //$NON-NLS-1$
+
+	private final long lastModified;
+	private final int version;
+
+	private final String[] paths;
+	private final int[] mtimeSeconds;
+	private final int[] mtimeNanos;
+	private final int[] sizes;
+	private final int[] modes;
+	private final int[] flags;
+	private final byte[] shas;
+
+	private Set<String> trackedPaths;
+
+	private GitIndexFile(long lastModified, int version, int count)
+	{
+		this.lastModified = lastModified;
+		this.version = version;
+		this.paths = new String[count];
+		this.mtimeSeconds = new int[count];
+		this.mtimeNanos = new int[count];
+		this.sizes = new int[count];
+		this.modes = new int[count];
+		this.flags = new int[count];
+		this.shas = new byte[count * SHA_LENGTH];
+	}
+
+	/**
+	 * Reads the index file. The file is memory-mapped while its entries are copied out, except on Windows, where an
+	 * outstanding mapping would stop git from renaming index.lock over it.
+	 * 
+	 * @param indexFile
+	 * @return
+	 * @throws IOException
+	 *             if the file can't be read, is corrupt, or uses a format we don't support (i.e. a split index)
+	 */
+	static GitIndexFile read(File indexFile) throws IOException
+	{
+		RandomAccessFile raf = new RandomAccessFile(indexFile, "r"); //$NON-NLS-1$
+		try
+		{
+			long lastModified = indexFile.lastModified();
+			FileChannel channel = raf.getChannel();
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE)
+			{
+				throw new IOException("Index file too large: " + indexFile); //$NON-NLS-1$
+			}
+			ByteBuffer buffer;
+			if (PlatformUtil.isWindows())
+			{
+				buffer = ByteBuffer.allocate((int) size);
+				while (buffer.hasRemaining())
+				{
+					if (channel.read(buffer) == -1)
+					{
+						throw new IOException("Unexpected end of index file: " + indexFile); //$NON-NLS-1$
+					}
+				}
+				buffer.flip();
+			}
+			else
+			{
+				buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			}
+			return parse(indexFile, lastModified, buffer);
+		}
+		finally
+		{
+			raf.close();
+		}
+	}
+
+	private static GitIndexFile parse(File indexFile, long lastModified, ByteBuffer buffer) throws IOException
+	{
+		try
+		{
+			if (buffer.getInt() != SIGNATURE)
+			{
+				throw new IOException("Not a git index file: " + indexFile); //$NON-NLS-1$
+			}
+			int version = buffer.getInt();
+			if (version < 2 || version > 4)
+			{
+				throw new IOException("Unsupported git index version " + version + ": " + indexFile); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+			int count = buffer.getInt();
+			if (count < 0)
+			{
+				throw new IOException("Corrupt git index file: " + indexFile); //$NON-NLS-1$
+			}
+
+			GitIndexFile index = new GitIndexFile(lastModified, version, count);
+			byte[] pathBuffer = new byte[256];
+			int previousLength = 0;
+			for (int i = 0; i < count; i++)
+			{
+				int entryStart = buffer.position();
+				buffer.position(entryStart + 8); // ctime
+				index.mtimeSeconds[i] = buffer.getInt();
+				index.mtimeNanos[i] = buffer.getInt();
+				buffer.position(buffer.position() + 8); // dev, ino
+				index.modes[i] = buffer.getInt();
+				buffer.position(buffer.position() + 8); // uid, gid
+				index.sizes[i] = buffer.getInt();
+				buffer.get(index.shas, i * SHA_LENGTH, SHA_LENGTH);
+				int entryFlags = buffer.getShort() & 0xFFFF;
+				int extendedFlags = 0;
+				if (version >= 3 && (entryFlags & FLAG_EXTENDED) != 0)
+				{
+					extendedFlags = buffer.getShort() & 0xFFFF;
+				}
+				index.flags[i] = (entryFlags << 16) | extendedFlags;
+
+				int pathLength;
+				if (version == 4)
+				{
+					// Path is prefix-compressed against the previous entry's path
+					int strip = readOffsetVarint(buffer);
+					if (strip > previousLength)
+					{
+						throw new IOException("Corrupt git index file: " + indexFile); //$NON-NLS-1$
+					}
+					pathLength = previousLength - strip;
+					byte b;
+					while ((b = buffer.get()) != 0)
+					{
+						if (pathLength == pathBuffer.length)
+						{
+							pathBuffer = grow(pathBuffer);
+						}
+						pathBuffer[pathLength++] = b;
+					}
+				}
+				else
+				{
+					pathLength = 0;
+					byte b;
+					while ((b = buffer.get()) != 0)
+					{
+						if (pathLength == pathBuffer.length)
+						{
+							pathBuffer = grow(pathBuffer);
+						}
+						pathBuffer[pathLength++] = b;
+					}
+					// entries are NUL padded to a multiple of 8 bytes
+					int headerLength = buffer.position() - pathLength - 1 - entryStart;
+					buffer.position(entryStart + ((headerLength + pathLength + 8) & ~7));
+				}
+				index.paths[i] = decode(pathBuffer, pathLength);
+				previousLength = pathLength;
+			}
+
+			// Anything between here and the trailing checksum is extensions. We don't need any of them, but a split
+			// index means the entries above are only a delta against a shared index.
+			while (buffer.remaining() > SHA_LENGTH + 8)
+			{
+				int signature = buffer.getInt();
+				int extensionLength = buffer.getInt();
+				if (signature == EXT_LINK)
+				{
+					throw new IOException("Split git index files are not supported: " + indexFile); //$NON-NLS-1$
+				}
+				buffer.position(buffer.position() + extensionLength);
+			}
+			return index;
+		}
+		catch (RuntimeException e)
+		{
+			// BufferUnderflowException, IllegalArgumentException from position(), etc
+			IOException ioe = new IOException("Corrupt git index file: " + indexFile); //$NON-NLS-1$
+			ioe.initCause(e);
+			throw ioe;
+		}
+	}
+
+	/**
+	 * Git's "offset" varint, as used by v4 path compression.
+	 */
+	private static int readOffsetVarint(ByteBuffer buffer)
+	{
+		int c = buffer.get() & 0xFF;
+		int value = c & 0x7F;
+		while ((c & 0x80) != 0)
+		{
+			c = buffer.get() & 0xFF;
+			value = ((value + 1) << 7) | (c & 0x7F);
+		}
+		return value;
+	}
+
+	private static byte[] grow(byte[] bytes)
+	{
+		byte[] larger = new byte[bytes.length * 2];
+		System.arraycopy(bytes, 0, larger, 0, bytes.length);
+		return larger;
+	}
+
+	private static String decode(byte[] bytes, int length) throws UnsupportedEncodingException
+	{
+		for (int i = 0; i < length; i++)
+		{
+			if (bytes[i] < 0)
+			{
+				return new String(bytes, 0, length, IOUtil.UTF_8);
+			}
+		}
+		// Plain ASCII, the overwhelmingly common case
+		char[] chars = new char[length];
+		for (int i = 0; i < length; i++)
+		{
+			chars[i] = (char) bytes[i];
+		}
+		return new String(chars);
+	}
+
+	/**
+	 * The modification time of the index file itself. Working tree files modified at or after this time may have
+	 * changed without their stat data changing ("racily clean"), so they need their contents compared.
+	 * 
+	 * @return
+	 */
+	long lastModified()
+	{
+		return lastModified;
+	}
+
+	int version()
+	{
+		return version;
+	}
+
+	int size()
+	{
+		return paths.length;
+	}
+
+	String getPath(int i)
+	{
+		return paths[i];
+	}
+
+	int getMode(int i)
+	{
+		return modes[i];
+	}
+
+	/**
+	 * The size of the file when it was last staged or refreshed, truncated to 32 bits.
+	 * 
+	 * @param i
+	 * @return
+	 */
+	int getSize(int i)
+	{
+		return sizes[i];
+	}
+
+	int getMtimeSeconds(int i)
+	{
+		return mtimeSeconds[i];
+	}
+
+	int getMtimeNanos(int i)
+	{
+		return mtimeNanos[i];
+	}
+
+	/**
+	 * 0 for a normal entry, 1-3 for the base/ours/theirs versions of an unmerged path.
+	 * 
+	 * @param i
+	 * @return
+	 */
+	int getStage(int i)
+	{
+		return (flags[i] >>> 16 & FLAG_STAGE_MASK) >> FLAG_STAGE_SHIFT;
+	}
+
+	boolean isAssumeValid(int i)
+	{
+		return (flags[i] >>> 16 & FLAG_ASSUME_VALID) != 0;
+	}
+
+	boolean isSkipWorktree(int i)
+	{
+		return (flags[i] & EXT_FLAG_SKIP_WORKTREE) != 0;
+	}
+
+	boolean isIntentToAdd(int i)
+	{
+		return (flags[i] & EXT_FLAG_INTENT_TO_ADD) != 0;
+	}
+
+	/**
+	 * Does the entry's sha equal the given raw (20 byte) sha?
+	 * 
+	 * @param i
+	 * @param sha
+	 * @return
+	 */
+	boolean shaEquals(int i, byte[] sha)
+	{
+		int offset = i * SHA_LENGTH;
+		for (int j = 0; j < SHA_LENGTH; j++)
+		{
+			if (shas[offset + j] != sha[j])
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	String getSha(int i)
+	{
+		char[] hex = new char[SHA_LENGTH * 2];
+		int offset = i * SHA_LENGTH;
+		for (int j = 0; j < SHA_LENGTH; j++)
+		{
+			int b = shas[offset + j] & 0xFF;
+			hex[j * 2] = HEX[b >>> 4];
+			hex[j * 2 + 1] = HEX[b & 0x0F];
+		}
+		return new String(hex);
+	}
+
+	/**
+	 * Is there an entry (at any stage) for the given repo-relative, portable path?
+	 * 
+	 * @param path
+	 * @return
+	 */
+	synchronized boolean isTracked(String path)
+	{
+		if (trackedPaths == null)
+		{
+			trackedPaths = new HashSet<String>(paths.length * 4 / 3 + 1);
+			for (String entry : paths)
+			{
+				trackedPaths.add(entry);
+			}
+		}
+		return trackedPaths.contains(path);
+	}
+}
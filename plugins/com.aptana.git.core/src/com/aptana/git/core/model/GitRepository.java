@@ -8,12 +8,14 @@
 package com.aptana.git.core.model;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.net.URI;
 import java.text.MessageFormat;
@@ -179,7 +181,7 @@ public class GitRepository
 	 * The most important file in git. This holds the current file state. When this changes, the state of files in the
 	 * repo has changed.
 	 */
-	private static final String INDEX = "index"; //$NON-NLS-1$
+	static final String INDEX = "index"; //$NON-NLS-1$
 
 	/**
 	 * File created prior to merges (which happen as part of pull, which is just fetch + merge).
@@ -229,6 +231,19 @@ public class GitRepository
 	 */
 	private ReadWriteLock monitor = new ReentrantReadWriteLock();
 
+	/**
+	 * Long-lived git cat-file --batch/--batch-check processes used to read objects without launching git each time.
+	 * Lazily started, guarded by catFileLock.
+	 */
+	private final Object catFileLock = new Object();
+	private GitCatFile catFile;
+	private GitCatFile catFileCheck;
+
+	/**
+	 * Cache of the commit graph that history walks are answered from. Lazily created.
+	 */
+	private GitCommitGraph commitGraph;
+
 	private Set<GitRevSpecifier> branches;
 	Map<String, List<GitRef>> refs;
 	private URI fileURL;
@@ -259,7 +274,7 @@ public class GitRepository
 			// FIXME When actions are taken through our model/UI we end up causing multiple refreshes for index changes
 			// index appears to change on commit/stage/unstage/pull
 			// Add listener for changes in HEAD (i.e. switched branches), and index
-			fileWatcherIds.add(FileWatcher.addWatch(gitDirPath().toOSString(), IJNotify.FILE_ANY, false,
+			fileWatcherIds.add(FileWatcher.addCoalescingWatch(gitDirPath().toOSString(), IJNotify.FILE_ANY, false,
 					new JNotifyAdapter()
 					{
 
@@ -884,34 +899,23 @@ public class GitRepository
 
 		// Now do a batch check against all the projects underneath our repo
 		Set<IProject> projectsNotExistingOnNewBranch = new HashSet<IProject>();
-		StringBuilder input = new StringBuilder();
+		List<String> objectNames = new ArrayList<String>(beneathRepo.size());
 		for (IProject project : beneathRepo)
 		{
-			input.append(branchName).append(':')
-					.append(relativePath(project).append(IProjectDescription.DESCRIPTION_FILE_NAME).toPortableString())
-					.append('\n');
+			objectNames.add(branchName + ':'
+					+ relativePath(project).append(IProjectDescription.DESCRIPTION_FILE_NAME).toPortableString());
 		}
 
-		if (!enterRead())
+		boolean[] exists = objectsExist(objectNames.toArray(new String[objectNames.size()]));
+		if (exists == null)
 		{
-			IdeLog.logError(GitPlugin.getDefault(), Messages.GitRepository_FailedAcquireReadLock);
 			return Collections.emptySet();
 		}
-
-		IStatus result = getGitExecutable().runInBackground(input.toString(), workingDir, "cat-file", "--batch-check"); //$NON-NLS-1$ //$NON-NLS-2$
-		exitRead();
-		if (result.isOK())
+		for (int i = 0; i < exists.length; i++)
 		{
-			String output = result.getMessage();
-			String[] lines = output.split("\r?\n|\r"); //$NON-NLS-1$ // $codepro.audit.disable platformSpecificLineSeparator
-			int lineNum = 0;
-			for (String line : lines)
+			if (!exists[i])
 			{
-				if (line.endsWith(" missing")) //$NON-NLS-1$
-				{
-					projectsNotExistingOnNewBranch.add(beneathRepo.get(lineNum));
-				}
-				lineNum++;
+				projectsNotExistingOnNewBranch.add(beneathRepo.get(i));
 			}
 		}
 		// APSTUD-3399 We need to see if the projects that don't exist are untracked and therefore ok (we don't need to
@@ -920,7 +924,7 @@ public class GitRepository
 		for (IProject project : projectsNotExistingOnNewBranch)
 		{
 			String path = relativePath(project).append(IProjectDescription.DESCRIPTION_FILE_NAME).toPortableString();
-			result = execute(GitRepository.ReadWrite.READ, "ls-files", "--others", //$NON-NLS-1$ //$NON-NLS-2$
+			IStatus result = execute(GitRepository.ReadWrite.READ, "ls-files", "--others", //$NON-NLS-1$ //$NON-NLS-2$
 					"--exclude-standard", "-z", "--", path); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
 			if (result.isOK() && result.getMessage().trim().equals(path))
 			{
@@ -1607,6 +1611,137 @@ public class GitRepository
 		return GitExecutable.instance();
 	}
 
+	/**
+	 * Reads the contents of a git object (i.e. "HEAD:path/to/file" or ":0:path/to/file" for the staged copy) through
+	 * the repository's long-lived cat-file process.
+	 * 
+	 * @param objectName
+	 * @return the raw bytes of the object, or null if it doesn't exist or couldn't be read.
+	 */
+	public byte[] readObject(String objectName)
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		if (!readObject(objectName, out))
+		{
+			return null;
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * Streams the contents of a git object into <code>out</code>, without buffering the whole object in memory.
+	 * 
+	 * @param objectName
+	 * @param out
+	 * @return true if the object was found and copied, false otherwise.
+	 */
+	public boolean readObject(String objectName, OutputStream out)
+	{
+		if (!enterRead())
+		{
+			IdeLog.logError(GitPlugin.getDefault(), Messages.GitRepository_FailedAcquireReadLock);
+			return false;
+		}
+		try
+		{
+			return getCatFile(true).read(objectName, out) != null;
+		}
+		catch (IOException e)
+		{
+			IdeLog.logError(GitPlugin.getDefault(), e, IDebugScopes.DEBUG);
+			return false;
+		}
+		finally
+		{
+			exitRead();
+		}
+	}
+
+	/**
+	 * Checks whether each of the named objects exists. All the lookups are pipelined through a single cat-file
+	 * process.
+	 * 
+	 * @param objectNames
+	 * @return an array parallel to <code>objectNames</code>, or null if the lookup failed.
+	 */
+	boolean[] objectsExist(String... objectNames)
+	{
+		if (!enterRead())
+		{
+			IdeLog.logError(GitPlugin.getDefault(), Messages.GitRepository_FailedAcquireReadLock);
+			return null;
+		}
+		try
+		{
+			GitCatFile.ObjectInfo[] infos = getCatFile(false).check(objectNames);
+			boolean[] exists = new boolean[infos.length];
+			for (int i = 0; i < infos.length; i++)
+			{
+				exists[i] = (infos[i] != null);
+			}
+			return exists;
+		}
+		catch (IOException e)
+		{
+			IdeLog.logError(GitPlugin.getDefault(), e, IDebugScopes.DEBUG);
+			return null;
+		}
+		finally
+		{
+			exitRead();
+		}
+	}
+
+	synchronized GitCommitGraph commitGraph()
+	{
+		if (commitGraph == null)
+		{
+			commitGraph = new GitCommitGraph(this, gitFile(GitCommitGraph.FILE_NAME));
+		}
+		return commitGraph;
+	}
+
+	private GitCatFile getCatFile(boolean withContents)
+	{
+		synchronized (catFileLock)
+		{
+			if (withContents)
+			{
+				if (catFile == null)
+				{
+					catFile = new GitCatFile(getGitExecutable(), workingDirectory(), true);
+				}
+				return catFile;
+			}
+			if (catFileCheck == null)
+			{
+				catFileCheck = new GitCatFile(getGitExecutable(), workingDirectory(), false);
+			}
+			return catFileCheck;
+		}
+	}
+
+	/**
+	 * Shuts down the cat-file processes. They hold pack files open (which blocks gc/repack from removing them on
+	 * Windows), so we do this whenever a write process starts. They get relaunched on the next read.
+	 */
+	private void disposeCatFiles()
+	{
+		synchronized (catFileLock)
+		{
+			if (catFile != null)
+			{
+				catFile.dispose();
+				catFile = null;
+			}
+			if (catFileCheck != null)
+			{
+				catFileCheck.dispose();
+				catFileCheck = null;
+			}
+		}
+	}
+
 	IStatus executeWithInput(String input, String... args)
 	{
 		// All of these processes appear to be write, so just hard-code that
@@ -1715,6 +1850,7 @@ public class GitRepository
 		fileWatcherIds = null;
 		// stop running any jobs related to this repo!
 		Job.getJobManager().cancel(this);
+		disposeCatFiles();
 		// stop running any jobs in the index!
 		if (index != null)
 		{
@@ -2141,7 +2277,13 @@ public class GitRepository
 	 */
 	public boolean enterWriteProcess()
 	{
-		return monitor.writeLock().tryLock();
+		if (!monitor.writeLock().tryLock())
+		{
+			return false;
+		}
+		// No readers can be using the cat-file processes while we hold the write lock
+		disposeCatFiles();
+		return true;
 	}
 
 	/**
@@ -132,6 +132,21 @@ public class GitRevList
 
 		try
 		{
+			// Most walks can be answered from the commit graph cache, which only asks git about what's new
+			List<GitCommit> cached = repository.commitGraph().walk(rev, max, subMonitor);
+			if (cached != null)
+			{
+				logInfo(MessageFormat.format(
+						"Loaded {0} commits from the commit graph cache in {1} ms", cached.size(), //$NON-NLS-1$
+						System.currentTimeMillis() - start));
+				this.commits = cached;
+				return Status.OK_STATUS;
+			}
+			if (subMonitor.isCanceled())
+			{
+				return Status.CANCEL_STATUS;
+			}
+
 			// FIXME Move this into GitRepository, so we can set up lock/monitor on it!
 			Process p = gitExe.run(repository.workingDirectory(), arguments.toArray(new String[arguments.size()]));
 			InputStream stream = p.getInputStream();
@@ -303,8 +318,19 @@ public class GitRevList
 				break;
 			}
 		}
+		return toTimestamp(Long.parseLong(builder.toString()));
+	}
+
+	/**
+	 * Converts the seconds since epoch git gives us into the timestamp we set on commits.
+	 * 
+	 * @param seconds
+	 * @return
+	 */
+	static long toTimestamp(long seconds)
+	{
 		// Since we get time in seconds since epoch, not ms we need to multiply by 1000
-		long time = Long.parseLong(builder.toString()) * 1000;
+		long time = seconds * 1000;
 		// HACK for some reason my times are 5 minutes off the console/GitX. Adjust 5 mins
 		return time + (5 * 60 * 1000);
 	}
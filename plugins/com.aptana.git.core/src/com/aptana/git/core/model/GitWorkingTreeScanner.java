@@ -0,0 +1,396 @@
+/**
+ * Aptana Studio
+ * Copyright (c) 2013 by Appcelerator, Inc. All Rights Reserved.
+ * Licensed under the terms of the GNU Public License (GPL) v3 (with exceptions).
+ * Please see the license.html included with this distribution for details.
+ * Any modifications to this file must keep this entire header intact.
+ */
+package com.aptana.git.core.model;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.Path;
+
+import com.aptana.core.util.CollectionsUtil;
+import com.aptana.core.util.StringUtil;
+
+/**
+ * Computes the state of the working tree relative to the index without running git: the equivalent of
+ * <code>git diff-files</code> (unstaged changes) and <code>git ls-files --others --exclude-standard</code> (untracked
+ * files). Files are compared against the stat data cached in the index first, and are only hashed when that doesn't
+ * match (or can't be trusted because the file was modified around the time the index was written).
+ */
+class GitWorkingTreeScanner
+{
+	private static final String ZERO_SHA = "0000000000000000000000000000000000000000"; //$NON-NLS-1$
+	private static final String ZERO_MODE = "000000"; //$NON-NLS-1$
+	private static final String MODIFIED_STATUS = "M"; //$NON-NLS-1$
+	private static final String DELETED_STATUS = "D"; //$NON-NLS-1$
+	private static final String UNMERGED_STATUS = "U"; //$NON-NLS-1$
+	private static final int BUFFER_SIZE = 8192;
+
+	private final File workingDirectory;
+	private final GitIndexFile index;
+
+	GitWorkingTreeScanner(File workingDirectory, GitIndexFile index)
+	{
+		this.workingDirectory = workingDirectory;
+		this.index = index;
+	}
+
+	/**
+	 * Finds the tracked files whose working tree copy differs from the index. The result is in the same form we build
+	 * from the output of <code>git diff-files</code>: each path maps to the tokens of its raw status line.
+	 * 
+	 * @param filePaths
+	 *            limit the scan to these repo-relative paths (and anything below them). Empty means everything.
+	 * @param undecided
+	 *            collects the paths we can't judge from Java (symlinks, submodules, intent-to-add entries); callers
+	 *            should ask git about these.
+	 * @return
+	 * @throws IOException
+	 */
+	Map<IPath, List<String>> unstagedChanges(Set<String> filePaths, Collection<String> undecided) throws IOException
+	{
+		Map<IPath, List<String>> dictionary = new HashMap<IPath, List<String>>();
+		Set<String> unmerged = new HashSet<String>();
+		MessageDigest sha1 = newDigest();
+		byte[] buffer = new byte[BUFFER_SIZE];
+		// Anything modified in the same second the index was written might have changed without its stat data
+		// changing, so always check its content.
+		long racyCutoff = index.lastModified() / 1000;
+
+		int count = index.size();
+		for (int i = 0; i < count; i++)
+		{
+			String path = index.getPath(i);
+			if (!inScope(path, filePaths))
+			{
+				continue;
+			}
+			if (index.getStage(i) != 0)
+			{
+				if (unmerged.add(path))
+				{
+					dictionary.put(Path.fromPortableString(path),
+							CollectionsUtil.newList(':' + ZERO_MODE, ZERO_MODE, ZERO_SHA, ZERO_SHA, UNMERGED_STATUS));
+				}
+				continue;
+			}
+			if (index.isAssumeValid(i) || index.isSkipWorktree(i))
+			{
+				continue;
+			}
+			int type = index.getMode(i) & GitIndexFile.MODE_TYPE_MASK;
+			if (type != GitIndexFile.MODE_REGULAR || index.isIntentToAdd(i))
+			{
+				undecided.add(path);
+				continue;
+			}
+
+			File file = new File(workingDirectory, path);
+			if (!file.isFile())
+			{
+				dictionary.put(Path.fromPortableString(path), CollectionsUtil.newList(':' + mode(i), ZERO_MODE,
+						index.getSha(i), ZERO_SHA, DELETED_STATUS));
+				continue;
+			}
+
+			long lastModified = file.lastModified();
+			long length = file.length();
+			boolean statMatches = ((int) length == index.getSize(i)) && timestampMatches(lastModified, i)
+					&& (index.getMtimeSeconds(i) & 0xFFFFFFFFL) < racyCutoff;
+			if (statMatches || contentMatches(file, length, i, sha1, buffer))
+			{
+				continue;
+			}
+			dictionary.put(Path.fromPortableString(path),
+					CollectionsUtil.newList(':' + mode(i), mode(i), index.getSha(i), ZERO_SHA, MODIFIED_STATUS));
+		}
+		return dictionary;
+	}
+
+	/**
+	 * Walks the working tree looking for files that aren't in the index and aren't excluded.
+	 * 
+	 * @param filePaths
+	 *            limit the scan to these repo-relative paths (and anything below them). Empty means everything.
+	 * @param rules
+	 * @return repo-relative portable paths. Untracked nested repositories are reported as their directory with a
+	 *         trailing slash, like git does.
+	 */
+	List<String> untrackedFiles(Set<String> filePaths, GitIgnoreRules rules)
+	{
+		List<String> result = new ArrayList<String>();
+		if (CollectionsUtil.isEmpty(filePaths))
+		{
+			walk(StringUtil.EMPTY, canonical(workingDirectory), rules, result);
+			return result;
+		}
+
+		for (String path : filePaths)
+		{
+			if (path.length() == 0)
+			{
+				walk(StringUtil.EMPTY, canonical(workingDirectory), rules, result);
+				continue;
+			}
+			if (isGitDirectory(path))
+			{
+				continue;
+			}
+			File file = new File(workingDirectory, path);
+			if (file.isDirectory())
+			{
+				if (!rules.isIgnoredOrInIgnoredDirectory(path, true))
+				{
+					walk(path, canonical(file), rules, result);
+				}
+			}
+			else if (file.isFile() && !index.isTracked(path) && !rules.isIgnoredOrInIgnoredDirectory(path, false))
+			{
+				result.add(path);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @param relativeDirectory
+	 * @param directory
+	 *            the canonical location of the directory, so we can spot symbolic links beneath it
+	 * @param rules
+	 * @param result
+	 */
+	private void walk(String relativeDirectory, File directory, GitIgnoreRules rules, List<String> result)
+	{
+		File[] children = directory.listFiles();
+		if (children == null)
+		{
+			return;
+		}
+		for (File child : children)
+		{
+			String name = child.getName();
+			String path = (relativeDirectory.length() == 0) ? name : relativeDirectory + '/' + name;
+			if (child.isDirectory())
+			{
+				if (GitRepository.GIT_DIR.equals(name) || index.isTracked(path))
+				{
+					// the repo itself, or a submodule
+					continue;
+				}
+				File canonicalChild = canonical(child);
+				if (!canonicalChild.equals(new File(directory, name)))
+				{
+					// git doesn't follow links, it treats them like a file
+					if (!rules.isIgnored(path, false))
+					{
+						result.add(path);
+					}
+					continue;
+				}
+				if (rules.isIgnored(path, true))
+				{
+					continue;
+				}
+				if (new File(child, GitRepository.GIT_DIR).exists())
+				{
+					result.add(path + '/');
+					continue;
+				}
+				walk(path, canonicalChild, rules, result);
+			}
+			else if (!index.isTracked(path) && !rules.isIgnored(path, false))
+			{
+				result.add(path);
+			}
+		}
+	}
+
+	private static boolean isGitDirectory(String path)
+	{
+		return path.equals(GitRepository.GIT_DIR) || path.startsWith(GitRepository.GIT_DIR + '/');
+	}
+
+	private static File canonical(File file)
+	{
+		try
+		{
+			return file.getCanonicalFile();
+		}
+		catch (IOException e)
+		{
+			return file.getAbsoluteFile();
+		}
+	}
+
+	private static boolean inScope(String path, Set<String> filePaths)
+	{
+		if (CollectionsUtil.isEmpty(filePaths) || filePaths.contains(path))
+		{
+			return true;
+		}
+		for (String filePath : filePaths)
+		{
+			if (filePath.length() == 0
+					|| (path.startsWith(filePath) && path.length() > filePath.length() && path.charAt(filePath
+							.length()) == '/'))
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Not every platform/JRE gives us sub-second modification times, so only compare the milliseconds when we have
+	 * them.
+	 */
+	private boolean timestampMatches(long lastModified, int i)
+	{
+		if (lastModified / 1000 != (index.getMtimeSeconds(i) & 0xFFFFFFFFL))
+		{
+			return false;
+		}
+		long millis = lastModified % 1000;
+		return millis == 0 || millis == index.getMtimeNanos(i) / 1000000;
+	}
+
+	private String mode(int i)
+	{
+		String octal = Integer.toOctalString(index.getMode(i));
+		while (octal.length() < 6)
+		{
+			octal = '0' + octal;
+		}
+		return octal;
+	}
+
+	/**
+	 * Hashes the file as a git blob and compares it to the entry's sha. If the raw contents don't match and contain
+	 * CRLF line endings we try again with them converted to LF, which is what core.autocrlf would have stored.
+	 */
+	private boolean contentMatches(File file, long length, int i, MessageDigest sha1, byte[] buffer)
+			throws IOException
+	{
+		sha1.reset();
+		sha1.update(blobHeader(length));
+		int crlfCount = 0;
+		long total = 0;
+		boolean previousCR = false;
+		InputStream in = new FileInputStream(file);
+		try
+		{
+			int read;
+			while ((read = in.read(buffer)) != -1)
+			{
+				sha1.update(buffer, 0, read);
+				total += read;
+				for (int j = 0; j < read; j++)
+				{
+					byte b = buffer[j];
+					if (previousCR && b == '\n')
+					{
+						crlfCount++;
+					}
+					previousCR = (b == '\r');
+				}
+			}
+		}
+		finally
+		{
+			in.close();
+		}
+		if (total != length)
+		{
+			// changing under us, definitely modified
+			return false;
+		}
+		if (index.shaEquals(i, sha1.digest()))
+		{
+			return true;
+		}
+		if (crlfCount == 0)
+		{
+			return false;
+		}
+
+		sha1.reset();
+		sha1.update(blobHeader(length - crlfCount));
+		previousCR = false;
+		in = new FileInputStream(file);
+		try
+		{
+			int read;
+			while ((read = in.read(buffer)) != -1)
+			{
+				int start = 0;
+				if (previousCR && buffer[0] != '\n')
+				{
+					// the CR held back at the end of the last buffer wasn't part of a CRLF after all
+					sha1.update((byte) '\r');
+				}
+				for (int j = 0; j < read; j++)
+				{
+					if (buffer[j] == '\r' && (j + 1 == read || buffer[j + 1] == '\n'))
+					{
+						// drop this CR (or hold it back until we see the next buffer)
+						sha1.update(buffer, start, j - start);
+						start = j + 1;
+					}
+				}
+				sha1.update(buffer, start, read - start);
+				previousCR = buffer[read - 1] == '\r';
+			}
+			if (previousCR)
+			{
+				sha1.update((byte) '\r');
+			}
+		}
+		finally
+		{
+			in.close();
+		}
+		return index.shaEquals(i, sha1.digest());
+	}
+
+	private static byte[] blobHeader(long length)
+	{
+		String header = "blob " + length; //$NON-NLS-1$
+		byte[] bytes = new byte[header.length() + 1];
+		for (int i = 0; i < header.length(); i++)
+		{
+			bytes[i] = (byte) header.charAt(i);
+		}
+		// trailing NUL
+		return bytes;
+	}
+
+	private static MessageDigest newDigest() throws IOException
+	{
+		try
+		{
+			return MessageDigest.getInstance("SHA-1"); //$NON-NLS-1$
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			IOException ioe = new IOException(e.getMessage());
+			ioe.initCause(e);
+			throw ioe;
+		}
+	}
+}
@@ -0,0 +1,517 @@
+/**
+ * Aptana Studio
+ * Copyright (c) 2005-2013 by Appcelerator, Inc. All Rights Reserved.
+ * Licensed under the terms of the GNU Public License (GPL) v3 (with exceptions).
+ * Please see the license.html included with this distribution for details.
+ * Any modifications to this file must keep this entire header intact.
+ */
+package com.aptana.index.core;
+
+import java.lang.reflect.Array;
+import java.text.MessageFormat;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.aptana.jetty.util.epl.ajax.JSON;
+import com.aptana.jetty.util.epl.ajax.JSON.Convertible;
+import com.aptana.jetty.util.epl.ajax.JSON.Generator;
+import com.aptana.jetty.util.epl.ajax.JSON.Output;
+
+/**
+ * A compact, typed alternative to storing index values as JSON text. Values are encoded as a tagged, length-prefixed
+ * string and decode back into exactly what {@link JSON#parse(String)} would have returned for the JSON form (Maps,
+ * Object arrays, Strings, Booleans, Longs and Doubles), so existing {@link Convertible#fromJSON(Map)} implementations
+ * work unchanged. Decoding is a single forward pass: there is no tokenizing, no escape handling and no number parsing
+ * for integral values.
+ * <p>
+ * Strings found in the codec's name table (typically property names and common values) are written as a reference to
+ * their table slot and decode to the table's own String instance, so all decoded elements share them. The table is part
+ * of the format; changing it invalidates every value written with the old table.
+ * <p>
+ * Apart from the contents of strings, every character written is in the range 0x01-0x7F. Encoded values therefore
+ * never contain the '\0' column delimiter used by the index writers, and stay one byte per character on disk.
+ */
+public class CompactValueCodec
+{
+	private static final char MARKER = '\u0001';
+	private static final char NULL = '\u0002';
+	private static final char TRUE = '\u0003';
+	private static final char FALSE = '\u0004';
+	private static final char LONG = '\u0005';
+	private static final char DOUBLE = '\u0006';
+	private static final char STRING = '\u0007';
+	private static final char NAME = '\u0008';
+	private static final char ARRAY = '\u000E';
+	private static final char OBJECT = '\u000F';
+	private static final char JSON_TEXT = '\u0010';
+
+	/**
+	 * Numbers are written most significant group first. Every character but the last holds 5 bits, the last holds 6.
+	 */
+	private static final char CONTINUATION = ' ';
+	private static final char LAST = '@';
+
+	/**
+	 * Collects the fields a {@link Convertible} writes. Anything that can't be represented as a plain map of fields
+	 * makes the whole object fall back to JSON text.
+	 */
+	private static class FieldCollector implements Output
+	{
+		final Map<String, Object> fields = new LinkedHashMap<String, Object>();
+		boolean unsupported;
+
+		@SuppressWarnings("rawtypes")
+		public void addClass(Class c)
+		{
+			unsupported = true;
+		}
+
+		public void add(Object obj)
+		{
+			unsupported = true;
+		}
+
+		public void add(String name, Object value)
+		{
+			fields.put(name, value);
+		}
+
+		public void add(String name, double value)
+		{
+			fields.put(name, Double.valueOf(value));
+		}
+
+		public void add(String name, long value)
+		{
+			fields.put(name, Long.valueOf(value));
+		}
+
+		public void add(String name, boolean value)
+		{
+			fields.put(name, Boolean.valueOf(value));
+		}
+	}
+
+	/**
+	 * Read position within an encoded value.
+	 */
+	private static class Cursor
+	{
+		final String value;
+		int position;
+
+		Cursor(String value, int position)
+		{
+			this.value = value;
+			this.position = position;
+		}
+
+		char next()
+		{
+			if (position >= value.length())
+			{
+				throw new IllegalArgumentException("Unexpected end of encoded value"); //$NON-NLS-1$
+			}
+
+			return value.charAt(position++);
+		}
+	}
+
+	private final String[] names;
+	private final Map<String, Integer> nameSlots;
+
+	/**
+	 * CompactValueCodec
+	 * 
+	 * @param names
+	 *            The shared name table. The order of the entries is significant.
+	 */
+	public CompactValueCodec(String... names)
+	{
+		this.names = names.clone();
+		this.nameSlots = new HashMap<String, Integer>(names.length * 2);
+
+		for (int i = 0; i < names.length; i++)
+		{
+			this.nameSlots.put(names[i], i);
+		}
+	}
+
+	/**
+	 * Determine if the specified value was written by a {@link CompactValueCodec}
+	 * 
+	 * @param value
+	 * @return
+	 */
+	public static boolean isEncoded(String value)
+	{
+		return value != null && value.length() > 0 && value.charAt(0) == MARKER;
+	}
+
+	/**
+	 * Decode a value written by {@link #encode(Object)}
+	 * 
+	 * @param value
+	 * @return
+	 * @throws IllegalArgumentException
+	 *             if the value is not a valid encoding for this codec's name table
+	 */
+	public Object decode(String value)
+	{
+		if (!isEncoded(value))
+		{
+			throw new IllegalArgumentException("Not an encoded value"); //$NON-NLS-1$
+		}
+
+		Cursor cursor = new Cursor(value, 1);
+		Object result = read(cursor);
+
+		if (cursor.position != value.length())
+		{
+			throw new IllegalArgumentException(MessageFormat.format(
+					"Unexpected trailing content at offset {0}", cursor.position)); //$NON-NLS-1$
+		}
+
+		return result;
+	}
+
+	/**
+	 * Encode the specified object. Anything {@link JSON#toString(Object)} accepts may be encoded
+	 * 
+	 * @param object
+	 * @return
+	 */
+	public String encode(Object object)
+	{
+		StringBuilder buffer = new StringBuilder();
+
+		buffer.append(MARKER);
+		write(buffer, object);
+
+		return buffer.toString();
+	}
+
+	/**
+	 * read
+	 * 
+	 * @param cursor
+	 * @return
+	 */
+	private Object read(Cursor cursor)
+	{
+		char tag = cursor.next();
+
+		switch (tag)
+		{
+			case NULL:
+				return null;
+
+			case TRUE:
+				return Boolean.TRUE;
+
+			case FALSE:
+				return Boolean.FALSE;
+
+			case LONG:
+			{
+				long n = readNumber(cursor);
+
+				return Long.valueOf((n >>> 1) ^ -(n & 1));
+			}
+
+			case DOUBLE:
+				return Double.valueOf(readString(cursor));
+
+			case STRING:
+				return readString(cursor);
+
+			case NAME:
+			{
+				long slot = readNumber(cursor);
+
+				if (slot >= names.length)
+				{
+					throw new IllegalArgumentException(MessageFormat.format("Unknown name slot {0}", slot)); //$NON-NLS-1$
+				}
+
+				return names[(int) slot];
+			}
+
+			case ARRAY:
+			{
+				Object[] result = new Object[(int) readNumber(cursor)];
+
+				for (int i = 0; i < result.length; i++)
+				{
+					result[i] = read(cursor);
+				}
+
+				return result;
+			}
+
+			case OBJECT:
+			{
+				int size = (int) readNumber(cursor);
+				Map<String, Object> result = new HashMap<String, Object>(size * 4 / 3 + 1);
+
+				for (int i = 0; i < size; i++)
+				{
+					Object key = read(cursor);
+
+					result.put((key != null) ? key.toString() : null, read(cursor));
+				}
+
+				return result;
+			}
+
+			case JSON_TEXT:
+				return JSON.parse(readString(cursor));
+
+			default:
+				throw new IllegalArgumentException(MessageFormat.format(
+						"Unknown value tag {0} at offset {1}", (int) tag, cursor.position - 1)); //$NON-NLS-1$
+		}
+	}
+
+	/**
+	 * readNumber
+	 * 
+	 * @param cursor
+	 * @return
+	 */
+	private long readNumber(Cursor cursor)
+	{
+		long result = 0;
+
+		while (true)
+		{
+			char c = cursor.next();
+
+			if (c >= LAST)
+			{
+				return (result << 6) | (c - LAST);
+			}
+			if (c < CONTINUATION)
+			{
+				throw new IllegalArgumentException(MessageFormat.format(
+						"Invalid number at offset {0}", cursor.position - 1)); //$NON-NLS-1$
+			}
+
+			result = (result << 5) | (c - CONTINUATION);
+		}
+	}
+
+	/**
+	 * readString
+	 * 
+	 * @param cursor
+	 * @return
+	 */
+	private String readString(Cursor cursor)
+	{
+		int length = (int) readNumber(cursor);
+		int start = cursor.position;
+		int end = start + length;
+
+		if (length < 0 || end > cursor.value.length())
+		{
+			throw new IllegalArgumentException("Unexpected end of encoded value"); //$NON-NLS-1$
+		}
+
+		cursor.position = end;
+
+		return cursor.value.substring(start, end);
+	}
+
+	/**
+	 * write
+	 * 
+	 * @param buffer
+	 * @param object
+	 */
+	@SuppressWarnings("rawtypes")
+	private void write(StringBuilder buffer, Object object)
+	{
+		// NOTE: the order of these tests follows JSON.append(), so ambiguous objects are treated the same way
+		if (object == null)
+		{
+			buffer.append(NULL);
+		}
+		else if (object instanceof Convertible)
+		{
+			FieldCollector collector = new FieldCollector();
+
+			((Convertible) object).toJSON(collector);
+
+			if (collector.unsupported)
+			{
+				writeJSON(buffer, object);
+			}
+			else
+			{
+				writeMap(buffer, collector.fields);
+			}
+		}
+		else if (object instanceof Generator)
+		{
+			writeJSON(buffer, object);
+		}
+		else if (object instanceof Map)
+		{
+			writeMap(buffer, (Map) object);
+		}
+		else if (object instanceof Collection)
+		{
+			Collection collection = (Collection) object;
+
+			buffer.append(ARRAY);
+			writeNumber(buffer, collection.size());
+
+			for (Object item : collection)
+			{
+				write(buffer, item);
+			}
+		}
+		else if (object.getClass().isArray())
+		{
+			int length = Array.getLength(object);
+
+			buffer.append(ARRAY);
+			writeNumber(buffer, length);
+
+			for (int i = 0; i < length; i++)
+			{
+				write(buffer, Array.get(object, i));
+			}
+		}
+		else if (object instanceof Long || object instanceof Integer || object instanceof Short
+				|| object instanceof Byte)
+		{
+			long n = ((Number) object).longValue();
+
+			buffer.append(LONG);
+			writeNumber(buffer, (n << 1) ^ (n >> 63));
+		}
+		else if (object instanceof Double || object instanceof Float)
+		{
+			buffer.append(DOUBLE);
+			writeRawString(buffer, String.valueOf(object));
+		}
+		else if (object instanceof Boolean)
+		{
+			buffer.append(((Boolean) object).booleanValue() ? TRUE : FALSE);
+		}
+		else if (object instanceof String || object instanceof Character)
+		{
+			writeString(buffer, object.toString());
+		}
+		else
+		{
+			writeJSON(buffer, object);
+		}
+	}
+
+	/**
+	 * writeJSON
+	 * 
+	 * @param buffer
+	 * @param object
+	 */
+	private void writeJSON(StringBuilder buffer, Object object)
+	{
+		// JSON escapes control characters, so this is always safe to embed
+		buffer.append(JSON_TEXT);
+		writeRawString(buffer, JSON.toString(object));
+	}
+
+	/**
+	 * writeMap
+	 * 
+	 * @param buffer
+	 * @param map
+	 */
+	@SuppressWarnings("rawtypes")
+	private void writeMap(StringBuilder buffer, Map map)
+	{
+		buffer.append(OBJECT);
+		writeNumber(buffer, map.size());
+
+		for (Object item : map.entrySet())
+		{
+			Map.Entry entry = (Map.Entry) item;
+
+			writeString(buffer, String.valueOf(entry.getKey()));
+			write(buffer, entry.getValue());
+		}
+	}
+
+	/**
+	 * writeNumber
+	 * 
+	 * @param buffer
+	 * @param n
+	 *            treated as unsigned
+	 */
+	private void writeNumber(StringBuilder buffer, long n)
+	{
+		long high = n >>> 6;
+
+		if (high != 0)
+		{
+			int shift = 0;
+
+			while ((high >>> shift) >= 32)
+			{
+				shift += 5;
+			}
+
+			for (; shift >= 0; shift -= 5)
+			{
+				buffer.append((char) (CONTINUATION + ((high >>> shift) & 0x1F)));
+			}
+		}
+
+		buffer.append((char) (LAST + (n & 0x3F)));
+	}
+
+	/**
+	 * writeRawString
+	 * 
+	 * @param buffer
+	 * @param string
+	 */
+	private void writeRawString(StringBuilder buffer, String string)
+	{
+		writeNumber(buffer, string.length());
+		buffer.append(string);
+	}
+
+	/**
+	 * writeString
+	 * 
+	 * @param buffer
+	 * @param string
+	 */
+	private void writeString(StringBuilder buffer, String string)
+	{
+		Integer slot = nameSlots.get(string);
+
+		if (slot != null)
+		{
+			buffer.append(NAME);
+			writeNumber(buffer, slot);
+		}
+		else if (string.indexOf('\0') != -1)
+		{
+			// keep the column delimiter out of the encoded value
+			writeJSON(buffer, string);
+		}
+		else
+		{
+			buffer.append(STRING);
+			writeRawString(buffer, string);
+		}
+	}
+}
@@ -13,4 +13,10 @@ public interface IPreferenceConstants
 {
 	public static final String FILTERED_INDEX_URIS = "FILTERED_INDEX_URIS"; //$NON-NLS-1$
 	public static final String NO_ITEMS = StringUtil.EMPTY;
+
+	/**
+	 * The number of threads used to index files in a container. 1 indexes serially.
+	 */
+	public static final String INDEX_WORKER_COUNT = "INDEX_WORKER_COUNT"; //$NON-NLS-1$
+	public static final int DEFAULT_INDEX_WORKER_COUNT = 1;
 }
@@ -12,7 +12,6 @@ import java.io.IOException;
 import java.net.URI;
 import java.text.MessageFormat;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -25,15 +24,27 @@ import java.util.zip.CRC32;
 
 import org.eclipse.core.runtime.IPath;
 
+import com.aptana.core.epl.util.LRUCache;
 import com.aptana.core.logging.IdeLog;
-import com.aptana.internal.index.core.DiskIndex;
 import com.aptana.internal.index.core.MemoryIndex;
+import com.aptana.internal.index.core.SegmentedDiskIndex;
 
 public class Index
 {
 	private static final int MATCH_RULE_INDEX_MASK = SearchPattern.EXACT_MATCH | SearchPattern.PREFIX_MATCH
 			| SearchPattern.PATTERN_MATCH | SearchPattern.CASE_SENSITIVE | SearchPattern.REGEX_MATCH;
-	private static final Map<String, Pattern> PATTERNS = new HashMap<String, Pattern>();
+
+	/**
+	 * Compiled regexes for the patterns used in queries, keyed by match kind and pattern. Queries from different threads
+	 * share the cache, so all access must hold {@link #PATTERNS_LOCK}.
+	 */
+	private static final LRUCache<String, Pattern> PATTERNS = new LRUCache<String, Pattern>(256);
+	private static final Object PATTERNS_LOCK = new Object();
+
+	/**
+	 * Cached in place of regexes that fail to compile, so we don't retry them for every word. Never matches.
+	 */
+	private static final Pattern INVALID_REGEX = Pattern.compile("(?!)"); //$NON-NLS-1$
 	// Separator to use after the container path
 	public static final char DEFAULT_SEPARATOR = '/';
 
@@ -191,10 +202,10 @@ public class Index
 				return patternLength == wordLength && pattern.equalsIgnoreCase(word);
 
 			case SearchPattern.PREFIX_MATCH:
-				return patternLength <= wordLength && word.toLowerCase().startsWith(pattern.toLowerCase());
+				return patternLength <= wordLength && word.regionMatches(true, 0, pattern, 0, patternLength);
 
 			case SearchPattern.PATTERN_MATCH:
-				return patternMatch(pattern.toLowerCase(), word.toLowerCase());
+				return patternMatch(pattern, word, false);
 
 			case SearchPattern.REGEX_MATCH:
 				return regexPatternMatch(pattern, word, false);
@@ -206,7 +217,7 @@ public class Index
 				return patternLength <= wordLength && word.startsWith(pattern);
 
 			case SearchPattern.PATTERN_MATCH | SearchPattern.CASE_SENSITIVE:
-				return patternMatch(pattern, word);
+				return patternMatch(pattern, word, true);
 
 			case SearchPattern.REGEX_MATCH | SearchPattern.CASE_SENSITIVE:
 				return regexPatternMatch(pattern, word, true);
@@ -226,14 +237,43 @@ public class Index
 		return Character.isLetterOrDigit(c);
 	}
 
+	/**
+	 * getCachedPattern
+	 * 
+	 * @param key
+	 * @return
+	 */
+	private static Pattern getCachedPattern(String key)
+	{
+		synchronized (PATTERNS_LOCK)
+		{
+			return PATTERNS.get(key);
+		}
+	}
+
+	/**
+	 * cachePattern
+	 * 
+	 * @param key
+	 * @param pattern
+	 */
+	private static void cachePattern(String key, Pattern pattern)
+	{
+		synchronized (PATTERNS_LOCK)
+		{
+			PATTERNS.put(key, pattern);
+		}
+	}
+
 	/**
 	 * patternMatch
 	 * 
 	 * @param pattern
 	 * @param word
+	 * @param caseSensitive
 	 * @return
 	 */
-	private static boolean patternMatch(String pattern, String word)
+	private static boolean patternMatch(String pattern, String word, boolean caseSensitive)
 	{
 		if (pattern.equals("*")) //$NON-NLS-1$
 		{
@@ -241,7 +281,8 @@ public class Index
 		}
 
 		// see if we've cached a regex for this pattern already
-		Pattern p = PATTERNS.get(pattern);
+		String key = (caseSensitive ? "P" : "p") + pattern; //$NON-NLS-1$ //$NON-NLS-2$
+		Pattern p = getCachedPattern(key);
 
 		// nope, so try and create one
 		if (p == null)
@@ -263,12 +304,14 @@ public class Index
 
 			String regex = buffer.toString();
 
-			p = Pattern.compile(regex);
+			// match case-insensitively in the regex instead of lower-casing every word we test
+			p = (caseSensitive) ? Pattern.compile(regex) : Pattern.compile(regex, Pattern.CASE_INSENSITIVE
+					| Pattern.UNICODE_CASE);
 
-			PATTERNS.put(pattern, p);
+			cachePattern(key, p);
 		}
 
-		return (p != null) ? p.matcher(word).find() : false;
+		return p.matcher(word).find();
 	}
 
 	/**
@@ -280,7 +323,8 @@ public class Index
 	 */
 	private static boolean regexPatternMatch(String regex, String word, boolean caseSensitive)
 	{
-		Pattern pattern = PATTERNS.get(regex);
+		String key = (caseSensitive ? "R" : "r") + regex; //$NON-NLS-1$ //$NON-NLS-2$
+		Pattern pattern = getCachedPattern(key);
 
 		if (pattern == null)
 		{
@@ -288,20 +332,21 @@ public class Index
 			{
 				// compile the pattern
 				pattern = (caseSensitive) ? Pattern.compile(regex) : Pattern.compile(regex, Pattern.CASE_INSENSITIVE);
-
-				// cache for later
-				PATTERNS.put(regex, pattern);
 			}
 			catch (PatternSyntaxException e)
 			{
+				pattern = INVALID_REGEX;
 			}
+
+			// cache for later
+			cachePattern(key, pattern);
 		}
 
-		return (pattern != null) ? pattern.matcher(word).find() : false;
+		return pattern.matcher(word).find();
 	}
 
 	private MemoryIndex memoryIndex;
-	private DiskIndex diskIndex;
+	private SegmentedDiskIndex diskIndex;
 	ReadWriteLock monitor;
 	private URI containerURI;
 
@@ -330,7 +375,7 @@ public class Index
 		this.enterWrite();
 		try
 		{
-			this.diskIndex = new DiskIndex(diskIndexPathString);
+			this.diskIndex = new SegmentedDiskIndex(diskIndexPathString);
 			this.diskIndex.initialize(reuseExistingFile);
 		}
 		finally
@@ -376,6 +421,10 @@ public class Index
 		{
 			indexFile.delete();
 		}
+		if (this.diskIndex != null)
+		{
+			this.diskIndex.deleteSegmentFiles();
+		}
 	}
 
 	protected static void logTrace(String msg)
@@ -563,9 +612,6 @@ public class Index
 		finally
 		{
 			this.exitRead();
-
-			// clear any cached regexes or patterns we might have used during the query
-			PATTERNS.clear();
 		}
 
 		return (results == null) ? null : new ArrayList<QueryResult>(results.values());
@@ -738,7 +784,7 @@ public class Index
 	public void reset() throws IOException
 	{
 		this.memoryIndex = new MemoryIndex();
-		this.diskIndex = new DiskIndex(this.diskIndex.indexFile.getCanonicalPath());
+		this.diskIndex = new SegmentedDiskIndex(this.diskIndex.indexFile.getCanonicalPath());
 		this.diskIndex.initialize(false/* do not reuse the index file */);
 	}
 }
@@ -87,6 +87,17 @@ public abstract class IndexReader
 		return DELIMITER_PATTERN;
 	}
 
+	/**
+	 * Get the codec used to read values written in compact form. Values written as JSON are always readable, so
+	 * subclasses only need to override this if their writer writes compact values
+	 * 
+	 * @return
+	 */
+	protected CompactValueCodec getValueCodec()
+	{
+		return null;
+	}
+
 	/**
 	 * Filter the list of query results to include items coming from the specified location only. Note that a null
 	 * location will cause the specified list to be returned
@@ -142,6 +153,29 @@ public abstract class IndexReader
 		return SUB_DELIMITER_PATTERN;
 	}
 
+	/**
+	 * Convert a value written by {@link IndexWriter#serialize(Object)} back into the structure JSON would parse it to
+	 * 
+	 * @param value
+	 * @return
+	 */
+	protected Object parseValue(String value)
+	{
+		if (CompactValueCodec.isEncoded(value))
+		{
+			CompactValueCodec codec = this.getValueCodec();
+
+			if (codec == null)
+			{
+				throw new IllegalStateException("No codec available to decode a compact index value"); //$NON-NLS-1$
+			}
+
+			return codec.decode(value);
+		}
+
+		return JSON.parse(value);
+	}
+
 	/**
 	 * populateElement
 	 * 
@@ -174,7 +208,8 @@ public abstract class IndexReader
 		if (item != null && element != null && 0 <= columnIndex)
 		{
 			String key = item.getWord();
-			String[] columns = this.getDelimiterPattern().split(key);
+			// no need to split the columns after the one we want
+			String[] columns = this.getDelimiterPattern().split(key, columnIndex + 2);
 
 			if (columnIndex < columns.length)
 			{
@@ -200,7 +235,7 @@ public abstract class IndexReader
 		{
 			try
 			{
-				Object m = JSON.parse(value);
+				Object m = this.parseValue(value);
 
 				if (m instanceof Map)
 				{
@@ -216,7 +251,7 @@ public abstract class IndexReader
 			{
 				// @formatter:off
 				String message = MessageFormat.format(
-					"An error occurred while processing the following JSON string\n{0}", // //$NON-NLS-1$
+					"An error occurred while processing the following index value\n{0}", // //$NON-NLS-1$
 					value
 				);
 				// @formatter:on
@@ -9,14 +9,27 @@ package com.aptana.index.core;
 
 import java.net.URI;
 import java.text.MessageFormat;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.eclipse.core.filesystem.IFileStore;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.core.runtime.Platform;
 import org.eclipse.core.runtime.Status;
 import org.eclipse.core.runtime.SubMonitor;
 import org.eclipse.core.runtime.jobs.Job;
@@ -30,6 +43,16 @@ abstract class IndexRequestJob extends Job
 {
 	public static final String INDEX_REQUEST_JOB_FAMILY = "index-request-job-family";
 
+	/**
+	 * Upper bound on the number of indexing worker threads, regardless of the preference value.
+	 */
+	private static final int MAX_WORKER_COUNT = 16;
+
+	/**
+	 * How often (in ms) the job thread wakes up to check for cancellation while workers are indexing.
+	 */
+	private static final long POLL_INTERVAL = 100;
+
 	private URI containerURI;
 
 	/**
@@ -153,7 +176,8 @@ abstract class IndexRequestJob extends Job
 
 	/**
 	 * Indexes a set of {@link IFileStore}s with the appropriate {@link IFileStoreIndexingParticipant}s that apply to
-	 * the content types (matching is done via filename/extension).
+	 * the content types (matching is done via filename/extension). When more than one worker is configured (see
+	 * {@link #getWorkerCount()}) the files are indexed concurrently.
 	 * 
 	 * @param index
 	 * @param fileStores
@@ -174,6 +198,13 @@ abstract class IndexRequestJob extends Job
 			return;
 		}
 
+		int workers = Math.min(getWorkerCount(), fileStores.size());
+		if (workers > 1)
+		{
+			indexFileStoresInParallel(index, fileStores, workers, monitor);
+			return;
+		}
+
 		int remaining = fileStores.size();
 		SubMonitor sub = SubMonitor.convert(monitor, remaining * 11);
 		try
@@ -184,43 +215,190 @@ abstract class IndexRequestJob extends Job
 				{
 					throw new CoreException(Status.CANCEL_STATUS);
 				}
-				// First cleanup old index entries for file
-				index.remove(file.toURI());
-				sub.worked(1);
+				indexFileStore(index, file, sub.newChild(11));
 
-				// Now run indexers on file
-				List<IFileStoreIndexingParticipant> indexers = getIndexParticipants(file);
-				if (!CollectionsUtil.isEmpty(indexers))
+				// Update remaining units
+				remaining--;
+				sub.setWorkRemaining(remaining * 11);
+			}
+		}
+		finally
+		{
+			sub.done();
+		}
+	}
+
+	/**
+	 * Indexes the files on a bounded pool of worker threads. Each file is still removed from the index before its
+	 * participants run, and every write goes through the index's own lock, so the resulting index contents do not
+	 * depend on the order in which the workers finish. Progress and cancellation are handled on the calling thread;
+	 * all workers have stopped by the time this method returns.
+	 * 
+	 * @param index
+	 * @param fileStores
+	 * @param workers
+	 * @param monitor
+	 * @throws CoreException
+	 */
+	private void indexFileStoresInParallel(final Index index, Set<IFileStore> fileStores, int workers,
+			IProgressMonitor monitor) throws CoreException
+	{
+		final AtomicBoolean canceled = new AtomicBoolean(false);
+		// Participants running on workers only get to see the cancellation flag, SubMonitor is not thread-safe
+		final IProgressMonitor workerMonitor = new NullProgressMonitor()
+		{
+			@Override
+			public boolean isCanceled()
+			{
+				return canceled.get();
+			}
+		};
+
+		List<IFileStore> files = sortByURI(fileStores);
+		SubMonitor sub = SubMonitor.convert(monitor, files.size() * 11);
+		ExecutorService executor = Executors.newFixedThreadPool(workers);
+		CompletionService<IFileStore> completion = new ExecutorCompletionService<IFileStore>(executor);
+		try
+		{
+			for (final IFileStore file : files)
+			{
+				completion.submit(new Callable<IFileStore>()
 				{
-					int work = 10 / indexers.size();
-					BuildContext context = new FileStoreBuildContext(file);
-					for (IFileStoreIndexingParticipant indexer : indexers)
+					public IFileStore call() throws Exception
 					{
-						if (sub.isCanceled())
-						{
-							throw new CoreException(Status.CANCEL_STATUS);
-						}
-						try
-						{
-							indexer.index(context, index, sub.newChild(work));
-						}
-						catch (CoreException e)
+						if (!canceled.get())
 						{
-							IdeLog.logError(IndexPlugin.getDefault(), e);
+							indexFileStore(index, file, workerMonitor);
 						}
+						return file;
 					}
+				});
+			}
+
+			int remaining = files.size();
+			while (remaining > 0)
+			{
+				if (sub.isCanceled())
+				{
+					canceled.set(true);
+					throw new CoreException(Status.CANCEL_STATUS);
+				}
+
+				Future<IFileStore> future = completion.poll(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+				if (future == null)
+				{
+					continue;
+				}
+				try
+				{
+					future.get();
+				}
+				catch (ExecutionException e)
+				{
+					IdeLog.logError(IndexPlugin.getDefault(), e.getCause());
 				}
-				// Update remaining units
 				remaining--;
-				sub.setWorkRemaining(remaining * 11);
+				sub.worked(11);
 			}
 		}
+		catch (InterruptedException e)
+		{
+			canceled.set(true);
+			throw new CoreException(Status.CANCEL_STATUS);
+		}
 		finally
 		{
+			executor.shutdownNow();
+			try
+			{
+				// Callers save the index as soon as we return, so wait for any in-flight file to finish
+				executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
 			sub.done();
 		}
 	}
 
+	/**
+	 * Removes the old entries for a single file and runs its indexing participants.
+	 * 
+	 * @param index
+	 * @param file
+	 * @param monitor
+	 * @throws CoreException
+	 */
+	private void indexFileStore(Index index, IFileStore file, IProgressMonitor monitor) throws CoreException
+	{
+		SubMonitor sub = SubMonitor.convert(monitor, 11);
+		try
+		{
+			// First cleanup old index entries for file
+			index.remove(file.toURI());
+			sub.worked(1);
+
+			// Now run indexers on file
+			List<IFileStoreIndexingParticipant> indexers = getIndexParticipants(file);
+			if (!CollectionsUtil.isEmpty(indexers))
+			{
+				int work = 10 / indexers.size();
+				BuildContext context = new FileStoreBuildContext(file);
+				for (IFileStoreIndexingParticipant indexer : indexers)
+				{
+					if (sub.isCanceled())
+					{
+						throw new CoreException(Status.CANCEL_STATUS);
+					}
+					try
+					{
+						indexer.index(context, index, sub.newChild(work));
+					}
+					catch (CoreException e)
+					{
+						IdeLog.logError(IndexPlugin.getDefault(), e);
+					}
+				}
+			}
+		}
+		finally
+		{
+			sub.done();
+		}
+	}
+
+	/**
+	 * Returns the files ordered by URI so that work is always handed out in the same order.
+	 * 
+	 * @param fileStores
+	 * @return
+	 */
+	private List<IFileStore> sortByURI(Set<IFileStore> fileStores)
+	{
+		List<IFileStore> files = new ArrayList<IFileStore>(fileStores);
+		Collections.sort(files, new Comparator<IFileStore>()
+		{
+			public int compare(IFileStore o1, IFileStore o2)
+			{
+				return o1.toURI().compareTo(o2.toURI());
+			}
+		});
+		return files;
+	}
+
+	/**
+	 * The number of threads used to index files. A value of 1 (the default) indexes files serially on the job thread.
+	 * 
+	 * @return
+	 */
+	protected int getWorkerCount()
+	{
+		int count = Platform.getPreferencesService().getInt(IndexPlugin.PLUGIN_ID,
+				IPreferenceConstants.INDEX_WORKER_COUNT, IPreferenceConstants.DEFAULT_INDEX_WORKER_COUNT, null);
+		return Math.max(1, Math.min(count, MAX_WORKER_COUNT));
+	}
+
 	protected List<IFileStoreIndexingParticipant> getIndexParticipants(IFileStore file)
 	{
 		IndexManager indexManager = getIndexManager();
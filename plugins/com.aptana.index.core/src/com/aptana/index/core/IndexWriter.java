@@ -23,6 +23,17 @@ public abstract class IndexWriter
 	 */
 	protected abstract URI getDocumentPath();
 
+	/**
+	 * Get the codec used to write values in compact form. The default of null writes values as JSON. Readers of the
+	 * index must use a codec with the same name table
+	 * 
+	 * @return
+	 */
+	protected CompactValueCodec getValueCodec()
+	{
+		return null;
+	}
+
 	/**
 	 * Convert the specified object into a string representation. This representation should be reversible to recreate
 	 * the original object
@@ -32,6 +43,8 @@ public abstract class IndexWriter
 	 */
 	protected String serialize(Object object)
 	{
-		return JSON.toString(object);
+		CompactValueCodec codec = this.getValueCodec();
+
+		return (codec != null) ? codec.encode(object) : JSON.toString(object);
 	}
 }
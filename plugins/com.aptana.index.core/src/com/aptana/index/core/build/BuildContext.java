@@ -52,6 +52,12 @@ public class BuildContext
 	protected Map<String, Collection<IProblem>> problems;
 	private ParseResult fParseResult;
 
+	/**
+	 * The contents fParseResult was parsed from by {@link #getAST()}, so the participants building this file share a
+	 * single parse. null if it came from a caller supplied parse state.
+	 */
+	private String fParsedContents;
+
 	private String fContents;
 
 	protected BuildContext()
@@ -92,7 +98,17 @@ public class BuildContext
 
 	public IParseRootNode getAST() throws CoreException
 	{
-		return getAST(new ParseState(getContents())).getRootNode();
+		String contents = getContents();
+		synchronized (this)
+		{
+			if (fParseResult != null && fParsedContents != null && fParsedContents.equals(contents))
+			{
+				return fParseResult.getRootNode();
+			}
+			ParseResult result = getAST(new ParseState(contents));
+			fParsedContents = (fParseResult == null) ? null : contents;
+			return result.getRootNode();
+		}
 	}
 
 	/**
@@ -108,6 +124,7 @@ public class BuildContext
 				// FIXME The parsers need to throw a specific SyntaxException or something for us to differentiate
 				// between those and IO errors!
 				WorkingParseResult working = new WorkingParseResult();
+				fParsedContents = null;
 				fParseResult = parse(getContentType(), parseState, working);
 			}
 			catch (CoreException e)
@@ -143,6 +160,7 @@ public class BuildContext
 	public synchronized void resetAST()
 	{
 		fParseResult = null;
+		fParsedContents = null;
 	}
 
 	public synchronized String getContents()
@@ -26,5 +26,6 @@ public class PreferenceInitializer extends AbstractPreferenceInitializer
 		IEclipsePreferences prefs = DefaultScope.INSTANCE.getNode(IndexPlugin.PLUGIN_ID);
 
 		prefs.put(IPreferenceConstants.FILTERED_INDEX_URIS, IPreferenceConstants.NO_ITEMS);
+		prefs.putInt(IPreferenceConstants.INDEX_WORKER_COUNT, IPreferenceConstants.DEFAULT_INDEX_WORKER_COUNT);
 	}
 }
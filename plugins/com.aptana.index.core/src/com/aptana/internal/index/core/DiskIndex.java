@@ -12,23 +12,30 @@ import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.RandomAccessFile;
 import java.io.UTFDataFormatException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import com.aptana.core.logging.IdeLog;
 import com.aptana.core.util.CollectionsUtil;
+import com.aptana.core.util.PlatformUtil;
 import com.aptana.core.util.StringUtil;
 import com.aptana.index.core.Index;
 import com.aptana.index.core.IndexPlugin;
@@ -39,20 +46,53 @@ import com.aptana.index.core.SearchPattern;
  * Yuck this needs to be a random access file that stores the index of documents, category names, and the relationship
  * between them. We need to be careful to allow for quick access into the categories when reading, and to keep filesize
  * down if possible.
+ * <p>
+ * Version 0.2 of the format is read through a read-only memory mapping of the file (on Windows, through a copy of the
+ * file in memory, see {@link #MAP_INDEX_FILES}). Each category table is a fixed-width table of offsets to its entries,
+ * which are sorted by word (see {@link #WORD_ORDER}) so exact and prefix lookups can binary search instead of loading
+ * the whole table. Document numbers are stored as delta-encoded varints. Version 0.1 files are still readable and are
+ * rewritten in the new format on their first merge.
  * 
  * @author cwilliams
  */
 public class DiskIndex
 {
-	private static final String SIGNATURE = "INDEX VERSION 0.1"; //$NON-NLS-1$
+	private static final String SIGNATURE = "INDEX VERSION 0.2"; //$NON-NLS-1$
+	private static final String LEGACY_SIGNATURE = "INDEX VERSION 0.1"; //$NON-NLS-1$
 	private static final int CHUNK_SIZE = 100;
 	private static final int RE_INDEXED = -1;
 	private static final int DELETED = -2;
 	private static final boolean DEBUG = true;
 
+	/**
+	 * Whether index files are memory mapped by default. Windows refuses to delete or replace a file while a mapping of
+	 * it is reachable, and a mapping can't be released explicitly, so a merge could never replace the file it read
+	 * from. There we read the whole file into memory instead, which holds no handle on it once loaded.
+	 */
+	static final boolean MAP_INDEX_FILES = !PlatformUtil.isWindows();
+
+	/**
+	 * Category tables with fewer entries than this are simply scanned for pattern queries; building a
+	 * {@link TermDictionary} for them wouldn't pay off.
+	 */
+	private static final int MIN_TERM_DICTIONARY_SIZE = 64;
+
+	/**
+	 * Order of the entries within a version 0.2 category table. Words sharing a case-insensitive prefix are adjacent, so
+	 * both case-sensitive and case-insensitive exact/prefix queries map to a contiguous range of entries.
+	 */
+	private static final Comparator<String> WORD_ORDER = new Comparator<String>()
+	{
+		public int compare(String o1, String o2)
+		{
+			int result = String.CASE_INSENSITIVE_ORDER.compare(o1, o2);
+
+			return (result != 0) ? result : o1.compareTo(o2);
+		}
+	};
+
 	public File indexFile;
 	private int headerInfoOffset;
-	private int streamRead;
 	private int numberOfChunks;
 	private int sizeOfLastChunk;
 	private int documentReferenceSize;
@@ -66,8 +106,12 @@ public class DiskIndex
 	private Map<String, Map<String, Object>> categoryTables;
 
 	private int streamEnd;
-	private String[][] cachedChunks;
+	private volatile AtomicReferenceArray<String[]> cachedChunks;
 	private String[] categoriesToDiscard;
+	private boolean legacyFormat;
+	private volatile ByteBuffer fileBuffer;
+	private final boolean mapIndexFile;
+	private final Map<String, TermDictionary> termDictionaries = new ConcurrentHashMap<String, TermDictionary>();
 
 	/**
 	 * DiskIndex
@@ -75,8 +119,21 @@ public class DiskIndex
 	 * @param fileName
 	 */
 	public DiskIndex(String fileName)
+	{
+		this(fileName, MAP_INDEX_FILES);
+	}
+
+	/**
+	 * DiskIndex
+	 * 
+	 * @param fileName
+	 * @param mapIndexFile
+	 *            Whether to memory map the file or read it into memory
+	 */
+	DiskIndex(String fileName, boolean mapIndexFile)
 	{
 		this.indexFile = new File(fileName);
+		this.mapIndexFile = mapIndexFile;
 
 		// clear cached items
 		this.headerInfoOffset = -1;
@@ -100,21 +157,34 @@ public class DiskIndex
 	public Set<String> addDocumentNames(String substring, MemoryIndex memoryIndex) throws IOException
 	{
 		// must skip over documents which have been added/changed/deleted in the memory index
+		return addDocumentNamesExcluding(substring, getDocumentNames(memoryIndex));
+	}
+
+	/**
+	 * Returns the document names that start with the given substring (all of them if null), skipping over any
+	 * document in the excluded set.
+	 * 
+	 * @param substring
+	 * @param excludedDocuments
+	 *            may be null
+	 * @return
+	 * @throws IOException
+	 */
+	public Set<String> addDocumentNamesExcluding(String substring, Set<String> excludedDocuments) throws IOException
+	{
 		List<String> docNames = readAllDocumentNames();
 		Set<String> results = new HashSet<String>(docNames.size());
 
 		if (substring == null)
 		{
-			if (memoryIndex == null)
+			if (excludedDocuments == null)
 			{
 				return new HashSet<String>(docNames);
 			}
 
-			Map<String, Map<String, Set<String>>> docsToRefs = memoryIndex.getDocumentsToReferences();
-
 			for (String docName : docNames)
 			{
-				if (!docsToRefs.containsKey(docName))
+				if (!excludedDocuments.contains(docName))
 				{
 					results.add(docName);
 				}
@@ -122,26 +192,12 @@ public class DiskIndex
 		}
 		else
 		{
-			if (memoryIndex == null)
-			{
-				for (String docName : docNames)
-				{
-					if (docName.startsWith(substring, 0))
-					{
-						results.add(docName);
-					}
-				}
-			}
-			else
+			for (String docName : docNames)
 			{
-				Map<String, Map<String, Set<String>>> docsToRefs = memoryIndex.getDocumentsToReferences();
-
-				for (String docName : docNames)
+				if (docName.startsWith(substring, 0)
+						&& (excludedDocuments == null || !excludedDocuments.contains(docName)))
 				{
-					if (docName.startsWith(substring, 0) && !docsToRefs.containsKey(docName))
-					{
-						results.add(docName);
-					}
+					results.add(docName);
 				}
 			}
 		}
@@ -149,20 +205,51 @@ public class DiskIndex
 		return results;
 	}
 
+	/**
+	 * getDocumentNames
+	 * 
+	 * @param memoryIndex
+	 * @return The names of the documents added, changed or deleted in the memory index, or null
+	 */
+	private static Set<String> getDocumentNames(MemoryIndex memoryIndex)
+	{
+		return (memoryIndex == null) ? null : memoryIndex.getDocumentsToReferences().keySet();
+	}
+
 	/**
 	 * addQueryResult
 	 * 
 	 * @param results
 	 * @param word
 	 * @param wordsToDocNumbers
-	 * @param memoryIndex
+	 * @param excludedDocuments
 	 * @return
 	 * @throws IOException
 	 */
 	private Map<String, QueryResult> addQueryResult(Map<String, QueryResult> results, String word,
-			Map<String, Object> wordsToDocNumbers, MemoryIndex memoryIndex) throws IOException
+			Map<String, Object> wordsToDocNumbers, Set<String> excludedDocuments) throws IOException
 	{
-		// must skip over documents which have been added/changed/deleted in the memory index
+		return addQueryResult(results, word, readDocumentNumbers(wordsToDocNumbers.get(word)), wordsToDocNumbers,
+				excludedDocuments);
+	}
+
+	/**
+	 * addQueryResult
+	 * 
+	 * @param results
+	 * @param word
+	 * @param docNumbers
+	 * @param wordsToDocNumbers
+	 *            The category table the word was found in, or null if it was read straight from the file
+	 * @param excludedDocuments
+	 * @return
+	 * @throws IOException
+	 */
+	private Map<String, QueryResult> addQueryResult(Map<String, QueryResult> results, String word,
+			List<Integer> docNumbers, Map<String, Object> wordsToDocNumbers, Set<String> excludedDocuments)
+			throws IOException
+	{
+		// must skip over documents which have been added/changed/deleted in the memory index (or newer segments)
 		if (results == null)
 		{
 			results = new HashMap<String, QueryResult>(13);
@@ -170,7 +257,7 @@ public class DiskIndex
 
 		QueryResult result = results.get(word);
 
-		if (memoryIndex == null)
+		if (excludedDocuments == null)
 		{
 			if (result == null)
 			{
@@ -178,9 +265,10 @@ public class DiskIndex
 				results.put(word, result);
 			}
 
-			result.addDocumentTable(wordsToDocNumbers);
-
-			List<Integer> docNumbers = readDocumentNumbers(wordsToDocNumbers.get(word));
+			if (wordsToDocNumbers != null)
+			{
+				result.addDocumentTable(wordsToDocNumbers);
+			}
 
 			for (Integer docNumber : docNumbers)
 			{
@@ -189,20 +277,16 @@ public class DiskIndex
 		}
 		else
 		{
-			Map<String, Map<String, Set<String>>> docsToRefs = memoryIndex.getDocumentsToReferences();
-
 			if (result == null)
 			{
 				result = new QueryResult(word, null);
 			}
 
-			List<Integer> docNumbers = readDocumentNumbers(wordsToDocNumbers.get(word));
-
 			for (Integer docNumber : docNumbers)
 			{
 				String docName = readDocumentName(docNumber);
 
-				if (!docsToRefs.containsKey(docName))
+				if (!excludedDocuments.contains(docName))
 				{
 					result.addDocumentName(docName);
 				}
@@ -229,6 +313,23 @@ public class DiskIndex
 	 */
 	public Map<String, QueryResult> addQueryResults(String[] categories, String key, int matchRule,
 			MemoryIndex memoryIndex) throws IOException
+	{
+		return addQueryResultsExcluding(categories, key, matchRule, getDocumentNames(memoryIndex));
+	}
+
+	/**
+	 * Queries the index, skipping over any document in the excluded set.
+	 * 
+	 * @param categories
+	 * @param key
+	 * @param matchRule
+	 * @param excludedDocuments
+	 *            may be null
+	 * @return
+	 * @throws IOException
+	 */
+	public Map<String, QueryResult> addQueryResultsExcluding(String[] categories, String key, int matchRule,
+			Set<String> excludedDocuments) throws IOException
 	{
 		// assumes sender has called startQuery() & will call stopQuery() when finished
 		if (this.categoryOffsets == null)
@@ -252,7 +353,14 @@ public class DiskIndex
 			key = null;
 		}
 
-		if (key == null)
+		if (!this.legacyFormat)
+		{
+			for (String category : categories)
+			{
+				results = addMappedQueryResults(results, category, key, matchRule, excludedDocuments);
+			}
+		}
+		else if (key == null)
 		{
 			for (int i = 0, l = categories.length; i < l; i++)
 			{
@@ -271,7 +379,7 @@ public class DiskIndex
 					{
 						if (word != null)
 						{
-							results = addQueryResult(results, word, wordsToDocNumbers, memoryIndex);
+							results = addQueryResult(results, word, wordsToDocNumbers, excludedDocuments);
 						}
 					}
 				}
@@ -293,7 +401,7 @@ public class DiskIndex
 
 						if (wordsToDocNumbers != null && wordsToDocNumbers.containsKey(key))
 						{
-							results = addQueryResult(results, key, wordsToDocNumbers, memoryIndex);
+							results = addQueryResult(results, key, wordsToDocNumbers, excludedDocuments);
 						}
 					}
 					break;
@@ -309,7 +417,7 @@ public class DiskIndex
 							{
 								if (word != null && word.startsWith(key))
 								{
-									results = addQueryResult(results, word, wordsToDocNumbers, memoryIndex);
+									results = addQueryResult(results, word, wordsToDocNumbers, excludedDocuments);
 								}
 							}
 						}
@@ -327,7 +435,7 @@ public class DiskIndex
 							{
 								if (word != null && Index.isMatch(key, word, matchRule))
 								{
-									results = addQueryResult(results, word, wordsToDocNumbers, memoryIndex);
+									results = addQueryResult(results, word, wordsToDocNumbers, excludedDocuments);
 								}
 							}
 						}
@@ -338,6 +446,234 @@ public class DiskIndex
 		return results;
 	}
 
+	/**
+	 * Adds the query results for a single category of a version 0.2 index. Exact and prefix queries binary search the
+	 * sorted entries of the category and only decode the contiguous range of candidate words. Anchored regex queries do
+	 * the same for each of their literal prefixes, and pattern queries only visit the candidates returned by the
+	 * category's {@link TermDictionary}. Anything else visits every entry.
+	 * 
+	 * @param results
+	 * @param categoryName
+	 * @param key
+	 * @param matchRule
+	 * @param excludedDocuments
+	 * @return
+	 * @throws IOException
+	 */
+	private Map<String, QueryResult> addMappedQueryResults(Map<String, QueryResult> results, String categoryName,
+			String key, int matchRule, Set<String> excludedDocuments) throws IOException
+	{
+		Integer tableOffset = this.categoryOffsets.get(categoryName);
+		ByteBuffer buffer = this.fileBuffer;
+
+		if (tableOffset == null || buffer == null)
+		{
+			return results;
+		}
+
+		int table = tableOffset.intValue();
+		int size = buffer.getInt(table);
+
+		if (key != null)
+		{
+			switch (matchRule)
+			{
+				case SearchPattern.EXACT_MATCH:
+				case SearchPattern.EXACT_MATCH | SearchPattern.CASE_SENSITIVE:
+				case SearchPattern.PREFIX_MATCH:
+				case SearchPattern.PREFIX_MATCH | SearchPattern.CASE_SENSITIVE:
+					return addMappedRangeResults(results, buffer, table, size, key, key, matchRule, excludedDocuments);
+
+				case SearchPattern.REGEX_MATCH:
+				case SearchPattern.REGEX_MATCH | SearchPattern.CASE_SENSITIVE:
+				{
+					List<String> prefixes = TermDictionary.getRegexPrefixes(key);
+
+					if (prefixes != null)
+					{
+						for (String prefix : prefixes)
+						{
+							results = addMappedRangeResults(results, buffer, table, size, prefix, key, matchRule,
+									excludedDocuments);
+						}
+
+						return results;
+					}
+					break;
+				}
+
+				case SearchPattern.PATTERN_MATCH:
+				case SearchPattern.PATTERN_MATCH | SearchPattern.CASE_SENSITIVE:
+				{
+					TermDictionary dictionary = getTermDictionary(categoryName, buffer, table, size);
+					int[] candidates = (dictionary != null) ? dictionary.getCandidates(key) : null;
+
+					if (candidates != null)
+					{
+						for (int candidate : candidates)
+						{
+							results = addMappedEntryResult(results, buffer, table, candidate, key, matchRule,
+									excludedDocuments);
+						}
+
+						return results;
+					}
+					break;
+				}
+
+				default:
+					break;
+			}
+		}
+
+		for (int i = 0; i < size; i++)
+		{
+			results = addMappedEntryResult(results, buffer, table, i, key, matchRule, excludedDocuments);
+		}
+
+		return results;
+	}
+
+	/**
+	 * Adds the query results for a single entry of a version 0.2 category table, if its word matches the key.
+	 * 
+	 * @param results
+	 * @param buffer
+	 * @param table
+	 * @param entry
+	 * @param key
+	 *            may be null, which matches every word
+	 * @param matchRule
+	 * @param excludedDocuments
+	 * @return
+	 * @throws IOException
+	 */
+	private Map<String, QueryResult> addMappedEntryResult(Map<String, QueryResult> results, ByteBuffer buffer,
+			int table, int entry, String key, int matchRule, Set<String> excludedDocuments) throws IOException
+	{
+		InputStream stream = new MappedIndexInputStream(buffer, buffer.getInt(table + 4 + 4 * entry));
+		String word = readString(stream);
+
+		if (key == null || Index.isMatch(key, word, matchRule))
+		{
+			results = addQueryResult(results, word, readVarIntDocumentArray(stream), null, excludedDocuments);
+		}
+
+		return results;
+	}
+
+	/**
+	 * Adds the query results for the contiguous range of entries in a version 0.2 category table whose words start
+	 * with the specified prefix (ignoring case) and match the key.
+	 * 
+	 * @param results
+	 * @param buffer
+	 * @param table
+	 * @param size
+	 * @param prefix
+	 * @param key
+	 * @param matchRule
+	 * @param excludedDocuments
+	 * @return
+	 * @throws IOException
+	 */
+	private Map<String, QueryResult> addMappedRangeResults(Map<String, QueryResult> results, ByteBuffer buffer,
+			int table, int size, String prefix, String key, int matchRule, Set<String> excludedDocuments)
+			throws IOException
+	{
+		int prefixLength = prefix.length();
+
+		for (int i = findFirstEntry(buffer, table, size, prefix); i < size; i++)
+		{
+			InputStream stream = new MappedIndexInputStream(buffer, buffer.getInt(table + 4 + 4 * i));
+			String word = readString(stream);
+
+			if (!word.regionMatches(true, 0, prefix, 0, prefixLength))
+			{
+				break; // we've walked past the words starting with the prefix
+			}
+
+			if (Index.isMatch(key, word, matchRule))
+			{
+				results = addQueryResult(results, word, readVarIntDocumentArray(stream), null, excludedDocuments);
+			}
+		}
+
+		return results;
+	}
+
+	/**
+	 * Returns the term dictionary for a version 0.2 category table, building it on first use. Returns null for tables
+	 * too small to bother.
+	 * 
+	 * @param categoryName
+	 * @param buffer
+	 * @param table
+	 * @param size
+	 * @return
+	 * @throws IOException
+	 */
+	private TermDictionary getTermDictionary(String categoryName, ByteBuffer buffer, int table, int size)
+			throws IOException
+	{
+		if (size < MIN_TERM_DICTIONARY_SIZE)
+		{
+			return null;
+		}
+
+		TermDictionary dictionary = this.termDictionaries.get(categoryName);
+
+		// the file never changes once mapped, so a dictionary built by a racing query is just as good
+		if (dictionary == null || dictionary.size() != size)
+		{
+			List<String> words = new ArrayList<String>(size);
+
+			for (int i = 0; i < size; i++)
+			{
+				words.add(readString(new MappedIndexInputStream(buffer, buffer.getInt(table + 4 + 4 * i))));
+			}
+
+			dictionary = new TermDictionary(words);
+			this.termDictionaries.put(categoryName, dictionary);
+		}
+
+		return dictionary;
+	}
+
+	/**
+	 * Returns the index of the first entry in a version 0.2 category table whose word is not less than the key, using
+	 * a case-insensitive comparison.
+	 * 
+	 * @param buffer
+	 * @param table
+	 * @param size
+	 * @param key
+	 * @return
+	 * @throws IOException
+	 */
+	private int findFirstEntry(ByteBuffer buffer, int table, int size, String key) throws IOException
+	{
+		int low = 0;
+		int high = size;
+
+		while (low < high)
+		{
+			int mid = (low + high) >>> 1;
+			String word = readString(new MappedIndexInputStream(buffer, buffer.getInt(table + 4 + 4 * mid)));
+
+			if (String.CASE_INSENSITIVE_ORDER.compare(word, key) < 0)
+			{
+				low = mid + 1;
+			}
+			else
+			{
+				high = mid;
+			}
+		}
+
+		return low;
+	}
+
 	/**
 	 * cacheDocumentNames
 	 * 
@@ -346,29 +682,22 @@ public class DiskIndex
 	private void cacheDocumentNames() throws IOException
 	{
 		// will need all document names so get them now
-		this.cachedChunks = new String[this.numberOfChunks][];
+		AtomicReferenceArray<String[]> chunks = new AtomicReferenceArray<String[]>(this.numberOfChunks);
 
-		InputStream stream = new BufferedInputStream(new FileInputStream(this.indexFile));
+		InputStream stream = openStream(this.chunkOffsets[0]);
 
 		try
 		{
-			// if (this.numberOfChunks > 5)
-			// BUFFER_READ_SIZE <<= 1;
-			int offset = this.chunkOffsets[0];
-
-			skip(stream, offset);
-
 			for (int i = 0; i < this.numberOfChunks; i++)
 			{
 				int size = i == this.numberOfChunks - 1 ? this.sizeOfLastChunk : CHUNK_SIZE;
+				String[] chunk = new String[size];
 
-				readChunk(this.cachedChunks[i] = new String[size], stream, 0, size);
+				readChunk(chunk, stream, 0, size);
+				chunks.set(i, chunk);
 			}
-		}
-		catch (IOException e)
-		{
-			this.cachedChunks = null;
-			throw e;
+
+			this.cachedChunks = chunks;
 		}
 		finally
 		{
@@ -638,15 +967,23 @@ public class DiskIndex
 			if (reuseExistingFile)
 			{
 				// read it in!
-				InputStream stream = new BufferedInputStream(new FileInputStream(this.indexFile));
+				CountingInputStream stream = new CountingInputStream(new BufferedInputStream(new FileInputStream(
+						this.indexFile)));
 
 				try
 				{
-					streamRead = 0;
-
 					String signature = readString(stream);
 
-					if (!signature.equals(SIGNATURE))
+					if (signature.equals(SIGNATURE))
+					{
+						this.legacyFormat = false;
+					}
+					else if (signature.equals(LEGACY_SIGNATURE))
+					{
+						// read as-is, the file is rewritten in the current format on the next merge
+						this.legacyFormat = true;
+					}
+					else
 					{
 						throw new IOException(Messages.DiskIndex_Wrong_Format);
 					}
@@ -655,7 +992,7 @@ public class DiskIndex
 
 					if (this.headerInfoOffset > 0)
 					{ // file is empty if its not set
-						skip(stream, this.headerInfoOffset - this.streamRead); // assume that the header info offset is
+						skip(stream, this.headerInfoOffset - stream.count); // assume that the header info offset is
 						// over
 						// current buffer end
 						readHeaderInfo(stream);
@@ -665,10 +1002,15 @@ public class DiskIndex
 				{
 					stream.close();
 				}
+
+				if (this.headerInfoOffset > 0)
+				{
+					mapIndexFile();
+				}
 				return;
 			}
 
-			if (!this.indexFile.delete())
+			if (!deleteIndexFile())
 			{
 				if (DEBUG)
 				{
@@ -705,6 +1047,98 @@ public class DiskIndex
 		}
 	}
 
+	/**
+	 * Maps the index file into memory, or reads it all in if we don't map index files. All subsequent reads go through
+	 * the buffer; the file is never modified in place once written, a merge always produces a new file.
+	 * 
+	 * @throws IOException
+	 */
+	private void mapIndexFile() throws IOException
+	{
+		RandomAccessFile file = new RandomAccessFile(this.indexFile, "r"); //$NON-NLS-1$
+
+		try
+		{
+			FileChannel channel = file.getChannel();
+
+			if (this.mapIndexFile)
+			{
+				// the mapping stays valid after the channel is closed
+				this.fileBuffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			}
+			else
+			{
+				this.fileBuffer = readFully(channel);
+			}
+			this.termDictionaries.clear();
+		}
+		finally
+		{
+			file.close();
+		}
+	}
+
+	/**
+	 * Reads the whole of the channel into a heap buffer
+	 * 
+	 * @param channel
+	 * @return
+	 * @throws IOException
+	 */
+	private ByteBuffer readFully(FileChannel channel) throws IOException
+	{
+		ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+
+		while (buffer.hasRemaining())
+		{
+			if (channel.read(buffer) < 0)
+			{
+				throw new IOException(MessageFormat.format(
+						"Unexpected end of index file ''{0}''", this.indexFile.getAbsolutePath())); //$NON-NLS-1$
+			}
+		}
+		buffer.flip();
+
+		return buffer;
+	}
+
+	/**
+	 * Drops our buffer of the index file and deletes it. A file that is memory mapped can't be deleted on Windows,
+	 * which is why we never map there (see {@link #MAP_INDEX_FILES}).
+	 * 
+	 * @return
+	 */
+	boolean deleteIndexFile()
+	{
+		this.fileBuffer = null;
+		this.termDictionaries.clear();
+
+		return this.indexFile.delete();
+	}
+
+	/**
+	 * Opens a stream positioned at the given offset of the index file.
+	 * 
+	 * @param offset
+	 * @return
+	 * @throws IOException
+	 */
+	private InputStream openStream(int offset) throws IOException
+	{
+		ByteBuffer buffer = this.fileBuffer;
+
+		if (buffer != null)
+		{
+			return new MappedIndexInputStream(buffer, offset);
+		}
+
+		InputStream stream = new BufferedInputStream(new FileInputStream(this.indexFile));
+
+		skip(stream, offset);
+
+		return stream;
+	}
+
 	/**
 	 * initializeFrom
 	 * 
@@ -847,7 +1281,10 @@ public class DiskIndex
 				}
 			}
 
-			onDisk.categoryTables.put(categoryName, null); // flush cached table
+			if (onDisk.categoryTables != null)
+			{
+				onDisk.categoryTables.put(categoryName, null); // flush cached table
+			}
 		}
 
 		writeCategoryTable(categoryName, wordsToDocs, stream);
@@ -881,7 +1318,7 @@ public class DiskIndex
 			}
 
 			// index is now empty since all the saved documents were removed
-			DiskIndex newDiskIndex = new DiskIndex(this.indexFile.getPath());
+			DiskIndex newDiskIndex = new DiskIndex(this.indexFile.getPath(), this.mapIndexFile);
 			newDiskIndex.initialize(false);
 
 			return newDiskIndex;
@@ -889,7 +1326,7 @@ public class DiskIndex
 
 		this.streamEnd = 0;
 
-		DiskIndex newDiskIndex = new DiskIndex(this.indexFile.getPath() + ".tmp"); //$NON-NLS-1$
+		DiskIndex newDiskIndex = new DiskIndex(this.indexFile.getPath() + ".tmp", this.mapIndexFile); //$NON-NLS-1$
 
 		try
 		{
@@ -941,7 +1378,7 @@ public class DiskIndex
 			newDiskIndex.writeOffsetToHeader(offsetToHeader);
 
 			// rename file by deleting previous index file & renaming temp one
-			if (this.indexFile.exists() && !this.indexFile.delete())
+			if (this.indexFile.exists() && !deleteIndexFile())
 			{
 				throw new IOException("Failed to delete index file " + this.indexFile); //$NON-NLS-1$
 			}
@@ -965,6 +1402,7 @@ public class DiskIndex
 		}
 
 		newDiskIndex.indexFile = this.indexFile;
+		newDiskIndex.mapIndexFile();
 
 		return newDiskIndex;
 	}
@@ -978,11 +1416,7 @@ public class DiskIndex
 	 */
 	private int read(InputStream stream) throws IOException
 	{
-		int val = stream.read();
-
-		streamRead++;
-
-		return val;
+		return stream.read();
 	}
 
 	/**
@@ -991,21 +1425,17 @@ public class DiskIndex
 	 * @return
 	 * @throws IOException
 	 */
-	private synchronized List<String> readAllDocumentNames() throws IOException
+	private List<String> readAllDocumentNames() throws IOException
 	{
 		if (this.numberOfChunks <= 0)
 		{
 			return Collections.emptyList();
 		}
 
-		InputStream stream = new BufferedInputStream(new FileInputStream(this.indexFile));
+		InputStream stream = openStream(this.chunkOffsets[0]);
 
 		try
 		{
-			int offset = this.chunkOffsets[0];
-
-			skip(stream, offset);
-
 			int lastIndex = this.numberOfChunks - 1;
 
 			String[] docNames = new String[lastIndex * CHUNK_SIZE + sizeOfLastChunk];
@@ -1031,7 +1461,69 @@ public class DiskIndex
 	 * @return
 	 * @throws IOException
 	 */
-	private synchronized Map<String, Object> readCategoryTable(String categoryName, boolean readDocNumbers)
+	private Map<String, Object> readCategoryTable(String categoryName, boolean readDocNumbers) throws IOException
+	{
+		if (this.legacyFormat)
+		{
+			return readLegacyCategoryTable(categoryName, readDocNumbers);
+		}
+
+		// result will be null if categoryName is unknown
+		Integer offset = this.categoryOffsets.get(categoryName);
+
+		if (offset == null)
+		{
+			return null;
+		}
+
+		// The mapped file is our cache, so the table is decoded fresh and always includes the document numbers
+		InputStream stream = openStream(offset);
+
+		try
+		{
+			int size = readStreamInt(stream);
+			int[] entryOffsets = new int[size];
+
+			for (int i = 0; i < size; i++)
+			{
+				entryOffsets[i] = readStreamInt(stream);
+			}
+
+			Map<String, Object> categoryTable = new HashMap<String, Object>(size);
+
+			for (int entryOffset : entryOffsets)
+			{
+				InputStream entry = openStream(entryOffset);
+
+				try
+				{
+					String word = readString(entry);
+
+					categoryTable.put(word, readVarIntDocumentArray(entry));
+				}
+				finally
+				{
+					entry.close();
+				}
+			}
+
+			return categoryTable;
+		}
+		finally
+		{
+			stream.close();
+		}
+	}
+
+	/**
+	 * Reads a category table from a version 0.1 index file, caching it.
+	 * 
+	 * @param categoryName
+	 * @param readDocNumbers
+	 * @return
+	 * @throws IOException
+	 */
+	private synchronized Map<String, Object> readLegacyCategoryTable(String categoryName, boolean readDocNumbers)
 			throws IOException
 	{
 		// result will be null if categoryName is unknown
@@ -1073,7 +1565,8 @@ public class DiskIndex
 			}
 		}
 
-		InputStream stream = new BufferedInputStream(new FileInputStream(this.indexFile));
+		// skip to start of category
+		InputStream stream = openStream(offset);
 		Map<String, Object> categoryTable = null;
 		String[] matchingWords = null;
 		int count = 0;
@@ -1081,8 +1574,6 @@ public class DiskIndex
 
 		try
 		{
-			// skip to start of category
-			skip(stream, offset);
 
 			// Read the number of words in the category
 			int size = readStreamInt(stream);
@@ -1180,11 +1671,10 @@ public class DiskIndex
 
 		if (matchingWords != null && count > 0)
 		{
-			stream = new BufferedInputStream(new FileInputStream(this.indexFile));
+			stream = openStream(firstOffset);
 
 			try
 			{
-				skip(stream, firstOffset);
 
 				for (int i = 0; i < count; i++)
 				{ // each array follows the previous one
@@ -1257,15 +1747,19 @@ public class DiskIndex
 	 * @return
 	 * @throws IOException
 	 */
-	private synchronized String readDocumentName(int docNumber) throws IOException
+	private String readDocumentName(int docNumber) throws IOException
 	{
-		if (this.cachedChunks == null)
+		// No lock: two readers may decode the same chunk concurrently, in which case one result is simply dropped
+		AtomicReferenceArray<String[]> chunks = this.cachedChunks;
+
+		if (chunks == null)
 		{
-			this.cachedChunks = new String[this.numberOfChunks][];
+			chunks = new AtomicReferenceArray<String[]>(this.numberOfChunks);
+			this.cachedChunks = chunks;
 		}
 
 		int chunkNumber = docNumber / CHUNK_SIZE;
-		String[] chunk = this.cachedChunks[chunkNumber];
+		String[] chunk = chunks.get(chunkNumber);
 
 		if (chunk == null)
 		{
@@ -1278,12 +1772,10 @@ public class DiskIndex
 				throw new IllegalArgumentException();
 			}
 
-			InputStream file = new BufferedInputStream(new FileInputStream(this.indexFile));
+			InputStream file = openStream(start);
 
 			try
 			{
-				skip(file, start);
-
 				int numberOfNames = isLastChunk ? this.sizeOfLastChunk : CHUNK_SIZE;
 
 				chunk = new String[numberOfNames];
@@ -1298,7 +1790,7 @@ public class DiskIndex
 				file.close();
 			}
 
-			this.cachedChunks[chunkNumber] = chunk;
+			chunks.set(chunkNumber, chunk);
 		}
 
 		return chunk[docNumber - (chunkNumber * CHUNK_SIZE)];
@@ -1312,7 +1804,7 @@ public class DiskIndex
 	 * @throws IOException
 	 */
 	private @SuppressWarnings("unchecked")
-	synchronized List<Integer> readDocumentNumbers(Object arrayOffset) throws IOException
+	List<Integer> readDocumentNumbers(Object arrayOffset) throws IOException
 	{
 		// arrayOffset is either a cached array of docNumbers or an Integer offset in the file
 		if (arrayOffset instanceof List<?>)
@@ -1320,14 +1812,10 @@ public class DiskIndex
 			return (List<Integer>) arrayOffset;
 		}
 
-		InputStream stream = new BufferedInputStream(new FileInputStream(this.indexFile));
+		InputStream stream = openStream(((Integer) arrayOffset).intValue());
 
 		try
 		{
-			int offset = ((Integer) arrayOffset).intValue();
-
-			skip(stream, offset);
-
 			return readStreamDocumentArray(stream, readStreamInt(stream));
 		}
 		finally
@@ -1435,6 +1923,66 @@ public class DiskIndex
 		return val + (read(stream) & 0xFF);
 	}
 
+	/**
+	 * Reads an unsigned variable-length int, 7 bits per byte with the high bit set on all but the last byte.
+	 * 
+	 * @param stream
+	 * @return
+	 * @throws IOException
+	 */
+	private int readStreamVarInt(InputStream stream) throws IOException
+	{
+		int value = 0;
+		int shift = 0;
+		int b;
+
+		do
+		{
+			b = read(stream);
+
+			if (b == -1)
+			{
+				throw new IOException(MessageFormat.format(
+						"Unexpected end of index file ''{0}'' reading a varint", indexFile.getAbsolutePath())); //$NON-NLS-1$
+			}
+
+			value |= (b & 0x7F) << shift;
+			shift += 7;
+		}
+		while ((b & 0x80) != 0);
+
+		return value;
+	}
+
+	/**
+	 * Reads a document number array written by {@link #writeDocumentNumbers(List, OutputStream)}: the number of
+	 * elements followed by the delta from the previous (sorted) document number for each.
+	 * 
+	 * @param stream
+	 * @return
+	 * @throws IOException
+	 */
+	private List<Integer> readVarIntDocumentArray(InputStream stream) throws IOException
+	{
+		int arraySize = readStreamVarInt(stream);
+
+		if (arraySize == 0)
+		{
+			return Collections.emptyList();
+		}
+
+		List<Integer> docNumbers = new ArrayList<Integer>(arraySize);
+		int value = 0;
+
+		for (int i = 0; i < arraySize; i++)
+		{
+			value += readStreamVarInt(stream);
+			docNumbers.add(value);
+		}
+
+		return docNumbers;
+	}
+
 	/**
 	 * readString
 	 * 
@@ -1622,59 +2170,25 @@ public class DiskIndex
 		}
 
 		// the format of a category table is as follows:
-		// any document number arrays with >= 256 elements are written before the table (the offset to each array is
-		// remembered)
-		// then the number of word->int[] pairs in the table is written
-		// for each word -> int[] pair, the word is written followed by:
-		// an int <= 0 if the array size == 1
-		// an int > 1 & < 256 for the size of the array if its > 1 & < 256, the document array follows immediately
-		// 256 if the array size >= 256 followed by another int which is the offset to the array (written prior to the
-		// table)
-
-		Map<String, Integer> longArrays = new HashMap<String, Integer>();
-		int largeArraySize = 256;
-
-		for (Map.Entry<String, Object> entry : wordsToDocs.entrySet())
-		{
-			List<Integer> docNumbers = (List<Integer>) entry.getValue();
-
-			if (docNumbers.size() >= largeArraySize)
-			{
-				longArrays.put(entry.getKey(), new Integer(this.streamEnd));
-				writeDocumentNumbers(docNumbers, stream);
-			}
-		}
-
-		this.categoryOffsets.put(categoryName, this.streamEnd); // remember the offset to the start of the table
-		this.categoryTables.put(categoryName, null); // flush cached table
-		writeStreamInt(stream, wordsToDocs.size());
+		// each entry is written first: the word followed by its document number array (see writeDocumentNumbers), in
+		// WORD_ORDER
+		// then the table itself, whose offset is remembered as the category offset: the number of entries followed by
+		// a fixed-width (4 byte) offset to each entry, in the same order
+		List<String> words = new ArrayList<String>(wordsToDocs.keySet());
+		Collections.sort(words, WORD_ORDER);
+
+		int[] entryOffsets = new int[words.size()];
+		int count = 0;
 
-		for (Map.Entry<String, Object> entry : wordsToDocs.entrySet())
+		for (String word : words)
 		{
 			try
 			{
-				writeString(stream, entry.getKey());
-
-				if (longArrays.containsKey(entry.getKey()))
-				{
-					writeStreamInt(stream, largeArraySize); // mark to identify that an offset follows
-					writeStreamInt(stream, longArrays.get(entry.getKey()).intValue()); // offset in the file of the
-																						// array of
-					// document numbers
-				}
-				else
-				{
-					List<Integer> documentNumbers = (List<Integer>) entry.getValue();
+				int entryOffset = this.streamEnd;
 
-					if (documentNumbers.size() == 1)
-					{
-						writeStreamInt(stream, -documentNumbers.get(0));
-					}
-					else
-					{
-						writeDocumentNumbers(documentNumbers, stream);
-					}
-				}
+				writeString(stream, word);
+				writeDocumentNumbers((List<Integer>) wordsToDocs.get(word), stream);
+				entryOffsets[count++] = entryOffset;
 			}
 			catch (IOException ioe)
 			{
@@ -1684,6 +2198,15 @@ public class DiskIndex
 				// break our knowledge of some property/type in JS but will allow indexing to continue.
 			}
 		}
+
+		this.categoryOffsets.put(categoryName, this.streamEnd); // remember the offset to the start of the table
+		this.categoryTables.put(categoryName, null); // flush cached table
+		writeStreamInt(stream, count);
+
+		for (int i = 0; i < count; i++)
+		{
+			writeStreamInt(stream, entryOffsets[i]);
+		}
 	}
 
 	/**
@@ -1794,36 +2317,19 @@ public class DiskIndex
 	 */
 	private void writeDocumentNumbers(List<Integer> documentNumbers, OutputStream stream) throws IOException
 	{
-		// must store length as a positive int to detect in-lined array of 1 element
-		int length = documentNumbers.size();
-
-		writeStreamInt(stream, length);
+		// the length, followed by the sorted document numbers, each stored as the delta to the previous one
+		writeStreamVarInt(stream, documentNumbers.size());
 		Collections.sort(documentNumbers);
 
+		int previous = 0;
+
 		for (Integer docNumber : documentNumbers)
 		{
 			int value = docNumber.intValue();
 
-			switch (this.documentReferenceSize)
-			{
-				case 1:
-					stream.write((byte) value);
-					this.streamEnd++;
-					break;
-
-				case 2:
-					stream.write((byte) (value >> 8));
-					stream.write((byte) value);
-					this.streamEnd += 2;
-					break;
-
-				default:
-					writeStreamInt(stream, value);
-					break;
-			}
+			writeStreamVarInt(stream, value - previous);
+			previous = value;
 		}
-
-		stream.flush();
 	}
 
 	/**
@@ -1904,6 +2410,27 @@ public class DiskIndex
 		stream.flush();
 	}
 
+	/**
+	 * writeStreamVarInt
+	 * 
+	 * @param stream
+	 * @param val
+	 *            A non-negative value
+	 * @throws IOException
+	 */
+	private void writeStreamVarInt(OutputStream stream, int val) throws IOException
+	{
+		while ((val & ~0x7F) != 0)
+		{
+			stream.write((byte) ((val & 0x7F) | 0x80));
+			this.streamEnd++;
+			val >>>= 7;
+		}
+
+		stream.write((byte) val);
+		this.streamEnd++;
+	}
+
 	/**
 	 * writeString
 	 * 
@@ -1975,4 +2502,54 @@ public class DiskIndex
 
 		stream.flush();
 	}
+
+	/**
+	 * Counts the bytes read through it, so {@link #initialize(boolean)} knows where it is in the file without keeping
+	 * that in a field every reader would share.
+	 */
+	private static class CountingInputStream extends FilterInputStream
+	{
+		int count;
+
+		CountingInputStream(InputStream in)
+		{
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException
+		{
+			int val = super.read();
+
+			if (val != -1)
+			{
+				count++;
+			}
+
+			return val;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException
+		{
+			int read = super.read(b, off, len);
+
+			if (read > 0)
+			{
+				count += read;
+			}
+
+			return read;
+		}
+
+		@Override
+		public long skip(long n) throws IOException
+		{
+			long skipped = super.skip(n);
+
+			count += skipped;
+
+			return skipped;
+		}
+	}
 }
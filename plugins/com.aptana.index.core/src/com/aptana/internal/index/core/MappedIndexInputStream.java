@@ -0,0 +1,101 @@
+/**
+ * Aptana Studio
+ * Copyright (c) 2005-2013 by Appcelerator, Inc. All Rights Reserved.
+ * Licensed under the terms of the Eclipse Public License (EPL).
+ * Please see the license-epl.html included with this distribution for details.
+ * Any modifications to this file must keep this entire header intact.
+ */
+package com.aptana.internal.index.core;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * An {@link InputStream} view over a region of a (memory-mapped) index file. Only absolute reads are performed on the
+ * underlying buffer, so any number of these streams may read the same buffer concurrently without locking. Closing
+ * the stream is a no-op.
+ */
+class MappedIndexInputStream extends InputStream
+{
+	private final ByteBuffer buffer;
+	private int position;
+
+	/**
+	 * MappedIndexInputStream
+	 * 
+	 * @param buffer
+	 * @param offset
+	 */
+	MappedIndexInputStream(ByteBuffer buffer, int offset)
+	{
+		this.buffer = buffer;
+		this.position = offset;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.io.InputStream#available()
+	 */
+	@Override
+	public int available()
+	{
+		return Math.max(0, buffer.limit() - position);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.io.InputStream#read()
+	 */
+	@Override
+	public int read()
+	{
+		if (position >= buffer.limit())
+		{
+			return -1;
+		}
+
+		return buffer.get(position++) & 0xFF;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.io.InputStream#read(byte[], int, int)
+	 */
+	@Override
+	public int read(byte[] b, int off, int len)
+	{
+		int available = available();
+
+		if (available == 0)
+		{
+			return (len == 0) ? 0 : -1;
+		}
+
+		int count = Math.min(len, available);
+
+		for (int i = 0; i < count; i++)
+		{
+			b[off + i] = buffer.get(position++);
+		}
+
+		return count;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.io.InputStream#skip(long)
+	 */
+	@Override
+	public long skip(long n)
+	{
+		if (n <= 0)
+		{
+			return 0;
+		}
+
+		int skipped = (int) Math.min(n, available());
+		position += skipped;
+
+		return skipped;
+	}
+}
@@ -0,0 +1,607 @@
+/**
+ * Aptana Studio
+ * Copyright (c) 2005-2013 by Appcelerator, Inc. All Rights Reserved.
+ * Licensed under the terms of the Eclipse Public License (EPL).
+ * Please see the license-epl.html included with this distribution for details.
+ * Any modifications to this file must keep this entire header intact.
+ */
+package com.aptana.internal.index.core;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import com.aptana.core.logging.IdeLog;
+import com.aptana.index.core.IndexPlugin;
+import com.aptana.index.core.QueryResult;
+import com.aptana.index.core.SearchPattern;
+
+/**
+ * The on-disk part of an index: one large base {@link DiskIndex} plus a short list of small, immutable segment files
+ * (named after the base file with a ".seg&lt;n&gt;" suffix). Saving a {@link MemoryIndex} normally appends it as a new
+ * segment, so the cost of a save is proportional to the size of the change rather than the size of the index. Once the
+ * segments grow too many or too large relative to the base they are compacted into the base in one merge.
+ * <p>
+ * A segment hides every document it contains from the older segments and the base. Documents deleted in a segment are
+ * recorded as tombstones: entries in the reserved {@link #TOMBSTONE_CATEGORY} category, which is never returned from
+ * queries.
+ * <p>
+ * Like {@link DiskIndex}, this class assumes the caller holds the index write lock while merging and a read lock while
+ * querying.
+ */
+public class SegmentedDiskIndex
+{
+	/**
+	 * Category holding a segment's deleted documents. The word and document of each entry is the deleted document.
+	 */
+	static final String TOMBSTONE_CATEGORY = "__deleted_documents__"; //$NON-NLS-1$
+
+	private static final String SEGMENT_SUFFIX = ".seg"; //$NON-NLS-1$
+
+	/**
+	 * Compact once we have this many segments...
+	 */
+	private static final int MAX_SEGMENTS = 8;
+
+	/**
+	 * ...or once the segments add up to more than this fraction of the base index.
+	 */
+	private static final int MAX_SEGMENTS_SIZE_RATIO = 4;
+
+	/**
+	 * Segments smaller than this never count against the size ratio, so tiny base indices don't compact on every save.
+	 */
+	private static final long MIN_SEGMENTS_SIZE = 64 * 1024;
+
+	/**
+	 * Memory indices with at least this many changed documents are merged straight into the base.
+	 */
+	private static final int MAX_SEGMENT_DOCUMENTS = 1000;
+
+	/**
+	 * A single immutable segment file.
+	 */
+	private static class Segment
+	{
+		final int number;
+		final DiskIndex index;
+		final Set<String> documents;
+		final Set<String> deletedDocuments;
+
+		Segment(int number, DiskIndex index) throws IOException
+		{
+			this.number = number;
+			this.index = index;
+			this.documents = new HashSet<String>(index.getDocuments());
+			this.deletedDocuments = new HashSet<String>();
+
+			Map<String, QueryResult> tombstones = index.addQueryResultsExcluding(new String[] { TOMBSTONE_CATEGORY },
+					null, SearchPattern.PREFIX_MATCH, null);
+			if (tombstones != null)
+			{
+				deletedDocuments.addAll(tombstones.keySet());
+			}
+		}
+	}
+
+	public File indexFile;
+	private DiskIndex base;
+	// oldest first
+	private List<Segment> segments;
+
+	/**
+	 * SegmentedDiskIndex
+	 * 
+	 * @param fileName
+	 *            The path of the base index file
+	 */
+	public SegmentedDiskIndex(String fileName)
+	{
+		this.indexFile = new File(fileName);
+		this.base = new DiskIndex(fileName);
+		this.segments = new ArrayList<Segment>();
+	}
+
+	/**
+	 * initialize
+	 * 
+	 * @param reuseExistingFile
+	 * @throws IOException
+	 */
+	public void initialize(boolean reuseExistingFile) throws IOException
+	{
+		this.base.initialize(reuseExistingFile);
+		this.segments.clear();
+
+		Map<Integer, File> segmentFiles = getSegmentFiles();
+
+		for (Map.Entry<Integer, File> entry : segmentFiles.entrySet())
+		{
+			File file = entry.getValue();
+
+			if (!reuseExistingFile)
+			{
+				deleteFile(file);
+				continue;
+			}
+
+			DiskIndex segmentIndex = new DiskIndex(file.getPath());
+			segmentIndex.initialize(true);
+			this.segments.add(new Segment(entry.getKey(), segmentIndex));
+		}
+	}
+
+	/**
+	 * addDocumentNames
+	 * 
+	 * @param substring
+	 * @param memoryIndex
+	 * @return
+	 * @throws IOException
+	 */
+	public Set<String> addDocumentNames(String substring, MemoryIndex memoryIndex) throws IOException
+	{
+		if (this.segments.isEmpty())
+		{
+			return this.base.addDocumentNames(substring, memoryIndex);
+		}
+
+		Set<String> excluded = newExcludedDocuments(memoryIndex);
+		Set<String> results = new HashSet<String>();
+
+		for (int i = this.segments.size() - 1; i >= 0; i--)
+		{
+			Segment segment = this.segments.get(i);
+
+			for (String docName : segment.documents)
+			{
+				if ((substring == null || docName.startsWith(substring, 0)) && !excluded.contains(docName)
+						&& !segment.deletedDocuments.contains(docName))
+				{
+					results.add(docName);
+				}
+			}
+			excluded.addAll(segment.documents);
+		}
+
+		results.addAll(this.base.addDocumentNamesExcluding(substring, excluded));
+
+		return results;
+	}
+
+	/**
+	 * addQueryResults
+	 * 
+	 * @param categories
+	 * @param key
+	 * @param matchRule
+	 * @param memoryIndex
+	 * @return
+	 * @throws IOException
+	 */
+	public Map<String, QueryResult> addQueryResults(String[] categories, String key, int matchRule,
+			MemoryIndex memoryIndex) throws IOException
+	{
+		if (this.segments.isEmpty())
+		{
+			return this.base.addQueryResults(categories, key, matchRule, memoryIndex);
+		}
+
+		// Walk from the newest segment to the base, each level hiding the documents of every level above it
+		Set<String> excluded = newExcludedDocuments(memoryIndex);
+		Map<String, QueryResult> results = null;
+
+		for (int i = this.segments.size() - 1; i >= 0; i--)
+		{
+			Segment segment = this.segments.get(i);
+
+			results = mergeResults(results,
+					segment.index.addQueryResultsExcluding(categories, key, matchRule, excluded));
+			excluded.addAll(segment.documents);
+		}
+
+		return mergeResults(results, this.base.addQueryResultsExcluding(categories, key, matchRule, excluded));
+	}
+
+	/**
+	 * getCategories
+	 * 
+	 * @return
+	 */
+	public List<String> getCategories()
+	{
+		if (this.segments.isEmpty())
+		{
+			return this.base.getCategories();
+		}
+
+		Set<String> categories = new HashSet<String>(this.base.getCategories());
+
+		for (Segment segment : this.segments)
+		{
+			categories.addAll(segment.index.getCategories());
+		}
+		categories.remove(TOMBSTONE_CATEGORY);
+
+		return new ArrayList<String>(categories);
+	}
+
+	/**
+	 * Saves the changes in the memory index, either as a new segment or, if it's time to compact, by merging every
+	 * segment and the memory index into the base.
+	 * 
+	 * @param memoryIndex
+	 * @return
+	 * @throws IOException
+	 */
+	public SegmentedDiskIndex mergeWith(MemoryIndex memoryIndex) throws IOException
+	{
+		// assume write lock is held
+		if (!memoryIndex.hasChanged())
+		{
+			return this;
+		}
+
+		if (shouldCompact(memoryIndex))
+		{
+			compact(memoryIndex, null);
+		}
+		else
+		{
+			addSegment(memoryIndex);
+		}
+
+		return this;
+	}
+
+	/**
+	 * removeCategories
+	 * 
+	 * @param categoryNames
+	 * @param memoryIndex
+	 * @return
+	 * @throws IOException
+	 */
+	public SegmentedDiskIndex removeCategories(String[] categoryNames, MemoryIndex memoryIndex) throws IOException
+	{
+		// Categories can only be dropped while rewriting the base, so fold everything into it
+		compact(memoryIndex, categoryNames);
+
+		return this;
+	}
+
+	/**
+	 * Deletes the segment files (the base file is handled by the caller).
+	 */
+	public void deleteSegmentFiles()
+	{
+		for (Segment segment : this.segments)
+		{
+			segment.index.deleteIndexFile();
+		}
+		this.segments.clear();
+
+		// pick up any leftovers we never managed to load
+		for (File file : getSegmentFiles().values())
+		{
+			deleteFile(file);
+		}
+	}
+
+	/**
+	 * Writes the memory index out as a new segment. Deleted documents are recorded as tombstones so they keep hiding
+	 * their entries in older segments and the base.
+	 * 
+	 * @param memoryIndex
+	 * @throws IOException
+	 */
+	private void addSegment(MemoryIndex memoryIndex) throws IOException
+	{
+		List<String> deleted = new ArrayList<String>();
+
+		for (Map.Entry<String, Map<String, Set<String>>> entry : memoryIndex.getDocumentsToReferences().entrySet())
+		{
+			if (entry.getValue() == null)
+			{
+				deleted.add(entry.getKey());
+			}
+		}
+
+		for (String docName : deleted)
+		{
+			memoryIndex.addEntry(TOMBSTONE_CATEGORY, docName, docName);
+		}
+
+		int number = this.segments.isEmpty() ? 0 : this.segments.get(this.segments.size() - 1).number + 1;
+		File file = getSegmentFile(number);
+		DiskIndex segmentIndex = new DiskIndex(file.getPath());
+
+		try
+		{
+			segmentIndex.initialize(false);
+			segmentIndex = segmentIndex.mergeWith(memoryIndex);
+		}
+		catch (IOException e)
+		{
+			// put the memory index back the way it was, it's kept around for the next save
+			for (String docName : deleted)
+			{
+				memoryIndex.remove(docName);
+			}
+			deleteFile(file);
+			throw e;
+		}
+
+		this.segments.add(new Segment(number, segmentIndex));
+
+		// Callers compare file timestamps against the base index to decide what needs re-indexing
+		if (!this.indexFile.setLastModified(System.currentTimeMillis()))
+		{
+			IdeLog.logWarning(IndexPlugin.getDefault(),
+					MessageFormat.format("Unable to update the timestamp of index ''{0}''", this.indexFile)); //$NON-NLS-1$
+		}
+	}
+
+	/**
+	 * Replays every segment (oldest first) and then the memory index into a single memory index and merges that into
+	 * the base, dropping all segments.
+	 * 
+	 * @param memoryIndex
+	 * @param categoriesToRemove
+	 *            may be null
+	 * @throws IOException
+	 */
+	private void compact(MemoryIndex memoryIndex, String[] categoriesToRemove) throws IOException
+	{
+		MemoryIndex combined = memoryIndex;
+
+		if (!this.segments.isEmpty())
+		{
+			combined = new MemoryIndex();
+
+			for (Segment segment : this.segments)
+			{
+				replay(segment, combined);
+			}
+			replay(memoryIndex, combined);
+		}
+
+		if (categoriesToRemove == null)
+		{
+			this.base = this.base.mergeWith(combined);
+		}
+		else
+		{
+			combined.removeCategories(categoriesToRemove);
+			this.base = this.base.removeCategories(categoriesToRemove, combined);
+		}
+
+		deleteSegmentFiles();
+	}
+
+	/**
+	 * Replays the contents of a segment into a memory index. Every document in the segment replaces whatever the memory
+	 * index had for it.
+	 * 
+	 * @param segment
+	 * @param target
+	 * @throws IOException
+	 */
+	private void replay(Segment segment, MemoryIndex target) throws IOException
+	{
+		for (String docName : segment.documents)
+		{
+			target.remove(docName);
+		}
+
+		for (String category : segment.index.getCategories())
+		{
+			if (TOMBSTONE_CATEGORY.equals(category))
+			{
+				continue;
+			}
+
+			Map<String, QueryResult> results = segment.index.addQueryResultsExcluding(new String[] { category }, null,
+					SearchPattern.PREFIX_MATCH, null);
+			if (results == null)
+			{
+				continue;
+			}
+
+			for (QueryResult result : results.values())
+			{
+				for (String docName : result.getDocuments())
+				{
+					target.addEntry(category, result.getWord(), docName);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Replays the contents of a memory index into another one.
+	 * 
+	 * @param source
+	 * @param target
+	 */
+	private void replay(MemoryIndex source, MemoryIndex target)
+	{
+		for (Map.Entry<String, Map<String, Set<String>>> entry : source.getDocumentsToReferences().entrySet())
+		{
+			String docName = entry.getKey();
+
+			target.remove(docName);
+
+			if (entry.getValue() == null)
+			{
+				continue;
+			}
+
+			for (Map.Entry<String, Set<String>> categoryToWords : entry.getValue().entrySet())
+			{
+				String category = categoryToWords.getKey();
+
+				if (TOMBSTONE_CATEGORY.equals(category))
+				{
+					continue;
+				}
+
+				for (String word : categoryToWords.getValue())
+				{
+					target.addEntry(category, word, docName);
+				}
+			}
+		}
+	}
+
+	/**
+	 * shouldCompact
+	 * 
+	 * @param memoryIndex
+	 * @return
+	 */
+	private boolean shouldCompact(MemoryIndex memoryIndex)
+	{
+		if (this.segments.size() >= MAX_SEGMENTS || memoryIndex.numberOfChanges() >= MAX_SEGMENT_DOCUMENTS)
+		{
+			return true;
+		}
+
+		long segmentsSize = 0;
+
+		for (Segment segment : this.segments)
+		{
+			segmentsSize += segment.index.indexFile.length();
+		}
+
+		return segmentsSize > MIN_SEGMENTS_SIZE && segmentsSize * MAX_SEGMENTS_SIZE_RATIO > this.indexFile.length();
+	}
+
+	/**
+	 * Returns the set of documents hidden from the disk by the memory index, as a new, mutable set.
+	 * 
+	 * @param memoryIndex
+	 * @return
+	 */
+	private Set<String> newExcludedDocuments(MemoryIndex memoryIndex)
+	{
+		if (memoryIndex == null)
+		{
+			return new HashSet<String>();
+		}
+
+		return new HashSet<String>(memoryIndex.getDocumentsToReferences().keySet());
+	}
+
+	/**
+	 * Adds the results of a newer level to the results of an older one.
+	 * 
+	 * @param results
+	 * @param moreResults
+	 * @return
+	 */
+	private Map<String, QueryResult> mergeResults(Map<String, QueryResult> results,
+			Map<String, QueryResult> moreResults)
+	{
+		if (results == null)
+		{
+			return moreResults;
+		}
+
+		if (moreResults != null)
+		{
+			for (Map.Entry<String, QueryResult> entry : moreResults.entrySet())
+			{
+				QueryResult existing = results.get(entry.getKey());
+
+				if (existing == null)
+				{
+					results.put(entry.getKey(), entry.getValue());
+				}
+				else
+				{
+					for (String docName : entry.getValue().getDocuments())
+					{
+						existing.addDocumentName(docName);
+					}
+				}
+			}
+		}
+
+		return results;
+	}
+
+	/**
+	 * getSegmentFile
+	 * 
+	 * @param number
+	 * @return
+	 */
+	private File getSegmentFile(int number)
+	{
+		return new File(this.indexFile.getPath() + SEGMENT_SUFFIX + number);
+	}
+
+	/**
+	 * Returns the segment files on disk, ordered by segment number.
+	 * 
+	 * @return
+	 */
+	private Map<Integer, File> getSegmentFiles()
+	{
+		File parent = this.indexFile.getAbsoluteFile().getParentFile();
+
+		if (parent == null)
+		{
+			return Collections.emptyMap();
+		}
+
+		final String prefix = this.indexFile.getName() + SEGMENT_SUFFIX;
+		File[] files = parent.listFiles(new FilenameFilter()
+		{
+			public boolean accept(File dir, String name)
+			{
+				return name.startsWith(prefix);
+			}
+		});
+
+		if (files == null)
+		{
+			return Collections.emptyMap();
+		}
+
+		Map<Integer, File> result = new TreeMap<Integer, File>();
+
+		for (File file : files)
+		{
+			try
+			{
+				result.put(Integer.valueOf(file.getName().substring(prefix.length())), file);
+			}
+			catch (NumberFormatException e)
+			{
+				// not one of ours (e.g. a temp file left over by a failed merge)
+				deleteFile(file);
+			}
+		}
+
+		return result;
+	}
+
+	private void deleteFile(File file)
+	{
+		if (file.exists() && !file.delete())
+		{
+			IdeLog.logWarning(IndexPlugin.getDefault(),
+					MessageFormat.format("Unable to delete index segment ''{0}''", file)); //$NON-NLS-1$
+		}
+	}
+}
@@ -0,0 +1,696 @@
+/**
+ * Aptana Studio
+ * Copyright (c) 2005-2013 by Appcelerator, Inc. All Rights Reserved.
+ * Licensed under the terms of the Eclipse Public License (EPL).
+ * Please see the license-epl.html included with this distribution for details.
+ * Any modifications to this file must keep this entire header intact.
+ */
+package com.aptana.internal.index.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A trigram index over the words of a single category table, used to narrow pattern queries down to the entries that
+ * can possibly match before running the (comparatively expensive) regex over each word. Entries are identified by
+ * their ordinal within the table.
+ * <p>
+ * Trigrams are case-folded and only built from ASCII characters. Words containing other characters may match an ASCII
+ * pattern under Unicode case folding, so they are always returned as candidates.
+ * <p>
+ * This class also knows how to pull the literal prefixes out of anchored regexes, which lets regex queries use the
+ * sorted table itself as a prefix dictionary.
+ */
+class TermDictionary
+{
+	/**
+	 * The most prefixes we'll expand a regex into before giving up on more specific ones.
+	 */
+	private static final int MAX_PREFIXES = 32;
+
+	private static final String REGEX_METACHARS = "\\^$.|?*+()[]{}"; //$NON-NLS-1$
+
+	private final int size;
+	private final int[] trigrams;
+	private final int[][] postings;
+	private final int[] nonAscii;
+
+	/**
+	 * TermDictionary
+	 * 
+	 * @param words
+	 *            The words of the category table, in table order
+	 */
+	TermDictionary(List<String> words)
+	{
+		long[] pairs = new long[Math.max(16, words.size() * 4)];
+		int pairCount = 0;
+		int[] others = new int[16];
+		int otherCount = 0;
+
+		for (int ordinal = 0; ordinal < words.size(); ordinal++)
+		{
+			String word = words.get(ordinal);
+
+			if (!isAscii(word))
+			{
+				if (otherCount == others.length)
+				{
+					others = copy(others, otherCount * 2);
+				}
+				others[otherCount++] = ordinal;
+				continue;
+			}
+
+			for (int i = 0; i + 3 <= word.length(); i++)
+			{
+				if (pairCount == pairs.length)
+				{
+					long[] grown = new long[pairCount * 2];
+
+					System.arraycopy(pairs, 0, grown, 0, pairCount);
+					pairs = grown;
+				}
+				pairs[pairCount++] = ((long) trigram(word, i) << 32) | ordinal;
+			}
+		}
+
+		// sorting groups the pairs by trigram, with the ordinals of each trigram in ascending order
+		Arrays.sort(pairs, 0, pairCount);
+
+		int distinct = 0;
+
+		for (int i = 0; i < pairCount; i++)
+		{
+			if (i == 0 || (pairs[i] >>> 32) != (pairs[i - 1] >>> 32))
+			{
+				distinct++;
+			}
+		}
+
+		this.size = words.size();
+		this.trigrams = new int[distinct];
+		this.postings = new int[distinct][];
+		this.nonAscii = copy(others, otherCount);
+
+		int slot = -1;
+		int[] current = new int[16];
+		int currentCount = 0;
+
+		for (int i = 0; i <= pairCount; i++)
+		{
+			boolean newTrigram = (i == pairCount) || i == 0 || (pairs[i] >>> 32) != (pairs[i - 1] >>> 32);
+
+			if (newTrigram && slot >= 0)
+			{
+				this.postings[slot] = copy(current, currentCount);
+				currentCount = 0;
+			}
+			if (i == pairCount)
+			{
+				break;
+			}
+			if (newTrigram)
+			{
+				this.trigrams[++slot] = (int) (pairs[i] >>> 32);
+			}
+
+			int ordinal = (int) pairs[i];
+
+			// a word containing the same trigram twice contributes a duplicate pair
+			if (currentCount == 0 || current[currentCount - 1] != ordinal)
+			{
+				if (currentCount == current.length)
+				{
+					current = copy(current, currentCount * 2);
+				}
+				current[currentCount++] = ordinal;
+			}
+		}
+	}
+
+	/**
+	 * Returns the ordinals, in ascending order, of the entries that may match the specified pattern under
+	 * {@link com.aptana.index.core.SearchPattern#PATTERN_MATCH} rules (case-sensitive or not). Returns null when the
+	 * pattern has no usable trigrams, in which case every entry is a candidate.
+	 * 
+	 * @param pattern
+	 * @return
+	 */
+	int[] getCandidates(String pattern)
+	{
+		// escapes change how the following character is interpreted; not worth modeling
+		if (pattern.indexOf('\\') != -1)
+		{
+			return null;
+		}
+
+		int[] result = null;
+
+		// every literal run between wildcards must appear somewhere in a matching word
+		for (String literal : pattern.split("[*?]")) //$NON-NLS-1$
+		{
+			for (int i = 0; i + 3 <= literal.length(); i++)
+			{
+				if (!isAscii(literal, i, i + 3))
+				{
+					continue;
+				}
+
+				int slot = Arrays.binarySearch(this.trigrams, trigram(literal, i));
+
+				if (slot < 0)
+				{
+					return this.nonAscii;
+				}
+
+				result = (result == null) ? this.postings[slot] : intersect(result, this.postings[slot]);
+			}
+		}
+
+		return (result == null) ? null : union(result, this.nonAscii);
+	}
+
+	/**
+	 * Number of entries in the table this dictionary was built from.
+	 * 
+	 * @return
+	 */
+	int size()
+	{
+		return this.size;
+	}
+
+	/**
+	 * Returns the literal prefixes every word matched by the specified regex (using find() semantics) must start
+	 * with, compared case-insensitively. Returns null if the regex isn't anchored to the start of the word, or we can't
+	 * tell what the matched words start with.
+	 * 
+	 * @param regex
+	 * @return
+	 */
+	static List<String> getRegexPrefixes(String regex)
+	{
+		if (regex == null || !regex.startsWith("^") || hasTopLevelAlternation(regex)) //$NON-NLS-1$
+		{
+			return null;
+		}
+
+		List<String> prefixes = Collections.singletonList(""); //$NON-NLS-1$
+		int length = regex.length();
+		int position = 1;
+		boolean quoted = false;
+
+		while (position < length)
+		{
+			List<String> atom;
+			int next;
+			int quantifierPosition;
+
+			if (quoted)
+			{
+				if (regex.startsWith("\\E", position)) //$NON-NLS-1$
+				{
+					quoted = false;
+					position += 2;
+					continue;
+				}
+
+				atom = Collections.singletonList(regex.substring(position, position + 1));
+				next = position + 1;
+
+				// a quantifier right after the closing \E applies to the last quoted character only
+				quantifierPosition = regex.startsWith("\\E", next) ? next + 2 : -1; //$NON-NLS-1$
+			}
+			else if (regex.startsWith("\\Q", position)) //$NON-NLS-1$
+			{
+				quoted = true;
+				position += 2;
+				continue;
+			}
+			else if (regex.charAt(position) == '(')
+			{
+				int start = regex.startsWith("(?:", position) ? position + 3 : position + 1; //$NON-NLS-1$
+
+				if (regex.startsWith("?", start)) //$NON-NLS-1$
+				{
+					break; // look-arounds, flags, named groups
+				}
+
+				List<String> alternatives = new ArrayList<String>();
+
+				next = readAlternatives(regex, start, alternatives);
+
+				if (next == -1)
+				{
+					break;
+				}
+
+				atom = alternatives;
+				quantifierPosition = next;
+			}
+			else
+			{
+				int c = readLiteral(regex, position);
+
+				if (c == -1)
+				{
+					break;
+				}
+
+				atom = Collections.singletonList(String.valueOf((char) c));
+				next = position + ((regex.charAt(position) == '\\') ? 2 : 1);
+				quantifierPosition = next;
+			}
+
+			// an optional or repeated atom ends the known prefix; '+' still requires one occurrence
+			char quantifier = (quantifierPosition >= 0 && quantifierPosition < length) ? regex.charAt(quantifierPosition)
+					: 0;
+
+			if (quantifier == '?' || quantifier == '*' || quantifier == '{')
+			{
+				break;
+			}
+			if (prefixes.size() * atom.size() > MAX_PREFIXES)
+			{
+				break;
+			}
+
+			prefixes = append(prefixes, atom);
+
+			if (quantifier == '+')
+			{
+				break;
+			}
+
+			position = next;
+		}
+
+		return prune(prefixes);
+	}
+
+	/**
+	 * Reads a group of literal alternatives starting just after its opening parenthesis, adding each alternative to
+	 * the list. Returns the position after the closing parenthesis, or -1 if the group contains anything but literals.
+	 * 
+	 * @param regex
+	 * @param position
+	 * @param alternatives
+	 * @return
+	 */
+	private static int readAlternatives(String regex, int position, List<String> alternatives)
+	{
+		StringBuilder current = new StringBuilder();
+		int length = regex.length();
+
+		while (position < length)
+		{
+			char c = regex.charAt(position);
+
+			if (regex.startsWith("\\Q", position)) //$NON-NLS-1$
+			{
+				int end = regex.indexOf("\\E", position + 2); //$NON-NLS-1$
+
+				if (end == -1)
+				{
+					return -1;
+				}
+
+				current.append(regex, position + 2, end);
+				position = end + 2;
+
+				if (isQuantifier(regex, position))
+				{
+					return -1;
+				}
+			}
+			else if (c == '|')
+			{
+				alternatives.add(current.toString());
+				current.setLength(0);
+				position++;
+			}
+			else if (c == ')')
+			{
+				alternatives.add(current.toString());
+
+				return (alternatives.size() <= MAX_PREFIXES) ? position + 1 : -1;
+			}
+			else
+			{
+				int literal = readLiteral(regex, position);
+
+				position += (c == '\\') ? 2 : 1;
+
+				// quantifiers inside the group would make the alternatives optional
+				if (literal == -1 || isQuantifier(regex, position))
+				{
+					return -1;
+				}
+
+				current.append((char) literal);
+			}
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Returns the literal character at the specified position of a regex, handling escaped punctuation. Returns -1 if
+	 * the regex has anything else at that position.
+	 * 
+	 * @param regex
+	 * @param position
+	 * @return
+	 */
+	private static int readLiteral(String regex, int position)
+	{
+		char c = regex.charAt(position);
+
+		if (c == '\\')
+		{
+			if (position + 1 >= regex.length())
+			{
+				return -1;
+			}
+
+			char escaped = regex.charAt(position + 1);
+
+			// escaped letters and digits are character classes, back references and the like
+			return Character.isLetterOrDigit(escaped) ? -1 : escaped;
+		}
+
+		return (REGEX_METACHARS.indexOf(c) == -1) ? c : -1;
+	}
+
+	/**
+	 * isQuantifier
+	 * 
+	 * @param regex
+	 * @param position
+	 * @return
+	 */
+	private static boolean isQuantifier(String regex, int position)
+	{
+		return position < regex.length() && "?*+{".indexOf(regex.charAt(position)) != -1; //$NON-NLS-1$
+	}
+
+	/**
+	 * Determine if a regex has a '|' outside of any group, in which case it isn't anchored as a whole.
+	 * 
+	 * @param regex
+	 * @return
+	 */
+	private static boolean hasTopLevelAlternation(String regex)
+	{
+		int depth = 0;
+		int length = regex.length();
+
+		for (int i = 0; i < length; i++)
+		{
+			char c = regex.charAt(i);
+
+			if (regex.startsWith("\\Q", i)) //$NON-NLS-1$
+			{
+				int end = regex.indexOf("\\E", i + 2); //$NON-NLS-1$
+
+				if (end == -1)
+				{
+					return false;
+				}
+
+				i = end + 1;
+			}
+			else if (c == '\\')
+			{
+				i++;
+			}
+			else if (c == '[')
+			{
+				// skip character classes, which may nest and may start with a literal ']'
+				int classDepth = 1;
+
+				i++;
+				if (i < length && regex.charAt(i) == '^')
+				{
+					i++;
+				}
+				if (i < length && regex.charAt(i) == ']')
+				{
+					i++;
+				}
+				for (; i < length && classDepth > 0; i++)
+				{
+					char d = regex.charAt(i);
+
+					if (d == '\\')
+					{
+						i++;
+					}
+					else if (d == '[')
+					{
+						classDepth++;
+					}
+					else if (d == ']')
+					{
+						classDepth--;
+					}
+				}
+				i--;
+			}
+			else if (c == '(')
+			{
+				depth++;
+			}
+			else if (c == ')')
+			{
+				depth--;
+			}
+			else if (c == '|' && depth == 0)
+			{
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * append
+	 * 
+	 * @param prefixes
+	 * @param atom
+	 * @return
+	 */
+	private static List<String> append(List<String> prefixes, List<String> atom)
+	{
+		List<String> result = new ArrayList<String>(prefixes.size() * atom.size());
+
+		for (String prefix : prefixes)
+		{
+			for (String suffix : atom)
+			{
+				result.add(prefix + suffix);
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Drops prefixes already covered by a shorter prefix, and returns the rest in case-insensitive order. Returns null
+	 * if the empty prefix is left, since that covers everything.
+	 * 
+	 * @param prefixes
+	 * @return
+	 */
+	private static List<String> prune(List<String> prefixes)
+	{
+		List<String> sorted = new ArrayList<String>(prefixes);
+
+		Collections.sort(sorted, new Comparator<String>()
+		{
+			public int compare(String o1, String o2)
+			{
+				return o1.length() - o2.length();
+			}
+		});
+
+		List<String> result = new ArrayList<String>(sorted.size());
+
+		for (String prefix : sorted)
+		{
+			if (prefix.length() == 0)
+			{
+				return null;
+			}
+
+			boolean covered = false;
+
+			for (String shorter : result)
+			{
+				if (prefix.regionMatches(true, 0, shorter, 0, shorter.length()))
+				{
+					covered = true;
+					break;
+				}
+			}
+
+			if (!covered)
+			{
+				result.add(prefix);
+			}
+		}
+
+		Collections.sort(result, String.CASE_INSENSITIVE_ORDER);
+
+		return result;
+	}
+
+	/**
+	 * Packs the case-folded ASCII characters at the specified position into a single int.
+	 * 
+	 * @param string
+	 * @param start
+	 * @return
+	 */
+	private static int trigram(String string, int start)
+	{
+		return (fold(string.charAt(start)) << 14) | (fold(string.charAt(start + 1)) << 7)
+				| fold(string.charAt(start + 2));
+	}
+
+	/**
+	 * fold
+	 * 
+	 * @param c
+	 * @return
+	 */
+	private static int fold(char c)
+	{
+		return (c >= 'A' && c <= 'Z') ? c + ('a' - 'A') : c;
+	}
+
+	/**
+	 * isAscii
+	 * 
+	 * @param string
+	 * @return
+	 */
+	private static boolean isAscii(String string)
+	{
+		return isAscii(string, 0, string.length());
+	}
+
+	/**
+	 * isAscii
+	 * 
+	 * @param string
+	 * @param start
+	 * @param end
+	 * @return
+	 */
+	private static boolean isAscii(String string, int start, int end)
+	{
+		for (int i = start; i < end; i++)
+		{
+			if (string.charAt(i) > 0x7F)
+			{
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * copy
+	 * 
+	 * @param array
+	 * @param length
+	 * @return
+	 */
+	private static int[] copy(int[] array, int length)
+	{
+		int[] result = new int[length];
+
+		System.arraycopy(array, 0, result, 0, Math.min(length, array.length));
+
+		return result;
+	}
+
+	/**
+	 * intersect
+	 * 
+	 * @param a
+	 * @param b
+	 * @return
+	 */
+	private static int[] intersect(int[] a, int[] b)
+	{
+		int[] result = new int[Math.min(a.length, b.length)];
+		int count = 0;
+
+		for (int i = 0, j = 0; i < a.length && j < b.length;)
+		{
+			if (a[i] < b[j])
+			{
+				i++;
+			}
+			else if (a[i] > b[j])
+			{
+				j++;
+			}
+			else
+			{
+				result[count++] = a[i];
+				i++;
+				j++;
+			}
+		}
+
+		return copy(result, count);
+	}
+
+	/**
+	 * union
+	 * 
+	 * @param a
+	 * @param b
+	 * @return
+	 */
+	private static int[] union(int[] a, int[] b)
+	{
+		if (b.length == 0)
+		{
+			return a;
+		}
+
+		int[] result = new int[a.length + b.length];
+		int count = 0;
+		int i = 0;
+		int j = 0;
+
+		while (i < a.length || j < b.length)
+		{
+			if (j == b.length || (i < a.length && a[i] < b[j]))
+			{
+				result[count++] = a[i++];
+			}
+			else if (i == a.length || b[j] < a[i])
+			{
+				result[count++] = b[j++];
+			}
+			else
+			{
+				result[count++] = a[i++];
+				j++;
+			}
+		}
+
+		return copy(result, count);
+	}
+}
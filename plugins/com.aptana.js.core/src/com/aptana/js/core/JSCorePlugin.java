@@ -13,6 +13,7 @@ import org.osgi.framework.BundleContext;
 import org.osgi.util.tracker.ServiceTracker;
 
 import com.aptana.js.core.inferencing.IAliasResolver;
+import com.aptana.js.core.inferencing.RequireResolverFactory;
 import com.aptana.js.core.node.INodeJS;
 import com.aptana.js.core.node.INodeJSService;
 import com.aptana.js.core.node.INodePackageManager;
@@ -63,6 +64,7 @@ public class JSCorePlugin extends Plugin
 	{
 		try
 		{
+			RequireResolverFactory.dispose();
 			if (proxyTracker != null)
 			{
 				proxyTracker.close();
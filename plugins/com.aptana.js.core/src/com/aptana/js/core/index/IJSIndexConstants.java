@@ -42,7 +42,8 @@ public interface IJSIndexConstants
 	// 0.36 - Include Module definition mappings to autogenerated UUID type names holding the exported object, remove
 	// requires keys
 	// 0.37 - Retain internal flag and user agent listing when writing types to index
-	public static final double INDEX_VERSION = 0.37;
+	// 0.38 - Write property, function and event values in compact form instead of JSON (see JSIndexWriter.VALUE_CODEC)
+	public static final double INDEX_VERSION = 0.38;
 
 	// for debugging, comment the line above, and uncomment the following
 	// public static final double INDEX_VERSION = new Random().nextDouble() * 1e6;
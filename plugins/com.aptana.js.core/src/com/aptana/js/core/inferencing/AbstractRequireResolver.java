@@ -34,8 +34,7 @@ public abstract class AbstractRequireResolver implements IRequireResolver
 
 	protected IPath loadAsFile(IPath x, String... extensions)
 	{
-		File file = x.toFile();
-		if (file.isFile())
+		if (isFile(x))
 		{
 			return x;
 		}
@@ -46,7 +45,7 @@ public abstract class AbstractRequireResolver implements IRequireResolver
 		for (String extension : ext)
 		{
 			IPath js = x.addFileExtension(extension);
-			if (js.toFile().isFile())
+			if (isFile(js))
 			{
 				return js;
 			}
@@ -58,7 +57,7 @@ public abstract class AbstractRequireResolver implements IRequireResolver
 	protected IPath loadAsDirectory(IPath x, String... extensions)
 	{
 		File packageJSON = x.append(PACKAGE_JSON).toFile();
-		if (packageJSON.isFile())
+		if (isFile(packageJSON))
 		{
 			try
 			{
@@ -92,7 +91,7 @@ public abstract class AbstractRequireResolver implements IRequireResolver
 		for (String extension : ext)
 		{
 			IPath potential = index.addFileExtension(extension);
-			if (potential.toFile().isFile())
+			if (isFile(potential))
 			{
 				return potential;
 			}
@@ -100,4 +99,28 @@ public abstract class AbstractRequireResolver implements IRequireResolver
 		return null;
 	}
 
+	protected boolean isFile(IPath path)
+	{
+		return isFile(path.toFile());
+	}
+
+	/**
+	 * Checks whether the file exists, counting the probe in the resolution statistics.
+	 * 
+	 * @param file
+	 * @return
+	 */
+	protected boolean isFile(File file)
+	{
+		RequireResolverFactory.getCache().probed();
+		return file.isFile();
+	}
+
+	/**
+	 * Releases whatever the resolver holds on to outside the workspace, like file watches. Called when the plugin
+	 * stops, does nothing by default.
+	 */
+	public void dispose()
+	{
+	}
 }
@@ -0,0 +1,576 @@
+/**
+ * Aptana Studio
+ * Copyright (c) 2013 by Appcelerator, Inc. All Rights Reserved.
+ * Licensed under the terms of the GNU Public License (GPL) v3 (with exceptions).
+ * Please see the license.html included with this distribution for details.
+ * Any modifications to this file must keep this entire header intact.
+ */
+package com.aptana.js.core.inferencing;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.contentobjects.jnotify.IJNotify;
+import net.contentobjects.jnotify.JNotifyAdapter;
+import net.contentobjects.jnotify.JNotifyException;
+
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IResourceChangeEvent;
+import org.eclipse.core.resources.IResourceChangeListener;
+import org.eclipse.core.resources.IResourceDelta;
+import org.eclipse.core.resources.IResourceDeltaVisitor;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.Path;
+
+import com.aptana.core.logging.IdeLog;
+import com.aptana.filewatcher.FileWatcher;
+import com.aptana.js.core.JSCorePlugin;
+
+/**
+ * Remembers what module ids resolved to (or that they didn't resolve at all) from a given directory, per project, so
+ * that indexing and content assist don't go probing the file system for every <code>require()</code> they meet.
+ * <p>
+ * A project's entries are dropped when files or folders are added to it or removed from it, or a
+ * <code>package.json</code> in it changes. Modules are often installed from a terminal without the workspace being
+ * refreshed, so the project's root and <code>node_modules</code> folders are also watched on disk. Resolvers that look
+ * outside the workspace are expected to call {@link #clear()} when what they look at changes.
+ * <p>
+ * Each project has a generation that every clear moves on. Callers take it before they start resolving and hand it
+ * to {@link #put(String, IProject, IPath, IPath, IPath, long)}, which then drops resolutions that a clear overtook.
+ */
+public class ModuleResolutionCache
+{
+
+	/**
+	 * Stands in for "doesn't resolve" in the maps.
+	 */
+	private static final IPath UNRESOLVED = new Path("<unresolved>"); //$NON-NLS-1$
+
+	/**
+	 * Key for resolutions made without a project.
+	 */
+	private static final Object NO_PROJECT = new Object();
+
+	/**
+	 * A project with more entries than this starts over, rather than growing without bounds.
+	 */
+	private static final int MAX_ENTRIES_PER_PROJECT = 20000;
+
+	private static final String PACKAGE_JSON = "package.json"; //$NON-NLS-1$
+	private static final String NODE_MODULES = "node_modules"; //$NON-NLS-1$
+
+	private final Map<Object, Map<String, IPath>> projects = new ConcurrentHashMap<Object, Map<String, IPath>>();
+	private final ConcurrentMap<Object, AtomicLong> generations = new ConcurrentHashMap<Object, AtomicLong>();
+
+	/**
+	 * Our watches on the projects' folders, by project. Only changed while holding this.
+	 */
+	private final Map<IProject, ProjectWatch> projectWatches = new ConcurrentHashMap<IProject, ProjectWatch>();
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong probes = new AtomicLong();
+
+	private IResourceChangeListener resourceListener;
+
+	/**
+	 * Returns the project's current generation, to be passed to
+	 * {@link #put(String, IProject, IPath, IPath, IPath, long)} once the resolution is worked out. Also makes sure
+	 * the project's folders are being watched before anything gets resolved in them.
+	 * 
+	 * @param project
+	 * @return
+	 */
+	long getGeneration(IProject project)
+	{
+		if (project != null)
+		{
+			watchProject(project);
+		}
+		return getGenerationCounter(getProjectKey(project)).get();
+	}
+
+	/**
+	 * Looks up an earlier resolution.
+	 * 
+	 * @param moduleId
+	 * @param project
+	 * @param currentDirectory
+	 * @param indexRoot
+	 * @param resolved
+	 *            where to put the result: the resolved path, or null if the module id didn't resolve
+	 * @return whether we know the answer
+	 */
+	boolean get(String moduleId, IProject project, IPath currentDirectory, IPath indexRoot, IPath[] resolved)
+	{
+		Map<String, IPath> entries = projects.get(getProjectKey(project));
+		IPath path = (entries == null) ? null : entries.get(getKey(moduleId, currentDirectory, indexRoot));
+		if (path == null)
+		{
+			misses.incrementAndGet();
+			return false;
+		}
+		hits.incrementAndGet();
+		resolved[0] = (path == UNRESOLVED) ? null : path;
+		return true;
+	}
+
+	/**
+	 * @param moduleId
+	 * @param project
+	 * @param currentDirectory
+	 * @param indexRoot
+	 * @param resolved
+	 *            the resolved path, or null if the module id didn't resolve
+	 * @param generation
+	 *            the project's generation from before the resolution started, see {@link #getGeneration(IProject)}
+	 */
+	void put(String moduleId, IProject project, IPath currentDirectory, IPath indexRoot, IPath resolved,
+			long generation)
+	{
+		hookResourceListener();
+		Object projectKey = getProjectKey(project);
+		AtomicLong counter = getGenerationCounter(projectKey);
+		if (counter.get() != generation)
+		{
+			// cleared while it was being resolved, so it may already be out of date
+			return;
+		}
+		Map<String, IPath> entries = projects.get(projectKey);
+		if (entries == null || entries.size() >= MAX_ENTRIES_PER_PROJECT)
+		{
+			entries = new ConcurrentHashMap<String, IPath>();
+			projects.put(projectKey, entries);
+		}
+		String key = getKey(moduleId, currentDirectory, indexRoot);
+		entries.put(key, (resolved == null) ? UNRESOLVED : resolved);
+		if (counter.get() != generation)
+		{
+			// A clear got in between the check and the put, and may have missed what we just added. At worst this
+			// drops a newer resolution for the same key too, which just costs a miss.
+			entries.remove(key);
+		}
+	}
+
+	/**
+	 * Counts a file system probe made while resolving.
+	 */
+	void probed()
+	{
+		probes.incrementAndGet();
+	}
+
+	/**
+	 * Forgets everything.
+	 */
+	public void clear()
+	{
+		// Move the generations on before dropping the entries, see put()
+		for (AtomicLong counter : generations.values())
+		{
+			counter.incrementAndGet();
+		}
+		projects.clear();
+	}
+
+	/**
+	 * Forgets the resolutions made for a project, along with those made without a project.
+	 * 
+	 * @param project
+	 */
+	public void clear(IProject project)
+	{
+		Object projectKey = getProjectKey(project);
+		getGenerationCounter(projectKey).incrementAndGet();
+		getGenerationCounter(NO_PROJECT).incrementAndGet();
+		projects.remove(projectKey);
+		projects.remove(NO_PROJECT);
+	}
+
+	/**
+	 * Forgets everything and stops listening to the workspace and the file system.
+	 */
+	synchronized void dispose()
+	{
+		clear();
+		for (ProjectWatch watch : projectWatches.values())
+		{
+			watch.remove();
+		}
+		projectWatches.clear();
+		if (resourceListener == null)
+		{
+			return;
+		}
+		try
+		{
+			ResourcesPlugin.getWorkspace().removeResourceChangeListener(resourceListener);
+		}
+		catch (IllegalStateException e)
+		{
+			// workspace is already gone
+		}
+		resourceListener = null;
+	}
+
+	/**
+	 * @return the number of resolutions answered from the cache
+	 */
+	public long getHitCount()
+	{
+		return hits.get();
+	}
+
+	/**
+	 * @return the number of resolutions the resolvers had to work out
+	 */
+	public long getMissCount()
+	{
+		return misses.get();
+	}
+
+	/**
+	 * @return the fraction of resolutions answered from the cache, 0 if there have been none
+	 */
+	public double getHitRate()
+	{
+		long h = hits.get();
+		long total = h + misses.get();
+		return (total == 0) ? 0 : (double) h / total;
+	}
+
+	/**
+	 * @return the number of files and directories the resolvers have checked for
+	 */
+	public long getProbeCount()
+	{
+		return probes.get();
+	}
+
+	private static Object getProjectKey(IProject project)
+	{
+		return (project == null) ? NO_PROJECT : project;
+	}
+
+	private AtomicLong getGenerationCounter(Object projectKey)
+	{
+		AtomicLong counter = generations.get(projectKey);
+		if (counter == null)
+		{
+			counter = new AtomicLong();
+			AtomicLong existing = generations.putIfAbsent(projectKey, counter);
+			if (existing != null)
+			{
+				counter = existing;
+			}
+		}
+		return counter;
+	}
+
+	private static String getKey(String moduleId, IPath currentDirectory, IPath indexRoot)
+	{
+		StringBuilder key = new StringBuilder(moduleId);
+		key.append('\n');
+		if (currentDirectory != null)
+		{
+			key.append(currentDirectory.toPortableString());
+		}
+		key.append('\n');
+		if (indexRoot != null)
+		{
+			key.append(indexRoot.toPortableString());
+		}
+		return key.toString();
+	}
+
+	private synchronized void hookResourceListener()
+	{
+		if (resourceListener != null)
+		{
+			return;
+		}
+		resourceListener = new IResourceChangeListener()
+		{
+			public void resourceChanged(IResourceChangeEvent event)
+			{
+				IResourceDelta delta = event.getDelta();
+				if (delta == null)
+				{
+					return;
+				}
+				for (IResourceDelta projectDelta : delta.getAffectedChildren())
+				{
+					IProject project = projectDelta.getResource().getProject();
+					if (affectsResolution(projectDelta))
+					{
+						clear(project);
+					}
+					if (!project.isAccessible())
+					{
+						unwatchProject(project);
+					}
+				}
+			}
+		};
+		try
+		{
+			ResourcesPlugin.getWorkspace().addResourceChangeListener(resourceListener,
+					IResourceChangeEvent.POST_CHANGE);
+		}
+		catch (IllegalStateException e)
+		{
+			// no workspace, nothing will change underneath us that we could hear about anyway
+		}
+	}
+
+	/**
+	 * Watches the project's root folder for <code>node_modules</code> or <code>package.json</code> coming and going,
+	 * and its <code>node_modules</code> folder for modules being installed or removed, as neither tends to go through
+	 * the workspace. A <code>node_modules</code> folder that has been replaced gets watched again here rather than from
+	 * the watch's callback, so we never call into the file watcher from one of its own threads.
+	 * 
+	 * @param project
+	 */
+	private void watchProject(IProject project)
+	{
+		ProjectWatch watch = projectWatches.get(project);
+		if (watch != null && !watch.nodeModulesChanged)
+		{
+			return;
+		}
+		synchronized (this)
+		{
+			watch = projectWatches.get(project);
+			if (watch == null)
+			{
+				IPath location = project.getLocation();
+				if (location == null)
+				{
+					return;
+				}
+				watch = new ProjectWatch(project, location);
+				watch.watchRoot();
+				watch.watchNodeModules();
+				projectWatches.put(project, watch);
+			}
+			else if (watch.nodeModulesChanged)
+			{
+				watch.nodeModulesChanged = false;
+				watch.removeWatch(watch.nodeModulesWatch);
+				watch.watchNodeModules();
+			}
+			else
+			{
+				return;
+			}
+		}
+		// whatever we cached while the folder wasn't watched may be out of date
+		clear(project);
+	}
+
+	private synchronized void unwatchProject(IProject project)
+	{
+		ProjectWatch watch = projectWatches.remove(project);
+		if (watch != null)
+		{
+			watch.remove();
+		}
+	}
+
+	/**
+	 * Whether the delta could change what module ids resolve to: something was added or removed, or a package.json
+	 * was edited.
+	 * 
+	 * @param delta
+	 * @return
+	 */
+	private static boolean affectsResolution(IResourceDelta delta)
+	{
+		final boolean[] affects = new boolean[1];
+		try
+		{
+			delta.accept(new IResourceDeltaVisitor()
+			{
+				public boolean visit(IResourceDelta delta) throws CoreException
+				{
+					if (affects[0])
+					{
+						return false;
+					}
+					switch (delta.getKind())
+					{
+						case IResourceDelta.ADDED:
+						case IResourceDelta.REMOVED:
+							affects[0] = true;
+							return false;
+						case IResourceDelta.CHANGED:
+							IResource resource = delta.getResource();
+							if (resource.getType() == IResource.PROJECT
+									&& (delta.getFlags() & IResourceDelta.OPEN) != 0)
+							{
+								affects[0] = true;
+								return false;
+							}
+							if (resource.getType() == IResource.FILE && PACKAGE_JSON.equals(resource.getName())
+									&& (delta.getFlags() & (IResourceDelta.CONTENT | IResourceDelta.REPLACED)) != 0)
+							{
+								affects[0] = true;
+								return false;
+							}
+							return true;
+						default:
+							return true;
+					}
+				}
+			});
+		}
+		catch (CoreException e)
+		{
+			IdeLog.logError(JSCorePlugin.getDefault(), e);
+			return true;
+		}
+		return affects[0];
+	}
+
+	/**
+	 * The file system watches for one project. The watch ids are only touched while holding the cache.
+	 */
+	private class ProjectWatch
+	{
+		private final IProject project;
+		private final IPath location;
+		private Integer rootWatch;
+		private Integer nodeModulesWatch;
+
+		/**
+		 * Set when the <code>node_modules</code> folder is created, deleted or renamed, and so needs watching again.
+		 */
+		volatile boolean nodeModulesChanged;
+
+		ProjectWatch(IProject project, IPath location)
+		{
+			this.project = project;
+			this.location = location;
+		}
+
+		void watchRoot()
+		{
+			rootWatch = addWatch(location, IJNotify.FILE_ANY, new JNotifyAdapter()
+			{
+				@Override
+				public void fileCreated(int wd, String rootPath, String name)
+				{
+					changed(name);
+				}
+
+				@Override
+				public void fileDeleted(int wd, String rootPath, String name)
+				{
+					changed(name);
+				}
+
+				@Override
+				public void fileModified(int wd, String rootPath, String name)
+				{
+					if (PACKAGE_JSON.equals(name))
+					{
+						clear(project);
+					}
+				}
+
+				@Override
+				public void fileRenamed(int wd, String rootPath, String oldName, String newName)
+				{
+					changed(oldName);
+					changed(newName);
+				}
+
+				private void changed(String name)
+				{
+					if (NODE_MODULES.equals(name))
+					{
+						nodeModulesChanged = true;
+						clear(project);
+					}
+					else if (PACKAGE_JSON.equals(name))
+					{
+						clear(project);
+					}
+				}
+			});
+		}
+
+		void watchNodeModules()
+		{
+			nodeModulesWatch = null;
+			IPath nodeModules = location.append(NODE_MODULES);
+			if (!nodeModules.toFile().isDirectory())
+			{
+				return;
+			}
+			nodeModulesWatch = addWatch(nodeModules, IJNotify.FILE_CREATED | IJNotify.FILE_DELETED
+					| IJNotify.FILE_RENAMED, new JNotifyAdapter()
+			{
+				@Override
+				public void fileCreated(int wd, String rootPath, String name)
+				{
+					clear(project);
+				}
+
+				@Override
+				public void fileDeleted(int wd, String rootPath, String name)
+				{
+					clear(project);
+				}
+
+				@Override
+				public void fileRenamed(int wd, String rootPath, String oldName, String newName)
+				{
+					clear(project);
+				}
+			});
+		}
+
+		void remove()
+		{
+			removeWatch(rootWatch);
+			removeWatch(nodeModulesWatch);
+			rootWatch = null;
+			nodeModulesWatch = null;
+		}
+
+		private Integer addWatch(IPath path, int mask, JNotifyAdapter listener)
+		{
+			try
+			{
+				return FileWatcher.addWatch(path.toOSString(), mask, false, listener);
+			}
+			catch (JNotifyException e)
+			{
+				IdeLog.logWarning(JSCorePlugin.getDefault(), e);
+				return null;
+			}
+		}
+
+		void removeWatch(Integer watchId)
+		{
+			if (watchId == null)
+			{
+				return;
+			}
+			try
+			{
+				FileWatcher.removeWatch(watchId);
+			}
+			catch (JNotifyException e)
+			{
+				// the folder may be gone, and the watch with it
+			}
+		}
+	}
+}
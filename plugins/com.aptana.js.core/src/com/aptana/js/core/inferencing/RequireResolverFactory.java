@@ -30,6 +30,8 @@ public class RequireResolverFactory
 
 	private static List<IRequireResolver> fgProxies;
 
+	private static final ModuleResolutionCache fgCache = new ModuleResolutionCache();
+
 	/**
 	 * Lazily load resolvers
 	 * 
@@ -133,6 +135,20 @@ public class RequireResolverFactory
 	 */
 	public static IPath resolve(final String moduleId, final IProject project, final IPath currentDirectory,
 			final IPath indexRoot)
+	{
+		long generation = fgCache.getGeneration(project);
+		IPath[] cached = new IPath[1];
+		if (fgCache.get(moduleId, project, currentDirectory, indexRoot, cached))
+		{
+			return cached[0];
+		}
+		IPath path = doResolve(moduleId, project, currentDirectory, indexRoot);
+		fgCache.put(moduleId, project, currentDirectory, indexRoot, path, generation);
+		return path;
+	}
+
+	private static IPath doResolve(final String moduleId, final IProject project, final IPath currentDirectory,
+			final IPath indexRoot)
 	{
 		List<IRequireResolver> resolvers = CollectionsUtil.filter(getResolvers(), new IFilter<IRequireResolver>()
 		{
@@ -158,6 +174,36 @@ public class RequireResolverFactory
 		return null;
 	}
 
+	/**
+	 * Disposes the resolvers and the cache. Called when the plugin stops.
+	 */
+	public static synchronized void dispose()
+	{
+		if (fgProxies != null)
+		{
+			for (IRequireResolver resolver : fgProxies)
+			{
+				if (resolver instanceof AbstractRequireResolver)
+				{
+					((AbstractRequireResolver) resolver).dispose();
+				}
+			}
+			fgProxies = null;
+		}
+		fgCache.dispose();
+	}
+
+	/**
+	 * The cache of earlier resolutions shared by all resolvers, along with its hit rate and the number of file system
+	 * probes the resolvers made.
+	 * 
+	 * @return
+	 */
+	public static ModuleResolutionCache getCache()
+	{
+		return fgCache;
+	}
+
 	public static List<String> getPossibleModuleIds(final IProject project, final IPath currentDirectory,
 			final IPath indexRoot)
 	{
@@ -0,0 +1,219 @@
+/**
+ * Aptana Studio
+ * Copyright (c) 2013 by Appcelerator, Inc. All Rights Reserved.
+ * Licensed under the terms of the GNU Public License (GPL) v3 (with exceptions).
+ * Please see the license.html included with this distribution for details.
+ * Any modifications to this file must keep this entire header intact.
+ */
+package com.aptana.js.internal.core.build;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.aptana.core.logging.IdeLog;
+import com.aptana.js.core.JSCorePlugin;
+
+/**
+ * Remembers what JSLint reported for a given source and set of options, so files that haven't changed since they were
+ * last linted (in this session or a previous one) don't need to go through Rhino again. Keys are digests of the
+ * source and of the options; the problems are stored without the file they were found in since the same contents may
+ * live in several files.
+ * <p>
+ * The cache is kept in memory, most recently used first, and written to the plug-in's state location by
+ * {@link #save()}.
+ */
+/* package */class JSLintResultCache
+{
+
+	private static final int VERSION = 1;
+	private static final int MAX_ENTRIES = 10000;
+
+	/**
+	 * A problem reported by JSLint, minus the file it was reported for.
+	 */
+	static class CachedProblem
+	{
+		final boolean error;
+		final String message;
+		final int line;
+		final int offset;
+
+		CachedProblem(boolean error, String message, int line, int offset)
+		{
+			this.error = error;
+			this.message = message;
+			this.line = line;
+			this.offset = offset;
+		}
+	}
+
+	private final File file;
+	private Map<String, CachedProblem[]> entries;
+	private boolean dirty;
+
+	/**
+	 * @param file
+	 *            where the cache is persisted, may be null to only keep it in memory
+	 */
+	JSLintResultCache(File file)
+	{
+		this.file = file;
+	}
+
+	/**
+	 * @param key
+	 * @return the problems reported for the key, or null if we don't know
+	 */
+	synchronized CachedProblem[] get(String key)
+	{
+		return getEntries().get(key);
+	}
+
+	synchronized void put(String key, CachedProblem[] problems)
+	{
+		getEntries().put(key, problems);
+		dirty = true;
+	}
+
+	synchronized void clear()
+	{
+		getEntries().clear();
+		dirty = true;
+	}
+
+	private Map<String, CachedProblem[]> getEntries()
+	{
+		if (entries == null)
+		{
+			entries = new LinkedHashMap<String, CachedProblem[]>(256, 0.75f, true)
+			{
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, CachedProblem[]> eldest)
+				{
+					return size() > MAX_ENTRIES;
+				}
+			};
+			load();
+		}
+		return entries;
+	}
+
+	private void load()
+	{
+		if (file == null || !file.isFile())
+		{
+			return;
+		}
+		DataInputStream in = null;
+		try
+		{
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			if (in.readInt() != VERSION)
+			{
+				return;
+			}
+			int count = in.readInt();
+			for (int i = 0; i < count; i++)
+			{
+				String key = in.readUTF();
+				CachedProblem[] problems = new CachedProblem[in.readInt()];
+				for (int j = 0; j < problems.length; j++)
+				{
+					problems[j] = new CachedProblem(in.readBoolean(), in.readUTF(), in.readInt(), in.readInt());
+				}
+				entries.put(key, problems);
+			}
+		}
+		catch (IOException e)
+		{
+			// A partial or corrupt cache is no worse than none
+			entries.clear();
+			IdeLog.logWarning(JSCorePlugin.getDefault(), "Unable to read the JSLint results cache", e); //$NON-NLS-1$
+		}
+		finally
+		{
+			if (in != null)
+			{
+				try
+				{
+					in.close();
+				}
+				catch (IOException e) // $codepro.audit.disable emptyCatchClause
+				{
+					// ignore
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writes the cache out if it changed since it was loaded or last saved.
+	 */
+	synchronized void save()
+	{
+		if (!dirty || file == null || entries == null)
+		{
+			return;
+		}
+		File temp = new File(file.getPath() + ".tmp"); //$NON-NLS-1$
+		DataOutputStream out = null;
+		try
+		{
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+			out.writeInt(VERSION);
+			out.writeInt(entries.size());
+			for (Map.Entry<String, CachedProblem[]> entry : entries.entrySet())
+			{
+				out.writeUTF(entry.getKey());
+				CachedProblem[] problems = entry.getValue();
+				out.writeInt(problems.length);
+				for (CachedProblem problem : problems)
+				{
+					out.writeBoolean(problem.error);
+					out.writeUTF(problem.message);
+					out.writeInt(problem.line);
+					out.writeInt(problem.offset);
+				}
+			}
+			out.close();
+			out = null;
+			if (file.exists() && !file.delete())
+			{
+				throw new IOException("Unable to replace " + file); //$NON-NLS-1$
+			}
+			if (!temp.renameTo(file))
+			{
+				throw new IOException("Unable to rename " + temp + " to " + file); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+			dirty = false;
+		}
+		catch (IOException e)
+		{
+			IdeLog.logWarning(JSCorePlugin.getDefault(), "Unable to save the JSLint results cache", e); //$NON-NLS-1$
+		}
+		finally
+		{
+			if (out != null)
+			{
+				try
+				{
+					out.close();
+				}
+				catch (IOException e) // $codepro.audit.disable emptyCatchClause
+				{
+					// ignore
+				}
+			}
+		}
+	}
+}
@@ -7,6 +7,7 @@
  */
 package com.aptana.js.internal.core.build;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.URL;
 import java.text.MessageFormat;
@@ -14,6 +15,8 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import org.eclipse.core.runtime.FileLocator;
 import org.eclipse.core.runtime.IProgressMonitor;
@@ -39,18 +42,18 @@ import org.mozilla.javascript.ScriptableObject;
 import org.osgi.service.prefs.BackingStoreException;
 
 import com.aptana.buildpath.core.BuildPathCorePlugin;
-import com.aptana.core.IFilter;
 import com.aptana.core.build.AbstractBuildParticipant;
 import com.aptana.core.build.IProblem;
 import com.aptana.core.logging.IdeLog;
 import com.aptana.core.util.ArrayUtil;
-import com.aptana.core.util.CollectionsUtil;
 import com.aptana.core.util.StreamUtil;
+import com.aptana.core.util.StringUtil;
 import com.aptana.index.core.build.BuildContext;
 import com.aptana.jetty.util.epl.ajax.JSON;
 import com.aptana.js.core.IJSConstants;
 import com.aptana.js.core.JSCorePlugin;
 import com.aptana.js.core.preferences.IPreferenceConstants;
+import com.aptana.js.internal.core.build.JSLintResultCache.CachedProblem;
 
 /**
  * Runs the code against JSLint inside Rhino, then parses out the reported errors/warnings.
@@ -65,10 +68,30 @@ public class JSLintValidator extends AbstractBuildParticipant
 	public static final String ID = "com.aptana.js.core.JSLintValidator"; //$NON-NLS-1$
 
 	private static final String JSLINT_FILENAME = "fulljslint.js"; //$NON-NLS-1$
-	private static JSLint JS_LINT_SCRIPT;
+	private static final String RESULT_CACHE_FILENAME = "jslint.cache"; //$NON-NLS-1$
+
+	/**
+	 * How many idle JSLint runtimes we keep around for the next files to lint.
+	 */
+	private static final int MAX_IDLE_RUNTIMES = Runtime.getRuntime().availableProcessors();
 
 	private static ContextFactory contextFactory = new ContextFactory();
 
+	/**
+	 * JSLint compiled once, then run in each runtime we create.
+	 */
+	private static Script JS_LINT_SCRIPT;
+	private static String JS_LINT_DIGEST;
+
+	/**
+	 * The standard objects, as modified by JSLint, sealed and shared as prototype by all the runtimes.
+	 */
+	private static ScriptableObject SHARED_SCOPE;
+
+	private static final Queue<JSLint> IDLE_RUNTIMES = new ConcurrentLinkedQueue<JSLint>();
+
+	private static JSLintResultCache RESULT_CACHE;
+
 	public JSLintValidator()
 	{
 		super();
@@ -106,34 +129,150 @@ public class JSLintValidator extends AbstractBuildParticipant
 		context.removeProblems(IJSConstants.JSLINT_PROBLEM_MARKER_TYPE);
 	}
 
+	@Override
+	public void buildEnding(IProgressMonitor monitor)
+	{
+		JSLintResultCache cache = RESULT_CACHE;
+		if (cache != null)
+		{
+			cache.save();
+		}
+		super.buildEnding(monitor);
+	}
+
 	private List<IProblem> parseWithLint(String source, String path)
 	{
-		JSLint script = getJSLintScript();
-		if (script == null)
+		CachedProblem[] results = lint(source);
+		if (results == null)
 		{
 			return Collections.emptyList();
 		}
 
-		script.runLint(source, getOptions());
+		List<String> filters = getFilters();
+		List<IProblem> problems = new ArrayList<IProblem>(results.length);
+		for (CachedProblem result : results)
+		{
+			if (isIgnored(result.message, filters))
+			{
+				continue;
+			}
+			if (result.error)
+			{
+				problems.add(createError(result.message, result.line, result.offset, 1, path));
+			}
+			else
+			{
+				problems.add(createWarning(result.message, result.line, result.offset, 1, path));
+			}
+		}
+		return problems;
+	}
 
-		List<IProblem> collected = script.getProblems(source, path);
-		final List<String> filters = getFilters();
-		return CollectionsUtil.filter(collected, new IFilter<IProblem>()
+	/**
+	 * Returns what JSLint has to say about the source, from the results cache if we've seen the same source with the
+	 * same options before.
+	 * 
+	 * @param source
+	 * @return null if JSLint isn't available
+	 */
+	private CachedProblem[] lint(String source)
+	{
+		if (getJSLintScript() == null)
 		{
+			return null;
+		}
 
-			public boolean include(IProblem item)
+		String options = getPreferenceString(IPreferenceConstants.JS_LINT_OPTIONS);
+		JSLintResultCache cache = null;
+		String key = null;
+		if (useResultCache())
+		{
+			cache = getResultCache();
+			key = StringUtil.md5(source) + StringUtil.md5(JS_LINT_DIGEST + options);
+			CachedProblem[] cached = cache.get(key);
+			if (cached != null)
 			{
-				return !isIgnored(item.getMessage(), filters);
+				return cached;
 			}
-		});
+		}
+
+		JSLint runtime = acquireRuntime();
+		CachedProblem[] problems;
+		try
+		{
+			runtime.runLint(source, getOptions(options));
+			problems = runtime.getProblems(source);
+		}
+		finally
+		{
+			releaseRuntime(runtime);
+		}
+
+		if (cache != null)
+		{
+			cache.put(key, problems);
+		}
+		return problems;
 	}
 
 	/**
-	 * Lazily grab the JSLint script.
+	 * Whether to look up and remember results in the persistent cache.
 	 * 
 	 * @return
 	 */
-	private synchronized JSLint getJSLintScript()
+	protected boolean useResultCache()
+	{
+		return true;
+	}
+
+	/**
+	 * Takes an idle JSLint runtime, or makes a new one. Each runtime is only ever used by one thread at a time, which
+	 * lets several files be linted at once.
+	 * 
+	 * @return
+	 */
+	private JSLint acquireRuntime()
+	{
+		JSLint runtime = IDLE_RUNTIMES.poll();
+		if (runtime == null)
+		{
+			runtime = new JSLint(contextFactory, getJSLintScript(), SHARED_SCOPE);
+		}
+		return runtime;
+	}
+
+	private void releaseRuntime(JSLint runtime)
+	{
+		if (IDLE_RUNTIMES.size() < MAX_IDLE_RUNTIMES)
+		{
+			IDLE_RUNTIMES.offer(runtime);
+		}
+	}
+
+	private static synchronized JSLintResultCache getResultCache()
+	{
+		if (RESULT_CACHE == null)
+		{
+			File file = null;
+			try
+			{
+				file = JSCorePlugin.getDefault().getStateLocation().append(RESULT_CACHE_FILENAME).toFile();
+			}
+			catch (IllegalStateException e)
+			{
+				// no instance location, keep the results in memory only
+			}
+			RESULT_CACHE = new JSLintResultCache(file);
+		}
+		return RESULT_CACHE;
+	}
+
+	/**
+	 * Lazily grab and compile the JSLint script.
+	 * 
+	 * @return
+	 */
+	private static synchronized Script getJSLintScript()
 	{
 		if (JS_LINT_SCRIPT == null)
 		{
@@ -146,7 +285,7 @@ public class JSLintValidator extends AbstractBuildParticipant
 					String source = StreamUtil.readContent(url.openStream());
 					if (source != null)
 					{
-						JS_LINT_SCRIPT = getJSLintScript(source);
+						compileJSLintScript(source);
 					}
 				}
 				catch (IOException e)
@@ -159,19 +298,24 @@ public class JSLintValidator extends AbstractBuildParticipant
 	}
 
 	/**
-	 * Compile JSLint file into {@link Script} object.
+	 * Compile JSLint file into {@link Script} object, and set up the shared scope the runtimes are built on.
 	 * 
 	 * @param source
-	 * @return
 	 */
-	private JSLint getJSLintScript(String source)
+	private static void compileJSLintScript(String source)
 	{
 		try
 		{
 			Context cx = contextFactory.enterContext();
+			Script script = cx.compileString(source, JSLINT_FILENAME, 1, null);
+			// JSLint adds a few helpers to the built-in prototypes unless they are already there. Let it do that once
+			// here, so the runtimes never need to modify the shared objects.
 			ScriptableObject scope = cx.initStandardObjects();
-			cx.evaluateString(scope, source, JSLINT_FILENAME, 1, null);
-			return new JSLint(contextFactory, scope);
+			script.exec(cx, scope);
+			scope.sealObject();
+			SHARED_SCOPE = scope;
+			JS_LINT_DIGEST = StringUtil.md5(source);
+			JS_LINT_SCRIPT = script;
 		}
 		finally
 		{
@@ -179,22 +323,35 @@ public class JSLintValidator extends AbstractBuildParticipant
 		}
 	}
 
-	class JSLint
+	/**
+	 * One JSLint runtime: the compiled script run in a scope of its own, backed by the shared standard objects. JSLint
+	 * keeps the state of a run in its closure, so a runtime may only lint one file at a time.
+	 */
+	static class JSLint
 	{
 		private ContextFactory contextFactory;
 		private ScriptableObject scope;
 
-		JSLint(ContextFactory contextFactory, ScriptableObject scope)
+		JSLint(ContextFactory contextFactory, final Script script, final Scriptable sharedScope)
 		{
 			this.contextFactory = contextFactory;
-			this.scope = scope;
+			this.scope = (ScriptableObject) contextFactory.call(new ContextAction()
+			{
+				public Object run(Context cx)
+				{
+					Scriptable scope = cx.newObject(sharedScope);
+					scope.setPrototype(sharedScope);
+					scope.setParentScope(null);
+					script.exec(cx, scope);
+					return scope;
+				}
+			});
 			this.scope.sealObject();
 		}
 
-		public List<IProblem> getProblems(final String source, final String path)
+		public CachedProblem[] getProblems(final String source)
 		{
-			final List<IProblem> items = new ArrayList<IProblem>();
-
+			final List<CachedProblem> items = new ArrayList<CachedProblem>();
 			contextFactory.call(new ContextAction()
 			{
 				public Object run(Context cx)
@@ -284,24 +441,24 @@ public class JSLintValidator extends AbstractBuildParticipant
 							// If this starts with "Stopping", convert the last warning to an error and skip this.
 							if (reason.startsWith("Stopping")) //$NON-NLS-1$
 							{
-								IProblem lastWarning = items.remove(items.size() - 1);
-								items.add(createError(lastWarning.getMessage(), lastWarning.getLineNumber(),
-										lastWarning.getOffset(), 1, path));
+								CachedProblem lastWarning = items.remove(items.size() - 1);
+								items.add(new CachedProblem(true, lastWarning.message, lastWarning.line,
+										lastWarning.offset));
 							}
 							else
 							{
-								items.add(createError(reason, line, character, 1, path));
+								items.add(new CachedProblem(true, reason, line, character));
 							}
 						}
 						else
 						{
-							items.add(createWarning(reason, line, character, 1, path));
+							items.add(new CachedProblem(false, reason, line, character));
 						}
 					}
 					return null;
 				}
 			});
-			return items;
+			return items.toArray(new CachedProblem[items.size()]);
 		}
 
 		void runLint(final String source, final Map<String, Object> options)
@@ -404,9 +561,9 @@ public class JSLintValidator extends AbstractBuildParticipant
 	}
 
 	@SuppressWarnings("unchecked")
-	private Map<String, Object> getOptions()
+	private Map<String, Object> getOptions(String optionsAsJSON)
 	{
-		return (Map<String, Object>) JSON.parse(getPreferenceString(IPreferenceConstants.JS_LINT_OPTIONS));
+		return (Map<String, Object>) JSON.parse(optionsAsJSON);
 	}
 
 	@Override
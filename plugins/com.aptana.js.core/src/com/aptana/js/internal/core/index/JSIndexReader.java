@@ -18,6 +18,7 @@ import com.aptana.core.IMap;
 import com.aptana.core.util.CollectionsUtil;
 import com.aptana.core.util.RegexUtil;
 import com.aptana.core.util.StringUtil;
+import com.aptana.index.core.CompactValueCodec;
 import com.aptana.index.core.Index;
 import com.aptana.index.core.IndexReader;
 import com.aptana.index.core.QueryResult;
@@ -191,6 +192,16 @@ public class JSIndexReader extends IndexReader
 		return IJSIndexConstants.DELIMITER;
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * @see com.aptana.index.core.IndexReader#getValueCodec()
+	 */
+	@Override
+	protected CompactValueCodec getValueCodec()
+	{
+		return JSIndexWriter.VALUE_CODEC;
+	}
+
 	/**
 	 * getEvents
 	 * 
@@ -13,6 +13,7 @@ import java.util.List;
 
 import com.aptana.core.logging.IdeLog;
 import com.aptana.core.util.StringUtil;
+import com.aptana.index.core.CompactValueCodec;
 import com.aptana.index.core.Index;
 import com.aptana.index.core.IndexWriter;
 import com.aptana.js.core.IDebugScopes;
@@ -26,6 +27,28 @@ import com.aptana.js.core.model.TypeElement;
 
 public class JSIndexWriter extends IndexWriter
 {
+	/**
+	 * Codec for the values of properties, functions and events. The name table holds the field names of the model
+	 * elements and their most common values. Any change to it requires a new {@link IJSIndexConstants#INDEX_VERSION}
+	 */
+	// @formatter:off
+	static final CompactValueCodec VALUE_CODEC = new CompactValueCodec(
+		// field names
+		"name", "description", "since", "deprecated", "userAgents", "owningType", "isClassProperty", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$ //$NON-NLS-7$
+		"isInstanceProperty", "isInternal", "types", "examples", "constants", "parameters", "returnTypes", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$ //$NON-NLS-7$
+		"references", "exceptions", "isConstructor", "isMethod", "type", "usage", "version", "platform", "os", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$ //$NON-NLS-7$ //$NON-NLS-8$ //$NON-NLS-9$
+		"osVersion", "properties", "functions", "events", "remarks", "internal", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$
+		// common values
+		StringUtil.EMPTY, "required", "optional", "one-or-more", "zero-or-more", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+		JSTypeConstants.STRING_TYPE, JSTypeConstants.NUMBER_TYPE, JSTypeConstants.OBJECT_TYPE,
+		JSTypeConstants.BOOLEAN_TYPE, JSTypeConstants.FUNCTION_TYPE, JSTypeConstants.ARRAY_TYPE,
+		JSTypeConstants.VOID_TYPE, JSTypeConstants.UNDEFINED_TYPE, JSTypeConstants.WINDOW_TYPE,
+		JSTypeConstants.GLOBAL_TYPE, "Node", "Element", "Event", "Document", "DOMException", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$
+		"Chrome", "IE", "Mozilla", "Netscape", "Opera", "Safari", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$
+		"1.0+", "2.0+", "3.0+", "4.0+", "5.0+", "6.0+", "7.0+", "9.0+" //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$ //$NON-NLS-7$ //$NON-NLS-8$
+	);
+	// @formatter:on
+
 	/**
 	 * getDocumentPath
 	 * 
@@ -36,6 +59,16 @@ public class JSIndexWriter extends IndexWriter
 		return URI.create(IJSIndexConstants.METADATA_FILE_LOCATION);
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * @see com.aptana.index.core.IndexWriter#getValueCodec()
+	 */
+	@Override
+	protected CompactValueCodec getValueCodec()
+	{
+		return VALUE_CODEC;
+	}
+
 	/**
 	 * writeEvent
 	 * 
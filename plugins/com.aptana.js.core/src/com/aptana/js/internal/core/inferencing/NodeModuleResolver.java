@@ -9,12 +9,16 @@ package com.aptana.js.internal.core.inferencing;
 
 import java.io.File;
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import net.contentobjects.jnotify.IJNotify;
+import net.contentobjects.jnotify.JNotifyAdapter;
+import net.contentobjects.jnotify.JNotifyException;
+
 import org.eclipse.core.resources.IProject;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IPath;
@@ -25,8 +29,10 @@ import com.aptana.core.logging.IdeLog;
 import com.aptana.core.util.ArrayUtil;
 import com.aptana.core.util.CollectionsUtil;
 import com.aptana.core.util.PathUtil;
+import com.aptana.filewatcher.FileWatcher;
 import com.aptana.js.core.JSCorePlugin;
 import com.aptana.js.core.inferencing.AbstractRequireResolver;
+import com.aptana.js.core.inferencing.RequireResolverFactory;
 import com.aptana.js.core.node.INodeJS;
 import com.aptana.js.core.node.INodePackageManager;
 
@@ -41,6 +47,8 @@ public class NodeModuleResolver extends AbstractRequireResolver
 	private static final String LIB = "lib"; //$NON-NLS-1$
 	private static final String NODE_MODULES = "node_modules"; //$NON-NLS-1$
 	private static final String NODE = "node"; //$NON-NLS-1$
+	private static final String NODE_PATH = "NODE_PATH"; //$NON-NLS-1$
+	private static final String HOME = "HOME"; //$NON-NLS-1$
 
 	// This is a hack. I copy-pasted from node source's lib dir file listing to here. This is just a way of falling back
 	// if we can't actually get the listing from the node src install itself.
@@ -51,7 +59,16 @@ public class NodeModuleResolver extends AbstractRequireResolver
 			"querystring", "readline", "repl", "stream", "string_decoder", "sys", "timers", "tls", "tty", "url",
 			"util", "vm", "zlib");
 
-	private IPath location;
+	/**
+	 * The global folders to look in, by what they were worked out from: NODE_PATH, HOME and the npm install. See
+	 * {@link #globalFolders(IProject, IPath)}.
+	 */
+	private final Map<List<Object>, List<IPath>> globalFolders = new HashMap<List<Object>, List<IPath>>();
+
+	/**
+	 * Ids of our watches on the global folders, by folder.
+	 */
+	private final Map<IPath, Integer> globalFolderWatches = new HashMap<IPath, Integer>();
 
 	public IPath resolve(String moduleId, IProject project, IPath location, IPath indexRoot)
 	{
@@ -59,7 +76,6 @@ public class NodeModuleResolver extends AbstractRequireResolver
 		{
 			throw new IllegalArgumentException("location must be a directory"); //$NON-NLS-1$
 		}
-		this.location = location;
 
 		IPath result = null;
 		if (isCore(moduleId))
@@ -80,7 +96,7 @@ public class NodeModuleResolver extends AbstractRequireResolver
 
 		if (result == null)
 		{
-			result = loadNodeModules(moduleId, location);
+			result = loadNodeModules(moduleId, project, location);
 		}
 
 		// 4. THROW "not found"
@@ -127,9 +143,9 @@ public class NodeModuleResolver extends AbstractRequireResolver
 		return CORE_MODULES.contains(text);
 	}
 
-	private IPath loadNodeModules(String x, IPath start)
+	private IPath loadNodeModules(String x, IProject project, IPath start)
 	{
-		List<IPath> dirs = nodeModulesPaths(start);
+		List<IPath> dirs = nodeModulesPaths(project, start);
 		for (IPath dir : dirs)
 		{
 			IPath path = loadAsFile(dir.append(x), NODE);
@@ -145,7 +161,7 @@ public class NodeModuleResolver extends AbstractRequireResolver
 		return null;
 	}
 
-	private List<IPath> nodeModulesPaths(IPath start)
+	private List<IPath> nodeModulesPaths(IProject project, IPath start)
 	{
 		String[] parts = start.segments();
 		int root = 0;
@@ -172,16 +188,97 @@ public class NodeModuleResolver extends AbstractRequireResolver
 		}
 
 		// Search global folders, see http://nodejs.org/api/modules.html#modules_loading_from_the_global_folders
-		dirs.addAll(globalFolders());
+		dirs.addAll(globalFolders(project, start));
 		return dirs;
 	}
 
-	private Collection<? extends IPath> globalFolders()
+	/**
+	 * Returns the global folders for the environment of the project, or of the location if there's no project. The
+	 * shell environment and npm's prefix are cached by whoever provides them, so we only hold on to the folders for as
+	 * long as NODE_PATH, HOME and the npm install they came from stay the same.
+	 * 
+	 * @param project
+	 * @param location
+	 * @return
+	 */
+	private synchronized List<IPath> globalFolders(IProject project, IPath location)
 	{
-		List<IPath> dirs = new ArrayList<IPath>();
+		IPath environmentLocation = location;
+		if (project != null && project.getLocation() != null)
+		{
+			environmentLocation = project.getLocation();
+		}
 		// FIXME Handle properly on Windows...
-		Map<String, String> env = ShellExecutable.getEnvironment(location);
-		String nodePath = env.get("NODE_PATH"); //$NON-NLS-1$
+		Map<String, String> env = getEnvironment(environmentLocation);
+		String nodePath = env.get(NODE_PATH);
+		String home = env.get(HOME);
+		List<Object> key = CollectionsUtil.<Object> newList(nodePath, home, JSCorePlugin.getDefault()
+				.getNodePackageManager());
+
+		List<IPath> dirs = globalFolders.get(key);
+		if (dirs == null)
+		{
+			dirs = computeGlobalFolders(nodePath, home);
+			globalFolders.put(key, dirs);
+		}
+		watchGlobalFolders(dirs);
+		return dirs;
+	}
+
+	/**
+	 * Resolutions into global folders are cached along with everything else, but as they live outside the workspace
+	 * we don't hear about modules being installed or removed there unless we watch for it. Folders that don't exist
+	 * yet get watched once they do.
+	 * 
+	 * @param dirs
+	 */
+	private void watchGlobalFolders(List<IPath> dirs)
+	{
+		for (IPath dir : dirs)
+		{
+			if (globalFolderWatches.containsKey(dir) || !dir.toFile().isDirectory())
+			{
+				continue;
+			}
+			try
+			{
+				int watchId = FileWatcher.addWatch(dir.toOSString(), IJNotify.FILE_CREATED | IJNotify.FILE_DELETED
+						| IJNotify.FILE_RENAMED, false, new JNotifyAdapter()
+				{
+					@Override
+					public void fileCreated(int wd, String rootPath, String name)
+					{
+						RequireResolverFactory.getCache().clear();
+					}
+
+					@Override
+					public void fileDeleted(int wd, String rootPath, String name)
+					{
+						RequireResolverFactory.getCache().clear();
+					}
+
+					@Override
+					public void fileRenamed(int wd, String rootPath, String oldName, String newName)
+					{
+						RequireResolverFactory.getCache().clear();
+					}
+				});
+				globalFolderWatches.put(dir, watchId);
+				// whatever we cached while the folder wasn't there (or wasn't watched) may be out of date
+				RequireResolverFactory.getCache().clear();
+			}
+			catch (JNotifyException e)
+			{
+				IdeLog.logWarning(JSCorePlugin.getDefault(), e);
+				// don't try again for every module
+				globalFolderWatches.put(dir, null);
+			}
+		}
+	}
+
+	private List<IPath> computeGlobalFolders(String nodePath, String home)
+	{
+		List<IPath> dirs = new ArrayList<IPath>();
 		if (nodePath != null)
 		{
 			// Split like PATH and add to dirs
@@ -192,7 +289,6 @@ public class NodeModuleResolver extends AbstractRequireResolver
 				dirs.add(Path.fromOSString(path));
 			}
 		}
-		String home = env.get("HOME"); //$NON-NLS-1$
 		if (home != null)
 		{
 			IPath homePath = Path.fromOSString(home);
@@ -216,6 +312,11 @@ public class NodeModuleResolver extends AbstractRequireResolver
 		return dirs;
 	}
 
+	protected Map<String, String> getEnvironment(IPath location)
+	{
+		return ShellExecutable.getEnvironment(location);
+	}
+
 	protected synchronized IPath getModulesPath() throws CoreException
 	{
 		INodePackageManager npm = JSCorePlugin.getDefault().getNodePackageManager();
@@ -226,6 +327,31 @@ public class NodeModuleResolver extends AbstractRequireResolver
 		return npm.getModulesPath();
 	}
 
+	/**
+	 * Stops watching the global folders.
+	 */
+	@Override
+	public synchronized void dispose()
+	{
+		for (Integer watchId : globalFolderWatches.values())
+		{
+			if (watchId == null)
+			{
+				continue;
+			}
+			try
+			{
+				FileWatcher.removeWatch(watchId);
+			}
+			catch (JNotifyException e)
+			{
+				IdeLog.logWarning(JSCorePlugin.getDefault(), e);
+			}
+		}
+		globalFolderWatches.clear();
+		globalFolders.clear();
+	}
+
 	public boolean applies(IProject project, IPath currentDirectory, IPath indexRoot)
 	{
 		// TODO This applies to projects that use node modules. What are those? Alloy? Node.ACS? Regular Web projects?
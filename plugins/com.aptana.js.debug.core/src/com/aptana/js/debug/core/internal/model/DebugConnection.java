@@ -17,8 +17,17 @@ import java.net.Socket;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
 import java.text.MessageFormat;
-import java.util.Hashtable;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Status;
@@ -50,8 +59,12 @@ public class DebugConnection implements IJSConnection
 	private boolean terminated = false;
 	private ProtocolLogger logger;
 
-	private Map<String, Object> locks = new Hashtable<String, Object>(); // synchronized get/put required
-	private volatile long lastReqId = System.currentTimeMillis();
+	/**
+	 * Commands waiting for their response, by request id.
+	 */
+	private final Map<String, PendingCommand> pendingCommands = new ConcurrentHashMap<String, PendingCommand>();
+	private final AtomicLong lastReqId = new AtomicLong(System.currentTimeMillis());
+	private final Object writeLock = new Object();
 
 	private IJSDebugConnectionHandler handler;
 
@@ -180,19 +193,14 @@ public class DebugConnection implements IJSConnection
 			return;
 		}
 		connected = false;
-		synchronized (locks)
+		for (String reqid : pendingCommands.keySet())
 		{
-			Object[] list = locks.values().toArray();
-			locks.clear();
-			for (Object lock : list)
+			PendingCommand command = pendingCommands.remove(reqid);
+			if (command != null)
 			{
-				synchronized (lock)
-				{
-					lock.notify();
-				}
+				command.complete(null);
 			}
 		}
-
 	}
 
 	public void dispose() throws IOException
@@ -234,15 +242,10 @@ public class DebugConnection implements IJSConnection
 		/* check if action comes to waiting commands */
 		String[] args = message.split(ARGS_SPLIT);
 		String action = args[0];
-		Object lock = locks.get(action);
-		if (lock != null)
+		PendingCommand command = pendingCommands.remove(action);
+		if (command != null)
 		{
-			locks.put(action, args);
-			synchronized (lock)
-			{
-				lock.notify();
-			}
-			return;
+			command.complete(args);
 		}
 	}
 
@@ -289,20 +292,38 @@ public class DebugConnection implements IJSConnection
 	 */
 	protected void sendCommand(String reqid, String command) throws DebugException
 	{
-		try
+		sendCommands(new String[] { reqid }, new String[] { command });
+	}
+
+	/**
+	 * Send several commands at once, with a single flush
+	 * 
+	 * @param reqids
+	 * @param commands
+	 * @throws DebugException
+	 */
+	private void sendCommands(String[] reqids, String[] commands) throws DebugException
+	{
+		synchronized (writeLock)
 		{
-			String message = MessageFormat.format("{0}*{1}*{2}", //$NON-NLS-1$
-					Integer.toString(command.length() + reqid.length() + 1), reqid, command);
-			if (logger != null)
+			try
 			{
-				logger.log(false, message);
+				for (int i = 0; i < commands.length; ++i)
+				{
+					String message = MessageFormat.format("{0}*{1}*{2}", //$NON-NLS-1$
+							Integer.toString(commands[i].length() + reqids[i].length() + 1), reqids[i], commands[i]);
+					if (logger != null)
+					{
+						logger.log(false, message);
+					}
+					writer.write(message);
+				}
+				writer.flush();
+			}
+			catch (IOException e)
+			{
+				throwDebugException(e);
 			}
-			writer.write(message);
-			writer.flush();
-		}
-		catch (IOException e)
-		{
-			throwDebugException(e);
 		}
 	}
 
@@ -315,8 +336,7 @@ public class DebugConnection implements IJSConnection
 	 */
 	public String[] sendCommandAndWait(String command) throws DebugException
 	{
-		long reqid = ++lastReqId;
-		return sendCommandAndWait(command, Long.toString(reqid));
+		return sendCommandAndWait(command, nextReqId());
 	}
 
 	/**
@@ -333,26 +353,82 @@ public class DebugConnection implements IJSConnection
 		{
 			return null;
 		}
-		Object lock = new Object();
-		synchronized (lock)
+		PendingCommand pendingCommand = new PendingCommand(reqid);
+		pendingCommands.put(reqid, pendingCommand);
+		sendCommand(reqid, command);
+		try
 		{
-			try
+			return pendingCommand.get(COMMAND_TIMEOUT, TimeUnit.MILLISECONDS);
+		}
+		catch (InterruptedException e)
+		{
+			throwDebugException(e);
+		}
+		catch (TimeoutException e)
+		{
+			// no response, same as being disconnected
+		}
+		finally
+		{
+			pendingCommands.remove(reqid);
+		}
+		return null;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.aptana.js.debug.core.model.IJSConnection#sendCommandAsync(java.lang.String)
+	 */
+	public Future<String[]> sendCommandAsync(String command) throws DebugException
+	{
+		List<String> commands = new ArrayList<String>(1);
+		commands.add(command);
+		return sendCommandsAsync(commands).get(0);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.aptana.js.debug.core.model.IJSConnection#sendCommandsAsync(java.util.List)
+	 */
+	public List<Future<String[]>> sendCommandsAsync(List<String> commands) throws DebugException
+	{
+		List<Future<String[]>> responses = new ArrayList<Future<String[]>>(commands.size());
+		String[] reqids = new String[commands.size()];
+		for (int i = 0; i < reqids.length; ++i)
+		{
+			reqids[i] = nextReqId();
+			PendingCommand pendingCommand = new PendingCommand(reqids[i]);
+			if (connected)
 			{
-				locks.put(reqid, lock);
-				sendCommand(reqid, command);
-				lock.wait(COMMAND_TIMEOUT);
+				pendingCommands.put(reqids[i], pendingCommand);
 			}
-			catch (InterruptedException e)
+			else
 			{
-				throwDebugException(e);
+				pendingCommand.complete(null);
 			}
+			responses.add(pendingCommand);
 		}
-		lock = locks.remove(reqid);
-		if (lock instanceof String[])
+		if (connected)
 		{
-			return (String[]) lock;
+			try
+			{
+				sendCommands(reqids, commands.toArray(new String[reqids.length]));
+			}
+			catch (DebugException e)
+			{
+				for (String reqid : reqids)
+				{
+					pendingCommands.remove(reqid);
+				}
+				throw e;
+			}
 		}
-		return null;
+		return responses;
+	}
+
+	private String nextReqId()
+	{
+		return Long.toString(lastReqId.incrementAndGet());
 	}
 
 	/**
@@ -411,6 +487,75 @@ public class DebugConnection implements IJSConnection
 		return sb.toString();
 	}
 
+	/**
+	 * A command waiting for its response. Cancelling it just stops waiting, the command has already been sent.
+	 */
+	private class PendingCommand implements Future<String[]>
+	{
+		private final String reqid;
+		private final CountDownLatch done = new CountDownLatch(1);
+		private volatile String[] response;
+		private volatile boolean cancelled;
+
+		PendingCommand(String reqid)
+		{
+			this.reqid = reqid;
+		}
+
+		void complete(String[] response)
+		{
+			this.response = response;
+			done.countDown();
+		}
+
+		public boolean cancel(boolean mayInterruptIfRunning)
+		{
+			if (isDone())
+			{
+				return false;
+			}
+			cancelled = true;
+			pendingCommands.remove(reqid);
+			done.countDown();
+			return true;
+		}
+
+		public boolean isCancelled()
+		{
+			return cancelled;
+		}
+
+		public boolean isDone()
+		{
+			return done.getCount() == 0;
+		}
+
+		public String[] get() throws InterruptedException, ExecutionException
+		{
+			done.await();
+			return getResponse();
+		}
+
+		public String[] get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException,
+				TimeoutException
+		{
+			if (!done.await(timeout, unit))
+			{
+				throw new TimeoutException();
+			}
+			return getResponse();
+		}
+
+		private String[] getResponse()
+		{
+			if (cancelled)
+			{
+				throw new CancellationException();
+			}
+			return response;
+		}
+	}
+
 	/**
 	 * throwDebugException
 	 * 
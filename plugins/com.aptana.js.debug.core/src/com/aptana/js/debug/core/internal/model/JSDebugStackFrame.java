@@ -314,6 +314,10 @@ public class JSDebugStackFrame extends JSDebugElement implements IJSStackFrame {
 		variables = null;
 	}
 
+	/* package */String getQualifier() {
+		return MessageFormat.format(FRAME_0, frameId);
+	}
+
 	/* package */String getThreadId() {
 		return thread.getThreadId();
 	}
@@ -336,8 +340,7 @@ public class JSDebugStackFrame extends JSDebugElement implements IJSStackFrame {
 			return;
 		}
 		JSDebugTarget target = getJSDebugTarget();
-		String command = MessageFormat.format(FRAME_0, frameId);
-		variables = target.loadVariables(thread.getThreadId(), command);
+		variables = target.loadVariables(thread.getThreadId(), getQualifier());
 		for (IVariable var : variables) {
 			((JSDebugVariable) var).flags |= JSDebugVariable.FLAGS_TOPLEVEL;
 		}
@@ -23,6 +23,13 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.eclipse.core.filesystem.EFS;
 import org.eclipse.core.filesystem.IFileStore;
@@ -218,6 +225,11 @@ public class JSDebugTarget extends JSDebugElement implements IJSDebugTarget, IBr
 	private Map<Integer, IJSScriptElement> scripts = new HashMap<Integer, IJSScriptElement>();
 	private List<IBreakpoint> runToLineBreakpoints = new ArrayList<IBreakpoint>();
 	private Map<String, URI> sourceResolveCache = new HashMap<String, URI>(64);
+	/**
+	 * Responses to variables requests for the current suspend, by thread id and qualifier. Dropped whenever a thread
+	 * suspends or resumes, or a value gets changed.
+	 */
+	private final ConcurrentMap<String, Future<String[]>> variablesCache = new ConcurrentHashMap<String, Future<String[]>>();
 	private URI mainFile = null;
 	private IBreakpoint skipOperationOnBreakpoint = null;
 	private boolean ignoreBreakpointCreation = false;
@@ -1575,9 +1587,25 @@ public class JSDebugTarget extends JSDebugElement implements IJSDebugTarget, IBr
 			return new IVariable[0];
 		}
 		List<IVariable> list = new ArrayList<IVariable>();
-		String[] args = connection.sendCommandAndWait(MessageFormat.format(protocolVersion >= 2 ? VARIABLES_0_V2
-				: VARIABLES_0, threadId, Util.encodeData(qualifier)));
-		if (args != null)
+		String key = getVariablesCacheKey(threadId, qualifier);
+		Future<String[]> response = variablesCache.get(key);
+		if (response == null)
+		{
+			response = connection.sendCommandAsync(getVariablesCommand(threadId, qualifier));
+			Future<String[]> existing = variablesCache.putIfAbsent(key, response);
+			if (existing != null)
+			{
+				response.cancel(false);
+				response = existing;
+			}
+		}
+		String[] args = getResponse(response);
+		if (args == null)
+		{
+			// don't hang on to a timed out or lost request
+			variablesCache.remove(key);
+		}
+		else
 		{
 			for (int i = 1; i < args.length; ++i)
 			{
@@ -1608,6 +1636,103 @@ public class JSDebugTarget extends JSDebugElement implements IJSDebugTarget, IBr
 		return (IVariable[]) list.toArray(new IVariable[list.size()]);
 	}
 
+	/**
+	 * Requests the variables for all the qualifiers at once, so that the responses are already there (or on their
+	 * way) by the time {@link #loadVariables(String, String)} asks for them.
+	 * 
+	 * @param threadId
+	 * @param qualifiers
+	 * @throws DebugException
+	 */
+	protected void prefetchVariables(String threadId, String[] qualifiers) throws DebugException
+	{
+		if (!isThreadSuspended(threadId))
+		{
+			return;
+		}
+		List<String> keys = new ArrayList<String>(qualifiers.length);
+		List<String> commands = new ArrayList<String>(qualifiers.length);
+		for (String qualifier : qualifiers)
+		{
+			String key = getVariablesCacheKey(threadId, qualifier);
+			if (!variablesCache.containsKey(key))
+			{
+				keys.add(key);
+				commands.add(getVariablesCommand(threadId, qualifier));
+			}
+		}
+		if (commands.isEmpty())
+		{
+			return;
+		}
+		List<Future<String[]>> responses = connection.sendCommandsAsync(commands);
+		for (int i = 0; i < keys.size(); ++i)
+		{
+			if (variablesCache.putIfAbsent(keys.get(i), responses.get(i)) != null)
+			{
+				responses.get(i).cancel(false);
+			}
+		}
+	}
+
+	/**
+	 * Drops the cached variables of the thread, or of all threads if threadId is null
+	 * 
+	 * @param threadId
+	 */
+	protected void invalidateVariables(String threadId)
+	{
+		if (threadId == null)
+		{
+			variablesCache.clear();
+			return;
+		}
+		String prefix = getVariablesCacheKey(threadId, StringUtil.EMPTY);
+		for (String key : variablesCache.keySet())
+		{
+			if (key.startsWith(prefix))
+			{
+				variablesCache.remove(key);
+			}
+		}
+	}
+
+	private String getVariablesCommand(String threadId, String qualifier)
+	{
+		return MessageFormat.format(protocolVersion >= 2 ? VARIABLES_0_V2 : VARIABLES_0, threadId,
+				Util.encodeData(qualifier));
+	}
+
+	private static String getVariablesCacheKey(String threadId, String qualifier)
+	{
+		return threadId + '\n' + qualifier;
+	}
+
+	private static String[] getResponse(Future<String[]> response) throws DebugException
+	{
+		try
+		{
+			return response.get(DebugConnection.COMMAND_TIMEOUT, TimeUnit.MILLISECONDS);
+		}
+		catch (InterruptedException e)
+		{
+			DebugConnection.throwDebugException(e);
+		}
+		catch (ExecutionException e)
+		{
+			DebugConnection.throwDebugException(e);
+		}
+		catch (TimeoutException e)
+		{
+			response.cancel(false);
+		}
+		catch (CancellationException e)
+		{
+			// another caller gave up on it
+		}
+		return null;
+	}
+
 	/**
 	 * evaluateExpression
 	 * 
@@ -1643,6 +1768,8 @@ public class JSDebugTarget extends JSDebugElement implements IJSDebugTarget, IBr
 		String command = MessageFormat.format(protocolVersion >= 2 ? EVAL_0_1_V2 : EVAL_0_1, threadId,
 				Util.encodeData(qualifier), Util.encodeData(expression));
 		String[] args = connection.sendCommandAndWait(command);
+		// the expression may have had side effects
+		invalidateVariables(threadId);
 		String status = args != null && args.length > 1 ? args[1] : null;
 		if (RESULT.equals(status))
 		{
@@ -1705,6 +1832,7 @@ public class JSDebugTarget extends JSDebugElement implements IJSDebugTarget, IBr
 		String command = MessageFormat.format(protocolVersion >= 2 ? SET_VALUE_0_1_V2 : SET_VALUE_0_1, threadId,
 				Util.encodeData(qualifier), vqualifier);
 		String[] args = connection.sendCommandAndWait(command);
+		invalidateVariables(threadId);
 		if (args != null && args.length >= 3)
 		{
 			String status = args[1];
@@ -2500,6 +2628,7 @@ public class JSDebugTarget extends JSDebugElement implements IJSDebugTarget, IBr
 					threadId = args[1];
 					args = Util.removeArrayElement(args, 1);
 				}
+				invalidateVariables(threadId);
 				JSDebugThread thread = threads.get(threadId);
 				if (thread != null)
 				{
@@ -61,6 +61,11 @@ public class JSDebugThread extends JSDebugElement implements IThread
 	private static final String STEP_TO_FRAME_0 = "stepToFrame*{1,number,integer}"; //$NON-NLS-1$
 	private static final String STEP_TO_FRAME_0_V2 = "stepToFrame*{0}*{1,number,integer}"; //$NON-NLS-1$
 
+	/**
+	 * How many frames from the top to fetch the variables of when the stack is loaded
+	 */
+	private static final int PREFETCH_FRAMES = 32;
+
 	private enum State
 	{
 		STARTING, RUNNING, SUSPENDED, SUSPENDING, STEPPPING
@@ -563,7 +568,21 @@ public class JSDebugThread extends JSDebugElement implements IThread
 			}
 			stackFrames = (IStackFrame[]) frames.toArray(new IStackFrame[frames.size()]);
 			validateFrames = false;
+			prefetchVariables(target);
+		}
+	}
+
+	/**
+	 * Asks for the variables of the top frames in one go, rather than one round trip per frame as they get expanded
+	 */
+	private void prefetchVariables(JSDebugTarget target) throws DebugException
+	{
+		String[] qualifiers = new String[Math.min(stackFrames.length, PREFETCH_FRAMES)];
+		for (int i = 0; i < qualifiers.length; ++i)
+		{
+			qualifiers[i] = ((JSDebugStackFrame) stackFrames[i]).getQualifier();
 		}
+		target.prefetchVariables(threadId, qualifiers);
 	}
 
 	private synchronized void invalidateStackFrames()
@@ -10,6 +10,8 @@ package com.aptana.js.debug.core.model;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.Future;
 
 import org.eclipse.debug.core.DebugException;
 import org.eclipse.debug.core.ILaunch;
@@ -83,6 +85,28 @@ public interface IJSConnection
 	 */
 	String[] sendCommandAndWait(String command) throws DebugException;
 
+	/**
+	 * Sends a string command without waiting for its response. Any number of commands may be waiting for responses at
+	 * once; each response is matched to its command by the request id. The future's result is what
+	 * {@link #sendCommandAndWait(String)} would have returned, and is <code>null</code> if the connection is stopped
+	 * before the response arrives.
+	 * 
+	 * @param command
+	 * @return A {@link Future} for the response
+	 * @throws DebugException
+	 */
+	Future<String[]> sendCommandAsync(String command) throws DebugException;
+
+	/**
+	 * Sends several string commands in one go, without waiting for their responses in between. This takes a single
+	 * round trip rather than one for each command.
+	 * 
+	 * @param commands
+	 * @return A {@link Future} for the response to each command, in the same order
+	 * @throws DebugException
+	 */
+	List<Future<String[]>> sendCommandsAsync(List<String> commands) throws DebugException;
+
 	/**
 	 * Returns if this connection was terminated.s
 	 * 
@@ -7,26 +7,127 @@
  */
 package com.aptana.internal.parsing;
 
+import java.lang.ref.WeakReference;
+import java.text.MessageFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
 import org.eclipse.core.runtime.IConfigurationElement;
 
 import com.aptana.core.logging.IdeLog;
-import com.aptana.core.util.ReapingObjectPool;
 import com.aptana.parsing.IParser;
 import com.aptana.parsing.IParserPool;
+import com.aptana.parsing.ParserPoolStatistics;
 import com.aptana.parsing.ParsingPlugin;
 
-public class ParserPool extends ReapingObjectPool<IParser> implements IParserPool
+/**
+ * A bounded pool of parsers that doesn't lock on checkout or checkin. Each parser has an entry with an atomic state;
+ * checking out claims an idle entry with a compare-and-set, trying the one the calling thread used last before
+ * scanning the rest. A semaphore bounds how many parsers are out at once. A checkout that can't get one within
+ * {@link #MAX_WAIT} gets a fresh parser that is dropped on checkin, so a leaked parser can't hang parsing. Idle parsers
+ * are expired from a reaper thread shared by all pools.
+ */
+public class ParserPool implements IParserPool
 {
 
+	/**
+	 * System property used to override the most parsers a pool will hold.
+	 */
+	public static final String MAX_SIZE_PROPERTY = ParserPool.class.getName() + ".MAX_SIZE"; //$NON-NLS-1$
+
+	/**
+	 * How long, in milliseconds, a checkout waits for a parser before creating one past the pool's size.
+	 */
+	private static final long MAX_WAIT = 2000;
+
+	/**
+	 * How long, in milliseconds, a parser may sit idle before it's expired.
+	 */
+	private static final long EXPIRATION_TIME = 30000;
+	private static final long REAP_INTERVAL = 300000;
+
+	private static final int IN_USE = 0;
+	private static final int IDLE = 1;
+	private static final int REMOVED = 2;
+
+	private static ScheduledThreadPoolExecutor reaper;
+
+	private static class Entry
+	{
+		final IParser parser;
+		final AtomicInteger state = new AtomicInteger(IN_USE);
+		volatile long lastUsed;
+
+		Entry(IParser parser)
+		{
+			this.parser = parser;
+		}
+	}
+
 	private IConfigurationElement parserExtension;
 
+	private final int maxSize;
+	private final Semaphore permits;
+	private final List<Entry> entries = new CopyOnWriteArrayList<Entry>();
+	private final Map<IParser, Entry> entriesByParser = new ConcurrentHashMap<IParser, Entry>();
+	private final AtomicInteger size = new AtomicInteger();
+	private final ThreadLocal<WeakReference<Entry>> lastUsed = new ThreadLocal<WeakReference<Entry>>();
+	private final ScheduledFuture<?> reaping;
+
+	private final AtomicLong checkouts = new AtomicLong();
+	private final AtomicLong affinityHits = new AtomicLong();
+	private final AtomicLong waits = new AtomicLong();
+	private final AtomicLong waitTime = new AtomicLong();
+	private final AtomicLong creations = new AtomicLong();
+	private final AtomicLong expirations = new AtomicLong();
+	private final AtomicInteger highWaterMark = new AtomicInteger();
+
 	public ParserPool(IConfigurationElement parserExtension)
+	{
+		this(parserExtension, Integer.getInteger(MAX_SIZE_PROPERTY,
+				Math.max(4, Runtime.getRuntime().availableProcessors())));
+	}
+
+	protected ParserPool(IConfigurationElement parserExtension, int maxSize)
 	{
 		this.parserExtension = parserExtension;
-		start();
+		this.maxSize = Math.max(1, maxSize);
+		this.permits = new Semaphore(this.maxSize);
+		this.reaping = getReaper().scheduleWithFixedDelay(new Runnable()
+		{
+			public void run()
+			{
+				reap();
+			}
+		}, REAP_INTERVAL, REAP_INTERVAL, TimeUnit.MILLISECONDS);
+	}
+
+	private static synchronized ScheduledThreadPoolExecutor getReaper()
+	{
+		if (reaper == null)
+		{
+			reaper = new ScheduledThreadPoolExecutor(1, new ThreadFactory()
+			{
+				public Thread newThread(Runnable r)
+				{
+					Thread thread = new Thread(r, "Parser pool reaper"); //$NON-NLS-1$
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return reaper;
 	}
 
-	@Override
 	public IParser create()
 	{
 		try
@@ -40,16 +141,235 @@ public class ParserPool extends ReapingObjectPool<IParser> implements IParserPoo
 		return null;
 	}
 
-	@Override
 	public boolean validate(IParser o)
 	{
 		// Always keep one available parser
-		return unlockedItems() == 1;
+		return idleCount() <= 1;
 	}
 
-	@Override
 	public void expire(IParser o)
 	{
 		// no need to clean the parser up
 	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.aptana.core.util.IObjectPool#checkOut()
+	 */
+	public IParser checkOut()
+	{
+		checkouts.incrementAndGet();
+		if (!permits.tryAcquire())
+		{
+			long start = System.currentTimeMillis();
+			boolean acquired;
+			try
+			{
+				acquired = permits.tryAcquire(MAX_WAIT, TimeUnit.MILLISECONDS);
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				acquired = false;
+			}
+			waits.incrementAndGet();
+			waitTime.addAndGet(System.currentTimeMillis() - start);
+			if (!acquired)
+			{
+				// Not pooled; it's simply dropped when it comes back
+				IParser parser = create();
+				if (parser != null)
+				{
+					creations.incrementAndGet();
+				}
+				return parser;
+			}
+		}
+		// The permit goes back unless it ends up attached to a checked out parser, whatever happens on the way
+		Entry entry = null;
+		try
+		{
+			updateHighWaterMark(maxSize - permits.availablePermits());
+			entry = claim();
+			if (entry == null)
+			{
+				return null;
+			}
+			lastUsed.set(new WeakReference<Entry>(entry));
+			return entry.parser;
+		}
+		finally
+		{
+			if (entry == null)
+			{
+				permits.release();
+			}
+		}
+	}
+
+	/**
+	 * Finds an idle parser or makes a new one. The caller holds a permit.
+	 */
+	private Entry claim()
+	{
+		WeakReference<Entry> ref = lastUsed.get();
+		Entry entry = (ref == null) ? null : ref.get();
+		if (entry != null && entry.state.compareAndSet(IDLE, IN_USE))
+		{
+			affinityHits.incrementAndGet();
+			return entry;
+		}
+		while (true)
+		{
+			for (Entry candidate : entries)
+			{
+				if (candidate.state.compareAndSet(IDLE, IN_USE))
+				{
+					return candidate;
+				}
+			}
+			int current = size.get();
+			if (current < maxSize)
+			{
+				if (!size.compareAndSet(current, current + 1))
+				{
+					continue;
+				}
+				IParser parser = null;
+				try
+				{
+					parser = create();
+					if (parser == null)
+					{
+						return null;
+					}
+					creations.incrementAndGet();
+					entry = new Entry(parser);
+					entriesByParser.put(parser, entry);
+					entries.add(entry);
+					return entry;
+				}
+				finally
+				{
+					if (parser == null)
+					{
+						size.decrementAndGet();
+					}
+				}
+			}
+			// We hold a permit, so at most maxSize - 1 parsers are in use. Another one is about to show up as idle (or
+			// removed).
+			Thread.yield();
+		}
+	}
+
+	private void updateHighWaterMark(int inUse)
+	{
+		int high;
+		while ((high = highWaterMark.get()) < inUse && !highWaterMark.compareAndSet(high, inUse)) // $codepro.audit.disable assignmentInCondition
+		{
+			// retry
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.aptana.core.util.IObjectPool#checkIn(java.lang.Object)
+	 */
+	public void checkIn(IParser t)
+	{
+		if (t == null)
+		{
+			return;
+		}
+		Entry entry = entriesByParser.get(t);
+		if (entry == null)
+		{
+			// created past the pool's size
+			expire(t);
+			return;
+		}
+		entry.lastUsed = System.currentTimeMillis();
+		if (entry.state.compareAndSet(IN_USE, IDLE))
+		{
+			permits.release();
+		}
+	}
+
+	/**
+	 * Expires the parsers that have been idle for too long, keeping one around.
+	 */
+	public void reap()
+	{
+		long now = System.currentTimeMillis();
+		for (Entry entry : entries)
+		{
+			if (entry.state.get() == IDLE && (now - entry.lastUsed) > EXPIRATION_TIME && !validate(entry.parser)
+					&& entry.state.compareAndSet(IDLE, REMOVED))
+			{
+				remove(entry);
+			}
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.aptana.core.util.IObjectPool#dispose()
+	 */
+	public void dispose()
+	{
+		reaping.cancel(false);
+		getReaper().purge();
+		int locked = 0;
+		for (Entry entry : entries)
+		{
+			if (entry.state.compareAndSet(IDLE, REMOVED))
+			{
+				remove(entry);
+			}
+			else if (entry.state.get() == IN_USE)
+			{
+				locked++;
+			}
+		}
+		if (locked > 0)
+		{
+			IdeLog.logWarning(ParsingPlugin.getDefault(),
+					MessageFormat.format("Killed a parser pool that still has {0} locked items", locked)); //$NON-NLS-1$
+		}
+	}
+
+	private void remove(Entry entry)
+	{
+		entries.remove(entry);
+		entriesByParser.remove(entry.parser);
+		size.decrementAndGet();
+		expirations.incrementAndGet();
+		expire(entry.parser);
+	}
+
+	private int idleCount()
+	{
+		int count = 0;
+		for (Entry entry : entries)
+		{
+			if (entry.state.get() == IDLE)
+			{
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Returns a snapshot of this pool's counters.
+	 * 
+	 * @return
+	 */
+	public ParserPoolStatistics getStatistics()
+	{
+		return new ParserPoolStatistics(checkouts.get(), affinityHits.get(), waits.get(), waitTime.get(),
+				creations.get(), expirations.get(), size.get(), maxSize - permits.availablePermits(),
+				highWaterMark.get(), maxSize);
+	}
 }
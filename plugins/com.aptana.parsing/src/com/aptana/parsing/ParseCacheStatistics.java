@@ -0,0 +1,115 @@
+/**
+ * Aptana Studio
+ * Copyright (c) 2005-2013 by Appcelerator, Inc. All Rights Reserved.
+ * Licensed under the terms of the GNU Public License (GPL) v3 (with exceptions).
+ * Please see the license.html included with this distribution for details.
+ * Any modifications to this file must keep this entire header intact.
+ */
+package com.aptana.parsing;
+
+import java.text.MessageFormat;
+
+/**
+ * A snapshot of the parse result cache's counters, for monitoring. Counts are cumulative since the parsing engine was
+ * created.
+ */
+public final class ParseCacheStatistics
+{
+	private final long hits;
+	private final long misses;
+	private final long evictions;
+	private final int size;
+	private final long footprint;
+	private final long budget;
+
+	/**
+	 * ParseCacheStatistics
+	 * 
+	 * @param hits
+	 * @param misses
+	 * @param evictions
+	 * @param size
+	 * @param footprint
+	 * @param budget
+	 */
+	public ParseCacheStatistics(long hits, long misses, long evictions, int size, long footprint, long budget)
+	{
+		this.hits = hits;
+		this.misses = misses;
+		this.evictions = evictions;
+		this.size = size;
+		this.footprint = footprint;
+		this.budget = budget;
+	}
+
+	/**
+	 * The number of parses served from the cache, including those that waited for a parse already in progress.
+	 * 
+	 * @return
+	 */
+	public long getHits()
+	{
+		return hits;
+	}
+
+	/**
+	 * The number of parses that had to be done because the cache had no (suitable) result.
+	 * 
+	 * @return
+	 */
+	public long getMisses()
+	{
+		return misses;
+	}
+
+	/**
+	 * The number of results dropped from the cache to stay within its memory budget.
+	 * 
+	 * @return
+	 */
+	public long getEvictions()
+	{
+		return evictions;
+	}
+
+	/**
+	 * The number of results (completed or in progress) currently in the cache.
+	 * 
+	 * @return
+	 */
+	public int getSize()
+	{
+		return size;
+	}
+
+	/**
+	 * The estimated memory, in bytes, held by the cached ASTs.
+	 * 
+	 * @return
+	 */
+	public long getFootprint()
+	{
+		return footprint;
+	}
+
+	/**
+	 * The estimated memory, in bytes, the cache may hold.
+	 * 
+	 * @return
+	 */
+	public long getBudget()
+	{
+		return budget;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString()
+	{
+		return MessageFormat.format("hits: {0}, misses: {1}, evictions: {2}, size: {3}, footprint: {4}/{5}", //$NON-NLS-1$
+				hits, misses, evictions, size, footprint, budget);
+	}
+}
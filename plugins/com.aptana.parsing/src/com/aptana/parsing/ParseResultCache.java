@@ -0,0 +1,489 @@
+/**
+ * Aptana Studio
+ * Copyright (c) 2005-2013 by Appcelerator, Inc. All Rights Reserved.
+ * Licensed under the terms of the GNU Public License (GPL) v3 (with exceptions).
+ * Please see the license.html included with this distribution for details.
+ * Any modifications to this file must keep this entire header intact.
+ */
+package com.aptana.parsing;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.core.runtime.Assert;
+
+import com.aptana.parsing.ast.IParseNode;
+import com.aptana.parsing.ast.IParseRootNode;
+
+/**
+ * The parse results shared by everyone going through the {@link ParsingEngine}, keyed by the content digest and parse
+ * options of the parse state (see {@link IParseStateCacheKey}).
+ * <p>
+ * The cache is split into lock-striped segments so lookups for different content don't contend. Its size is bounded by
+ * a memory budget, measured as the estimated footprint of the cached ASTs. When over budget, the least recently used
+ * results are evicted across all segments. Evicted results are still held through soft references, so they can come
+ * back as long as the VM doesn't need the memory.
+ * <p>
+ * An entry is registered before the parse that produces its result is done, which is what lets concurrent requests for
+ * the same content wait for a single parse. Pending entries don't count against the budget and are never evicted.
+ */
+class ParseResultCache
+{
+	/**
+	 * Rough number of bytes retained per AST node (the node, its offsets, child array slot and language specific
+	 * fields).
+	 */
+	private static final int NODE_FOOTPRINT = 64;
+
+	private static final int SEGMENT_COUNT = 16;
+
+	/**
+	 * A cached parse result, which may still be in progress.
+	 */
+	static class Entry
+	{
+		private final IParseStateCacheKey fKey;
+
+		/**
+		 * Set by the one thread that got to do the parse for this entry.
+		 */
+		private final AtomicBoolean fClaimed = new AtomicBoolean();
+
+		/**
+		 * Lock to help in synchronizing (threads should wait in it while a result is not available).
+		 */
+		private final Object fLock = new Object();
+
+		private volatile ParseResult fResult;
+
+		/**
+		 * Footprint while in the cache, 0 while pending. Guarded by the segment lock.
+		 */
+		private int fFootprint;
+
+		/**
+		 * Value of the cache's access clock the last time this entry was used. Guarded by the segment lock.
+		 */
+		private long fLastAccess;
+
+		Entry(IParseStateCacheKey key)
+		{
+			fKey = key;
+		}
+
+		/**
+		 * @return true for the first caller only, which is then responsible for parsing and calling
+		 *         {@link ParseResultCache#setResult(Entry, ParseResult)}.
+		 */
+		boolean claimParse()
+		{
+			return fClaimed.compareAndSet(false, true);
+		}
+
+		/**
+		 * @return the result from doing the parse. If it's still not available, blocks until it's provided.
+		 */
+		ParseResult getResult()
+		{
+			while (fResult == null) // Double-check pattern for speed.
+			{
+				synchronized (fLock)
+				{
+					if (fResult == null)
+					{
+						try
+						{
+							fLock.wait();
+						}
+						catch (InterruptedException e)
+						{
+							// ignore
+						}
+					}
+				}
+			}
+			return fResult;
+		}
+
+		boolean isDone()
+		{
+			return fResult != null;
+		}
+	}
+
+	/**
+	 * A soft reference to an evicted entry, which remembers its key so it can be purged once cleared.
+	 */
+	private static class SoftEntry extends SoftReference<Entry>
+	{
+		final IParseStateCacheKey key;
+
+		SoftEntry(Entry entry, ReferenceQueue<Entry> queue)
+		{
+			super(entry, queue);
+			this.key = entry.fKey;
+		}
+	}
+
+	/**
+	 * A share of the cache with its own lock. Entries are kept in access order, so the eldest completed entry is the
+	 * segment's eviction candidate.
+	 */
+	private static class Segment
+	{
+		final LinkedHashMap<IParseStateCacheKey, Entry> entries = new LinkedHashMap<IParseStateCacheKey, Entry>(16,
+				0.75f, true);
+	}
+
+	private final Segment[] fSegments;
+	private final ConcurrentHashMap<IParseStateCacheKey, SoftEntry> fSoftEntries;
+	private final ReferenceQueue<Entry> fSoftQueue;
+	private final AtomicLong fClock = new AtomicLong();
+	private final AtomicLong fFootprint = new AtomicLong();
+	private final AtomicLong fHits = new AtomicLong();
+	private final AtomicLong fMisses = new AtomicLong();
+	private final AtomicLong fEvictions = new AtomicLong();
+	private final long fBudget;
+
+	/**
+	 * ParseResultCache
+	 * 
+	 * @param budget
+	 *            The estimated number of bytes of AST the cache may hold strongly
+	 */
+	ParseResultCache(long budget)
+	{
+		fBudget = budget;
+		fSegments = new Segment[SEGMENT_COUNT];
+		for (int i = 0; i < SEGMENT_COUNT; i++)
+		{
+			fSegments[i] = new Segment();
+		}
+		fSoftEntries = new ConcurrentHashMap<IParseStateCacheKey, SoftEntry>();
+		fSoftQueue = new ReferenceQueue<Entry>();
+	}
+
+	/**
+	 * Returns the entry for the specified key. If there's no entry for it (or the one there was parsed with options
+	 * that don't satisfy this key), a new pending entry is registered and returned: the caller that manages to
+	 * {@link Entry#claimParse()} it must then provide its result.
+	 * 
+	 * @param key
+	 * @return
+	 */
+	Entry lookup(IParseStateCacheKey key)
+	{
+		Segment segment = segmentFor(key);
+		Entry entry;
+		boolean resurrected = false;
+
+		synchronized (segment)
+		{
+			entry = segment.entries.get(key);
+
+			if (entry == null)
+			{
+				SoftEntry softEntry = fSoftEntries.remove(key);
+				entry = (softEntry != null) ? softEntry.get() : null;
+
+				if (entry != null)
+				{
+					// bring it back into the main cache
+					segment.entries.put(key, entry);
+					entry.fFootprint = computeFootprint(entry.fResult);
+					fFootprint.addAndGet(entry.fFootprint);
+					resurrected = true;
+				}
+			}
+
+			if (entry != null && !entry.fKey.requiresReparse(key))
+			{
+				fHits.incrementAndGet();
+				entry.fLastAccess = fClock.incrementAndGet();
+			}
+			else
+			{
+				fMisses.incrementAndGet();
+
+				if (entry != null)
+				{
+					fFootprint.addAndGet(-entry.fFootprint);
+					entry.fFootprint = 0;
+				}
+
+				entry = new Entry(key);
+				entry.fLastAccess = fClock.incrementAndGet();
+				segment.entries.put(key, entry);
+			}
+		}
+
+		if (resurrected)
+		{
+			evictOverBudget();
+		}
+
+		return entry;
+	}
+
+	/**
+	 * Provides the result for an entry returned by {@link #lookup(IParseStateCacheKey)}, waking up anyone waiting for
+	 * it. The entry then starts counting against the budget, and since it was just used, becomes the most recently used
+	 * one. Done this way because we may have the situation where a main parse has multiple sub-parses, and it's more
+	 * important to persist the main parse than the sub-parses.
+	 * 
+	 * @param entry
+	 * @param result
+	 *            must not be null (should be an empty parse result if needed)
+	 */
+	void setResult(Entry entry, ParseResult result)
+	{
+		Assert.isNotNull(result);
+
+		synchronized (entry.fLock)
+		{
+			entry.fResult = result;
+			entry.fLock.notifyAll();
+		}
+
+		Segment segment = segmentFor(entry.fKey);
+
+		synchronized (segment)
+		{
+			// the entry may have been removed, flushed or replaced by a parse with other options in the meantime
+			if (segment.entries.get(entry.fKey) == entry)
+			{
+				fFootprint.addAndGet(-entry.fFootprint);
+				entry.fFootprint = computeFootprint(result);
+				fFootprint.addAndGet(entry.fFootprint);
+				entry.fLastAccess = fClock.incrementAndGet();
+			}
+		}
+
+		evictOverBudget();
+	}
+
+	/**
+	 * Forgets an entry whose parse couldn't even be started, so later lookups try again.
+	 * 
+	 * @param entry
+	 */
+	void remove(Entry entry)
+	{
+		Segment segment = segmentFor(entry.fKey);
+
+		synchronized (segment)
+		{
+			if (segment.entries.get(entry.fKey) == entry)
+			{
+				segment.entries.remove(entry.fKey);
+				fFootprint.addAndGet(-entry.fFootprint);
+				entry.fFootprint = 0;
+			}
+		}
+	}
+
+	/**
+	 * Drops everything, including the softly referenced entries. The statistics are kept.
+	 */
+	void flush()
+	{
+		for (Segment segment : fSegments)
+		{
+			synchronized (segment)
+			{
+				for (Entry entry : segment.entries.values())
+				{
+					fFootprint.addAndGet(-entry.fFootprint);
+					entry.fFootprint = 0;
+				}
+				segment.entries.clear();
+			}
+		}
+		fSoftEntries.clear();
+	}
+
+	/**
+	 * Takes a snapshot of the cache's counters.
+	 * 
+	 * @return
+	 */
+	ParseCacheStatistics getStatistics()
+	{
+		int size = 0;
+
+		for (Segment segment : fSegments)
+		{
+			synchronized (segment)
+			{
+				size += segment.entries.size();
+			}
+		}
+
+		return new ParseCacheStatistics(fHits.get(), fMisses.get(), fEvictions.get(), size, fFootprint.get(), fBudget);
+	}
+
+	/**
+	 * Evicts the least recently used completed entries, across all segments, until the cache is within its budget.
+	 */
+	private void evictOverBudget()
+	{
+		purgeSoftEntries();
+
+		while (fFootprint.get() > fBudget)
+		{
+			// find the segment holding the least recently used completed entry
+			Segment victimSegment = null;
+			long victimAccess = Long.MAX_VALUE;
+
+			for (Segment segment : fSegments)
+			{
+				synchronized (segment)
+				{
+					Entry eldest = eldestCompleted(segment);
+
+					if (eldest != null && eldest.fLastAccess < victimAccess)
+					{
+						victimSegment = segment;
+						victimAccess = eldest.fLastAccess;
+					}
+				}
+			}
+
+			if (victimSegment == null)
+			{
+				return; // only pending entries left
+			}
+
+			synchronized (victimSegment)
+			{
+				Entry eldest = eldestCompleted(victimSegment);
+
+				// someone may have used or evicted it in the meantime; just look again
+				if (eldest != null && eldest.fLastAccess == victimAccess)
+				{
+					victimSegment.entries.remove(eldest.fKey);
+					fFootprint.addAndGet(-eldest.fFootprint);
+					eldest.fFootprint = 0;
+					fSoftEntries.put(eldest.fKey, new SoftEntry(eldest, fSoftQueue));
+					fEvictions.incrementAndGet();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Must be called holding the segment's lock.
+	 * 
+	 * @param segment
+	 * @return
+	 */
+	private Entry eldestCompleted(Segment segment)
+	{
+		for (Iterator<Entry> iterator = segment.entries.values().iterator(); iterator.hasNext();)
+		{
+			Entry entry = iterator.next();
+
+			if (entry.isDone())
+			{
+				return entry;
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Removes the soft entries the garbage collector has cleared.
+	 */
+	private void purgeSoftEntries()
+	{
+		SoftEntry cleared;
+
+		while ((cleared = (SoftEntry) fSoftQueue.poll()) != null)
+		{
+			fSoftEntries.remove(cleared.key, cleared);
+		}
+	}
+
+	/**
+	 * segmentFor
+	 * 
+	 * @param key
+	 * @return
+	 */
+	private Segment segmentFor(IParseStateCacheKey key)
+	{
+		int hash = key.hashCode();
+
+		// spread the bits, the low ones may not vary much
+		hash ^= (hash >>> 20) ^ (hash >>> 12);
+		hash ^= (hash >>> 7) ^ (hash >>> 4);
+
+		return fSegments[hash & (SEGMENT_COUNT - 1)];
+	}
+
+	/**
+	 * Estimates the memory retained by a parse result from the number of nodes in its AST.
+	 * 
+	 * @param result
+	 * @return
+	 */
+	private static int computeFootprint(ParseResult result)
+	{
+		IParseRootNode root = (result != null) ? result.getRootNode() : null;
+
+		if (root == null)
+		{
+			return NODE_FOOTPRINT;
+		}
+
+		int nodes = countNodes(root);
+		IParseNode[] comments = root.getCommentNodes();
+
+		if (comments != null)
+		{
+			nodes += comments.length;
+		}
+
+		return nodes * NODE_FOOTPRINT;
+	}
+
+	/**
+	 * countNodes
+	 * 
+	 * @param root
+	 * @return
+	 */
+	private static int countNodes(IParseNode root)
+	{
+		int count = 0;
+		ArrayList<IParseNode> stack = new ArrayList<IParseNode>();
+
+		stack.add(root);
+
+		while (!stack.isEmpty())
+		{
+			IParseNode node = stack.remove(stack.size() - 1);
+
+			count++;
+
+			for (int i = 0, childCount = node.getChildCount(); i < childCount; i++)
+			{
+				IParseNode child = node.getChild(i);
+
+				if (child != null)
+				{
+					stack.add(child);
+				}
+			}
+		}
+
+		return count;
+	}
+}
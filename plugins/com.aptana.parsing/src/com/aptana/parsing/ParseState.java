@@ -7,6 +7,10 @@
  */
 package com.aptana.parsing;
 
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.NullProgressMonitor;
 
@@ -27,7 +31,8 @@ public class ParseState implements IParseState
 
 	/**
 	 * Used for determining if we need to re-parse or cache is valid. If 2 objects have the same cache-key, their parse
-	 * results should be considered equal.
+	 * results should be considered equal. Computed on first use, as digesting the source isn't free and most parses of
+	 * small sources never go through the cache.
 	 */
 	private ImmutableTupleN fCacheKey;
 
@@ -46,7 +51,6 @@ public class ParseState implements IParseState
 		fSource = (source != null) ? source : StringUtil.EMPTY;
 		fStartingOffset = startingOffset;
 		fSkippedRanges = ranges;
-		fCacheKey = calculateCacheKey();
 	}
 
 	/**
@@ -54,30 +58,72 @@ public class ParseState implements IParseState
 	 */
 	protected ImmutableTupleN calculateCacheKey()
 	{
-		int length = fSource.length();
+		String source = (fSource != null) ? fSource : StringUtil.EMPTY;
+		int length = source.length();
 		if (length < 11)
 		{
-			// If it's a small string, just keep it instead of using the hashCode().
-			return new ImmutableTupleN(length, fSource, fStartingOffset);
+			// If it's a small string, just keep it instead of using a digest.
+			return new ImmutableTupleN(length, source, fStartingOffset);
 		}
-		else
+
+		// A strong digest of the contents, so that equal keys really mean equal contents (the editors, the builder and
+		// content assist all share parses based on this).
+		String digest = digest(source);
+		if (digest != null)
 		{
-			// Note: we currently use the fSource.hashCode() in order to decide if the contents of this parse equal
-			// the contents of another parse. Conflicts may still arise in this situation -- an md5 would be more
-			// accurate. As an attempt to make this just a bit better we also get 5 chars from the string from
-			// many locations of the string and add them to our result too, so that the chance of a collision is even
-			// lower.
-			char[] chars = new char[5];
-			double factor = length / 4.0;
-
-			chars[0] = fSource.charAt(0); // first char
-			chars[1] = fSource.charAt((int) factor);
-			chars[2] = fSource.charAt((int) (2 * factor));
-			chars[3] = fSource.charAt((int) (3 * factor));
-			chars[4] = fSource.charAt(length - 1); // last char
-
-			return new ImmutableTupleN(length, fSource.hashCode(), new String(chars), fStartingOffset);
+			return new ImmutableTupleN(length, digest, fStartingOffset);
 		}
+
+		// No digest available: use the hashCode() plus 5 chars from many locations of the string, so that the chance
+		// of a collision is at least lower.
+		char[] chars = new char[5];
+		double factor = length / 4.0;
+
+		chars[0] = source.charAt(0); // first char
+		chars[1] = source.charAt((int) factor);
+		chars[2] = source.charAt((int) (2 * factor));
+		chars[3] = source.charAt((int) (3 * factor));
+		chars[4] = source.charAt(length - 1); // last char
+
+		return new ImmutableTupleN(length, source.hashCode(), new String(chars), fStartingOffset);
+	}
+
+	/**
+	 * Computes a SHA-1 digest of the UTF-16 chars of the source.
+	 * 
+	 * @param source
+	 * @return null if the digest algorithm isn't available
+	 */
+	private static String digest(String source)
+	{
+		MessageDigest md;
+		try
+		{
+			md = MessageDigest.getInstance("SHA-1"); //$NON-NLS-1$
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			return null;
+		}
+
+		byte[] buffer = new byte[8192];
+		int length = source.length();
+		int position = 0;
+
+		while (position < length)
+		{
+			int count = Math.min(buffer.length / 2, length - position);
+			for (int i = 0; i < count; i++)
+			{
+				char c = source.charAt(position + i);
+				buffer[2 * i] = (byte) (c >> 8);
+				buffer[2 * i + 1] = (byte) c;
+			}
+			md.update(buffer, 0, 2 * count);
+			position += count;
+		}
+
+		return new BigInteger(1, md.digest()).toString(Character.MAX_RADIX);
 	}
 
 	public void clearEditState()
@@ -134,6 +180,10 @@ public class ParseState implements IParseState
 
 	public IParseStateCacheKey getCacheKey(String contentTypeId)
 	{
+		if (fCacheKey == null)
+		{
+			fCacheKey = calculateCacheKey();
+		}
 		return new ParseStateCacheKey(contentTypeId, fCacheKey);
 	}
 
@@ -173,6 +173,42 @@ public class ParserPoolFactory implements ParsingEngine.IParserPoolProvider
 		return result;
 	}
 
+	/**
+	 * Returns the hit, miss and eviction counts of the cache shared by all parses going through this factory.
+	 * 
+	 * @return
+	 */
+	public static ParseCacheStatistics getCacheStatistics()
+	{
+		return getInstance().fParsingEngine.getCacheStatistics();
+	}
+
+	/**
+	 * Returns the counters of each parser pool created so far, by content type.
+	 * 
+	 * @return
+	 */
+	public static Map<String, ParserPoolStatistics> getPoolStatistics()
+	{
+		return getInstance().getStatistics();
+	}
+
+	private synchronized Map<String, ParserPoolStatistics> getStatistics()
+	{
+		Map<String, ParserPoolStatistics> statistics = new HashMap<String, ParserPoolStatistics>();
+		if (pools != null)
+		{
+			for (Map.Entry<String, IParserPool> entry : pools.entrySet())
+			{
+				if (entry.getValue() instanceof ParserPool)
+				{
+					statistics.put(entry.getKey(), ((ParserPool) entry.getValue()).getStatistics());
+				}
+			}
+		}
+		return statistics;
+	}
+
 	/**
 	 * parse
 	 * 
@@ -0,0 +1,168 @@
+/**
+ * Aptana Studio
+ * Copyright (c) 2005-2013 by Appcelerator, Inc. All Rights Reserved.
+ * Licensed under the terms of the GNU Public License (GPL) v3 (with exceptions).
+ * Please see the license.html included with this distribution for details.
+ * Any modifications to this file must keep this entire header intact.
+ */
+package com.aptana.parsing;
+
+import java.text.MessageFormat;
+
+/**
+ * A snapshot of a parser pool's counters, for monitoring. Counts are cumulative since the pool was created.
+ */
+public final class ParserPoolStatistics
+{
+	private final long checkouts;
+	private final long affinityHits;
+	private final long waits;
+	private final long waitTime;
+	private final long creations;
+	private final long expirations;
+	private final int size;
+	private final int inUse;
+	private final int highWaterMark;
+	private final int maxSize;
+
+	/**
+	 * ParserPoolStatistics
+	 * 
+	 * @param checkouts
+	 * @param affinityHits
+	 * @param waits
+	 * @param waitTime
+	 * @param creations
+	 * @param expirations
+	 * @param size
+	 * @param inUse
+	 * @param highWaterMark
+	 * @param maxSize
+	 */
+	public ParserPoolStatistics(long checkouts, long affinityHits, long waits, long waitTime, long creations,
+			long expirations, int size, int inUse, int highWaterMark, int maxSize)
+	{
+		this.checkouts = checkouts;
+		this.affinityHits = affinityHits;
+		this.waits = waits;
+		this.waitTime = waitTime;
+		this.creations = creations;
+		this.expirations = expirations;
+		this.size = size;
+		this.inUse = inUse;
+		this.highWaterMark = highWaterMark;
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * The number of parsers handed out.
+	 * 
+	 * @return
+	 */
+	public long getCheckouts()
+	{
+		return checkouts;
+	}
+
+	/**
+	 * The number of checkouts that got back the parser the same thread used last.
+	 * 
+	 * @return
+	 */
+	public long getAffinityHits()
+	{
+		return affinityHits;
+	}
+
+	/**
+	 * The number of checkouts that had to wait because every parser was in use.
+	 * 
+	 * @return
+	 */
+	public long getWaits()
+	{
+		return waits;
+	}
+
+	/**
+	 * The total time, in milliseconds, checkouts spent waiting.
+	 * 
+	 * @return
+	 */
+	public long getWaitTime()
+	{
+		return waitTime;
+	}
+
+	/**
+	 * The number of parsers created, including the ones made past the pool's size after waiting too long.
+	 * 
+	 * @return
+	 */
+	public long getCreations()
+	{
+		return creations;
+	}
+
+	/**
+	 * The number of idle parsers the pool let go of.
+	 * 
+	 * @return
+	 */
+	public long getExpirations()
+	{
+		return expirations;
+	}
+
+	/**
+	 * The number of parsers currently held by the pool, idle or not.
+	 * 
+	 * @return
+	 */
+	public int getSize()
+	{
+		return size;
+	}
+
+	/**
+	 * The number of parsers currently checked out.
+	 * 
+	 * @return
+	 */
+	public int getInUse()
+	{
+		return inUse;
+	}
+
+	/**
+	 * The most parsers that were ever checked out at once.
+	 * 
+	 * @return
+	 */
+	public int getHighWaterMark()
+	{
+		return highWaterMark;
+	}
+
+	/**
+	 * The most parsers the pool will hold.
+	 * 
+	 * @return
+	 */
+	public int getMaxSize()
+	{
+		return maxSize;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString()
+	{
+		return MessageFormat.format(
+				"checkouts: {0}, affinity hits: {1}, waits: {2} ({3}ms), creations: {4}, expirations: {5}, size: {6}, in use: {7}, high water mark: {8}/{9}", //$NON-NLS-1$
+				checkouts, affinityHits, waits, waitTime, creations, expirations, size, inUse, highWaterMark, maxSize);
+	}
+}
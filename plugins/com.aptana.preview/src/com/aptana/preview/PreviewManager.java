@@ -441,7 +441,7 @@ public final class PreviewManager {
 		}
 		if (watchPath != null) {
 			try {
-				int watchId = FileWatcher.addWatch(watchPath, IJNotify.FILE_ANY, true, new JNotifyAdapter() {
+				int watchId = FileWatcher.addCoalescingWatch(watchPath, IJNotify.FILE_ANY, true, new JNotifyAdapter() {
 
 					@Override
 					public void fileCreated(int wd, String rootPath, String name) {
@@ -0,0 +1,308 @@
+/**
+ * Aptana Studio
+ * Copyright (c) 2014 by Appcelerator, Inc. All Rights Reserved.
+ * Licensed under the terms of the GNU Public License (GPL) v3 (with exceptions).
+ * Please see the license.html included with this distribution for details.
+ * Any modifications to this file must keep this entire header intact.
+ */
+package com.aptana.scope;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import com.aptana.core.util.StringUtil;
+import com.aptana.scripting.model.AbstractBundleElement;
+
+/**
+ * An index of bundle elements by the atoms of their scope selectors, so that finding the elements that could match a
+ * scope doesn't mean running every element's selector against it.
+ * <p>
+ * An atom is the first segment of a name in a selector, e.g. "source" for "source.ruby string". A name only matches a
+ * step of a scope that starts with the same segment, so an element can only match a scope if one of the steps of the
+ * scope starts with one of the element's atoms. Selectors we can't say that for (the match-any selector, a negative
+ * lookahead missing a side) make their element a candidate for every scope.
+ * <p>
+ * The index is immutable. Candidates are only that: callers still have to match them against the scope.
+ */
+public class ScopeSelectorIndex<T extends AbstractBundleElement>
+{
+	private static final Pattern SPACES = Pattern.compile("\\s+"); //$NON-NLS-1$
+	private static final int[] NO_POSITIONS = new int[0];
+
+	private final List<T> elements;
+
+	/**
+	 * Positions in {@link #elements} of the elements for each atom
+	 */
+	private final Map<String, int[]> positionsByAtom;
+
+	/**
+	 * Positions of the elements that are candidates for any scope
+	 */
+	private final int[] unindexed;
+
+	/**
+	 * ScopeSelectorIndex
+	 * 
+	 * @param elements
+	 *            The elements to index, candidates are returned in this order
+	 */
+	public ScopeSelectorIndex(List<T> elements)
+	{
+		this.elements = new ArrayList<T>(elements);
+
+		Map<String, List<Integer>> byAtom = new HashMap<String, List<Integer>>();
+		List<Integer> any = new ArrayList<Integer>();
+
+		for (int i = 0; i < this.elements.size(); i++)
+		{
+			Set<String> atoms = getAtoms(this.elements.get(i).getScopeSelector());
+
+			if (atoms == null)
+			{
+				any.add(i);
+				continue;
+			}
+
+			for (String atom : atoms)
+			{
+				List<Integer> positions = byAtom.get(atom);
+
+				if (positions == null)
+				{
+					positions = new ArrayList<Integer>();
+					byAtom.put(atom, positions);
+				}
+
+				positions.add(i);
+			}
+		}
+
+		this.positionsByAtom = new HashMap<String, int[]>(byAtom.size());
+
+		for (Map.Entry<String, List<Integer>> entry : byAtom.entrySet())
+		{
+			this.positionsByAtom.put(entry.getKey(), toArray(entry.getValue()));
+		}
+
+		this.unindexed = toArray(any);
+	}
+
+	/**
+	 * Returns the elements that could match any of the given scopes, in the order they were given to the index.
+	 * 
+	 * @param scopes
+	 * @return
+	 */
+	public List<T> getCandidates(String[] scopes)
+	{
+		if (scopes == null || elements.isEmpty())
+		{
+			return Collections.emptyList();
+		}
+
+		List<int[]> lists = new ArrayList<int[]>();
+		Set<String> seen = new HashSet<String>();
+		int total = unindexed.length;
+
+		lists.add(unindexed);
+
+		for (String scope : scopes)
+		{
+			if (scope == null)
+			{
+				continue;
+			}
+
+			for (String step : SPACES.split(scope))
+			{
+				String atom = getAtom(step);
+				int[] positions = positionsByAtom.get(atom);
+
+				if (positions != null && seen.add(atom))
+				{
+					lists.add(positions);
+					total += positions.length;
+				}
+			}
+		}
+
+		// an element can be listed under more than one atom, sort and drop the repeats
+		int[] all = new int[total];
+		int count = 0;
+
+		for (int[] positions : lists)
+		{
+			System.arraycopy(positions, 0, all, count, positions.length);
+			count += positions.length;
+		}
+
+		Arrays.sort(all);
+
+		List<T> result = new ArrayList<T>(count);
+
+		for (int i = 0; i < count; i++)
+		{
+			if (i == 0 || all[i] != all[i - 1])
+			{
+				result.add(elements.get(all[i]));
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Return the number of elements in the index
+	 * 
+	 * @return
+	 */
+	public int size()
+	{
+		return elements.size();
+	}
+
+	/**
+	 * Returns the atoms a scope has to contain for the selector to match it, the empty set if the selector never
+	 * matches, or null if it could match any scope.
+	 * 
+	 * @param selector
+	 * @return
+	 */
+	static Set<String> getAtoms(IScopeSelector selector)
+	{
+		if (selector instanceof ScopeSelector)
+		{
+			ISelectorNode root = ((ScopeSelector) selector).getRoot();
+
+			// a selector that failed to parse never matches
+			return (root == null) ? Collections.<String> emptySet() : getAtoms(root);
+		}
+
+		return null;
+	}
+
+	private static Set<String> getAtoms(ISelectorNode node)
+	{
+		if (node instanceof NameSelector)
+		{
+			String name = node.toString();
+
+			// an empty name never matches
+			return StringUtil.isEmpty(name) ? Collections.<String> emptySet() : Collections.singleton(getAtom(name));
+		}
+
+		if (node instanceof GroupSelector)
+		{
+			ISelectorNode child = ((GroupSelector) node).getChild();
+
+			return (child == null) ? Collections.<String> emptySet() : getAtoms(child);
+		}
+
+		if (node instanceof NegativeLookaheadSelector)
+		{
+			BinarySelector binary = (BinarySelector) node;
+
+			// without both sides this matches anything, with them only the left-hand side has to match
+			if (binary.getLeftChild() == null || binary.getRightChild() == null)
+			{
+				return null;
+			}
+
+			return getAtoms(binary.getLeftChild());
+		}
+
+		if (node instanceof OrSelector)
+		{
+			BinarySelector binary = (BinarySelector) node;
+
+			if (binary.getLeftChild() == null)
+			{
+				return Collections.emptySet();
+			}
+
+			Set<String> leftAtoms = getAtoms(binary.getLeftChild());
+
+			if (binary.getRightChild() == null)
+			{
+				return leftAtoms;
+			}
+
+			Set<String> rightAtoms = getAtoms(binary.getRightChild());
+
+			if (leftAtoms == null || rightAtoms == null)
+			{
+				return null;
+			}
+
+			Set<String> result = new HashSet<String>(leftAtoms);
+
+			result.addAll(rightAtoms);
+
+			return result;
+		}
+
+		if (node instanceof DescendantSelector || node instanceof IntersectionSelector)
+		{
+			BinarySelector binary = (BinarySelector) node;
+
+			if (binary.getLeftChild() == null || binary.getRightChild() == null)
+			{
+				return Collections.emptySet();
+			}
+
+			// both sides have to match, so either side will do. Take the one that narrows things down most
+			Set<String> leftAtoms = getAtoms(binary.getLeftChild());
+			Set<String> rightAtoms = getAtoms(binary.getRightChild());
+
+			if (leftAtoms == null)
+			{
+				return rightAtoms;
+			}
+
+			if (rightAtoms == null || leftAtoms.size() <= rightAtoms.size())
+			{
+				return leftAtoms;
+			}
+
+			return rightAtoms;
+		}
+
+		// we don't know what this matches
+		return null;
+	}
+
+	/**
+	 * The first segment of a name or scope step, e.g. "source" for "source.ruby.embedded"
+	 */
+	private static String getAtom(String name)
+	{
+		int dot = name.indexOf('.');
+
+		return (dot == -1) ? name : name.substring(0, dot);
+	}
+
+	private static int[] toArray(List<Integer> list)
+	{
+		if (list.isEmpty())
+		{
+			return NO_POSITIONS;
+		}
+
+		int[] result = new int[list.size()];
+
+		for (int i = 0; i < result.length; i++)
+		{
+			result[i] = list.get(i);
+		}
+
+		return result;
+	}
+}
@@ -120,6 +120,22 @@ public abstract class AbstractBundleElement extends AbstractElement
 		return result;
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * @see com.aptana.scripting.model.AbstractElement#setDisplayName(java.lang.String)
+	 */
+	@Override
+	public void setDisplayName(String displayName)
+	{
+		super.setDisplayName(displayName);
+
+		// the visible elements of a bundle are picked by name
+		if (this.owningBundle != null)
+		{
+			this.owningBundle.invalidateScopeIndexes();
+		}
+	}
+
 	/**
 	 * setOwningBundle
 	 * 
@@ -149,6 +165,11 @@ public abstract class AbstractBundleElement extends AbstractElement
 		{
 			this._scope = BundleManager.getInstance().sharedString(scope);
 			this._scopeSelector = null;
+
+			if (this.owningBundle != null)
+			{
+				this.owningBundle.invalidateScopeIndexes();
+			}
 		}
 	}
 
@@ -96,6 +96,7 @@ public class BundleElement extends AbstractElement
 			BundleEntry.VisibilityContext context = this.getVisibilityContext(element.getClass());
 
 			_children.add(element);
+			invalidateScopeIndexes();
 
 			if (context != null)
 			{
@@ -220,6 +221,7 @@ public class BundleElement extends AbstractElement
 	public void setChildren(List<AbstractBundleElement> children)
 	{
 		this._children.clear();
+		invalidateScopeIndexes();
 
 		if (children != null)
 		{
@@ -841,6 +843,19 @@ public class BundleElement extends AbstractElement
 		}
 	}
 
+	/**
+	 * Let the entry for this bundle know that its children changed
+	 */
+	void invalidateScopeIndexes()
+	{
+		BundleEntry entry = BundleManager.getInstance().getBundleEntry(this.getDisplayName());
+
+		if (entry != null)
+		{
+			entry.invalidateScopeIndexes();
+		}
+	}
+
 	/**
 	 * removeChild
 	 * 
@@ -856,6 +871,8 @@ public class BundleElement extends AbstractElement
 		boolean removed = this._children.remove(element);
 		if (removed)
 		{
+			invalidateScopeIndexes();
+
 			if (context != null)
 			{
 				context.updateElementContext();
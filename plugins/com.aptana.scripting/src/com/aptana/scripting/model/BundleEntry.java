@@ -20,6 +20,7 @@ import java.util.Set;
 import org.jruby.RubyRegexp;
 
 import com.aptana.scope.ScopeSelector;
+import com.aptana.scope.ScopeSelectorIndex;
 
 public class BundleEntry
 {
@@ -410,6 +411,14 @@ public class BundleEntry
 
 	private String _name;
 	private List<BundleElement> _bundles;
+
+	/**
+	 * Visible elements of each type indexed by their scope selectors, built as they're asked for and dropped whenever
+	 * the bundles of this entry change. The version lets a build that raced with a change know not to keep its index
+	 */
+	private Map<Class<?>, ScopeSelectorIndex<?>> _scopeIndexes = new HashMap<Class<?>, ScopeSelectorIndex<?>>();
+	private int _scopeIndexesVersion;
+
 	private Comparator<BundleElement> _comparator = new Comparator<BundleElement>()
 	{
 		public int compare(BundleElement o1, BundleElement o2)
@@ -488,6 +497,8 @@ public class BundleEntry
 					Collections.sort(_bundles, this._comparator);
 				}
 
+				invalidateScopeIndexes();
+
 				context.updateElementContext();
 				// fire visibility change events
 
@@ -530,6 +541,20 @@ public class BundleEntry
 		}
 	}
 
+	/**
+	 * Return the visible elements of the specified type that could match one of the scopes, in the same order as the
+	 * getter for that type returns them. This is a superset of the matching elements, so callers still need to match
+	 * what comes back against the scopes
+	 * 
+	 * @param type
+	 * @param scopes
+	 * @return
+	 */
+	<T extends AbstractBundleElement> List<T> getCandidates(Class<T> type, String[] scopes)
+	{
+		return getScopeIndex(type).getCandidates(scopes);
+	}
+
 	/**
 	 * getCommands
 	 * 
@@ -920,6 +945,52 @@ public class BundleEntry
 		return processor.getResult();
 	}
 
+	/**
+	 * getScopeIndex
+	 * 
+	 * @param type
+	 * @return
+	 */
+	@SuppressWarnings("unchecked")
+	private <T extends AbstractBundleElement> ScopeSelectorIndex<T> getScopeIndex(final Class<T> type)
+	{
+		int version;
+
+		synchronized (_scopeIndexes)
+		{
+			ScopeSelectorIndex<T> index = (ScopeSelectorIndex<T>) _scopeIndexes.get(type);
+
+			if (index != null)
+			{
+				return index;
+			}
+
+			version = _scopeIndexesVersion;
+		}
+
+		NameBasedProcessor<T> processor = new NameBasedProcessor<T>()
+		{
+			protected List<T> getElements(BundleElement bundle)
+			{
+				return bundle.getChildrenByType(type);
+			}
+		};
+
+		this.processBundles(processor);
+
+		ScopeSelectorIndex<T> index = new ScopeSelectorIndex<T>(processor.getResult());
+
+		synchronized (_scopeIndexes)
+		{
+			if (version == _scopeIndexesVersion)
+			{
+				_scopeIndexes.put(type, index);
+			}
+		}
+
+		return index;
+	}
+
 	/**
 	 * getVisibilityContext
 	 * 
@@ -940,6 +1011,19 @@ public class BundleEntry
 		return new VisibilityContext(elementClass);
 	}
 
+	/**
+	 * Drop the scope indexes, they get rebuilt the next time they're asked for. Needs to be called whenever the
+	 * bundles, their children or the scopes of their children change
+	 */
+	void invalidateScopeIndexes()
+	{
+		synchronized (_scopeIndexes)
+		{
+			_scopeIndexesVersion++;
+			_scopeIndexes.clear();
+		}
+	}
+
 	/**
 	 * processBundles
 	 * 
@@ -993,6 +1077,7 @@ public class BundleEntry
 		boolean removed = _bundles.remove(bundle);
 		if (removed)
 		{
+			invalidateScopeIndexes();
 			context.updateElementContext();
 			// fire visibility change events
 			context.fireElementVisibilityEvents();
@@ -57,6 +57,7 @@ import com.aptana.scripting.ScriptingEngine;
 import com.aptana.scripting.model.filters.AndFilter;
 import com.aptana.scripting.model.filters.IModelFilter;
 import com.aptana.scripting.model.filters.IsExecutableCommandFilter;
+import com.aptana.scripting.model.filters.ScopeFilter;
 
 public class BundleManager
 {
@@ -833,6 +834,25 @@ public class BundleManager
 		return this.applicationBundlesPaths;
 	}
 
+	/**
+	 * Return the visible elements of the specified type in the specified bundle name that could match one of the
+	 * scopes. This is a superset of the elements that do match, so callers still need to filter the result
+	 * 
+	 * @param name
+	 * @param type
+	 * @param scopes
+	 * @return
+	 */
+	private <T extends AbstractBundleElement> List<T> getBundleCandidates(String name, Class<T> type, String[] scopes)
+	{
+		BundleEntry entry = this.getBundleEntry(name);
+		if (entry != null)
+		{
+			return entry.getCandidates(type, scopes);
+		}
+		return Collections.emptyList();
+	}
+
 	/**
 	 * Return a list of commands in the specified bundle name. Note that bundle precedence is taken into account, so
 	 * only visible elements are returned in this list
@@ -1318,10 +1338,14 @@ public class BundleManager
 	public List<CommandElement> getCommands(IModelFilter filter)
 	{
 		List<CommandElement> result = new ArrayList<CommandElement>();
+		String[] scopes = getScopes(filter);
 
 		for (String name : this.getBundleNames())
 		{
-			CollectionsUtil.filter(getBundleCommands(name), result, filter);
+			List<CommandElement> elements = (scopes != null) ? getBundleCandidates(name, CommandElement.class, scopes)
+					: getBundleCommands(name);
+
+			CollectionsUtil.filter(elements, result, filter);
 		}
 
 		return result;
@@ -1339,10 +1363,14 @@ public class BundleManager
 	public List<ContentAssistElement> getContentAssists(IModelFilter filter)
 	{
 		List<ContentAssistElement> result = new ArrayList<ContentAssistElement>();
+		String[] scopes = getScopes(filter);
 
 		for (String name : this.getBundleNames())
 		{
-			CollectionsUtil.filter(getBundleContentAssists(name), result, filter);
+			List<ContentAssistElement> elements = (scopes != null) ? getBundleCandidates(name, ContentAssistElement.class, scopes)
+					: getBundleContentAssists(name);
+
+			CollectionsUtil.filter(elements, result, filter);
 		}
 
 		return result;
@@ -1399,10 +1427,14 @@ public class BundleManager
 	public List<EnvironmentElement> getEnvs(IModelFilter filter)
 	{
 		List<EnvironmentElement> result = new ArrayList<EnvironmentElement>();
+		String[] scopes = getScopes(filter);
 
 		for (String name : this.getBundleNames())
 		{
-			CollectionsUtil.filter(getBundleEnvs(name), result, filter);
+			List<EnvironmentElement> elements = (scopes != null) ? getBundleCandidates(name, EnvironmentElement.class, scopes)
+					: getBundleEnvs(name);
+
+			CollectionsUtil.filter(elements, result, filter);
 		}
 
 		return result;
@@ -1530,10 +1562,14 @@ public class BundleManager
 	public List<MenuElement> getMenus(IModelFilter filter)
 	{
 		List<MenuElement> result = new ArrayList<MenuElement>();
+		String[] scopes = getScopes(filter);
 
 		for (String name : this.getBundleNames())
 		{
-			CollectionsUtil.filter(getBundleMenus(name), result, filter);
+			List<MenuElement> elements = (scopes != null) ? getBundleCandidates(name, MenuElement.class, scopes)
+					: getBundleMenus(name);
+
+			CollectionsUtil.filter(elements, result, filter);
 		}
 
 		return result;
@@ -1551,10 +1587,14 @@ public class BundleManager
 	public List<SmartTypingPairsElement> getPairs(IModelFilter filter)
 	{
 		List<SmartTypingPairsElement> result = new ArrayList<SmartTypingPairsElement>();
+		String[] scopes = getScopes(filter);
 
 		for (String name : this.getBundleNames())
 		{
-			CollectionsUtil.filter(getBundlePairs(name), result, filter);
+			List<SmartTypingPairsElement> elements = (scopes != null) ? getBundleCandidates(name, SmartTypingPairsElement.class, scopes)
+					: getBundlePairs(name);
+
+			CollectionsUtil.filter(elements, result, filter);
 		}
 
 		return result;
@@ -1572,12 +1612,15 @@ public class BundleManager
 	public List<ProjectTemplateElement> getProjectTemplates(IModelFilter filter)
 	{
 		List<ProjectTemplateElement> result = new ArrayList<ProjectTemplateElement>();
+		String[] scopes = getScopes(filter);
 
 		for (String name : this.getBundleNames())
 		{
 			BundleEntry bundleEntry = this.getBundleEntry(name);
+			List<ProjectTemplateElement> elements = (scopes != null) ? bundleEntry.getCandidates(ProjectTemplateElement.class, scopes)
+					: bundleEntry.getProjectTemplates();
 
-			CollectionsUtil.filter(bundleEntry.getProjectTemplates(), result, filter);
+			CollectionsUtil.filter(elements, result, filter);
 		}
 
 		return result;
@@ -1595,12 +1638,15 @@ public class BundleManager
 	public List<ProjectSampleElement> getProjectSamples(IModelFilter filter)
 	{
 		List<ProjectSampleElement> result = new ArrayList<ProjectSampleElement>();
+		String[] scopes = getScopes(filter);
 
 		for (String name : this.getBundleNames())
 		{
 			BundleEntry bundleEntry = this.getBundleEntry(name);
+			List<ProjectSampleElement> elements = (scopes != null) ? bundleEntry.getCandidates(ProjectSampleElement.class, scopes)
+					: bundleEntry.getProjectSamples();
 
-			CollectionsUtil.filter(bundleEntry.getProjectSamples(), result, filter);
+			CollectionsUtil.filter(elements, result, filter);
 		}
 
 		return result;
@@ -1618,10 +1664,14 @@ public class BundleManager
 	public List<SnippetElement> getSnippets(IModelFilter filter)
 	{
 		List<SnippetElement> result = new ArrayList<SnippetElement>();
+		String[] scopes = getScopes(filter);
 
 		for (String name : this.getBundleNames())
 		{
-			CollectionsUtil.filter(getBundleSnippets(name), result, filter);
+			List<SnippetElement> elements = (scopes != null) ? getBundleCandidates(name, SnippetElement.class, scopes)
+					: getBundleSnippets(name);
+
+			CollectionsUtil.filter(elements, result, filter);
 		}
 
 		return result;
@@ -1639,15 +1689,50 @@ public class BundleManager
 	public List<SnippetCategoryElement> getSnippetCategories(IModelFilter filter)
 	{
 		List<SnippetCategoryElement> result = new ArrayList<SnippetCategoryElement>();
+		String[] scopes = getScopes(filter);
 
 		for (String name : this.getBundleNames())
 		{
-			CollectionsUtil.filter(getBundleSnippetCategories(name), result, filter);
+			List<SnippetCategoryElement> elements = (scopes != null) ? getBundleCandidates(name, SnippetCategoryElement.class, scopes)
+					: getBundleSnippetCategories(name);
+
+			CollectionsUtil.filter(elements, result, filter);
 		}
 
 		return result;
 	}
 
+	/**
+	 * Return the scopes an element has to match to pass the specified filter, or null if the filter doesn't require a
+	 * scope match. Only a scope filter or a scope filter that is part of an AndFilter count, anything else could let
+	 * elements through that don't match the scope
+	 * 
+	 * @param filter
+	 * @return
+	 */
+	private String[] getScopes(IModelFilter filter)
+	{
+		if (filter instanceof ScopeFilter)
+		{
+			return ((ScopeFilter) filter).getScopes();
+		}
+
+		if (filter instanceof AndFilter)
+		{
+			for (IModelFilter child : ((AndFilter) filter).getFilters())
+			{
+				String[] scopes = getScopes(child);
+
+				if (scopes != null)
+				{
+					return scopes;
+				}
+			}
+		}
+
+		return null;
+	}
+
 	/**
 	 * Return a list of ruby files contained within a specified directory. The resulting list is sorted by file name.
 	 * Note that the search for scripts is non-recursive and only includes children of the specified directory.
@@ -34,6 +34,16 @@ public class ScopeFilter implements IModelFilter
 		this._scopes = scopes;
 	}
 
+	/**
+	 * getScopes
+	 * 
+	 * @return
+	 */
+	public String[] getScopes()
+	{
+		return this._scopes;
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * @see com.aptana.scripting.model.IModelFilter#include(com.aptana.scripting.model.AbstractElement)
@@ -13,11 +13,21 @@ import java.text.DateFormat;
 import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.zip.CRC32;
 
 import org.eclipse.core.filesystem.EFS;
@@ -27,20 +37,25 @@ import org.eclipse.core.internal.filesystem.Policy;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
 import org.eclipse.core.runtime.QualifiedName;
 import org.eclipse.core.runtime.Status;
 import org.eclipse.core.runtime.SubMonitor;
 
 import com.aptana.core.io.efs.EFSUtils;
 import com.aptana.core.io.efs.SyncUtils;
+import com.aptana.core.io.vfs.IConnectionFileManager;
 import com.aptana.core.io.vfs.IExtendedFileInfo;
 import com.aptana.core.io.vfs.IExtendedFileStore;
 import com.aptana.core.logging.IdeLog;
+import com.aptana.core.util.CollectionsUtil;
 import com.aptana.core.util.FileUtil;
 import com.aptana.filewatcher.FileWatcher;
 import com.aptana.ide.core.io.IConnectionPoint;
 import com.aptana.ide.core.io.preferences.PermissionDirection;
 import com.aptana.ide.core.io.preferences.PreferenceUtils;
+import com.aptana.ide.syncing.core.IDebugScopes;
 import com.aptana.ide.syncing.core.SyncingPlugin;
 
 /**
@@ -55,9 +70,25 @@ public class Synchronizer implements ILoggable
 
 	private static final int DEFAULT_TIME_TOLERANCE = 1000;
 
+	/**
+	 * How many more times a file transfer that fails is attempted before the failure is reported
+	 */
+	private static final int TRANSFER_RETRIES = 1;
+
+	/**
+	 * How often (in milliseconds) we check for cancellation while waiting on concurrent transfers
+	 */
+	private static final long POLL_INTERVAL = 100;
+
+	/**
+	 * Weight of a transfer in the progress shown for concurrent transfers is its size in KB, capped at this
+	 */
+	private static final int MAX_TRANSFER_WEIGHT = 64 * 1024;
+
 	private boolean _useCRC;
 	private boolean _includeCloakedFiles = false;
 	private long _timeTolerance;
+	private int _maxConcurrentTransfers;
 
 	private int _clientDirectoryCreatedCount;
 	private int _clientDirectoryDeletedCount;
@@ -606,6 +637,18 @@ public class Synchronizer implements ILoggable
 		this._useCRC = calculateCrc;
 	}
 
+	/**
+	 * Sets the maximum number of files transferred at once. The actual number is also limited by what the client and
+	 * server connections support.
+	 * 
+	 * @param maxConcurrentTransfers
+	 *            the maximum, or 0 to use the preference
+	 */
+	public void setMaxConcurrentTransfers(int maxConcurrentTransfers)
+	{
+		this._maxConcurrentTransfers = maxConcurrentTransfers;
+	}
+
 	/**
 	 * isCalculateCrc
 	 * 
@@ -752,8 +795,11 @@ public class Synchronizer implements ILoggable
 
 			this.reset();
 
+			// Files are queued up to be transferred together once the directories exist
+			int concurrency = getTransferConcurrency();
+			List<FileTransfer> transfers = (concurrency > 1) ? new ArrayList<FileTransfer>() : null;
 			SubMonitor subMonitor = SubMonitor.convert(monitor, Messages.Synchronizer_Downloading_Files,
-					fileList.length);
+					(transfers == null) ? fileList.length : 2 * fileList.length);
 			Policy.checkCanceled(subMonitor);
 
 			FILE_LOOP: for (int i = 0; i < fileList.length; i++)
@@ -823,42 +869,20 @@ public class Synchronizer implements ILoggable
 								logSuccess();
 								syncDone(item, childMonitor);
 							}
-							else
+							else if (!transfer(new FileTransfer(item, serverFile, serverFileInfo, targetClientFile,
+									false, true, !exists, serverFile), transfers, childMonitor))
 							{
-								logDownloading(serverFile);
-								try
-								{
-									SyncUtils
-											.copy(serverFile, serverFileInfo, targetClientFile, EFS.NONE, childMonitor);
-									Synchronizer.this._serverFileTransferedCount++;
-									_newFilesDownloaded.add(targetClientFile);
-									// update permissions for the newly created file
-									if (!exists)
-									{
-										updatePermissions(serverFile, targetClientFile, true,
-												PermissionDirection.DOWNLOAD, childMonitor);
-									}
-									logSuccess();
-									syncDone(item, childMonitor);
-								}
-								catch (CoreException e)
-								{
-									logError(e);
-									if (!syncError(item, e, childMonitor))
-									{
-										result = false;
-										break FILE_LOOP;
-									}
-								}
+								result = false;
+								break FILE_LOOP;
 							}
 							break;
 
 						case SyncState.ServerItemIsNewer:
 						case SyncState.CRCMismatch:
 							// exists on both sides, but the server item is newer
-							logDownloading(serverFile);
 							if (serverFileInfo.isDirectory())
 							{
+								logDownloading(serverFile);
 								try
 								{
 									EFSUtils.setModificationTime(serverFileInfo.getLastModified(), clientFile);
@@ -871,24 +895,11 @@ public class Synchronizer implements ILoggable
 								logSuccess();
 								syncDone(item, childMonitor);
 							}
-							else
+							else if (!transfer(new FileTransfer(item, serverFile, serverFileInfo, clientFile, false,
+									false, false, serverFile), transfers, childMonitor))
 							{
-								try
-								{
-									SyncUtils.copy(serverFile, serverFileInfo, clientFile, EFS.NONE, childMonitor);
-									Synchronizer.this._serverFileTransferedCount++;
-									logSuccess();
-									syncDone(item, childMonitor);
-								}
-								catch (CoreException e)
-								{
-									logError(e);
-									if (!syncError(item, e, childMonitor))
-									{
-										result = false;
-										break FILE_LOOP;
-									}
-								}
+								result = false;
+								break FILE_LOOP;
 							}
 							break;
 
@@ -909,6 +920,10 @@ public class Synchronizer implements ILoggable
 				}
 			}
 
+			if (!CollectionsUtil.isEmpty(transfers) && !subMonitor.isCanceled())
+			{
+				result &= runTransfers(transfers, concurrency, subMonitor.newChild(fileList.length));
+			}
 			return result;
 		}
 		finally
@@ -980,7 +995,11 @@ public class Synchronizer implements ILoggable
 			// reset stats
 			this.reset();
 
-			SubMonitor subMonitor = SubMonitor.convert(monitor, Messages.Synchronizer_Synchronizing, fileList.length);
+			// Files are queued up to be transferred together once the directories exist
+			int concurrency = getTransferConcurrency();
+			List<FileTransfer> transfers = (concurrency > 1) ? new ArrayList<FileTransfer>() : null;
+			SubMonitor subMonitor = SubMonitor.convert(monitor, Messages.Synchronizer_Synchronizing,
+					(transfers == null) ? fileList.length : 2 * fileList.length);
 			Policy.checkCanceled(subMonitor);
 
 			// process all items in our list
@@ -1013,33 +1032,18 @@ public class Synchronizer implements ILoggable
 					{
 						case SyncState.ClientItemIsNewer:
 							// item exists on both ends, but the client one is newer
-							logUploading(serverFile);
 							if (clientFileInfo.isDirectory())
 							{
+								logUploading(serverFile);
 								EFSUtils.setModificationTime(clientFileInfo.getLastModified(), serverFile);
 								logSuccess();
 								syncDone(item, childMonitor);
 							}
-							else
+							else if (!transfer(new FileTransfer(item, clientFile, clientFileInfo, serverFile, true,
+									false, false, serverFile), transfers, childMonitor))
 							{
-								try
-								{
-									SyncUtils.copy(clientFile, clientFileInfo, serverFile, EFS.NONE, childMonitor);
-									Synchronizer.this._clientFileTransferedCount++;
-									logSuccess();
-									syncDone(item, childMonitor);
-								}
-								catch (CoreException e)
-								{
-									logError(e);
-
-									if (!syncError(item, e, childMonitor))
-									{
-										result = false;
-										break FILE_LOOP;
-									}
-								}
-
+								result = false;
+								break FILE_LOOP;
 							}
 							break;
 
@@ -1085,69 +1089,31 @@ public class Synchronizer implements ILoggable
 									logSuccess();
 									syncDone(item, childMonitor);
 								}
-								else
+								else if (!transfer(new FileTransfer(item, clientFile, clientFileInfo,
+										targetServerFile, true, true, !exists, clientFile), transfers, childMonitor))
 								{
-									logUploading(clientFile);
-									try
-									{
-										SyncUtils.copy(clientFile, clientFileInfo, targetServerFile, EFS.NONE,
-												childMonitor);
-										Synchronizer.this._clientFileTransferedCount++;
-										_newFilesUploaded.add(targetServerFile);
-										// update permissions for the newly created file
-										if (!exists)
-										{
-											updatePermissions(clientFile, targetServerFile, true,
-													PermissionDirection.UPLOAD, childMonitor);
-										}
-										logSuccess();
-										syncDone(item, childMonitor);
-									}
-									catch (CoreException e)
-									{
-										logError(e);
-
-										if (!syncError(item, e, childMonitor))
-										{
-											result = false;
-											break FILE_LOOP;
-										}
-									}
+									result = false;
+									break FILE_LOOP;
 								}
 							}
 							break;
 
 						case SyncState.ServerItemIsNewer:
 							// item exists on both ends, but the server one is newer
-							logDownloading(clientFile);
 							if (serverFileInfo.isDirectory())
 							{
+								logDownloading(clientFile);
 								// just needs to set the modification time for directory
 								EFSUtils.setModificationTime(serverFileInfo.getLastModified(), clientFile);
 
 								logSuccess();
 								syncDone(item, childMonitor);
 							}
-							else
+							else if (!transfer(new FileTransfer(item, serverFile, serverFileInfo, clientFile, false,
+									false, false, clientFile), transfers, childMonitor))
 							{
-								try
-								{
-									SyncUtils.copy(serverFile, serverFileInfo, clientFile, EFS.NONE, childMonitor);
-									Synchronizer.this._serverFileTransferedCount++;
-									logSuccess();
-									syncDone(item, childMonitor);
-								}
-								catch (CoreException e)
-								{
-									logError(e);
-
-									if (!syncError(item, e, childMonitor))
-									{
-										result = false;
-										break FILE_LOOP;
-									}
-								}
-
+								result = false;
+								break FILE_LOOP;
 							}
 							break;
 
@@ -1193,35 +1159,12 @@ public class Synchronizer implements ILoggable
 									logSuccess();
 									syncDone(item, childMonitor);
 								}
-								else
+								else if (!transfer(new FileTransfer(item, serverFile, serverFileInfo,
+										targetClientFile, false, true, !exists, targetClientFile), transfers,
+										childMonitor))
 								{
-									logDownloading(targetClientFile);
-
-									try
-									{
-										SyncUtils.copy(serverFile, serverFileInfo, targetClientFile, EFS.NONE,
-												childMonitor);
-										Synchronizer.this._serverFileTransferedCount++;
-										_newFilesDownloaded.add(targetClientFile);
-										// update permissions for the newly created file
-										if (!exists)
-										{
-											updatePermissions(serverFile, targetClientFile, true,
-													PermissionDirection.DOWNLOAD, childMonitor);
-										}
-										logSuccess();
-										syncDone(item, childMonitor);
-									}
-									catch (CoreException e)
-									{
-										logError(e);
-
-										if (!syncError(item, e, childMonitor))
-										{
-											result = false;
-											break FILE_LOOP;
-										}
-									}
+									result = false;
+									break FILE_LOOP;
 								}
 							}
 							break;
@@ -1258,6 +1201,10 @@ public class Synchronizer implements ILoggable
 				}
 			}
 
+			if (!CollectionsUtil.isEmpty(transfers) && !subMonitor.isCanceled())
+			{
+				result &= runTransfers(transfers, concurrency, subMonitor.newChild(fileList.length));
+			}
 			return result;
 		}
 		finally
@@ -1335,7 +1282,11 @@ public class Synchronizer implements ILoggable
 
 			this.reset();
 
-			SubMonitor subMonitor = SubMonitor.convert(monitor, Messages.Synchronizer_Uploading_Files, fileList.length);
+			// Files are queued up to be transferred together once the directories exist
+			int concurrency = getTransferConcurrency();
+			List<FileTransfer> transfers = (concurrency > 1) ? new ArrayList<FileTransfer>() : null;
+			SubMonitor subMonitor = SubMonitor.convert(monitor, Messages.Synchronizer_Uploading_Files,
+					(transfers == null) ? fileList.length : 2 * fileList.length);
 			Policy.checkCanceled(subMonitor);
 
 			FILE_LOOP: for (int i = 0; i < fileList.length; i++)
@@ -1384,36 +1335,11 @@ public class Synchronizer implements ILoggable
 
 								syncDone(item, childMonitor);
 							}
-							else
+							else if (!transfer(new FileTransfer(item, clientFile, clientFileInfo, targetServerFile,
+									true, true, !exists, clientFile), transfers, childMonitor))
 							{
-								logUploading(clientFile);
-
-								try
-								{
-									SyncUtils
-											.copy(clientFile, clientFileInfo, targetServerFile, EFS.NONE, childMonitor);
-									Synchronizer.this._clientFileTransferedCount++;
-									_newFilesUploaded.add(targetServerFile);
-									// update permissions for the newly created file
-									if (!exists)
-									{
-										updatePermissions(clientFile, targetServerFile, true,
-												PermissionDirection.UPLOAD, childMonitor);
-									}
-									logSuccess();
-									syncDone(item, childMonitor);
-								}
-								catch (CoreException e)
-								{
-									logError(e);
-
-									if (!syncError(item, e, childMonitor))
-									{
-										result = false;
-										break FILE_LOOP;
-									}
-								}
-
+								result = false;
+								break FILE_LOOP;
 							}
 							break;
 
@@ -1440,9 +1366,9 @@ public class Synchronizer implements ILoggable
 						case SyncState.ClientItemIsNewer:
 						case SyncState.CRCMismatch:
 							// exists on both sides, but the client item is newer
-							logUploading(clientFile);
 							if (clientFileInfo.isDirectory())
 							{
+								logUploading(clientFile);
 								// just needs to set the modification time for directory
 								try
 								{
@@ -1462,26 +1388,11 @@ public class Synchronizer implements ILoggable
 								logSuccess();
 								syncDone(item, childMonitor);
 							}
-							else
+							else if (!transfer(new FileTransfer(item, clientFile, clientFileInfo, serverFile, true,
+									false, false, clientFile), transfers, childMonitor))
 							{
-								try
-								{
-									SyncUtils.copy(clientFile, clientFileInfo, serverFile, EFS.NONE, childMonitor);
-									Synchronizer.this._clientFileTransferedCount++;
-									logSuccess();
-									syncDone(item, childMonitor);
-								}
-								catch (CoreException e)
-								{
-									logError(e);
-
-									if (!syncError(item, e, childMonitor))
-									{
-										result = false;
-										break FILE_LOOP;
-									}
-								}
-
+								result = false;
+								break FILE_LOOP;
 							}
 							break;
 
@@ -1502,6 +1413,10 @@ public class Synchronizer implements ILoggable
 				}
 			}
 
+			if (!CollectionsUtil.isEmpty(transfers) && !subMonitor.isCanceled())
+			{
+				result &= runTransfers(transfers, concurrency, subMonitor.newChild(fileList.length));
+			}
 			return result;
 		}
 		finally
@@ -1510,6 +1425,353 @@ public class Synchronizer implements ILoggable
 		}
 	}
 
+	/**
+	 * Returns how many files can be transferred at once between the current client and server.
+	 * 
+	 * @return
+	 */
+	private int getTransferConcurrency()
+	{
+		int supported = Math.min(getMaxConcurrentTransfers(_clientFileManager),
+				getMaxConcurrentTransfers(_serverFileManager));
+		if (_maxConcurrentTransfers > 0)
+		{
+			return Math.max(1, Math.min(supported, _maxConcurrentTransfers));
+		}
+		if (supported == Integer.MAX_VALUE)
+		{
+			// local to local, there's no latency to hide
+			return 1;
+		}
+		return Math.max(1, Math.min(supported, PreferenceUtils.getConcurrentTransfers()));
+	}
+
+	private static int getMaxConcurrentTransfers(IConnectionPoint connectionPoint)
+	{
+		if (connectionPoint == null)
+		{
+			return 1;
+		}
+		IConnectionFileManager fileManager = (IConnectionFileManager) connectionPoint
+				.getAdapter(IConnectionFileManager.class);
+		// Local file systems don't go through a connection
+		return (fileManager == null) ? Integer.MAX_VALUE : fileManager.getMaxConcurrentTransfers();
+	}
+
+	/**
+	 * Transfers a file right away, or if <code>pending</code> is non-null adds it there to be transferred
+	 * concurrently once all the directories have been created (see {@link #runTransfers(List, int, IProgressMonitor)}
+	 * ).
+	 * 
+	 * @param transfer
+	 * @param pending
+	 * @param monitor
+	 * @return false if the synchronization should stop
+	 */
+	private boolean transfer(FileTransfer transfer, List<FileTransfer> pending, IProgressMonitor monitor)
+	{
+		if (pending != null)
+		{
+			pending.add(transfer);
+			return true;
+		}
+
+		logTransfer(transfer);
+		try
+		{
+			transfer.run(monitor);
+			transferDone(transfer, monitor);
+		}
+		catch (CoreException e)
+		{
+			logError(e);
+			return syncError(transfer.item, e, monitor);
+		}
+		return true;
+	}
+
+	/**
+	 * Runs the pending file transfers on up to <code>concurrency</code> threads, largest files first so that a big
+	 * file doesn't end up holding up the end of the synchronization on its own. Progress, logging and sync events are
+	 * all handled on the calling thread as transfers complete. All transfers have stopped by the time this returns.
+	 * 
+	 * @param pending
+	 * @param concurrency
+	 * @param monitor
+	 * @return false if any of the transfers failed in a way that failed the whole synchronization
+	 */
+	private boolean runTransfers(List<FileTransfer> pending, int concurrency, IProgressMonitor monitor)
+	{
+		Collections.sort(pending, new Comparator<FileTransfer>()
+		{
+			public int compare(FileTransfer t1, FileTransfer t2)
+			{
+				long length1 = t1.sourceInfo.getLength();
+				long length2 = t2.sourceInfo.getLength();
+				return (length1 > length2) ? -1 : ((length1 == length2) ? 0 : 1);
+			}
+		});
+		long totalWeight = 0;
+		for (FileTransfer transfer : pending)
+		{
+			totalWeight += transfer.getWeight();
+		}
+		// Enough large files add up to more work than a monitor can count, so scale the weights down to fit
+		long scale = totalWeight / Integer.MAX_VALUE + 1;
+
+		final AtomicBoolean canceled = new AtomicBoolean(false);
+		// Transfers running on workers only get to see the cancellation flag, SubMonitor is not thread-safe
+		final IProgressMonitor workerMonitor = new NullProgressMonitor()
+		{
+			@Override
+			public boolean isCanceled()
+			{
+				return canceled.get();
+			}
+		};
+
+		boolean result = true;
+		SubMonitor subMonitor = SubMonitor.convert(monitor, (int) (totalWeight / scale));
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(concurrency, pending.size()));
+		CompletionService<FileTransfer> completion = new ExecutorCompletionService<FileTransfer>(executor);
+		boolean interrupted = false;
+		try
+		{
+			for (final FileTransfer transfer : pending)
+			{
+				completion.submit(new Callable<FileTransfer>()
+				{
+					public FileTransfer call()
+					{
+						if (canceled.get())
+						{
+							transfer.error = new OperationCanceledException();
+							return transfer;
+						}
+						try
+						{
+							transfer.run(workerMonitor);
+						}
+						catch (Exception e)
+						{
+							transfer.error = e;
+						}
+						return transfer;
+					}
+				});
+			}
+
+			int remaining = pending.size();
+			while (remaining > 0)
+			{
+				if (subMonitor.isCanceled())
+				{
+					canceled.set(true);
+				}
+
+				Future<FileTransfer> future;
+				try
+				{
+					future = completion.poll(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+				}
+				catch (InterruptedException e)
+				{
+					// stop the rest, but still wait for the ones in progress
+					canceled.set(true);
+					interrupted = true;
+					continue;
+				}
+				if (future == null)
+				{
+					continue;
+				}
+				remaining--;
+
+				FileTransfer transfer;
+				try
+				{
+					transfer = future.get();
+				}
+				catch (Exception e)
+				{
+					// can't happen, the callable catches everything and the future is done
+					IdeLog.logError(SyncingPlugin.getDefault(), Messages.Synchronizer_ErrorDuringSync, e);
+					result = false;
+					continue;
+				}
+
+				SubMonitor childMonitor = subMonitor.newChild((int) (transfer.getWeight() / scale));
+				childMonitor.setTaskName(getSyncStatus(transfer.item));
+				if (transfer.error == null)
+				{
+					logTransfer(transfer);
+					transferDone(transfer, childMonitor);
+				}
+				else if (transfer.error instanceof OperationCanceledException && canceled.get())
+				{
+					// stopped on our request, not a failure of the transfer itself
+					result = false;
+				}
+				else
+				{
+					logTransfer(transfer);
+					if (transfer.error instanceof CoreException)
+					{
+						logError(transfer.error);
+					}
+					else
+					{
+						IdeLog.logError(SyncingPlugin.getDefault(), Messages.Synchronizer_ErrorDuringSync,
+								transfer.error);
+						result = false;
+					}
+					if (canceled.get())
+					{
+						// already stopping, so there's nothing left to ask about; the failure is still logged above
+						result = false;
+					}
+					else if (!syncError(transfer.item, transfer.error, childMonitor))
+					{
+						result = false;
+						canceled.set(true);
+					}
+				}
+			}
+		}
+		finally
+		{
+			executor.shutdown();
+			if (interrupted)
+			{
+				Thread.currentThread().interrupt();
+			}
+			subMonitor.done();
+		}
+		return result;
+	}
+
+	private void logTransfer(FileTransfer transfer)
+	{
+		if (transfer.upload)
+		{
+			logUploading(transfer.logFile);
+		}
+		else
+		{
+			logDownloading(transfer.logFile);
+		}
+	}
+
+	private void transferDone(FileTransfer transfer, IProgressMonitor monitor)
+	{
+		if (transfer.upload)
+		{
+			this._clientFileTransferedCount++;
+			if (transfer.newFile)
+			{
+				_newFilesUploaded.add(transfer.destination);
+			}
+		}
+		else
+		{
+			this._serverFileTransferedCount++;
+			if (transfer.newFile)
+			{
+				_newFilesDownloaded.add(transfer.destination);
+			}
+		}
+		logSuccess();
+		syncDone(transfer.item, monitor);
+	}
+
+	/**
+	 * The copy of a single file from one side to the other. The copy itself ({@link #run(IProgressMonitor)}) doesn't
+	 * touch any of the synchronizer's state, so it can run on any thread.
+	 */
+	private static class FileTransfer
+	{
+		final VirtualFileSyncPair item;
+		final IFileStore source;
+		final IFileInfo sourceInfo;
+		final IFileStore destination;
+		final boolean upload;
+		final boolean newFile;
+		final boolean updatePermissions;
+		final IFileStore logFile;
+
+		/**
+		 * Set when the transfer fails on a worker thread
+		 */
+		Exception error;
+
+		/**
+		 * FileTransfer
+		 * 
+		 * @param item
+		 * @param source
+		 * @param sourceInfo
+		 * @param destination
+		 * @param upload
+		 *            true when copying from the client to the server
+		 * @param newFile
+		 *            should the destination be reported as a new file?
+		 * @param updatePermissions
+		 *            should the destination get its permissions set once copied?
+		 * @param logFile
+		 *            the file to name in the log
+		 */
+		FileTransfer(VirtualFileSyncPair item, IFileStore source, IFileInfo sourceInfo, IFileStore destination,
+				boolean upload, boolean newFile, boolean updatePermissions, IFileStore logFile)
+		{
+			this.item = item;
+			this.source = source;
+			this.sourceInfo = sourceInfo;
+			this.destination = destination;
+			this.upload = upload;
+			this.newFile = newFile;
+			this.updatePermissions = updatePermissions;
+			this.logFile = logFile;
+		}
+
+		/**
+		 * Copies the file, trying again if it fails. With pooled connections a retry generally gets a fresh
+		 * connection.
+		 * 
+		 * @param monitor
+		 * @throws CoreException
+		 */
+		void run(IProgressMonitor monitor) throws CoreException
+		{
+			for (int attempt = 0;; attempt++)
+			{
+				try
+				{
+					SyncUtils.copy(source, sourceInfo, destination, EFS.NONE, monitor);
+					break;
+				}
+				catch (CoreException e)
+				{
+					if (attempt >= TRANSFER_RETRIES || monitor.isCanceled())
+					{
+						throw e;
+					}
+					IdeLog.logWarning(SyncingPlugin.getDefault(),
+							"Retrying transfer of " + item.getRelativePath(), e, IDebugScopes.DEBUG); //$NON-NLS-1$
+				}
+			}
+			if (updatePermissions)
+			{
+				updatePermissions(source, destination, true, upload ? PermissionDirection.UPLOAD
+						: PermissionDirection.DOWNLOAD, monitor);
+			}
+		}
+
+		int getWeight()
+		{
+			return (int) Math.max(1, Math.min(sourceInfo.getLength() / 1024, MAX_TRANSFER_WEIGHT));
+		}
+	}
+
 	private static void setSyncItemDirection(VirtualFileSyncPair item, boolean upload, boolean full)
 	{
 		int direction = VirtualFileSyncPair.Direction_None;
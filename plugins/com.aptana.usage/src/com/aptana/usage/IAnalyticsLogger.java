@@ -44,4 +44,20 @@ public interface IAnalyticsLogger
 	 */
 	public abstract List<AnalyticsEvent> getEvents();
 
+	/**
+	 * Loads up to max of the persisted events, oldest first. Events keep being returned until they are cleared, so
+	 * callers work through a large backlog by clearing each batch once they're done with it.
+	 * 
+	 * @param max
+	 * @return
+	 */
+	public abstract List<AnalyticsEvent> getEvents(int max);
+
+	/**
+	 * Removes the persisted copies of the supplied events.
+	 * 
+	 * @param events
+	 */
+	public abstract void clearEvents(List<AnalyticsEvent> events);
+
 }
\ No newline at end of file
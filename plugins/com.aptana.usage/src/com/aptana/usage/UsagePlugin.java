@@ -73,6 +73,11 @@ public class UsagePlugin extends Plugin
 				job.shutdown(); // tell job to stop, clean up and send end event
 				job = null;
 			}
+			if (fAnalyticsLogger != null)
+			{
+				// don't lose events still on their way to disk
+				fAnalyticsLogger.flush();
+			}
 		}
 		finally
 		{
@@ -10,12 +10,9 @@ package com.aptana.usage.internal;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
-import java.text.MessageFormat;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 
 import org.eclipse.core.runtime.IPath;
@@ -27,13 +24,23 @@ import com.aptana.usage.AnalyticsEvent;
 import com.aptana.usage.IAnalyticsLogger;
 import com.aptana.usage.UsagePlugin;
 
+/**
+ * Persists events to an {@link EventJournal} keyed by the event's hash code, so logging an event doesn't wait on the
+ * disk and the events directory doesn't fill up with one file per event.
+ */
 public class AnalyticsLogger implements IAnalyticsLogger
 {
 
+	/**
+	 * The extension of the per-event files earlier versions wrote.
+	 */
+	private static final String LEGACY_EXTENSION = ".json"; //$NON-NLS-1$
+
 	/**
 	 * The path on disk where events should be persisted.
 	 */
 	private final IPath directory;
+	private final EventJournal journal;
 
 	public AnalyticsLogger(IPath directory)
 	{
@@ -42,96 +49,104 @@ public class AnalyticsLogger implements IAnalyticsLogger
 		{
 			this.directory.toFile().mkdirs();
 		}
+		this.journal = new EventJournal(directory.toFile());
+		importLegacyEvents();
 	}
 
 	/*
 	 * (non-Javadoc)
 	 * @see com.aptana.usage.IAnalyticsLogger#logEvent(com.aptana.usage.AnalyticsEvent)
 	 */
-	public synchronized void logEvent(AnalyticsEvent event)
+	public void logEvent(AnalyticsEvent event)
 	{
-		// persist the event to disk
-		FileWriter writer = null;
-		try
-		{
-			writer = new FileWriter(getFile(event));
-			writer.write(event.toJSON());
-		}
-		catch (IOException e)
-		{
-			IdeLog.logError(UsagePlugin.getDefault(),
-					MessageFormat.format("Unable to persist analytics event to disk! Event: {0}", event.toJSON()));
-		}
-		finally
-		{
-			if (writer != null)
-			{
-				try
-				{
-					writer.close();
-				}
-				catch (IOException e)
-				{
-					// ignore
-				}
-			}
-		}
+		journal.append(event.hashCode(), event.toJSON());
 	}
 
 	/*
 	 * (non-Javadoc)
 	 * @see com.aptana.usage.IAnalyticsLogger#clearEvents()
 	 */
-	public synchronized void clearEvents()
+	public void clearEvents()
 	{
-		// Erase all events from disk
-		File[] files = this.directory.toFile().listFiles();
-		for (File file : files)
-		{
-			if (!file.delete())
-			{
-				file.deleteOnExit();
-			}
-		}
+		journal.clear();
 	}
 
-	private File getFile(AnalyticsEvent event)
+	/*
+	 * (non-Javadoc)
+	 * @see com.aptana.usage.IAnalyticsLogger#clearEvent(com.aptana.usage.AnalyticsEvent)
+	 */
+	public void clearEvent(AnalyticsEvent event)
 	{
-		return this.directory.append(event.hashCode() + ".json").toFile();
+		journal.remove(event.hashCode());
 	}
 
 	/*
 	 * (non-Javadoc)
-	 * @see com.aptana.usage.IAnalyticsLogger#clearEvent(com.aptana.usage.AnalyticsEvent)
+	 * @see com.aptana.usage.IAnalyticsLogger#clearEvents(java.util.List)
 	 */
-	public synchronized void clearEvent(AnalyticsEvent event)
+	public void clearEvents(List<AnalyticsEvent> events)
 	{
-		// erase specific event from disk
-		File file = getFile(event);
-		if (file.isFile())
+		if (events.isEmpty())
 		{
-			if (!file.delete())
-			{
-				file.deleteOnExit();
-			}
+			return;
+		}
+		int[] keys = new int[events.size()];
+		for (int i = 0; i < keys.length; i++)
+		{
+			keys[i] = events.get(i).hashCode();
 		}
+		journal.remove(keys);
 	}
 
 	/*
 	 * (non-Javadoc)
 	 * @see com.aptana.usage.IAnalyticsLogger#getEvents()
 	 */
-	public synchronized List<AnalyticsEvent> getEvents()
+	public List<AnalyticsEvent> getEvents()
+	{
+		return getEvents(Integer.MAX_VALUE);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.aptana.usage.IAnalyticsLogger#getEvents(int)
+	 */
+	public List<AnalyticsEvent> getEvents(int max)
+	{
+		List<String> payloads = journal.read(max);
+		List<AnalyticsEvent> events = new ArrayList<AnalyticsEvent>(payloads.size());
+		for (String json : payloads)
+		{
+			events.add(AnalyticsEvent.fromJSON(json));
+		}
+		return events;
+	}
+
+	/**
+	 * Waits for the events logged so far to be written to disk.
+	 */
+	public void flush()
+	{
+		journal.flush();
+	}
+
+	/**
+	 * Moves the events earlier versions left behind, one per file, into the journal.
+	 */
+	private void importLegacyEvents()
 	{
-		// Load all persisted events from disk
 		File[] files = this.directory.toFile().listFiles();
-		if (files == null || files.length == 0)
+		if (files == null)
 		{
-			return Collections.emptyList();
+			return;
 		}
-		ArrayList<AnalyticsEvent> events = new ArrayList<AnalyticsEvent>(files.length);
+		List<File> imported = new ArrayList<File>();
 		for (File file : files)
 		{
+			if (!file.getName().endsWith(LEGACY_EXTENSION))
+			{
+				continue;
+			}
 			InputStream stream = null;
 			try
 			{
@@ -139,8 +154,9 @@ public class AnalyticsLogger implements IAnalyticsLogger
 				String json = IOUtil.read(stream);
 				if (!StringUtil.isEmpty(json))
 				{
-					events.add(AnalyticsEvent.fromJSON(json));
+					logEvent(AnalyticsEvent.fromJSON(json));
 				}
+				imported.add(file);
 			}
 			catch (FileNotFoundException e)
 			{
@@ -162,7 +178,17 @@ public class AnalyticsLogger implements IAnalyticsLogger
 				}
 			}
 		}
-		events.trimToSize();
-		return events;
+		if (imported.isEmpty())
+		{
+			return;
+		}
+		journal.flush();
+		for (File file : imported)
+		{
+			if (!file.delete())
+			{
+				file.deleteOnExit();
+			}
+		}
 	}
 }
@@ -12,6 +12,7 @@ import java.io.IOException;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.text.MessageFormat;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
@@ -44,6 +45,10 @@ public class DefaultAnalyticsEventHandler implements IAnalyticsEventHandler
 {
 	static final String DEFAULT_URL = "https://api.appcelerator.com/p/v1/app-track"; //$NON-NLS-1$
 	static final int DEFAULT_TIMEOUT = 5 * 1000; // 5 seconds
+	/**
+	 * How many queued events to load at a time when sending them out.
+	 */
+	static final int SEND_BATCH_SIZE = 100;
 
 	private final String url;
 	private final int timeout;
@@ -258,26 +263,32 @@ public class DefaultAnalyticsEventHandler implements IAnalyticsEventHandler
 			IAnalyticsLogger logger = getAnalyticsLogger();
 			if (logger != null)
 			{
-				// Send out all previous events from the db
+				// Send out all previous events from the db, a batch at a time
 				synchronized (lock)
 				{
-					List<AnalyticsEvent> events = logger.getEvents();
-					if (events.isEmpty()) //no events found - we can clean the directory - It will delete the empty or unwanted files.
-					{
-						logger.clearEvents();
-					}
-					
-					// Sort the events. We want all project.create events to be first, and all project.delete events
-					// to be last
-					Collections.sort(events, new AnalyticsEventComparator());
-					for (AnalyticsEvent aEvent : events)
+					List<AnalyticsEvent> events;
+					while (!(events = logger.getEvents(SEND_BATCH_SIZE)).isEmpty())
 					{
-						if (!isValidResponse(responseCode = sendPing(aEvent, user)))
+						// Sort the events. We want all project.create events to be first, and all project.delete
+						// events to be last
+						Collections.sort(events, new AnalyticsEventComparator());
+						List<AnalyticsEvent> sent = new ArrayList<AnalyticsEvent>(events.size());
+						try
+						{
+							for (AnalyticsEvent aEvent : events)
+							{
+								if (!isValidResponse(responseCode = sendPing(aEvent, user)))
+								{
+									return Status.OK_STATUS;
+								}
+								sent.add(aEvent);
+							}
+						}
+						finally
 						{
-							return Status.OK_STATUS;
+							// Remove the events that have been sent
+							logger.clearEvents(sent);
 						}
-						// Remove the event after it has been sent
-						logger.clearEvent(aEvent);
 					}
 				}
 			}
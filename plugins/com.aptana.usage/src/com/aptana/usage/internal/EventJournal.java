@@ -0,0 +1,553 @@
+/**
+ * Aptana Studio
+ * Copyright (c) 2014 by Appcelerator, Inc. All Rights Reserved.
+ * Licensed under the terms of the GNU Public License (GPL) v3 (with exceptions).
+ * Please see the license.html included with this distribution for details.
+ * Any modifications to this file must keep this entire header intact.
+ */
+package com.aptana.usage.internal;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+import com.aptana.core.logging.IdeLog;
+import com.aptana.core.util.IOUtil;
+import com.aptana.usage.UsagePlugin;
+
+/**
+ * An append-only log of keyed entries, split over numbered segment files. Removing an entry appends a tombstone for
+ * its key rather than rewriting anything; a segment file is deleted once it and all the segments before it hold no
+ * live entries anymore.
+ * <p>
+ * All writes go through a single appender thread that picks up everything queued since its last write, writes it in
+ * one go and syncs it to disk once (group commit), so callers never wait on the disk. Reads wait for the queued writes
+ * first.
+ * <p>
+ * Each record is framed as its payload length, a CRC32, the record type and the key, followed by the UTF-8 payload.
+ * Reading a segment stops at the first record that is cut short or doesn't match its checksum, which is what a crash
+ * in the middle of a write leaves behind. Every session appends to a fresh segment, so nothing is ever written after
+ * such a record.
+ */
+/* package */class EventJournal
+{
+
+	/**
+	 * Size past which the appender moves on to a new segment.
+	 */
+	static final int MAX_SEGMENT_SIZE = 256 * 1024;
+
+	private static final String SEGMENT_PREFIX = "journal-"; //$NON-NLS-1$
+	private static final String SEGMENT_EXTENSION = ".log"; //$NON-NLS-1$
+	private static final int MAX_PAYLOAD_SIZE = 1024 * 1024;
+
+	private static final byte ENTRY = 1;
+	private static final byte TOMBSTONE = 2;
+
+	private final File directory;
+
+	/**
+	 * Guards the segment files and the index below.
+	 */
+	private final Object journalLock = new Object();
+	/**
+	 * The segment holding the live entry for each key.
+	 */
+	private final Map<Integer, Long> liveEntries = new HashMap<Integer, Long>();
+	/**
+	 * The number of live entries in each segment file that's still around.
+	 */
+	private final SortedMap<Long, Integer> liveCounts = new TreeMap<Long, Integer>();
+	private long activeSegment;
+	private FileOutputStream out;
+	private long activeSize;
+
+	/**
+	 * Records waiting for the appender, guarded by itself along with the counters.
+	 */
+	private final List<Record> queue = new ArrayList<Record>();
+	private boolean appending;
+	private long queued;
+	private long appended;
+
+	EventJournal(File directory)
+	{
+		this.directory = directory;
+		replay();
+	}
+
+	/**
+	 * Queues an entry for the key. It replaces any earlier entry for the same key.
+	 * 
+	 * @param key
+	 * @param payload
+	 */
+	void append(int key, String payload)
+	{
+		enqueue(new Record(ENTRY, key, payload));
+	}
+
+	/**
+	 * Queues the removal of the entries for the keys.
+	 * 
+	 * @param keys
+	 */
+	void remove(int... keys)
+	{
+		List<Record> records = new ArrayList<Record>(keys.length);
+		for (int key : keys)
+		{
+			records.add(new Record(TOMBSTONE, key, null));
+		}
+		enqueue(records.toArray(new Record[records.size()]));
+	}
+
+	/**
+	 * Reads up to max live entries, oldest first. Entries keep being returned until they are removed, so callers page
+	 * through the journal by removing each batch once they're done with it.
+	 * 
+	 * @param max
+	 * @return the payloads of the entries
+	 */
+	List<String> read(int max)
+	{
+		flush();
+		List<String> payloads = new ArrayList<String>();
+		synchronized (journalLock)
+		{
+			for (Map.Entry<Long, Integer> segment : liveCounts.entrySet())
+			{
+				if (segment.getValue() == 0)
+				{
+					continue;
+				}
+				// when a key has several entries in the segment, the last one is the live one
+				Long seq = segment.getKey();
+				Map<Integer, String> entries = new LinkedHashMap<Integer, String>();
+				for (Record record : readSegment(seq))
+				{
+					if (record.type == ENTRY && seq.equals(liveEntries.get(record.key)))
+					{
+						entries.remove(record.key);
+						entries.put(record.key, record.payload);
+					}
+				}
+				for (String payload : entries.values())
+				{
+					payloads.add(payload);
+					if (payloads.size() >= max)
+					{
+						return payloads;
+					}
+				}
+			}
+		}
+		return payloads;
+	}
+
+	/**
+	 * Removes every entry, including the ones still queued.
+	 */
+	void clear()
+	{
+		flush();
+		synchronized (journalLock)
+		{
+			closeSegment();
+			File[] files = directory.listFiles();
+			if (files != null)
+			{
+				for (File file : files)
+				{
+					if (getSegment(file) >= 0 && !file.delete())
+					{
+						file.deleteOnExit();
+					}
+				}
+			}
+			liveEntries.clear();
+			liveCounts.clear();
+		}
+	}
+
+	/**
+	 * Waits for everything queued so far to be written.
+	 */
+	void flush()
+	{
+		synchronized (queue)
+		{
+			long target = queued;
+			while (appended < target)
+			{
+				try
+				{
+					queue.wait();
+				}
+				catch (InterruptedException e)
+				{
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
+	}
+
+	private void enqueue(Record... records)
+	{
+		synchronized (queue)
+		{
+			for (Record record : records)
+			{
+				queue.add(record);
+			}
+			queued += records.length;
+			if (appending)
+			{
+				return;
+			}
+			appending = true;
+		}
+		Thread appender = new Thread("Analytics Journal Appender") //$NON-NLS-1$
+		{
+			@Override
+			public void run()
+			{
+				appendQueued();
+			}
+		};
+		appender.setDaemon(true);
+		appender.start();
+	}
+
+	private void appendQueued()
+	{
+		while (true)
+		{
+			List<Record> batch;
+			synchronized (queue)
+			{
+				if (queue.isEmpty())
+				{
+					appending = false;
+					return;
+				}
+				batch = new ArrayList<Record>(queue);
+				queue.clear();
+			}
+			try
+			{
+				synchronized (journalLock)
+				{
+					write(batch);
+				}
+			}
+			catch (RuntimeException e)
+			{
+				IdeLog.logError(UsagePlugin.getDefault(), e);
+			}
+			synchronized (queue)
+			{
+				appended += batch.size();
+				queue.notifyAll();
+			}
+		}
+	}
+
+	private void write(List<Record> batch)
+	{
+		boolean written = false;
+		try
+		{
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream data = new DataOutputStream(bytes);
+			for (Record record : batch)
+			{
+				record.writeTo(data);
+			}
+			if (out != null && activeSize >= MAX_SEGMENT_SIZE)
+			{
+				closeSegment();
+			}
+			if (out == null)
+			{
+				out = new FileOutputStream(getSegmentFile(activeSegment), true);
+				activeSize = 0;
+				if (!liveCounts.containsKey(activeSegment))
+				{
+					liveCounts.put(activeSegment, 0);
+				}
+			}
+			bytes.writeTo(out);
+			out.flush();
+			out.getFD().sync();
+			activeSize += bytes.size();
+			written = true;
+		}
+		catch (IOException e)
+		{
+			IdeLog.logError(UsagePlugin.getDefault(), MessageFormat.format(
+					"Unable to persist {0} analytics event changes to disk", batch.size()), e); //$NON-NLS-1$
+			// don't append anything after what may be a partial record
+			closeSegment();
+		}
+		for (Record record : batch)
+		{
+			// removals always apply for this session, even when their tombstones didn't make it to disk
+			if (record.type == TOMBSTONE)
+			{
+				removeLiveEntry(record.key);
+			}
+			else if (written)
+			{
+				addLiveEntry(record.key, activeSegment);
+			}
+		}
+		deleteClearedSegments();
+	}
+
+	private void closeSegment()
+	{
+		if (out != null)
+		{
+			try
+			{
+				out.close();
+			}
+			catch (IOException e)
+			{
+				// ignore
+			}
+			out = null;
+		}
+		activeSegment++;
+	}
+
+	/**
+	 * Deletes the leading segments that hold no live entries anymore. Later segments have to stay even when they have
+	 * no live entries, their tombstones may still be needed to cancel out entries in the earlier ones.
+	 */
+	private void deleteClearedSegments()
+	{
+		Iterator<Map.Entry<Long, Integer>> segments = liveCounts.entrySet().iterator();
+		while (segments.hasNext())
+		{
+			Map.Entry<Long, Integer> segment = segments.next();
+			if (segment.getValue() > 0)
+			{
+				break;
+			}
+			if (segment.getKey() == activeSegment)
+			{
+				closeSegment();
+			}
+			File file = getSegmentFile(segment.getKey());
+			if (!file.delete())
+			{
+				file.deleteOnExit();
+			}
+			segments.remove();
+		}
+	}
+
+	private void addLiveEntry(int key, long segment)
+	{
+		removeLiveEntry(key);
+		liveEntries.put(key, segment);
+		Integer count = liveCounts.get(segment);
+		liveCounts.put(segment, (count == null) ? 1 : count + 1);
+	}
+
+	private void removeLiveEntry(int key)
+	{
+		Long segment = liveEntries.remove(key);
+		if (segment != null)
+		{
+			liveCounts.put(segment, liveCounts.get(segment) - 1);
+		}
+	}
+
+	/**
+	 * Rebuilds the index from the segments on disk and sets up a new segment to append to.
+	 */
+	private void replay()
+	{
+		long last = -1;
+		File[] files = directory.listFiles();
+		if (files != null)
+		{
+			SortedMap<Long, File> segments = new TreeMap<Long, File>();
+			for (File file : files)
+			{
+				long seq = getSegment(file);
+				if (seq >= 0)
+				{
+					segments.put(seq, file);
+				}
+			}
+			for (Long seq : segments.keySet())
+			{
+				liveCounts.put(seq, 0);
+				for (Record record : readSegment(seq))
+				{
+					if (record.type == TOMBSTONE)
+					{
+						removeLiveEntry(record.key);
+					}
+					else
+					{
+						addLiveEntry(record.key, seq);
+					}
+				}
+				last = seq;
+			}
+		}
+		activeSegment = last + 1;
+		deleteClearedSegments();
+	}
+
+	private List<Record> readSegment(long seq)
+	{
+		List<Record> records = new ArrayList<Record>();
+		DataInputStream in = null;
+		try
+		{
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(getSegmentFile(seq))));
+			Record record;
+			while ((record = Record.readFrom(in)) != null)
+			{
+				records.add(record);
+			}
+		}
+		catch (EOFException e)
+		{
+			// cut short by a crash, keep what was complete
+		}
+		catch (IOException e)
+		{
+			IdeLog.logWarning(UsagePlugin.getDefault(),
+					MessageFormat.format("Unable to read analytics events from segment {0}", seq), e); //$NON-NLS-1$
+		}
+		finally
+		{
+			if (in != null)
+			{
+				try
+				{
+					in.close();
+				}
+				catch (IOException e)
+				{
+					// ignore
+				}
+			}
+		}
+		return records;
+	}
+
+	private File getSegmentFile(long seq)
+	{
+		return new File(directory, SEGMENT_PREFIX + seq + SEGMENT_EXTENSION);
+	}
+
+	private static long getSegment(File file)
+	{
+		String name = file.getName();
+		if (!name.startsWith(SEGMENT_PREFIX) || !name.endsWith(SEGMENT_EXTENSION))
+		{
+			return -1;
+		}
+		try
+		{
+			return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_EXTENSION.length()));
+		}
+		catch (NumberFormatException e)
+		{
+			return -1;
+		}
+	}
+
+	private static class Record
+	{
+		final byte type;
+		final int key;
+		final String payload;
+
+		Record(byte type, int key, String payload)
+		{
+			this.type = type;
+			this.key = key;
+			this.payload = payload;
+		}
+
+		void writeTo(DataOutputStream out) throws IOException
+		{
+			byte[] bytes = (payload == null) ? new byte[0] : payload.getBytes(IOUtil.UTF_8);
+			out.writeInt(bytes.length);
+			out.writeInt(checksum(type, key, bytes));
+			out.writeByte(type);
+			out.writeInt(key);
+			out.write(bytes);
+		}
+
+		/**
+		 * @return the next record, or null at the end of the segment or at a record that doesn't check out
+		 * @throws EOFException
+		 *             if the segment ends in the middle of a record
+		 */
+		static Record readFrom(DataInputStream in) throws IOException
+		{
+			int length;
+			try
+			{
+				length = in.readInt();
+			}
+			catch (EOFException e)
+			{
+				return null;
+			}
+			int checksum = in.readInt();
+			byte type = in.readByte();
+			int key = in.readInt();
+			if (length < 0 || length > MAX_PAYLOAD_SIZE || (type != ENTRY && type != TOMBSTONE))
+			{
+				return null;
+			}
+			byte[] bytes = new byte[length];
+			in.readFully(bytes);
+			if (checksum != checksum(type, key, bytes))
+			{
+				return null;
+			}
+			return new Record(type, key, (type == ENTRY) ? new String(bytes, IOUtil.UTF_8) : null);
+		}
+
+		private static int checksum(byte type, int key, byte[] bytes)
+		{
+			CRC32 crc = new CRC32();
+			crc.update(type);
+			crc.update(key >>> 24);
+			crc.update(key >>> 16);
+			crc.update(key >>> 8);
+			crc.update(key);
+			crc.update(bytes);
+			return (int) crc.getValue();
+		}
+	}
+}
@@ -0,0 +1,138 @@
+/**
+ * Aptana Studio
+ * Copyright (c) 2013 by Appcelerator, Inc. All Rights Reserved.
+ * Licensed under the terms of the GNU Public License (GPL) v3 (with exceptions).
+ * Please see the license.html included with this distribution for details.
+ * Any modifications to this file must keep this entire header intact.
+ */
+package com.aptana.webserver.internal.core.builtin;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Keeps the gzipped contents of recently served files in memory, least recently used first out once the total size
+ * goes over budget. Entries are tagged with the ETag of the file they were made from, so a stale entry is never handed
+ * out even if nobody told us the file changed.
+ */
+/* package */class CompressedContentCache
+{
+
+	private static final int BUFFER_SIZE = 8192;
+
+	private static class Entry
+	{
+		final String etag;
+		final byte[] data;
+
+		Entry(String etag, byte[] data)
+		{
+			this.etag = etag;
+			this.data = data;
+		}
+	}
+
+	private final long budget;
+	private long size;
+	private final LinkedHashMap<URI, Entry> entries = new LinkedHashMap<URI, Entry>(16, 0.75f, true);
+
+	/**
+	 * @param budget
+	 *            the most bytes of compressed content to hold on to
+	 */
+	CompressedContentCache(long budget)
+	{
+		this.budget = budget;
+	}
+
+	/**
+	 * Returns the compressed contents of the file, or null if we don't have them for this version of the file.
+	 * 
+	 * @param uri
+	 * @param etag
+	 * @return
+	 */
+	synchronized byte[] get(URI uri, String etag)
+	{
+		Entry entry = entries.get(uri);
+		if (entry == null)
+		{
+			return null;
+		}
+		if (!entry.etag.equals(etag))
+		{
+			remove(uri);
+			return null;
+		}
+		return entry.data;
+	}
+
+	synchronized void put(URI uri, String etag, byte[] data)
+	{
+		if (data.length > budget)
+		{
+			return;
+		}
+		remove(uri);
+		entries.put(uri, new Entry(etag, data));
+		size += data.length;
+		Iterator<Map.Entry<URI, Entry>> i = entries.entrySet().iterator();
+		while (size > budget && i.hasNext())
+		{
+			size -= i.next().getValue().data.length;
+			i.remove();
+		}
+	}
+
+	synchronized void remove(URI uri)
+	{
+		Entry entry = entries.remove(uri);
+		if (entry != null)
+		{
+			size -= entry.data.length;
+		}
+	}
+
+	synchronized void clear()
+	{
+		entries.clear();
+		size = 0;
+	}
+
+	/**
+	 * Gzips the stream's contents. The stream is closed.
+	 * 
+	 * @param in
+	 * @param sizeHint
+	 * @return
+	 * @throws IOException
+	 */
+	static byte[] compress(InputStream in, long sizeHint) throws IOException
+	{
+		// text typically compresses to well under half its size
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream((int) Math.max(BUFFER_SIZE, sizeHint / 3));
+		try
+		{
+			GZIPOutputStream out = new GZIPOutputStream(bytes, BUFFER_SIZE);
+			byte[] buffer = new byte[BUFFER_SIZE];
+			int n;
+			while ((n = in.read(buffer)) != -1) // $codepro.audit.disable assignmentInCondition
+			{
+				out.write(buffer, 0, n);
+			}
+			out.close();
+		}
+		finally
+		{
+			in.close();
+		}
+		return bytes.toByteArray();
+	}
+
+}
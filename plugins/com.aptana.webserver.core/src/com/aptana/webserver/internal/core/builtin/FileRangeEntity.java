@@ -0,0 +1,221 @@
+/**
+ * Aptana Studio
+ * Copyright (c) 2013 by Appcelerator, Inc. All Rights Reserved.
+ * Licensed under the terms of the GNU Public License (GPL) v3 (with exceptions).
+ * Please see the license.html included with this distribution for details.
+ * Any modifications to this file must keep this entire header intact.
+ */
+// $codepro.audit.disable unnecessaryExceptions
+
+package com.aptana.webserver.internal.core.builtin;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.nio.ContentEncoder;
+import org.apache.http.nio.ContentEncoderChannel;
+import org.apache.http.nio.FileContentEncoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.entity.HttpAsyncContentProducer;
+
+/**
+ * A non-blocking entity for a byte range of a file, the counterpart of <code>NFileEntity</code> for partial
+ * responses. Like <code>NFileEntity</code> it hands the file channel straight to the connection's encoder, so the
+ * data goes from the file to the socket without being copied through the heap.
+ */
+/* package */class FileRangeEntity extends AbstractHttpEntity implements HttpAsyncContentProducer
+{
+
+	private static final int BUFFER_SIZE = 8192;
+
+	private final File file;
+	private final long start;
+	private final long length;
+
+	private RandomAccessFile accessFile;
+	private long position;
+
+	/**
+	 * @param file
+	 * @param start
+	 *            offset of the first byte to send
+	 * @param length
+	 *            number of bytes to send
+	 * @param contentType
+	 */
+	FileRangeEntity(File file, long start, long length, ContentType contentType)
+	{
+		this.file = file;
+		this.start = start;
+		this.length = length;
+		this.position = start;
+		if (contentType != null)
+		{
+			setContentType(contentType.toString());
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.apache.http.nio.entity.HttpAsyncContentProducer#produceContent(org.apache.http.nio.ContentEncoder,
+	 * org.apache.http.nio.IOControl)
+	 */
+	public synchronized void produceContent(ContentEncoder encoder, IOControl ioctrl) throws IOException
+	{
+		if (accessFile == null)
+		{
+			accessFile = new RandomAccessFile(file, "r"); //$NON-NLS-1$
+		}
+		FileChannel channel = accessFile.getChannel();
+		long remaining = start + length - position;
+		long transferred;
+		if (encoder instanceof FileContentEncoder)
+		{
+			transferred = ((FileContentEncoder) encoder).transfer(channel, position, remaining);
+		}
+		else
+		{
+			transferred = channel.transferTo(position, remaining, new ContentEncoderChannel(encoder));
+		}
+		if (transferred > 0)
+		{
+			position += transferred;
+		}
+		if (position >= start + length || position >= channel.size())
+		{
+			encoder.complete();
+			close();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.io.Closeable#close()
+	 */
+	public synchronized void close() throws IOException
+	{
+		if (accessFile != null)
+		{
+			try
+			{
+				accessFile.close();
+			}
+			finally
+			{
+				accessFile = null;
+			}
+		}
+		position = start;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.apache.http.HttpEntity#isRepeatable()
+	 */
+	public boolean isRepeatable()
+	{
+		return true;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.apache.http.HttpEntity#getContentLength()
+	 */
+	public long getContentLength()
+	{
+		return length;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.apache.http.HttpEntity#isStreaming()
+	 */
+	public boolean isStreaming()
+	{
+		return false;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.apache.http.HttpEntity#getContent()
+	 */
+	public InputStream getContent() throws IOException
+	{
+		FileInputStream in = new FileInputStream(file);
+		long skipped = 0;
+		while (skipped < start)
+		{
+			long n = in.skip(start - skipped);
+			if (n <= 0)
+			{
+				break;
+			}
+			skipped += n;
+		}
+		return new FilterInputStream(in)
+		{
+			private long remaining = length;
+
+			@Override
+			public int read() throws IOException
+			{
+				if (remaining <= 0)
+				{
+					return -1;
+				}
+				int b = super.read();
+				if (b != -1)
+				{
+					remaining--;
+				}
+				return b;
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException
+			{
+				if (remaining <= 0)
+				{
+					return -1;
+				}
+				int n = super.read(b, off, (int) Math.min(len, remaining));
+				if (n > 0)
+				{
+					remaining -= n;
+				}
+				return n;
+			}
+		};
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.apache.http.HttpEntity#writeTo(java.io.OutputStream)
+	 */
+	public void writeTo(OutputStream out) throws IOException
+	{
+		InputStream in = getContent();
+		try
+		{
+			byte[] buffer = new byte[BUFFER_SIZE];
+			int n;
+			while ((n = in.read(buffer)) != -1)
+			{
+				out.write(buffer, 0, n);
+			}
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+
+}
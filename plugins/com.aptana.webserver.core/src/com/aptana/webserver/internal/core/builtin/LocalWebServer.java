@@ -146,8 +146,15 @@ public class LocalWebServer extends SimpleWebServer
 			@Override
 			public void run()
 			{
-				runServer(new InetSocketAddress(host, port), new BasicAsyncRequestHandler(
-						new LocalWebServerHttpRequestHandler(LocalWebServer.this)));
+				LocalWebServerHttpRequestHandler handler = new LocalWebServerHttpRequestHandler(LocalWebServer.this);
+				try
+				{
+					runServer(new InetSocketAddress(host, port), new BasicAsyncRequestHandler(handler));
+				}
+				finally
+				{
+					handler.dispose();
+				}
 			}
 		};
 		thread.setDaemon(true);
@@ -16,16 +16,25 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URLDecoder;
 import java.text.MessageFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
 import java.util.regex.Pattern;
 
+import org.apache.http.Header;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpException;
 import org.apache.http.HttpRequest;
 import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
 import org.apache.http.MethodNotSupportedException;
+import org.apache.http.entity.AbstractHttpEntity;
 import org.apache.http.entity.ContentType;
+import org.apache.http.nio.entity.NByteArrayEntity;
 import org.apache.http.nio.entity.NFileEntity;
 import org.apache.http.nio.entity.NStringEntity;
 import org.apache.http.protocol.HTTP;
@@ -34,6 +43,12 @@ import org.apache.http.protocol.HttpRequestHandler;
 import org.eclipse.core.filesystem.EFS;
 import org.eclipse.core.filesystem.IFileInfo;
 import org.eclipse.core.filesystem.IFileStore;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IResourceChangeEvent;
+import org.eclipse.core.resources.IResourceChangeListener;
+import org.eclipse.core.resources.IResourceDelta;
+import org.eclipse.core.resources.IResourceDeltaVisitor;
+import org.eclipse.core.resources.ResourcesPlugin;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.NullProgressMonitor;
 import org.eclipse.core.runtime.Path;
@@ -58,14 +73,123 @@ import com.aptana.webserver.core.WebServerCorePlugin;
 
 	private final static Pattern PATTERN_INDEX = Pattern.compile("(index|default)\\.x?html?"); //$NON-NLS-1$
 
+	private static final String HEADER_ETAG = "ETag"; //$NON-NLS-1$
+	private static final String HEADER_LAST_MODIFIED = "Last-Modified"; //$NON-NLS-1$
+	private static final String HEADER_CACHE_CONTROL = "Cache-Control"; //$NON-NLS-1$
+	private static final String HEADER_IF_NONE_MATCH = "If-None-Match"; //$NON-NLS-1$
+	private static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since"; //$NON-NLS-1$
+	private static final String HEADER_ACCEPT_ENCODING = "Accept-Encoding"; //$NON-NLS-1$
+	private static final String HEADER_VARY = "Vary"; //$NON-NLS-1$
+	private static final String HEADER_ACCEPT_RANGES = "Accept-Ranges"; //$NON-NLS-1$
+	private static final String HEADER_RANGE = "Range"; //$NON-NLS-1$
+	private static final String HEADER_IF_RANGE = "If-Range"; //$NON-NLS-1$
+	private static final String HEADER_CONTENT_RANGE = "Content-Range"; //$NON-NLS-1$
+
+	// Browsers may keep what we send, but have to check back with us before using it
+	private static final String NO_CACHE = "no-cache"; //$NON-NLS-1$
+	private static final String BYTES_UNIT = "bytes"; //$NON-NLS-1$
+	private static final String GZIP_ENCODING = "gzip"; //$NON-NLS-1$
+	private static final String GZIP_EXTENSION = ".gz"; //$NON-NLS-1$
+	private static final String HTTP_DATE_FORMAT = "EEE, dd MMM yyyy HH:mm:ss zzz"; //$NON-NLS-1$
+
+	/**
+	 * Files larger than this are never compressed on the fly
+	 */
+	private static final long MAX_COMPRESS_LENGTH = 2 * 1024 * 1024;
+
+	/**
+	 * Total size of compressed responses kept in memory
+	 */
+	private static final long COMPRESSED_CACHE_BUDGET = 16 * 1024 * 1024;
+
+	/**
+	 * Marks a Range header that can't be satisfied for the file
+	 */
+	private static final long[] UNSATISFIABLE_RANGE = new long[0];
+
 	private IURIMapper uriMapper;
 
+	private final CompressedContentCache compressedContents = new CompressedContentCache(COMPRESSED_CACHE_BUDGET);
+
+	/**
+	 * Local copies of files from non-local file systems, keyed by their location. Values are an ETag and the file.
+	 */
+	private final Map<URI, Object[]> localCopies = new HashMap<URI, Object[]>();
+
+	private final IResourceChangeListener resourceListener = new IResourceChangeListener()
+	{
+		public void resourceChanged(IResourceChangeEvent event)
+		{
+			IResourceDelta delta = event.getDelta();
+			if (delta == null)
+			{
+				return;
+			}
+			try
+			{
+				delta.accept(new IResourceDeltaVisitor()
+				{
+					public boolean visit(IResourceDelta delta) throws CoreException
+					{
+						if (delta.getResource().getType() == IResource.FILE
+								&& (delta.getKind() == IResourceDelta.REMOVED || (delta.getFlags() & (IResourceDelta.CONTENT | IResourceDelta.REPLACED)) != 0))
+						{
+							URI location = delta.getResource().getLocationURI();
+							if (location != null)
+							{
+								invalidate(location);
+							}
+						}
+						return true;
+					}
+				});
+			}
+			catch (CoreException e)
+			{
+				IdeLog.logError(WebServerCorePlugin.getDefault(), e);
+			}
+		}
+	};
+
 	/**
 	 * @param documentRoot
 	 */
 	protected LocalWebServerHttpRequestHandler(IURIMapper uriMapper)
 	{
 		this.uriMapper = uriMapper;
+		try
+		{
+			ResourcesPlugin.getWorkspace().addResourceChangeListener(resourceListener,
+					IResourceChangeEvent.POST_CHANGE);
+		}
+		catch (IllegalStateException e)
+		{
+			// no workspace; cached content is still checked against the file's ETag
+		}
+	}
+
+	/**
+	 * Releases the cached content. Call once the server has stopped.
+	 */
+	protected void dispose()
+	{
+		try
+		{
+			ResourcesPlugin.getWorkspace().removeResourceChangeListener(resourceListener);
+		}
+		catch (IllegalStateException e)
+		{
+			// workspace already gone
+		}
+		compressedContents.clear();
+		synchronized (localCopies)
+		{
+			for (Object[] copy : localCopies.values())
+			{
+				deleteFile((File) copy[1]);
+			}
+			localCopies.clear();
+		}
 	}
 
 	private void handleRequest(HttpRequest request, HttpResponse response, boolean head) throws HttpException,
@@ -95,38 +219,167 @@ import com.aptana.webserver.core.WebServerCorePlugin;
 			response.setEntity(createTextEntity(Messages.LocalWebServerHttpRequestHandler_FORBIDDEN));
 		}
 		else
+		{
+			handleFile(request, response, head, fileStore, fileInfo);
+		}
+	}
+
+	private void handleFile(HttpRequest request, HttpResponse response, boolean head, IFileStore fileStore,
+			IFileInfo fileInfo) throws IOException, CoreException
+	{
+		String etag = getETag(fileInfo);
+		long lastModified = fileInfo.getLastModified();
+		ContentType contentType = getMimeType(fileStore.getName());
+		boolean compressible = isCompressible(contentType);
+
+		response.setHeader(HEADER_LAST_MODIFIED, formatDate(lastModified));
+		response.setHeader(HEADER_CACHE_CONTROL, NO_CACHE);
+		response.setHeader(HEADER_ACCEPT_RANGES, BYTES_UNIT);
+		if (compressible)
+		{
+			response.setHeader(HEADER_VARY, HEADER_ACCEPT_ENCODING);
+		}
+		if (isNotModified(request, etag, lastModified))
+		{
+			response.setStatusCode(HttpStatus.SC_NOT_MODIFIED);
+			response.setHeader(HEADER_ETAG, etag);
+			response.setEntity(null);
+			return;
+		}
+		if (head)
 		{
 			response.setStatusCode(HttpStatus.SC_OK);
-			if (head)
+			response.setHeader(HEADER_ETAG, etag);
+			response.setEntity(null);
+			return;
+		}
+
+		long length = fileInfo.getLength();
+		long[] range = getRange(request, etag, lastModified, length);
+		if (range == UNSATISFIABLE_RANGE)
+		{
+			response.setStatusCode(HttpStatus.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+			response.setHeader(HEADER_ETAG, etag);
+			response.setHeader(HEADER_CONTENT_RANGE, BYTES_UNIT + " */" + length); //$NON-NLS-1$
+			response.setEntity(null);
+			return;
+		}
+		if (range != null)
+		{
+			response.setStatusCode(HttpStatus.SC_PARTIAL_CONTENT);
+			response.setHeader(HEADER_ETAG, etag);
+			response.setHeader(HEADER_CONTENT_RANGE,
+					MessageFormat.format("{0} {1}-{2}/{3}", BYTES_UNIT, Long.toString(range[0]), //$NON-NLS-1$
+							Long.toString(range[1]), Long.toString(length)));
+			response.setEntity(new FileRangeEntity(getLocalFile(fileStore, etag), range[0], range[1] - range[0] + 1,
+					contentType));
+			return;
+		}
+
+		response.setStatusCode(HttpStatus.SC_OK);
+		if (compressible && acceptsGzip(request))
+		{
+			AbstractHttpEntity entity = getCompressedEntity(fileStore, fileInfo, etag, contentType);
+			if (entity != null)
 			{
-				response.setEntity(null);
+				// a different representation, so it gets its own tag
+				response.setHeader(HEADER_ETAG, getGzipETag(etag));
+				entity.setContentEncoding(GZIP_ENCODING);
+				response.setEntity(entity);
+				return;
 			}
-			else
+		}
+		response.setHeader(HEADER_ETAG, etag);
+		response.setEntity(new NFileEntity(getLocalFile(fileStore, etag), contentType));
+	}
+
+	/**
+	 * Returns a gzipped version of the file: a precompressed sibling (<code>name.gz</code>) if there's an up to date
+	 * one, otherwise the file compressed on the fly (and cached). Returns null if the file is too large to compress on
+	 * the fly.
+	 */
+	private AbstractHttpEntity getCompressedEntity(IFileStore fileStore, IFileInfo fileInfo, String etag,
+			ContentType contentType) throws IOException, CoreException
+	{
+		IFileStore precompressed = fileStore.getParent().getChild(fileStore.getName() + GZIP_EXTENSION);
+		IFileInfo precompressedInfo = precompressed.fetchInfo();
+		if (precompressedInfo.exists() && !precompressedInfo.isDirectory()
+				&& precompressedInfo.getLastModified() >= fileInfo.getLastModified())
+		{
+			File file = precompressed.toLocalFile(EFS.NONE, new NullProgressMonitor());
+			if (file != null)
 			{
-				File file = fileStore.toLocalFile(EFS.NONE, new NullProgressMonitor());
-				final File temporaryFile = (file == null) ? fileStore.toLocalFile(EFS.CACHE, new NullProgressMonitor())
-						: null;
-				response.setEntity(new NFileEntity((file != null) ? file : temporaryFile, getMimeType(fileStore
-						.getName()))
-				{
-					@Override
-					public void close() throws IOException
-					{
-						try
-						{
-							super.close();
-						}
-						finally
-						{
-							if (temporaryFile != null && !temporaryFile.delete())
-							{
-								temporaryFile.deleteOnExit();
-							}
-						}
-					}
-				});
+				return new NFileEntity(file, contentType);
+			}
+		}
+
+		if (fileInfo.getLength() > MAX_COMPRESS_LENGTH)
+		{
+			return null;
+		}
+		URI uri = fileStore.toURI();
+		byte[] data = compressedContents.get(uri, etag);
+		if (data == null)
+		{
+			data = CompressedContentCache.compress(fileStore.openInputStream(EFS.NONE, new NullProgressMonitor()),
+					fileInfo.getLength());
+			compressedContents.put(uri, etag, data);
+		}
+		return new NByteArrayEntity(data, contentType);
+	}
+
+	/**
+	 * Returns the file on disk to serve. Stores from other file systems are copied to a local cache file, which is
+	 * reused for as long as the store's ETag doesn't change.
+	 */
+	private File getLocalFile(IFileStore fileStore, String etag) throws CoreException
+	{
+		File file = fileStore.toLocalFile(EFS.NONE, new NullProgressMonitor());
+		if (file != null)
+		{
+			return file;
+		}
+		URI uri = fileStore.toURI();
+		synchronized (localCopies)
+		{
+			Object[] copy = localCopies.get(uri);
+			if (copy != null && etag.equals(copy[0]) && ((File) copy[1]).isFile())
+			{
+				return (File) copy[1];
 			}
 		}
+		file = fileStore.toLocalFile(EFS.CACHE, new NullProgressMonitor());
+		synchronized (localCopies)
+		{
+			Object[] previous = localCopies.put(uri, new Object[] { etag, file });
+			if (previous != null && !file.equals(previous[1]))
+			{
+				deleteFile((File) previous[1]);
+			}
+		}
+		return file;
+	}
+
+	private void invalidate(URI location)
+	{
+		compressedContents.remove(location);
+		synchronized (localCopies)
+		{
+			Object[] copy = localCopies.remove(location);
+			if (copy != null)
+			{
+				deleteFile((File) copy[1]);
+			}
+		}
+	}
+
+	private static void deleteFile(File file)
+	{
+		if (!file.delete())
+		{
+			// still being sent, most likely
+			file.deleteOnExit();
+		}
 	}
 
 	/*
@@ -182,6 +435,171 @@ import com.aptana.webserver.core.WebServerCorePlugin;
 		return EFS.getNullFileSystem().getStore(Path.EMPTY).fetchInfo();
 	}
 
+	private static String getETag(IFileInfo fileInfo)
+	{
+		return '"' + Long.toHexString(fileInfo.getLastModified()) + '-' + Long.toHexString(fileInfo.getLength()) + '"';
+	}
+
+	private static String getGzipETag(String etag)
+	{
+		return etag.substring(0, etag.length() - 1) + "-gz\""; //$NON-NLS-1$
+	}
+
+	/**
+	 * Can the client use the copy it has? If-None-Match takes precedence over If-Modified-Since.
+	 */
+	private static boolean isNotModified(HttpRequest request, String etag, long lastModified)
+	{
+		Header ifNoneMatch = request.getFirstHeader(HEADER_IF_NONE_MATCH);
+		if (ifNoneMatch != null)
+		{
+			String gzipETag = getGzipETag(etag);
+			for (String tag : ifNoneMatch.getValue().split(",")) //$NON-NLS-1$
+			{
+				tag = tag.trim();
+				if (tag.startsWith("W/")) //$NON-NLS-1$
+				{
+					tag = tag.substring(2);
+				}
+				if ("*".equals(tag) || etag.equals(tag) || gzipETag.equals(tag)) //$NON-NLS-1$
+				{
+					return true;
+				}
+			}
+			return false;
+		}
+		Header ifModifiedSince = request.getFirstHeader(HEADER_IF_MODIFIED_SINCE);
+		if (ifModifiedSince != null)
+		{
+			long since = parseDate(ifModifiedSince.getValue());
+			// HTTP dates only have second precision
+			return since != -1 && lastModified / 1000 <= since / 1000;
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the first and last byte positions asked for by the request's Range header, null if the whole file
+	 * should be sent or {@link #UNSATISFIABLE_RANGE}. Only single ranges are supported; anything else gets the whole
+	 * file, which the spec allows.
+	 */
+	private static long[] getRange(HttpRequest request, String etag, long lastModified, long length)
+	{
+		Header rangeHeader = request.getFirstHeader(HEADER_RANGE);
+		if (rangeHeader == null)
+		{
+			return null;
+		}
+		Header ifRange = request.getFirstHeader(HEADER_IF_RANGE);
+		if (ifRange != null)
+		{
+			String value = ifRange.getValue().trim();
+			boolean current = value.startsWith("\"") ? etag.equals(value) //$NON-NLS-1$
+					: parseDate(value) / 1000 == lastModified / 1000;
+			if (!current)
+			{
+				return null;
+			}
+		}
+
+		String value = rangeHeader.getValue().trim();
+		if (!value.startsWith(BYTES_UNIT + '=') || value.indexOf(',') != -1)
+		{
+			return null;
+		}
+		value = value.substring(BYTES_UNIT.length() + 1).trim();
+		int dash = value.indexOf('-');
+		if (dash == -1)
+		{
+			return null;
+		}
+		try
+		{
+			long first;
+			long last;
+			if (dash == 0)
+			{
+				// the last n bytes
+				long suffix = Long.parseLong(value.substring(1).trim());
+				if (suffix <= 0)
+				{
+					return UNSATISFIABLE_RANGE;
+				}
+				first = Math.max(0, length - suffix);
+				last = length - 1;
+			}
+			else
+			{
+				first = Long.parseLong(value.substring(0, dash).trim());
+				String end = value.substring(dash + 1).trim();
+				last = (end.length() == 0) ? length - 1 : Math.min(Long.parseLong(end), length - 1);
+				if (last < first)
+				{
+					return (end.length() == 0 || first >= length) ? UNSATISFIABLE_RANGE : null;
+				}
+			}
+			if (first >= length)
+			{
+				return UNSATISFIABLE_RANGE;
+			}
+			return new long[] { first, last };
+		}
+		catch (NumberFormatException e)
+		{
+			return null;
+		}
+	}
+
+	private static boolean acceptsGzip(HttpRequest request)
+	{
+		Header acceptEncoding = request.getFirstHeader(HEADER_ACCEPT_ENCODING);
+		if (acceptEncoding == null)
+		{
+			return false;
+		}
+		for (String coding : acceptEncoding.getValue().split(",")) //$NON-NLS-1$
+		{
+			String[] parts = coding.trim().split(";"); //$NON-NLS-1$
+			if (GZIP_ENCODING.equalsIgnoreCase(parts[0].trim()))
+			{
+				// "gzip;q=0" means no
+				return parts.length < 2 || !parts[1].trim().matches("q=0(\\.0*)?"); //$NON-NLS-1$
+			}
+		}
+		return false;
+	}
+
+	private static boolean isCompressible(ContentType contentType)
+	{
+		String mimeType = contentType.getMimeType();
+		return mimeType.startsWith("text/") || mimeType.endsWith("javascript") || mimeType.endsWith("json") //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+				|| mimeType.endsWith("xml"); //$NON-NLS-1$
+	}
+
+	private static String formatDate(long time)
+	{
+		SimpleDateFormat format = new SimpleDateFormat(HTTP_DATE_FORMAT, Locale.US);
+		format.setTimeZone(TimeZone.getTimeZone("GMT")); //$NON-NLS-1$
+		return format.format(new Date(time));
+	}
+
+	/**
+	 * @return the time, or -1 if the date can't be parsed
+	 */
+	private static long parseDate(String value)
+	{
+		SimpleDateFormat format = new SimpleDateFormat(HTTP_DATE_FORMAT, Locale.US);
+		format.setTimeZone(TimeZone.getTimeZone("GMT")); //$NON-NLS-1$
+		try
+		{
+			return format.parse(value.trim()).getTime();
+		}
+		catch (ParseException e)
+		{
+			return -1;
+		}
+	}
+
 	private static ContentType getMimeType(String fileName)
 	{
 		return ContentType.create(MimeTypesRegistry.INSTANCE.getMimeType(Path.fromPortableString(fileName)
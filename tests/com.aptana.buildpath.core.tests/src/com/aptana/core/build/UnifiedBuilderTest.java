@@ -10,6 +10,8 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import junit.framework.TestCase;
 
@@ -553,4 +555,78 @@ public class UnifiedBuilderTest
 		builder.build(IncrementalProjectBuilder.FULL_BUILD, null, new NullProgressMonitor());
 		context.assertIsSatisfied();
 	}
+
+	@Test
+	public void testParallelFullBuild() throws Exception
+	{
+		final int fileCount = 50;
+		for (int i = 0; i < fileCount; i++)
+		{
+			IFile file = project.getFile("file" + i + ".txt");
+			file.create(new ByteArrayInputStream(("Hello world " + i).getBytes()), true, null);
+		}
+
+		final AtomicInteger running = new AtomicInteger();
+		final AtomicInteger built = new AtomicInteger();
+		final AtomicBoolean overlapped = new AtomicBoolean();
+		participant = new RequiredBuildParticipant()
+		{
+			public void deleteFile(BuildContext context, IProgressMonitor monitor)
+			{
+			}
+
+			public void buildFile(BuildContext context, IProgressMonitor monitor)
+			{
+				// not declared thread-safe, so never called for two files at once
+				if (running.incrementAndGet() > 1)
+				{
+					overlapped.set(true);
+				}
+				try
+				{
+					Thread.sleep(1);
+				}
+				catch (InterruptedException e)
+				{
+					// ignore
+				}
+				Collection<IProblem> problems = new ArrayList<IProblem>();
+				problems.add(createTask(context.getURI().toString(), "Fake task", IMarker.PRIORITY_HIGH, 1, 0, 4));
+				context.putProblems(IMarkerConstants.TASK_MARKER, problems);
+				built.incrementAndGet();
+				running.decrementAndGet();
+			}
+		};
+		builder = new UnifiedBuilder()
+		{
+			@Override
+			protected IProject getProjectHandle()
+			{
+				return project;
+			}
+
+			@Override
+			protected IBuildParticipantManager getBuildParticipantManager()
+			{
+				return manager;
+			}
+
+			@Override
+			protected int getWorkerCount()
+			{
+				return 4;
+			}
+		};
+		builder.build(IncrementalProjectBuilder.FULL_BUILD, null, new NullProgressMonitor());
+
+		// the files plus .project
+		assertEquals(fileCount + 1, built.get());
+		assertFalse(overlapped.get());
+		for (int i = 0; i < fileCount; i++)
+		{
+			IMarker[] markers = project.getFile("file" + i + ".txt").findMarkers(IMarkerConstants.TASK_MARKER, true,
+					IResource.DEPTH_ZERO);
+			assertEquals(1, markers.length);
+		}
+	}
 }
@@ -11,6 +11,7 @@ import org.junit.Test;
 import static org.junit.Assert.*;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
@@ -258,6 +259,91 @@ public class ZipUtilTest
 		}
 	}
 
+	@Test
+	public void testUnzipStreamWithSymlinks() throws IOException
+	{
+		URL resourceURL = Platform.getBundle(BUNDLE_ID).getEntry(TEST_ZIP_SYMLINKS);
+		assertNotNull(resourceURL);
+		File resourceFile = ResourceUtil.resourcePathToFile(resourceURL);
+		assertNotNull(resourceFile);
+
+		File destinationDir = File.createTempFile(getClass().getSimpleName(), null);
+		assertTrue(destinationDir.delete());
+		assertTrue(destinationDir.mkdirs());
+
+		InputStream stream = new FileInputStream(resourceFile);
+		try
+		{
+			assertTrue(ZipUtil.extract(stream, destinationDir, ZipUtil.Conflict.OVERWRITE, null,
+					new NullProgressMonitor()).isOK());
+
+			File[] files = destinationDir.listFiles();
+			assertEquals("Unzipped contents to not match expected number of files", TOP_ENTRIES_SYMLINK.size(),
+					files.length);
+			assertTrue("Expected entry is not a directory", new File(destinationDir, "folder/other").isDirectory());
+			assertTrue("Expected entry is not a file", new File(destinationDir, "folder/file.txt").isFile());
+			if (!PlatformUtil.isWindows())
+			{
+				assertTrue("Expected entry is not a symlink",
+						FileUtil.isSymlink(new File(destinationDir, "filesym.txt")));
+				assertTrue("Expected entry is not a symlink", FileUtil.isSymlink(new File(destinationDir, "othersym")));
+			}
+		}
+		finally
+		{
+			stream.close();
+			// remove the contents after we are done with the test
+			FileUtil.deleteRecursively(destinationDir);
+		}
+	}
+
+	@Test
+	public void testZipAndUnzipManyFiles() throws IOException
+	{
+		File sourceDir = File.createTempFile(getClass().getSimpleName(), null);
+		assertTrue(sourceDir.delete());
+		assertTrue(sourceDir.mkdirs());
+
+		File destinationDir = File.createTempFile(getClass().getSimpleName(), null);
+		assertTrue(destinationDir.delete());
+		assertTrue(destinationDir.mkdirs());
+
+		File zipFile = File.createTempFile(getClass().getSimpleName(), ".zip");
+		try
+		{
+			// enough files to be extracted in parallel
+			for (int i = 0; i < 200; i++)
+			{
+				File dir = new File(sourceDir, "dir" + (i % 10));
+				dir.mkdirs();
+				StringBuilder content = new StringBuilder();
+				for (int j = 0; j < i; j++)
+				{
+					content.append("line ").append(j).append('\n');
+				}
+				IOUtil.write(new FileOutputStream(new File(dir, "file" + i + ".txt")), content.toString());
+			}
+
+			assertTrue("Compression failed", ZipUtil.compress(zipFile.getAbsolutePath(),
+					new String[] { sourceDir.getAbsolutePath() }, sourceDir.getAbsolutePath()));
+			assertTrue(ZipUtil.extract(zipFile, destinationDir, false, false, new NullProgressMonitor()).isOK());
+
+			for (int i = 0; i < 200; i++)
+			{
+				String path = "dir" + (i % 10) + "/file" + i + ".txt";
+				assertEquals(path, IOUtil.read(new FileInputStream(new File(sourceDir, path))),
+						IOUtil.read(new FileInputStream(new File(destinationDir, path))));
+			}
+		}
+		finally
+		{
+			// remove the contents after we are done with the test
+			FileUtil.deleteRecursively(sourceDir);
+			FileUtil.deleteRecursively(destinationDir);
+			zipFile.delete();
+		}
+	}
+
 	@Test
 	public void testZipFile() throws IOException
 	{
@@ -15,7 +15,7 @@ import junit.framework.TestResult;
 import junit.framework.TestSuite;
 
 @RunWith(Suite.class)
-@SuiteClasses({RegionsTest.class, SequenceCharacterScannerTest.class, TextUtilsTest.class, })
+@SuiteClasses({OccurrenceIndexTest.class, RegionsTest.class, SequenceCharacterScannerTest.class, TextUtilsTest.class, })
 public class EditorCommonTests
 {
 
@@ -0,0 +1,348 @@
+/**
+ * Aptana Studio
+ * Copyright (c) 2014 by Appcelerator, Inc. All Rights Reserved.
+ * Licensed under the terms of the GNU Public License (GPL) v3 (with exceptions).
+ * Please see the license.html included with this distribution for details.
+ * Any modifications to this file must keep this entire header intact.
+ */
+package com.aptana.editor.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.eclipse.jface.text.Document;
+import org.eclipse.jface.text.DocumentEvent;
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.IDocumentListener;
+import org.eclipse.jface.text.Position;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.aptana.parsing.ast.IParseRootNode;
+import com.aptana.parsing.ast.ParseRootNode;
+import com.aptana.parsing.ast.TextNode;
+
+@SuppressWarnings("nls")
+public class OccurrenceIndexTest
+{
+
+	private static final Pattern IDENTIFIER = Pattern.compile("[\\p{javaUnicodeIdentifierPart}]+");
+
+	private OccurrenceIndex index;
+	private IDocument document;
+
+	/**
+	 * What the index gets as the AST, none if null
+	 */
+	private volatile IParseRootNode ast;
+
+	@Before
+	public void setUp() throws Exception
+	{
+		index = new OccurrenceIndex()
+		{
+			@Override
+			protected IParseRootNode getAST(IDocument document)
+			{
+				return ast;
+			}
+		};
+		document = new Document("var foo = 1;\nfoo += foobar(foo);\n// foo.bar");
+		listen(document);
+	}
+
+	@After
+	public void tearDown() throws Exception
+	{
+		index = null;
+		document = null;
+		ast = null;
+	}
+
+	@Test
+	public void testFindsWholeIdentifiersOnly()
+	{
+		assertOffsets("foo", 4, 13, 27, 36);
+		assertOffsets("foobar", 20);
+		assertOffsets("bar", 40);
+		assertOffsets("baz");
+	}
+
+	@Test
+	public void testTypingExtendsIdentifier() throws Exception
+	{
+		assertOffsets("foo", 4, 13, 27, 36);
+		document.replace(7, 0, "d");
+		assertOffsets("foo", 14, 28, 37);
+		assertOffsets("food", 4);
+		assertOffsets("foobar", 21);
+	}
+
+	@Test
+	public void testDeletingSplitsAndJoinsIdentifiers() throws Exception
+	{
+		assertOffsets("foo", 4, 13, 27, 36);
+		// "foobar" -> "foo bar"
+		document.replace(23, 0, " ");
+		assertOffsets("foo", 4, 13, 20, 28, 37);
+		assertOffsets("bar", 24, 41);
+		assertOffsets("foobar");
+
+		// "foo.bar" -> "foobar"
+		document.replace(40, 1, "");
+		assertOffsets("foobar", 37);
+		assertOffsets("foo", 4, 13, 20, 28);
+	}
+
+	@Test
+	public void testReplacingLines() throws Exception
+	{
+		assertOffsets("foo", 4, 13, 27, 36);
+		document.replace(13, 19, "bar(foo, foo)");
+		assertEquals("var foo = 1;\nbar(foo, foo)\n// foo.bar", document.get());
+		assertOffsets("foo", 4, 17, 22, 30);
+		assertOffsets("bar", 13, 34);
+	}
+
+	@Test
+	public void testResetForAnotherDocument() throws Exception
+	{
+		assertOffsets("foo", 4, 13, 27, 36);
+		IDocument other = new Document("foo foo");
+		List<Position> positions = index.getOccurrences(other, "foo");
+		assertEquals(2, positions.size());
+		index.reset();
+		assertOffsets("foo", 4, 13, 27, 36);
+	}
+
+	@Test
+	public void testEditWhileNotListening() throws Exception
+	{
+		IDocument unwatched = new Document("foo bar");
+		assertOffsets(unwatched, "foo", 0);
+
+		// nobody tells the index about this one
+		unwatched.replace(3, 0, " foo(foo)");
+		assertEquals("foo foo(foo) bar", unwatched.get());
+		assertOffsets(unwatched, "foo", 0, 4, 8);
+		assertOffsets(unwatched, "bar", 13);
+	}
+
+	@Test
+	public void testIsIdentifier()
+	{
+		assertTrue(OccurrenceIndex.isIdentifier("foo"));
+		assertTrue(OccurrenceIndex.isIdentifier("_foo1"));
+		assertFalse(OccurrenceIndex.isIdentifier("foo.bar"));
+		assertFalse(OccurrenceIndex.isIdentifier("+="));
+		assertFalse(OccurrenceIndex.isIdentifier(""));
+		assertFalse(OccurrenceIndex.isIdentifier(null));
+	}
+
+	@Test
+	public void testBuildsFromAST() throws Exception
+	{
+		// no nodes for the comment, and one whose text isn't what's in the document
+		ast = createAST("var", 0, "foo", 4, "1", 10, "foo", 13, "foobar", 20, "foo", 27, "FOO", 36);
+		assertOffsets("foo", 4, 13, 27);
+		assertOffsets("foobar", 20);
+		assertOffsets("bar");
+		assertOffsets("FOO");
+	}
+
+	@Test
+	public void testEditedTableIsRebuiltFromAST() throws Exception
+	{
+		ast = createAST("var", 0, "foo", 4, "1", 10, "foo", 13, "foobar", 20, "foo", 27);
+		assertOffsets("foo", 4, 13, 27);
+
+		// the comment changes, which the AST has no nodes for
+		document.replace(36, 3, "baz");
+		assertOffsets("foo", 4, 13, 27);
+		assertOffsets("baz");
+	}
+
+	@Test
+	public void testEditsAcrossTheDocument() throws Exception
+	{
+		String[] insertions = new String[] { "", "a", "foo", " ", "bar baz", "(foo)", "\n", "x.y" };
+		Random random = new Random(42);
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < 200; i++)
+		{
+			text.append(insertions[random.nextInt(insertions.length)]).append(' ');
+		}
+		document.set(text.toString());
+		assertOffsets("foo", expectedOffsets("foo"));
+
+		int lastEdit = 0;
+		for (int i = 0; i < 500; i++)
+		{
+			// mostly near the last edit, like typing, and now and then somewhere else
+			int length = document.getLength();
+			int offset = (i % 20 == 0) ? random.nextInt(length + 1) : Math.min(length, Math.max(0, lastEdit
+					+ random.nextInt(11) - 5));
+			int replaced = random.nextInt(Math.min(4, length - offset) + 1);
+			document.replace(offset, replaced, insertions[random.nextInt(insertions.length)]);
+			lastEdit = offset;
+
+			if (i % 10 == 0)
+			{
+				for (String name : new String[] { "foo", "bar", "baz", "a", "x" })
+				{
+					assertOffsets(name, expectedOffsets(name));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testEditsDontWaitForBuild() throws Exception
+	{
+		final CountDownLatch building = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final IDocument other = new Document("foo foo");
+		index = new OccurrenceIndex()
+		{
+			@Override
+			protected IParseRootNode getAST(IDocument document)
+			{
+				if (document != other)
+				{
+					return null;
+				}
+				building.countDown();
+				try
+				{
+					release.await(10, TimeUnit.SECONDS);
+				}
+				catch (InterruptedException e)
+				{
+				}
+				return null;
+			}
+		};
+		assertOffsets("foo", 4, 13, 27, 36);
+
+		final List<List<Position>> results = new ArrayList<List<Position>>();
+		Thread thread = new Thread()
+		{
+			@Override
+			public void run()
+			{
+				List<Position> positions = index.getOccurrences(other, "foo");
+				synchronized (results)
+				{
+					results.add(positions);
+				}
+			}
+		};
+		thread.start();
+		assertTrue(building.await(10, TimeUnit.SECONDS));
+
+		// the index is busy building for the other document, this mustn't block
+		document.replace(7, 0, "d");
+		other.replace(0, 0, " ");
+		assertTrue(thread.isAlive());
+		release.countDown();
+		thread.join(10000);
+
+		// the other document changed while it was being built from
+		synchronized (results)
+		{
+			assertEquals(1, results.size());
+			assertEquals(null, results.get(0));
+		}
+		assertOffsets("foo", 14, 28, 37);
+		assertOffsets("food", 4);
+	}
+
+	private void assertOffsets(String name, int... expected)
+	{
+		assertOffsets(document, name, expected);
+	}
+
+	private void assertOffsets(IDocument document, String name, int... expected)
+	{
+		List<Integer> offsets = new ArrayList<Integer>();
+		for (Position position : index.getOccurrences(document, name))
+		{
+			assertEquals(name.length(), position.getLength());
+			offsets.add(position.getOffset());
+		}
+		Collections.sort(offsets);
+		List<Integer> expectedOffsets = new ArrayList<Integer>();
+		for (int offset : expected)
+		{
+			expectedOffsets.add(offset);
+		}
+		assertEquals(expectedOffsets, offsets);
+	}
+
+	private int[] expectedOffsets(String name)
+	{
+		List<Integer> offsets = new ArrayList<Integer>();
+		Matcher matcher = IDENTIFIER.matcher(document.get());
+		while (matcher.find())
+		{
+			if (matcher.group().equals(name))
+			{
+				offsets.add(matcher.start());
+			}
+		}
+		int[] result = new int[offsets.size()];
+		for (int i = 0; i < result.length; i++)
+		{
+			result[i] = offsets.get(i);
+		}
+		return result;
+	}
+
+	private void listen(IDocument document)
+	{
+		document.addDocumentListener(new IDocumentListener()
+		{
+			public void documentAboutToBeChanged(DocumentEvent event)
+			{
+			}
+
+			public void documentChanged(DocumentEvent event)
+			{
+				index.documentChanged(event);
+			}
+		});
+	}
+
+	/**
+	 * Creates an AST with a leaf for each of the given text and offset pairs
+	 */
+	private IParseRootNode createAST(Object... leaves)
+	{
+		TextNode[] nodes = new TextNode[leaves.length / 2];
+		for (int i = 0; i < nodes.length; i++)
+		{
+			String text = (String) leaves[2 * i];
+			int offset = (Integer) leaves[2 * i + 1];
+			nodes[i] = new TextNode(text);
+			nodes[i].setLocation(offset, offset + text.length() - 1);
+		}
+		return new ParseRootNode(nodes, 0, document.getLength() - 1)
+		{
+			public String getLanguage()
+			{
+				return "test";
+			}
+		};
+	}
+}
@@ -22,6 +22,7 @@ import org.eclipse.jface.text.Document;
 import org.eclipse.jface.text.IDocument;
 import org.eclipse.jface.text.Position;
 import org.eclipse.jface.text.source.projection.ProjectionAnnotation;
+import org.joni.Option;
 import org.jruby.Ruby;
 import org.jruby.RubyRegexp;
 import org.jruby.util.RegexpOptions;
@@ -188,4 +189,152 @@ public class RubyRegexpFolderTest
 		assertEquals(1, positions.size());
 		assertTrue(positions.contains(new Position(0, src.length()))); // eats whole line at end
 	}
+
+	@Test
+	public void testIncrementalFolding() throws Exception
+	{
+		String src = "body {\n" + "	color: red;\n" + "}\n" + "\n" + "div p {\n" + "	background-color: green;\n" + "}\n";
+		IDocument document = new Document(src);
+		RubyRegexpFolder folder = new RubyRegexpFolder(null, document)
+		{
+			@Override
+			protected RubyRegexp getEndFoldRegexp(String scope)
+			{
+				return RubyRegexp.newRegexp(runtime, "(?<!\\*)\\*\\*\\/|^\\s*\\}", RegexpOptions.NULL_OPTIONS);
+			}
+
+			@Override
+			protected RubyRegexp getStartFoldRegexp(String scope)
+			{
+				return RubyRegexp.newRegexp(runtime, "\\/\\*\\*(?!\\*)|\\{\\s*($|\\/\\*(?!.*?\\*\\/.*\\S))",
+						RegexpOptions.NULL_OPTIONS);
+			}
+
+			@Override
+			protected String getScopeAtOffset(int offset) throws BadLocationException
+			{
+				return "source.css";
+			}
+		};
+		try
+		{
+			Map<ProjectionAnnotation, Position> annotations = folder.emitFoldingRegions(true,
+					new NullProgressMonitor(), null);
+			assertEquals(2, annotations.size());
+			ProjectionAnnotation body = null;
+			for (Map.Entry<ProjectionAnnotation, Position> entry : annotations.entrySet())
+			{
+				if (entry.getValue().equals(new Position(0, 22)))
+				{
+					body = entry.getKey();
+				}
+			}
+			assertNotNull(body);
+
+			// A line that doesn't fold just moves the regions
+			document.replace(0, 0, "/* header */\n");
+			FoldingDelta delta = folder.emitFoldingDelta(new NullProgressMonitor(), null);
+			assertNotNull(delta);
+			assertTrue(delta.isEmpty());
+			assertTrue(annotations.values().contains(new Position(13, 22)));
+			assertTrue(annotations.values().contains(new Position(36, 36)));
+
+			// New block
+			document.replace(document.getLength(), 0, "p {\n	margin: 0;\n}\n");
+			delta = folder.emitFoldingDelta(new NullProgressMonitor(), null);
+			assertNotNull(delta);
+			assertTrue(delta.getRemoved().isEmpty());
+			assertEquals(1, delta.getAdded().size());
+			assertTrue(delta.getAdded().values().contains(new Position(72, 18)));
+
+			// No more closing brace for body
+			document.replace(33, 1, "");
+			delta = folder.emitFoldingDelta(new NullProgressMonitor(), null);
+			assertNotNull(delta);
+			assertTrue(delta.getAdded().isEmpty());
+			assertEquals(1, delta.getRemoved().size());
+			assertTrue(delta.getRemoved().contains(body));
+		}
+		finally
+		{
+			folder.dispose();
+		}
+	}
+
+	@Test
+	public void testCanceledPassResumes() throws Exception
+	{
+		StringBuilder src = new StringBuilder();
+		for (int i = 0; i < 20; i++)
+		{
+			src.append("p").append(i).append(" {\n	color: red;\n}\n");
+		}
+		final IDocument document = new Document(src.toString());
+		RubyRegexpFolder folder = new RubyRegexpFolder(null, document)
+		{
+			@Override
+			protected RubyRegexp getEndFoldRegexp(String scope)
+			{
+				return "comment.block.css".equals(scope) ? null : RubyRegexp.newRegexp(runtime, "^\\s*\\}",
+						RegexpOptions.NULL_OPTIONS);
+			}
+
+			@Override
+			protected RubyRegexp getStartFoldRegexp(String scope)
+			{
+				return "comment.block.css".equals(scope) ? null : RubyRegexp.newRegexp(runtime, "\\{\\s*$",
+						RegexpOptions.NULL_OPTIONS);
+			}
+
+			@Override
+			protected String getScopeAtOffset(int offset) throws BadLocationException
+			{
+				String text = document.get(0, offset);
+				return (text.lastIndexOf("/*") > text.lastIndexOf("*/")) ? "comment.block.css" : "source.css";
+			}
+		};
+		try
+		{
+			assertEquals(20, folder.emitFoldingRegions(true, new NullProgressMonitor(), null).size());
+
+			// Opening a comment changes the scope of every line below. Cancel the pass well past the edit, so the
+			// lines it rescanned are more than the window it keeps looking at unchanged lines for.
+			document.replace(0, 0, "/*\n");
+			NullProgressMonitor monitor = new NullProgressMonitor()
+			{
+				private int worked;
+
+				@Override
+				public void worked(int work)
+				{
+					worked += work;
+				}
+
+				@Override
+				public boolean isCanceled()
+				{
+					return worked >= 30;
+				}
+			};
+			assertNull(folder.emitFoldingDelta(monitor, null));
+
+			FoldingDelta delta = folder.emitFoldingDelta(new NullProgressMonitor(), null);
+			assertNotNull(delta);
+			assertTrue(delta.getAdded().isEmpty());
+			assertEquals(20, delta.getRemoved().size());
+		}
+		finally
+		{
+			folder.dispose();
+		}
+	}
+
+	@Test
+	public void testRegexpOptions() throws Exception
+	{
+		assertEquals(Option.IGNORECASE | Option.EXTEND | Option.MULTILINE,
+				FoldMarkerMatcher.toJoniOptions(RubyRegexp.IGNORECASE | RubyRegexp.EXTENDED | RubyRegexp.MULTILINE));
+		// Ruby's encoding flags are Joni's FIND_LONGEST and FIND_NOT_EMPTY
+		assertEquals(Option.NONE, FoldMarkerMatcher.toJoniOptions(16 | 32));
+	}
 }
@@ -0,0 +1,161 @@
+/**
+ * Aptana Studio
+ * Copyright (c) 2013 by Appcelerator, Inc. All Rights Reserved.
+ * Licensed under the terms of the GNU Public License (GPL) v3 (with exceptions).
+ * Please see the license.html included with this distribution for details.
+ * Any modifications to this file must keep this entire header intact.
+ */
+package com.aptana.editor.common.text.rules;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.eclipse.jface.text.Document;
+import org.eclipse.jface.text.IDocument;
+import org.junit.Before;
+import org.junit.Test;
+
+@SuppressWarnings("nls")
+public class TokenScopeMapTest
+{
+	private IDocument document;
+	private TokenScopeMap map;
+
+	@Before
+	public void setUp() throws Exception
+	{
+		// 0123456789012345678
+		// var x = "abc"; x++;
+		document = new Document("var x = \"abc\"; x++;");
+		map = TokenScopeMap.getTokenScopeMap(document);
+		map.replace(0, document.getLength(), new int[] { 0, 4, 8, 15, 16 }, new int[] { 3, 1, 5, 1, 2 },
+				new String[] { "storage.type", "variable", "string.quoted", "variable", "keyword.operator" }, 5);
+	}
+
+	@Test
+	public void testScopeAtOffset() throws Exception
+	{
+		assertSame(map, TokenScopeMap.getTokenScopeMap(document));
+		assertEquals(5, map.size());
+		assertEquals("storage.type", map.getScopeAtOffset(0));
+		assertEquals("storage.type", map.getScopeAtOffset(2));
+		assertNull(map.getScopeAtOffset(3));
+		assertEquals("variable", map.getScopeAtOffset(4));
+		assertEquals("string.quoted", map.getScopeAtOffset(12));
+		assertNull(map.getScopeAtOffset(13));
+		assertEquals("keyword.operator", map.getScopeAtOffset(17));
+		assertNull(map.getScopeAtOffset(18));
+		assertNull(map.getScopeAtOffset(100));
+		assertNull(map.getScopeAtOffset(-1));
+	}
+
+	@Test
+	public void testReplaceRegion() throws Exception
+	{
+		// re-scan the string, now split in two
+		map.replace(8, 5, new int[] { 8, 9 }, new int[] { 1, 4 }, new String[] { "punctuation", "string.quoted" }, 2);
+
+		assertEquals(6, map.size());
+		assertEquals("variable", map.getScopeAtOffset(4));
+		assertEquals("punctuation", map.getScopeAtOffset(8));
+		assertEquals("string.quoted", map.getScopeAtOffset(9));
+		assertEquals("variable", map.getScopeAtOffset(15));
+
+		// a single scope for everything
+		map.replace(0, document.getLength(), "source.js");
+		assertEquals(1, map.size());
+		assertEquals("source.js", map.getScopeAtOffset(0));
+		assertEquals("source.js", map.getScopeAtOffset(18));
+	}
+
+	@Test
+	public void testReplaceKeepsTailPastRegion() throws Exception
+	{
+		map.replace(0, 10, new int[] { 0 }, new int[] { 3 }, new String[] { "keyword" }, 1);
+
+		assertEquals("keyword", map.getScopeAtOffset(0));
+		assertNull(map.getScopeAtOffset(4));
+		assertNull(map.getScopeAtOffset(9));
+		assertEquals("string.quoted", map.getScopeAtOffset(10));
+		assertEquals("string.quoted", map.getScopeAtOffset(12));
+	}
+
+	@Test
+	public void testInsertShiftsFollowingRuns() throws Exception
+	{
+		document.replace(0, 0, "  ");
+
+		assertNull(map.getScopeAtOffset(0));
+		assertEquals("storage.type", map.getScopeAtOffset(2));
+		assertEquals("string.quoted", map.getScopeAtOffset(10));
+		assertEquals("keyword.operator", map.getScopeAtOffset(19));
+
+		// typing inside a run grows it
+		document.replace(12, 0, "xyz");
+		assertEquals("string.quoted", map.getScopeAtOffset(17));
+		assertEquals("variable", map.getScopeAtOffset(20));
+		assertEquals("keyword.operator", map.getScopeAtOffset(22));
+	}
+
+	@Test
+	public void testDeleteDropsAndTrimsRuns() throws Exception
+	{
+		// delete "x = \"a"
+		document.replace(4, 6, "");
+
+		assertEquals(4, map.size());
+		assertEquals("storage.type", map.getScopeAtOffset(0));
+		assertEquals("string.quoted", map.getScopeAtOffset(4));
+		assertEquals("string.quoted", map.getScopeAtOffset(6));
+		assertNull(map.getScopeAtOffset(7));
+		assertEquals("variable", map.getScopeAtOffset(9));
+		assertEquals("keyword.operator", map.getScopeAtOffset(10));
+
+		// delete into the end of a run
+		document.replace(1, 4, "");
+		assertEquals("storage.type", map.getScopeAtOffset(0));
+		assertEquals("string.quoted", map.getScopeAtOffset(1));
+		assertEquals("string.quoted", map.getScopeAtOffset(2));
+		assertNull(map.getScopeAtOffset(3));
+		assertEquals("variable", map.getScopeAtOffset(5));
+	}
+
+	@Test
+	public void testManyEditsMatchModel() throws Exception
+	{
+		String[] scopes = new String[] { "a", "b", "c" };
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < 500; i++)
+		{
+			text.append("abcd ");
+		}
+		document.set(text.toString());
+		map.clear();
+
+		int runs = document.getLength() / 5;
+		int[] starts = new int[runs];
+		int[] lengths = new int[runs];
+		String[] names = new String[runs];
+		for (int i = 0; i < runs; i++)
+		{
+			starts[i] = i * 5;
+			lengths[i] = 4;
+			names[i] = scopes[i % scopes.length];
+		}
+		map.replace(0, document.getLength(), starts, lengths, names, runs);
+
+		// insert a char at the start of every other run, moving forward through the document
+		for (int i = 0; i < runs; i += 2)
+		{
+			document.replace(starts[i] + (i / 2), 0, "_");
+		}
+		for (int i = 0; i < runs; i++)
+		{
+			int start = starts[i] + i / 2 + 1;
+			assertEquals(names[i], map.getScopeAtOffset(start));
+			assertEquals(names[i], map.getScopeAtOffset(start + 3));
+			assertNull(map.getScopeAtOffset(start + 4));
+		}
+	}
+}
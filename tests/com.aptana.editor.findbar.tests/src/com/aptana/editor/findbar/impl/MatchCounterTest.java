@@ -0,0 +1,166 @@
+/**
+ * Aptana Studio
+ * Copyright (c) 2014 by Appcelerator, Inc. All Rights Reserved.
+ * Licensed under the terms of the GNU Public License (GPL) v3 (with exceptions).
+ * Please see the license.html included with this distribution for details.
+ * Any modifications to this file must keep this entire header intact.
+ */
+package com.aptana.editor.findbar.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.regex.Pattern;
+
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.jface.text.BadLocationException;
+import org.eclipse.jface.text.Document;
+import org.eclipse.jface.text.IRegion;
+import org.eclipse.jface.text.Region;
+import org.junit.Test;
+
+@SuppressWarnings("nls")
+public class MatchCounterTest
+{
+
+	private static final MatchCounter.IMatchCountListener NO_LISTENER = new MatchCounter.IMatchCountListener()
+	{
+		public void countChanged(MatchCounter counter)
+		{
+		}
+	};
+
+	@Test
+	public void testCount() throws Exception
+	{
+		Document document = new Document("foo bar foo\nfoo");
+		MatchCounter counter = count(document, "foo", new Region(0, document.getLength()));
+
+		assertTrue(counter.isDone());
+		assertEquals(3, counter.getCount());
+		assertEquals(1, counter.countBefore(8, false));
+		assertEquals(2, counter.countBefore(8, true));
+		assertEquals(3, counter.countBefore(document.getLength(), false));
+	}
+
+	@Test
+	public void testCountInScope() throws Exception
+	{
+		Document document = new Document("foo bar foo\nfoo");
+		MatchCounter counter = count(document, "foo", new Region(4, 9));
+
+		assertTrue(counter.isDone());
+		assertEquals(1, counter.getCount());
+		// offsets are in document coordinates
+		assertEquals(0, counter.countBefore(8, false));
+		assertEquals(1, counter.countBefore(8, true));
+	}
+
+	@Test
+	public void testCountAcrossChunks() throws Exception
+	{
+		// chunks are 8192 characters, put some matches across their boundaries
+		int[] offsets = new int[] { 0, 8189, 16383, 30000 };
+		StringBuilder text = new StringBuilder(repeat(".", 40000));
+		for (int offset : offsets)
+		{
+			text.replace(offset, offset + 6, "needle");
+		}
+		Document document = new Document(text.toString());
+		MatchCounter counter = count(document, "needle", new Region(0, document.getLength()));
+
+		assertTrue(counter.isDone());
+		assertEquals(offsets.length, counter.getCount());
+		assertEquals(1, counter.countBefore(8189, false));
+		assertEquals(3, counter.countBefore(30000, false));
+	}
+
+	@Test
+	public void testCanceled() throws Exception
+	{
+		Document document = new Document("foo bar foo\nfoo");
+		MatchCounter counter = new MatchCounter(document, Pattern.compile("foo"), new Region(0, document.getLength()),
+				NO_LISTENER);
+		NullProgressMonitor monitor = new NullProgressMonitor();
+		monitor.setCanceled(true);
+
+		assertEquals(IStatus.CANCEL, counter.run(monitor).getSeverity());
+		assertFalse(counter.isDone());
+	}
+
+	@Test
+	public void testDocumentModifiedDuringCount() throws Exception
+	{
+		// edits the document just before the second chunk is read, the way typing would while we count
+		Document document = new Document(repeat("foo ", 10000))
+		{
+			private int reads;
+
+			@Override
+			public String get(int offset, int length) throws BadLocationException
+			{
+				if (++reads == 2)
+				{
+					replace(0, 0, "foo ");
+				}
+				return super.get(offset, length);
+			}
+		};
+		MatchCounter counter = count(document, "foo", new Region(0, document.getLength()), IStatus.CANCEL);
+
+		assertFalse(counter.isDone());
+		assertFalse(counter.isValidFor(document, Pattern.compile("foo"), new Region(0, document.getLength())));
+	}
+
+	@Test
+	public void testDocumentModifiedBeforeCount() throws Exception
+	{
+		Document document = new Document("foo bar foo\nfoo");
+		IRegion scope = new Region(0, document.getLength());
+		MatchCounter counter = new MatchCounter(document, Pattern.compile("foo"), scope, NO_LISTENER);
+		document.replace(0, 0, "foo ");
+
+		assertEquals(IStatus.CANCEL, counter.run(new NullProgressMonitor()).getSeverity());
+		assertFalse(counter.isDone());
+	}
+
+	@Test
+	public void testReadFailure() throws Exception
+	{
+		Document document = new Document("foo bar foo\nfoo")
+		{
+			@Override
+			public String get(int offset, int length) throws BadLocationException
+			{
+				throw new IllegalStateException("broken");
+			}
+		};
+		MatchCounter counter = count(document, "foo", new Region(0, document.getLength()), IStatus.ERROR);
+
+		assertFalse(counter.isDone());
+	}
+
+	private MatchCounter count(Document document, String pattern, IRegion scope)
+	{
+		return count(document, pattern, scope, IStatus.OK);
+	}
+
+	private MatchCounter count(Document document, String pattern, IRegion scope, int severity)
+	{
+		MatchCounter counter = new MatchCounter(document, Pattern.compile(pattern), scope, NO_LISTENER);
+		assertEquals(severity, counter.run(new NullProgressMonitor()).getSeverity());
+		return counter;
+	}
+
+	private static String repeat(String text, int times)
+	{
+		StringBuilder builder = new StringBuilder(text.length() * times);
+		for (int i = 0; i < times; i++)
+		{
+			builder.append(text);
+		}
+		return builder.toString();
+	}
+}
@@ -64,6 +64,13 @@ public class JSLintValidatorPerformanceTest extends GlobalTimePerformanceTestCas
 			{
 				return ID;
 			}
+
+			@Override
+			protected boolean useResultCache()
+			{
+				// We're measuring JSLint, not the cache
+				return false;
+			}
 		};
 	}
 
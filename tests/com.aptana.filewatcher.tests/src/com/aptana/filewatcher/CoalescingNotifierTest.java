@@ -0,0 +1,310 @@
+/**
+ * Aptana Studio
+ * Copyright (c) 2014 by Appcelerator, Inc. All Rights Reserved.
+ * Licensed under the terms of the GNU Public License (GPL) v3 (with exceptions).
+ * Please see the license.html included with this distribution for details.
+ * Any modifications to this file must keep this entire header intact.
+ */
+package com.aptana.filewatcher;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import net.contentobjects.jnotify.IJNotify;
+import net.contentobjects.jnotify.JNotifyException;
+import net.contentobjects.jnotify.JNotifyListener;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+@SuppressWarnings("nls")
+public class CoalescingNotifierTest
+{
+	private static final String ROOT = "/root";
+
+	/**
+	 * Long enough that nothing gets delivered while a test is still firing events.
+	 */
+	private static final long QUIET_PERIOD = 300;
+	private static final long TIMEOUT = 5000;
+
+	private FakeNotifier delegate;
+	private RecordingListener listener;
+	private CoalescingNotifier notifier;
+	private int wd;
+
+	@Before
+	public void setUp() throws Exception
+	{
+		delegate = new FakeNotifier();
+		listener = new RecordingListener();
+		notifier = new CoalescingNotifier(delegate, QUIET_PERIOD, 10 * TIMEOUT, 10000);
+		wd = notifier.addWatch(ROOT, IJNotify.FILE_ANY, true, true, listener);
+	}
+
+	@After
+	public void tearDown() throws Exception
+	{
+		try
+		{
+			notifier.removeWatch(wd);
+		}
+		finally
+		{
+			notifier = null;
+			listener = null;
+			delegate = null;
+		}
+	}
+
+	@Test
+	public void testModificationsMerge() throws Exception
+	{
+		delegate.modified("a.txt");
+		delegate.modified("a.txt");
+		delegate.modified("a.txt");
+		delegate.created("b.txt");
+		delegate.modified("b.txt");
+
+		assertEvents("modified a.txt", "created b.txt");
+	}
+
+	@Test
+	public void testCreateThenDeleteIsDropped() throws Exception
+	{
+		delegate.created("tmp.txt");
+		delegate.modified("tmp.txt");
+		delegate.deleted("tmp.txt");
+		delegate.modified("other.txt");
+
+		assertEvents("modified other.txt");
+	}
+
+	@Test
+	public void testModifyThenDelete() throws Exception
+	{
+		delegate.modified("a.txt");
+		delegate.deleted("a.txt");
+
+		assertEvents("deleted a.txt");
+	}
+
+	@Test
+	public void testDeleteThenCreate() throws Exception
+	{
+		delegate.deleted("a.txt");
+		delegate.created("a.txt");
+
+		assertEvents("modified a.txt");
+	}
+
+	@Test
+	public void testDeleteThenCreateWithoutModifications() throws Exception
+	{
+		notifier.removeWatch(wd);
+		wd = notifier.addWatch(ROOT, IJNotify.FILE_CREATED | IJNotify.FILE_DELETED, true, true, listener);
+
+		delegate.deleted("a.txt");
+		delegate.created("a.txt");
+
+		assertEvents("deleted a.txt", "created a.txt");
+	}
+
+	@Test
+	public void testGroupedByDirectory() throws Exception
+	{
+		delegate.modified("d1/a.txt");
+		delegate.modified("d2/b.txt");
+		delegate.modified("d1/c.txt");
+		delegate.modified("d2/b.txt");
+
+		assertEvents("modified d1/a.txt", "modified d1/c.txt", "modified d2/b.txt");
+	}
+
+	@Test
+	public void testRenamesKeepTheirPlace() throws Exception
+	{
+		delegate.modified("a.txt");
+		delegate.renamed("a.txt", "b.txt");
+		delegate.modified("b.txt");
+		delegate.modified("a.txt");
+
+		// changes on either side of a rename aren't merged across it
+		assertEvents("modified a.txt", "renamed a.txt b.txt", "modified b.txt", "modified a.txt");
+	}
+
+	@Test
+	public void testWaitsForQuietPeriod() throws Exception
+	{
+		long start = System.currentTimeMillis();
+		delegate.modified("a.txt");
+		Thread.sleep(QUIET_PERIOD / 3);
+		delegate.modified("a.txt");
+		Thread.sleep(QUIET_PERIOD / 3);
+		long last = System.currentTimeMillis();
+		delegate.modified("a.txt");
+
+		assertTrue(listener.events().isEmpty());
+
+		assertEvents("modified a.txt");
+		assertTrue(listener.lastDelivery - last >= QUIET_PERIOD);
+		assertTrue(listener.lastDelivery - start < TIMEOUT);
+	}
+
+	@Test
+	public void testMaxLatency() throws Exception
+	{
+		notifier.removeWatch(wd);
+		notifier = new CoalescingNotifier(delegate, QUIET_PERIOD, QUIET_PERIOD * 2, 10000);
+		wd = notifier.addWatch(ROOT, IJNotify.FILE_ANY, true, true, listener);
+
+		// never quiet for long enough, we should still hear about it
+		long end = System.currentTimeMillis() + TIMEOUT;
+		while (listener.events().isEmpty() && System.currentTimeMillis() < end)
+		{
+			delegate.modified("a.txt");
+			Thread.sleep(QUIET_PERIOD / 10);
+		}
+
+		assertTrue(listener.events().contains("modified a.txt"));
+	}
+
+	@Test
+	public void testMaxPending() throws Exception
+	{
+		notifier.removeWatch(wd);
+		notifier = new CoalescingNotifier(delegate, 10 * TIMEOUT, 10 * TIMEOUT, 3);
+		wd = notifier.addWatch(ROOT, IJNotify.FILE_ANY, true, true, listener);
+
+		delegate.modified("a.txt");
+		delegate.modified("a.txt");
+		delegate.modified("b.txt");
+		delegate.modified("c.txt");
+
+		assertEvents("modified a.txt", "modified b.txt", "modified c.txt");
+	}
+
+	@Test
+	public void testRemoveWatchDropsPendingEvents() throws Exception
+	{
+		delegate.modified("a.txt");
+		notifier.removeWatch(wd);
+
+		assertTrue(delegate.removed.contains(wd));
+		Thread.sleep(QUIET_PERIOD * 2);
+		assertTrue(listener.events().isEmpty());
+
+		// nothing fires for a watch that's gone
+		delegate.modified("a.txt");
+		Thread.sleep(QUIET_PERIOD * 2);
+		assertTrue(listener.events().isEmpty());
+	}
+
+	@Test
+	public void testRemoveUnknownWatchIsPassedOn() throws Exception
+	{
+		notifier.removeWatch(42);
+
+		assertTrue(delegate.removed.contains(42));
+	}
+
+	private void assertEvents(String... expected) throws InterruptedException
+	{
+		long end = System.currentTimeMillis() + TIMEOUT;
+		while (listener.events().size() < expected.length && System.currentTimeMillis() < end)
+		{
+			Thread.sleep(10);
+		}
+		// make sure nothing else trickles in
+		Thread.sleep(QUIET_PERIOD);
+
+		assertEquals(Arrays.asList(expected), listener.events());
+	}
+
+	/**
+	 * Stands in for the native notifier, the tests fire its events by hand.
+	 */
+	private static class FakeNotifier implements IJNotify
+	{
+		private final List<Integer> removed = new ArrayList<Integer>();
+		private JNotifyListener listener;
+		private int nextWd = 1;
+		private int wd;
+
+		public int addWatch(String path, int mask, boolean watchSubtree, boolean recursive, JNotifyListener listener)
+				throws JNotifyException
+		{
+			this.listener = listener;
+			this.wd = nextWd++;
+			return wd;
+		}
+
+		public boolean removeWatch(int wd) throws JNotifyException
+		{
+			removed.add(wd);
+			return true;
+		}
+
+		void created(String name)
+		{
+			listener.fileCreated(wd, ROOT, name);
+		}
+
+		void deleted(String name)
+		{
+			listener.fileDeleted(wd, ROOT, name);
+		}
+
+		void modified(String name)
+		{
+			listener.fileModified(wd, ROOT, name);
+		}
+
+		void renamed(String oldName, String newName)
+		{
+			listener.fileRenamed(wd, ROOT, oldName, newName);
+		}
+	}
+
+	private static class RecordingListener implements JNotifyListener
+	{
+		private final List<String> events = new ArrayList<String>();
+		private volatile long lastDelivery;
+
+		public void fileCreated(int wd, String rootPath, String name)
+		{
+			record("created " + name);
+		}
+
+		public void fileDeleted(int wd, String rootPath, String name)
+		{
+			record("deleted " + name);
+		}
+
+		public void fileModified(int wd, String rootPath, String name)
+		{
+			record("modified " + name);
+		}
+
+		public void fileRenamed(int wd, String rootPath, String oldName, String newName)
+		{
+			record("renamed " + oldName + " " + newName);
+		}
+
+		private synchronized void record(String event)
+		{
+			events.add(event);
+			lastDelivery = System.currentTimeMillis();
+		}
+
+		synchronized List<String> events()
+		{
+			return new ArrayList<String>(events);
+		}
+	}
+}
@@ -0,0 +1,359 @@
+/**
+ * Aptana Studio
+ * Copyright (c) 2014 by Appcelerator, Inc. All Rights Reserved.
+ * Licensed under the terms of the GNU Public License (GPL) v3 (with exceptions).
+ * Please see the license.html included with this distribution for details.
+ * Any modifications to this file must keep this entire header intact.
+ */
+package com.aptana.filewatcher;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import net.contentobjects.jnotify.IJNotify;
+import net.contentobjects.jnotify.JNotifyListener;
+
+import org.eclipse.test.performance.Performance;
+import org.eclipse.test.performance.PerformanceMeter;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestName;
+
+import com.aptana.filewatcher.poller.PollingNotifier;
+
+/**
+ * Compares the polling notifier against the WatchService one (plain and coalescing) on a synthetic tree, the size of
+ * which can be set with the <code>filewatcher.perf.files</code> system property. Every iteration changes a few files
+ * in each directory, the way a checkout does, and the meter measures the time from the last write until every change
+ * has been reported. The number of callbacks each notifier made for the burst is printed alongside.
+ */
+@SuppressWarnings("nls")
+public class NotifierPerformanceTest
+{
+	private static final int NUM_FILES = Integer.getInteger("filewatcher.perf.files", 100000);
+	private static final int FILES_PER_DIR = 100;
+	private static final int MODIFIED_PER_DIR = 5;
+	private static final int CREATED_PER_DIR = 3;
+	private static final int ITERATIONS = 5;
+
+	/**
+	 * How long we wait for a burst to be reported before giving up on the notifier.
+	 */
+	private static final long TIMEOUT = 5 * 60 * 1000;
+
+	/**
+	 * How long the callbacks have to stop for before we stop counting them, longer than the polling interval.
+	 */
+	private static final long SETTLE = 3000;
+
+	@Rule
+	public TestName name = new TestName();
+	private PerformanceMeter fPerformanceMeter;
+
+	private File root;
+	private List<File> directories;
+
+	@Before
+	public void setUp() throws Exception
+	{
+		Performance performance = Performance.getDefault();
+		fPerformanceMeter = performance
+				.createPerformanceMeter(getClass().getName() + '#' + name.getMethodName() + "()"); //$NON-NLS-1$
+
+		root = File.createTempFile("filewatcher_perf", "");
+		root.delete();
+		directories = new ArrayList<File>();
+		int dirs = Math.max(1, NUM_FILES / FILES_PER_DIR);
+		for (int d = 0; d < dirs; d++)
+		{
+			// two levels, so subtree registration has something to do
+			File dir = new File(new File(root, "p" + (d / 100)), "d" + d);
+			dir.mkdirs();
+			for (int f = 0; f < FILES_PER_DIR; f++)
+			{
+				write(new File(dir, "f" + f + ".txt"), "");
+			}
+			directories.add(dir);
+		}
+	}
+
+	@After
+	public void tearDown() throws Exception
+	{
+		try
+		{
+			if (root != null)
+			{
+				delete(root);
+			}
+			fPerformanceMeter.dispose();
+		}
+		finally
+		{
+			root = null;
+			directories = null;
+		}
+	}
+
+	@Test
+	public void testPolling() throws Exception
+	{
+		notifierTest(new PollingNotifier());
+	}
+
+	@Test
+	public void testWatchService() throws Exception
+	{
+		notifierTest(createWatchServiceNotifier());
+	}
+
+	@Test
+	public void testWatchServiceCoalescing() throws Exception
+	{
+		notifierTest(new CoalescingNotifier(createWatchServiceNotifier()));
+	}
+
+	private void notifierTest(IJNotify notifier) throws Exception
+	{
+		CountingListener listener = new CountingListener();
+		int wd = notifier.addWatch(root.getAbsolutePath(), IJNotify.FILE_ANY, true, true, listener);
+		try
+		{
+			// the poller reports the whole tree as new on its first scan
+			listener.awaitQuiet(SETTLE);
+			for (int i = 0; i < ITERATIONS; i++)
+			{
+				Set<String> changes = changes(i);
+				listener.expect(changes);
+				burst(i);
+				startMeasuring();
+				assertTrue("Timed out, changes not reported: " + listener.pending(), listener.waitForAll(TIMEOUT));
+				stopMeasuring();
+
+				listener.awaitQuiet(SETTLE);
+				System.out.println(name.getMethodName() + " iteration " + i + ": " + listener.callbacks()
+						+ " callbacks for " + changes.size() + " changes");
+			}
+		}
+		finally
+		{
+			notifier.removeWatch(wd);
+		}
+		commitMeasurements();
+		assertPerformance();
+	}
+
+	/**
+	 * The events we expect from {@link #burst(int)}.
+	 */
+	private Set<String> changes(int iteration)
+	{
+		Set<String> changes = new HashSet<String>();
+		for (File dir : directories)
+		{
+			for (int f = 0; f < MODIFIED_PER_DIR; f++)
+			{
+				changes.add(CountingListener.key("modified", new File(dir, "f" + f + ".txt")));
+			}
+			for (int n = 0; n < CREATED_PER_DIR; n++)
+			{
+				changes.add(CountingListener.key("created", new File(dir, "n" + iteration + "_" + n + ".txt")));
+				if (iteration > 0)
+				{
+					String previous = "n" + (iteration - 1) + "_" + n + ".txt";
+					changes.add(CountingListener.key("deleted", new File(dir, previous)));
+				}
+			}
+		}
+		return changes;
+	}
+
+	/**
+	 * Modifies some files in every directory, creates new ones and deletes the ones the previous burst created.
+	 */
+	private void burst(int iteration) throws IOException
+	{
+		for (File dir : directories)
+		{
+			for (int f = 0; f < MODIFIED_PER_DIR; f++)
+			{
+				File file = new File(dir, "f" + f + ".txt");
+				write(file, Integer.toString(iteration));
+				// file systems with coarse timestamps would hide the change from the poller otherwise
+				file.setLastModified(file.lastModified() + (iteration + 1) * 2000L);
+			}
+			for (int n = 0; n < CREATED_PER_DIR; n++)
+			{
+				write(new File(dir, "n" + iteration + "_" + n + ".txt"), "");
+				if (iteration > 0)
+				{
+					new File(dir, "n" + (iteration - 1) + "_" + n + ".txt").delete();
+				}
+			}
+		}
+	}
+
+	private static IJNotify createWatchServiceNotifier() throws Exception
+	{
+		try
+		{
+			return (IJNotify) Class.forName("com.aptana.filewatcher.nio.WatchServiceNotifier").newInstance();
+		}
+		catch (ClassNotFoundException e)
+		{
+			Assume.assumeTrue(false);
+		}
+		catch (UnsupportedClassVersionError e)
+		{
+			Assume.assumeTrue(false);
+		}
+		return null;
+	}
+
+	private static void write(File file, String contents) throws IOException
+	{
+		FileWriter writer = new FileWriter(file);
+		try
+		{
+			writer.write(contents);
+		}
+		finally
+		{
+			writer.close();
+		}
+	}
+
+	private static void delete(File file)
+	{
+		File[] children = file.listFiles();
+		if (children != null)
+		{
+			for (File child : children)
+			{
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+
+	protected void startMeasuring()
+	{
+		fPerformanceMeter.start();
+	}
+
+	protected void stopMeasuring()
+	{
+		fPerformanceMeter.stop();
+	}
+
+	protected void commitMeasurements()
+	{
+		fPerformanceMeter.commit();
+	}
+
+	protected void assertPerformance()
+	{
+		Performance.getDefault().assertPerformance(fPerformanceMeter);
+	}
+
+	/**
+	 * Counts every callback and ticks off the changes we're waiting for. The notifiers don't agree on how they split
+	 * the root and name, so events are keyed on the full path.
+	 */
+	private static class CountingListener implements JNotifyListener
+	{
+		private final Set<String> pending = new HashSet<String>();
+		private int callbacks;
+
+		static String key(String kind, File file)
+		{
+			return kind + ' ' + file.getAbsolutePath();
+		}
+
+		public synchronized void fileCreated(int wd, String rootPath, String name)
+		{
+			callbacks++;
+			seen("created", rootPath, name);
+		}
+
+		public synchronized void fileDeleted(int wd, String rootPath, String name)
+		{
+			callbacks++;
+			seen("deleted", rootPath, name);
+		}
+
+		public synchronized void fileModified(int wd, String rootPath, String name)
+		{
+			callbacks++;
+			seen("modified", rootPath, name);
+		}
+
+		public synchronized void fileRenamed(int wd, String rootPath, String oldName, String newName)
+		{
+			callbacks++;
+			seen("deleted", rootPath, oldName);
+			seen("created", rootPath, newName);
+		}
+
+		private void seen(String kind, String rootPath, String name)
+		{
+			if (pending.remove(key(kind, new File(rootPath, name))) && pending.isEmpty())
+			{
+				notifyAll();
+			}
+		}
+
+		synchronized void expect(Set<String> events)
+		{
+			pending.clear();
+			pending.addAll(events);
+			callbacks = 0;
+		}
+
+		synchronized boolean waitForAll(long timeout) throws InterruptedException
+		{
+			long end = System.currentTimeMillis() + timeout;
+			while (!pending.isEmpty())
+			{
+				long left = end - System.currentTimeMillis();
+				if (left <= 0)
+				{
+					return false;
+				}
+				wait(left);
+			}
+			return true;
+		}
+
+		synchronized void awaitQuiet(long period) throws InterruptedException
+		{
+			int last;
+			do
+			{
+				last = callbacks;
+				wait(period);
+			}
+			while (callbacks != last);
+		}
+
+		synchronized int pending()
+		{
+			return pending.size();
+		}
+
+		synchronized int callbacks()
+		{
+			return callbacks;
+		}
+	}
+}
@@ -0,0 +1,322 @@
+/**
+ * Aptana Studio
+ * Copyright (c) 2014 by Appcelerator, Inc. All Rights Reserved.
+ * Licensed under the terms of the GNU Public License (GPL) v3 (with exceptions).
+ * Please see the license.html included with this distribution for details.
+ * Any modifications to this file must keep this entire header intact.
+ */
+package com.aptana.filewatcher.nio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import net.contentobjects.jnotify.IJNotify;
+import net.contentobjects.jnotify.JNotifyListener;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The notifier lives in a Java 7 fragment, so we only get at it by name and skip the tests when it isn't there.
+ */
+@SuppressWarnings("nls")
+public class WatchServiceNotifierTest
+{
+	private static final long TIMEOUT = 15000;
+
+	private IJNotify notifier;
+	private File root;
+	private RecordingListener listener;
+	private List<Integer> watches;
+
+	@Before
+	public void setUp() throws Exception
+	{
+		try
+		{
+			notifier = (IJNotify) Class.forName("com.aptana.filewatcher.nio.WatchServiceNotifier").newInstance();
+		}
+		catch (ClassNotFoundException e)
+		{
+			Assume.assumeTrue(false);
+		}
+		catch (UnsupportedClassVersionError e)
+		{
+			Assume.assumeTrue(false);
+		}
+
+		root = File.createTempFile("watch", "");
+		root.delete();
+		root.mkdirs();
+		listener = new RecordingListener();
+		watches = new ArrayList<Integer>();
+	}
+
+	@After
+	public void tearDown() throws Exception
+	{
+		try
+		{
+			if (notifier != null)
+			{
+				for (Integer wd : watches)
+				{
+					notifier.removeWatch(wd);
+				}
+			}
+			if (root != null)
+			{
+				delete(root);
+			}
+		}
+		finally
+		{
+			notifier = null;
+			root = null;
+			listener = null;
+			watches = null;
+		}
+	}
+
+	@Test
+	public void testCreateModifyDelete() throws Exception
+	{
+		watch(root, IJNotify.FILE_ANY, true);
+
+		File file = new File(root, "a.txt");
+		write(file, "a");
+		listener.waitFor("created a.txt");
+
+		write(file, "ab");
+		listener.waitFor("modified a.txt");
+
+		file.delete();
+		listener.waitFor("deleted a.txt");
+	}
+
+	@Test
+	public void testSubtree() throws Exception
+	{
+		File existing = new File(root, "existing");
+		existing.mkdir();
+		watch(root, IJNotify.FILE_ANY, true);
+
+		write(new File(existing, "a.txt"), "a");
+		listener.waitFor("created existing" + File.separator + "a.txt");
+
+		// a new directory is watched too, and whatever was created in it before we got there is reported
+		File added = new File(root, "added");
+		added.mkdir();
+		write(new File(added, "b.txt"), "b");
+		listener.waitFor("created added");
+		listener.waitFor("created added" + File.separator + "b.txt");
+
+		write(new File(added, "c.txt"), "c");
+		listener.waitFor("created added" + File.separator + "c.txt");
+	}
+
+	@Test
+	public void testNoSubtree() throws Exception
+	{
+		File sub = new File(root, "sub");
+		sub.mkdir();
+		watch(root, IJNotify.FILE_ANY, false);
+
+		write(new File(sub, "a.txt"), "a");
+		write(new File(root, "b.txt"), "b");
+		listener.waitFor("created b.txt");
+
+		assertFalse(listener.events().contains("created sub" + File.separator + "a.txt"));
+	}
+
+	@Test
+	public void testMask() throws Exception
+	{
+		watch(root, IJNotify.FILE_CREATED, true);
+
+		File file = new File(root, "a.txt");
+		write(file, "a");
+		file.delete();
+		write(new File(root, "b.txt"), "b");
+		listener.waitFor("created b.txt");
+
+		for (String event : listener.events())
+		{
+			assertTrue(event, event.startsWith("created "));
+		}
+	}
+
+	@Test
+	public void testWatchFile() throws Exception
+	{
+		File file = new File(root, "a.txt");
+		write(file, "a");
+		watch(file, IJNotify.FILE_ANY, false);
+
+		write(new File(root, "b.txt"), "b");
+		write(file, "ab");
+		listener.waitFor("modified a.txt");
+
+		assertFalse(listener.events().contains("created b.txt"));
+	}
+
+	@Test
+	public void testRemoveWatch() throws Exception
+	{
+		int wd = notifier.addWatch(root.getAbsolutePath(), IJNotify.FILE_ANY, true, true, listener);
+		assertTrue(notifier.removeWatch(wd));
+		assertFalse(notifier.removeWatch(wd));
+
+		write(new File(root, "a.txt"), "a");
+		Thread.sleep(1000);
+
+		assertTrue(listener.events().isEmpty());
+	}
+
+	@Test
+	public void testOverflowRescansDirectory() throws Exception
+	{
+		final CountDownLatch blocked = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		watch(root, IJNotify.FILE_ANY, true);
+		watch(root, IJNotify.FILE_ANY, true, new JNotifyListener()
+		{
+			public void fileCreated(int wd, String rootPath, String name)
+			{
+				// hold up the dispatcher so the watch service queues more events than it keeps
+				blocked.countDown();
+				try
+				{
+					release.await(TIMEOUT, TimeUnit.MILLISECONDS);
+				}
+				catch (InterruptedException e)
+				{
+				}
+			}
+
+			public void fileDeleted(int wd, String rootPath, String name)
+			{
+			}
+
+			public void fileModified(int wd, String rootPath, String name)
+			{
+			}
+
+			public void fileRenamed(int wd, String rootPath, String oldName, String newName)
+			{
+			}
+		});
+
+		write(new File(root, "first.txt"), "");
+		assertTrue(blocked.await(TIMEOUT, TimeUnit.MILLISECONDS));
+		int count = 2000;
+		for (int i = 0; i < count; i++)
+		{
+			write(new File(root, "file" + i + ".txt"), "");
+		}
+		release.countDown();
+
+		for (int i = 0; i < count; i++)
+		{
+			listener.waitFor("created file" + i + ".txt");
+		}
+		// and only once
+		Thread.sleep(1000);
+		List<String> events = listener.events();
+		assertEquals(count + 1, events.size());
+	}
+
+	private void watch(File file, int mask, boolean watchSubtree) throws Exception
+	{
+		watch(file, mask, watchSubtree, listener);
+	}
+
+	private void watch(File file, int mask, boolean watchSubtree, JNotifyListener listener) throws Exception
+	{
+		watches.add(notifier.addWatch(file.getAbsolutePath(), mask, watchSubtree, true, listener));
+	}
+
+	private static void write(File file, String contents) throws IOException
+	{
+		FileWriter writer = new FileWriter(file);
+		try
+		{
+			writer.write(contents);
+		}
+		finally
+		{
+			writer.close();
+		}
+	}
+
+	private static void delete(File file)
+	{
+		File[] children = file.listFiles();
+		if (children != null)
+		{
+			for (File child : children)
+			{
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+
+	private static class RecordingListener implements JNotifyListener
+	{
+		private final List<String> events = new ArrayList<String>();
+
+		public void fileCreated(int wd, String rootPath, String name)
+		{
+			record("created " + name);
+		}
+
+		public void fileDeleted(int wd, String rootPath, String name)
+		{
+			record("deleted " + name);
+		}
+
+		public void fileModified(int wd, String rootPath, String name)
+		{
+			record("modified " + name);
+		}
+
+		public void fileRenamed(int wd, String rootPath, String oldName, String newName)
+		{
+			record("renamed " + oldName + " " + newName);
+		}
+
+		private synchronized void record(String event)
+		{
+			events.add(event);
+			notifyAll();
+		}
+
+		synchronized List<String> events()
+		{
+			return new ArrayList<String>(events);
+		}
+
+		synchronized void waitFor(String event) throws InterruptedException
+		{
+			long end = System.currentTimeMillis() + TIMEOUT;
+			while (!events.contains(event))
+			{
+				long left = end - System.currentTimeMillis();
+				assertTrue("Timed out waiting for " + event + " in " + events, left > 0);
+				wait(left);
+			}
+		}
+	}
+}
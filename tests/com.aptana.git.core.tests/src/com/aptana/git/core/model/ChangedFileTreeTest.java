@@ -0,0 +1,235 @@
+package com.aptana.git.core.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.Path;
+import org.junit.Test;
+
+import com.aptana.core.util.CollectionsUtil;
+import com.aptana.git.core.model.ChangedFile.Status;
+
+public class ChangedFileTreeTest
+{
+
+	@Test
+	public void testEmpty()
+	{
+		ChangedFileTree tree = ChangedFileTree.of(Collections.<ChangedFile> emptyList());
+		assertSame(ChangedFileTree.EMPTY, tree);
+		assertEquals(0, tree.size());
+		assertFalse(tree.hasChanges(Path.EMPTY));
+		assertFalse(tree.hasUnresolvedMergeConflicts());
+		assertNull(tree.get(path("a.txt")));
+		assertTrue(tree.getFiles().isEmpty());
+	}
+
+	@Test
+	public void testLookups()
+	{
+		ChangedFile readme = file("README", Status.MODIFIED, false, true);
+		ChangedFile js = file("src/lib/a.js", Status.NEW, true, false);
+		ChangedFile css = file("src/css/a.css", Status.MODIFIED, false, true);
+		ChangedFileTree tree = ChangedFileTree.of(CollectionsUtil.newList(readme, js, css));
+
+		assertEquals(3, tree.size());
+		assertSame(readme, tree.get(path("README")));
+		assertSame(js, tree.get(path("src/lib/a.js")));
+		assertNull(tree.get(path("src/lib")));
+		assertNull(tree.get(path("src/lib/b.js")));
+		assertNull(tree.get(path("src/lib/a.js/deeper")));
+
+		assertTrue(tree.hasChanges(Path.EMPTY));
+		assertTrue(tree.hasChanges(path("src")));
+		assertTrue(tree.hasChanges(path("src/lib")));
+		assertTrue(tree.hasChanges(path("src/lib/a.js")));
+		assertFalse(tree.hasChanges(path("src/li")));
+		assertFalse(tree.hasChanges(path("lib")));
+
+		// pre-aggregated folder state
+		assertTrue(tree.hasStagedChanges(path("src")));
+		assertTrue(tree.hasUnstagedChanges(path("src")));
+		assertTrue(tree.hasStagedChanges(path("src/lib")));
+		assertFalse(tree.hasUnstagedChanges(path("src/lib")));
+		assertFalse(tree.hasStagedChanges(path("src/css")));
+		assertTrue(tree.hasUnstagedChanges(path("src/css")));
+
+		assertEquals(new HashSet<ChangedFile>(CollectionsUtil.newList(js, css)),
+				new HashSet<ChangedFile>(tree.getFiles(path("src"))));
+		assertEquals(3, tree.getFiles().size());
+		assertTrue(tree.getFiles(path("test")).isEmpty());
+	}
+
+	@Test
+	public void testEditsShareUntouchedFolders()
+	{
+		ChangedFile js = file("src/lib/a.js", Status.MODIFIED, false, true);
+		ChangedFile css = file("src/css/a.css", Status.MODIFIED, false, true);
+		ChangedFile test = file("test/a_test.js", Status.NEW, false, true);
+		ChangedFileTree tree = ChangedFileTree.of(CollectionsUtil.newList(js, css, test));
+
+		ChangedFile staged = js.clone();
+		staged.makeStaged();
+		ChangedFileTree edited = tree.with(CollectionsUtil.newList(staged), null);
+
+		// the old tree doesn't change
+		assertSame(js, tree.get(path("src/lib/a.js")));
+		assertFalse(tree.hasStagedChanges(Path.EMPTY));
+
+		assertSame(staged, edited.get(path("src/lib/a.js")));
+		assertTrue(edited.hasStagedChanges(path("src")));
+		assertEquals(3, edited.size());
+		// and everything off the edited path is the very same
+		assertSame(css, edited.get(path("src/css/a.css")));
+		assertSame(test, edited.get(path("test/a_test.js")));
+
+		// nothing to do gives back the same tree
+		assertSame(edited, edited.with(null, CollectionsUtil.newList(path("nothing/here.txt"))));
+	}
+
+	@Test
+	public void testRemovePrunesEmptyFolders()
+	{
+		ChangedFile js = file("src/lib/a.js", Status.MODIFIED, false, true);
+		ChangedFile css = file("src/css/a.css", Status.MODIFIED, false, true);
+		ChangedFileTree tree = ChangedFileTree.of(CollectionsUtil.newList(js, css));
+
+		tree = tree.with(null, CollectionsUtil.newList(path("src/lib/a.js")));
+		assertEquals(1, tree.size());
+		assertFalse(tree.hasChanges(path("src/lib")));
+		assertTrue(tree.hasChanges(path("src")));
+
+		tree = tree.with(null, CollectionsUtil.newList(path("src/css/a.css")));
+		assertSame(ChangedFileTree.EMPTY, tree);
+		assertFalse(tree.hasChanges(path("src")));
+	}
+
+	@Test
+	public void testRemoveThenPutSamePath()
+	{
+		ChangedFile before = file("a.txt", Status.MODIFIED, false, true);
+		ChangedFile after = file("a.txt", Status.DELETED, true, false);
+		ChangedFileTree tree = ChangedFileTree.of(CollectionsUtil.newList(before));
+
+		tree = tree.with(CollectionsUtil.newList(after), CollectionsUtil.newList(path("a.txt")));
+		assertEquals(1, tree.size());
+		assertSame(after, tree.get(path("a.txt")));
+	}
+
+	@Test
+	public void testFileAndFolderAtSamePath()
+	{
+		// "lib" was a file and is now a folder: the file shows as deleted, the folder's contents as new
+		ChangedFile deleted = file("lib", Status.DELETED, false, true);
+		ChangedFile added = file("lib/a.js", Status.NEW, false, true);
+		ChangedFileTree tree = ChangedFileTree.of(CollectionsUtil.newList(deleted, added));
+
+		assertEquals(2, tree.size());
+		assertSame(deleted, tree.get(path("lib")));
+		assertSame(added, tree.get(path("lib/a.js")));
+		assertEquals(new HashSet<ChangedFile>(CollectionsUtil.newList(deleted, added)),
+				new HashSet<ChangedFile>(tree.getFiles(path("lib"))));
+
+		// taking out the file leaves the folder's contents alone, and the other way around
+		ChangedFileTree withoutFile = tree.with(null, CollectionsUtil.newList(path("lib")));
+		assertEquals(1, withoutFile.size());
+		assertNull(withoutFile.get(path("lib")));
+		assertSame(added, withoutFile.get(path("lib/a.js")));
+
+		ChangedFileTree withoutFolder = tree.with(null, CollectionsUtil.newList(path("lib/a.js")));
+		assertEquals(1, withoutFolder.size());
+		assertSame(deleted, withoutFolder.get(path("lib")));
+	}
+
+	@Test
+	public void testEditsUnderEditedPath()
+	{
+		ChangedFile file = file("lib", Status.MODIFIED, false, true);
+		ChangedFileTree tree = ChangedFileTree.of(CollectionsUtil.newList(file));
+
+		// replacing the file at a path and adding under it in one go keeps both
+		ChangedFile deleted = file("lib", Status.DELETED, false, true);
+		ChangedFile added = file("lib/a.js", Status.NEW, false, true);
+		ChangedFileTree edited = tree.with(CollectionsUtil.newList(deleted, added), null);
+		assertEquals(2, edited.size());
+		assertSame(deleted, edited.get(path("lib")));
+		assertSame(added, edited.get(path("lib/a.js")));
+
+		// and so does removing it while adding under it
+		edited = tree.with(CollectionsUtil.newList(added), CollectionsUtil.newList(path("lib")));
+		assertEquals(1, edited.size());
+		assertNull(edited.get(path("lib")));
+		assertSame(added, edited.get(path("lib/a.js")));
+		assertTrue(edited.hasUnstagedChanges(path("lib")));
+	}
+
+	@Test
+	public void testUnresolvedMergeConflicts()
+	{
+		ChangedFile unmerged = file("dir/conflict.txt", Status.UNMERGED, false, true);
+		ChangedFileTree tree = ChangedFileTree.of(CollectionsUtil.newList(unmerged));
+		assertTrue(tree.hasUnresolvedMergeConflicts());
+
+		ChangedFile fixed = unmerged.clone();
+		fixed.makeStaged();
+		assertFalse(tree.with(CollectionsUtil.newList(fixed), null).hasUnresolvedMergeConflicts());
+	}
+
+	@Test
+	public void testAgreesWithLinearScan()
+	{
+		List<ChangedFile> files = new ArrayList<ChangedFile>();
+		for (int i = 0; i < 500; i++)
+		{
+			files.add(file("d" + (i % 7) + "/e" + (i % 11) + "/f" + i + ".txt", Status.MODIFIED, i % 3 == 0,
+					i % 2 == 0));
+		}
+		ChangedFileTree tree = ChangedFileTree.of(files);
+		assertEquals(files.size(), tree.size());
+
+		for (int d = 0; d < 8; d++)
+		{
+			for (int e = 0; e < 12; e++)
+			{
+				IPath folder = path("d" + d + "/e" + e);
+				boolean changes = false;
+				boolean staged = false;
+				boolean unstaged = false;
+				int count = 0;
+				for (ChangedFile file : files)
+				{
+					if (folder.isPrefixOf(file.getRelativePath()))
+					{
+						changes = true;
+						staged |= file.hasStagedChanges();
+						unstaged |= file.hasUnstagedChanges();
+						count++;
+					}
+				}
+				assertEquals(folder.toString(), changes, tree.hasChanges(folder));
+				assertEquals(folder.toString(), staged, tree.hasStagedChanges(folder));
+				assertEquals(folder.toString(), unstaged, tree.hasUnstagedChanges(folder));
+				assertEquals(folder.toString(), count, tree.getFiles(folder).size());
+			}
+		}
+	}
+
+	private static IPath path(String portable)
+	{
+		return Path.fromPortableString(portable);
+	}
+
+	private static ChangedFile file(String path, Status status, boolean staged, boolean unstaged)
+	{
+		return new ChangedFile(null, path(path), status, null, null, staged, unstaged);
+	}
+}
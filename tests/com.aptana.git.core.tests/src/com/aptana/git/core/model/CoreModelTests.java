@@ -12,7 +12,8 @@ import org.junit.runners.Suite;
 import org.junit.runners.Suite.SuiteClasses;
 
 @RunWith(Suite.class)
-@SuiteClasses({ GitExecutableTest.class, GitIndexRefreshJobTest.class, GitIndexTest.class, GitRefTest.class,
+@SuiteClasses({ ChangedFileTreeTest.class, GitCommitGraphTest.class, GitExecutableTest.class,
+		GitIndexFileTest.class, GitIndexRefreshJobTest.class, GitIndexTest.class, GitRefTest.class,
 		GitRevSpecifierTest.class, GitRepositoryTest.class })
 public class CoreModelTests
 {
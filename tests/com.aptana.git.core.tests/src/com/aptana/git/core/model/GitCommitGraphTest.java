@@ -0,0 +1,232 @@
+/**
+ * Aptana Studio
+ * Copyright (c) 2014 by Appcelerator, Inc. All Rights Reserved.
+ * Licensed under the terms of the GNU Public License (GPL) v3 (with exceptions).
+ * Please see the license.html included with this distribution for details.
+ * Any modifications to this file must keep this entire header intact.
+ */
+package com.aptana.git.core.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.junit.Test;
+
+import com.aptana.core.util.CollectionsUtil;
+import com.aptana.core.util.StringUtil;
+import com.aptana.git.core.model.GitRepository.ReadWrite;
+
+@SuppressWarnings("nls")
+public class GitCommitGraphTest extends GitTestCase
+{
+
+	private long time = 1400000000;
+
+	@Test
+	public void testWalkMatchesGitLog() throws Exception
+	{
+		GitRepository repo = createHistory();
+		GitCommitGraph graph = newGraph(repo);
+
+		assertWalk(repo, graph);
+		assertWalk(repo, graph, "topic");
+		assertWalk(repo, graph, "--all");
+
+		List<GitCommit> commits = graph.walk(null, -1, new NullProgressMonitor());
+		GitCommit merge = commits.get(0);
+		assertEquals("Merge topic", merge.getSubject());
+		assertEquals("Tester", merge.getAuthor());
+		assertEquals("tester@example.com", merge.getAuthorEmail());
+		assertEquals(2, merge.parents().size());
+		// the full message is read on demand
+		assertEquals("Merge topic\n\nwith a body\n", merge.getComment());
+
+		assertEquals(2, graph.walk(null, 2, new NullProgressMonitor()).size());
+	}
+
+	@Test
+	public void testRevListUsesCache() throws Exception
+	{
+		GitRepository repo = createHistory();
+		GitRevList list = new GitRevList(repo);
+		IStatus status = list.walkRevisionListWithSpecifier(new GitRevSpecifier("--all"), new NullProgressMonitor());
+		assertTrue(status.isOK());
+		assertEquals(log(repo, "--all"), shas(list.getCommits()));
+		assertTrue(repo.gitFile(GitCommitGraph.FILE_NAME).isFile());
+	}
+
+	@Test
+	public void testExtendsFromNewTips() throws Exception
+	{
+		GitRepository repo = createHistory();
+		GitCommitGraph graph = newGraph(repo);
+		assertWalk(repo, graph);
+		long length = repo.gitFile(GitCommitGraph.FILE_NAME).length();
+
+		commit(repo, "a.txt", "more", "After");
+		commit(repo, "b.txt", "more", "And after that");
+		assertWalk(repo, graph);
+		assertTrue(repo.gitFile(GitCommitGraph.FILE_NAME).length() > length);
+
+		// and what got added is there when read back from disk
+		assertWalk(repo, newGraph(repo));
+		assertWalk(repo, newGraph(repo), "--all");
+	}
+
+	@Test
+	public void testPathFilteredHistory() throws Exception
+	{
+		GitRepository repo = createHistory();
+		GitCommitGraph graph = newGraph(repo);
+		for (int i = 0; i < 2; i++)
+		{
+			// the second time around the bloom filters are there already
+			assertWalk(repo, graph, "--", "a.txt");
+			assertWalk(repo, graph, "--", "dir");
+			assertWalk(repo, graph, "--", "dir/c.txt");
+			assertWalk(repo, graph, "--", "a.txt", "b.txt");
+			assertWalk(repo, graph, "--all", "--", "b.txt");
+			assertWalk(repo, graph, "--", "nothing.txt");
+		}
+		assertWalk(repo, newGraph(repo), "--", "b.txt");
+	}
+
+	@Test
+	public void testLeavesRangesToGitLog() throws Exception
+	{
+		GitRepository repo = createHistory();
+		GitCommitGraph graph = newGraph(repo);
+		assertNull(graph.walk(new GitRevSpecifier("master..topic"), -1, new NullProgressMonitor()));
+		assertNull(graph.walk(new GitRevSpecifier("--author=Tester"), -1, new NullProgressMonitor()));
+	}
+
+	@Test
+	public void testRecoversFromTornWrite() throws Exception
+	{
+		GitRepository repo = createHistory();
+		assertWalk(repo, newGraph(repo));
+
+		File file = repo.gitFile(GitCommitGraph.FILE_NAME);
+		long length = file.length();
+		FileOutputStream out = new FileOutputStream(file, true);
+		out.write(new byte[] { 0, 0, 1, 0, 1, 2, 3 });
+		out.close();
+
+		commit(repo, "a.txt", "torn", "After the torn write");
+		assertWalk(repo, newGraph(repo));
+		assertWalk(repo, newGraph(repo), "--", "a.txt");
+		assertTrue(file.length() > length);
+	}
+
+	/**
+	 * Two branches with a merge, and a merge that throws away the other side's changes.
+	 */
+	private GitRepository createHistory() throws Exception
+	{
+		GitRepository repo = getRepo();
+		commit(repo, "a.txt", "1", "First");
+		commit(repo, "dir/c.txt", "1", "Second");
+		execute(repo, "branch", "topic");
+		execute(repo, "branch", "ignored");
+		commit(repo, "a.txt", "2", "Third");
+
+		execute(repo, "checkout", "topic");
+		commit(repo, "b.txt", "1", "On topic");
+		commit(repo, "dir/c.txt", "2", "Also on topic");
+
+		execute(repo, "checkout", "ignored");
+		commit(repo, "b.txt", "ignored", "Thrown away");
+
+		execute(repo, "checkout", "master");
+		merge(repo, "ignored", "-s", "ours");
+		merge(repo, "topic");
+		return repo;
+	}
+
+	private void commit(GitRepository repo, String path, String contents, String message) throws Exception
+	{
+		File file = new File(repo.workingDirectory().toFile(), path);
+		file.getParentFile().mkdirs();
+		FileWriter writer = new FileWriter(file);
+		writer.write(contents);
+		writer.close();
+		execute(repo, "add", path);
+		execute(repo, "commit", "-m", message);
+	}
+
+	private void merge(GitRepository repo, String branch, String... options) throws Exception
+	{
+		List<String> args = CollectionsUtil.newList("merge", "--no-ff", "-m", "Merge " + branch + "\n\nwith a body");
+		args.addAll(CollectionsUtil.newList(options));
+		args.add(branch);
+		execute(repo, args.toArray(new String[args.size()]));
+	}
+
+	/**
+	 * Runs git with distinct commit dates, so that the order of the history doesn't depend on how fast we are.
+	 */
+	private void execute(GitRepository repo, String... args)
+	{
+		time += 60;
+		Map<String, String> env = new HashMap<String, String>();
+		env.put("GIT_AUTHOR_NAME", "Tester");
+		env.put("GIT_AUTHOR_EMAIL", "tester@example.com");
+		env.put("GIT_COMMITTER_NAME", "Tester");
+		env.put("GIT_COMMITTER_EMAIL", "tester@example.com");
+		env.put("GIT_AUTHOR_DATE", time + " +0000");
+		env.put("GIT_COMMITTER_DATE", time + " +0000");
+		IStatus status = repo.execute(ReadWrite.WRITE, repo.workingDirectory(), env, args);
+		assertTrue(status.getMessage(), status.isOK());
+	}
+
+	private GitCommitGraph newGraph(GitRepository repo)
+	{
+		return new GitCommitGraph(repo, repo.gitFile(GitCommitGraph.FILE_NAME));
+	}
+
+	private void assertWalk(GitRepository repo, GitCommitGraph graph, String... rev)
+	{
+		List<GitCommit> commits = graph.walk(new GitRevSpecifier(rev), -1, new NullProgressMonitor());
+		assertNotNull(commits);
+		assertEquals(log(repo, rev), shas(commits));
+	}
+
+	private List<String> log(GitRepository repo, String... rev)
+	{
+		List<String> args = CollectionsUtil.newList("log", "--topo-order", "--format=%H");
+		args.addAll(CollectionsUtil.newList(rev));
+		IStatus status = repo.execute(ReadWrite.READ, args.toArray(new String[args.size()]));
+		assertTrue(status.getMessage(), status.isOK());
+		List<String> shas = new ArrayList<String>();
+		for (String line : StringUtil.LINE_SPLITTER.split(status.getMessage()))
+		{
+			if (line.trim().length() > 0)
+			{
+				shas.add(line.trim());
+			}
+		}
+		return shas;
+	}
+
+	private List<String> shas(List<GitCommit> commits)
+	{
+		List<String> shas = new ArrayList<String>(commits.size());
+		for (GitCommit commit : commits)
+		{
+			shas.add(commit.sha());
+		}
+		return shas;
+	}
+}
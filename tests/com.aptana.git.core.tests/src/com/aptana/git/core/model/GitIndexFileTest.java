@@ -0,0 +1,152 @@
+/**
+ * Aptana Studio
+ * Copyright (c) 2013 by Appcelerator, Inc. All Rights Reserved.
+ * Licensed under the terms of the GNU Public License (GPL) v3 (with exceptions).
+ * Please see the license.html included with this distribution for details.
+ * Any modifications to this file must keep this entire header intact.
+ */
+package com.aptana.git.core.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Path;
+import org.junit.Test;
+
+import com.aptana.core.util.CollectionsUtil;
+
+@SuppressWarnings("nls")
+public class GitIndexFileTest extends GitTestCase
+{
+
+	@Test
+	public void testReadEntries() throws Exception
+	{
+		GitRepository repo = createRepo();
+		write(repo, "b.txt", "b");
+		write(repo, "dir/a.txt", "a");
+		assertOK(repo.execute(GitRepository.ReadWrite.WRITE, "add", "."));
+
+		GitIndexFile index = GitIndexFile.read(repo.gitFile(GitRepository.INDEX));
+		assertEquals(2, index.size());
+		assertEquals("b.txt", index.getPath(0));
+		assertEquals("dir/a.txt", index.getPath(1));
+		for (int i = 0; i < index.size(); i++)
+		{
+			assertEquals(0, index.getStage(i));
+			assertEquals(1, index.getSize(i));
+			assertEquals(GitIndexFile.MODE_REGULAR, index.getMode(i) & GitIndexFile.MODE_TYPE_MASK);
+			IStatus hash = repo.execute(GitRepository.ReadWrite.READ, "hash-object", index.getPath(i));
+			assertEquals(hash.getMessage().trim(), index.getSha(i));
+		}
+		assertTrue(index.isTracked("dir/a.txt"));
+		assertFalse(index.isTracked("dir"));
+	}
+
+	@Test
+	public void testReadVersion4() throws Exception
+	{
+		GitRepository repo = createRepo();
+		write(repo, "some/deep/path/one.txt", "1");
+		write(repo, "some/deep/path/two.txt", "2");
+		write(repo, "some/other.txt", "3");
+		assertOK(repo.execute(GitRepository.ReadWrite.WRITE, "add", "."));
+		assertOK(repo.execute(GitRepository.ReadWrite.WRITE, "update-index", "--index-version", "4"));
+
+		GitIndexFile index = GitIndexFile.read(repo.gitFile(GitRepository.INDEX));
+		assertEquals(4, index.version());
+		assertEquals(3, index.size());
+		assertEquals("some/deep/path/one.txt", index.getPath(0));
+		assertEquals("some/deep/path/two.txt", index.getPath(1));
+		assertEquals("some/other.txt", index.getPath(2));
+	}
+
+	@Test
+	public void testScanWorkingTree() throws Exception
+	{
+		GitRepository repo = createRepo();
+		write(repo, "modified.txt", "before");
+		write(repo, "deleted.txt", "gone soon");
+		write(repo, "unchanged.txt", "same");
+		write(repo, GitRepository.GITIGNORE, "*.log\nbuild/\n");
+		assertOK(repo.execute(GitRepository.ReadWrite.WRITE, "add", "."));
+
+		write(repo, "modified.txt", "after!");
+		assertTrue(repo.workingDirectory().append("deleted.txt").toFile().delete());
+		write(repo, "untracked.txt", "new");
+		write(repo, "sub/untracked.txt", "new");
+		write(repo, "ignored.log", "ignored");
+		write(repo, "build/output.txt", "ignored");
+
+		GitIndexFile index = GitIndexFile.read(repo.gitFile(GitRepository.INDEX));
+		File workingDirectory = repo.workingDirectory().toFile();
+		GitWorkingTreeScanner scanner = new GitWorkingTreeScanner(workingDirectory, index);
+
+		List<String> undecided = new ArrayList<String>();
+		Map<IPath, List<String>> unstaged = scanner.unstagedChanges(Collections.<String> emptySet(), undecided);
+		assertTrue(undecided.isEmpty());
+		assertEquals(2, unstaged.size());
+		assertEquals("M", unstaged.get(Path.fromPortableString("modified.txt")).get(4));
+		assertEquals("D", unstaged.get(Path.fromPortableString("deleted.txt")).get(4));
+
+		List<String> untracked = scanner.untrackedFiles(Collections.<String> emptySet(), new GitIgnoreRules(
+				workingDirectory));
+		assertEquals(new HashSet<String>(CollectionsUtil.newList("untracked.txt", "sub/untracked.txt")),
+				new HashSet<String>(untracked));
+
+		// limited to a set of paths
+		untracked = scanner.untrackedFiles(Collections.singleton("sub"), new GitIgnoreRules(workingDirectory));
+		assertEquals(CollectionsUtil.newList("sub/untracked.txt"), untracked);
+		unstaged = scanner.unstagedChanges(Collections.singleton("modified.txt"), undecided);
+		assertEquals(1, unstaged.size());
+	}
+
+	@Test
+	public void testIgnorePatterns() throws Exception
+	{
+		GitRepository repo = createRepo();
+		write(repo, GitRepository.GITIGNORE, "# comment\n*.o\n/root-only.txt\ndocs/**/*.pdf\nout/\n!keep.o\n");
+		write(repo, "lib/" + GitRepository.GITIGNORE, "*.txt\n!important.txt\n");
+		GitIgnoreRules rules = new GitIgnoreRules(repo.workingDirectory().toFile());
+
+		assertTrue(rules.isIgnored("a.o", false));
+		assertTrue(rules.isIgnored("deep/down/a.o", false));
+		assertFalse(rules.isIgnored("keep.o", false));
+		assertTrue(rules.isIgnored("root-only.txt", false));
+		assertFalse(rules.isIgnored("sub/root-only.txt", false));
+		assertTrue(rules.isIgnored("docs/a.pdf", false));
+		assertTrue(rules.isIgnored("docs/x/y/a.pdf", false));
+		assertFalse(rules.isIgnored("other/a.pdf", false));
+		assertTrue(rules.isIgnored("out", true));
+		assertFalse(rules.isIgnored("out", false));
+		assertTrue(rules.isIgnored("lib/notes.txt", false));
+		assertFalse(rules.isIgnored("lib/important.txt", false));
+		assertFalse(rules.isIgnored("notes.txt", false));
+		assertTrue(rules.isIgnoredOrInIgnoredDirectory("out/file.c", false));
+	}
+
+	private void write(GitRepository repo, String path, String contents) throws Exception
+	{
+		File file = repo.workingDirectory().append(path).toFile();
+		file.getParentFile().mkdirs();
+		FileWriter writer = new FileWriter(file);
+		writer.write(contents);
+		writer.close();
+	}
+
+	private void assertOK(IStatus status)
+	{
+		assertTrue(status.getMessage(), status.isOK());
+	}
+}
@@ -1,10 +1,21 @@
 package com.aptana.git.core.model;
 
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
 import java.io.FileWriter;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
 
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IFolder;
+import org.eclipse.core.resources.IProject;
 import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.core.runtime.Path;
 import org.eclipse.test.performance.Performance;
 import org.eclipse.test.performance.PerformanceMeter;
 import org.junit.Before;
@@ -12,12 +23,16 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TestName;
 
+import com.aptana.git.core.model.ChangedFile.Status;
+import com.aptana.testing.utils.ProjectCreator;
+
 public class GitIndexPerformanceTest extends GitTestCase
 {
 
 	@Rule
 	public TestName name = new TestName();
 	private PerformanceMeter fPerformanceMeter;
+	private IProject fProject;
 
 	@Before
 	public void setUp() throws Exception
@@ -30,8 +45,19 @@ public class GitIndexPerformanceTest extends GitTestCase
 	@Override
 	public void tearDown() throws Exception
 	{
-		fPerformanceMeter.dispose();
-		super.tearDown();
+		try
+		{
+			if (fProject != null)
+			{
+				fProject.delete(true, new NullProgressMonitor());
+			}
+		}
+		finally
+		{
+			fProject = null;
+			fPerformanceMeter.dispose();
+			super.tearDown();
+		}
 	}
 
 	@Test
@@ -52,6 +78,61 @@ public class GitIndexPerformanceTest extends GitTestCase
 		assertPerformance();
 	}
 
+	/**
+	 * What the label decorator asks for while expanding a big tree: is this folder dirty, is this file changed? With 50k
+	 * changed files in the index.
+	 */
+	@Test
+	public void testDecorationQueriesWith50kChangedFiles() throws Exception
+	{
+		fProject = ProjectCreator.createAndOpen("git_decorations" + System.currentTimeMillis());
+		GitRepository repo = createRepo(fProject.getLocation());
+		GitIndex index = new GitIndex(repo);
+
+		// 50 top-level folders, each with 10 subfolders of 100 files
+		List<ChangedFile> changed = new ArrayList<ChangedFile>(50000);
+		List<IFolder> folders = new ArrayList<IFolder>();
+		List<IFile> files = new ArrayList<IFile>();
+		for (int i = 0; i < 50; i++)
+		{
+			IFolder top = fProject.getFolder("folder" + i);
+			folders.add(top);
+			for (int j = 0; j < 10; j++)
+			{
+				IFolder sub = top.getFolder("sub" + j);
+				folders.add(sub);
+				for (int k = 0; k < 100; k++)
+				{
+					IPath path = Path.fromPortableString("folder" + i + "/sub" + j + "/file" + k + ".txt");
+					changed.add(new ChangedFile(repo, path, Status.MODIFIED, null, null, false, true));
+					if (k % 10 == 0)
+					{
+						files.add(fProject.getFile(path));
+					}
+				}
+			}
+		}
+		IFolder clean = fProject.getFolder("clean");
+		index.setChangedFiles(changed);
+
+		for (int i = 0; i < 100; i++)
+		{
+			startMeasuring();
+			for (IFolder folder : folders)
+			{
+				assertTrue(index.resourceOrChildHasChanges(folder));
+			}
+			assertFalse(index.resourceOrChildHasChanges(clean));
+			for (IFile file : files)
+			{
+				assertNotNull(index.getChangedFileForResource(file));
+			}
+			stopMeasuring();
+		}
+		commitMeasurements();
+		assertPerformance();
+	}
+
 	private void writeFiles(IPath workingDirectory, int numFiles)
 	{
 		for (int i = 0; i < numFiles; i++)
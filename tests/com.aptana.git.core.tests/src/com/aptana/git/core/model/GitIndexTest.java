@@ -44,7 +44,7 @@ public class GitIndexTest extends GitTestCase
 				false, true);
 		blah.add(changedFile);
 		GitIndex index = new GitIndex(repo);
-		index.changedFiles = blah;
+		index.setChangedFiles(blah);
 
 		assertTrue(index.hasUnresolvedMergeConflicts());
 
@@ -109,7 +109,7 @@ public class GitIndexTest extends GitTestCase
 		ChangedFile unmerged = new ChangedFile(orig.getRepository(), orig.getRelativePath(), Status.UNMERGED,
 				orig.getCommitBlobMode(), orig.getCommitBlobSHA(), orig.hasStagedChanges(), orig.hasUnstagedChanges());
 		blah.add(0, unmerged);
-		index.changedFiles = blah;
+		index.setChangedFiles(blah);
 
 		assertFalse(index.hasUnresolvedMergeConflicts());
 
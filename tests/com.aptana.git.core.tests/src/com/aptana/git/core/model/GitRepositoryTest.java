@@ -698,6 +698,40 @@ public class GitRepositoryTest extends GitTestCase
 		}
 	}
 
+	@Test
+	public void testReadObjectThroughCatFile() throws Exception
+	{
+		GitRepository repo = createRepo();
+		GitIndex index = repo.index();
+
+		FileWriter writer = new FileWriter(fileToAdd());
+		writer.write("Hello World!");
+		writer.close();
+		assertRefresh();
+		List<ChangedFile> changed = index.changedFiles();
+		assertStageFiles(index, changed);
+
+		// Staged copy of a new file comes out of the index through cat-file
+		assertEquals("Hello World!", new String(repo.readObject(":0:file.txt"), IOUtil.UTF_8));
+		assertNull(repo.readObject("HEAD:file.txt"));
+
+		assertCommit(index, "Initial commit");
+		assertEquals("Hello World!", new String(repo.readObject("HEAD:file.txt"), IOUtil.UTF_8));
+		assertNull(repo.readObject("HEAD:doesnt_exist.txt"));
+
+		boolean[] exists = repo.objectsExist("HEAD:file.txt", "HEAD:doesnt_exist.txt", "bad\nname", "HEAD");
+		assertTrue(exists[0]);
+		assertFalse(exists[1]);
+		assertFalse(exists[2]);
+		assertTrue(exists[3]);
+
+		// A write process shuts the cat-file processes down, the next read starts them back up
+		assertTrue(repo.enterWriteProcess());
+		repo.exitWriteProcess();
+		assertEquals("Hello World!", new String(repo.readObject("HEAD:file.txt"), IOUtil.UTF_8));
+		assertTrue(repo.objectsExist("HEAD:file.txt")[0]);
+	}
+
 	@Test
 	public void testRemoveRemote() throws Throwable
 	{
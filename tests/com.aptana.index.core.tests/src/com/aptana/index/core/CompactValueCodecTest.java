@@ -0,0 +1,199 @@
+/**
+ * Aptana Studio
+ * Copyright (c) 2013 by Appcelerator, Inc. All Rights Reserved.
+ * Licensed under the terms of the GNU Public License (GPL) v3 (with exceptions).
+ * Please see the license.html included with this distribution for details.
+ * Any modifications to this file must keep this entire header intact.
+ */
+package com.aptana.index.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.aptana.jetty.util.epl.ajax.JSON;
+import com.aptana.jetty.util.epl.ajax.JSON.Convertible;
+import com.aptana.jetty.util.epl.ajax.JSON.Output;
+
+@SuppressWarnings("nls")
+public class CompactValueCodecTest
+{
+	private static final CompactValueCodec CODEC = new CompactValueCodec("name", "type", "String");
+
+	private static class Element implements Convertible
+	{
+		String name;
+		List<Object> types = new ArrayList<Object>();
+		boolean flag;
+		long count;
+		double ratio;
+
+		@SuppressWarnings("rawtypes")
+		public void fromJSON(Map object)
+		{
+		}
+
+		public void toJSON(Output out)
+		{
+			out.add("name", name);
+			out.add("types", types);
+			out.add("flag", flag);
+			out.add("count", count);
+			out.add("ratio", ratio);
+		}
+	}
+
+	@Test
+	public void testScalars()
+	{
+		assertRoundTrip(null);
+		assertRoundTrip(Boolean.TRUE);
+		assertRoundTrip(Boolean.FALSE);
+		assertRoundTrip("");
+		assertRoundTrip("plain string");
+		assertRoundTrip("String");
+		assertRoundTrip("quotes \" and \\ and \n newlines and \u00e9\u4e2d");
+		assertRoundTrip("nul\0inside");
+		assertRoundTrip(0);
+		assertRoundTrip(63);
+		assertRoundTrip(64);
+		assertRoundTrip(-1);
+		assertRoundTrip(Integer.MAX_VALUE);
+		assertRoundTrip(Long.MIN_VALUE);
+		assertRoundTrip(Long.MAX_VALUE);
+		assertRoundTrip(1.5);
+		assertRoundTrip(1.5f);
+		assertRoundTrip('c');
+	}
+
+	@Test
+	public void testStructures()
+	{
+		Map<String, Object> map = new HashMap<String, Object>();
+		map.put("name", "value");
+		map.put("list", Arrays.asList("a", 1, null, true));
+		map.put("array", new int[] { 1, 2, 3 });
+		map.put("empty", new Object[0]);
+		map.put("nested", new HashMap<String, Object>(map));
+
+		assertRoundTrip(map);
+		assertRoundTrip(Arrays.asList());
+	}
+
+	@Test
+	public void testConvertible()
+	{
+		Element element = new Element();
+		element.name = "String";
+		element.types.add("type");
+		element.types.add(new Element());
+		element.flag = true;
+		element.count = 12345678901L;
+		element.ratio = 0.25;
+
+		assertRoundTrip(element);
+	}
+
+	@Test
+	public void testNamesAreShared()
+	{
+		String name = new String("String");
+		Object decoded = CODEC.decode(CODEC.encode(name));
+
+		assertEquals("String", decoded);
+		assertSame(CODEC.decode(CODEC.encode("String")), decoded);
+		assertTrue(CODEC.encode(name).length() < JSON.toString(name).length());
+	}
+
+	@Test
+	public void testEncodingIsDelimiterSafe()
+	{
+		Map<String, Object> map = new HashMap<String, Object>();
+		map.put("a\0b", "c\0d");
+
+		String encoded = CODEC.encode(map);
+
+		assertTrue(CompactValueCodec.isEncoded(encoded));
+		assertEquals(-1, encoded.indexOf('\0'));
+		assertFalse(CompactValueCodec.isEncoded(JSON.toString(map)));
+	}
+
+	@Test
+	public void testInvalidValues()
+	{
+		assertInvalid("{}");
+		assertInvalid(CODEC.encode("value").substring(0, 3));
+		assertInvalid(CODEC.encode("value") + "x");
+		assertInvalid(new CompactValueCodec("a", "b", "c", "d").encode("d"));
+	}
+
+	private void assertInvalid(String value)
+	{
+		try
+		{
+			CODEC.decode(value);
+			fail("Expected " + value + " to be rejected");
+		}
+		catch (IllegalArgumentException e)
+		{
+			// expected
+		}
+	}
+
+	private void assertRoundTrip(Object object)
+	{
+		Object expected = JSON.parse(JSON.toString(object));
+		Object actual = CODEC.decode(CODEC.encode(object));
+
+		assertEquivalent(expected, actual);
+	}
+
+	@SuppressWarnings("rawtypes")
+	private void assertEquivalent(Object expected, Object actual)
+	{
+		if (expected instanceof Object[])
+		{
+			assertTrue(actual instanceof Object[]);
+
+			Object[] expectedItems = (Object[]) expected;
+			Object[] actualItems = (Object[]) actual;
+
+			assertEquals(expectedItems.length, actualItems.length);
+			for (int i = 0; i < expectedItems.length; i++)
+			{
+				assertEquivalent(expectedItems[i], actualItems[i]);
+			}
+		}
+		else if (expected instanceof Map)
+		{
+			assertTrue(actual instanceof Map);
+
+			Map expectedMap = (Map) expected;
+			Map actualMap = (Map) actual;
+
+			assertEquals(expectedMap.keySet(), actualMap.keySet());
+			for (Object key : expectedMap.keySet())
+			{
+				assertEquivalent(expectedMap.get(key), actualMap.get(key));
+			}
+		}
+		else
+		{
+			assertEquals(expected, actual);
+			if (expected != null)
+			{
+				assertEquals(expected.getClass(), actual.getClass());
+			}
+		}
+	}
+}
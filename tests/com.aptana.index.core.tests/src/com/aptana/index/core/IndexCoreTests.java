@@ -5,7 +5,8 @@ import org.junit.runners.Suite;
 import org.junit.runners.Suite.SuiteClasses;
 
 @RunWith(Suite.class)
-@SuiteClasses({ FileStoreBuildContextTest.class, IndexContainerJobTest.class, IndexTest.class, })
+@SuiteClasses({ CompactValueCodecTest.class, FileStoreBuildContextTest.class, IndexContainerJobTest.class,
+		IndexRequestJobTest.class, IndexTest.class, })
 public class IndexCoreTests
 {
 
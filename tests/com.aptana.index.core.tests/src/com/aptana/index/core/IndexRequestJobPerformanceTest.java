@@ -0,0 +1,214 @@
+/**
+ * Aptana Studio
+ * Copyright (c) 2013 by Appcelerator, Inc. All Rights Reserved.
+ * Licensed under the terms of the GNU Public License (GPL) v3 (with exceptions).
+ * Please see the license.html included with this distribution for details.
+ * Any modifications to this file must keep this entire header intact.
+ */
+package com.aptana.index.core;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.net.URI;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.StringTokenizer;
+
+import org.eclipse.core.filesystem.EFS;
+import org.eclipse.core.filesystem.IFileStore;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.test.performance.Performance;
+import org.eclipse.test.performance.PerformanceMeter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestName;
+
+import com.aptana.core.util.CollectionsUtil;
+import com.aptana.core.util.FileUtil;
+import com.aptana.index.core.build.BuildContext;
+
+/**
+ * Compares serial indexing against the parallel indexing path of {@link IndexRequestJob} at different worker counts.
+ */
+@SuppressWarnings("nls")
+public class IndexRequestJobPerformanceTest
+{
+	private static final int NUM_FILES = 2000;
+	private static final int ITERATIONS = 10;
+
+	@Rule
+	public TestName name = new TestName();
+	private PerformanceMeter fPerformanceMeter;
+
+	private File tmpDir;
+	private Set<IFileStore> fileStores;
+	private Index index;
+
+	@Before
+	public void setUp() throws Exception
+	{
+		Performance performance = Performance.getDefault();
+		fPerformanceMeter = performance
+				.createPerformanceMeter(getClass().getName() + '#' + name.getMethodName() + "()"); //$NON-NLS-1$
+
+		tmpDir = new File(FileUtil.getTempDirectory().toOSString(), "index_request_perf");
+		tmpDir.mkdirs();
+		fileStores = new HashSet<IFileStore>(NUM_FILES);
+		for (int i = 0; i < NUM_FILES; i++)
+		{
+			File file = new File(tmpDir, "file" + i + ".txt");
+			writeFile(file, i);
+			fileStores.add(EFS.getStore(file.toURI()));
+		}
+		index = getIndexManager().getIndex(tmpDir.toURI());
+	}
+
+	@After
+	public void tearDown() throws Exception
+	{
+		if (index != null)
+		{
+			getIndexManager().removeIndex(tmpDir.toURI());
+			index = null;
+		}
+		FileUtil.deleteRecursively(tmpDir);
+		fPerformanceMeter.dispose();
+	}
+
+	@Test
+	public void testSerial() throws Exception
+	{
+		indexTest(1);
+	}
+
+	@Test
+	public void testFourWorkers() throws Exception
+	{
+		indexTest(4);
+	}
+
+	@Test
+	public void testSixteenWorkers() throws Exception
+	{
+		indexTest(16);
+	}
+
+	private void indexTest(final int workers) throws Exception
+	{
+		final IFileStoreIndexingParticipant participant = new WordIndexingParticipant();
+		IndexRequestJob job = new IndexRequestJob(tmpDir.toURI())
+		{
+			@Override
+			protected IStatus run(IProgressMonitor monitor)
+			{
+				return Status.OK_STATUS;
+			}
+
+			@Override
+			protected int getWorkerCount()
+			{
+				return workers;
+			}
+
+			@Override
+			protected Set<IFileStore> filterFileStores(Set<IFileStore> fileStores)
+			{
+				return fileStores;
+			}
+
+			@Override
+			protected List<IFileStoreIndexingParticipant> getIndexParticipants(IFileStore file)
+			{
+				return CollectionsUtil.newList(participant);
+			}
+		};
+
+		for (int i = 0; i < ITERATIONS; i++)
+		{
+			startMeasuring();
+			job.indexFileStores(index, fileStores, new NullProgressMonitor());
+			stopMeasuring();
+			index.save();
+		}
+		commitMeasurements();
+		assertPerformance();
+	}
+
+	private void writeFile(File file, int seed) throws IOException
+	{
+		FileWriter writer = null;
+		try
+		{
+			writer = new FileWriter(file);
+			for (int line = 0; line < 200; line++)
+			{
+				writer.write("var symbol" + seed + "_" + line + " = function property" + (line % 17) + "() {};\n");
+			}
+		}
+		finally
+		{
+			if (writer != null)
+			{
+				writer.close();
+			}
+		}
+	}
+
+	protected IndexManager getIndexManager()
+	{
+		return IndexPlugin.getDefault().getIndexManager();
+	}
+
+	protected void startMeasuring()
+	{
+		fPerformanceMeter.start();
+	}
+
+	protected void stopMeasuring()
+	{
+		fPerformanceMeter.stop();
+	}
+
+	protected void commitMeasurements()
+	{
+		fPerformanceMeter.commit();
+	}
+
+	protected void assertPerformance()
+	{
+		Performance.getDefault().assertPerformance(fPerformanceMeter);
+	}
+
+	/**
+	 * Reads the file contents and adds an entry for every identifier-looking word.
+	 */
+	private static class WordIndexingParticipant implements IFileStoreIndexingParticipant
+	{
+		public void index(BuildContext context, Index index, IProgressMonitor monitor) throws CoreException
+		{
+			URI uri = context.getURI();
+			StringTokenizer tokenizer = new StringTokenizer(context.getContents(), " \t\n(){};=");
+			while (tokenizer.hasMoreTokens())
+			{
+				String word = tokenizer.nextToken();
+				if (Character.isLetter(word.charAt(0)))
+				{
+					index.addEntry("words", word, uri);
+				}
+			}
+		}
+
+		public int getPriority()
+		{
+			return DEFAULT_PRIORITY;
+		}
+	}
+}
@@ -0,0 +1,264 @@
+/**
+ * Aptana Studio
+ * Copyright (c) 2013 by Appcelerator, Inc. All Rights Reserved.
+ * Licensed under the terms of the GNU Public License (GPL) v3 (with exceptions).
+ * Please see the license.html included with this distribution for details.
+ * Any modifications to this file must keep this entire header intact.
+ */
+package com.aptana.index.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.net.URI;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringTokenizer;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.eclipse.core.filesystem.EFS;
+import org.eclipse.core.filesystem.IFileStore;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.core.runtime.Status;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.aptana.core.util.CollectionsUtil;
+import com.aptana.core.util.FileUtil;
+import com.aptana.index.core.build.BuildContext;
+
+/**
+ * Indexes the same set of files serially and on a pool of workers and checks the two indices end up with the same
+ * categories, words and document names.
+ */
+@SuppressWarnings("nls")
+public class IndexRequestJobTest
+{
+	private static final int NUM_FILES = 200;
+	private static final int WORKERS = 8;
+	private static final int LINES = 20;
+
+	private File tmpDir;
+	private File serialDir;
+	private File parallelDir;
+	private Set<IFileStore> fileStores;
+
+	@Before
+	public void setUp() throws Exception
+	{
+		tmpDir = new File(FileUtil.getTempDirectory().toOSString(), "index_request_job");
+		File filesDir = new File(tmpDir, "files");
+		filesDir.mkdirs();
+		serialDir = new File(tmpDir, "serial");
+		serialDir.mkdirs();
+		parallelDir = new File(tmpDir, "parallel");
+		parallelDir.mkdirs();
+
+		fileStores = new HashSet<IFileStore>(NUM_FILES);
+		for (int i = 0; i < NUM_FILES; i++)
+		{
+			File file = new File(filesDir, "file" + i + ".txt");
+			writeFile(file, i, 0);
+			fileStores.add(EFS.getStore(file.toURI()));
+		}
+	}
+
+	@After
+	public void tearDown() throws Exception
+	{
+		try
+		{
+			getIndexManager().removeIndex(serialDir.toURI());
+			getIndexManager().removeIndex(parallelDir.toURI());
+			FileUtil.deleteRecursively(tmpDir);
+		}
+		finally
+		{
+			tmpDir = null;
+			serialDir = null;
+			parallelDir = null;
+			fileStores = null;
+		}
+	}
+
+	@Test
+	public void testParallelMatchesSerial() throws Exception
+	{
+		Index serial = index(serialDir, 1);
+		Index parallel = index(parallelDir, WORKERS);
+
+		assertSameContents(serial, parallel);
+		assertFalse(contents(serial).isEmpty());
+	}
+
+	@Test
+	public void testParallelMatchesSerialAfterSave() throws Exception
+	{
+		Index serial = index(serialDir, 1);
+		Index parallel = index(parallelDir, WORKERS);
+		serial.save();
+		parallel.save();
+
+		assertSameContents(serial, parallel);
+	}
+
+	@Test
+	public void testParallelReindexMatchesSerial() throws Exception
+	{
+		Index serial = index(serialDir, 1);
+		Index parallel = index(parallelDir, WORKERS);
+		serial.save();
+		parallel.save();
+
+		// change every other file so re-indexing has stale entries to remove
+		int i = 0;
+		for (IFileStore store : fileStores)
+		{
+			if (i % 2 == 0)
+			{
+				writeFile(store.toLocalFile(EFS.NONE, null), i, 1);
+			}
+			i++;
+		}
+		index(serialDir, 1);
+		index(parallelDir, WORKERS);
+
+		assertSameContents(serial, parallel);
+		// one symbol per line, the old symbols of the changed files must be gone
+		assertEquals(NUM_FILES * LINES, contents(parallel).get("symbols").size());
+	}
+
+	private Index index(File indexDir, final int workers) throws CoreException
+	{
+		Index index = getIndexManager().getIndex(indexDir.toURI());
+		final IFileStoreIndexingParticipant participant = new WordIndexingParticipant();
+		IndexRequestJob job = new IndexRequestJob(indexDir.toURI())
+		{
+			@Override
+			protected IStatus run(IProgressMonitor monitor)
+			{
+				return Status.OK_STATUS;
+			}
+
+			@Override
+			protected int getWorkerCount()
+			{
+				return workers;
+			}
+
+			@Override
+			protected Set<IFileStore> filterFileStores(Set<IFileStore> fileStores)
+			{
+				return fileStores;
+			}
+
+			@Override
+			protected List<IFileStoreIndexingParticipant> getIndexParticipants(IFileStore file)
+			{
+				return CollectionsUtil.newList(participant);
+			}
+		};
+		job.indexFileStores(index, fileStores, new NullProgressMonitor());
+		return index;
+	}
+
+	private void assertSameContents(Index expected, Index actual) throws IOException
+	{
+		assertEquals(new TreeSet<String>(expected.getCategories()), new TreeSet<String>(actual.getCategories()));
+		assertEquals(contents(expected), contents(actual));
+		assertEquals(new TreeSet<String>(expected.queryDocumentNames(null)),
+				new TreeSet<String>(actual.queryDocumentNames(null)));
+	}
+
+	/**
+	 * Maps every category to its words, and every word to the documents it was found in.
+	 */
+	private Map<String, Map<String, Set<String>>> contents(Index index)
+	{
+		Map<String, Map<String, Set<String>>> contents = new TreeMap<String, Map<String, Set<String>>>();
+		for (String category : index.getCategories())
+		{
+			Map<String, Set<String>> words = new TreeMap<String, Set<String>>();
+			List<QueryResult> results = index.query(new String[] { category }, "", SearchPattern.PREFIX_MATCH
+					| SearchPattern.CASE_SENSITIVE);
+			if (results != null)
+			{
+				for (QueryResult result : results)
+				{
+					words.put(result.getWord(), new TreeSet<String>(result.getDocuments()));
+				}
+			}
+			contents.put(category, words);
+		}
+		return contents;
+	}
+
+	private void writeFile(File file, int seed, int version) throws IOException
+	{
+		FileWriter writer = null;
+		try
+		{
+			writer = new FileWriter(file);
+			for (int line = 0; line < LINES; line++)
+			{
+				writer.write("var symbol" + seed + "_" + line + "_" + version + " = function property" + (line % 7)
+						+ "() {};\n");
+			}
+		}
+		finally
+		{
+			if (writer != null)
+			{
+				writer.close();
+			}
+		}
+	}
+
+	protected IndexManager getIndexManager()
+	{
+		return IndexPlugin.getDefault().getIndexManager();
+	}
+
+	/**
+	 * Adds the identifier-looking words of a file to a category per kind of word.
+	 */
+	private static class WordIndexingParticipant implements IFileStoreIndexingParticipant
+	{
+		public void index(BuildContext context, Index index, IProgressMonitor monitor) throws CoreException
+		{
+			URI uri = context.getURI();
+			StringTokenizer tokenizer = new StringTokenizer(context.getContents(), " \t\n(){};=");
+			while (tokenizer.hasMoreTokens())
+			{
+				String word = tokenizer.nextToken();
+				if (word.startsWith("symbol"))
+				{
+					index.addEntry("symbols", word, uri);
+				}
+				else if (word.startsWith("property"))
+				{
+					index.addEntry("properties", word, uri);
+				}
+				else if (Character.isLetter(word.charAt(0)))
+				{
+					index.addEntry("keywords", word, uri);
+				}
+			}
+		}
+
+		public int getPriority()
+		{
+			return DEFAULT_PRIORITY;
+		}
+	}
+}
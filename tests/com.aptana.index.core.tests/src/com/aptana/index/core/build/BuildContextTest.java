@@ -84,4 +84,55 @@ public class BuildContextTest
 		assertEquals(parseRootNode, ast);
 		assertEquals(2, reparses[0]);
 	}
+
+	@Test
+	public void testParticipantsShareParse() throws Exception
+	{
+		final int[] reparses = new int[] { 0 };
+		final String[] content = new String[] { "var x = 1;" };
+		final ParseRootNode parseRootNode = new ParseRootNode(new Symbol[0], 0, 0)
+		{
+			public String getLanguage()
+			{
+				return "test";
+			}
+		};
+		BuildContext buildContext = new BuildContext(null)
+		{
+			@Override
+			public String getContentType() throws CoreException
+			{
+				return "test";
+			}
+
+			@Override
+			protected ParseResult parse(String contentType, IParseState parseState, WorkingParseResult working)
+					throws Exception
+			{
+				reparses[0] += 1;
+				working.setParseResult(parseRootNode);
+				return working.getImmutableResult();
+			}
+
+			@Override
+			public synchronized String getContents()
+			{
+				return content[0];
+			}
+		};
+
+		assertEquals(parseRootNode, buildContext.getAST());
+		assertEquals(parseRootNode, buildContext.getAST());
+		assertEquals(1, reparses[0]);
+
+		// an explicit parse state always parses
+		buildContext.getAST(new ParseState(buildContext.getContents()));
+		assertEquals(2, reparses[0]);
+		buildContext.getAST();
+		assertEquals(3, reparses[0]);
+
+		buildContext.resetAST();
+		buildContext.getAST();
+		assertEquals(4, reparses[0]);
+	}
 }
@@ -7,9 +7,12 @@ import org.junit.runners.Suite.SuiteClasses;
 import com.aptana.index.core.IndexCoreTests;
 import com.aptana.index.core.build.BuildContextTest;
 import com.aptana.internal.index.core.DiskIndexTest;
+import com.aptana.internal.index.core.SegmentedDiskIndexTest;
+import com.aptana.internal.index.core.TermDictionaryTest;
 
 @RunWith(Suite.class)
-@SuiteClasses({ DiskIndexTest.class, BuildContextTest.class, IndexCoreTests.class, })
+@SuiteClasses({ DiskIndexTest.class, SegmentedDiskIndexTest.class, TermDictionaryTest.class, BuildContextTest.class,
+		IndexCoreTests.class, })
 public class AllIndexCoreTests
 {
 
@@ -7,23 +7,45 @@
  */
 package com.aptana.internal.index.core;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.io.DataInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.net.URL;
+import java.util.Map;
 
 import org.eclipse.core.runtime.FileLocator;
 import org.eclipse.core.runtime.Path;
 import org.eclipse.core.runtime.Platform;
+import org.junit.After;
 import org.junit.Test;
 
+import com.aptana.core.util.IOUtil;
 import com.aptana.core.util.ResourceUtil;
+import com.aptana.index.core.QueryResult;
+import com.aptana.index.core.SearchPattern;
 
 @SuppressWarnings("nls")
 public class DiskIndexTest
 {
+	private static final String[] CATEGORIES = new String[] { "type", "function" };
+
+	private File indexFile;
+
+	@After
+	public void tearDown() throws Exception
+	{
+		if (indexFile != null)
+		{
+			indexFile.delete();
+			indexFile = null;
+		}
+	}
 
 	@Test
 	public void testAPSTUD3393() throws Exception
@@ -47,4 +69,158 @@ public class DiskIndexTest
 			fail("Expected an IOException, so that we'd catch it up the stack and clean up the index. Instead we got a NegativeArraySizeException!");
 		}
 	}
+
+	@Test
+	public void testLegacyIndexIsUpgradedOnMerge() throws Exception
+	{
+		// 300 documents, "Type0".."Type39" and "common" in the type category, "func0".."func299" and "Even" in the
+		// function category
+		DiskIndex index = openIndex(copyToTempFile("files/legacy-0.1.index"));
+		assertQueries(index, 0);
+		assertTrue(readSignature(indexFile).endsWith("0.1"));
+
+		MemoryIndex memoryIndex = new MemoryIndex();
+		memoryIndex.addEntry("type", "Brand", "file:/project/new.js");
+		memoryIndex.addEntry("function", "even", "file:/project/new.js");
+		index = index.mergeWith(memoryIndex);
+
+		assertTrue(readSignature(indexFile).endsWith("0.2"));
+		assertEquals(301, index.getDocuments().size());
+		assertQueries(index, 2);
+
+		// re-open what we wrote
+		index = openIndex(indexFile);
+		assertEquals(301, index.getDocuments().size());
+		assertQueries(index, 2);
+		assertEquals(2, query(index, "even", SearchPattern.EXACT_MATCH).size());
+		assertEquals(1, query(index, "br", SearchPattern.PREFIX_MATCH).size());
+	}
+
+	@Test
+	public void testQueriesAgainstMemoryIndex() throws Exception
+	{
+		DiskIndex index = openIndex(copyToTempFile("files/legacy-0.1.index"));
+		index = index.mergeWith(new MemoryIndex()
+		{
+			{
+				addEntry("type", "Brand", "file:/project/new.js");
+			}
+		});
+
+		// Re-indexing a document hides its entries on disk
+		MemoryIndex memoryIndex = new MemoryIndex();
+		memoryIndex.remove("file:/project/dir0/file0.js");
+		Map<String, QueryResult> results = index.addQueryResults(CATEGORIES, "Even", SearchPattern.EXACT_MATCH
+				| SearchPattern.CASE_SENSITIVE, memoryIndex);
+		assertEquals(149, results.get("Even").getDocuments().size());
+	}
+
+	@Test
+	public void testMergeTwice() throws Exception
+	{
+		DiskIndex index = openIndex(copyToTempFile("files/legacy-0.1.index"));
+
+		MemoryIndex memoryIndex = new MemoryIndex();
+		memoryIndex.addEntry("type", "Brand", "file:/project/new.js");
+		index = index.mergeWith(memoryIndex);
+
+		// the second merge reads from the 0.2 index the first one wrote
+		memoryIndex = new MemoryIndex();
+		memoryIndex.addEntry("function", "even", "file:/project/other.js");
+		memoryIndex.remove("file:/project/dir0/file0.js");
+		index = index.mergeWith(memoryIndex);
+		assertMergedTwice(index);
+
+		// re-open what we wrote
+		index = openIndex(indexFile);
+		assertMergedTwice(index);
+	}
+
+	@Test
+	public void testMergeTwiceWithoutMapping() throws Exception
+	{
+		// how index files are read on Windows, where a mapped file can't be replaced
+		DiskIndex index = openIndex(copyToTempFile("files/legacy-0.1.index"), false);
+
+		MemoryIndex memoryIndex = new MemoryIndex();
+		memoryIndex.addEntry("type", "Brand", "file:/project/new.js");
+		index = index.mergeWith(memoryIndex);
+
+		memoryIndex = new MemoryIndex();
+		memoryIndex.addEntry("function", "even", "file:/project/other.js");
+		memoryIndex.remove("file:/project/dir0/file0.js");
+		index = index.mergeWith(memoryIndex);
+		assertMergedTwice(index);
+
+		index = openIndex(indexFile, false);
+		assertMergedTwice(index);
+		assertTrue(index.deleteIndexFile());
+	}
+
+	private void assertMergedTwice(DiskIndex index) throws IOException
+	{
+		assertEquals(301, index.getDocuments().size());
+		assertEquals(1, query(index, "br", SearchPattern.PREFIX_MATCH).size());
+		assertEquals(149, query(index, "Even", SearchPattern.EXACT_MATCH | SearchPattern.CASE_SENSITIVE).get("Even")
+				.getDocuments().size());
+		assertEquals(1, query(index, "even", SearchPattern.EXACT_MATCH | SearchPattern.CASE_SENSITIVE).get("even")
+				.getDocuments().size());
+	}
+
+	private void assertQueries(DiskIndex index, int numAddedWords) throws IOException
+	{
+		assertEquals(40 + 1 + 300 + 1 + numAddedWords, query(index, null, SearchPattern.PREFIX_MATCH).size());
+		assertEquals(300, query(index, "common", SearchPattern.EXACT_MATCH).get("common").getDocuments().size());
+
+		// Type1, Type10..Type19
+		assertEquals(11, query(index, "type1", SearchPattern.PREFIX_MATCH).size());
+		assertEquals(11, query(index, "Type1", SearchPattern.PREFIX_MATCH | SearchPattern.CASE_SENSITIVE).size());
+		assertNull(query(index, "type1", SearchPattern.PREFIX_MATCH | SearchPattern.CASE_SENSITIVE));
+		assertEquals(150, query(index, "Even", SearchPattern.EXACT_MATCH | SearchPattern.CASE_SENSITIVE)
+				.get("Even").getDocuments().size());
+		assertNull(query(index, "zzz", SearchPattern.EXACT_MATCH));
+
+		// func2, func20..func29, func200..func299
+		assertEquals(10, query(index, "^func2.$", SearchPattern.REGEX_MATCH).size());
+	}
+
+	private Map<String, QueryResult> query(DiskIndex index, String key, int matchRule) throws IOException
+	{
+		return index.addQueryResults(CATEGORIES, key, matchRule, null);
+	}
+
+	private DiskIndex openIndex(File file) throws IOException
+	{
+		return openIndex(file, DiskIndex.MAP_INDEX_FILES);
+	}
+
+	private DiskIndex openIndex(File file, boolean mapIndexFile) throws IOException
+	{
+		DiskIndex index = new DiskIndex(file.getAbsolutePath(), mapIndexFile);
+		index.initialize(true);
+		return index;
+	}
+
+	private File copyToTempFile(String path) throws IOException
+	{
+		URL url = FileLocator.find(Platform.getBundle("com.aptana.index.core.tests"), Path.fromPortableString(path),
+				null);
+		indexFile = File.createTempFile("disk_index", ".index");
+		IOUtil.copyFile(ResourceUtil.resourcePathToFile(url), indexFile);
+		return indexFile;
+	}
+
+	private String readSignature(File file) throws IOException
+	{
+		// the signature is written as a 2 byte length followed by the characters, same as DataOutput#writeUTF
+		DataInputStream stream = new DataInputStream(new FileInputStream(file));
+		try
+		{
+			return stream.readUTF();
+		}
+		finally
+		{
+			stream.close();
+		}
+	}
 }
@@ -0,0 +1,174 @@
+/**
+ * Aptana Studio
+ * Copyright (c) 2013 by Appcelerator, Inc. All Rights Reserved.
+ * Licensed under the terms of the GNU Public License (GPL) v3 (with exceptions).
+ * Please see the license.html included with this distribution for details.
+ * Any modifications to this file must keep this entire header intact.
+ */
+package com.aptana.internal.index.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.aptana.index.core.QueryResult;
+import com.aptana.index.core.SearchPattern;
+
+@SuppressWarnings("nls")
+public class SegmentedDiskIndexTest
+{
+	private static final String[] CATEGORIES = new String[] { "type" };
+
+	private File indexFile;
+	private SegmentedDiskIndex index;
+
+	@Before
+	public void setUp() throws Exception
+	{
+		indexFile = File.createTempFile("segmented", ".index");
+		index = openIndex(false);
+
+		// a base index with 10 documents
+		MemoryIndex memoryIndex = new MemoryIndex();
+		for (int i = 0; i < 10; i++)
+		{
+			memoryIndex.addEntry("type", "Type" + i, "file" + i + ".js");
+			memoryIndex.addEntry("type", "Common", "file" + i + ".js");
+		}
+		index.mergeWith(memoryIndex);
+	}
+
+	@After
+	public void tearDown() throws Exception
+	{
+		if (index != null)
+		{
+			index.deleteSegmentFiles();
+			index = null;
+		}
+		if (indexFile != null)
+		{
+			indexFile.delete();
+			indexFile = null;
+		}
+	}
+
+	@Test
+	public void testSmallSaveIsAppendedAsSegment() throws Exception
+	{
+		long baseLength = indexFile.length();
+
+		MemoryIndex memoryIndex = new MemoryIndex();
+		memoryIndex.remove("file1.js"); // deleted
+		memoryIndex.remove("file2.js"); // re-indexed
+		memoryIndex.addEntry("type", "Renamed", "file2.js");
+		memoryIndex.addEntry("type", "Type10", "file10.js"); // new
+		index.mergeWith(memoryIndex);
+
+		assertTrue(new File(indexFile.getPath() + ".seg0").exists());
+		assertEquals(baseLength, indexFile.length());
+		assertContents(index);
+
+		// and it all survives a re-open
+		assertContents(openIndex(true));
+	}
+
+	@Test
+	public void testMemoryIndexHidesSegments() throws Exception
+	{
+		MemoryIndex memoryIndex = new MemoryIndex();
+		memoryIndex.addEntry("type", "Type10", "file10.js");
+		index.mergeWith(memoryIndex);
+
+		memoryIndex = new MemoryIndex();
+		memoryIndex.remove("file10.js");
+		memoryIndex.remove("file3.js");
+		Map<String, QueryResult> results = query(index, "Type10", memoryIndex);
+		assertTrue(results == null || results.isEmpty());
+		assertEquals(9, query(index, "Common", memoryIndex).get("Common").getDocuments().size());
+		assertFalse(index.addDocumentNames(null, memoryIndex).contains("file10.js"));
+	}
+
+	@Test
+	public void testCompaction() throws Exception
+	{
+		// Enough single-file saves to force the segments to be merged back into the base
+		for (int i = 10; i < 30; i++)
+		{
+			MemoryIndex memoryIndex = new MemoryIndex();
+			memoryIndex.remove("file" + (i - 10) + ".js");
+			memoryIndex.addEntry("type", "Type" + i, "file" + i + ".js");
+			memoryIndex.addEntry("type", "Common", "file" + i + ".js");
+			index.mergeWith(memoryIndex);
+		}
+
+		// Type20..Type29 and their files are all that's left
+		Map<String, QueryResult> results = query(index, "Type", null);
+		assertEquals(10, results.size());
+		assertTrue(results.containsKey("Type29"));
+		assertFalse(results.containsKey("Type19"));
+		assertEquals(10, query(index, "Common", null).get("Common").getDocuments().size());
+		assertEquals(10, index.addDocumentNames(null, null).size());
+
+		index = openIndex(true);
+		assertEquals(10, query(index, "Type", null).size());
+		assertEquals(10, index.addDocumentNames(null, null).size());
+	}
+
+	@Test
+	public void testRemoveCategories() throws Exception
+	{
+		MemoryIndex memoryIndex = new MemoryIndex();
+		memoryIndex.addEntry("function", "foo", "file10.js");
+		memoryIndex.addEntry("type", "Type10", "file10.js");
+		index.mergeWith(memoryIndex);
+		assertTrue(index.getCategories().contains("function"));
+
+		index.removeCategories(new String[] { "function" }, new MemoryIndex());
+
+		assertFalse(new File(indexFile.getPath() + ".seg0").exists());
+		assertFalse(index.getCategories().contains("function"));
+		assertEquals(11, query(index, "Type", null).size());
+	}
+
+	private void assertContents(SegmentedDiskIndex index) throws IOException
+	{
+		Map<String, QueryResult> results = query(index, "Type", null);
+		assertEquals(9, results.size()); // Type0, Type3..Type10
+		assertFalse(results.containsKey("Type1"));
+		assertFalse(results.containsKey("Type2"));
+		assertEquals(1, query(index, "Renamed", null).size());
+		assertEquals(8, query(index, "Common", null).get("Common").getDocuments().size());
+
+		Set<String> documents = index.addDocumentNames(null, null);
+		assertEquals(10, documents.size());
+		assertFalse(documents.contains("file1.js"));
+		assertTrue(documents.contains("file10.js"));
+		assertEquals(1, index.addDocumentNames("file1", null).size());
+
+		assertFalse(index.getCategories().contains(SegmentedDiskIndex.TOMBSTONE_CATEGORY));
+	}
+
+	private Map<String, QueryResult> query(SegmentedDiskIndex index, String prefix, MemoryIndex memoryIndex)
+			throws IOException
+	{
+		return index.addQueryResults(CATEGORIES, prefix, SearchPattern.PREFIX_MATCH | SearchPattern.CASE_SENSITIVE,
+				memoryIndex);
+	}
+
+	private SegmentedDiskIndex openIndex(boolean reuseExistingFile) throws IOException
+	{
+		SegmentedDiskIndex result = new SegmentedDiskIndex(indexFile.getAbsolutePath());
+		result.initialize(reuseExistingFile);
+		return result;
+	}
+}
@@ -0,0 +1,135 @@
+/**
+ * Aptana Studio
+ * Copyright (c) 2013 by Appcelerator, Inc. All Rights Reserved.
+ * Licensed under the terms of the GNU Public License (GPL) v3 (with exceptions).
+ * Please see the license.html included with this distribution for details.
+ * Any modifications to this file must keep this entire header intact.
+ */
+package com.aptana.internal.index.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.aptana.index.core.Index;
+import com.aptana.index.core.QueryResult;
+import com.aptana.index.core.SearchPattern;
+
+@SuppressWarnings("nls")
+public class TermDictionaryTest
+{
+	private static final String[] CATEGORIES = new String[] { "member" };
+
+	private File indexFile;
+	private DiskIndex index;
+	private Set<String> words;
+
+	@Before
+	public void setUp() throws Exception
+	{
+		indexFile = File.createTempFile("term_dictionary", ".index");
+		indexFile.delete();
+
+		DiskIndex empty = new DiskIndex(indexFile.getAbsolutePath());
+		empty.initialize(false);
+
+		// enough words to get a term dictionary built for the category
+		words = new HashSet<String>();
+		for (int i = 0; i < 100; i++)
+		{
+			words.add("Window\0prop" + i);
+			words.add("window\0func" + i);
+			words.add("Global\0Element" + i);
+		}
+		words.addAll(Arrays.asList("getElementById", "getElementsByTagName", "HTMLElement", "element",
+				"Window.alert", "Key", "key", "KEYS", "a(b)c", "na\u00efve"));
+
+		MemoryIndex memoryIndex = new MemoryIndex();
+		int i = 0;
+		for (String word : words)
+		{
+			memoryIndex.addEntry("member", word, "file" + (i++ % 7) + ".js");
+		}
+		index = empty.mergeWith(memoryIndex);
+	}
+
+	@After
+	public void tearDown() throws Exception
+	{
+		if (indexFile != null)
+		{
+			indexFile.delete();
+			indexFile = null;
+		}
+		index = null;
+		words = null;
+	}
+
+	@Test
+	public void testPatternQueriesMatchFullScan() throws Exception
+	{
+		for (String pattern : Arrays.asList("element", "ELEMENT", "get*ById", "*Element1?", "win*func", "key", "kEy",
+				"a(b)c", "na\u00efve", "xyz*", "ab", "*", "?indow", "Window.alert", "Window\\.alert"))
+		{
+			assertQuery(pattern, SearchPattern.PATTERN_MATCH);
+			assertQuery(pattern, SearchPattern.PATTERN_MATCH | SearchPattern.CASE_SENSITIVE);
+		}
+	}
+
+	@Test
+	public void testRegexQueriesMatchFullScan() throws Exception
+	{
+		for (String regex : Arrays.asList("^(\\QWindow\\E|\\QGlobal\\E)\0", "^(?:window|global)\0.*1$", "^Window\0",
+				"^getElements?By", "^win+", "^\\Qwindow\\E*", "^HTML|^key", "^[wW]indow", "^a\\(b", "Element5",
+				"^(?i)key", "^(Window|Global)?\0", "^KEY", "^\\Qa(b)\\E"))
+		{
+			assertQuery(regex, SearchPattern.REGEX_MATCH);
+			assertQuery(regex, SearchPattern.REGEX_MATCH | SearchPattern.CASE_SENSITIVE);
+		}
+	}
+
+	@Test
+	public void testRegexPrefixes() throws Exception
+	{
+		assertEquals(Arrays.asList("Global\0", "Window\0"),
+				TermDictionary.getRegexPrefixes("^(\\QWindow\\E|\\QGlobal\\E)\0"));
+		assertEquals(Arrays.asList("getElement"), TermDictionary.getRegexPrefixes("^getElements?By"));
+		assertEquals(Arrays.asList("windo"), TermDictionary.getRegexPrefixes("^\\Qwindow\\E*"));
+		assertEquals(Arrays.asList("win"), TermDictionary.getRegexPrefixes("^win+"));
+		assertEquals(Arrays.asList("a(b"), TermDictionary.getRegexPrefixes("^a\\(b"));
+
+		assertNull(TermDictionary.getRegexPrefixes("Element5"));
+		assertNull(TermDictionary.getRegexPrefixes("^HTML|^key"));
+		assertNull(TermDictionary.getRegexPrefixes("^HTML|key"));
+		assertNull(TermDictionary.getRegexPrefixes("^[wW]indow"));
+		assertNull(TermDictionary.getRegexPrefixes("^(?i)key"));
+		assertNull(TermDictionary.getRegexPrefixes("^(Window|Global)?\0"));
+		assertNull(TermDictionary.getRegexPrefixes("^(|Window)"));
+	}
+
+	private void assertQuery(String key, int matchRule) throws Exception
+	{
+		Set<String> expected = new HashSet<String>();
+		for (String word : words)
+		{
+			if (Index.isMatch(key, word, matchRule))
+			{
+				expected.add(word);
+			}
+		}
+
+		Map<String, QueryResult> results = index.addQueryResults(CATEGORIES, key, matchRule, null);
+		Set<String> actual = (results == null) ? new HashSet<String>() : results.keySet();
+
+		assertEquals(key + " (" + matchRule + ")", expected, actual);
+	}
+}
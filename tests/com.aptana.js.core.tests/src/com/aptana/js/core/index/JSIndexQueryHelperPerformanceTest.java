@@ -0,0 +1,123 @@
+/**
+ * Aptana Studio
+ * Copyright (c) 2013 by Appcelerator, Inc. All Rights Reserved.
+ * Licensed under the terms of the GNU Public License (GPL) v3 (with exceptions).
+ * Please see the license.html included with this distribution for details.
+ * Any modifications to this file must keep this entire header intact.
+ */
+package com.aptana.js.core.index;
+
+import static org.junit.Assert.assertFalse;
+
+import java.util.Collection;
+
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.test.performance.Performance;
+import org.eclipse.test.performance.PerformanceMeter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestName;
+
+import com.aptana.core.util.CollectionsUtil;
+import com.aptana.js.core.JSTypeConstants;
+import com.aptana.js.core.model.PropertyElement;
+import com.aptana.js.core.model.TypeElement;
+import com.aptana.js.internal.core.index.JSMetadataLoader;
+
+/**
+ * Times the lookups content assist makes against the JS Core index, which are dominated by decoding index values into
+ * model elements.
+ */
+@SuppressWarnings("nls")
+public class JSIndexQueryHelperPerformanceTest
+{
+	private static final int ITERATIONS = 20;
+
+	@Rule
+	public TestName name = new TestName();
+	private PerformanceMeter fPerformanceMeter;
+
+	private JSIndexQueryHelper helper;
+
+	@Before
+	public void setUp() throws Exception
+	{
+		// make sure the JS Core index is built
+		Job job = new JSMetadataLoader()
+		{
+			protected void postRebuild()
+			{
+				// do nothing
+			}
+		};
+		job.schedule();
+		job.join();
+
+		// no project means we only query the JS Core index
+		helper = new JSIndexQueryHelper((IProject) null);
+
+		Performance performance = Performance.getDefault();
+		fPerformanceMeter = performance
+				.createPerformanceMeter(getClass().getName() + '#' + name.getMethodName() + "()"); //$NON-NLS-1$
+	}
+
+	@After
+	public void tearDown() throws Exception
+	{
+		helper = null;
+		fPerformanceMeter.dispose();
+	}
+
+	@Test
+	public void testGetGlobals() throws Exception
+	{
+		for (int i = 0; i < ITERATIONS; i++)
+		{
+			fPerformanceMeter.start();
+			Collection<PropertyElement> globals = helper.getGlobals("index.html");
+			fPerformanceMeter.stop();
+
+			assertFalse(globals.isEmpty());
+		}
+		commitAndAssert();
+	}
+
+	@Test
+	public void testGetTypeMembers() throws Exception
+	{
+		for (int i = 0; i < ITERATIONS; i++)
+		{
+			fPerformanceMeter.start();
+			for (String typeName : CollectionsUtil.newList(JSTypeConstants.STRING_TYPE, JSTypeConstants.ARRAY_TYPE,
+					"Document", "HTMLElement"))
+			{
+				assertFalse(helper.getTypeMembers(CollectionsUtil.newList(typeName)).isEmpty());
+			}
+			fPerformanceMeter.stop();
+		}
+		commitAndAssert();
+	}
+
+	@Test
+	public void testGetTypesWithMembers() throws Exception
+	{
+		for (int i = 0; i < ITERATIONS; i++)
+		{
+			fPerformanceMeter.start();
+			Collection<TypeElement> types = helper.getTypes(JSTypeConstants.WINDOW_TYPE, true);
+			fPerformanceMeter.stop();
+
+			assertFalse(types.isEmpty());
+		}
+		commitAndAssert();
+	}
+
+	private void commitAndAssert()
+	{
+		fPerformanceMeter.commit();
+		Performance.getDefault().assertPerformance(fPerformanceMeter);
+	}
+}
@@ -0,0 +1,182 @@
+/**
+ * Aptana Studio
+ * Copyright (c) 2013 by Appcelerator, Inc. All Rights Reserved.
+ * Licensed under the terms of the GNU Public License (GPL) v3 (with exceptions).
+ * Please see the license.html included with this distribution for details.
+ * Any modifications to this file must keep this entire header intact.
+ */
+package com.aptana.js.core.inferencing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IProjectDescription;
+import org.eclipse.core.resources.IWorkspace;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.Path;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.aptana.core.util.FileUtil;
+
+@SuppressWarnings("nls")
+public class ModuleResolutionCacheTest
+{
+
+	/**
+	 * How long we give the file watcher to report a change.
+	 */
+	private static final long TIMEOUT = 10000;
+
+	private File baseDir;
+	private IPath dir;
+	private ModuleResolutionCache cache;
+	private IProject project;
+
+	@Before
+	public void setUp() throws Exception
+	{
+		IPath baseDirPath = FileUtil.getTempDirectory().append("module_cache" + System.currentTimeMillis());
+		baseDir = baseDirPath.toFile();
+		dir = baseDirPath.append("parent").append("child");
+		assertTrue(dir.toFile().mkdirs());
+		cache = RequireResolverFactory.getCache();
+		cache.clear();
+	}
+
+	@After
+	public void tearDown() throws Exception
+	{
+		try
+		{
+			if (project != null)
+			{
+				project.delete(true, null);
+			}
+			cache.clear();
+			FileUtil.deleteRecursively(baseDir);
+		}
+		finally
+		{
+			project = null;
+		}
+	}
+
+	@Test
+	public void testSecondResolutionIsAHit() throws Exception
+	{
+		IPath expected = dir.append("sibling.js");
+		expected.toFile().createNewFile();
+
+		assertEquals(expected, RequireResolverFactory.resolve("./sibling", null, dir, dir));
+		long hits = cache.getHitCount();
+		assertEquals(expected, RequireResolverFactory.resolve("./sibling", null, dir, dir));
+		assertTrue(cache.getHitCount() > hits);
+		assertTrue(cache.getProbeCount() > 0);
+	}
+
+	@Test
+	public void testClearForgetsResolutions() throws Exception
+	{
+		IPath js = dir.append("sibling.js");
+		js.toFile().createNewFile();
+		assertEquals(js, RequireResolverFactory.resolve("./sibling", null, dir, dir));
+
+		// Without a project there's nothing to watch, so changes go unnoticed...
+		js.toFile().delete();
+		IPath node = dir.append("sibling.node");
+		node.toFile().createNewFile();
+		assertEquals(js, RequireResolverFactory.resolve("./sibling", null, dir, dir));
+
+		// ...until the cache is cleared
+		cache.clear();
+		assertEquals(node, RequireResolverFactory.resolve("./sibling", null, dir, dir));
+	}
+
+	@Test
+	public void testPutAfterClearIsDropped() throws Exception
+	{
+		IPath js = dir.append("sibling.js");
+		long generation = cache.getGeneration(null);
+		cache.clear();
+		cache.put("./sibling", null, dir, dir, js, generation);
+
+		IPath[] resolved = new IPath[1];
+		assertFalse(cache.get("./sibling", null, dir, dir, resolved));
+
+		// a resolution that started after the clear is kept
+		cache.put("./sibling", null, dir, dir, js, cache.getGeneration(null));
+		assertTrue(cache.get("./sibling", null, dir, dir, resolved));
+		assertEquals(js, resolved[0]);
+	}
+
+	@Test
+	public void testModulesInstalledOutsideWorkspace() throws Exception
+	{
+		project = createProject();
+		IPath location = project.getLocation();
+		IPath nodeModules = location.append("node_modules");
+		assertNull(RequireResolverFactory.resolve("cache_test_first", project, location, location));
+
+		// node_modules shows up from outside the workspace, without a refresh
+		File staging = new File(baseDir, "staging");
+		createModule(new File(staging, "node_modules"), "cache_test_first");
+		assertTrue(new File(staging, "node_modules").renameTo(nodeModules.toFile()));
+		assertEquals(nodeModules.append("cache_test_first").append("index.js"),
+				waitForResolution("cache_test_first", location));
+
+		// and then another module is installed into it
+		assertNull(RequireResolverFactory.resolve("cache_test_second", project, location, location));
+		createModule(staging, "cache_test_second");
+		assertTrue(new File(staging, "cache_test_second").renameTo(nodeModules.append("cache_test_second").toFile()));
+		assertEquals(nodeModules.append("cache_test_second").append("index.js"),
+				waitForResolution("cache_test_second", location));
+	}
+
+	/**
+	 * Resolves the module id until it resolves, or we give up on the file watcher.
+	 */
+	private IPath waitForResolution(String moduleId, IPath location) throws InterruptedException
+	{
+		long end = System.currentTimeMillis() + TIMEOUT;
+		IPath resolved = RequireResolverFactory.resolve(moduleId, project, location, location);
+		while (resolved == null && System.currentTimeMillis() < end)
+		{
+			Thread.sleep(100);
+			resolved = RequireResolverFactory.resolve(moduleId, project, location, location);
+		}
+		return resolved;
+	}
+
+	private void createModule(File parent, String moduleId) throws IOException
+	{
+		File module = new File(parent, moduleId);
+		assertTrue(module.mkdirs());
+		assertTrue(new File(module, "index.js").createNewFile());
+	}
+
+	private IProject createProject() throws CoreException
+	{
+		String projectName = "ModuleResolutionCacheTest" + System.currentTimeMillis();
+		File projectFolder = new File(baseDir, projectName);
+		projectFolder.mkdirs();
+
+		IWorkspace workspace = ResourcesPlugin.getWorkspace();
+		IProjectDescription description = workspace.newProjectDescription(projectName);
+		description.setLocation(new Path(projectFolder.getAbsolutePath()));
+
+		IProject project = workspace.getRoot().getProject(projectName);
+		project.create(description, null);
+		project.open(null);
+		return project;
+	}
+}
@@ -10,12 +10,13 @@ import junit.framework.TestCase;
 import junit.framework.TestResult;
 import junit.framework.TestSuite;
 
+import com.aptana.js.core.index.JSIndexQueryHelperPerformanceTest;
 import com.aptana.js.core.parsing.JSFlexScannerPerformanceTest;
 import com.aptana.js.core.parsing.JSParserPerformanceTest;
 import com.aptana.js.internal.core.parsing.sdoc.SDocParserPerformanceTest;
 
 @RunWith(Suite.class)
-@SuiteClasses({JSFlexScannerPerformanceTest.class, JSParserPerformanceTest.class, SDocParserPerformanceTest.class, })
+@SuiteClasses({JSFlexScannerPerformanceTest.class, JSParserPerformanceTest.class, SDocParserPerformanceTest.class, JSIndexQueryHelperPerformanceTest.class, })
 public class PerformanceTests
 {
 
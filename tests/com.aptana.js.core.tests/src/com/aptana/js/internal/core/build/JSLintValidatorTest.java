@@ -9,6 +9,7 @@ package com.aptana.js.internal.core.build;
 
 import static org.junit.Assert.assertEquals;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
@@ -113,6 +114,51 @@ public class JSLintValidatorTest extends AbstractValidatorTestCase
 		assertProblemExists(items, "'foo' is already defined.", 3, IMarker.SEVERITY_WARNING, 42);
 	}
 
+	@Test
+	public void testLintsConcurrently() throws Exception
+	{
+		final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++)
+		{
+			final int id = t;
+			threads[t] = new Thread()
+			{
+				@Override
+				public void run()
+				{
+					try
+					{
+						for (int i = 0; i < 10; i++)
+						{
+							// unique names, so each file goes through JSLint rather than the results cache
+							String name = "foo" + id + "x" + i + "x" + System.nanoTime();
+							// @formatter:off
+							String text = "function bar() {\n" +
+									"    var " + name + " = 1;\n" +
+									"    var " + name + " = 2;\n" +
+									"}";
+							// @formatter:on
+							List<IProblem> items = getParseErrors(text);
+							assertProblemExists(items, "'" + name + "' is already defined.", 3,
+									IMarker.SEVERITY_WARNING, 39 + name.length());
+						}
+					}
+					catch (Throwable e)
+					{
+						failures.add(e);
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread thread : threads)
+		{
+			thread.join();
+		}
+		assertEquals(failures.toString(), 0, failures.size());
+	}
+
 	@Test
 	public void testAlreadyDefinedOK1() throws CoreException
 	{
@@ -8,14 +8,19 @@
 package com.aptana.js.internal.core.inferencing;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
+import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.Path;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Rule;
@@ -34,6 +39,7 @@ public class NodeModuleResolverTest
 	private File baseDir;
 	private IPath dir;
 	private IPath nodeSrcPath;
+	private Map<String, String> environment;
 	private NodeModuleResolver resolver;
 
 	@Before
@@ -54,13 +60,34 @@ public class NodeModuleResolverTest
 			{
 				return nodeSrcPath;
 			}
+
+			@Override
+			protected Map<String, String> getEnvironment(IPath location)
+			{
+				return (environment == null) ? super.getEnvironment(location) : environment;
+			}
+
+			@Override
+			protected synchronized IPath getModulesPath() throws CoreException
+			{
+				return (environment == null) ? super.getModulesPath() : null;
+			}
 		};
 	}
 
 	@After
 	public void tearDown() throws Exception
 	{
-		FileUtil.deleteRecursively(baseDir);
+		try
+		{
+			resolver.dispose();
+			FileUtil.deleteRecursively(baseDir);
+		}
+		finally
+		{
+			resolver = null;
+			environment = null;
+		}
 	}
 
 	@Test
@@ -194,8 +221,26 @@ public class NodeModuleResolverTest
 		assertTrue(moduleIds.contains("util"));
 	}
 
+	@Test
+	public void testGlobalFoldersFollowEnvironment() throws Exception
+	{
+		IPath base = Path.fromOSString(baseDir.getAbsolutePath());
+		IPath one = createNodeDirectory(base.append("global_one"), "shared", "one.js");
+		IPath two = createNodeDirectory(base.append("global_two"), "shared", "two.js");
+
+		environment = new HashMap<String, String>();
+		environment.put("NODE_PATH", base.append("global_one").toOSString());
+		assertEquals(one, resolver.resolve("shared", null, dir, null));
+
+		// NODE_PATH changed (or this is a project with another environment), the folders have to follow
+		environment.put("NODE_PATH", base.append("global_two").toOSString());
+		assertEquals(two, resolver.resolve("shared", null, dir, null));
+
+		environment.remove("NODE_PATH");
+		assertNull(resolver.resolve("shared", null, dir, null));
+	}
+
 	// TODO Add test for "node" file underneath node_modules dir above the current location
-	// TODO Add test for file in $NODE_PATH
 
 	private IPath createNodeDirectory(IPath parent, String dirName, String mainFilename) throws IOException
 	{
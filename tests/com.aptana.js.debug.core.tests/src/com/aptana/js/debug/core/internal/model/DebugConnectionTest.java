@@ -0,0 +1,125 @@
+package com.aptana.js.debug.core.internal.model;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.PipedReader;
+import java.io.PipedWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.aptana.js.debug.core.model.IJSDebugConnectionHandler;
+
+public class DebugConnectionTest
+{
+
+	private static final Pattern MESSAGE = Pattern.compile("(\\d+)\\*(\\d+)\\*");
+
+	private DebugConnection connection;
+	private PipedWriter responses;
+	private StringWriter requests;
+
+	@Before
+	public void setUp() throws Exception
+	{
+		responses = new PipedWriter();
+		requests = new StringWriter();
+		connection = new DebugConnection(null, new PipedReader(responses), requests, null);
+		connection.start(new IJSDebugConnectionHandler()
+		{
+			public void handleMessage(String message)
+			{
+			}
+
+			public void handleShutdown()
+			{
+			}
+		});
+	}
+
+	@After
+	public void tearDown() throws Exception
+	{
+		connection.stop();
+		responses.close();
+		connection = null;
+		responses = null;
+		requests = null;
+	}
+
+	@Test
+	public void testResponsesOutOfOrderGoToTheirCommands() throws Exception
+	{
+		List<String> commands = new ArrayList<String>();
+		commands.add("frames");
+		commands.add("variables*frame[0]");
+		List<Future<String[]>> futures = connection.sendCommandsAsync(commands);
+		assertEquals(2, futures.size());
+
+		List<String> reqids = getRequestIds();
+		assertEquals(2, reqids.size());
+		assertFalse(reqids.get(0).equals(reqids.get(1)));
+
+		respond(reqids.get(1) + "*x|number||1");
+		assertArrayEquals(new String[] { reqids.get(1), "x|number||1" },
+				futures.get(1).get(5, TimeUnit.SECONDS));
+		assertFalse(futures.get(0).isDone());
+
+		respond(reqids.get(0) + "*0|function|||1|0|0|0");
+		assertArrayEquals(new String[] { reqids.get(0), "0|function|||1|0|0|0" },
+				futures.get(0).get(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testStopCompletesPendingCommands() throws Exception
+	{
+		Future<String[]> future = connection.sendCommandAsync("frames");
+		assertFalse(future.isDone());
+		connection.stop();
+		assertTrue(future.isDone());
+		assertNull(future.get());
+	}
+
+	@Test
+	public void testCancelledCommandIgnoresLateResponse() throws Exception
+	{
+		Future<String[]> future = connection.sendCommandAsync("frames");
+		assertTrue(future.cancel(false));
+		assertTrue(future.isCancelled());
+		assertTrue(future.isDone());
+		assertFalse(future.cancel(false));
+
+		// a late response doesn't find anything waiting for it
+		respond(getRequestIds().get(0) + "*late");
+		assertTrue(future.isCancelled());
+	}
+
+	private List<String> getRequestIds()
+	{
+		List<String> reqids = new ArrayList<String>();
+		Matcher matcher = MESSAGE.matcher(requests.toString());
+		while (matcher.find())
+		{
+			reqids.add(matcher.group(2));
+		}
+		return reqids;
+	}
+
+	private void respond(String message) throws Exception
+	{
+		responses.write(message.length() + "*" + message);
+		responses.flush();
+	}
+}
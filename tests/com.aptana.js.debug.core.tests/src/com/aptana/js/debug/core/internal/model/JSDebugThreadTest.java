@@ -88,6 +88,8 @@ public class JSDebugThreadTest
 
 				oneOf(target).getOriginalMappedLocation(uri, 3);
 				will(returnValue(null));
+
+				oneOf(target).prefetchVariables(with(any(String.class)), with(equal(new String[] { "frame[0]" })));
 			}
 		});
 		// no stack frames, no breakpoints
@@ -0,0 +1,161 @@
+/**
+ * Aptana Studio
+ * Copyright (c) 2005-2013 by Appcelerator, Inc. All Rights Reserved.
+ * Licensed under the terms of the GNU Public License (GPL) v3 (with exceptions).
+ * Please see the license.html included with this distribution for details.
+ * Any modifications to this file must keep this entire header intact.
+ */
+package com.aptana.parsing.pool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.aptana.internal.parsing.ParserPool;
+import com.aptana.parsing.AbstractParser;
+import com.aptana.parsing.IParseState;
+import com.aptana.parsing.IParser;
+import com.aptana.parsing.ParserPoolStatistics;
+import com.aptana.parsing.WorkingParseResult;
+
+public class ParserPoolTest
+{
+
+	private static final class Parser extends AbstractParser
+	{
+		protected void parse(IParseState parseState, WorkingParseResult working) throws Exception
+		{
+			// nothing to parse
+		}
+	}
+
+	private ParserPool pool;
+
+	@Before
+	public void setUp() throws Exception
+	{
+		pool = new ParserPool(null, 2)
+		{
+			@Override
+			public IParser create()
+			{
+				return new Parser();
+			}
+		};
+	}
+
+	@After
+	public void tearDown() throws Exception
+	{
+		pool.dispose();
+		pool = null;
+	}
+
+	@Test
+	public void testSameThreadGetsSameParser() throws Exception
+	{
+		IParser parser = pool.checkOut();
+		assertNotNull(parser);
+		pool.checkIn(parser);
+		assertSame(parser, pool.checkOut());
+		pool.checkIn(parser);
+
+		ParserPoolStatistics statistics = pool.getStatistics();
+		assertEquals(2, statistics.getCheckouts());
+		assertEquals(1, statistics.getAffinityHits());
+		assertEquals(1, statistics.getCreations());
+		assertEquals(1, statistics.getSize());
+		assertEquals(0, statistics.getInUse());
+	}
+
+	@Test
+	public void testCheckOutWaitsWhenPoolIsExhausted() throws Exception
+	{
+		final IParser first = pool.checkOut();
+		IParser second = pool.checkOut();
+		assertTrue(first != second);
+		assertEquals(2, pool.getStatistics().getInUse());
+
+		final AtomicReference<IParser> third = new AtomicReference<IParser>();
+		Thread thread = new Thread()
+		{
+			@Override
+			public void run()
+			{
+				third.set(pool.checkOut());
+			}
+		};
+		thread.start();
+		Thread.sleep(100);
+		pool.checkIn(first);
+		thread.join(5000);
+
+		assertSame(first, third.get());
+		ParserPoolStatistics statistics = pool.getStatistics();
+		assertEquals(2, statistics.getCreations());
+		assertEquals(1, statistics.getWaits());
+		assertEquals(2, statistics.getHighWaterMark());
+		assertEquals(2, statistics.getSize());
+		pool.checkIn(second);
+		pool.checkIn(third.get());
+		assertEquals(0, pool.getStatistics().getInUse());
+	}
+
+	@Test
+	public void testDoubleCheckInIsHarmless() throws Exception
+	{
+		IParser parser = pool.checkOut();
+		pool.checkIn(parser);
+		pool.checkIn(parser);
+		assertEquals(0, pool.getStatistics().getInUse());
+		assertEquals(2, pool.getStatistics().getMaxSize());
+	}
+
+	@Test
+	public void testFailedCreateReleasesPermit() throws Exception
+	{
+		pool.dispose();
+		pool = new ParserPool(null, 1)
+		{
+			private boolean failed;
+
+			@Override
+			public IParser create()
+			{
+				if (!failed)
+				{
+					failed = true;
+					throw new IllegalStateException("parser extension is broken");
+				}
+				return new Parser();
+			}
+		};
+		try
+		{
+			pool.checkOut();
+			fail("Expected the failure creating the parser to reach the caller");
+		}
+		catch (IllegalStateException e)
+		{
+			// expected
+		}
+		assertEquals(0, pool.getStatistics().getInUse());
+		assertEquals(0, pool.getStatistics().getSize());
+
+		// the only permit is back, so this doesn't have to wait
+		IParser parser = pool.checkOut();
+		assertNotNull(parser);
+		assertEquals(0, pool.getStatistics().getWaits());
+		assertEquals(1, pool.getStatistics().getSize());
+		pool.checkIn(parser);
+		assertEquals(0, pool.getStatistics().getInUse());
+	}
+}
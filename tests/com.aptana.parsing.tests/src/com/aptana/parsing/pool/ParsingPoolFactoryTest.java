@@ -8,10 +8,10 @@
 package com.aptana.parsing.pool;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
-import java.lang.reflect.Constructor;
-import java.lang.reflect.Field;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Queue;
@@ -22,14 +22,13 @@ import org.junit.Test;
 
 import beaver.Symbol;
 
-import com.aptana.core.epl.util.LRUCacheWithSoftPrunedValues;
 import com.aptana.parsing.AbstractParser;
 import com.aptana.parsing.IParseState;
 import com.aptana.parsing.IParseStateCacheKey;
 import com.aptana.parsing.IParser;
 import com.aptana.parsing.IParserPool;
+import com.aptana.parsing.ParseCacheStatistics;
 import com.aptana.parsing.ParseState;
-import com.aptana.parsing.ParseStateCacheKey;
 import com.aptana.parsing.ParseStateCacheKeyWithComments;
 import com.aptana.parsing.ParsingEngine;
 import com.aptana.parsing.WorkingParseResult;
@@ -393,7 +392,6 @@ public class ParsingPoolFactoryTest
 
 	}
 
-	@SuppressWarnings({ "rawtypes" })
 	@Test
 	public void testParseWithSubParses() throws Exception
 	{
@@ -404,47 +402,47 @@ public class ParsingPoolFactoryTest
 		contentTypeToPool.put("mainContent", new ParserPool(mainParser));
 		contentTypeToPool.put("subContent", new ParserPool(subParser));
 
-		parsingEngine = new ParsingEngine(new ParserPoolProvider(contentTypeToPool), 4, 0)
+		// A budget that fits a single (childless) AST.
+		parsingEngine = new ParsingEngine(new ParserPoolProvider(contentTypeToPool), 64, 0)
 		{
 			// Empty body just to access protected constructor.
 		};
 
-		// Change the cache for a cache with an auxiliary cache that's predictable.
-		Field declaredField = ParsingEngine.class.getDeclaredField("fParseCache");
-		declaredField.setAccessible(true);
-		Map auxiliaryCache = new HashMap();
-		Constructor<LRUCacheWithSoftPrunedValues> constructor = LRUCacheWithSoftPrunedValues.class
-				.getDeclaredConstructor(int.class, Map.class);
-		constructor.setAccessible(true);
-		LRUCacheWithSoftPrunedValues cache = constructor.newInstance(4, auxiliaryCache);
-		declaredField.set(parsingEngine, cache);
-
 		mainParser.setParsingEngine(parsingEngine);
 
-		// In the end, the mainContent should be in the LRU, while the subContent should be in the auxiliary cache.
+		// In the end, the mainContent should be in the cache, while the subContent should have been evicted.
 		parsingEngine.parse("mainContent", new ParseState("main"));
 
-		assertEquals(1, cache.keys().size());
-		for (Object key : cache.keys())
-		{
-			ParseStateCacheKey cacheKey = (ParseStateCacheKey) key;
-			Object content = cacheKey.getAt(0);
-			if (!"mainContent".equals(content))
-			{
-				fail("Could not find mainContent in LRU main memory. Found: " + content);
-			}
-		}
-		assertEquals(3, auxiliaryCache.size());
-		for (Object key : auxiliaryCache.keySet())
-		{
-			ParseStateCacheKey cacheKey = (ParseStateCacheKey) key;
-			Object content = cacheKey.getAt(0);
-			if (!"subContent".equals(content))
-			{
-				fail("Could not find subContent in LRU main memory. Found: " + content);
-			}
-		}
+		ParseCacheStatistics statistics = parsingEngine.getCacheStatistics();
+		assertEquals(4, statistics.getMisses());
+		assertEquals(3, statistics.getEvictions());
+		assertEquals(1, statistics.getSize());
 
+		// parsing the main content again is a hit, and doesn't trigger the sub-parses
+		parsingEngine.parse("mainContent", new ParseState("main"));
+
+		statistics = parsingEngine.getCacheStatistics();
+		assertEquals(1, statistics.getHits());
+		assertEquals(4, statistics.getMisses());
+	}
+
+	@Test
+	public void testCacheStatistics() throws Exception
+	{
+		queue.add(parseRootNode);
+		parsingEngine.parse("test", new ParseState("", 0));
+		parsingEngine.parse("test", new ParseState("", 0));
+
+		ParseCacheStatistics statistics = parsingEngine.getCacheStatistics();
+		assertEquals(1, statistics.getHits());
+		assertEquals(1, statistics.getMisses());
+		assertEquals(0, statistics.getEvictions());
+		assertEquals(1, statistics.getSize());
+		assertTrue(statistics.getFootprint() > 0);
+		assertTrue(statistics.getFootprint() <= statistics.getBudget());
+
+		parsingEngine.dispose();
+		assertNull(parsingEngine.getCacheStatistics());
 	}
 
 }
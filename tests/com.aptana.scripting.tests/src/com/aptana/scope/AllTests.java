@@ -15,7 +15,7 @@ import junit.framework.TestResult;
 import junit.framework.TestSuite;
 
 @RunWith(Suite.class)
-@SuiteClasses({ScopeSelectorTests.class, AndSelectorTests.class, NameSelectorTests.class, OrSelectorTests.class, NegativeLookaheadTests.class, })
+@SuiteClasses({ScopeSelectorTests.class, AndSelectorTests.class, NameSelectorTests.class, OrSelectorTests.class, NegativeLookaheadTests.class, ScopeSelectorIndexTests.class, })
 public class AllTests
 {
 //	public static Test suite()
@@ -0,0 +1,176 @@
+/**
+ * Aptana Studio
+ * Copyright (c) 2014 by Appcelerator, Inc. All Rights Reserved.
+ * Licensed under the terms of the GNU Public License (GPL) v3 (with exceptions).
+ * Please see the license.html included with this distribution for details.
+ * Any modifications to this file must keep this entire header intact.
+ */
+package com.aptana.scope;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.aptana.scripting.model.CommandElement;
+
+@SuppressWarnings("nls")
+public class ScopeSelectorIndexTests
+{
+	private static final String[] SELECTORS = new String[] {
+		"source.ruby",
+		"source.ruby string",
+		"text.html source.js, source.js",
+		"source - string",
+		"source.ruby - (string comment)",
+		"(string | comment)",
+		"string & source",
+		"meta.tag.block",
+		"text",
+		"comment, meta.tag",
+		"source.rubyx",
+		"all",
+		null,
+	};
+
+	private static final String[] SCOPES = new String[] {
+		"source.ruby",
+		"source.ruby string.quoted.double",
+		"text.html.basic source.js.embedded.html",
+		"source.js",
+		"comment.line",
+		"  source.ruby comment",
+		"meta.tag.block.any",
+		"source.rubyx.other",
+		"sourcex.ruby",
+		"text",
+		"",
+		null,
+	};
+
+	/**
+	 * testCandidatesAgreeWithLinearScan
+	 */
+	@Test
+	public void testCandidatesAgreeWithLinearScan()
+	{
+		List<CommandElement> elements = createElements();
+		ScopeSelectorIndex<CommandElement> index = new ScopeSelectorIndex<CommandElement>(elements);
+
+		assertEquals(elements.size(), index.size());
+
+		for (String scope : SCOPES)
+		{
+			assertCandidates(elements, index, new String[] { scope });
+		}
+
+		// and scopes combined
+		for (int i = 0; i < SCOPES.length; i++)
+		{
+			assertCandidates(elements, index, new String[] { SCOPES[i], SCOPES[(i + 3) % SCOPES.length] });
+		}
+	}
+
+	/**
+	 * testCandidatesKeepOrder
+	 */
+	@Test
+	public void testCandidatesKeepOrder()
+	{
+		List<CommandElement> elements = createElements();
+		ScopeSelectorIndex<CommandElement> index = new ScopeSelectorIndex<CommandElement>(elements);
+		List<CommandElement> candidates = index.getCandidates(new String[] { "source.ruby string", "meta.tag" });
+
+		int last = -1;
+
+		for (CommandElement candidate : candidates)
+		{
+			int position = elements.indexOf(candidate);
+
+			assertTrue(position > last);
+			last = position;
+		}
+	}
+
+	/**
+	 * testAtoms
+	 */
+	@Test
+	public void testAtoms()
+	{
+		assertAtoms(new ScopeSelector("source.ruby.embedded"), "source");
+		assertAtoms(new ScopeSelector("text.html source.js"), "text");
+		assertAtoms(new ScopeSelector("source.js, text.html"), "source", "text");
+		assertAtoms(new ScopeSelector("source - string"), "source");
+		assertAtoms(new ScopeSelector("(string | comment) & source"), "source");
+
+		assertNull(ScopeSelectorIndex.getAtoms(new MatchAnyScopeSelector()));
+		assertNull(ScopeSelectorIndex.getAtoms(null));
+	}
+
+	/**
+	 * testNothingToLookFor
+	 */
+	@Test
+	public void testNothingToLookFor()
+	{
+		ScopeSelectorIndex<CommandElement> index = new ScopeSelectorIndex<CommandElement>(createElements());
+
+		assertTrue(index.getCandidates(null).isEmpty());
+		assertTrue(new ScopeSelectorIndex<CommandElement>(new ArrayList<CommandElement>()).getCandidates(
+				new String[] { "source.ruby" }).isEmpty());
+	}
+
+	private List<CommandElement> createElements()
+	{
+		List<CommandElement> elements = new ArrayList<CommandElement>();
+
+		for (int i = 0; i < SELECTORS.length; i++)
+		{
+			CommandElement command = new CommandElement("/tmp/bundle/commands/command" + i + ".rb");
+
+			command.setDisplayName("command" + i);
+			command.setScope(SELECTORS[i]);
+			elements.add(command);
+		}
+
+		return elements;
+	}
+
+	private void assertCandidates(List<CommandElement> elements, ScopeSelectorIndex<CommandElement> index,
+			String[] scopes)
+	{
+		List<CommandElement> expected = new ArrayList<CommandElement>();
+
+		for (CommandElement element : elements)
+		{
+			if (element.matches(scopes))
+			{
+				expected.add(element);
+			}
+		}
+
+		List<CommandElement> actual = new ArrayList<CommandElement>();
+
+		for (CommandElement candidate : index.getCandidates(scopes))
+		{
+			if (candidate.matches(scopes))
+			{
+				actual.add(candidate);
+			}
+		}
+
+		assertEquals(Arrays.toString(scopes), expected, actual);
+	}
+
+	private void assertAtoms(IScopeSelector selector, String... atoms)
+	{
+		assertEquals(new HashSet<String>(Arrays.asList(atoms)), ScopeSelectorIndex.getAtoms(selector));
+	}
+}
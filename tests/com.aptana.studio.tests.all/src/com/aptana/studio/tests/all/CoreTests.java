@@ -21,6 +21,7 @@ import com.aptana.core.tests.StdErrLoggingSuite;
 	com.aptana.core.tests.AllTests.class,
 	com.aptana.css.core.tests.AllTests.class,
 	com.aptana.dtd.core.tests.AllTests.class,
+	com.aptana.filewatcher.AllTests.class,
 	// com.aptana.filesystem.ftp.tests.AllTests.class, // TODO Re-enable when FTP server is set back up?
 	com.aptana.filesystem.http.tests.AllTests.class,
 	// com.aptana.filesystem.secureftp.tests.AllTests.class, // TODO Re-enable when FTP server is set back up?
@@ -23,6 +23,7 @@ import com.aptana.editor.common.internal.commands.NextPreviousEditorHandlerTest;
 	com.aptana.editor.css.tests.AllTests.class,
 	com.aptana.editor.css.formatter.tests.AllTests.class,
 	com.aptana.editor.dtd.AllTests.class,
+	com.aptana.editor.findbar.AllTests.class,
 	com.aptana.editor.html.tests.AllTests.class,
 	com.aptana.editor.html.formatter.tests.AllTests.class,
 	com.aptana.editor.js.tests.AllTests.class,
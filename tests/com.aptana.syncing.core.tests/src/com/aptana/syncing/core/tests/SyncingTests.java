@@ -34,6 +34,7 @@ import org.eclipse.core.runtime.Path;
 import com.aptana.core.io.efs.EFSUtils;
 import com.aptana.core.logging.IdeLog;
 import com.aptana.core.util.FileUtil;
+import com.aptana.core.util.IOUtil;
 import com.aptana.ide.core.io.ConnectionContext;
 import com.aptana.ide.core.io.CoreIOPlugin;
 import com.aptana.ide.core.io.IConnectionPoint;
@@ -2112,6 +2113,95 @@ public abstract class SyncingTests
 		assertEquals(1, syncManager.getServerFileTransferedCount());
 	}
 
+	/**
+	 * testConcurrentUpload
+	 * 
+	 * @throws IOException
+	 * @throws CoreException
+	 */
+	@Test
+	public void testConcurrentUpload() throws IOException, CoreException
+	{
+		long currentTime = new Date().getTime();
+		this.createClientDirectory("a/b", currentTime); //$NON-NLS-1$
+		for (int i = 0; i < CONCURRENT_PATHS.length; i++)
+		{
+			this.createClientFile(CONCURRENT_PATHS[i], currentTime, getConcurrentContent(i));
+		}
+
+		Synchronizer syncManager = new Synchronizer(false, 10);
+		syncManager.setMaxConcurrentTransfers(4);
+		VirtualFileSyncPair[] items = syncManager.getSyncItems(clientManager, serverManager, clientDirectory,
+				serverDirectory, null);
+
+		// sync
+		assertTrue(syncManager.upload(items, null));
+
+		// check server counts
+		assertEquals(2, syncManager.getServerDirectoryCreatedCount());
+		assertEquals(CONCURRENT_PATHS.length, syncManager.getClientFileTransferedCount());
+		assertEquals(CONCURRENT_PATHS.length + 2, syncManager.getNewFilesUploaded().length);
+
+		for (int i = 0; i < CONCURRENT_PATHS.length; i++)
+		{
+			IFileStore serverFile = getFile(serverDirectory, CONCURRENT_PATHS[i]);
+			assertEquals(getConcurrentContent(i), IOUtil.read(serverFile.openInputStream(EFS.NONE, null)));
+		}
+	}
+
+	/**
+	 * testConcurrentDownload
+	 * 
+	 * @throws IOException
+	 * @throws CoreException
+	 */
+	@Test
+	public void testConcurrentDownload() throws IOException, CoreException
+	{
+		long currentTime = new Date().getTime();
+		this.createServerDirectory("a/b", currentTime); //$NON-NLS-1$
+		for (int i = 0; i < CONCURRENT_PATHS.length; i++)
+		{
+			this.createServerFile(CONCURRENT_PATHS[i], currentTime, getConcurrentContent(i));
+		}
+
+		Synchronizer syncManager = new Synchronizer(false, 10);
+		syncManager.setMaxConcurrentTransfers(4);
+		VirtualFileSyncPair[] items = syncManager.getSyncItems(clientManager, serverManager, clientDirectory,
+				serverDirectory, null);
+
+		// sync
+		assertTrue(syncManager.download(items, null));
+
+		// check client counts
+		assertEquals(2, syncManager.getClientDirectoryCreatedCount());
+		assertEquals(CONCURRENT_PATHS.length, syncManager.getServerFileTransferedCount());
+		assertEquals(CONCURRENT_PATHS.length + 2, syncManager.getNewFilesDownloaded().length);
+
+		for (int i = 0; i < CONCURRENT_PATHS.length; i++)
+		{
+			IFileStore clientFile = getFile(clientDirectory, CONCURRENT_PATHS[i]);
+			assertEquals(getConcurrentContent(i), IOUtil.read(clientFile.openInputStream(EFS.NONE, null)));
+		}
+	}
+
+	private static final String[] CONCURRENT_PATHS = { "one.txt", "a/two.txt", "a/three.txt", "a/b/four.txt",
+			"a/b/five.txt", "a/b/six.txt" };
+
+	/**
+	 * Contents of a different size for each file, so that the largest first order differs from the list order.
+	 */
+	private static String getConcurrentContent(int index)
+	{
+		StringBuilder content = new StringBuilder();
+		int lines = ((index * 7) % CONCURRENT_PATHS.length + 1) * 500;
+		for (int i = 0; i < lines; i++)
+		{
+			content.append(CONCURRENT_PATHS[index]).append(' ').append(i).append('\n');
+		}
+		return content.toString();
+	}
+
 	protected void assertSyncPairLength(int length, VirtualFileSyncPair[] items)
 	{
 		if (items.length != length)
@@ -5,6 +5,10 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.FilenameFilter;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -33,6 +37,7 @@ public class AnalyticsLoggerTest
 	@After
 	public void tearDown() throws Exception
 	{
+		logger.flush();
 		FileUtil.deleteRecursively(dir.toFile());
 		dir = null;
 		logger = null;
@@ -45,20 +50,18 @@ public class AnalyticsLoggerTest
 		payload.put("key1", "value1");
 		AnalyticsEvent event = new AnalyticsEvent("testing", "testLogEvent", payload);
 		logger.logEvent(event);
-		File file = dir.append(event.hashCode() + ".json").toFile();
-		assertTrue(file.exists());
-		assertTrue(file.isFile());
+		logger.flush();
+		assertEquals(1, getSegments().length);
 
 		List<AnalyticsEvent> events = logger.getEvents();
 		assertEquals(1, events.size());
 		assertEquals(event, events.get(0));
 
 		logger.clearEvent(event);
-		assertFalse(file.exists());
-		assertFalse(file.isFile());
-
 		events = logger.getEvents();
 		assertEquals(0, events.size());
+		// nothing left worth keeping
+		assertEquals(0, getSegments().length);
 	}
 
 	@Test
@@ -68,30 +71,168 @@ public class AnalyticsLoggerTest
 		payload.put("key1", "value1");
 		AnalyticsEvent event1 = new AnalyticsEvent("testing", "testClearEvents", payload);
 		logger.logEvent(event1);
-		File eventFile1 = dir.append(event1.hashCode() + ".json").toFile();
-		assertTrue(eventFile1.exists());
-		assertTrue(eventFile1.isFile());
 
 		Map<String, String> payload2 = new HashMap<String, String>();
 		payload.put("key2", "value2");
 		AnalyticsEvent event2 = new AnalyticsEvent("testing", "testClearEvents2", payload2);
 		logger.logEvent(event2);
-		File eventFile2 = dir.append(event2.hashCode() + ".json").toFile();
-		assertTrue(eventFile2.exists());
-		assertTrue(eventFile2.isFile());
 
 		List<AnalyticsEvent> events = logger.getEvents();
 		assertEquals(2, events.size());
 		assertTrue(events.contains(event1));
 		assertTrue(events.contains(event2));
+		assertTrue(getSegments().length > 0);
 
 		logger.clearEvents();
-		assertFalse(eventFile1.exists());
-		assertFalse(eventFile1.isFile());
-		assertFalse(eventFile2.exists());
-		assertFalse(eventFile2.isFile());
+		assertEquals(0, getSegments().length);
 
 		events = logger.getEvents();
 		assertEquals(0, events.size());
 	}
+
+	@Test
+	public void testEventsSurviveReopening()
+	{
+		List<AnalyticsEvent> logged = logEvents(10);
+		logger.clearEvent(logged.get(3));
+		logger.flush();
+
+		logger = new AnalyticsLogger(dir);
+		List<AnalyticsEvent> events = logger.getEvents();
+		assertEquals(9, events.size());
+		assertFalse(events.contains(logged.get(3)));
+		assertEquals(logged.get(0), events.get(0));
+		assertEquals(logged.get(9), events.get(8));
+	}
+
+	@Test
+	public void testGetEventsInBatches()
+	{
+		List<AnalyticsEvent> logged = logEvents(25);
+		List<AnalyticsEvent> read = new ArrayList<AnalyticsEvent>();
+		List<AnalyticsEvent> batch;
+		while (!(batch = logger.getEvents(10)).isEmpty())
+		{
+			assertTrue(batch.size() <= 10);
+			read.addAll(batch);
+			logger.clearEvents(batch);
+		}
+		assertEquals(logged, read);
+		assertEquals(0, getSegments().length);
+	}
+
+	@Test
+	public void testSegmentsRotateAndGetDeletedOnceCleared()
+	{
+		StringBuilder value = new StringBuilder();
+		for (int i = 0; i < 1024; i++)
+		{
+			value.append("0123456789");
+		}
+		List<AnalyticsEvent> logged = new ArrayList<AnalyticsEvent>();
+		for (int i = 0; i < 60; i++)
+		{
+			Map<String, String> payload = new HashMap<String, String>();
+			payload.put("value", value.toString());
+			AnalyticsEvent event = new AnalyticsEvent("testing", "event" + i, payload);
+			logger.logEvent(event);
+			logged.add(event);
+			// each flush ends up in a write of its own
+			logger.flush();
+		}
+		int segments = getSegments().length;
+		assertTrue(segments > 1);
+		assertEquals(logged, logger.getEvents());
+
+		// clearing the newest events can't get rid of anything, older segments still have live events
+		logger.clearEvents(logged.subList(30, 60));
+		logger.flush();
+		assertEquals(30, logger.getEvents().size());
+		assertTrue(getSegments().length >= segments);
+
+		logger.clearEvents(logged.subList(0, 30));
+		logger.flush();
+		assertEquals(0, logger.getEvents().size());
+		assertEquals(0, getSegments().length);
+	}
+
+	@Test
+	public void testTornWriteIsIgnored() throws Exception
+	{
+		List<AnalyticsEvent> logged = logEvents(5);
+		logger.flush();
+		File[] segments = getSegments();
+		assertEquals(1, segments.length);
+
+		// what a crash in the middle of a write looks like
+		FileOutputStream out = new FileOutputStream(segments[0], true);
+		try
+		{
+			out.write(new byte[] { 0, 0, 0, 42, 1, 2, 3 });
+		}
+		finally
+		{
+			out.close();
+		}
+
+		logger = new AnalyticsLogger(dir);
+		assertEquals(logged, logger.getEvents());
+
+		// and new events go on after it
+		AnalyticsEvent event = new AnalyticsEvent("testing", "afterCrash", new HashMap<String, String>());
+		logger.logEvent(event);
+		logger.flush();
+		logger = new AnalyticsLogger(dir);
+		List<AnalyticsEvent> events = logger.getEvents();
+		assertEquals(6, events.size());
+		assertEquals(event, events.get(5));
+	}
+
+	@Test
+	public void testImportsEventFilesFromEarlierVersions() throws Exception
+	{
+		AnalyticsEvent event = new AnalyticsEvent("testing", "legacy", new HashMap<String, String>());
+		File legacyFile = dir.append(event.hashCode() + ".json").toFile();
+		FileWriter writer = new FileWriter(legacyFile);
+		try
+		{
+			writer.write(event.toJSON());
+		}
+		finally
+		{
+			writer.close();
+		}
+
+		logger = new AnalyticsLogger(dir);
+		assertFalse(legacyFile.exists());
+		List<AnalyticsEvent> events = logger.getEvents();
+		assertEquals(1, events.size());
+		assertEquals(event, events.get(0));
+	}
+
+	private List<AnalyticsEvent> logEvents(int count)
+	{
+		List<AnalyticsEvent> logged = new ArrayList<AnalyticsEvent>(count);
+		for (int i = 0; i < count; i++)
+		{
+			Map<String, String> payload = new HashMap<String, String>();
+			payload.put("index", Integer.toString(i));
+			AnalyticsEvent event = new AnalyticsEvent("testing", "event" + i, payload);
+			logger.logEvent(event);
+			logged.add(event);
+		}
+		return logged;
+	}
+
+	private File[] getSegments()
+	{
+		File[] files = dir.toFile().listFiles(new FilenameFilter()
+		{
+			public boolean accept(File dir, String name)
+			{
+				return name.endsWith(".log");
+			}
+		});
+		return (files == null) ? new File[0] : files;
+	}
 }
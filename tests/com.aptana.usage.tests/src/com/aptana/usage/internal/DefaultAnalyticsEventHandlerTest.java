@@ -1,13 +1,23 @@
 package com.aptana.usage.internal;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
+import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 
+import org.eclipse.core.runtime.IPath;
 import org.jmock.Expectations;
 import org.jmock.Mockery;
 import org.jmock.lib.concurrent.Synchroniser;
@@ -16,6 +26,7 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import com.aptana.core.util.FileUtil;
 import com.aptana.usage.AnalyticsEvent;
 import com.aptana.usage.IAnalyticsLogger;
 import com.aptana.usage.IAnalyticsUser;
@@ -146,11 +157,8 @@ public class DefaultAnalyticsEventHandlerTest
 
 				never(logger).logEvent(event);
 
-				allowing(logger).getEvents();
+				allowing(logger).getEvents(with(any(int.class)));
 				will(returnValue(Collections.emptyList()));
-				
-				allowing(logger).clearEvents();
-				
 			}
 		});
 		handler.sendEventSync(event);
@@ -263,5 +271,206 @@ public class DefaultAnalyticsEventHandlerTest
 		context.assertIsSatisfied();
 	}
 
-	// TODO Add test where we have queued up events, they get sent and removed from logger!
+	@Test
+	public void testSendsQueuedEventsInBatchesAndClearsThem() throws Exception
+	{
+		HttpStandIn server = new HttpStandIn(Integer.MAX_VALUE);
+		IPath dir = FileUtil.getTempDirectory().append("events_" + System.currentTimeMillis());
+		try
+		{
+			AnalyticsLogger realLogger = new AnalyticsLogger(dir);
+			int queued = DefaultAnalyticsEventHandler.SEND_BATCH_SIZE + 20;
+			for (int i = 0; i < queued; i++)
+			{
+				realLogger.logEvent(new AnalyticsEvent("queued", "queued." + i, null));
+			}
+			expectOnlineUser();
+
+			createHandler(server, realLogger).sendEventSync(new AnalyticsEvent("ti.start", "ti.start", null));
+
+			List<String> requests = server.getRequests();
+			assertEquals(queued + 1, requests.size());
+			assertTrue(requests.get(0).startsWith("event=ti.start&"));
+			for (int i = 0; i < queued; i++)
+			{
+				assertTrue(requests.get(i + 1).startsWith("event=queued." + i + "&"));
+			}
+			assertTrue(realLogger.getEvents().isEmpty());
+			context.assertIsSatisfied();
+		}
+		finally
+		{
+			server.close();
+			FileUtil.deleteRecursively(dir.toFile());
+		}
+	}
+
+	@Test
+	public void testStopsSendingQueuedEventsAtFirstFailure() throws Exception
+	{
+		HttpStandIn server = new HttpStandIn(10);
+		IPath dir = FileUtil.getTempDirectory().append("events_" + System.currentTimeMillis());
+		try
+		{
+			AnalyticsLogger realLogger = new AnalyticsLogger(dir);
+			for (int i = 0; i < 50; i++)
+			{
+				realLogger.logEvent(new AnalyticsEvent("queued", "queued." + i, null));
+			}
+			expectOnlineUser();
+
+			createHandler(server, realLogger).sendEventSync(new AnalyticsEvent("ti.start", "ti.start", null));
+
+			// the new event and 9 queued ones went through, the 10th queued one failed
+			assertEquals(11, server.getRequests().size());
+			List<AnalyticsEvent> remaining = realLogger.getEvents();
+			assertEquals(41, remaining.size());
+			assertEquals("queued.9", remaining.get(0).getEventName());
+			context.assertIsSatisfied();
+		}
+		finally
+		{
+			server.close();
+			FileUtil.deleteRecursively(dir.toFile());
+		}
+	}
+
+	private void expectOnlineUser()
+	{
+		context.checking(new Expectations()
+		{
+			{
+				allowing(userManager).getUser();
+				will(returnValue(user));
+
+				allowing(user).getCookie();
+				will(returnValue("cookie"));
+
+				allowing(user).getGUID();
+				will(returnValue("guid"));
+
+				allowing(user).isOnline();
+				will(returnValue(true));
+			}
+		});
+	}
+
+	private DefaultAnalyticsEventHandler createHandler(HttpStandIn server, final IAnalyticsLogger realLogger)
+	{
+		return new DefaultAnalyticsEventHandler(DefaultAnalyticsEventHandler.DEFAULT_TIMEOUT, server.getURL())
+		{
+			@Override
+			protected IAnalyticsUserManager getUserManager()
+			{
+				return userManager;
+			}
+
+			@Override
+			protected IAnalyticsLogger getAnalyticsLogger()
+			{
+				return realLogger;
+			}
+		};
+	}
+
+	/**
+	 * A bare bones local HTTP server standing in for the analytics endpoint. It answers every POST with a 200 until
+	 * it has accepted the given number of them, and with a 503 from then on.
+	 */
+	private static class HttpStandIn implements Runnable
+	{
+		private final ServerSocket socket;
+		private final int accepted;
+		private final List<String> requests = Collections.synchronizedList(new ArrayList<String>());
+
+		HttpStandIn(int accepted) throws IOException
+		{
+			this.accepted = accepted;
+			this.socket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+			Thread thread = new Thread(this, "Analytics HTTP stand-in");
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		String getURL()
+		{
+			return "http://127.0.0.1:" + socket.getLocalPort() + "/app-track";
+		}
+
+		List<String> getRequests()
+		{
+			return new ArrayList<String>(requests);
+		}
+
+		void close() throws IOException
+		{
+			socket.close();
+		}
+
+		public void run()
+		{
+			while (!socket.isClosed())
+			{
+				Socket client = null;
+				try
+				{
+					client = socket.accept();
+					String body = readBody(client.getInputStream());
+					int status = (requests.size() < accepted) ? 200 : 503;
+					requests.add(body);
+					OutputStream out = client.getOutputStream();
+					out.write(("HTTP/1.1 " + status + " Stand-in\r\nContent-Length: 0\r\nConnection: close\r\n\r\n")
+							.getBytes("ASCII"));
+					out.flush();
+				}
+				catch (IOException e)
+				{
+					// closed
+				}
+				finally
+				{
+					if (client != null)
+					{
+						try
+						{
+							client.close();
+						}
+						catch (IOException e)
+						{
+						}
+					}
+				}
+			}
+		}
+
+		private static String readBody(InputStream in) throws IOException
+		{
+			int length = 0;
+			String line;
+			while ((line = readLine(in)).length() > 0)
+			{
+				if (line.toLowerCase().startsWith("content-length:"))
+				{
+					length = Integer.parseInt(line.substring("content-length:".length()).trim());
+				}
+			}
+			byte[] body = new byte[length];
+			new DataInputStream(in).readFully(body);
+			return new String(body, "UTF-8");
+		}
+
+		private static String readLine(InputStream in) throws IOException
+		{
+			StringBuilder line = new StringBuilder();
+			int c;
+			while ((c = in.read()) != -1 && c != '\n')
+			{
+				if (c != '\r')
+				{
+					line.append((char) c);
+				}
+			}
+			return line.toString();
+		}
+	}
 }
@@ -11,6 +11,7 @@
 
 package com.aptana.webserver.internal.core.builtin;
 
+import org.junit.After;
 import org.junit.Test;
 import static org.junit.Assert.*;
 import java.io.File;
@@ -21,6 +22,9 @@ import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
 
 import junit.framework.TestCase;
 
@@ -28,6 +32,8 @@ import org.eclipse.core.filesystem.EFS;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.NullProgressMonitor;
 
+import com.aptana.core.util.FileUtil;
+
 /**
  * @author Max Stepanov
  */
@@ -36,18 +42,22 @@ public class LocalWebServerTest
 
 	private static final String PAGE_CONTENTS = "<html><head><title>Test</title></head><body><h1>Test Page</h1></body>"; //$NON-NLS-1$
 
+	private List<File> documentRoots = new ArrayList<File>();
+
+	@After
+	public void tearDown() throws Exception
+	{
+		for (File dir : documentRoots)
+		{
+			FileUtil.deleteRecursively(dir);
+		}
+		documentRoots.clear();
+	}
+
 	@Test
 	public void testBasicGet() throws IOException, CoreException
 	{
-		File dir = File.createTempFile(getClass().getSimpleName(), "temp"); //$NON-NLS-1$
-		assertTrue(dir.delete());
-		assertTrue(dir.mkdir());
-		File file = new File(dir, "index.html"); //$NON-NLS-1$
-		assertTrue(file.createNewFile());
-		OutputStreamWriter w = new OutputStreamWriter(new FileOutputStream(file));
-		w.write(PAGE_CONTENTS);
-		w.close();
-
+		File dir = createDocumentRoot();
 		LocalWebServer webServer = null;
 		try
 		{
@@ -76,4 +86,138 @@ public class LocalWebServerTest
 			}
 		}
 	}
+
+	@Test
+	public void testConditionalGet() throws IOException, CoreException
+	{
+		File dir = createDocumentRoot();
+		LocalWebServer webServer = null;
+		try
+		{
+			webServer = new LocalWebServer(EFS.getLocalFileSystem().fromLocalFile(dir).toURI());
+			URL url = new URL(webServer.getBaseURL(), "index.html"); //$NON-NLS-1$
+			HttpURLConnection connection = openConnection(url);
+			assertEquals(HttpURLConnection.HTTP_OK, connection.getResponseCode());
+			String etag = connection.getHeaderField("ETag"); //$NON-NLS-1$
+			assertNotNull(etag);
+			assertNotNull(connection.getHeaderField("Last-Modified")); //$NON-NLS-1$
+			assertEquals(PAGE_CONTENTS, read(connection.getInputStream()));
+
+			connection = openConnection(url);
+			connection.setRequestProperty("If-None-Match", etag); //$NON-NLS-1$
+			assertEquals(HttpURLConnection.HTTP_NOT_MODIFIED, connection.getResponseCode());
+			assertEquals(etag, connection.getHeaderField("ETag")); //$NON-NLS-1$
+			connection.disconnect();
+
+			connection = openConnection(url);
+			connection.setRequestProperty("If-None-Match", "\"stale\""); //$NON-NLS-1$ //$NON-NLS-2$
+			assertEquals(HttpURLConnection.HTTP_OK, connection.getResponseCode());
+			assertEquals(PAGE_CONTENTS, read(connection.getInputStream()));
+		}
+		finally
+		{
+			if (webServer != null)
+			{
+				webServer.stop(true, new NullProgressMonitor());
+			}
+		}
+	}
+
+	@Test
+	public void testRangeGet() throws IOException, CoreException
+	{
+		File dir = createDocumentRoot();
+		LocalWebServer webServer = null;
+		try
+		{
+			webServer = new LocalWebServer(EFS.getLocalFileSystem().fromLocalFile(dir).toURI());
+			URL url = new URL(webServer.getBaseURL(), "index.html"); //$NON-NLS-1$
+			HttpURLConnection connection = openConnection(url);
+			connection.setRequestProperty("Range", "bytes=6-11"); //$NON-NLS-1$ //$NON-NLS-2$
+			assertEquals(HttpURLConnection.HTTP_PARTIAL, connection.getResponseCode());
+			assertEquals("bytes 6-11/" + PAGE_CONTENTS.length(), connection.getHeaderField("Content-Range")); //$NON-NLS-1$ //$NON-NLS-2$
+			assertEquals(PAGE_CONTENTS.substring(6, 12), read(connection.getInputStream()));
+
+			connection = openConnection(url);
+			connection.setRequestProperty("Range", "bytes=-7"); //$NON-NLS-1$ //$NON-NLS-2$
+			assertEquals(HttpURLConnection.HTTP_PARTIAL, connection.getResponseCode());
+			assertEquals(PAGE_CONTENTS.substring(PAGE_CONTENTS.length() - 7), read(connection.getInputStream()));
+
+			connection = openConnection(url);
+			connection.setRequestProperty("Range", "bytes=" + PAGE_CONTENTS.length() + "-"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			assertEquals(416, connection.getResponseCode());
+			connection.disconnect();
+		}
+		finally
+		{
+			if (webServer != null)
+			{
+				webServer.stop(true, new NullProgressMonitor());
+			}
+		}
+	}
+
+	@Test
+	public void testGzipGet() throws IOException, CoreException
+	{
+		File dir = createDocumentRoot();
+		LocalWebServer webServer = null;
+		try
+		{
+			webServer = new LocalWebServer(EFS.getLocalFileSystem().fromLocalFile(dir).toURI());
+			URL url = new URL(webServer.getBaseURL(), "index.html"); //$NON-NLS-1$
+			for (int i = 0; i < 2; ++i)
+			{
+				// second time around comes from the cache
+				HttpURLConnection connection = openConnection(url);
+				connection.setRequestProperty("Accept-Encoding", "gzip, deflate"); //$NON-NLS-1$ //$NON-NLS-2$
+				assertEquals(HttpURLConnection.HTTP_OK, connection.getResponseCode());
+				assertEquals("gzip", connection.getContentEncoding()); //$NON-NLS-1$
+				assertEquals(PAGE_CONTENTS, read(new GZIPInputStream(connection.getInputStream())));
+			}
+		}
+		finally
+		{
+			if (webServer != null)
+			{
+				webServer.stop(true, new NullProgressMonitor());
+			}
+		}
+	}
+
+	private File createDocumentRoot() throws IOException
+	{
+		File dir = File.createTempFile(getClass().getSimpleName(), "temp"); //$NON-NLS-1$
+		assertTrue(dir.delete());
+		assertTrue(dir.mkdir());
+		documentRoots.add(dir);
+		File file = new File(dir, "index.html"); //$NON-NLS-1$
+		assertTrue(file.createNewFile());
+		OutputStreamWriter w = new OutputStreamWriter(new FileOutputStream(file));
+		w.write(PAGE_CONTENTS);
+		w.close();
+		return dir;
+	}
+
+	private static HttpURLConnection openConnection(URL url) throws IOException
+	{
+		HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+		connection.setAllowUserInteraction(false);
+		connection.setUseCaches(false);
+		return connection;
+	}
+
+	private static String read(InputStream stream) throws IOException
+	{
+		InputStreamReader in = new InputStreamReader(stream);
+		StringBuffer sb = new StringBuffer();
+		int n;
+		char[] cbuf = new char[1024];
+		while ((n = in.read(cbuf)) > 0)
+		{
+			sb.append(new String(cbuf, 0, n));
+		}
+		in.close();
+		return sb.toString();
+	}
 }